@@ -25,6 +25,7 @@ import android.os.Build
 import android.os.Bundle
 import android.os.StrictMode
 import android.os.SystemClock
+import android.util.Log
 import com.github.k1rakishou.BookmarkGridViewInfo
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.ChanSettingsInfo
@@ -62,6 +63,8 @@ import com.github.k1rakishou.chan.utils.TimeUtils
 import com.github.k1rakishou.common.AndroidUtils
 import com.github.k1rakishou.common.AndroidUtils.getApplicationLabel
 import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.StartupTracer
+import com.github.k1rakishou.common.dns.DnsCache
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelector
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory
 import com.github.k1rakishou.common.dns.NormalDnsSelector
@@ -92,6 +95,7 @@ import okhttp3.Protocol
 import okhttp3.dnsoverhttps.DnsOverHttps
 import org.joda.time.Duration
 import org.joda.time.format.PeriodFormatterBuilder
+import java.io.File
 import java.io.IOException
 import java.net.InetAddress
 import java.util.IdentityHashMap
@@ -208,8 +212,10 @@ class Chan : Application(), ActivityLifecycleCallbacks {
 
     AndroidUtils.init(this)
     AppModuleAndroidUtils.init(this)
-    Logger.init(tagPrefix, isDevBuild())
+    Logger.init(tagPrefix, isDevBuild(), File(base.filesDir, LOGS_DIR_NAME))
     ChanSettings.init(createChanSettingsInfo())
+    // Toggling verbose logs restarts the app so this only needs to be set once
+    Logger.setMinLevel(if (ChanSettings.verboseLogs.get()) Log.VERBOSE else Log.INFO)
     PersistableChanState.init(createPersistableChanStateInfo())
     MpvSettings.init()
   }
@@ -269,65 +275,75 @@ class Chan : Application(), ActivityLifecycleCallbacks {
     applicationMigrationManager.performMigration(this)
 
     val okHttpProtocols = okHttpProtocols
+    val dnsCache = DnsCache(warmSetFile = File(filesDir, appConstants.dnsWarmSetFileName))
     val fileManager = provideApplicationFileManager()
     val imageSaverFileManagerWrapper =  provideImageSaverFileManagerWrapper()
     val threadDownloaderFileManagerWrapper =  provideThreadDownloaderFileManagerWrapper()
     val imageLoaderFileManagerWrapper =  provideImageLoaderFileManagerWrapper()
 
-    val themeEngine = ThemesModuleInjector.build(
-      application = this,
-      scope = applicationScope,
-      fileManager = fileManager
-    ).getThemeEngine()
-
-    themeEngine.initialize(this, TimeUtils.isHalloweenToday())
-    SpannableModuleInjector.initialize(themeEngine)
-
-    val modelComponent = ModelModuleInjector.build(
-      application = this,
-      scope = applicationScope,
-      normalDnsSelectorFactory = normalDnsCreatorFactory,
-      dnsOverHttpsSelectorFactory = dnsOverHttpsCreatorFactory,
-      protocols = NetworkModule.OkHttpProtocolList(okHttpProtocols.protocols),
-      verboseLogs = ChanSettings.verboseLogs.get(),
-      isDevFlavor = isDev,
-      isLowRamDevice = ChanSettings.isLowRamDevice(),
-      okHttpUseDnsOverHttps = ChanSettings.okHttpUseDnsOverHttps.get(),
-      appConstants = appConstants
-    )
+    val themeEngine = StartupTracer.trace("ThemeEngine") {
+      val engine = ThemesModuleInjector.build(
+        application = this,
+        scope = applicationScope,
+        fileManager = fileManager
+      ).getThemeEngine()
+
+      engine.initialize(this, TimeUtils.isHalloweenToday())
+      SpannableModuleInjector.initialize(engine)
+
+      return@trace engine
+    }
+
+    val modelComponent = StartupTracer.trace("ModelModuleInjector") {
+      ModelModuleInjector.build(
+        application = this,
+        scope = applicationScope,
+        normalDnsSelectorFactory = normalDnsCreatorFactory,
+        dnsOverHttpsSelectorFactory = dnsOverHttpsCreatorFactory,
+        dnsCache = dnsCache,
+        protocols = NetworkModule.OkHttpProtocolList(okHttpProtocols.protocols),
+        verboseLogs = ChanSettings.verboseLogs.get(),
+        isDevFlavor = isDev,
+        isLowRamDevice = ChanSettings.isLowRamDevice(),
+        okHttpUseDnsOverHttps = ChanSettings.okHttpUseDnsOverHttps.get(),
+        threadSnapshotsEnabled = ChanSettings.threadSnapshotsEnabled.get(),
+        appConstants = appConstants
+      )
+    }
 
-    // We need to start initializing ChanPostRepository first because it deletes old posts during
-    // the initialization.
     modelComponent.getChanPostRepository().initialize()
 
-    applicationComponent = DaggerApplicationComponent.builder()
-      .application(this)
-      .appContext(this)
-      .themeEngine(themeEngine)
-      .fileManager(fileManager)
-      .imageSaverFileManagerWrapper(imageSaverFileManagerWrapper)
-      .threadDownloaderFileManagerWrapper(threadDownloaderFileManagerWrapper)
-      .imageLoaderFileManagerWrapper(imageLoaderFileManagerWrapper)
-      .applicationCoroutineScope(applicationScope)
-      .normalDnsSelectorFactory(normalDnsCreatorFactory)
-      .dnsOverHttpsSelectorFactory(dnsOverHttpsCreatorFactory)
-      .okHttpProtocols(okHttpProtocols)
-      .appConstants(appConstants)
-      .modelMainComponent(modelComponent)
-      .appModule(AppModule())
-      .roomDatabaseModule(RoomDatabaseModule())
-      .gsonModule(JsonParserModule())
-      .loaderModule(LoaderModule())
-      .managerModule(ManagerModule())
-      .netModule(NetModule())
-      .repositoryModule(RepositoryModule())
-      .siteModule(SiteModule())
-      .parserModule(ParserModule())
-      .useCaseModule(UseCaseModule())
-      .build()
-      .also { component -> component.inject(this) }
-
-    appDependenciesInitializer.init()
+    applicationComponent = StartupTracer.trace("ApplicationComponent") {
+      DaggerApplicationComponent.builder()
+        .application(this)
+        .appContext(this)
+        .themeEngine(themeEngine)
+        .fileManager(fileManager)
+        .imageSaverFileManagerWrapper(imageSaverFileManagerWrapper)
+        .threadDownloaderFileManagerWrapper(threadDownloaderFileManagerWrapper)
+        .imageLoaderFileManagerWrapper(imageLoaderFileManagerWrapper)
+        .applicationCoroutineScope(applicationScope)
+        .normalDnsSelectorFactory(normalDnsCreatorFactory)
+        .dnsOverHttpsSelectorFactory(dnsOverHttpsCreatorFactory)
+        .dnsCache(dnsCache)
+        .okHttpProtocols(okHttpProtocols)
+        .appConstants(appConstants)
+        .modelMainComponent(modelComponent)
+        .appModule(AppModule())
+        .roomDatabaseModule(RoomDatabaseModule())
+        .gsonModule(JsonParserModule())
+        .loaderModule(LoaderModule())
+        .managerModule(ManagerModule())
+        .netModule(NetModule())
+        .repositoryModule(RepositoryModule())
+        .siteModule(SiteModule())
+        .parserModule(ParserModule())
+        .useCaseModule(UseCaseModule())
+        .build()
+        .also { component -> component.inject(this) }
+    }
+
+    StartupTracer.trace("AppDependenciesInitializer") { appDependenciesInitializer.init() }
     setupErrorHandlers()
   }
 
@@ -391,6 +407,7 @@ class Chan : Application(), ActivityLifecycleCallbacks {
     Thread.setDefaultUncaughtExceptionHandler { thread, e ->
       // if there's any uncaught crash stuff, just dump them to the log and exit immediately
       Logger.e(TAG, "Unhandled exception in thread: ${thread.name}", e)
+      Logger.flush()
       onUnhandledException(e)
     }
   }
@@ -586,6 +603,7 @@ class Chan : Application(), ActivityLifecycleCallbacks {
   companion object {
     private const val TAG = "Chan"
     private const val ENABLE_STRICT_MODE = false
+    private const val LOGS_DIR_NAME = "logs"
 
     private val appRunningTimeFormatter = PeriodFormatterBuilder()
       .printZeroAlways()
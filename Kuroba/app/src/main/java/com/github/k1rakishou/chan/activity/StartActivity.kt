@@ -34,6 +34,7 @@ import com.github.k1rakishou.chan.controller.Controller
 import com.github.k1rakishou.chan.core.base.ControllerHostActivity
 import com.github.k1rakishou.chan.core.di.component.activity.ActivityComponent
 import com.github.k1rakishou.chan.core.di.module.activity.ActivityModule
+import com.github.k1rakishou.chan.core.helper.AppMaintenanceScheduler
 import com.github.k1rakishou.chan.core.helper.AppRestarter
 import com.github.k1rakishou.chan.core.helper.DialogFactory
 import com.github.k1rakishou.chan.core.helper.StartActivityStartupHandlerHelper
@@ -107,6 +108,8 @@ class StartActivity : ControllerHostActivity(),
   lateinit var chanThreadViewableInfoManager: Lazy<ChanThreadViewableInfoManager>
   @Inject
   lateinit var updateManager: Lazy<UpdateManager>
+  @Inject
+  lateinit var appMaintenanceScheduler: Lazy<AppMaintenanceScheduler>
 
   private val compositeDisposable = CompositeDisposable()
   private var intentMismatchWorkaroundActive = false
@@ -150,6 +153,9 @@ class StartActivity : ControllerHostActivity(),
     val createUiTime = measureTime { createUi() }
     Logger.d(TAG, "createUi took $createUiTime")
 
+    // Posted runnables are executed after the first layout/draw pass
+    contentView.post { appMaintenanceScheduler.get().onFirstFrameDrawn() }
+
     imagePickHelper.onActivityCreated(this)
     appRestarter.attachActivity(this)
 
@@ -1,5 +1,7 @@
 package com.github.k1rakishou.chan.core
 
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.helper.AppMaintenanceScheduler
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
@@ -10,7 +12,10 @@ import com.github.k1rakishou.chan.core.manager.ThreadBookmarkGroupManager
 import com.github.k1rakishou.chan.core.watcher.BookmarkWatcherCoordinator
 import com.github.k1rakishou.chan.core.watcher.FilterWatcherCoordinator
 import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingCoordinator
+import com.github.k1rakishou.common.StartupTracer
 import com.github.k1rakishou.model.data.site.ChanSiteData
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import dagger.Lazy
 import kotlinx.coroutines.CompletableDeferred
 
 class AppDependenciesInitializer(
@@ -23,27 +28,44 @@ class AppDependenciesInitializer(
   private val filterWatcherCoordinator: FilterWatcherCoordinator,
   private val archivesManager: ArchivesManager,
   private val chanFilterManager: ChanFilterManager,
-  private val threadDownloadingCoordinator: ThreadDownloadingCoordinator
+  private val threadDownloadingCoordinator: ThreadDownloadingCoordinator,
+  private val chanPostRepository: ChanPostRepository,
+  private val cacheHandler: Lazy<CacheHandler>,
+  private val appMaintenanceScheduler: AppMaintenanceScheduler
 ) {
 
   fun init() {
     val allSitesDeferred = CompletableDeferred<List<ChanSiteData>>()
 
-    siteManager.initialize(allSitesDeferred)
-    boardManager.initialize(allSitesDeferred)
+    StartupTracer.trace("SiteManager.initialize") { siteManager.initialize(allSitesDeferred) }
+    StartupTracer.trace("BoardManager.initialize") { boardManager.initialize(allSitesDeferred) }
 
     // threadBookmarkGroupManager must be initialized before bookmarksManager because it listens
     // for events from bookmarksManager
-    threadBookmarkGroupManager.initialize()
-    bookmarksManager.initialize()
-    historyNavigationManager.initialize()
+    StartupTracer.trace("ThreadBookmarkGroupManager.initialize") { threadBookmarkGroupManager.initialize() }
+    StartupTracer.trace("BookmarksManager.initialize") { bookmarksManager.initialize() }
+    StartupTracer.trace("HistoryNavigationManager.initialize") { historyNavigationManager.initialize() }
 
-    bookmarkWatcherCoordinator.initialize()
-    filterWatcherCoordinator.initialize()
-    threadDownloadingCoordinator.initialize()
+    StartupTracer.trace("BookmarkWatcherCoordinator.initialize") { bookmarkWatcherCoordinator.initialize() }
+    StartupTracer.trace("FilterWatcherCoordinator.initialize") { filterWatcherCoordinator.initialize() }
+    StartupTracer.trace("ThreadDownloadingCoordinator.initialize") { threadDownloadingCoordinator.initialize() }
 
-    archivesManager.initialize()
-    chanFilterManager.initialize()
+    StartupTracer.trace("ArchivesManager.initialize") { archivesManager.initialize() }
+    StartupTracer.trace("ChanFilterManager.initialize") { chanFilterManager.initialize() }
+
+    scheduleMaintenanceTasks()
+  }
+
+  private fun scheduleMaintenanceTasks() {
+    appMaintenanceScheduler.schedule("Delete old posts and threads") {
+      chanPostRepository.deleteOldPostsAndThreadsIfNeeded()
+    }
+
+    appMaintenanceScheduler.schedule("Disk cache maintenance") {
+      cacheHandler.get().performDeferredMaintenance()
+    }
+
+    appMaintenanceScheduler.start()
   }
 
-}
\ No newline at end of file
+}
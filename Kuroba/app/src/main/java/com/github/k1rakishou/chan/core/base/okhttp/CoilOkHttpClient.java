@@ -3,14 +3,10 @@ package com.github.k1rakishou.chan.core.base.okhttp;
 import android.content.Context;
 
 import com.github.k1rakishou.ChanSettings;
-import com.github.k1rakishou.chan.Chan;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
 import com.github.k1rakishou.chan.core.manager.FirewallBypassManager;
 import com.github.k1rakishou.chan.core.net.KurobaProxySelector;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
-import com.github.k1rakishou.common.dns.CompositeDnsSelector;
-import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
-import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -22,9 +18,7 @@ import okhttp3.OkHttpClient;
 
 public class CoilOkHttpClient implements CustomOkHttpClient {
     private final Context applicationContext;
-    private final NormalDnsSelectorFactory normalDnsSelectorFactory;
-    private final DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory;
-    private final Chan.OkHttpProtocols okHttpProtocols;
+    private final SharedOkHttpTransport sharedOkHttpTransport;
     private final HttpLoggingInterceptorLazy httpLoggingInterceptorLazy;
     private final ProxyStorage proxyStorage;
     private final SiteResolver siteResolver;
@@ -35,18 +29,14 @@ public class CoilOkHttpClient implements CustomOkHttpClient {
     @Inject
     public CoilOkHttpClient(
             Context applicationContext,
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            Chan.OkHttpProtocols okHttpProtocols,
+            SharedOkHttpTransport sharedOkHttpTransport,
             ProxyStorage proxyStorage,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
             FirewallBypassManager firewallBypassManager
     ) {
         this.applicationContext = applicationContext;
-        this.normalDnsSelectorFactory = normalDnsSelectorFactory;
-        this.dnsOverHttpsSelectorFactory = dnsOverHttpsSelectorFactory;
-        this.okHttpProtocols = okHttpProtocols;
+        this.sharedOkHttpTransport = sharedOkHttpTransport;
         this.proxyStorage = proxyStorage;
         this.httpLoggingInterceptorLazy = httpLoggingInterceptorLazy;
         this.siteResolver = siteResolver;
@@ -71,23 +61,12 @@ public class CoilOkHttpClient implements CustomOkHttpClient {
                             "Coil"
                     );
 
-                    OkHttpClient.Builder builder = new OkHttpClient.Builder()
-                            .protocols(okHttpProtocols.getProtocols())
+                    OkHttpClient.Builder builder = sharedOkHttpTransport.newClientBuilder(TrafficClass.Thumbnail)
                             .proxySelector(kurobaProxySelector)
                             .addNetworkInterceptor(interceptor);
 
                     HttpLoggingInterceptorInstaller.install(builder, httpLoggingInterceptorLazy);
-                    OkHttpClient okHttpClient = builder.build();
-
-                    CompositeDnsSelector compositeDnsSelector = new CompositeDnsSelector(
-                            okHttpClient,
-                            ChanSettings.okHttpUseDnsOverHttps.get(),
-                            normalDnsSelectorFactory,
-                            dnsOverHttpsSelectorFactory
-                    );
-
-                    coilClient = okHttpClient.newBuilder()
-                            .dns(compositeDnsSelector)
+                    coilClient = builder
                             .addNetworkInterceptor(new GzipInterceptor())
                             .build();
                 }
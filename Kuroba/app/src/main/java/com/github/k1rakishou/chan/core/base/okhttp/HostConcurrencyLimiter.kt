@@ -0,0 +1,77 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Limits the amount of concurrent requests per (host, [TrafficClass]) pair. Shared by all the
+ * OkHttp clients (see [SharedOkHttpTransport]) so the limits apply to the whole app and not to
+ * every client separately.
+ * */
+class HostConcurrencyLimiter(
+  private val maxWaitTimeMs: Long = DEFAULT_MAX_WAIT_TIME_MS,
+  private val maxConcurrentRequests: (TrafficClass) -> Int = { trafficClass -> trafficClass.maxConcurrentRequestsPerHost }
+) {
+  private val semaphores = ConcurrentHashMap<HostKey, Semaphore>()
+
+  /**
+   * Blocks until a permit for [host] and [trafficClass] is available. Returns null if the request
+   * was canceled while waiting. If waiting takes longer than [maxWaitTimeMs] (which may only
+   * happen when someone forgot to close a response body) a no-op permit is returned so that
+   * requests never get stuck forever.
+   * */
+  fun acquire(host: String, trafficClass: TrafficClass, isCanceled: () -> Boolean): Permit? {
+    val semaphore = semaphores.computeIfAbsent(HostKey(host, trafficClass)) {
+      Semaphore(maxConcurrentRequests(trafficClass).coerceAtLeast(1), true)
+    }
+
+    val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitTimeMs)
+
+    while (true) {
+      if (isCanceled()) {
+        return null
+      }
+
+      if (semaphore.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+        return Permit(semaphore)
+      }
+
+      if (System.nanoTime() >= deadline) {
+        return Permit(null)
+      }
+    }
+  }
+
+  fun activeRequests(host: String, trafficClass: TrafficClass): Int {
+    val semaphore = semaphores[HostKey(host, trafficClass)]
+      ?: return 0
+
+    return maxConcurrentRequests(trafficClass).coerceAtLeast(1) - semaphore.availablePermits()
+  }
+
+  class Permit(private val semaphore: Semaphore?) {
+    private val released = AtomicBoolean(false)
+
+    val acquired: Boolean
+      get() = semaphore != null
+
+    fun release() {
+      if (released.compareAndSet(false, true)) {
+        semaphore?.release()
+      }
+    }
+  }
+
+  private data class HostKey(
+    val host: String,
+    val trafficClass: TrafficClass
+  )
+
+  companion object {
+    private const val POLL_INTERVAL_MS = 100L
+    private const val DEFAULT_MAX_WAIT_TIME_MS = 60_000L
+  }
+
+}
@@ -0,0 +1,99 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import com.github.k1rakishou.core_logger.Logger
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.buffer
+import java.io.IOException
+
+/**
+ * Application interceptor that holds a [HostConcurrencyLimiter] permit for the whole duration of
+ * a request, including reading the response body (media responses are streamed long after the
+ * interceptor chain returns). The permit is released once the body is either fully read or
+ * closed.
+ * */
+class HostConcurrencyLimiterInterceptor(
+  private val hostConcurrencyLimiter: HostConcurrencyLimiter,
+  private val defaultTrafficClass: TrafficClass
+) : Interceptor {
+
+  override fun intercept(chain: Interceptor.Chain): Response {
+    val request = chain.request()
+    val trafficClass = request.tag(TrafficClass::class.java) ?: defaultTrafficClass
+    val host = request.url.host
+
+    val permit = hostConcurrencyLimiter.acquire(host, trafficClass) { chain.call().isCanceled() }
+      ?: throw IOException("Canceled")
+
+    if (!permit.acquired) {
+      Logger.e(TAG, "Timed out waiting for a permit for host '${host}' (${trafficClass}), " +
+        "some response was probably not closed")
+    }
+
+    val response = try {
+      chain.proceed(request)
+    } catch (error: Throwable) {
+      permit.release()
+      throw error
+    }
+
+    val body = response.body
+    if (body == null) {
+      permit.release()
+      return response
+    }
+
+    return response.newBuilder()
+      .body(PermitReleasingResponseBody(body, permit))
+      .build()
+  }
+
+  private class PermitReleasingResponseBody(
+    private val delegate: ResponseBody,
+    private val permit: HostConcurrencyLimiter.Permit
+  ) : ResponseBody() {
+
+    private val bufferedSource by lazy {
+      object : ForwardingSource(delegate.source()) {
+        override fun read(sink: Buffer, byteCount: Long): Long {
+          val read = try {
+            super.read(sink, byteCount)
+          } catch (error: Throwable) {
+            permit.release()
+            throw error
+          }
+
+          if (read < 0) {
+            permit.release()
+          }
+
+          return read
+        }
+
+        override fun close() {
+          permit.release()
+          super.close()
+        }
+      }.buffer()
+    }
+
+    override fun contentType(): MediaType? = delegate.contentType()
+    override fun contentLength(): Long = delegate.contentLength()
+    override fun source(): BufferedSource = bufferedSource
+
+    override fun close() {
+      permit.release()
+      delegate.close()
+    }
+  }
+
+  companion object {
+    private const val TAG = "HostConcurrencyLimiterInterceptor"
+  }
+
+}
@@ -3,14 +3,10 @@ package com.github.k1rakishou.chan.core.base.okhttp;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.github.k1rakishou.ChanSettings;
-import com.github.k1rakishou.chan.Chan;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
 import com.github.k1rakishou.chan.core.manager.FirewallBypassManager;
 import com.github.k1rakishou.chan.core.net.KurobaProxySelector;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
-import com.github.k1rakishou.common.dns.CompositeDnsSelector;
-import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
-import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -23,9 +19,7 @@ import okhttp3.OkHttpClient;
 public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
     private OkHttpClient proxiedClient;
 
-    private final NormalDnsSelectorFactory normalDnsSelectorFactory;
-    private final DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory;
-    private final Chan.OkHttpProtocols okHttpProtocols;
+    private final SharedOkHttpTransport sharedOkHttpTransport;
     private final ProxyStorage proxyStorage;
     private final HttpLoggingInterceptorLazy httpLoggingInterceptorLazy;
     private final SiteResolver siteResolver;
@@ -33,17 +27,13 @@ public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
 
     @Inject
     public RealProxiedOkHttpClient(
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            Chan.OkHttpProtocols okHttpProtocols,
+            SharedOkHttpTransport sharedOkHttpTransport,
             ProxyStorage proxyStorage,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
             FirewallBypassManager firewallBypassManager
     ) {
-        this.normalDnsSelectorFactory = normalDnsSelectorFactory;
-        this.dnsOverHttpsSelectorFactory = dnsOverHttpsSelectorFactory;
-        this.okHttpProtocols = okHttpProtocols;
+        this.sharedOkHttpTransport = sharedOkHttpTransport;
         this.proxyStorage = proxyStorage;
         this.httpLoggingInterceptorLazy = httpLoggingInterceptorLazy;
         this.siteResolver = siteResolver;
@@ -69,26 +59,15 @@ public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
                     );
 
                     // Proxies are usually slow, so they have increased timeouts
-                    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    OkHttpClient.Builder builder = sharedOkHttpTransport.newClientBuilder(TrafficClass.Api)
                             .connectTimeout(30, SECONDS)
                             .readTimeout(30, SECONDS)
                             .writeTimeout(30, SECONDS)
-                            .protocols(okHttpProtocols.getProtocols())
                             .proxySelector(kurobaProxySelector)
                             .addNetworkInterceptor(interceptor);
 
                     HttpLoggingInterceptorInstaller.install(builder, httpLoggingInterceptorLazy);
-                    OkHttpClient okHttpClient = builder.build();
-
-                    CompositeDnsSelector compositeDnsSelector = new CompositeDnsSelector(
-                            okHttpClient,
-                            ChanSettings.okHttpUseDnsOverHttps.get(),
-                            normalDnsSelectorFactory,
-                            dnsOverHttpsSelectorFactory
-                    );
-
-                    proxiedClient = okHttpClient.newBuilder()
-                            .dns(compositeDnsSelector)
+                    proxiedClient = builder
                             .addNetworkInterceptor(new GzipInterceptor())
                             .build();
                 }
@@ -0,0 +1,70 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.Chan
+import com.github.k1rakishou.common.dns.CompositeDnsSelector
+import com.github.k1rakishou.common.dns.DnsCache
+import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory
+import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import java.util.concurrent.TimeUnit
+
+/**
+ * The part of the OkHttp clients that is shared between all of them: the connection pool (so that
+ * API requests, thumbnails and full media of the same host reuse the same connections), the DNS
+ * layer (backed by the [DnsCache]), the per host concurrency limits and the request telemetry.
+ *
+ * Every client builds itself on top of [newClientBuilder] and adds its own timeouts, proxies and
+ * interceptors.
+ * */
+class SharedOkHttpTransport(
+  private val normalDnsSelectorFactory: NormalDnsSelectorFactory,
+  private val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
+  val dnsCache: DnsCache,
+  private val okHttpProtocols: Chan.OkHttpProtocols,
+  val hostConcurrencyLimiter: HostConcurrencyLimiter,
+  val transportTelemetry: TransportTelemetry
+) {
+
+  private val baseClient by lazy {
+    OkHttpClient.Builder()
+      .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+      .protocols(okHttpProtocols.protocols)
+      .eventListenerFactory(transportTelemetry.eventListenerFactory)
+      .build()
+  }
+
+  private val compositeDnsSelector by lazy {
+    val compositeDnsSelector = CompositeDnsSelector(
+      baseClient,
+      ChanSettings.okHttpUseDnsOverHttps.get(),
+      normalDnsSelectorFactory,
+      dnsOverHttpsSelectorFactory,
+      dnsCache
+    )
+
+    compositeDnsSelector.restoreWarmSet()
+    return@lazy compositeDnsSelector
+  }
+
+  fun newClientBuilder(defaultTrafficClass: TrafficClass): OkHttpClient.Builder {
+    // Every client gets its own dispatcher, otherwise all the async calls of all the clients would
+    // be limited by a single maxRequestsPerHost. Per host limits are handled by HostConcurrencyLimiter.
+    val dispatcher = Dispatcher()
+    dispatcher.maxRequestsPerHost = MAX_DISPATCHER_REQUESTS_PER_HOST
+
+    return baseClient.newBuilder()
+      .dispatcher(dispatcher)
+      .dns(compositeDnsSelector)
+      .addInterceptor(HostConcurrencyLimiterInterceptor(hostConcurrencyLimiter, defaultTrafficClass))
+  }
+
+  companion object {
+    private const val MAX_IDLE_CONNECTIONS = 16
+    private const val KEEP_ALIVE_DURATION_MINUTES = 5L
+    private const val MAX_DISPATCHER_REQUESTS_PER_HOST = 16
+  }
+
+}
@@ -0,0 +1,22 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import okhttp3.Request
+
+/**
+ * Kind of traffic a request belongs to. Every kind has its own limit of concurrent requests per
+ * host (see [HostConcurrencyLimiter]) so that, for example, prefetching a whole thread worth of
+ * media never takes the connections away from the catalog/thread API requests.
+ *
+ * Every client has a default traffic class, use [Request.Builder.trafficClass] to override it for
+ * a specific request.
+ * */
+enum class TrafficClass(val maxConcurrentRequestsPerHost: Int) {
+  Api(6),
+  Thumbnail(6),
+  Media(4),
+  Prefetch(2)
+}
+
+fun Request.Builder.trafficClass(trafficClass: TrafficClass): Request.Builder {
+  return tag(TrafficClass::class.java, trafficClass)
+}
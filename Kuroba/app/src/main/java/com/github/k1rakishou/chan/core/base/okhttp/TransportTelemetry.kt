@@ -0,0 +1,257 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Protocol
+import okhttp3.Request
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Collects per host timings (DNS, connect, TLS, time to first byte and the whole call) of all the
+ * requests sent through the [SharedOkHttpTransport] clients. Can be viewed in the developer
+ * settings.
+ * */
+class TransportTelemetry(
+  private val maxHosts: Int = DEFAULT_MAX_HOSTS
+) {
+  private val hostTimingsMap = ConcurrentHashMap<String, HostTimings>()
+
+  val eventListenerFactory = EventListener.Factory { call -> CallTimingsListener(call.request().url.host) }
+
+  fun snapshot(): List<HostTimingsSnapshot> {
+    return hostTimingsMap.entries
+      .map { (host, hostTimings) -> hostTimings.snapshot(host) }
+      .sortedByDescending { hostTimingsSnapshot -> hostTimingsSnapshot.calls }
+  }
+
+  fun reset() {
+    hostTimingsMap.clear()
+  }
+
+  fun format(): String {
+    val snapshots = snapshot()
+    if (snapshots.isEmpty()) {
+      return "No requests yet"
+    }
+
+    return snapshots.joinToString(separator = "\n\n") { hostTimingsSnapshot -> hostTimingsSnapshot.format() }
+  }
+
+  private fun hostTimings(host: String): HostTimings {
+    val existing = hostTimingsMap[host]
+    if (existing != null) {
+      return existing
+    }
+
+    // Do not let the map grow indefinitely when browsing lots of different sites
+    val key = if (hostTimingsMap.size >= maxHosts) OTHER_HOSTS else host
+    return hostTimingsMap.computeIfAbsent(key) { HostTimings() }
+  }
+
+  private inner class CallTimingsListener(private val host: String) : EventListener() {
+    private var callStartNs = 0L
+    private var dnsStartNs = 0L
+    private var connectStartNs = 0L
+    private var secureConnectStartNs = 0L
+    private var requestSentNs = 0L
+
+    private var dnsNs = -1L
+    private var connectNs = -1L
+    private var tlsNs = -1L
+    private var ttfbNs = -1L
+    private var connectionReused = false
+
+    override fun callStart(call: Call) {
+      callStartNs = System.nanoTime()
+    }
+
+    override fun dnsStart(call: Call, domainName: String) {
+      dnsStartNs = System.nanoTime()
+    }
+
+    override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+      dnsNs = System.nanoTime() - dnsStartNs
+    }
+
+    override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+      connectStartNs = System.nanoTime()
+    }
+
+    override fun secureConnectStart(call: Call) {
+      secureConnectStartNs = System.nanoTime()
+    }
+
+    override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+      tlsNs = System.nanoTime() - secureConnectStartNs
+    }
+
+    override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+      connectNs = System.nanoTime() - connectStartNs
+    }
+
+    override fun connectionAcquired(call: Call, connection: Connection) {
+      connectionReused = connectStartNs == 0L
+    }
+
+    override fun requestHeadersEnd(call: Call, request: Request) {
+      requestSentNs = System.nanoTime()
+    }
+
+    override fun requestBodyEnd(call: Call, byteCount: Long) {
+      requestSentNs = System.nanoTime()
+    }
+
+    override fun responseHeadersStart(call: Call) {
+      if (requestSentNs > 0L) {
+        ttfbNs = System.nanoTime() - requestSentNs
+      }
+    }
+
+    override fun callEnd(call: Call) {
+      record(failed = false)
+    }
+
+    override fun callFailed(call: Call, ioe: IOException) {
+      record(failed = true)
+    }
+
+    private fun record(failed: Boolean) {
+      val totalNs = System.nanoTime() - callStartNs
+
+      hostTimings(host).record(
+        failed = failed,
+        connectionReused = connectionReused,
+        dnsNs = dnsNs,
+        connectNs = connectNs,
+        tlsNs = tlsNs,
+        ttfbNs = ttfbNs,
+        totalNs = totalNs
+      )
+    }
+  }
+
+  private class HostTimings {
+    private var calls = 0L
+    private var failures = 0L
+    private var reusedConnections = 0L
+
+    private val dns = TimingAccumulator()
+    private val connect = TimingAccumulator()
+    private val tls = TimingAccumulator()
+    private val ttfb = TimingAccumulator()
+    private val total = TimingAccumulator()
+
+    @Synchronized
+    fun record(
+      failed: Boolean,
+      connectionReused: Boolean,
+      dnsNs: Long,
+      connectNs: Long,
+      tlsNs: Long,
+      ttfbNs: Long,
+      totalNs: Long
+    ) {
+      ++calls
+
+      if (failed) {
+        ++failures
+      }
+
+      if (connectionReused) {
+        ++reusedConnections
+      }
+
+      dns.add(dnsNs)
+      connect.add(connectNs)
+      tls.add(tlsNs)
+      ttfb.add(ttfbNs)
+      total.add(totalNs)
+    }
+
+    @Synchronized
+    fun snapshot(host: String): HostTimingsSnapshot {
+      return HostTimingsSnapshot(
+        host = host,
+        calls = calls,
+        failures = failures,
+        reusedConnections = reusedConnections,
+        dns = dns.snapshot(),
+        connect = connect.snapshot(),
+        tls = tls.snapshot(),
+        ttfb = ttfb.snapshot(),
+        total = total.snapshot()
+      )
+    }
+  }
+
+  private class TimingAccumulator {
+    private var count = 0L
+    private var sumNs = 0L
+    private var maxNs = 0L
+
+    fun add(valueNs: Long) {
+      if (valueNs < 0L) {
+        return
+      }
+
+      ++count
+      sumNs += valueNs
+      maxNs = maxOf(maxNs, valueNs)
+    }
+
+    fun snapshot(): TimingSnapshot {
+      val avgMs = if (count == 0L) 0L else TimeUnit.NANOSECONDS.toMillis(sumNs / count)
+      return TimingSnapshot(count = count, avgMs = avgMs, maxMs = TimeUnit.NANOSECONDS.toMillis(maxNs))
+    }
+  }
+
+  data class TimingSnapshot(
+    val count: Long,
+    val avgMs: Long,
+    val maxMs: Long
+  ) {
+    fun format(): String {
+      if (count == 0L) {
+        return "-"
+      }
+
+      return "avg ${avgMs}ms, max ${maxMs}ms (${count})"
+    }
+  }
+
+  data class HostTimingsSnapshot(
+    val host: String,
+    val calls: Long,
+    val failures: Long,
+    val reusedConnections: Long,
+    val dns: TimingSnapshot,
+    val connect: TimingSnapshot,
+    val tls: TimingSnapshot,
+    val ttfb: TimingSnapshot,
+    val total: TimingSnapshot
+  ) {
+    fun format(): String {
+      return buildString {
+        appendLine("${host}: calls=${calls}, failures=${failures}, reusedConnections=${reusedConnections}")
+        appendLine("  dns: ${dns.format()}")
+        appendLine("  connect: ${connect.format()}")
+        appendLine("  tls: ${tls.format()}")
+        appendLine("  ttfb: ${ttfb.format()}")
+        append("  total: ${total.format()}")
+      }
+    }
+  }
+
+  companion object {
+    private const val DEFAULT_MAX_HOSTS = 64
+    private const val OTHER_HOSTS = "<other>"
+  }
+
+}
@@ -17,6 +17,7 @@
 package com.github.k1rakishou.chan.core.cache
 
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.helper.AppMaintenanceScheduler
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.AppConstants
@@ -54,6 +55,7 @@ class CacheHandler(
 ) {
   private val innerCaches = ConcurrentHashMap<CacheFileType, InnerCache>()
   private val cacheHandlerDispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
+  private val createdAt = System.currentTimeMillis()
 
   init {
     val duration = measureTime { init() }
@@ -290,6 +292,19 @@ class CacheHandler(
     return getInnerCacheByFileType(cacheFileType).deleteCacheFile(cacheFile.name)
   }
 
+  /**
+   * Recalculates the size of every cache directory and deletes leftover file chunks from previous
+   * app runs. Used to be executed right when the CacheHandler was created, now it's executed by
+   * [AppMaintenanceScheduler] once the app has started.
+   * */
+  fun performDeferredMaintenance() {
+    BackgroundUtils.ensureBackgroundThread()
+
+    innerCaches.values.forEach { innerCache ->
+      innerCache.performDeferredMaintenance(deleteChunksOlderThan = createdAt)
+    }
+  }
+
   private fun getInnerCacheByFileType(cacheFileType: CacheFileType): InnerCache {
     return innerCaches[cacheFileType]!!
   }
@@ -80,9 +80,11 @@ internal class InnerCache(
   init {
     Logger.d(TAG, "cacheFileType=$cacheFileType, " +
       "fileCacheDiskSize=${ChanPostUtils.getReadableFileSize(fileCacheDiskSizeBytes)}")
+  }
 
-    backgroundRecalculateSize()
-    backgroundClearChunksCacheDir()
+  fun performDeferredMaintenance(deleteChunksOlderThan: Long) {
+    recalculateSize()
+    clearChunksCacheDirInternal(deleteChunksOlderThan)
   }
 
   fun getSize(): Long {
@@ -697,38 +699,35 @@ internal class InnerCache(
     }
   }
 
-  private fun backgroundClearChunksCacheDir() {
-    if (trimChunksRunning.compareAndSet(false, true)) {
-      executor.execute { clearChunksCacheDirInternal() }
+  /**
+   * Chunks of active downloads may already exist at this point so we only delete chunks created
+   * before [olderThan].
+   * */
+  private fun clearChunksCacheDirInternal(olderThan: Long) {
+    if (!trimChunksRunning.compareAndSet(false, true)) {
+      return
     }
-  }
 
-  private fun clearChunksCacheDirInternal() {
     try {
       Logger.d(TAG, "clearChunksCacheDirInternal() start")
+      var deletedCount = 0
 
       cacheHandlerSynchronizer.withGlobalLock {
         if (chunksCacheDirFile.exists()) {
-          chunksCacheDirFile.listFiles()?.forEach { file -> file.delete() }
+          chunksCacheDirFile.listFiles()?.forEach { file ->
+            if (file.lastModified() < olderThan && file.delete()) {
+              ++deletedCount
+            }
+          }
         }
       }
 
-      Logger.d(TAG, "clearChunksCacheDirInternal() end")
+      Logger.d(TAG, "clearChunksCacheDirInternal() end, deletedCount=$deletedCount")
     } finally {
       trimChunksRunning.set(false)
     }
   }
 
-  private fun backgroundRecalculateSize() {
-    if (recalculationRunning.get()) {
-      return
-    }
-
-    executor.execute {
-      recalculateSize()
-    }
-  }
-
   @OptIn(ExperimentalTime::class)
   private fun recalculateSize() {
     var calculatedSize: Long = 0
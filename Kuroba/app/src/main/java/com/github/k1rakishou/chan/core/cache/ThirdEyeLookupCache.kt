@@ -0,0 +1,287 @@
+package com.github.k1rakishou.chan.core.cache
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruImageInfo
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruLookupResult
+import com.github.k1rakishou.chan.features.thirdeye.data.ThirdEyeLookupCacheEntryJson
+import com.github.k1rakishou.chan.features.thirdeye.data.ThirdEyeLookupCacheJson
+import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.core_logger.Logger
+import com.squareup.moshi.Moshi
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okio.buffer
+import okio.sink
+import okio.source
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Persistent cache of the ThirdEye lookups keyed by (booru, image hash). Both positive (the image
+ * was found) and negative (not found/has a banned tag) results are cached, each kind with its own
+ * TTL, so that the same hashes are not looked up again after the app is restarted or the thread
+ * is reloaded. Failed lookups are never cached.
+ *
+ * Entries are loaded from disk on the first access and written back (debounced) after changes.
+ * */
+class ThirdEyeLookupCache(
+  appScope: CoroutineScope,
+  private val moshi: Moshi,
+  private val cacheFile: File,
+  private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+  private val currentTimeMillis: () -> Long = { System.currentTimeMillis() }
+) {
+  private val mutex = Mutex()
+  private val persistExecutor = DebouncingCoroutineExecutor(appScope)
+
+  // Insertion order is the storing order so the oldest entries are always at the beginning
+  @GuardedBy("mutex")
+  private val entries = LinkedHashMap<LookupKey, CachedLookup>(128)
+  @GuardedBy("mutex")
+  private var loaded = false
+
+  suspend fun get(booruKey: String, imageHash: String): BooruLookupResult? {
+    return mutex.withLock {
+      loadIfNeeded()
+
+      val lookupKey = LookupKey(booruKey, imageHash.lowercase())
+      val cachedLookup = entries[lookupKey]
+        ?: return@withLock null
+
+      if (cachedLookup.isExpired(currentTimeMillis())) {
+        entries.remove(lookupKey)
+        return@withLock null
+      }
+
+      return@withLock cachedLookup.result
+    }
+  }
+
+  suspend fun put(booruKey: String, imageHash: String, result: BooruLookupResult) {
+    if (result is BooruLookupResult.Failed) {
+      return
+    }
+
+    mutex.withLock {
+      loadIfNeeded()
+
+      val lookupKey = LookupKey(booruKey, imageHash.lowercase())
+
+      // Remove first so that the entry is moved to the end of the map
+      entries.remove(lookupKey)
+      entries[lookupKey] = CachedLookup(result, currentTimeMillis())
+
+      trimToSize()
+    }
+
+    persistExecutor.post(PERSIST_DEBOUNCE_MS) { persist() }
+  }
+
+  suspend fun clear() {
+    mutex.withLock {
+      entries.clear()
+      loaded = true
+    }
+
+    persistExecutor.post(PERSIST_DEBOUNCE_MS) { persist() }
+  }
+
+  @GuardedBy("mutex")
+  private fun trimToSize() {
+    if (entries.size <= maxEntries) {
+      return
+    }
+
+    val iterator = entries.entries.iterator()
+    var toRemove = entries.size - maxEntries
+
+    while (toRemove > 0 && iterator.hasNext()) {
+      iterator.next()
+      iterator.remove()
+      --toRemove
+    }
+  }
+
+  @GuardedBy("mutex")
+  private suspend fun loadIfNeeded() {
+    if (loaded) {
+      return
+    }
+
+    loaded = true
+
+    val loadedEntries = withContext(Dispatchers.IO) {
+      try {
+        return@withContext readCacheFile()
+      } catch (error: Throwable) {
+        Logger.e(TAG, "readCacheFile() error", error)
+        cacheFile.delete()
+        return@withContext emptyList()
+      }
+    }
+
+    val now = currentTimeMillis()
+    var expired = 0
+
+    loadedEntries
+      .sortedBy { entryJson -> entryJson.storedAt }
+      .forEach { entryJson ->
+        val cachedLookup = fromJson(entryJson)
+        if (cachedLookup == null || cachedLookup.isExpired(now)) {
+          ++expired
+          return@forEach
+        }
+
+        entries[LookupKey(entryJson.booruKey, entryJson.imageHash)] = cachedLookup
+      }
+
+    trimToSize()
+    Logger.d(TAG, "loadIfNeeded() loaded ${entries.size} entries, skipped ${expired} expired entries")
+  }
+
+  private fun readCacheFile(): List<ThirdEyeLookupCacheEntryJson> {
+    if (!cacheFile.exists()) {
+      return emptyList()
+    }
+
+    val cacheJson = cacheFile.source().buffer().use { bufferedSource ->
+      moshi.adapter(ThirdEyeLookupCacheJson::class.java).fromJson(bufferedSource)
+    }
+
+    if (cacheJson == null) {
+      throw IOException("Failed to convert cacheFile into json data!")
+    }
+
+    return cacheJson.entries
+  }
+
+  private suspend fun persist() {
+    val cacheJson = mutex.withLock {
+      val entriesJson = mutableListWithCap<ThirdEyeLookupCacheEntryJson>(entries.size)
+
+      entries.entries.forEach { (lookupKey, cachedLookup) ->
+        entriesJson += toJson(lookupKey, cachedLookup)
+      }
+
+      return@withLock ThirdEyeLookupCacheJson(entriesJson)
+    }
+
+    withContext(Dispatchers.IO) {
+      try {
+        val tmpFile = File(cacheFile.parentFile, "${cacheFile.name}.tmp")
+
+        tmpFile.sink().buffer().use { bufferedSink ->
+          moshi.adapter(ThirdEyeLookupCacheJson::class.java).toJson(bufferedSink, cacheJson)
+        }
+
+        if (!tmpFile.renameTo(cacheFile)) {
+          throw IOException("Failed to rename \'${tmpFile.absolutePath}\' into \'${cacheFile.absolutePath}\'")
+        }
+      } catch (error: Throwable) {
+        Logger.e(TAG, "persist() error", error)
+      }
+    }
+  }
+
+  private fun toJson(lookupKey: LookupKey, cachedLookup: CachedLookup): ThirdEyeLookupCacheEntryJson {
+    return when (val result = cachedLookup.result) {
+      is BooruLookupResult.Found -> {
+        ThirdEyeLookupCacheEntryJson(
+          booruKey = lookupKey.booruKey,
+          imageHash = lookupKey.imageHash,
+          result = ThirdEyeLookupCacheEntryJson.RESULT_FOUND,
+          storedAt = cachedLookup.storedAt,
+          fullUrl = result.imageInfo.fullUrl.toString(),
+          previewUrl = result.imageInfo.previewUrl.toString(),
+          width = result.imageInfo.width,
+          height = result.imageInfo.height,
+          fileSize = result.imageInfo.fileSize
+        )
+      }
+      BooruLookupResult.NotFound,
+      BooruLookupResult.Banned,
+      BooruLookupResult.Failed -> {
+        val resultType = if (result is BooruLookupResult.Banned) {
+          ThirdEyeLookupCacheEntryJson.RESULT_BANNED
+        } else {
+          ThirdEyeLookupCacheEntryJson.RESULT_NOT_FOUND
+        }
+
+        ThirdEyeLookupCacheEntryJson(
+          booruKey = lookupKey.booruKey,
+          imageHash = lookupKey.imageHash,
+          result = resultType,
+          storedAt = cachedLookup.storedAt
+        )
+      }
+    }
+  }
+
+  private fun fromJson(entryJson: ThirdEyeLookupCacheEntryJson): CachedLookup? {
+    val result = when (entryJson.result) {
+      ThirdEyeLookupCacheEntryJson.RESULT_FOUND -> {
+        val fullUrl = entryJson.fullUrl?.toHttpUrlOrNull()
+          ?: return null
+        val previewUrl = entryJson.previewUrl?.toHttpUrlOrNull()
+          ?: return null
+
+        val imageInfo = BooruImageInfo(
+          fullUrl = fullUrl,
+          previewUrl = previewUrl,
+          width = entryJson.width,
+          height = entryJson.height,
+          fileSize = entryJson.fileSize
+        )
+
+        BooruLookupResult.Found(imageInfo)
+      }
+      ThirdEyeLookupCacheEntryJson.RESULT_NOT_FOUND -> BooruLookupResult.NotFound
+      ThirdEyeLookupCacheEntryJson.RESULT_BANNED -> BooruLookupResult.Banned
+      else -> return null
+    }
+
+    return CachedLookup(result, entryJson.storedAt)
+  }
+
+  private data class LookupKey(
+    val booruKey: String,
+    val imageHash: String
+  )
+
+  private class CachedLookup(
+    val result: BooruLookupResult,
+    val storedAt: Long
+  ) {
+
+    fun isExpired(now: Long): Boolean {
+      val ttl = when (result) {
+        is BooruLookupResult.Found -> FOUND_TTL_MS
+        BooruLookupResult.Banned -> BANNED_TTL_MS
+        BooruLookupResult.NotFound,
+        BooruLookupResult.Failed -> NOT_FOUND_TTL_MS
+      }
+
+      return now - storedAt > ttl
+    }
+
+  }
+
+  companion object {
+    private const val TAG = "ThirdEyeLookupCache"
+    private const val DEFAULT_MAX_ENTRIES = 10_000
+    private const val PERSIST_DEBOUNCE_MS = 5_000L
+
+    // Images are rarely removed from boorus but they get added all the time so negative results
+    // must expire much faster.
+    private val FOUND_TTL_MS = TimeUnit.DAYS.toMillis(30)
+    private val BANNED_TTL_MS = TimeUnit.DAYS.toMillis(30)
+    private val NOT_FOUND_TTL_MS = TimeUnit.DAYS.toMillis(2)
+  }
+
+}
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient
+import com.github.k1rakishou.chan.core.base.okhttp.trafficClass
 import com.github.k1rakishou.chan.core.cache.downloader.DownloaderUtils.isCancellationError
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.utils.BackgroundUtils
@@ -41,6 +42,7 @@ internal class ChunkDownloader(
 
     val requestBuilder = Request.Builder()
       .url(url)
+      .trafficClass(request.trafficClass())
 
     siteResolver.findSiteForUrl(url)?.let { site ->
       site.requestModifier().modifyFullImageGetRequest(site, requestBuilder)
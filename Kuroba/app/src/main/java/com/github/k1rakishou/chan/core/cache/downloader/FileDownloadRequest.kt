@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
+import com.github.k1rakishou.chan.core.base.okhttp.TrafficClass
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import java.io.File
 import java.util.concurrent.atomic.AtomicInteger
@@ -41,6 +42,14 @@ internal open class FileDownloadRequest(
     return output
   }
 
+  fun trafficClass(): TrafficClass {
+    if (cancelableDownload.downloadType.isPrefetchDownload) {
+      return TrafficClass.Prefetch
+    }
+
+    return TrafficClass.Media
+  }
+
   override fun toString(): String {
     val outputFileName = synchronized(this) {
       if (output == null) {
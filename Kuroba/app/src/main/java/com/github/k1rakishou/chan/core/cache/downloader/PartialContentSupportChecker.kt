@@ -3,6 +3,7 @@ package com.github.k1rakishou.chan.core.cache.downloader
 import android.util.LruCache
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient
+import com.github.k1rakishou.chan.core.base.okhttp.trafficClass
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.cache.downloader.DownloaderUtils.isCancellationError
 import com.github.k1rakishou.chan.core.site.Site
@@ -126,6 +127,8 @@ internal class PartialContentSupportChecker(
       .head()
       .url(url)
 
+    activeDownloads.get(url)?.let { request -> headRequestBuilder.trafficClass(request.trafficClass()) }
+
     site?.let { it.requestModifier()?.modifyFullImageHeadRequest(it, headRequestBuilder) }
 
     val headRequest = headRequestBuilder.build()
@@ -33,6 +33,7 @@ import com.github.k1rakishou.chan.features.posting.PostingService;
 import com.github.k1rakishou.chan.features.thread_downloading.ThreadDownloadingWorker;
 import com.github.k1rakishou.chan.ui.widget.SnackbarWrapper;
 import com.github.k1rakishou.common.AppConstants;
+import com.github.k1rakishou.common.dns.DnsCache;
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
 import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
 import com.github.k1rakishou.core_themes.ThemeEngine;
@@ -103,6 +104,8 @@ public interface ApplicationComponent {
         @BindsInstance
         Builder dnsOverHttpsSelectorFactory(DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory);
         @BindsInstance
+        Builder dnsCache(DnsCache dnsCache);
+        @BindsInstance
         Builder okHttpProtocols(Chan.OkHttpProtocols okHttpProtocols);
         @BindsInstance
         Builder appConstants(AppConstants appConstants);
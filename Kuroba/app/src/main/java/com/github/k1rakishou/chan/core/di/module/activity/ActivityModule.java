@@ -26,6 +26,7 @@ import com.github.k1rakishou.chan.core.manager.SiteManager;
 import com.github.k1rakishou.chan.core.manager.ThreadFollowHistoryManager;
 import com.github.k1rakishou.chan.core.manager.UpdateManager;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
+import com.github.k1rakishou.chan.core.usecase.ThreadDataPreloader;
 import com.github.k1rakishou.chan.features.image_saver.ImageSaverV2;
 import com.github.k1rakishou.chan.ui.helper.RuntimePermissionsHelper;
 import com.github.k1rakishou.core_logger.Logger;
@@ -87,7 +88,8 @@ public class ActivityModule {
             Lazy<BookmarksManager> bookmarksManager,
             Lazy<ChanThreadViewableInfoManager> chanThreadViewableInfoManager,
             Lazy<SiteResolver> siteResolver,
-            Lazy<CompositeCatalogManager> compositeCatalogManager
+            Lazy<CompositeCatalogManager> compositeCatalogManager,
+            Lazy<ThreadDataPreloader> threadDataPreloader
     ) {
         Logger.deps("StartActivityStartupHandlerHelper");
         return new StartActivityStartupHandlerHelper(
@@ -97,7 +99,8 @@ public class ActivityModule {
                 bookmarksManager,
                 chanThreadViewableInfoManager,
                 siteResolver,
-                compositeCatalogManager
+                compositeCatalogManager,
+                threadDataPreloader
         );
     }
 
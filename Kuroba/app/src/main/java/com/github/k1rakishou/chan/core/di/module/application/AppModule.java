@@ -24,6 +24,7 @@ import com.github.k1rakishou.chan.core.AppDependenciesInitializer;
 import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
+import com.github.k1rakishou.chan.core.helper.AppMaintenanceScheduler;
 import com.github.k1rakishou.chan.core.helper.ImageLoaderFileManagerWrapper;
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2;
 import com.github.k1rakishou.chan.core.manager.ArchivesManager;
@@ -46,6 +47,7 @@ import com.github.k1rakishou.chan.ui.captcha.CaptchaHolder;
 import com.github.k1rakishou.core_logger.Logger;
 import com.github.k1rakishou.core_themes.ThemeEngine;
 import com.github.k1rakishou.fsaf.FileManager;
+import com.github.k1rakishou.model.repository.ChanPostRepository;
 import com.github.k1rakishou.model.repository.ImageDownloadRequestRepository;
 import com.google.gson.Gson;
 
@@ -73,7 +75,10 @@ public class AppModule {
             FilterWatcherCoordinator filterWatcherCoordinator,
             ArchivesManager archivesManager,
             ChanFilterManager chanFilterManager,
-            ThreadDownloadingCoordinator threadDownloadingCoordinator
+            ThreadDownloadingCoordinator threadDownloadingCoordinator,
+            ChanPostRepository chanPostRepository,
+            Lazy<CacheHandler> cacheHandler,
+            AppMaintenanceScheduler appMaintenanceScheduler
     ) {
         Logger.deps("AppDependenciesInitializer");
 
@@ -87,10 +92,20 @@ public class AppModule {
                 filterWatcherCoordinator,
                 archivesManager,
                 chanFilterManager,
-                threadDownloadingCoordinator
+                threadDownloadingCoordinator,
+                chanPostRepository,
+                cacheHandler,
+                appMaintenanceScheduler
         );
     }
 
+    @Provides
+    @Singleton
+    public AppMaintenanceScheduler provideAppMaintenanceScheduler(CoroutineScope appScope) {
+        Logger.deps("AppMaintenanceScheduler");
+        return new AppMaintenanceScheduler(appScope);
+    }
+
     @Provides
     @Singleton
     public ConnectivityManager provideConnectivityManager(Context appContext) {
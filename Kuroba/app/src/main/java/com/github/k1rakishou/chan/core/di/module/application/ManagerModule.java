@@ -912,6 +912,7 @@ public class ManagerModule {
     @Provides
     public ThirdEyeManager provideThirdEyeManager(
             Context appContext,
+            CoroutineScope appScope,
             ChanThreadsCache chanThreadsCache,
             AppConstants appConstants,
             Moshi moshi,
@@ -921,6 +922,7 @@ public class ManagerModule {
 
         return new ThirdEyeManager(
                 appContext,
+                appScope,
                 ChanSettings.verboseLogs.get(),
                 appConstants,
                 moshi,
@@ -22,10 +22,13 @@ import android.net.ConnectivityManager;
 import com.github.k1rakishou.ChanSettings;
 import com.github.k1rakishou.chan.Chan;
 import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient;
+import com.github.k1rakishou.chan.core.base.okhttp.HostConcurrencyLimiter;
 import com.github.k1rakishou.chan.core.base.okhttp.HttpLoggingInterceptorLazy;
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient;
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpTransport;
+import com.github.k1rakishou.chan.core.base.okhttp.TransportTelemetry;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.FileCacheV2;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
@@ -33,6 +36,7 @@ import com.github.k1rakishou.chan.core.manager.FirewallBypassManager;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
 import com.github.k1rakishou.chan.core.site.http.HttpCallManager;
 import com.github.k1rakishou.common.AppConstants;
+import com.github.k1rakishou.common.dns.DnsCache;
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
 import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
 import com.github.k1rakishou.core_logger.Logger;
@@ -120,14 +124,35 @@ public class NetModule {
     }
 
     /**
-     * This okHttpClient is for posting.
+     * Connection pool, DNS, per host concurrency limits and telemetry shared by all the okHttpClients.
      */
     @Provides
     @Singleton
-    public ProxiedOkHttpClient provideProxiedOkHttpClient(
+    public SharedOkHttpTransport provideSharedOkHttpTransport(
             NormalDnsSelectorFactory normalDnsSelectorFactory,
             DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            Chan.OkHttpProtocols okHttpProtocols,
+            DnsCache dnsCache,
+            Chan.OkHttpProtocols okHttpProtocols
+    ) {
+        Logger.deps("SharedOkHttpTransport");
+
+        return new SharedOkHttpTransport(
+                normalDnsSelectorFactory,
+                dnsOverHttpsSelectorFactory,
+                dnsCache,
+                okHttpProtocols,
+                new HostConcurrencyLimiter(),
+                new TransportTelemetry()
+        );
+    }
+
+    /**
+     * This okHttpClient is for posting.
+     */
+    @Provides
+    @Singleton
+    public ProxiedOkHttpClient provideProxiedOkHttpClient(
+            SharedOkHttpTransport sharedOkHttpTransport,
             ProxyStorage proxyStorage,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
@@ -136,9 +161,7 @@ public class NetModule {
         Logger.deps("RealProxiedOkHttpClient");
 
         return new RealProxiedOkHttpClient(
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                okHttpProtocols,
+                sharedOkHttpTransport,
                 proxyStorage,
                 httpLoggingInterceptorLazy,
                 siteResolver,
@@ -153,9 +176,7 @@ public class NetModule {
     @Singleton
     public CoilOkHttpClient provideCoilOkHttpClient(
             Context applicationContext,
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            Chan.OkHttpProtocols okHttpProtocols,
+            SharedOkHttpTransport sharedOkHttpTransport,
             ProxyStorage proxyStorage,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
@@ -165,9 +186,7 @@ public class NetModule {
 
         return new CoilOkHttpClient(
                 applicationContext,
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                okHttpProtocols,
+                sharedOkHttpTransport,
                 proxyStorage,
                 httpLoggingInterceptorLazy,
                 siteResolver,
@@ -181,9 +200,7 @@ public class NetModule {
     @Provides
     @Singleton
     public RealDownloaderOkHttpClient provideDownloaderOkHttpClient(
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            Chan.OkHttpProtocols okHttpProtocols,
+            SharedOkHttpTransport sharedOkHttpTransport,
             ProxyStorage proxyStorage,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
@@ -192,9 +209,7 @@ public class NetModule {
         Logger.deps("RealDownloaderOkHttpClient");
 
         return new RealDownloaderOkHttpClient(
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                okHttpProtocols,
+                sharedOkHttpTransport,
                 proxyStorage,
                 httpLoggingInterceptorLazy,
                 siteResolver,
@@ -21,6 +21,7 @@ import com.github.k1rakishou.model.repository.SeenPostRepository;
 import com.github.k1rakishou.model.repository.SiteRepository;
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository;
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository;
+import com.github.k1rakishou.model.repository.ThreadOpenStateRepository;
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache;
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache;
 
@@ -221,4 +222,13 @@ public class RoomDatabaseModule {
         return modelComponent.getCompositeCatalogRepository();
     }
 
+    @Provides
+    @Singleton
+    public ThreadOpenStateRepository provideThreadOpenStateRepository(
+            ModelComponent modelComponent
+    ) {
+        Logger.deps("ThreadOpenStateRepository");
+        return modelComponent.getThreadOpenStateRepository();
+    }
+
 }
@@ -14,6 +14,7 @@ import com.github.k1rakishou.chan.core.manager.BookmarksManager;
 import com.github.k1rakishou.chan.core.manager.ChanFilterManager;
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager;
 import com.github.k1rakishou.chan.core.manager.ChanThreadViewableInfoManager;
+import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager;
 import com.github.k1rakishou.chan.core.manager.PostFilterManager;
 import com.github.k1rakishou.chan.core.manager.PostHideManager;
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager;
@@ -59,6 +60,8 @@ import com.github.k1rakishou.model.repository.ChanFilterWatchRepository;
 import com.github.k1rakishou.model.repository.ChanPostRepository;
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository;
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository;
+import com.github.k1rakishou.model.repository.ThreadOpenStateRepository;
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache;
 import com.google.gson.Gson;
 import com.squareup.moshi.Moshi;
 
@@ -351,19 +354,29 @@ public class UseCaseModule {
     @Provides
     @Singleton
     public ThreadDataPreloader provideThreadDataPreloadUseCase(
+            CoroutineScope appScope,
             Lazy<SeenPostsManager> seenPostsManager,
             Lazy<ChanThreadViewableInfoManager> chanThreadViewableInfoManager,
             Lazy<SavedReplyManager> savedReplyManager,
             Lazy<PostHideManager> postHideManager,
-            Lazy<ChanPostRepository> chanPostRepository
+            Lazy<ChanPostRepository> chanPostRepository,
+            Lazy<ThreadOpenStateRepository> threadOpenStateRepository,
+            Lazy<ChanThreadsCache> chanThreadsCache,
+            Lazy<HistoryNavigationManager> historyNavigationManager,
+            Lazy<BookmarksManager> bookmarksManager
     ) {
         Logger.deps("ThreadDataPreloadUseCase");
         return new ThreadDataPreloader(
+                appScope,
                 seenPostsManager,
                 chanThreadViewableInfoManager,
                 savedReplyManager,
                 postHideManager,
-                chanPostRepository
+                chanPostRepository,
+                threadOpenStateRepository,
+                chanThreadsCache,
+                historyNavigationManager,
+                bookmarksManager
         );
     }
 
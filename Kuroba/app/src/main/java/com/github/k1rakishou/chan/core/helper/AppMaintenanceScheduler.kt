@@ -0,0 +1,126 @@
+package com.github.k1rakishou.chan.core.helper
+
+import android.os.Handler
+import android.os.Looper
+import android.os.MessageQueue
+import com.github.k1rakishou.common.StartupTracer
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.resume
+
+/**
+ * Runs heavy maintenance tasks (database trimming, disk cache size recalculation, chunk cache
+ * cleanup, etc.) that used to run during the application startup, competing for the database and
+ * the disk with the first catalog load. The tasks are started only after the first frame has been
+ * drawn (or after [MAX_FIRST_FRAME_WAIT_MS] if there is no UI, e.g. when the app was started by a
+ * service) and then executed one by one, each one only once the main thread becomes idle (or after
+ * [MAX_MAIN_THREAD_IDLE_WAIT_MS] if it never does).
+ * */
+class AppMaintenanceScheduler(
+  private val appScope: CoroutineScope
+) {
+  private val tasks = mutableListOf<MaintenanceTask>()
+  private val firstFrameDrawn = CompletableDeferred<Unit>()
+  private val started = AtomicBoolean(false)
+  private val mainThreadHandler = Handler(Looper.getMainLooper())
+
+  fun schedule(name: String, task: suspend () -> Unit) {
+    synchronized(tasks) {
+      check(!started.get()) { "Cannot schedule tasks after the scheduler has been started" }
+      tasks += MaintenanceTask(name, task)
+    }
+  }
+
+  fun onFirstFrameDrawn() {
+    if (firstFrameDrawn.complete(Unit)) {
+      StartupTracer.recordInstant("First frame drawn", StartupTracer.CATEGORY_INITIALIZED)
+    }
+  }
+
+  fun start() {
+    if (!started.compareAndSet(false, true)) {
+      return
+    }
+
+    val tasksToRun = synchronized(tasks) { tasks.toList() }
+
+    appScope.launch {
+      val firstFrameWasDrawn = withTimeoutOrNull(MAX_FIRST_FRAME_WAIT_MS) { firstFrameDrawn.await() } != null
+      Logger.d(TAG, "Starting ${tasksToRun.size} maintenance tasks, firstFrameWasDrawn=$firstFrameWasDrawn")
+
+      for (maintenanceTask in tasksToRun) {
+        delay(DELAY_BETWEEN_TASKS_MS)
+        awaitMainThreadIdle()
+
+        val start = System.nanoTime()
+
+        try {
+          withContext(Dispatchers.IO) { maintenanceTask.task.invoke() }
+        } catch (error: Throwable) {
+          Logger.e(TAG, "Maintenance task '${maintenanceTask.name}' failed", error)
+        }
+
+        val end = System.nanoTime()
+        StartupTracer.recordSpan(maintenanceTask.name, StartupTracer.CATEGORY_MAINTENANCE, start, end)
+
+        Logger.d(TAG, "Maintenance task '${maintenanceTask.name}' done, " +
+          "took ${TimeUnit.NANOSECONDS.toMillis(end - start)}ms")
+      }
+
+      StartupTracer.stopRecording()
+      Logger.d(TAG, "All maintenance tasks done")
+    }
+  }
+
+  private suspend fun awaitMainThreadIdle() {
+    val becameIdle = withTimeoutOrNull(MAX_MAIN_THREAD_IDLE_WAIT_MS) {
+      withContext(Dispatchers.Main) {
+        suspendCancellableCoroutine<Unit> { continuation ->
+          val messageQueue = Looper.myQueue()
+
+          val idleHandler = MessageQueue.IdleHandler {
+            if (continuation.isActive) {
+              continuation.resume(Unit)
+            }
+
+            // Remove the handler
+            return@IdleHandler false
+          }
+
+          messageQueue.addIdleHandler(idleHandler)
+          continuation.invokeOnCancellation { messageQueue.removeIdleHandler(idleHandler) }
+
+          // Idle handlers are only called when the queue becomes idle, if it's already idle (e.g.
+          // there is no UI) nothing would wake it up so post an empty message to do that.
+          mainThreadHandler.post { }
+        }
+      }
+    }
+
+    if (becameIdle == null) {
+      Logger.d(TAG, "Main thread did not become idle in ${MAX_MAIN_THREAD_IDLE_WAIT_MS}ms, running anyway")
+    }
+  }
+
+  private class MaintenanceTask(
+    val name: String,
+    val task: suspend () -> Unit
+  )
+
+  companion object {
+    private const val TAG = "AppMaintenanceScheduler"
+    private val MAX_FIRST_FRAME_WAIT_MS = TimeUnit.SECONDS.toMillis(10)
+    private val MAX_MAIN_THREAD_IDLE_WAIT_MS = TimeUnit.SECONDS.toMillis(5)
+    private const val DELAY_BETWEEN_TASKS_MS = 250L
+  }
+
+}
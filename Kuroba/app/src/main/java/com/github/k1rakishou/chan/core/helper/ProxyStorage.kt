@@ -92,6 +92,16 @@ class ProxyStorage(
     }
   }
 
+  fun hasEnabledProxiesForAnyOf(proxyActionTypes: Collection<ProxyActionType>): Boolean {
+    loadProxies()
+
+    return synchronized(this) {
+      return@synchronized allProxiesMap.values.any { kurobaProxy ->
+        kurobaProxy.enabled && kurobaProxy.supportedActions.any { proxyActionType -> proxyActionType in proxyActionTypes }
+      }
+    }
+  }
+
   suspend fun enableDisableProxy(proxyEntryView: ProxyEntryView): ModularResult<Boolean> {
     val proxyKey = ProxyKey(proxyEntryView.address, proxyEntryView.port)
 
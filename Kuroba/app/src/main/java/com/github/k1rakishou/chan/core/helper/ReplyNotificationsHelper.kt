@@ -23,6 +23,7 @@ import com.github.k1rakishou.chan.activity.StartActivity
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
+import com.github.k1rakishou.chan.core.image.ThumbnailLoadPriority
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.receiver.ReplyNotificationDeleteIntentBroadcastReceiver
 import com.github.k1rakishou.chan.core.site.parser.search.SimpleCommentParser
@@ -562,7 +563,9 @@ class ReplyNotificationsHelper(
 
             cancellableContinuation.resumeValueSafe(null)
           }
-        }
+        },
+        // Notifications are shown in the background, don't delay the thumbnails on the screen
+        priority = ThumbnailLoadPriority.Prefetch
       )
 
       cancellableContinuation.invokeOnCancellation { cause ->
@@ -21,6 +21,7 @@ import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.Site
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.site.sites.CompositeCatalogSite
+import com.github.k1rakishou.chan.core.usecase.ThreadDataPreloader
 import com.github.k1rakishou.chan.features.drawer.MainController
 import com.github.k1rakishou.chan.features.image_saver.ImageSaverV2Service
 import com.github.k1rakishou.chan.ui.controller.BrowseController
@@ -44,7 +45,8 @@ class StartActivityStartupHandlerHelper(
   private val _bookmarksManager: Lazy<BookmarksManager>,
   private val _chanThreadViewableInfoManager: Lazy<ChanThreadViewableInfoManager>,
   private val _siteResolver: Lazy<SiteResolver>,
-  private val _compositeCatalogManager: Lazy<CompositeCatalogManager>
+  private val _compositeCatalogManager: Lazy<CompositeCatalogManager>,
+  private val _threadDataPreloader: Lazy<ThreadDataPreloader>
 ) {
   // We only want to load a board upon the application start when nothing is loaded yet. Afterwards
   // we don't want to do that anymore so that we won't override the currently opened board when
@@ -70,6 +72,8 @@ class StartActivityStartupHandlerHelper(
     get() = _siteResolver.get()
   private val compositeCatalogManager: CompositeCatalogManager
     get() = _compositeCatalogManager.get()
+  private val threadDataPreloader: ThreadDataPreloader
+    get() = _threadDataPreloader.get()
 
   fun onCreate(
     context: Context,
@@ -134,6 +138,10 @@ class StartActivityStartupHandlerHelper(
     Logger.d(TAG, "restoreFresh() getCatalogToOpen returned ${catalogToOpen}, " +
         "getThreadToOpen returned ${threadToOpen}")
 
+    // Start loading the state of the threads that the user is likely to open (including the one
+    // that is about to be restored) while the catalog is being loaded
+    threadDataPreloader.prefetchLikelyToBeOpenedThreads()
+
     if (catalogToOpen != null) {
       browseController?.showCatalog(catalogToOpen, false)
     } else {
@@ -8,7 +8,6 @@ import android.graphics.ColorFilter
 import android.graphics.Matrix
 import android.graphics.Paint
 import android.graphics.drawable.BitmapDrawable
-import android.util.LruCache
 import android.view.View
 import androidx.annotation.DrawableRes
 import androidx.annotation.GuardedBy
@@ -54,10 +53,9 @@ import com.github.k1rakishou.common.StringUtils
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.isCoroutineCancellationException
 import com.github.k1rakishou.common.isExceptionImportant
-import com.github.k1rakishou.common.removeIfKt
+import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.resumeValueSafe
 import com.github.k1rakishou.common.suspendCall
-import com.github.k1rakishou.common.withLockNonCancellable
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.fsaf.FileManager
@@ -70,13 +68,13 @@ import dagger.Lazy
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.withContext
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
@@ -102,10 +100,12 @@ class ImageLoaderV2(
   private val _coilOkHttpClient: Lazy<CoilOkHttpClient>,
   private val _threadDownloadManager: Lazy<ThreadDownloadManager>
 ) {
-  private val mutex = Mutex()
+  @GuardedBy("activeRequests")
+  private val activeRequests = mutableMapWithCap<String, ActiveRequest>(128)
 
-  @GuardedBy("mutex")
-  private val activeRequests = LruCache<String, ActiveRequest>(1024)
+  private val thumbnailMemoryCache = ThumbnailMemoryCache(ThumbnailMemoryCache.defaultMaxSizeBytes())
+  private val thumbnailLoadScheduler = ThumbnailLoadScheduler(MAX_CONCURRENT_THUMBNAIL_LOADS)
+  private val thumbnailPipelineStats = ThumbnailPipelineStats()
 
   val imageLoader: ImageLoader
     get() = _imageLoader.get()
@@ -258,8 +258,9 @@ class ImageLoaderV2(
     transformations: List<Transformation>,
     listener: SimpleImageListener,
     @DrawableRes errorDrawableId: Int = R.drawable.ic_image_error_loading,
-    @DrawableRes notFoundDrawableId: Int = R.drawable.ic_image_not_found
-  ): Disposable {
+    @DrawableRes notFoundDrawableId: Int = R.drawable.ic_image_not_found,
+    priority: ThumbnailLoadPriority = ThumbnailLoadPriority.Visible
+  ): ThumbnailRequestDisposable {
     return loadFromNetwork(
       context = context,
       url = url,
@@ -270,7 +271,8 @@ class ImageLoaderV2(
         listener = listener,
         errorDrawableId = errorDrawableId,
         notFoundDrawableId = notFoundDrawableId
-      )
+      ),
+      priority = priority
     )
   }
 
@@ -282,8 +284,9 @@ class ImageLoaderV2(
     imageSize: ImageSize,
     transformations: List<Transformation>,
     listener: FailureAwareImageListener,
-    postDescriptor: PostDescriptor? = null
-  ): Disposable {
+    postDescriptor: PostDescriptor? = null,
+    priority: ThumbnailLoadPriority = ThumbnailLoadPriority.Visible
+  ): ThumbnailRequestDisposable {
     return loadFromNetwork(
       context = context,
       url = requestUrl,
@@ -291,10 +294,23 @@ class ImageLoaderV2(
       imageSize = imageSize,
       inputTransformations = transformations,
       imageListenerParam = ImageListenerParam.FailureAwareImageListener(listener),
-      postDescriptor = postDescriptor
+      postDescriptor = postDescriptor,
+      priority = priority
     )
   }
 
+  /**
+   * Whether [loadFromNetwork] with the same parameters will be answered synchronously (the image
+   * is already decoded and is in the memory cache).
+   * */
+  fun isInMemoryCache(url: String, imageSize: ImageSize, transformations: List<Transformation>): Boolean {
+    val size = imageSize.sizeOrNull()
+      ?: return false
+
+    val memoryCacheKey = ThumbnailMemoryCache.key(url, size, effectiveTransformations(transformations))
+    return thumbnailMemoryCache.get(memoryCacheKey) != null
+  }
+
   private fun loadFromNetwork(
     context: Context,
     url: String,
@@ -304,150 +320,306 @@ class ImageLoaderV2(
     imageListenerParam: ImageListenerParam,
     // If postDescriptor is not null we will attempt to search for this file among downloaded
     // threads files' first and if not found then attempt to load it from the network.
-    postDescriptor: PostDescriptor? = null
-  ): Disposable {
-    val completableDeferred = CompletableDeferred<Unit>()
+    postDescriptor: PostDescriptor? = null,
+    priority: ThumbnailLoadPriority = ThumbnailLoadPriority.Visible
+  ): ThumbnailRequestDisposable {
+    thumbnailPipelineStats.onRequest(priority)
+
+    // 1. Fast path: this image was already decoded with the same size and transformations, answer
+    // right away without launching any coroutines.
+    if (BackgroundUtils.isMainThread()) {
+      val size = imageSize.sizeOrNull()
+      if (size != null) {
+        val memoryCacheKey = ThumbnailMemoryCache.key(url, size, effectiveTransformations(inputTransformations))
+        val bitmap = thumbnailMemoryCache.get(memoryCacheKey)
+
+        if (bitmap != null) {
+          thumbnailPipelineStats.onMemoryHit(priority)
+          notifyListenerSuccess(context, imageListenerParam, bitmap, isImmediate = true)
+
+          return ThumbnailRequestDisposable.completed()
+        }
+      }
+    }
 
-    val job = appScope.launch(Dispatchers.IO) {
-      BackgroundUtils.ensureBackgroundThread()
+    val activeListener = ActiveListener(imageListenerParam, imageSize, inputTransformations)
+    var newRequestJob: Job? = null
 
-      try {
-        var isFromCache = true
-
-        // 1. Enqueue a new request (or add a callback to an old request if there is already a
-        // request with this url).
-        val alreadyHasActiveRequest = mutex.withLockNonCancellable {
-          var activeRequest = activeRequests.get(url)
-          if (activeRequest == null) {
-            // Create new ActiveRequest is it's not created yet
-            activeRequest = ActiveRequest(url)
-            activeRequests.put(url, activeRequest)
-          }
+    // 2. Enqueue a new request (or add a listener to an already running request with this url).
+    val activeRequest = synchronized(activeRequests) {
+      val prevActiveRequest = activeRequests[url]
+      if (prevActiveRequest != null) {
+        prevActiveRequest.addImageListener(activeListener)
+        thumbnailLoadScheduler.updatePriority(prevActiveRequest.ticket, priority)
 
-          // Add all the listeners into this request (there may be multiple of them)
-          return@withLockNonCancellable activeRequest.addImageListener(
-            imageListenerParam = imageListenerParam,
-            imageSize = imageSize,
-            transformations = inputTransformations
-          )
+        return@synchronized prevActiveRequest
+      }
+
+      val newActiveRequest = ActiveRequest(url, thumbnailLoadScheduler.createTicket(priority))
+      newActiveRequest.addImageListener(activeListener)
+
+      newRequestJob = appScope.launch(Dispatchers.IO, start = CoroutineStart.LAZY) {
+        loadActiveRequest(context, newActiveRequest, cacheFileType, postDescriptor)
+      }
+
+      newActiveRequest.job = newRequestJob
+      activeRequests[url] = newActiveRequest
+
+      return@synchronized newActiveRequest
+    }
+
+    newRequestJob?.start()
+
+    return ThumbnailRequestDisposable(
+      completion = activeListener.completion,
+      onDispose = { cancelActiveListener(activeRequest, activeListener) },
+      onUpdatePriority = { newPriority -> thumbnailLoadScheduler.updatePriority(activeRequest.ticket, newPriority) }
+    )
+  }
+
+  private suspend fun loadActiveRequest(
+    context: Context,
+    activeRequest: ActiveRequest,
+    cacheFileType: CacheFileType,
+    postDescriptor: PostDescriptor?
+  ) {
+    BackgroundUtils.ensureBackgroundThread()
+    val url = activeRequest.url
+
+    try {
+      // 3. Check whether we have this image cached on the disk and if we don't then load it from
+      // the network. Both are done in the lane of the request so that the visible thumbnails are
+      // loaded first.
+      val loadedImage = thumbnailLoadScheduler.withSlot(activeRequest.ticket) {
+        val cachedFile = tryLoadFromDiskCacheOrNull(url, cacheFileType, postDescriptor)
+        if (cachedFile != null) {
+          thumbnailPipelineStats.onDiskHit(activeRequest.ticket.priority)
+          return@withSlot cachedFile to true
         }
 
-        if (alreadyHasActiveRequest) {
-          // Another request with the same url is already running, wait until the other request is
-          // completed, it will invoke all callbacks.
-          return@launch
+        val downloadedFile = loadFromNetworkInternal(
+          context = context,
+          activeRequest = activeRequest,
+          cacheFileType = cacheFileType
+        )
+
+        if (downloadedFile != null) {
+          thumbnailPipelineStats.onNetworkLoad(activeRequest.ticket.priority)
+          return@withSlot downloadedFile to false
         }
 
-        // 2. Check whether we have this bitmap cached on the disk
-        var imageFile = tryLoadFromDiskCacheOrNull(url, cacheFileType, postDescriptor)
+        return@withSlot null
+      }
 
-        // 3. Failed to find this bitmap in the disk cache. Load it from the network.
-        if (imageFile == null) {
-          isFromCache = false
+      if (loadedImage == null) {
+        val errorMessage = "Failed to load image '$url' from disk and network"
 
-          imageFile = loadFromNetworkInternal(
-            context = context,
-            url = url,
-            cacheFileType = cacheFileType,
-            imageSize = imageSize
+        Logger.e(TAG, errorMessage)
+        thumbnailPipelineStats.onFailure(activeRequest.ticket.priority)
+        notifyListenersFailure(context, activeRequest, IOException(errorMessage))
+
+        return
+      }
+
+      val (imageFile, isFromCache) = loadedImage
+
+      // 4. We have this image on disk, now we need to decode it with the requested size and
+      // transformations and notify all listeners. Listeners that requested the same size and
+      // transformations share one decoded bitmap.
+      val activeListeners = consumeActiveRequest(activeRequest)
+      if (activeListeners.isEmpty()) {
+        if (verboseLogs) {
+          Logger.e(TAG, "Failed to load '$url', activeListeners is empty")
+        }
+
+        return
+      }
+
+      withContext(NonCancellable) {
+        decodeAndNotifyListeners(
+          context = context,
+          url = url,
+          cacheFileType = cacheFileType,
+          imageFile = imageFile,
+          activeListeners = activeListeners,
+          isFromCache = isFromCache
+        )
+      }
+    } catch (error: Throwable) {
+      notifyListenersFailure(context, activeRequest, error)
+
+      if (error.isCoroutineCancellationException()) {
+        return
+      }
+
+      thumbnailPipelineStats.onFailure(activeRequest.ticket.priority)
+
+      if (error.isExceptionImportant()) {
+        Logger.e(TAG, "loadFromNetwork() error", error)
+      }
+    } finally {
+      if (thumbnailPipelineStats.onLoadFinished(everyLoads = THUMBNAIL_STATS_REPORT_INTERVAL)) {
+        Logger.d(TAG) {
+          thumbnailPipelineStats.format(
+            queueDepths = thumbnailLoadScheduler.queueDepths(),
+            runningLoads = thumbnailLoadScheduler.runningLoads()
           )
+        }
+      }
+    }
+  }
 
-          if (imageFile == null) {
-            val errorMessage = "Failed to load image '$url' from disk and network"
+  private suspend fun decodeAndNotifyListeners(
+    context: Context,
+    url: String,
+    cacheFileType: CacheFileType,
+    imageFile: AbstractFile,
+    activeListeners: List<ActiveListener>,
+    isFromCache: Boolean
+  ) {
+    val lifecycle = context.getLifecycleFromContext()
 
-            Logger.e(TAG, errorMessage)
-            notifyListenersFailure(context, url, IOException(errorMessage))
+    val activeListenersGrouped = activeListeners
+      .filter { activeListener -> !activeListener.isDisposed }
+      .groupBy { activeListener ->
+        ThumbnailMemoryCache.key(
+          url = url,
+          size = activeListener.imageSize.size(),
+          transformations = effectiveTransformations(activeListener.transformations)
+        )
+      }
 
-            return@launch
-          }
+    activeListenersGrouped.forEach { (memoryCacheKey, listeners) ->
+      var bitmap = thumbnailMemoryCache.get(memoryCacheKey)
+      if (bitmap == null) {
+        val firstListener = listeners.first()
+        val decodeStart = System.nanoTime()
+
+        bitmap = applyTransformationsToDrawable(
+          context = context,
+          lifecycle = lifecycle,
+          imageFile = imageFile,
+          activeListener = firstListener,
+          url = url,
+          cacheFileType = cacheFileType
+        )?.bitmap
+
+        if (bitmap != null) {
+          thumbnailPipelineStats.onDecoded(System.nanoTime() - decodeStart, listeners.size)
+          thumbnailMemoryCache.put(memoryCacheKey, bitmap)
         }
+      }
+
+      val decodedBitmap = bitmap
+      if (decodedBitmap == null) {
+        val transformationKeys = listeners.first().transformations
+          .joinToString { transformation -> transformation.key() }
 
-        // 4. We have this image on disk, now we need to reload it from disk, apply transformations
-        // with size and notify all listeners.
-        val activeListeners = mutex.withLockNonCancellable {
-          val activeRequests = activeRequests.get(url)
-            ?: return@withLockNonCancellable null
+        Logger.e(TAG, "Failed to apply transformations '$url' ${listeners.first().imageSize}, " +
+          "transformations: ${transformationKeys}, fromCache=$isFromCache")
+
+        listeners.forEach { activeListener ->
+          handleFailure(
+            actualListener = activeListener.imageListenerParam,
+            context = context,
+            imageSize = activeListener.imageSize,
+            transformations = activeListener.transformations,
+            throwable = IOException("applyTransformationsToDrawable() returned null")
+          )
 
-          return@withLockNonCancellable activeRequests.consumeAllListeners()
+          activeListener.completion.complete(Unit)
         }
 
-        if (activeListeners == null || activeListeners.isEmpty()) {
-          if (verboseLogs) {
-            Logger.e(TAG, "Failed to load '$url', activeListeners is null or empty")
+        return@forEach
+      }
+
+      withContext(Dispatchers.Main) {
+        listeners.forEach { activeListener ->
+          // The view might have been recycled while we were decoding
+          if (!activeListener.isDisposed) {
+            notifyListenerSuccess(context, activeListener.imageListenerParam, decodedBitmap, isFromCache)
           }
 
-          return@launch
+          activeListener.completion.complete(Unit)
         }
+      }
+    }
 
-        withContext(NonCancellable) {
-          activeListeners.forEachIndexed { index, activeListener ->
-            val resultBitmapDrawable = applyTransformationsToDrawable(
-              context = context,
-              lifecycle = context.getLifecycleFromContext(),
-              imageFile = imageFile,
-              activeListener = activeListener,
-              url = url,
-              cacheFileType = cacheFileType
-            )
+    // Listeners that were disposed before we could group them
+    activeListeners.forEach { activeListener -> activeListener.completion.complete(Unit) }
+  }
 
-            mutex.withLockNonCancellable {
-              val activeRequest = activeRequests.get(url)
-                ?: return@withLockNonCancellable
+  private fun notifyListenerSuccess(
+    context: Context,
+    imageListenerParam: ImageListenerParam,
+    bitmap: Bitmap,
+    isImmediate: Boolean
+  ) {
+    BackgroundUtils.ensureMainThread()
 
-              if (activeRequest.removeImageListenerParam(imageListenerParam)) {
-                activeRequests.remove(url)
-              }
-            }
+    // Every listener gets its own drawable since drawables have mutable state (bounds, alpha, etc.)
+    val bitmapDrawable = BitmapDrawable(context.resources, bitmap)
 
-            if (resultBitmapDrawable == null) {
-              val transformationKeys = activeListener.transformations
-                .joinToString { transformation -> transformation.key() }
+    when (imageListenerParam) {
+      is ImageListenerParam.SimpleImageListener -> {
+        imageListenerParam.listener.onResponse(bitmapDrawable)
+      }
+      is ImageListenerParam.FailureAwareImageListener -> {
+        imageListenerParam.listener.onResponse(bitmapDrawable, isImmediate)
+      }
+    }
+  }
 
-              Logger.e(TAG, "Failed to apply transformations '$url' $imageSize, " +
-                "transformations: ${transformationKeys}, fromCache=$isFromCache")
+  private fun effectiveTransformations(transformations: List<Transformation>): List<Transformation> {
+    // When using any transformations at all we won't be able to use HARDWARE bitmaps. We only really
+    // need the RESIZE_TRANSFORMATION when highResCells setting is turned on because we load original
+    // images which we then want to resize down to ThumbnailView dimensions.
+    if (ChanSettings.highResCells.get()) {
+      return transformations + RESIZE_TRANSFORMATION
+    }
 
-              handleFailure(
-                actualListener = activeListener.imageListenerParam,
-                context = context,
-                imageSize = activeListener.imageSize,
-                transformations = activeListener.transformations,
-                throwable = IOException("applyTransformationsToDrawable() returned null")
-              )
+    return transformations
+  }
 
-              return@forEachIndexed
-            }
+  /**
+   * Removes the request from [activeRequests] so that new listeners start a new request and
+   * returns all listeners of this request.
+   * */
+  private fun consumeActiveRequest(activeRequest: ActiveRequest): List<ActiveListener> {
+    return synchronized(activeRequests) {
+      if (activeRequests[activeRequest.url] === activeRequest) {
+        activeRequests.remove(activeRequest.url)
+      }
 
-            launch(Dispatchers.Main) {
-              when (val listenerParam = activeListener.imageListenerParam) {
-                is ImageListenerParam.SimpleImageListener -> {
-                  listenerParam.listener.onResponse(resultBitmapDrawable)
-                }
-                is ImageListenerParam.FailureAwareImageListener -> {
-                  listenerParam.listener.onResponse(resultBitmapDrawable, isFromCache)
-                }
-              }
-            }
-          }
-        }
-      } catch (error: Throwable) {
-        notifyListenersFailure(context, url, error)
+      return@synchronized activeRequest.consumeAllListeners()
+    }
+  }
 
-        if (error.isCoroutineCancellationException()) {
-          return@launch
-        }
+  private fun cancelActiveListener(activeRequest: ActiveRequest, activeListener: ActiveListener) {
+    activeListener.isDisposed = true
 
-        if (error.isExceptionImportant()) {
-          Logger.e(TAG, "loadFromNetwork() error", error)
-        }
-      } finally {
-        completableDeferred.complete(Unit)
+    val jobToCancel = synchronized(activeRequests) {
+      if (!activeRequest.removeImageListener(activeListener) || activeRequest.hasListeners()) {
+        // Either the listeners were already consumed or somebody else is still waiting for this
+        // image
+        return@synchronized null
+      }
+
+      // Nobody is waiting for this image anymore (all the views were recycled) so there is no
+      // point in loading it.
+      if (activeRequests[activeRequest.url] === activeRequest) {
+        activeRequests.remove(activeRequest.url)
       }
+
+      return@synchronized activeRequest.job
     }
 
-    return ImageLoaderRequestDisposable(
-      imageLoaderJob = job,
-      imageLoaderCompletableDeferred = completableDeferred
-    )
+    if (jobToCancel != null) {
+      thumbnailPipelineStats.onCanceled(activeRequest.ticket.priority)
+      jobToCancel.cancel()
+    }
+
+    activeListener.completion.cancel()
   }
 
   private suspend fun applyTransformationsToDrawable(
@@ -465,20 +637,11 @@ class ImageLoaderV2(
       else -> error("Unknown file type: ${imageFile.javaClass.simpleName}")
     }
 
-    // When using any transformations at all we won't be able to use HARDWARE bitmaps. We only really
-    // need the RESIZE_TRANSFORMATION when highResCells setting is turned on because we load original
-    // images which we then want to resize down to ThumbnailView dimensions.
-    val transformations = if (ChanSettings.highResCells.get()) {
-      activeListener.transformations + RESIZE_TRANSFORMATION
-    } else {
-      activeListener.transformations
-    }
-
     val request = with(ImageRequest.Builder(context)) {
       lifecycle(lifecycle)
       data(fileLocation)
       scale(Scale.FIT)
-      transformations(transformations)
+      transformations(effectiveTransformations(activeListener.transformations))
       applyImageSize(activeListener.imageSize)
 
       build()
@@ -504,32 +667,33 @@ class ImageLoaderV2(
 
   private suspend fun notifyListenersFailure(
     context: Context,
-    url: String,
+    activeRequest: ActiveRequest,
     error: Throwable
   ) {
-    val listeners = mutex.withLockNonCancellable { activeRequests.get(url)?.consumeAllListeners() }
-    if (listeners == null) {
-      return
-    }
+    val listeners = consumeActiveRequest(activeRequest)
 
     listeners.forEach { listener ->
-      handleFailure(
-        actualListener = listener.imageListenerParam,
-        context = context,
-        imageSize = listener.imageSize,
-        transformations = listener.transformations,
-        throwable = error
-      )
+      if (!listener.isDisposed) {
+        handleFailure(
+          actualListener = listener.imageListenerParam,
+          context = context,
+          imageSize = listener.imageSize,
+          transformations = listener.transformations,
+          throwable = error
+        )
+      }
+
+      listener.completion.complete(Unit)
     }
   }
 
   private suspend fun loadFromNetworkInternal(
     context: Context,
-    url: String,
-    cacheFileType: CacheFileType,
-    imageSize: ImageSize,
+    activeRequest: ActiveRequest,
+    cacheFileType: CacheFileType
   ): AbstractFile? {
     BackgroundUtils.ensureBackgroundThread()
+    val url = activeRequest.url
 
     try {
       val resultFile = loadFromNetworkIntoFile(cacheFileType, url)
@@ -539,17 +703,17 @@ class ImageLoaderV2(
 
       return fileManager.fromRawFile(resultFile)
     } catch (error: Throwable) {
-      notifyListenersFailure(context, url, error)
+      notifyListenersFailure(context, activeRequest, error)
 
       if (error.isCoroutineCancellationException()) {
         Logger.e(TAG, "loadFromNetworkInternal() canceled '$url'")
-        return null
+        throw error
       }
 
       if (error.isNotFoundError() || error is BadContentTypeException || !error.isExceptionImportant()) {
-        Logger.e(TAG, "Failed to load '$url' $imageSize, fromCache=false, error: ${error.errorMessageOrClassName()}")
+        Logger.e(TAG, "Failed to load '$url', fromCache=false, error: ${error.errorMessageOrClassName()}")
       } else {
-        Logger.e(TAG, "Failed to load '$url' $imageSize, fromCache=false", error)
+        Logger.e(TAG, "Failed to load '$url', fromCache=false", error)
       }
     }
 
@@ -1316,6 +1480,17 @@ class ImageLoaderV2(
       }
     }
 
+    /**
+     * Same as [size] but doesn't wait for the view to be measured (returns null instead).
+     * */
+    fun sizeOrNull(): PixelSize? {
+      return when (this) {
+        is FixedImageSize -> PixelSize(width, height)
+        is MeasurableImageSize -> (sizeResolver as? FixedViewSizeResolver<*>)?.sizeOrNull()
+        is Unspecified -> PixelSize(0, 0)
+      }
+    }
+
     object Unspecified : ImageSize()
 
     data class FixedImageSize(val width: Int, val height: Int) : ImageSize() {
@@ -1354,6 +1529,47 @@ class ImageLoaderV2(
 
   }
 
+  /**
+   * Disposing it removes the listener from the request and when there are no listeners left the
+   * request itself is canceled (even if it's still waiting in its lane).
+   * */
+  class ThumbnailRequestDisposable(
+    private val completion: CompletableDeferred<Unit>,
+    private val onDispose: () -> Unit,
+    private val onUpdatePriority: (ThumbnailLoadPriority) -> Unit
+  ) : Disposable {
+
+    override val isDisposed: Boolean
+      get() = completion.isCompleted
+
+    @ExperimentalCoilApi
+    override suspend fun await() {
+      completion.await()
+    }
+
+    override fun dispose() {
+      if (!completion.isCompleted) {
+        onDispose()
+      }
+    }
+
+    fun updatePriority(priority: ThumbnailLoadPriority) {
+      if (!completion.isCompleted) {
+        onUpdatePriority(priority)
+      }
+    }
+
+    companion object {
+      fun completed(): ThumbnailRequestDisposable {
+        return ThumbnailRequestDisposable(
+          completion = CompletableDeferred(Unit),
+          onDispose = {},
+          onUpdatePriority = {}
+        )
+      }
+    }
+  }
+
   private class ResizeTransformation : Transformation {
     override fun key(): String = "${TAG}_ResizeTransformation"
 
@@ -1446,38 +1662,42 @@ class ImageLoaderV2(
     val imageListenerParam: ImageListenerParam,
     val imageSize: ImageSize,
     val transformations: List<Transformation>
-  )
+  ) {
+    val completion = CompletableDeferred<Unit>()
+
+    @Volatile
+    var isDisposed = false
+  }
+
+  private class ActiveRequest(
+    val url: String,
+    val ticket: ThumbnailLoadScheduler.Ticket
+  ) {
+    private val listeners = mutableListOf<ActiveListener>()
 
-  private data class ActiveRequest(val url: String) {
-    private val listeners = hashSetOf<ActiveListener>()
+    var job: Job? = null
 
     @Synchronized
-    fun addImageListener(
-      imageListenerParam: ImageListenerParam,
-      imageSize: ImageSize,
-      transformations: List<Transformation>
-    ): Boolean {
-      val alreadyHasActiveRequest = listeners.isNotEmpty()
-      listeners += ActiveListener(imageListenerParam, imageSize, transformations)
+    fun addImageListener(activeListener: ActiveListener) {
+      listeners += activeListener
+    }
 
-      return alreadyHasActiveRequest
+    @Synchronized
+    fun hasListeners(): Boolean {
+      return listeners.isNotEmpty()
     }
 
     @Synchronized
-    fun consumeAllListeners(): Set<ActiveListener> {
-      val imageListenersCopy = listeners.toSet()
+    fun consumeAllListeners(): List<ActiveListener> {
+      val imageListenersCopy = listeners.toList()
       listeners.clear()
 
       return imageListenersCopy
     }
 
     @Synchronized
-    fun removeImageListenerParam(imageListenerParam: ImageListenerParam): Boolean {
-      listeners.removeIfKt { activeListener ->
-        activeListener.imageListenerParam === imageListenerParam
-      }
-
-      return listeners.isEmpty()
+    fun removeImageListener(activeListener: ActiveListener): Boolean {
+      return listeners.remove(activeListener)
     }
   }
 
@@ -1485,6 +1705,9 @@ class ImageLoaderV2(
     private const val TAG = "ImageLoaderV2"
     private const val PREVIEW_SIZE = 1024
 
+    private const val MAX_CONCURRENT_THUMBNAIL_LOADS = 8
+    private const val THUMBNAIL_STATS_REPORT_INTERVAL = 500
+
     private val RESIZE_TRANSFORMATION = ResizeTransformation()
   }
 
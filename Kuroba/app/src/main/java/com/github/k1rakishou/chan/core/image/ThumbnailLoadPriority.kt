@@ -0,0 +1,16 @@
+package com.github.k1rakishou.chan.core.image
+
+/**
+ * Lanes of [ThumbnailLoadScheduler]. When there is a free slot, requests of a lane with a lower
+ * ordinal are always started before requests of the lanes with higher ordinals.
+ * */
+enum class ThumbnailLoadPriority {
+  // The view is attached and shown to the user right now
+  Visible,
+  // The view is bound but not attached yet (RecyclerView prefetch) or is about to be shown
+  NearVisible,
+  // Nobody is looking at the image yet (notifications, background prefetching)
+  Prefetch;
+
+  fun isHigherThan(other: ThumbnailLoadPriority): Boolean = ordinal < other.ordinal
+}
@@ -0,0 +1,132 @@
+package com.github.k1rakishou.chan.core.image
+
+import androidx.annotation.GuardedBy
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.suspendCancellableCoroutine
+
+/**
+ * Limits the amount of thumbnails that are being loaded from the disk/network at the same time.
+ * Requests that could not get a slot right away wait in the lane of their [ThumbnailLoadPriority]
+ * and when a slot is released it's given to the oldest request of the highest priority lane. This
+ * way the thumbnails of the views that are on the screen are never stuck behind the thumbnails of
+ * the views that were scrolled past during a fling.
+ *
+ * A waiting request is removed from its lane as soon as its coroutine is canceled (the view was
+ * recycled) so canceled requests never occupy a slot.
+ * */
+class ThumbnailLoadScheduler(
+  private val maxConcurrentLoads: Int
+) {
+  private val lanes = Array(ThumbnailLoadPriority.values().size) { ArrayDeque<Ticket>() }
+
+  @GuardedBy("lanes")
+  private var runningLoads = 0
+
+  init {
+    require(maxConcurrentLoads > 0) { "Bad maxConcurrentLoads: $maxConcurrentLoads" }
+  }
+
+  fun createTicket(priority: ThumbnailLoadPriority): Ticket {
+    return Ticket(priority)
+  }
+
+  /**
+   * Moves the ticket into a higher priority lane (e.g. a view that was bound during prefetch got
+   * attached). Lowering the priority is not supported since other views may still be waiting for
+   * the same image.
+   * */
+  fun updatePriority(ticket: Ticket, priority: ThumbnailLoadPriority) {
+    synchronized(lanes) {
+      if (!priority.isHigherThan(ticket.priority)) {
+        return
+      }
+
+      val wasWaiting = lanes[ticket.priority.ordinal].remove(ticket)
+      ticket.priority = priority
+
+      if (wasWaiting) {
+        lanes[priority.ordinal].addLast(ticket)
+      }
+    }
+  }
+
+  suspend fun <T> withSlot(ticket: Ticket, block: suspend () -> T): T {
+    acquire(ticket)
+
+    try {
+      return block()
+    } finally {
+      release()
+    }
+  }
+
+  fun queueDepths(): IntArray {
+    return synchronized(lanes) { IntArray(lanes.size) { index -> lanes[index].size } }
+  }
+
+  fun runningLoads(): Int {
+    return synchronized(lanes) { runningLoads }
+  }
+
+  @OptIn(ExperimentalCoroutinesApi::class)
+  private suspend fun acquire(ticket: Ticket) {
+    synchronized(lanes) {
+      if (runningLoads < maxConcurrentLoads) {
+        ++runningLoads
+        return
+      }
+    }
+
+    suspendCancellableCoroutine<Unit> { continuation ->
+      synchronized(lanes) {
+        // A slot may have been released while we were not holding the lock
+        if (runningLoads < maxConcurrentLoads) {
+          ++runningLoads
+          continuation.resume(Unit) { release() }
+          return@suspendCancellableCoroutine
+        }
+
+        ticket.continuation = continuation
+        lanes[ticket.priority.ordinal].addLast(ticket)
+      }
+
+      continuation.invokeOnCancellation {
+        synchronized(lanes) {
+          if (lanes[ticket.priority.ordinal].remove(ticket)) {
+            ticket.continuation = null
+          }
+        }
+      }
+    }
+  }
+
+  @OptIn(ExperimentalCoroutinesApi::class)
+  private fun release() {
+    synchronized(lanes) {
+      for (lane in lanes) {
+        val ticket = lane.removeFirstOrNull()
+          ?: continue
+
+        val continuation = checkNotNull(ticket.continuation) { "Waiting ticket without continuation" }
+        ticket.continuation = null
+
+        // The slot is handed over to the waiting request. If it gets canceled before it's resumed
+        // then the slot is released again.
+        continuation.resume(Unit) { release() }
+        return
+      }
+
+      --runningLoads
+    }
+  }
+
+  class Ticket internal constructor(priority: ThumbnailLoadPriority) {
+    @Volatile
+    var priority: ThumbnailLoadPriority = priority
+      internal set
+
+    internal var continuation: CancellableContinuation<Unit>? = null
+  }
+
+}
@@ -0,0 +1,88 @@
+package com.github.k1rakishou.chan.core.image
+
+import android.graphics.Bitmap
+import android.util.LruCache
+import coil.size.PixelSize
+import coil.transform.Transformation
+import com.github.k1rakishou.ChanSettings
+
+/**
+ * Already decoded thumbnails keyed by (url, size, transformations) so that binding a view to an
+ * image that was recently shown can be answered right away on the main thread without launching
+ * any coroutines or touching the disk. The bitmaps are the same instances that are handed out to
+ * the views so as long as they are on the screen the cache costs (almost) no extra memory.
+ *
+ * Thread-safe.
+ * */
+class ThumbnailMemoryCache(
+  private val maxSizeBytes: Int
+) {
+  private val cache = object : LruCache<String, Bitmap>(maxSizeBytes) {
+    override fun sizeOf(key: String, value: Bitmap): Int {
+      return value.allocationByteCount
+    }
+  }
+
+  fun get(key: String): Bitmap? {
+    val bitmap = cache.get(key)
+      ?: return null
+
+    if (bitmap.isRecycled) {
+      cache.remove(key)
+      return null
+    }
+
+    return bitmap
+  }
+
+  fun put(key: String, bitmap: Bitmap) {
+    if (bitmap.isRecycled) {
+      return
+    }
+
+    // Do not let one huge image (highResCells with original images) evict all the thumbnails
+    if (bitmap.allocationByteCount > maxSizeBytes / MAX_ENTRY_SIZE_DIVIDER) {
+      return
+    }
+
+    cache.put(key, bitmap)
+  }
+
+  fun clear() {
+    cache.evictAll()
+  }
+
+  companion object {
+    private const val MAX_ENTRY_SIZE_DIVIDER = 8
+    private const val MIN_SIZE_BYTES = 4 * 1024 * 1024
+    private const val MAX_SIZE_BYTES = 48 * 1024 * 1024
+
+    fun defaultMaxSizeBytes(): Int {
+      val divider = if (ChanSettings.isLowRamDevice()) 32 else 12
+      val maxSize = Runtime.getRuntime().maxMemory() / divider
+
+      return maxSize.coerceIn(MIN_SIZE_BYTES.toLong(), MAX_SIZE_BYTES.toLong()).toInt()
+    }
+
+    /**
+     * [size] is the resolved size of the target (null or 0x0 when the image is loaded with its
+     * original size), [transformations] must already include the transformations that are added
+     * implicitly (like the resize transformation for high-res cells).
+     * */
+    fun key(url: String, size: PixelSize?, transformations: List<Transformation>): String {
+      return buildString(capacity = url.length + 32) {
+        append(url)
+        append('|')
+        append(size?.width ?: 0)
+        append('x')
+        append(size?.height ?: 0)
+
+        transformations.forEach { transformation ->
+          append('|')
+          append(transformation.key())
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.github.k1rakishou.chan.core.image
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Counters of the thumbnail pipeline of [ImageLoaderV2]: per lane requests and where they were
+ * answered from (memory, disk, network), how many requests were canceled because their views
+ * were recycled and how much time decoding takes.
+ * */
+class ThumbnailPipelineStats {
+  private val lanesCount = ThumbnailLoadPriority.values().size
+
+  private val requests = AtomicLongArray(lanesCount)
+  private val memoryHits = AtomicLongArray(lanesCount)
+  private val diskHits = AtomicLongArray(lanesCount)
+  private val networkLoads = AtomicLongArray(lanesCount)
+  private val failures = AtomicLongArray(lanesCount)
+  private val canceled = AtomicLongArray(lanesCount)
+
+  private val decodes = AtomicLong(0)
+  private val sharedDecodes = AtomicLong(0)
+  private val decodeTotalNanos = AtomicLong(0)
+  private val decodeMaxNanos = AtomicLong(0)
+
+  private val finishedLoads = AtomicLong(0)
+
+  fun onRequest(priority: ThumbnailLoadPriority) {
+    requests.incrementAndGet(priority.ordinal)
+  }
+
+  fun onMemoryHit(priority: ThumbnailLoadPriority) {
+    memoryHits.incrementAndGet(priority.ordinal)
+  }
+
+  fun onDiskHit(priority: ThumbnailLoadPriority) {
+    diskHits.incrementAndGet(priority.ordinal)
+  }
+
+  fun onNetworkLoad(priority: ThumbnailLoadPriority) {
+    networkLoads.incrementAndGet(priority.ordinal)
+  }
+
+  fun onFailure(priority: ThumbnailLoadPriority) {
+    failures.incrementAndGet(priority.ordinal)
+  }
+
+  fun onCanceled(priority: ThumbnailLoadPriority) {
+    canceled.incrementAndGet(priority.ordinal)
+  }
+
+  /**
+   * [listenersCount] is the amount of listeners that received the decoded bitmap. Everybody except
+   * the first one got it for free.
+   * */
+  fun onDecoded(tookNanos: Long, listenersCount: Int) {
+    decodes.incrementAndGet()
+    decodeTotalNanos.addAndGet(tookNanos)
+    sharedDecodes.addAndGet((listenersCount - 1).coerceAtLeast(0).toLong())
+
+    while (true) {
+      val prevMax = decodeMaxNanos.get()
+      if (tookNanos <= prevMax || decodeMaxNanos.compareAndSet(prevMax, tookNanos)) {
+        break
+      }
+    }
+  }
+
+  /**
+   * Returns true once every [everyLoads] finished loads, used to periodically log the stats.
+   * */
+  fun onLoadFinished(everyLoads: Int): Boolean {
+    return finishedLoads.incrementAndGet() % everyLoads == 0L
+  }
+
+  fun format(queueDepths: IntArray, runningLoads: Int): String {
+    return buildString {
+      appendLine("ThumbnailPipelineStats{runningLoads=${runningLoads}")
+
+      ThumbnailLoadPriority.values().forEach { priority ->
+        val index = priority.ordinal
+        val requestsCount = requests.get(index)
+        val memoryHitsCount = memoryHits.get(index)
+        val diskHitsCount = diskHits.get(index)
+
+        append("  ${priority.name}: queueDepth=${queueDepths.getOrElse(index) { 0 }}, ")
+        append("requests=${requestsCount}, ")
+        append("memoryHits=${memoryHitsCount} (${percent(memoryHitsCount, requestsCount)}), ")
+        append("diskHits=${diskHitsCount} (${percent(diskHitsCount, requestsCount)}), ")
+        append("networkLoads=${networkLoads.get(index)}, ")
+        append("failures=${failures.get(index)}, ")
+        appendLine("canceled=${canceled.get(index)}")
+      }
+
+      val decodesCount = decodes.get()
+      val averageDecodeMs = if (decodesCount > 0) {
+        decodeTotalNanos.get() / decodesCount / NANOS_IN_MILLI
+      } else {
+        0L
+      }
+
+      append("  decodes=${decodesCount}, sharedDecodes=${sharedDecodes.get()}, ")
+      append("averageDecodeMs=${averageDecodeMs}, maxDecodeMs=${decodeMaxNanos.get() / NANOS_IN_MILLI}}")
+    }
+  }
+
+  private fun percent(value: Long, total: Long): String {
+    if (total <= 0) {
+      return "0%"
+    }
+
+    return "${value * 100 / total}%"
+  }
+
+  companion object {
+    private const val NANOS_IN_MILLI = 1_000_000L
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.github.k1rakishou.chan.core.loader.impl
+
+import androidx.annotation.GuardedBy
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Limits the amount of requests to a single booru running at the same time and how often new
+ * requests may be started. Requests that exceed the rate are delayed (not dropped) so that they are
+ * started evenly spaced out.
+ * */
+class BooruRateLimiter(
+  val maxConcurrentRequests: Int,
+  val maxRequestsPerSecond: Int,
+  private val currentTimeMillis: () -> Long = { System.nanoTime() / 1_000_000L }
+) {
+  private val semaphore = Semaphore(maxConcurrentRequests.coerceAtLeast(1))
+  private val mutex = Mutex()
+  private val minIntervalMs = 1000L / maxRequestsPerSecond.coerceAtLeast(1)
+
+  @GuardedBy("mutex")
+  private var nextRequestAllowedAt = 0L
+
+  suspend fun <T> withPermit(func: suspend () -> T): T {
+    return semaphore.withPermit {
+      awaitRequestSlot()
+      return@withPermit func()
+    }
+  }
+
+  private suspend fun awaitRequestSlot() {
+    val waitMs = mutex.withLock {
+      val now = currentTimeMillis()
+      val requestAllowedAt = maxOf(now, nextRequestAllowedAt)
+      nextRequestAllowedAt = requestAllowedAt + minIntervalMs
+
+      return@withLock requestAllowedAt - now
+    }
+
+    if (waitMs > 0) {
+      delay(waitMs)
+    }
+  }
+
+  fun hasSameLimits(maxConcurrentRequests: Int, maxRequestsPerSecond: Int): Boolean {
+    return this.maxConcurrentRequests == maxConcurrentRequests
+      && this.maxRequestsPerSecond == maxRequestsPerSecond
+  }
+
+}
@@ -7,22 +7,22 @@ import com.github.k1rakishou.chan.core.loader.PostLoaderData
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
 import com.github.k1rakishou.chan.core.manager.ThirdEyeManager
 import com.github.k1rakishou.chan.core.site.SiteRequestModifier.Companion.addDefaultHeaders
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruImageInfo
+import com.github.k1rakishou.chan.features.thirdeye.data.BooruLookupResult
 import com.github.k1rakishou.chan.features.thirdeye.data.BooruSetting
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.chan.utils.traverseJson
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
-import com.github.k1rakishou.common.StringUtils
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.isJson
-import com.github.k1rakishou.common.isNotNullNorBlank
 import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.processDataCollectionConcurrently
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPostImage
-import com.github.k1rakishou.model.data.post.ChanPostImageBuilder
 import com.github.k1rakishou.model.data.post.LoaderType
 import com.squareup.moshi.JsonReader
 import dagger.Lazy
@@ -36,7 +36,7 @@ import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
 import java.util.*
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.ConcurrentHashMap
 
 class ThirdEyeLoader(
   private val appConstants: AppConstants,
@@ -52,6 +52,10 @@ class ThirdEyeLoader(
   private val proxiedOkHttpClient: ProxiedOkHttpClient
     get() = _proxiedOkHttpClient.get()
 
+  private val lookupStats = ThirdEyeLookupStats()
+  private val rateLimiters = ConcurrentHashMap<String, BooruRateLimiter>()
+  private val compiledJsonKeysMap = ConcurrentHashMap<BooruSetting, CompiledJsonKeys>()
+
   override suspend fun isCached(postLoaderData: PostLoaderData): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -199,29 +203,22 @@ class ThirdEyeLoader(
           break
         }
 
-        val skipImageCompletely = AtomicBoolean(false)
-
-        val thirdEyeImageResult = ModularResult.Try {
-          return@Try processSingleBooru(
-            booruSettings = booruSettings,
-            imageHash = imageHash,
-            postDescriptor = postImage.ownerPostDescriptor,
-            skipImageCompletely = skipImageCompletely
-          )
-        }
-
-        if (skipImageCompletely.get()) {
-          break
-        }
+        val lookupResult = lookupImage(booruSettings, imageHash)
 
-        when (thirdEyeImageResult) {
-          is ModularResult.Error -> {
-            Logger.e(TAG, "processSingleBooru() unhandled error", thirdEyeImageResult.error)
+        when (lookupResult) {
+          BooruLookupResult.Banned -> {
+            // Image has one of the banned tags, do not check other boorus
+            break
+          }
+          BooruLookupResult.NotFound,
+          BooruLookupResult.Failed -> {
             continue
           }
-          is ModularResult.Value -> {
-            val thirdEyeImage = thirdEyeImageResult.value
-              ?: continue
+          is BooruLookupResult.Found -> {
+            val thirdEyeImage = lookupResult.imageInfo.toChanPostImage(
+              postDescriptor = postImage.ownerPostDescriptor,
+              imageHash = imageHash
+            )
 
             if (!chanThreadManager.addImage(thirdEyeImage)) {
               return@processDataCollectionConcurrently false
@@ -258,17 +255,71 @@ class ThirdEyeLoader(
     return results.any { success -> success }
   }
 
+  /**
+   * Checks the persistent lookup cache first and only sends a request to the booru (respecting its
+   * rate limits) when there is no cached result for this hash.
+   * */
+  private suspend fun lookupImage(booruSettings: BooruSetting, imageHash: String): BooruLookupResult {
+    val booruUniqueKey = booruSettings.booruUniqueKey
+    val lookupCacheKey = booruSettings.lookupCacheKey
+
+    val cachedLookupResult = thirdEyeManager.lookupCache.get(lookupCacheKey, imageHash)
+    if (cachedLookupResult != null) {
+      lookupStats.onLookupAvoided(booruUniqueKey)
+      logStatsIfNeeded()
+
+      return cachedLookupResult
+    }
+
+    val lookupResult = rateLimiterFor(booruSettings).withPermit {
+      val start = System.nanoTime()
+
+      val lookupResult: BooruLookupResult = ModularResult.Try { processSingleBooru(booruSettings, imageHash) }
+        .mapErrorToValue { error ->
+          Logger.e(TAG, "processSingleBooru() unhandled error", error)
+          return@mapErrorToValue BooruLookupResult.Failed
+        }
+
+      val tookMs = (System.nanoTime() - start) / 1_000_000L
+      lookupStats.onLookupIssued(booruUniqueKey, tookMs, lookupResult is BooruLookupResult.Failed)
+
+      return@withPermit lookupResult
+    }
+
+    thirdEyeManager.lookupCache.put(lookupCacheKey, imageHash, lookupResult)
+    logStatsIfNeeded()
+
+    return lookupResult
+  }
+
+  private fun rateLimiterFor(booruSettings: BooruSetting): BooruRateLimiter {
+    val maxConcurrentRequests = booruSettings.maxConcurrentRequests
+    val maxRequestsPerSecond = booruSettings.maxRequestsPerSecond
+
+    return rateLimiters.compute(booruSettings.booruUniqueKey) { _, prevRateLimiter ->
+      if (prevRateLimiter != null && prevRateLimiter.hasSameLimits(maxConcurrentRequests, maxRequestsPerSecond)) {
+        return@compute prevRateLimiter
+      }
+
+      return@compute BooruRateLimiter(maxConcurrentRequests, maxRequestsPerSecond)
+    }!!
+  }
+
+  private fun logStatsIfNeeded() {
+    if (lookupStats.onLookupFinished(everyLookups = STATS_LOG_INTERVAL)) {
+      Logger.d(TAG, lookupStats.format())
+    }
+  }
+
   private suspend fun processSingleBooru(
     booruSettings: BooruSetting,
-    imageHash: String,
-    postDescriptor: PostDescriptor,
-    skipImageCompletely: AtomicBoolean
-  ): ChanPostImage? {
+    imageHash: String
+  ): BooruLookupResult {
     val imageByMd5EndpointUrl = booruSettings.formatFullImageByMd5EndpointUrl(imageHash)
     if (imageByMd5EndpointUrl == null) {
       Logger.e(TAG, "processSingleBooru() failed to format imageByMd5EndpointUrl. " +
           "imageByMd5Endpoint=${booruSettings.apiEndpoint}, imageHash=${imageHash}")
-      return null
+      return BooruLookupResult.Failed
     }
 
     val request = Request.Builder()
@@ -279,162 +330,151 @@ class ThirdEyeLoader(
 
     val response = proxiedOkHttpClient.okHttpClient().suspendCall(request)
 
-    if (!response.isSuccessful) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
-        "bad status: ${response.code}")
-      return null
-    }
+    val lookupResult: BooruLookupResult = response.use {
+      if (response.code == 404) {
+        return@use BooruLookupResult.NotFound
+      }
 
-    val responseBody = response.body
-    if (responseBody == null) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
-        "no response body")
-      return null
-    }
+      if (!response.isSuccessful) {
+        Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+          "bad status: ${response.code}")
+        return@use BooruLookupResult.Failed
+      }
 
-    val contentType = responseBody.contentType()
-    val isJsonContent = contentType?.isJson() ?: false
-    if (!isJsonContent) {
-      Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
-        "bad content type: '$contentType'")
-      return null
-    }
+      val responseBody = response.body
+      if (responseBody == null) {
+        Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+          "no response body")
+        return@use BooruLookupResult.Failed
+      }
 
-    val chanPostImage = responseBody.source().use { source ->
-      return@use JsonReader.of(source).use { jsonReader ->
-        return@use extractChanPostImageDataFromJson(
-          imageHash = imageHash,
-          imageByMd5EndpointUrl = imageByMd5EndpointUrl,
-          postDescriptor = postDescriptor,
-          booruSettings = booruSettings,
-          jsonReader = jsonReader,
-          skipImageCompletely = skipImageCompletely
-        )
+      val contentType = responseBody.contentType()
+      val isJsonContent = contentType?.isJson() ?: false
+      if (!isJsonContent) {
+        Logger.e(TAG, "processSingleBooru() failure, url='$imageByMd5EndpointUrl', " +
+          "bad content type: '$contentType'")
+        return@use BooruLookupResult.Failed
+      }
+
+      return@use responseBody.source().use { source ->
+        return@use JsonReader.of(source).use { jsonReader ->
+          return@use extractBooruImageInfoFromJson(
+            imageHash = imageHash,
+            imageByMd5EndpointUrl = imageByMd5EndpointUrl,
+            booruSettings = booruSettings,
+            jsonReader = jsonReader
+          )
+        }
       }
     }
 
     Logger.d(TAG, "processSingleBooru() imageHash='$imageHash', " +
-      "url='$imageByMd5EndpointUrl', matches: ${chanPostImage != null}")
-    return chanPostImage
+      "url='$imageByMd5EndpointUrl', result: ${lookupResult.javaClass.simpleName}")
+    return lookupResult
   }
 
-  private fun extractChanPostImageDataFromJson(
+  private fun extractBooruImageInfoFromJson(
     imageHash: String,
     imageByMd5EndpointUrl: HttpUrl,
-    postDescriptor: PostDescriptor,
     booruSettings: BooruSetting,
-    jsonReader: JsonReader,
-    skipImageCompletely: AtomicBoolean
-  ): ChanPostImage? {
-    if (skipImageCompletely.get()) {
-      return null
-    }
-
-    val fullUrlJsonKey = JsonKey(booruSettings.fullUrlJsonKey.lowercase(Locale.ENGLISH).trim())
-    val previewUrlJsonKey = JsonKey(booruSettings.previewUrlJsonKey.lowercase(Locale.ENGLISH).trim())
-    val fileSizeJsonKey = JsonKey(booruSettings.fileSizeJsonKey.lowercase(Locale.ENGLISH).trim())
-    val widthJsonKey = JsonKey(booruSettings.widthJsonKey.lowercase(Locale.ENGLISH).trim())
-    val heightJsonKey = JsonKey(booruSettings.heightJsonKey.lowercase(Locale.ENGLISH).trim())
-    val tagsJsonKey = JsonKey(booruSettings.tagsJsonKey.lowercase(Locale.ENGLISH).trim())
-
-    val namesToCheck = mutableMapOf<JsonKey, JsonValue?>(
-      fullUrlJsonKey to null,
-      previewUrlJsonKey to null,
-      fileSizeJsonKey to null,
-      widthJsonKey to null,
-      heightJsonKey to null,
-      tagsJsonKey to null,
-    )
+    jsonReader: JsonReader
+  ): BooruLookupResult {
+    val compiledJsonKeys = compiledJsonKeysFor(booruSettings)
+    val values = compiledJsonKeys.newValues()
 
     try {
       jsonReader.traverseJson(
-        visitor = { path, name, value -> visit(namesToCheck, path, name, value) },
+        visitor = { path, name, value -> visit(compiledJsonKeys, values, path, name, value) },
         currentName = null,
         jsonDebugOutput = null
       )
     } catch (error: Throwable) {
       Logger.e(TAG, "parseJsonInternal() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
         "error: ${error.errorMessageOrClassName()}")
-      return null
-    }
-
-    if (namesToCheck.values.all { value -> value == null }) {
-      return null
+      return BooruLookupResult.Failed
     }
 
-    if (skipImageCompletely.get()) {
-      return null
+    if (values.all { value -> value == null }) {
+      return BooruLookupResult.NotFound
     }
 
-    val tags = namesToCheck[tagsJsonKey]?.asList() ?: emptyList()
+    val tags = compiledJsonKeys.value(values, compiledJsonKeys.tagsSlot)?.asList() ?: emptyList()
     val bannedTagsAsSet = booruSettings.bannedTagsAsSet
 
     for (imageTag in tags) {
       if (imageTag.lowercase(Locale.ENGLISH) in bannedTagsAsSet) {
-        Logger.d(TAG, "extractChanPostImageDataFromJson() Found banned tag: '${imageTag}', " +
+        Logger.d(TAG, "extractBooruImageInfoFromJson() Found banned tag: '${imageTag}', " +
           "skipping this image (imageHash='$imageHash')")
 
-        skipImageCompletely.set(true)
-        return null
+        return BooruLookupResult.Banned
       }
     }
 
-    val previewUrl = namesToCheck[previewUrlJsonKey]?.firstOrNull()?.toHttpUrlOrNull()
-    val fullUrl = namesToCheck[fullUrlJsonKey]?.firstOrNull()?.toHttpUrlOrNull()
-    val width = namesToCheck[widthJsonKey]?.firstOrNull()?.toIntOrNull()
-    val height = namesToCheck[heightJsonKey]?.firstOrNull()?.toIntOrNull()
-    val fileSize = namesToCheck[fileSizeJsonKey]?.firstOrNull()?.toLongOrNull()
+    val previewUrlValue = compiledJsonKeys.value(values, compiledJsonKeys.previewUrlSlot)?.firstOrNull()
+    val fullUrlValue = compiledJsonKeys.value(values, compiledJsonKeys.fullUrlSlot)?.firstOrNull()
+
+    val previewUrl = previewUrlValue?.toHttpUrlOrNull()
+    val fullUrl = fullUrlValue?.toHttpUrlOrNull()
+    val width = compiledJsonKeys.value(values, compiledJsonKeys.widthSlot)?.firstOrNull()?.toIntOrNull()
+    val height = compiledJsonKeys.value(values, compiledJsonKeys.heightSlot)?.firstOrNull()?.toIntOrNull()
+    val fileSize = compiledJsonKeys.value(values, compiledJsonKeys.fileSizeSlot)?.firstOrNull()?.toLongOrNull()
 
+    // The booru did return something for this hash, so a missing or broken url is most likely a
+    // misconfigured json key or a temporary booru issue. Failed results are not cached.
     if (fullUrl == null) {
-      Logger.e(TAG, "extractChanPostImageDataFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
-        "failed to extract fullUrl: '${namesToCheck[fullUrlJsonKey]?.firstOrNull()}'")
-      return null
+      Logger.e(TAG, "extractBooruImageInfoFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
+        "failed to extract fullUrl: '${fullUrlValue}'")
+      return BooruLookupResult.Failed
     }
 
     if (previewUrl == null) {
-      Logger.e(TAG, "extractChanPostImageDataFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
-        "failed to extract previewUrl: '${namesToCheck[previewUrlJsonKey]?.firstOrNull()}'")
-      return null
+      Logger.e(TAG, "extractBooruImageInfoFromJson() imageByMd5EndpointUrl='$imageByMd5EndpointUrl', " +
+        "failed to extract previewUrl: '${previewUrlValue}'")
+      return BooruLookupResult.Failed
     }
 
-    val chanPostImageBuilder = ChanPostImageBuilder(postDescriptor).apply {
-      imageUrl(fullUrl)
-      thumbnailUrl(previewUrl)
+    val imageInfo = BooruImageInfo(
+      fullUrl = fullUrl,
+      previewUrl = previewUrl,
+      width = width,
+      height = height,
+      fileSize = fileSize
+    )
 
-      inlined()
-      fileHash(imageHash, false)
-      serverFilename(imageHash)
+    return BooruLookupResult.Found(imageInfo)
+  }
 
-      val extension = StringUtils.extractFileNameExtension(fullUrl.encodedPath)
-      if (extension.isNotNullNorBlank() && extension.length < 5) {
-        extension(extension)
-      }
+  private fun compiledJsonKeysFor(booruSettings: BooruSetting): CompiledJsonKeys {
+    val compiledJsonKeys = compiledJsonKeysMap[booruSettings]
+    if (compiledJsonKeys != null) {
+      return compiledJsonKeys
+    }
 
-      width?.let { w -> imageWidth(w) }
-      height?.let { h -> imageHeight(h) }
-      fileSize?.let { size -> imageSize(size) }
+    if (compiledJsonKeysMap.size > MAX_COMPILED_JSON_KEYS) {
+      // Boorus were edited a lot of times, drop the old versions
+      compiledJsonKeysMap.clear()
     }
 
-    return chanPostImageBuilder.build()
+    return compiledJsonKeysMap.getOrPut(booruSettings) { CompiledJsonKeys(booruSettings) }
   }
 
   private fun visit(
-    namesToCheck: MutableMap<JsonKey, JsonValue?>,
+    compiledJsonKeys: CompiledJsonKeys,
+    values: Array<JsonValue?>,
     path: List<String>,
     name: String?,
     value: String?
   ) {
-    for (jsonKey in namesToCheck.keys) {
-      if (!jsonKey.compare(path, name)) {
-        continue
-      }
-
-      if (namesToCheck[jsonKey] is JsonValue.JsonString) {
-        val prevValue = (namesToCheck[jsonKey] as JsonValue.JsonString).value
+    val slot = compiledJsonKeys.findSlot(path, name)
+    if (slot < 0) {
+      return
+    }
 
+    when (val prevValue = values[slot]) {
+      is JsonValue.JsonString -> {
         val list = mutableListWithCap<String>(10).apply {
-          if (prevValue != null) {
-            add(prevValue)
+          if (prevValue.value != null) {
+            add(prevValue.value)
           }
 
           if (value != null) {
@@ -442,16 +482,110 @@ class ThirdEyeLoader(
           }
         }
 
-        namesToCheck[jsonKey] = JsonValue.JsonArray(list)
-      } else if (namesToCheck[jsonKey] is JsonValue.JsonArray) {
+        values[slot] = JsonValue.JsonArray(list)
+      }
+      is JsonValue.JsonArray -> {
         if (value != null) {
-          (namesToCheck[jsonKey] as JsonValue.JsonArray).values.add(value)
+          prevValue.values.add(value)
         }
-      } else {
-        namesToCheck[jsonKey] = JsonValue.JsonString(value)
       }
+      null -> {
+        values[slot] = JsonValue.JsonString(value)
+      }
+    }
+  }
 
-      return
+  /**
+   * Json keys of a booru setting, split into paths once instead of on every lookup. Keys are indexed
+   * by their last component (or by the name for simple keys) so that a json token is only compared
+   * to the keys that could possibly match it instead of to all of them.
+   * */
+  class CompiledJsonKeys(booruSettings: BooruSetting) {
+    private val jsonKeys = mutableListWithCap<JsonKey>(6)
+
+    val fullUrlSlot = slotOf(booruSettings.fullUrlJsonKey)
+    val previewUrlSlot = slotOf(booruSettings.previewUrlJsonKey)
+    val fileSizeSlot = slotOf(booruSettings.fileSizeJsonKey)
+    val widthSlot = slotOf(booruSettings.widthJsonKey)
+    val heightSlot = slotOf(booruSettings.heightJsonKey)
+    val tagsSlot = slotOf(booruSettings.tagsJsonKey)
+
+    private val slotsByLastKey: Map<String, IntArray>
+    private val wildcardSlots: IntArray
+
+    init {
+      val slotsByLastKeyMutable = mutableMapWithCap<String, MutableList<Int>>(jsonKeys.size)
+      val wildcardSlotsMutable = mutableListWithCap<Int>(jsonKeys.size)
+
+      jsonKeys.forEachIndexed { slot, jsonKey ->
+        val lastKey = jsonKey.lastKey()
+
+        if (lastKey == "*") {
+          wildcardSlotsMutable += slot
+        } else {
+          slotsByLastKeyMutable.getOrPut(lastKey) { mutableListWithCap(1) } += slot
+        }
+      }
+
+      slotsByLastKey = slotsByLastKeyMutable.mapValues { (_, slots) -> slots.toIntArray() }
+      wildcardSlots = wildcardSlotsMutable.toIntArray()
+    }
+
+    fun newValues(): Array<JsonValue?> = arrayOfNulls(jsonKeys.size)
+
+    fun value(values: Array<JsonValue?>, slot: Int): JsonValue? {
+      if (slot < 0) {
+        return null
+      }
+
+      return values[slot]
+    }
+
+    /**
+     * Returns the slot of the first (in the order the keys were declared in) key that matches this
+     * json token or -1.
+     * */
+    fun findSlot(path: List<String>, name: String?): Int {
+      var foundSlot = Int.MAX_VALUE
+
+      val tokenLastKey = (name ?: path.lastOrNull())?.lowercase(Locale.ENGLISH)
+      if (tokenLastKey != null) {
+        slotsByLastKey[tokenLastKey]?.forEach { slot ->
+          if (slot < foundSlot && jsonKeys[slot].compare(path, name)) {
+            foundSlot = slot
+          }
+        }
+      }
+
+      wildcardSlots.forEach { slot ->
+        if (slot < foundSlot && jsonKeys[slot].compare(path, name)) {
+          foundSlot = slot
+        }
+      }
+
+      if (foundSlot == Int.MAX_VALUE) {
+        return -1
+      }
+
+      return foundSlot
+    }
+
+    private fun slotOf(rawJsonKey: String): Int {
+      val keyFull = rawJsonKey.lowercase(Locale.ENGLISH).trim()
+      if (keyFull.isEmpty()) {
+        // Optional keys that were not set
+        return -1
+      }
+
+      val jsonKey = JsonKey(keyFull)
+
+      val existingSlot = jsonKeys.indexOf(jsonKey)
+      if (existingSlot >= 0) {
+        return existingSlot
+      }
+
+      jsonKeys += jsonKey
+      return jsonKeys.lastIndex
     }
   }
 
@@ -470,6 +604,17 @@ class ThirdEyeLoader(
       }
     }
 
+    /**
+     * The name of the field for simple keys or the last component of the path for path keys.
+     * */
+    fun lastKey(): String {
+      if (keyAsListOfKeys.isEmpty()) {
+        return keyFull.lowercase(Locale.ENGLISH)
+      }
+
+      return keyAsListOfKeys.last()
+    }
+
     fun compare(path: List<String>, name: String?): Boolean {
       if (keyAsListOfKeys.isEmpty()) {
         return keyFull.equals(other = name, ignoreCase = true)
@@ -578,6 +723,8 @@ class ThirdEyeLoader(
 
   companion object {
     private const val TAG = "ThirdEyeLoader"
+    private const val STATS_LOG_INTERVAL = 50
+    private const val MAX_COMPILED_JSON_KEYS = 32
   }
 
 }
\ No newline at end of file
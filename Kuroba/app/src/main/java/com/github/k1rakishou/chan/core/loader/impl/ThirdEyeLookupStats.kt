@@ -0,0 +1,77 @@
+package com.github.k1rakishou.chan.core.loader.impl
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Per booru counters of the ThirdEye lookups: how many lookups were answered by the lookup cache,
+ * how many requests were actually sent and how long they took.
+ * */
+class ThirdEyeLookupStats {
+  private val booruStatsMap = ConcurrentHashMap<String, BooruStats>()
+  private val totalLookups = AtomicLong(0)
+
+  fun onLookupAvoided(booruKey: String) {
+    booruStats(booruKey).lookupsAvoided.incrementAndGet()
+  }
+
+  fun onLookupIssued(booruKey: String, tookMs: Long, failed: Boolean) {
+    val booruStats = booruStats(booruKey)
+
+    booruStats.lookupsIssued.incrementAndGet()
+    booruStats.totalLatencyMs.addAndGet(tookMs)
+
+    if (failed) {
+      booruStats.lookupsFailed.incrementAndGet()
+    }
+
+    while (true) {
+      val prevMax = booruStats.maxLatencyMs.get()
+      if (tookMs <= prevMax || booruStats.maxLatencyMs.compareAndSet(prevMax, tookMs)) {
+        break
+      }
+    }
+  }
+
+  /**
+   * Returns true once every [everyLookups] lookups (avoided or issued), used to periodically log
+   * the stats.
+   * */
+  fun onLookupFinished(everyLookups: Int): Boolean {
+    return totalLookups.incrementAndGet() % everyLookups == 0L
+  }
+
+  fun format(): String {
+    return buildString {
+      append("ThirdEyeLookupStats{")
+
+      booruStatsMap.entries.forEach { (booruKey, booruStats) ->
+        val issued = booruStats.lookupsIssued.get()
+        val averageLatencyMs = if (issued > 0) booruStats.totalLatencyMs.get() / issued else 0L
+
+        appendLine()
+        append("  ${booruKey}: ")
+        append("lookupsAvoided=${booruStats.lookupsAvoided.get()}, ")
+        append("lookupsIssued=${issued}, ")
+        append("lookupsFailed=${booruStats.lookupsFailed.get()}, ")
+        append("averageLatencyMs=${averageLatencyMs}, ")
+        append("maxLatencyMs=${booruStats.maxLatencyMs.get()}")
+      }
+
+      append("}")
+    }
+  }
+
+  private fun booruStats(booruKey: String): BooruStats {
+    return booruStatsMap.getOrPut(booruKey) { BooruStats() }
+  }
+
+  private class BooruStats {
+    val lookupsAvoided = AtomicLong(0)
+    val lookupsIssued = AtomicLong(0)
+    val lookupsFailed = AtomicLong(0)
+    val totalLatencyMs = AtomicLong(0)
+    val maxLatencyMs = AtomicLong(0)
+  }
+
+}
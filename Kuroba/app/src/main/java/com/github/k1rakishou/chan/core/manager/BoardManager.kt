@@ -4,6 +4,7 @@ import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.common.DoNotStrip
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.StartupTracer
 import com.github.k1rakishou.common.SuspendableInitializer
 import com.github.k1rakishou.common.linkedMapWithCap
 import com.github.k1rakishou.common.mutableListWithCap
@@ -23,6 +24,9 @@ import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
@@ -37,6 +41,8 @@ class BoardManager(
   private val currentOpenedDescriptorStateManager: CurrentOpenedDescriptorStateManager
 ) {
   private val suspendableInitializer = SuspendableInitializer<Unit>("BoardManager")
+  private val allBoardsInitializer = SuspendableInitializer<Unit>("BoardManager_AllBoards")
+  private val inactiveBoardsLoadMutex = Mutex()
   private val persistBoardsDebouncer = DebouncingCoroutineExecutor(appScope)
 
   private val boardsChangedSubject = PublishProcessor.create<Unit>()
@@ -46,6 +52,8 @@ class BoardManager(
   private val boardsMap = mutableMapOf<SiteDescriptor, LinkedHashMap<BoardDescriptor, ChanBoard>>()
   @GuardedBy("lock")
   private val ordersMap = mutableMapOf<SiteDescriptor, MutableList<BoardDescriptor>>()
+  @GuardedBy("lock")
+  private val sitesWithInactiveBoardsLoaded = mutableSetOf<SiteDescriptor>()
 
   private val boardRepository: BoardRepository
     get() = _boardRepository.get()
@@ -61,17 +69,56 @@ class BoardManager(
     }
   }
 
+  /**
+   * Boards are loaded in two steps. First, only the active boards of every site are loaded (there
+   * are usually only a handful of them) after which the BoardManager is considered initialized.
+   * Then the inactive boards (some sites have thousands of them) are loaded site by site in the
+   * background. Inactive boards of a site can also be loaded on demand with
+   * [awaitUntilSiteBoardsLoaded] if some code needs them before the background loading is done.
+   * */
   private suspend fun loadBoardsInternal(siteDataListAsync: CompletableDeferred<List<ChanSiteData>>) {
+    val startNanos = System.nanoTime()
+
+    val allLoadedSites = loadActiveBoards(siteDataListAsync)
+    if (allLoadedSites == null) {
+      return
+    }
+
+    val activeBoardsLoadedNanos = System.nanoTime()
+    StartupTracer.recordSpan("BoardManager active boards", StartupTracer.CATEGORY_INIT, startNanos, activeBoardsLoadedNanos)
+    Logger.d(TAG, "loadBoardsInternal() active boards ready, " +
+      "took ${TimeUnit.NANOSECONDS.toMillis(activeBoardsLoadedNanos - startNanos)}ms")
+
+    // Load the boards of active sites first since those are the ones the user is most likely
+    // going to need
+    val sitesOrdered = allLoadedSites.sortedByDescending { chanSiteData -> chanSiteData.active }
+
+    sitesOrdered.forEach { chanSiteData ->
+      loadInactiveBoardsForSiteIfNeeded(chanSiteData.siteDescriptor)
+    }
+
+    allBoardsInitializer.initWithValue(Unit)
+
+    val allBoardsLoadedNanos = System.nanoTime()
+    StartupTracer.recordSpan("BoardManager all boards", StartupTracer.CATEGORY_INIT, startNanos, allBoardsLoadedNanos)
+    Logger.d(TAG, "loadBoardsInternal() all boards ready, " +
+      "took ${TimeUnit.NANOSECONDS.toMillis(allBoardsLoadedNanos - startNanos)}ms")
+  }
+
+  private suspend fun loadActiveBoards(
+    siteDataListAsync: CompletableDeferred<List<ChanSiteData>>
+  ): List<ChanSiteData>? {
     try {
-      Logger.d(TAG, "loadBoardsInternal() siteDataListAsync.get() start")
+      Logger.d(TAG, "loadActiveBoards() siteDataListAsync.get() start")
       val allLoadedSites = siteDataListAsync.await()
-      Logger.d(TAG, "loadBoardsInternal() siteDataListAsync.get() end")
+      Logger.d(TAG, "loadActiveBoards() siteDataListAsync.get() end")
 
-      val loadBoardsResult = boardRepository.loadAllBoards()
+      val loadBoardsResult = boardRepository.loadActiveBoards()
       if (loadBoardsResult is ModularResult.Error) {
-        Logger.e(TAG, "boardRepository.loadAllBoards() error", loadBoardsResult.error)
+        Logger.e(TAG, "boardRepository.loadActiveBoards() error", loadBoardsResult.error)
         suspendableInitializer.initWithError(loadBoardsResult.error)
-        return
+        allBoardsInitializer.initWithError(loadBoardsResult.error)
+        return null
       }
 
       loadBoardsResult as ModularResult.Value
@@ -79,6 +126,7 @@ class BoardManager(
       lock.write {
         boardsMap.clear()
         ordersMap.clear()
+        sitesWithInactiveBoardsLoaded.clear()
 
         allLoadedSites.forEach { chanSiteData ->
           ordersMap[chanSiteData.siteDescriptor] = mutableListWithCap(64)
@@ -115,10 +163,57 @@ class BoardManager(
       suspendableInitializer.initWithValue(Unit)
 
       val totalLoadedBoards = loadBoardsResult.value.values.sumBy { siteBoards -> siteBoards.size }
-      Logger.d(TAG, "loadBoardsInternal() done. Loaded ${totalLoadedBoards} boards")
+      Logger.d(TAG, "loadActiveBoards() done. Loaded ${totalLoadedBoards} active boards")
+
+      return allLoadedSites
     } catch (error: Throwable) {
       suspendableInitializer.initWithError(error)
-      Logger.e(TAG, "loadBoardsInternal() error", error)
+      allBoardsInitializer.initWithError(error)
+      Logger.e(TAG, "loadActiveBoards() error", error)
+      return null
+    }
+  }
+
+  private suspend fun loadInactiveBoardsForSiteIfNeeded(siteDescriptor: SiteDescriptor) {
+    if (lock.read { sitesWithInactiveBoardsLoaded.contains(siteDescriptor) }) {
+      return
+    }
+
+    val boardsAdded = inactiveBoardsLoadMutex.withLock {
+      if (lock.read { sitesWithInactiveBoardsLoaded.contains(siteDescriptor) }) {
+        return@withLock false
+      }
+
+      val loadBoardsResult = boardRepository.loadInactiveBoards(siteDescriptor)
+      if (loadBoardsResult is ModularResult.Error) {
+        Logger.e(TAG, "boardRepository.loadInactiveBoards(${siteDescriptor}) error", loadBoardsResult.error)
+        return@withLock false
+      }
+
+      val inactiveBoards = (loadBoardsResult as ModularResult.Value).value
+
+      return@withLock lock.write {
+        val siteBoardMap = boardsMap.getOrPut(
+          key = siteDescriptor,
+          defaultValue = { linkedMapWithCap(inactiveBoards.size) }
+        )
+
+        var boardsAdded = false
+
+        inactiveBoards.forEach { chanBoard ->
+          if (!siteBoardMap.containsKey(chanBoard.boardDescriptor)) {
+            siteBoardMap[chanBoard.boardDescriptor] = chanBoard
+            boardsAdded = true
+          }
+        }
+
+        sitesWithInactiveBoardsLoaded += siteDescriptor
+        return@write boardsAdded
+      }
+    }
+
+    if (boardsAdded) {
+      boardsChanged()
     }
   }
 
@@ -133,7 +228,13 @@ class BoardManager(
   suspend fun createOrUpdateBoards(boards: List<ChanBoard>): Boolean {
     check(isReady()) { "BoardManager is not ready yet! Use awaitUntilInitialized()" }
 
-    val updated = synchronized(this) {
+    // Otherwise we may end up overwriting inactive boards that are not loaded yet
+    boards
+      .map { chanBoard -> chanBoard.boardDescriptor.siteDescriptor }
+      .distinct()
+      .forEach { siteDescriptor -> loadInactiveBoardsForSiteIfNeeded(siteDescriptor) }
+
+    val updated = lock.write {
       var updated = false
 
       boards.forEach { board ->
@@ -162,7 +263,7 @@ class BoardManager(
         updated = true
       }
 
-      return@synchronized updated
+      return@write updated
     }
 
     if (!updated) {
@@ -189,6 +290,7 @@ class BoardManager(
     }
 
     check(isReady()) { "BoardManager is not ready yet! Use awaitUntilInitialized()" }
+    loadInactiveBoardsForSiteIfNeeded(siteDescriptor)
 
     // Very bad, but whatever we only do this in one place where it's not critical
     val result = boardRepository.activateDeactivateBoards(
@@ -407,6 +509,12 @@ class BoardManager(
         return@write board
       }
 
+      if (!sitesWithInactiveBoardsLoaded.contains(boardDescriptor.siteDescriptor)) {
+        // This may be an inactive board that is not loaded yet. Do not create a synthetic board
+        // for it since that would shadow the real one.
+        return@write null
+      }
+
       val syntheticBoard = ChanBoard(
         boardDescriptor = boardDescriptor,
         active = false,
@@ -535,6 +643,8 @@ class BoardManager(
 
   fun isReady() = suspendableInitializer.isInitialized()
 
+  fun areAllBoardsLoaded() = allBoardsInitializer.isInitialized()
+
   @OptIn(ExperimentalTime::class)
   suspend fun awaitUntilInitialized() {
     if (isReady()) {
@@ -546,6 +656,29 @@ class BoardManager(
     Logger.d(TAG, "BoardManager initialization completed, took $duration")
   }
 
+  /**
+   * Waits until the active boards are loaded and then loads the inactive boards of [siteDescriptor]
+   * right away (unless they are already loaded) without waiting for the background loading of
+   * other sites' boards.
+   * */
+  suspend fun awaitUntilSiteBoardsLoaded(siteDescriptor: SiteDescriptor) {
+    awaitUntilInitialized()
+    loadInactiveBoardsForSiteIfNeeded(siteDescriptor)
+  }
+
+  @OptIn(ExperimentalTime::class)
+  suspend fun awaitUntilAllBoardsLoaded() {
+    awaitUntilInitialized()
+
+    if (areAllBoardsLoaded()) {
+      return
+    }
+
+    Logger.d(TAG, "Not all boards are loaded yet, waiting...")
+    val duration = measureTime { allBoardsInitializer.awaitUntilInitialized() }
+    Logger.d(TAG, "All boards loaded, took $duration")
+  }
+
   private suspend fun persistAllBoards(siteDescriptors: List<SiteDescriptor>) {
     if (!suspendableInitializer.isInitialized()) {
       return
@@ -42,8 +42,7 @@ class ChanThreadViewableInfoManager(
 
   @OptIn(ExperimentalTime::class)
   suspend fun preloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
-    val alreadyPreloaded = lock.read { chanThreadViewableMap.contains(threadDescriptor) }
-    if (alreadyPreloaded) {
+    if (!needPreloadForThread(threadDescriptor)) {
       return
     }
 
@@ -65,6 +64,20 @@ class ChanThreadViewableInfoManager(
         return
       } ?: ChanThreadViewableInfo(threadDescriptor)
 
+    onThreadViewableInfoPreloaded(threadDescriptor, chanThreadViewableInfo)
+  }
+
+  fun needPreloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return lock.read { !chanThreadViewableMap.contains(threadDescriptor) }
+  }
+
+  /**
+   * Stores the viewable info of a thread that was loaded somewhere else (e.g. by ThreadDataPreloader).
+   * */
+  fun onThreadViewableInfoPreloaded(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    chanThreadViewableInfo: ChanThreadViewableInfo
+  ) {
     lock.write {
       chanThreadViewableMap[threadDescriptor] = mergeOldAndNewChanThreadViewableInfos(
         prev = chanThreadViewableMap[threadDescriptor],
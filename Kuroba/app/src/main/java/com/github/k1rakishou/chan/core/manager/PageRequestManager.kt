@@ -46,8 +46,9 @@ class PageRequestManager(
   private val boardManager: BoardManager
 ) : CoroutineScope {
   private val requestedBoards = Collections.synchronizedSet(HashSet<BoardDescriptor>())
-  private val savedBoards = Collections.synchronizedSet(HashSet<BoardDescriptor>())
   private val boardPagesMap: ConcurrentMap<BoardDescriptor, BoardPages> = ConcurrentHashMap()
+  // The time of the last update request for a board (not the time when the pages were received) so
+  // that only one request per UPDATE_INTERVAL is made no matter how many times the pages are queried.
   private val boardTimeMap: ConcurrentMap<BoardDescriptor, Long> = ConcurrentHashMap()
   private val notifyIntervals = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>()
 
@@ -101,21 +102,12 @@ class PageRequestManager(
     threadDescriptorsToFind: Set<ChanDescriptor.ThreadDescriptor>
   ): Set<ThreadNoTimeModPair> {
     val threadNoTimeModPairSet = mutableSetOf<ThreadNoTimeModPair>()
-    val threadDescriptorsToFindCopy = HashSet(threadDescriptorsToFind)
 
-    for (td in threadDescriptorsToFind) {
-      val catalog = boardPagesMap[td.boardDescriptor]
+    for (threadDescriptor in threadDescriptorsToFind) {
+      val lastModified = boardPagesMap[threadDescriptor.boardDescriptor]?.findLastModified(threadDescriptor)
         ?: continue
 
-      loop@ for (boardPage in catalog.boardPages) {
-        for ((threadDescriptor, lastModified) in boardPage.threads) {
-          if (threadDescriptor in threadDescriptorsToFindCopy) {
-            threadNoTimeModPairSet += ThreadNoTimeModPair(threadDescriptor, lastModified)
-            threadDescriptorsToFindCopy.remove(threadDescriptor)
-            break@loop
-          }
-        }
-      }
+      threadNoTimeModPairSet += ThreadNoTimeModPair(threadDescriptor, lastModified)
     }
 
     return threadNoTimeModPairSet
@@ -159,18 +151,7 @@ class PageRequestManager(
   }
 
   private fun findPage(boardDescriptor: BoardDescriptor, opNo: Long, requestPagesIfNotCached: Boolean): BoardPage? {
-    val pages = getPages(boardDescriptor, requestPagesIfNotCached)
-      ?: return null
-
-    for (page in pages.boardPages) {
-      for ((threadDescriptor, _) in page.threads) {
-        if (opNo == threadDescriptor.threadNo) {
-          return page
-        }
-      }
-    }
-
-    return null
+    return getPages(boardDescriptor, requestPagesIfNotCached)?.findPage(opNo)
   }
 
   private fun getPages(boardDescriptor: BoardDescriptor, requestPagesIfNotCached: Boolean): BoardPages? {
@@ -178,66 +159,49 @@ class PageRequestManager(
       return null
     }
 
-    if (savedBoards.contains(boardDescriptor)) {
+    val boardPages = boardPagesMap[boardDescriptor]
+    if (boardPages != null) {
       if (requestPagesIfNotCached) {
         // If we have it stored already, return the pages for it
-        // also issue a new request if 3 minutes have passed
-        shouldUpdate(boardDescriptor)
+        // also issue a new request if UPDATE_INTERVAL has passed
+        updateIfNeeded(boardDescriptor)
       }
 
-      return boardPagesMap[boardDescriptor]
+      return boardPages
     }
 
     if (!requestPagesIfNotCached) {
       return null
     }
 
-    val alreadyRequested = synchronized(this) {
-      requestedBoards.contains(boardDescriptor)
-    }
-
-    if (alreadyRequested) {
-      return null
-    }
-
-    launch {
-      // Otherwise, get the site for the board and request the pages for it
-      requestBoardInternal(boardDescriptor)
-    }
-
+    // Otherwise, get the site for the board and request the pages for it
+    updateIfNeeded(boardDescriptor)
     return null
   }
 
-  private fun shouldUpdate(boardDescriptor: BoardDescriptor) {
-    if (ChanSettings.neverShowPages.get()) {
+  private fun updateIfNeeded(boardDescriptor: BoardDescriptor) {
+    // This is called every time a post/thread cell is bound so it must not do anything more
+    // expensive than a map lookup unless the pages are actually outdated.
+    val lastUpdateTime = boardTimeMap[boardDescriptor]
+    val now = System.currentTimeMillis()
+
+    if (lastUpdateTime != null && lastUpdateTime + UPDATE_INTERVAL > now) {
       return
     }
 
-    launch {
-      siteManager.awaitUntilInitialized()
-
-      val site = siteManager.bySiteDescriptor(boardDescriptor.siteDescriptor)
-      if (site == null) {
-        Logger.e(TAG, "Couldn't find site by siteDescriptor (${boardDescriptor.siteDescriptor})")
-        return@launch
-      }
-
-      boardManager.awaitUntilInitialized()
-
-      val board = boardManager.byBoardDescriptor(boardDescriptor)
-      if (board == null) {
-        Logger.e(TAG, "Couldn't find board by siteDescriptor (${boardDescriptor.siteDescriptor}) " +
-          "and boardCode (${boardDescriptor.boardCode})")
-        return@launch
-      }
-
-      val lastUpdate = boardTimeMap[board.boardDescriptor]
-      val lastUpdateTime = lastUpdate ?: 0L
+    // Only the caller that managed to move the timestamp forward starts the request, if the request
+    // fails then the next one will be made after UPDATE_INTERVAL.
+    val claimed = if (lastUpdateTime == null) {
+      boardTimeMap.putIfAbsent(boardDescriptor, now) == null
+    } else {
+      boardTimeMap.replace(boardDescriptor, lastUpdateTime, now)
+    }
 
-      if (lastUpdateTime + UPDATE_INTERVAL <= System.currentTimeMillis()) {
-        requestBoardInternal(boardDescriptor)
-      }
+    if (!claimed) {
+      return
     }
+
+    launch { requestBoardInternal(boardDescriptor) }
   }
 
   private suspend fun requestBoardInternal(boardDescriptor: BoardDescriptor) {
@@ -304,7 +268,6 @@ class PageRequestManager(
   ) {
     Logger.d(TAG, "Got pages for ${boardDescriptor.siteName()}/${boardDescriptor.boardCode}/")
 
-    savedBoards.add(boardDescriptor)
     boardTimeMap[boardDescriptor] = System.currentTimeMillis()
     boardPagesMap[boardDescriptor] = pages
 
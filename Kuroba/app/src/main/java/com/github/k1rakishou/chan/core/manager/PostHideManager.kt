@@ -106,17 +106,35 @@ open class PostHideManager(
         return
       }
 
+    onThreadPostHidesPreloaded(threadDescriptor, chanPostHides)
+
+    Logger.d(TAG, "chanPostHideRepository.preloadForThreadInternal() " +
+      "preloaded ${chanPostHides.size} post hides")
+  }
+
+  fun needPreloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return lock.read { !alreadyPreloaded.contains(threadDescriptor) }
+  }
+
+  /**
+   * Stores post hides of a thread that were loaded somewhere else (e.g. by ThreadDataPreloader).
+   * Post hides that are already in memory are newer than the ones from the database so they are
+   * not overwritten.
+   * */
+  fun onThreadPostHidesPreloaded(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    chanPostHides: List<ChanPostHide>
+  ) {
     lock.write {
+      alreadyPreloaded.add(threadDescriptor)
+
       chanPostHides.forEach { chanPostHide ->
         val chanDescriptor = chanPostHide.postDescriptor.descriptor
 
         postHideMap.putIfNotContains(chanDescriptor, mutableMapWithCap(16))
-        postHideMap[chanDescriptor]!!.put(chanPostHide.postDescriptor, chanPostHide)
+        postHideMap[chanDescriptor]!!.putIfAbsent(chanPostHide.postDescriptor, chanPostHide)
       }
     }
-
-    Logger.d(TAG, "chanPostHideRepository.preloadForThreadInternal() " +
-      "preloaded ${chanPostHides.size} post hides")
   }
 
   private suspend fun preloadForCatalogInternal(
@@ -157,6 +157,7 @@ class ReportManager(
       appendLine("Prefetching enabled: ${ChanSettings.prefetchMedia.get()}")
       appendLine("Hi-res thumbnails enabled: ${ChanSettings.highResCells.get()}")
       appendLine("mediaViewerMaxOffscreenPages: ${ChanSettings.mediaViewerMaxOffscreenPages.get()}")
+      appendLine("mediaViewerPrefetchItemsAhead: ${ChanSettings.mediaViewerPrefetchItemsAhead.get()}")
       appendLine("CloudFlare force preload enabled: ${ChanSettings.cloudflareForcePreload.get()}")
       appendLine("useMpvVideoPlayer: ${ChanSettings.useMpvVideoPlayer.get()}")
       appendLine("userAgent: ${userAgent}")
@@ -47,8 +47,7 @@ class SavedReplyManager(
 
   @OptIn(ExperimentalTime::class)
   suspend fun preloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
-    val alreadyPreloaded = lock.read { savedReplyMap[threadDescriptor]?.isNotEmpty() == true }
-    if (alreadyPreloaded) {
+    if (!needPreloadForThread(threadDescriptor)) {
       return
     }
 
@@ -226,8 +225,34 @@ class SavedReplyManager(
         return
       }
 
+    onThreadSavedRepliesPreloaded(threadDescriptor, savedReplies)
+  }
+
+  fun needPreloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return lock.read { savedReplyMap[threadDescriptor]?.isNotEmpty() != true }
+  }
+
+  /**
+   * Stores saved replies of a thread that were loaded somewhere else (e.g. by ThreadDataPreloader).
+   * Replies that were saved after [savedReplies] had been loaded are kept.
+   * */
+  fun onThreadSavedRepliesPreloaded(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    savedReplies: List<ChanSavedReply>
+  ) {
     lock.write {
-      savedReplyMap[threadDescriptor] = savedReplies.toMutableList()
+      val prevSavedReplies = savedReplyMap[threadDescriptor]
+      if (prevSavedReplies.isNullOrEmpty()) {
+        savedReplyMap[threadDescriptor] = savedReplies.toMutableList()
+        return@write
+      }
+
+      savedReplies.forEach { savedReply ->
+        val alreadyAdded = prevSavedReplies.any { prevSavedReply -> prevSavedReply.postDescriptor == savedReply.postDescriptor }
+        if (!alreadyAdded) {
+          prevSavedReplies += savedReply
+        }
+      }
     }
   }
 
@@ -5,11 +5,7 @@ import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.hashSetWithCap
-import com.github.k1rakishou.common.linkedMapWithCap
-import com.github.k1rakishou.common.mutableIteration
 import com.github.k1rakishou.common.mutableMapWithCap
-import com.github.k1rakishou.common.putIfNotContains
-import com.github.k1rakishou.common.toHashSetBy
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
@@ -22,7 +18,7 @@ import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
 import org.joda.time.DateTime
-import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
 import kotlin.concurrent.write
@@ -38,8 +34,10 @@ class SeenPostsManager(
   private val seenPostsRepository: SeenPostRepository
 ) {
   private val lock = ReentrantReadWriteLock()
-  @GuardedBy("lock")
-  private val seenPostsMap = linkedMapWithCap<ChanDescriptor.ThreadDescriptor, MutableMap<PostDescriptor, SeenPost>>(256)
+
+  // Values are immutable so the map can be read without taking the lock. All the updates are done
+  // under the write lock to avoid losing concurrent merges.
+  private val seenPostsMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ThreadSeenPosts>(256)
   @GuardedBy("lock")
   private val seenPostsToPersist = mutableMapOf<ChanDescriptor.ThreadDescriptor, MutableMap<PostDescriptor, SeenPost>>()
   @GuardedBy("lock")
@@ -66,16 +64,7 @@ class SeenPostsManager(
 
   @OptIn(ExperimentalTime::class)
   suspend fun preloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
-    if (!isEnabled()) {
-      return
-    }
-
-    val alreadyPreloaded = lock.read {
-      // We consider data preloaded only if it contains more than one entry (for original post) per thread.
-      return@read (seenPostsMap[threadDescriptor]?.size ?: 0) > 1
-    }
-
-    if (alreadyPreloaded) {
+    if (!needPreloadForThread(threadDescriptor)) {
       return
     }
 
@@ -92,15 +81,7 @@ class SeenPostsManager(
           return@measureTime
         }
 
-      lock.write {
-        val resultMap = mutableMapWithCap<PostDescriptor, SeenPost>(seenPosts.size)
-
-        for (seenPost in seenPosts) {
-          resultMap[seenPost.postDescriptor] = seenPost
-        }
-
-        seenPostsMap.put(threadDescriptor, resultMap)
-      }
+      onThreadSeenPostsPreloaded(threadDescriptor, seenPosts)
     }
 
     if (verboseLogsEnabled) {
@@ -108,6 +89,33 @@ class SeenPostsManager(
     }
   }
 
+  fun needPreloadForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    if (!isEnabled()) {
+      return false
+    }
+
+    // We consider data preloaded only if it contains more than one entry (for original post) per thread.
+    return (seenPostsMap[threadDescriptor]?.size ?: 0) <= 1
+  }
+
+  /**
+   * Stores seen posts of a thread that were loaded somewhere else (e.g. by ThreadDataPreloader).
+   * Merged with what we already have because posts may have been marked as seen since they were
+   * loaded.
+   * */
+  fun onThreadSeenPostsPreloaded(threadDescriptor: ChanDescriptor.ThreadDescriptor, seenPosts: List<SeenPost>) {
+    if (!isEnabled()) {
+      return
+    }
+
+    val threadSeenPosts = ThreadSeenPosts.fromSeenPosts(seenPosts)
+
+    lock.write {
+      val prevSeenPosts = seenPostsMap[threadDescriptor] ?: ThreadSeenPosts.EMPTY
+      seenPostsMap[threadDescriptor] = prevSeenPosts.mergeWith(threadSeenPosts)
+    }
+  }
+
   @OptIn(ExperimentalTime::class)
   suspend fun loadForCatalog(
     catalogDescriptor: ChanDescriptor.CatalogDescriptor,
@@ -131,7 +139,9 @@ class SeenPostsManager(
         "error = ${error.errorMessageOrClassName()}")
 
       return
-    }.groupBy { seenPost -> seenPost.postDescriptor.threadDescriptor() }
+    }
+      .groupBy { seenPost -> seenPost.postDescriptor.threadDescriptor() }
+      .mapValues { (_, seenPosts) -> ThreadSeenPosts.fromSeenPosts(seenPosts) }
 
     lock.write {
       Logger.d(TAG, "loadForCatalog($catalogDescriptor) " +
@@ -139,11 +149,14 @@ class SeenPostsManager(
         "seenPostsGrouped=${seenPostsGrouped.size}, " +
         "alreadyLoadedDescriptorsForUnlimitedCatalog=${alreadyLoadedDescriptorsForUnlimitedCatalog.size}")
 
-      seenPostsGrouped.entries.forEach { (threadDescriptor, seenPosts) ->
-        seenPostsMap.putIfNotContains(threadDescriptor, mutableMapWithCap(seenPosts.size))
+      seenPostsGrouped.entries.forEach { (threadDescriptor, loadedSeenPosts) ->
+        val prevSeenPosts = seenPostsMap[threadDescriptor]
+        if (prevSeenPosts == null || prevSeenPosts.size == 0) {
+          seenPostsMap[threadDescriptor] = loadedSeenPosts
+          return@forEach
+        }
 
-        val innerMap = seenPostsMap[threadDescriptor]!!
-        seenPosts.forEach { seenPost -> innerMap[seenPost.postDescriptor] = seenPost }
+        seenPostsMap[threadDescriptor] = prevSeenPosts.mergeWith(loadedSeenPosts)
       }
     }
   }
@@ -153,105 +166,95 @@ class SeenPostsManager(
       return
     }
 
-    val seenPost = SeenPost(
-      postDescriptor = postDescriptor,
-      insertedAt = DateTime.now()
-    )
+    // Fast path, the vast majority of binds are for posts that we have already seen. This doesn't
+    // take any locks and doesn't allocate anything.
+    if (seenPostsMap[postDescriptor.threadDescriptor()]?.contains(postDescriptor) == true) {
+      return
+    }
 
-    createNewSeenPosts(listOf(seenPost))
+    createNewSeenPost(postDescriptor)
   }
 
   fun onPostUnbind(threadMode: Boolean, postDescriptor: PostDescriptor) {
     // No-op (maybe something will be added here in the future)
   }
 
-  fun getSeenPostOrNull(postDescriptor: PostDescriptor): SeenPost? {
-    return lock.read { seenPostsMap[postDescriptor.threadDescriptor()]?.get(postDescriptor) }
+  fun getSeenPostInsertedAtMillisOrNull(postDescriptor: PostDescriptor): Long? {
+    return seenPostsMap[postDescriptor.threadDescriptor()]?.insertedAtMillisOrNull(postDescriptor)
   }
 
   fun isThreadAlreadySeen(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
-    return lock.read { (seenPostsMap[threadDescriptor]?.size ?: 0) > 0 }
+    return (seenPostsMap[threadDescriptor]?.size ?: 0) > 0
   }
 
-  private fun createNewSeenPosts(seenPosts: Collection<SeenPost>) {
-    if (seenPosts.isEmpty()) {
-      return
-    }
+  private fun createNewSeenPost(postDescriptor: PostDescriptor) {
+    val threadDescriptor = postDescriptor.threadDescriptor()
 
     val needPersist = lock.write {
-      var needPersist = false
-
-      for (seenPost in seenPosts) {
-        val postDescriptor = seenPost.postDescriptor
-        val threadDescriptor = postDescriptor.threadDescriptor()
-
-        seenPostsToPersist.putIfNotContains(threadDescriptor, mutableMapWithCap(32))
-
-        if (seenPostsMap[threadDescriptor]?.contains(postDescriptor) == true) {
-          continue
-        }
-
-        if (seenPostsToPersist[threadDescriptor]?.contains(postDescriptor) == true) {
-          continue
-        }
+      if (seenPostsMap[threadDescriptor]?.contains(postDescriptor) == true) {
+        return@write false
+      }
 
-        seenPostsToPersist[threadDescriptor]!!.put(postDescriptor, seenPost)
-        needPersist = true
+      val toPersist = seenPostsToPersist.getOrPut(threadDescriptor) { mutableMapWithCap(32) }
+      if (toPersist.containsKey(postDescriptor)) {
+        return@write false
       }
 
-      return@write needPersist
+      toPersist[postDescriptor] = SeenPost(postDescriptor = postDescriptor, insertedAt = DateTime.now())
+      return@write true
     }
 
     if (!needPersist) {
       return
     }
 
-    debouncingCoroutineExecutor.post(DEBOUNCE_TIMEOUT_MS) {
-      val threadDescriptors = seenPosts.toHashSetBy { seenPost -> seenPost.postDescriptor.threadDescriptor() }
+    // Every debounced call persists everything that has been accumulated so far for all threads
+    // so it doesn't matter that the previous (not yet executed) calls get discarded.
+    debouncingCoroutineExecutor.post(DEBOUNCE_TIMEOUT_MS) { persistSeenPosts() }
+  }
 
-      val toPersistMap = lock.write {
-        val toPersistMap = mutableMapOf<ChanDescriptor.ThreadDescriptor, Set<SeenPost>>()
+  private suspend fun persistSeenPosts() {
+    val toPersistMap = lock.write {
+      if (seenPostsToPersist.isEmpty()) {
+        return@write emptyMap()
+      }
 
-        for (threadDescriptor in threadDescriptors) {
-          val seenPostsMap = seenPostsToPersist.remove(threadDescriptor)
-            ?.toMutableMap()
+      val toPersistMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, Collection<SeenPost>>(seenPostsToPersist.size)
 
-          if (seenPostsMap == null || seenPostsMap.values.isEmpty()) {
-            continue
-          }
-
-          toPersistMap[threadDescriptor] = seenPostsMap.values.toSet()
+      seenPostsToPersist.forEach { (threadDescriptor, seenPosts) ->
+        if (seenPosts.isNotEmpty()) {
+          toPersistMap[threadDescriptor] = seenPosts.values.toList()
         }
-
-        return@write toPersistMap
       }
 
-      if (toPersistMap.isEmpty()) {
-        return@post
-      }
-
-      toPersistMap.forEach { (threadDescriptor, seenPostSet) ->
-        if (verboseLogsEnabled) {
-          Logger.d(TAG, "onPostBind() persisting ${seenPostSet.size} posts")
-        }
+      seenPostsToPersist.clear()
+      return@write toPersistMap
+    }
 
-        seenPostsRepository.insertMany(threadDescriptor, seenPostSet)
-          .safeUnwrap { error ->
-            Logger.e(TAG, "Error while trying to store new seen post with threadDescriptor " +
-                "($threadDescriptor), error = ${error.errorMessageOrClassName()}")
-            return@post
-          }
+    if (toPersistMap.isEmpty()) {
+      return
+    }
 
-        lock.write {
-          seenPostsMap.putIfNotContains(threadDescriptor, mutableMapWithCap(32))
+    if (verboseLogsEnabled) {
+      Logger.d(TAG, "persistSeenPosts() persisting ${toPersistMap.values.sumOf { it.size }} posts " +
+        "of ${toPersistMap.size} threads")
+    }
 
-          val innerMap = seenPostsMap[threadDescriptor]!!
-          seenPostSet.forEach { seenPost -> innerMap[seenPost.postDescriptor] = seenPost }
-        }
+    seenPostsRepository.insertMany(toPersistMap)
+      .safeUnwrap { error ->
+        Logger.e(TAG, "Error while trying to store new seen posts of ${toPersistMap.size} threads, " +
+          "error = ${error.errorMessageOrClassName()}")
+        return
+      }
 
-        _seenThreadUpdatesFlow.emit(threadDescriptor)
+    lock.write {
+      toPersistMap.forEach { (threadDescriptor, seenPosts) ->
+        val prevSeenPosts = seenPostsMap[threadDescriptor] ?: ThreadSeenPosts.EMPTY
+        seenPostsMap[threadDescriptor] = prevSeenPosts.mergeWith(seenPosts)
       }
     }
+
+    toPersistMap.keys.forEach { threadDescriptor -> _seenThreadUpdatesFlow.emit(threadDescriptor) }
   }
 
   private fun isEnabled() = ChanSettings.markUnseenPosts.get()
@@ -273,14 +276,13 @@ class SeenPostsManager(
           var removedPosts = 0
 
           threadDeleteEvent.entries.forEach { (threadDescriptor, originalPostDescriptor) ->
-            seenPostsMap[threadDescriptor]?.keys?.mutableIteration { mutableIterator, postDescriptor ->
-              if (postDescriptor != originalPostDescriptor) {
-                ++removedPosts
-                mutableIterator.remove()
-              }
-
-              return@mutableIteration true
-            }
+            val threadSeenPosts = seenPostsMap[threadDescriptor]
+              ?: return@forEach
+
+            val retainedSeenPosts = threadSeenPosts.retainOnly(originalPostDescriptor)
+            removedPosts += threadSeenPosts.size - retainedSeenPosts.size
+
+            seenPostsMap[threadDescriptor] = retainedSeenPosts
           }
 
           Logger.d(TAG, "onThreadDeleteEventReceived.RemoveThreadPostsExceptOP() removed ${removedPosts} posts")
@@ -4,6 +4,7 @@ import android.content.Context
 import android.net.Uri
 import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.base.LazySuspend
+import com.github.k1rakishou.chan.core.cache.ThirdEyeLookupCache
 import com.github.k1rakishou.chan.features.thirdeye.data.BooruSetting
 import com.github.k1rakishou.chan.features.thirdeye.data.ThirdEyeSettings
 import com.github.k1rakishou.common.AppConstants
@@ -18,6 +19,7 @@ import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.squareup.moshi.Moshi
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
@@ -33,6 +35,7 @@ import java.io.IOException
 
 class ThirdEyeManager(
   private val appContext: Context,
+  private val appScope: CoroutineScope,
   private val verboseLogsEnabled: Boolean,
   private val appConstants: AppConstants,
   private val moshi: Moshi,
@@ -46,6 +49,12 @@ class ThirdEyeManager(
 
   private val thirdEyeSettingsFile = File(appContext.filesDir, appConstants.thirdEyeSettingsFileName)
 
+  val lookupCache = ThirdEyeLookupCache(
+    appScope = appScope,
+    moshi = moshi,
+    cacheFile = File(appContext.cacheDir, appConstants.thirdEyeLookupCacheFileName)
+  )
+
   private val _thirdEyeImageAddedFlow = MutableSharedFlow<PostDescriptor>(extraBufferCapacity = 32)
   val thirdEyeImageAddedFlow: SharedFlow<PostDescriptor>
     get() = _thirdEyeImageAddedFlow.asSharedFlow()
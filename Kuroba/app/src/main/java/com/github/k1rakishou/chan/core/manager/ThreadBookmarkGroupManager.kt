@@ -16,6 +16,7 @@ import com.github.k1rakishou.model.data.bookmark.CreateBookmarkGroupEntriesTrans
 import com.github.k1rakishou.model.data.bookmark.DeleteBookmarkGroupEntriesTransaction
 import com.github.k1rakishou.model.data.bookmark.SimpleThreadBookmarkGroupToCreate
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroup
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupClassifier
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupEntry
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupEntryToCreate
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkGroupMatchPattern
@@ -47,6 +48,13 @@ class ThreadBookmarkGroupManager(
   // Map<GroupId, ThreadBookmarkGroup>
   private val groupsByGroupIdMap = mutableMapOf<String, ThreadBookmarkGroup>()
 
+  // Compiled matching patterns of all groups. Reset every time groups, their orders or patterns
+  // change and compiled again on the next use so matching bookmarks doesn't need the mutex.
+  @Volatile
+  private var groupClassifier: ThreadBookmarkGroupClassifier? = null
+  @GuardedBy("mutex")
+  private var prevGroupClassifier: ThreadBookmarkGroupClassifier? = null
+
   private val threadBookmarkGroupRepository: ThreadBookmarkGroupRepository
     get() = _threadBookmarkGroupRepository.get()
   private val bookmarksManager: BookmarksManager
@@ -72,30 +80,23 @@ class ThreadBookmarkGroupManager(
   ): GroupIdWithName {
     ensureInitialized()
 
-    return mutex.withLockNonCancellable {
-      val threadBookmarkGroupEntriesSorted = groupsByGroupIdMap.entries
-        .sortedBy { (_, threadBookmarkGroup) -> threadBookmarkGroup.groupOrder }
-
-      for ((groupId, threadBookmarkGroup) in threadBookmarkGroupEntriesSorted) {
-        if (threadBookmarkGroup.isDefaultGroup()) {
-          // Skip the default group here since it always matches everything and will be used
-          // if no other group matches this bookmark info
-          continue
-        }
-
-        if (threadBookmarkGroup.matches(boardDescriptor, postSubject, postComment)) {
-          return@withLockNonCancellable GroupIdWithName(
-            groupId = groupId,
-            groupName = threadBookmarkGroup.groupName
-          )
-        }
-      }
+    val classifier = groupClassifier
+      ?: mutex.withLockNonCancellable { getOrCompileGroupClassifier() }
 
-      return@withLockNonCancellable GroupIdWithName(
-        groupId = ThreadBookmarkGroup.DEFAULT_GROUP_ID,
-        groupName = ThreadBookmarkGroup.DEFAULT_GROUP_NAME
+    // The default group is not part of the classifier since it always matches everything and is
+    // used when no other group matches this bookmark info
+    val matchedGroup = classifier.classify(boardDescriptor, postSubject, postComment)
+    if (matchedGroup != null) {
+      return GroupIdWithName(
+        groupId = matchedGroup.groupId,
+        groupName = matchedGroup.groupName
       )
     }
+
+    return GroupIdWithName(
+      groupId = ThreadBookmarkGroup.DEFAULT_GROUP_ID,
+      groupName = ThreadBookmarkGroup.DEFAULT_GROUP_NAME
+    )
   }
 
   suspend fun contains(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
@@ -159,6 +160,8 @@ class ThreadBookmarkGroupManager(
         groupsByGroupIdMap[groupId]?.groupOrder = newOrder
       }
 
+      invalidateGroupClassifier()
+
       return@withLockNonCancellable true
     }
   }
@@ -315,6 +318,7 @@ class ThreadBookmarkGroupManager(
           ?: return@withLockNonCancellable false
 
         threadBookmarkGroup.updateMatchingPattern(ThreadBookmarkGroupMatchPattern(matchFlag))
+        invalidateGroupClassifier()
 
         threadBookmarkGroupRepository.updateGroup(threadBookmarkGroup)
           .peekError { error -> Logger.e(TAG, "updateGroupMatcherPattern() updateGroup(${groupId}) error", error) }
@@ -338,6 +342,7 @@ class ThreadBookmarkGroupManager(
           .unwrap()
 
         groupsByGroupIdMap.remove(groupId)
+        invalidateGroupClassifier()
 
         return@withLockNonCancellable true
       }
@@ -651,6 +656,8 @@ class ThreadBookmarkGroupManager(
             groupOrder = groupOrder,
             newMatchingPattern = bookmarkGroupToCreate.matchingPattern
           )
+
+          invalidateGroupClassifier()
         }
 
         val threadBookmarkGroup = groupsByGroupIdMap[groupId]!!
@@ -745,6 +752,8 @@ class ThreadBookmarkGroupManager(
           newOrders = threadBookmarkGroupToCreate.getEntryDatabaseIdsSorted().toMutableList(),
           newMatchingPattern = threadBookmarkGroupToCreate.matchingPattern
         )
+
+        invalidateGroupClassifier()
       } else {
         threadBookmarkGroupEntries.values.forEach { threadBookmarkGroupEntry ->
           val order = requireNotNull(orders[threadBookmarkGroupEntry.databaseId]) {
@@ -915,6 +924,8 @@ class ThreadBookmarkGroupManager(
                 groupsByGroupIdMap[threadBookmarkGroup.groupId] = threadBookmarkGroup
               }
 
+              invalidateGroupClassifier()
+
               // Pre-create the default groups (for now the Default where all bookmarks are moved
               // by default and Filter watcher that is used by the filter watcher)
               createDefaultGroupsIfNeeded()
@@ -972,6 +983,40 @@ class ThreadBookmarkGroupManager(
     }
   }
 
+  private fun getOrCompileGroupClassifier(): ThreadBookmarkGroupClassifier {
+    require(mutex.isLocked) { "Mutex is not locked!" }
+
+    groupClassifier?.let { classifier -> return classifier }
+
+    val groupsToCompile = groupsByGroupIdMap.values
+      .sortedBy { threadBookmarkGroup -> threadBookmarkGroup.groupOrder }
+      .mapNotNull { threadBookmarkGroup ->
+        if (threadBookmarkGroup.isDefaultGroup()) {
+          return@mapNotNull null
+        }
+
+        val matchingPattern = threadBookmarkGroup.matchingPattern
+          ?: return@mapNotNull null
+
+        return@mapNotNull ThreadBookmarkGroupClassifier.GroupToCompile(
+          groupId = threadBookmarkGroup.groupId,
+          groupName = threadBookmarkGroup.groupName,
+          matchingPattern = matchingPattern
+        )
+      }
+
+    val classifier = ThreadBookmarkGroupClassifier.compile(groupsToCompile, prevGroupClassifier)
+    prevGroupClassifier = classifier
+    groupClassifier = classifier
+
+    return classifier
+  }
+
+  private fun invalidateGroupClassifier() {
+    require(mutex.isLocked) { "Mutex is not locked!" }
+    groupClassifier = null
+  }
+
   private fun getGroupIdSetByThreadDescriptor(
     threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>
   ): Set<String> {
@@ -0,0 +1,204 @@
+package com.github.k1rakishou.chan.core.manager
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.SeenPost
+
+/**
+ * Compact immutable storage of seen posts of one thread. Posts are stored as parallel primitive
+ * arrays sorted by (postNo, postSubNo) so a lookup is a binary search without any allocations.
+ * [postSubNos] is only allocated when at least one of the posts has a non-zero postSubNo (which
+ * only happens with archives) since for the vast majority of threads it would be all zeroes.
+ *
+ * Instances are never modified so they can be read without any synchronization, every update
+ * creates a new instance (updates are batched so this is cheap).
+ * */
+class ThreadSeenPosts private constructor(
+  private val postNos: LongArray,
+  private val postSubNos: LongArray?,
+  private val insertedAtMillis: LongArray
+) {
+  val size: Int
+    get() = postNos.size
+
+  fun contains(postDescriptor: PostDescriptor): Boolean {
+    return indexOf(postDescriptor.postNo, postDescriptor.postSubNo) >= 0
+  }
+
+  fun insertedAtMillisOrNull(postDescriptor: PostDescriptor): Long? {
+    val index = indexOf(postDescriptor.postNo, postDescriptor.postSubNo)
+    if (index < 0) {
+      return null
+    }
+
+    return insertedAtMillis[index]
+  }
+
+  /**
+   * Returns a new instance that contains both the current posts and [newPosts]. When a post is
+   * already present the old insertedAt is kept.
+   * */
+  fun mergeWith(newPosts: Collection<SeenPost>): ThreadSeenPosts {
+    if (newPosts.isEmpty()) {
+      return this
+    }
+
+    return merge(this, fromSeenPosts(newPosts))
+  }
+
+  /**
+   * Same as the other [mergeWith] but for already compacted posts.
+   * */
+  fun mergeWith(other: ThreadSeenPosts): ThreadSeenPosts {
+    if (other.size == 0) {
+      return this
+    }
+
+    return merge(this, other)
+  }
+
+  fun retainOnly(postDescriptor: PostDescriptor): ThreadSeenPosts {
+    val index = indexOf(postDescriptor.postNo, postDescriptor.postSubNo)
+    if (index < 0) {
+      return EMPTY
+    }
+
+    if (size == 1) {
+      return this
+    }
+
+    return ThreadSeenPosts(
+      postNos = longArrayOf(postNos[index]),
+      postSubNos = postSubNos?.let { subNos -> longArrayOf(subNos[index]) },
+      insertedAtMillis = longArrayOf(insertedAtMillis[index])
+    )
+  }
+
+  private fun postSubNoAt(index: Int): Long = postSubNos?.get(index) ?: 0L
+
+  private fun indexOf(postNo: Long, postSubNo: Long): Int {
+    var low = 0
+    var high = postNos.size - 1
+
+    while (low <= high) {
+      val mid = (low + high) ushr 1
+      val result = compareKeys(postNos[mid], postSubNoAt(mid), postNo, postSubNo)
+
+      when {
+        result < 0 -> low = mid + 1
+        result > 0 -> high = mid - 1
+        else -> return mid
+      }
+    }
+
+    return -1
+  }
+
+  companion object {
+    val EMPTY = ThreadSeenPosts(LongArray(0), null, LongArray(0))
+
+    fun fromSeenPosts(seenPosts: Collection<SeenPost>): ThreadSeenPosts {
+      if (seenPosts.isEmpty()) {
+        return EMPTY
+      }
+
+      val sorted = seenPosts.sortedWith(SEEN_POST_COMPARATOR)
+
+      val postNos = LongArray(sorted.size)
+      val insertedAtMillis = LongArray(sorted.size)
+      val hasSubNos = sorted.any { seenPost -> seenPost.postDescriptor.postSubNo != 0L }
+      val postSubNos = if (hasSubNos) LongArray(sorted.size) else null
+
+      var size = 0
+
+      for (seenPost in sorted) {
+        val postNo = seenPost.postDescriptor.postNo
+        val postSubNo = seenPost.postDescriptor.postSubNo
+
+        if (size > 0 && postNos[size - 1] == postNo && (postSubNos?.get(size - 1) ?: 0L) == postSubNo) {
+          // Duplicate, keep the first one
+          continue
+        }
+
+        postNos[size] = postNo
+        postSubNos?.set(size, postSubNo)
+        insertedAtMillis[size] = seenPost.insertedAt.millis
+        ++size
+      }
+
+      if (size == sorted.size) {
+        return ThreadSeenPosts(postNos, postSubNos, insertedAtMillis)
+      }
+
+      return ThreadSeenPosts(postNos.copyOf(size), postSubNos?.copyOf(size), insertedAtMillis.copyOf(size))
+    }
+
+    private fun merge(old: ThreadSeenPosts, new: ThreadSeenPosts): ThreadSeenPosts {
+      if (old.size == 0) {
+        return new
+      }
+
+      val capacity = old.size + new.size
+      val postNos = LongArray(capacity)
+      val insertedAtMillis = LongArray(capacity)
+      val postSubNos = if (old.postSubNos != null || new.postSubNos != null) LongArray(capacity) else null
+
+      var oldIndex = 0
+      var newIndex = 0
+      var size = 0
+
+      while (oldIndex < old.size || newIndex < new.size) {
+        val result = when {
+          oldIndex >= old.size -> 1
+          newIndex >= new.size -> -1
+          else -> compareKeys(
+            old.postNos[oldIndex],
+            old.postSubNoAt(oldIndex),
+            new.postNos[newIndex],
+            new.postSubNoAt(newIndex)
+          )
+        }
+
+        val source: ThreadSeenPosts
+        val sourceIndex: Int
+
+        if (result <= 0) {
+          source = old
+          sourceIndex = oldIndex++
+
+          if (result == 0) {
+            // Same post, keep the old insertedAt
+            ++newIndex
+          }
+        } else {
+          source = new
+          sourceIndex = newIndex++
+        }
+
+        postNos[size] = source.postNos[sourceIndex]
+        postSubNos?.set(size, source.postSubNoAt(sourceIndex))
+        insertedAtMillis[size] = source.insertedAtMillis[sourceIndex]
+        ++size
+      }
+
+      if (size == capacity) {
+        return ThreadSeenPosts(postNos, postSubNos, insertedAtMillis)
+      }
+
+      return ThreadSeenPosts(postNos.copyOf(size), postSubNos?.copyOf(size), insertedAtMillis.copyOf(size))
+    }
+
+    private fun compareKeys(postNo1: Long, postSubNo1: Long, postNo2: Long, postSubNo2: Long): Int {
+      val result = postNo1.compareTo(postNo2)
+      if (result != 0) {
+        return result
+      }
+
+      return postSubNo1.compareTo(postSubNo2)
+    }
+
+    private val SEEN_POST_COMPARATOR = compareBy<SeenPost>(
+      { seenPost -> seenPost.postDescriptor.postNo },
+      { seenPost -> seenPost.postDescriptor.postSubNo }
+    )
+  }
+}
@@ -27,6 +27,37 @@ class KurobaProxySelector(
     Logger.e(TAG, "connectFailed($uri, $sa, ${ioe.errorMessageOrClassName()})")
   }
 
+  /**
+   * OkHttp only reuses pooled connections between requests with equal proxy selectors. Selectors
+   * of different action types route all requests the same way (directly) when there are no
+   * enabled proxies for any of these action types so in this case they are considered equal which
+   * allows the clients to share connections. Proxies can't be changed without restarting the app
+   * so this never changes at runtime.
+   * */
+  override fun equals(other: Any?): Boolean {
+    if (this === other) {
+      return true
+    }
+
+    if (other !is KurobaProxySelector) {
+      return false
+    }
+
+    if (proxyStorage !== other.proxyStorage) {
+      return false
+    }
+
+    if (proxyActionType == other.proxyActionType) {
+      return true
+    }
+
+    return !proxyStorage.hasEnabledProxiesForAnyOf(listOf(proxyActionType, other.proxyActionType))
+  }
+
+  override fun hashCode(): Int {
+    return System.identityHashCode(proxyStorage)
+  }
+
   companion object {
     private const val TAG = "KurobaProxySelector"
   }
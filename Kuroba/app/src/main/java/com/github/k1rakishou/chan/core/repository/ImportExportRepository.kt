@@ -19,6 +19,7 @@ package com.github.k1rakishou.chan.core.repository
 import com.github.k1rakishou.chan.core.usecase.ExportBackupFileUseCase
 import com.github.k1rakishou.chan.core.usecase.ImportBackupFileUseCase
 import com.github.k1rakishou.chan.core.usecase.KurobaSettingsImportUseCase
+import com.github.k1rakishou.chan.core.usecase.backup.BackupExportReport
 import com.github.k1rakishou.chan.features.settings.screens.delegate.ExportBackupOptions
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.ModularResult.Companion.Try
@@ -42,7 +43,7 @@ class ImportExportRepository @Inject constructor(
   suspend fun exportTo(
     backupFile: ExternalFile,
     exportBackupOptions: ExportBackupOptions
-  ): ModularResult<Unit> {
+  ): ModularResult<BackupExportReport> {
     val params = ExportBackupFileUseCase.Params(backupFile, exportBackupOptions)
 
     return withContext(Dispatchers.IO) { exportBackupFileUseCase.execute(params) }
@@ -143,12 +143,14 @@ public class DefaultPostParser implements PostParser {
             }
 
             HtmlDocument document = htmlParser.parse(comment);
+            // Read once per comment instead of once per node
+            boolean forceHttpsScheme = ChanSettings.forceHttpsUrlScheme.get();
 
             List<HtmlNode> nodes = document.getNodes();
             List<CharSequence> texts = new ArrayList<>(nodes.size());
 
             for (HtmlNode node : nodes) {
-                CharSequence nodeParsed = parseNode(post, callback, node);
+                CharSequence nodeParsed = parseNode(post, callback, node, forceHttpsScheme);
                 if (nodeParsed != null) {
                     texts.add(nodeParsed);
                 }
@@ -167,12 +169,12 @@ public class DefaultPostParser implements PostParser {
     private CharSequence parseNode(
             ChanPostBuilder post,
             Callback callback,
-            HtmlNode node
+            HtmlNode node,
+            boolean forceHttpsScheme
     ) {
         if (node instanceof HtmlNode.Text) {
             HtmlNode.Text textNode = (HtmlNode.Text) node;
             String text = postProcessText(textNode, textNode.getText());
-            boolean forceHttpsScheme = ChanSettings.forceHttpsUrlScheme.get();
 
             return CommentParserHelper.detectLinks(
                     post,
@@ -189,7 +191,7 @@ public class DefaultPostParser implements PostParser {
             List<CharSequence> texts = new ArrayList<>(innerNodes.size() + 1);
 
             for (HtmlNode innerNode : innerNodes) {
-                CharSequence nodeParsed = parseNode(post, callback, innerNode);
+                CharSequence nodeParsed = parseNode(post, callback, innerNode, forceHttpsScheme);
                 if (nodeParsed != null) {
                     texts.add(nodeParsed);
                 }
@@ -202,7 +204,8 @@ public class DefaultPostParser implements PostParser {
                     post,
                     nodeName,
                     allInnerText,
-                    tag
+                    tag,
+                    forceHttpsScheme
             );
 
             if (result != null) {
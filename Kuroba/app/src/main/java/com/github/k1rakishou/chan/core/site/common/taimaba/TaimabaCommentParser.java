@@ -19,7 +19,9 @@ package com.github.k1rakishou.chan.core.site.common.taimaba;
 import static com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.sp;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.github.k1rakishou.chan.core.site.parser.AnchorHrefScanner;
 import com.github.k1rakishou.chan.core.site.parser.CommentParser;
 import com.github.k1rakishou.chan.core.site.parser.ICommentParser;
 import com.github.k1rakishou.chan.core.site.parser.style.StyleRule;
@@ -28,8 +30,9 @@ import com.github.k1rakishou.core_themes.ChanThemeColorId;
 import java.util.regex.Pattern;
 
 public class TaimabaCommentParser extends CommentParser implements ICommentParser {
-    private static final Pattern QUOTE_PATTERN = Pattern.compile("#(\\d+)");
-    private static final Pattern FULL_QUOTE_PATTERN = Pattern.compile("/(\\w+)/thread/(\\d+)#(\\d+)");
+    public static final Pattern QUOTE_PATTERN = Pattern.compile("#(\\d+)");
+    public static final Pattern FULL_QUOTE_PATTERN = Pattern.compile("/(\\w+)/thread/(\\d+)#(\\d+)");
+    public static final AnchorHrefScanner ANCHOR_HREF_SCANNER = new AnchorHrefScanner("thread", "", "#");
 
     public TaimabaCommentParser() {
         super();
@@ -55,4 +58,10 @@ public class TaimabaCommentParser extends CommentParser implements ICommentParse
     public Pattern getFullQuotePattern() {
         return FULL_QUOTE_PATTERN;
     }
+
+    @Nullable
+    @Override
+    protected AnchorHrefScanner getAnchorHrefScanner() {
+        return ANCHOR_HREF_SCANNER;
+    }
 }
\ No newline at end of file
@@ -17,7 +17,9 @@
 package com.github.k1rakishou.chan.core.site.common.vichan;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.github.k1rakishou.chan.core.site.parser.AnchorHrefScanner;
 import com.github.k1rakishou.chan.core.site.parser.CommentParser;
 import com.github.k1rakishou.chan.core.site.parser.ICommentParser;
 import com.github.k1rakishou.chan.core.site.parser.style.StyleRule;
@@ -26,8 +28,9 @@ import com.github.k1rakishou.core_themes.ChanThemeColorId;
 import java.util.regex.Pattern;
 
 public class VichanCommentParser extends CommentParser implements ICommentParser {
-    private static final Pattern QUOTE_PATTERN = Pattern.compile("#(\\d+)");
-    private static final Pattern FULL_QUOTE_PATTERN = Pattern.compile("/(\\w+)/\\w+/(\\d+)\\.html#(\\d+)");
+    public static final Pattern QUOTE_PATTERN = Pattern.compile("#(\\d+)");
+    public static final Pattern FULL_QUOTE_PATTERN = Pattern.compile("/(\\w+)/\\w+/(\\d+)\\.html#(\\d+)");
+    public static final AnchorHrefScanner ANCHOR_HREF_SCANNER = new AnchorHrefScanner(null, ".html", "#");
 
     public VichanCommentParser() {
         addDefaultRules();
@@ -53,4 +56,10 @@ public class VichanCommentParser extends CommentParser implements ICommentParser
     public Pattern getFullQuotePattern() {
         return FULL_QUOTE_PATTERN;
     }
+
+    @Nullable
+    @Override
+    protected AnchorHrefScanner getAnchorHrefScanner() {
+        return ANCHOR_HREF_SCANNER;
+    }
 }
@@ -16,6 +16,7 @@
  */
 package com.github.k1rakishou.chan.core.site.loader
 
+import android.util.Log
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
@@ -155,11 +156,13 @@ class ChanThreadLoaderCoordinator(
           isIncrementalUpdate = chanLoadUrl.isIncremental
         )
 
-        Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl=$chanLoadUrl, " +
-          "compositeCatalogDescriptor=$compositeCatalogDescriptor, chanDescriptor=$chanDescriptor, " +
-          "chanCacheOptions=$chanCacheOptions, chanCacheUpdateOptions=$chanCacheUpdateOptions, " +
-          "chanReadOptions=$chanReadOptions, chanReader=${chanReader.javaClass.simpleName}, " +
-          "postProcessFlags=$postProcessFlags)")
+        Logger.d(TAG) {
+          "loadThreadOrCatalog(chanLoadUrl=$chanLoadUrl, " +
+            "compositeCatalogDescriptor=$compositeCatalogDescriptor, chanDescriptor=$chanDescriptor, " +
+            "chanCacheOptions=$chanCacheOptions, chanCacheUpdateOptions=$chanCacheUpdateOptions, " +
+            "chanReadOptions=$chanReadOptions, chanReader=${chanReader.javaClass.simpleName}, " +
+            "postProcessFlags=$postProcessFlags)"
+        }
 
         val isThreadDownloaded = chanDescriptor is ChanDescriptor.ThreadDescriptor
           && threadDownloadManager.isThreadFullyDownloaded(chanDescriptor)
@@ -240,7 +243,7 @@ class ChanThreadLoaderCoordinator(
           }
         }
 
-        Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}")
+        Logger.d(TAG) { "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}" }
 
         if (chanReaderProcessor.error != null) {
           val error = chanReaderProcessor.error!!
@@ -301,6 +304,11 @@ class ChanThreadLoaderCoordinator(
       return
     }
 
+    // Collecting the cache stats below is not free, don't do it when the log is going to be dropped
+    if (!Logger.isLoggable(TAG, Log.DEBUG)) {
+      return
+    }
+
     val storeDuration = loadTimeInfo.storeDuration
     val storedPostsCount = loadTimeInfo.storedPostsCount
     val filterProcessingDuration = loadTimeInfo.filterProcessingDuration
@@ -308,6 +316,7 @@ class ChanThreadLoaderCoordinator(
     val parsingDuration = loadTimeInfo.parsingDuration
     val parsedPostsCount = loadTimeInfo.parsedPostsCount
     val postsInChanReaderProcessor = loadTimeInfo.postsInChanReaderProcessor
+    val postHashStats = loadTimeInfo.postHashStats
 
     val cachedPostsCount = chanPostRepository.getTotalCachedPostsCount()
     val cachedThreadsCount = chanPostRepository.getTotalCachedThreadCount()
@@ -327,6 +336,8 @@ class ChanThreadLoaderCoordinator(
       appendLine("Store new posts took $storeDuration (stored $storedPostsCount posts).")
       appendLine("Parse posts took $parsingDuration (parsed $parsedPostsCount out of $postsInChanReaderProcessor posts).")
       appendLine("Filter processing took $filterProcessingDuration (filers count: $filtersCount).")
+      appendLine("Post hashes: hits=${postHashStats.hits} (from database: ${postHashStats.persistedHits}), " +
+        "misses=${postHashStats.misses}.")
       appendLine("Total in-memory cached posts count: $cachedPostsCount/${appConstants.maxPostsCountInPostsCache}.")
 
       if (currentThreadCachedPostsCount != null) {
@@ -544,6 +555,8 @@ class ChanThreadLoaderCoordinator(
       val isUnlimitedCatalog = when {
         prevCatalogSnapshot != null -> prevCatalogSnapshot.isUnlimitedOrCompositeCatalog
         chanDescriptor is ChanDescriptor.CatalogDescriptor -> {
+          boardManager.awaitUntilSiteBoardsLoaded(chanDescriptor.siteDescriptor())
+
           boardManager.byBoardDescriptor(chanDescriptor.boardDescriptor)
             ?.isUnlimitedCatalog
             ?: false
@@ -51,6 +51,10 @@ internal class ChanPostPersister(
         "$chanCacheUpdateOptions, ${postParser.javaClass.simpleName})")
 
       if (chanDescriptor is ChanDescriptor.ICatalogDescriptor) {
+        if (chanDescriptor is ChanDescriptor.CatalogDescriptor) {
+          boardManager.awaitUntilSiteBoardsLoaded(chanDescriptor.siteDescriptor())
+        }
+
         val isUnlimitedCatalog = boardManager.byCatalogDescriptor(chanDescriptor)
           ?.isUnlimitedCatalog
           ?: false
@@ -82,7 +86,8 @@ internal class ChanPostPersister(
       val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
         chanDescriptor = chanDescriptor,
         postParser = postParser,
-        postBuildersToParse = chanReaderProcessor.getToParse()
+        postBuildersToParse = chanReaderProcessor.getToParse(),
+        postBuildersToFilterOnly = chanReaderProcessor.getToFilterOnly()
       )
 
       chanLoadProgressNotifier.sendProgressEvent(
@@ -111,7 +116,8 @@ internal class ChanPostPersister(
         filtersCount = parsingResult.filtersCount,
         parsingDuration = parsingResult.parsingTime,
         parsedPostsCount = parsingResult.parsedPosts.size,
-        postsInChanReaderProcessor = chanReaderProcessor.getTotalPostsCount()
+        postsInChanReaderProcessor = chanReaderProcessor.getTotalPostsCount(),
+        postHashStats = chanReaderProcessor.getPostHashStats()
       )
 
       return@Try ThreadResultWithTimeInfo(
@@ -138,7 +144,8 @@ internal class ChanPostPersister(
     val filtersCount: Int,
     val parsingDuration: Duration,
     val parsedPostsCount: Int,
-    val postsInChanReaderProcessor: Int
+    val postsInChanReaderProcessor: Int,
+    val postHashStats: ChanReaderProcessor.PostHashStats
   )
 
   companion object {
@@ -33,10 +33,15 @@ abstract class AbstractParsePostsUseCase(
   protected val chanLoadProgressNotifier: ChanLoadProgressNotifier
 ) {
 
+  /**
+   * [postBuildersToFilterOnly] are posts that didn't change and won't be parsed but that we have
+   * never run the filters against (e.g. posts that were loaded from the database after an app restart).
+   * */
   abstract suspend fun parseNewPostsPosts(
     chanDescriptor: ChanDescriptor,
     postParser: PostParser,
-    postBuildersToParse: List<ChanPostBuilder>
+    postBuildersToParse: List<ChanPostBuilder>,
+    postBuildersToFilterOnly: List<ChanPostBuilder> = emptyList()
   ): ParsingResult
 
   protected suspend fun processSavedReplies(postBuildersToParse: List<ChanPostBuilder>) {
@@ -157,9 +162,12 @@ abstract class AbstractParsePostsUseCase(
     return postsToParseNoSet + chanPostRepository.getCachedThreadPostsNos(chanDescriptor)
   }
 
-  protected fun loadFilters(chanDescriptor: ChanDescriptor): List<ChanFilter> {
+  protected suspend fun loadFilters(chanDescriptor: ChanDescriptor): List<ChanFilter> {
     BackgroundUtils.ensureBackgroundThread()
 
+    // The board may be an inactive one whose site's boards are not loaded yet
+    boardManager.awaitUntilSiteBoardsLoaded(chanDescriptor.siteDescriptor())
+
     val board = boardManager.byBoardDescriptor(chanDescriptor.boardDescriptor())
       ?: return emptyList()
 
@@ -46,7 +46,8 @@ class ParsePostsV1UseCase(
   override suspend fun parseNewPostsPosts(
     chanDescriptor: ChanDescriptor,
     postParser: PostParser,
-    postBuildersToParse: List<ChanPostBuilder>
+    postBuildersToParse: List<ChanPostBuilder>,
+    postBuildersToFilterOnly: List<ChanPostBuilder>
   ): ParsingResult {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -54,7 +55,14 @@ class ParsePostsV1UseCase(
     boardManager.awaitUntilInitialized()
 
     if (postBuildersToParse.isEmpty()) {
-      return ParsingResult(emptyList(), Duration.ZERO, 0, Duration.ZERO)
+      if (postBuildersToFilterOnly.isEmpty()) {
+        return ParsingResult(emptyList(), Duration.ZERO, 0, Duration.ZERO)
+      }
+
+      val filters = loadFilters(chanDescriptor)
+      val filterProcessingDuration = measureTime { processFilters(postBuildersToFilterOnly, filters) }
+
+      return ParsingResult(emptyList(), filterProcessingDuration, filters.size, Duration.ZERO)
     }
 
     val internalIds = getInternalIds(chanDescriptor, postBuildersToParse)
@@ -125,11 +133,12 @@ class ParsePostsV1UseCase(
     )
 
     val filterProcessingDuration = measureTime {
-      processFilters(postBuildersToParse, filters)
+      processFilters(postBuildersToParse + postBuildersToFilterOnly, filters)
     }
 
     Logger.d(TAG, "parseNewPostsPosts(chanDescriptor=$chanDescriptor, " +
       "postsToParseSize=${postBuildersToParse.size}), " +
+      "postsToFilterOnlySize=${postBuildersToFilterOnly.size}, " +
       "internalIds=${internalIds.size}, " +
       "filters=${filters.size}")
 
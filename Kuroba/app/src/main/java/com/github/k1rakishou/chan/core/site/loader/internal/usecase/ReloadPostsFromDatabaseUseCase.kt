@@ -28,7 +28,7 @@ class ReloadPostsFromDatabaseUseCase(
           .unwrap()
       }
       is ChanDescriptor.CatalogDescriptor -> {
-        boardManager.awaitUntilInitialized()
+        boardManager.awaitUntilSiteBoardsLoaded(chanDescriptor.siteDescriptor())
 
         val board = boardManager.byBoardDescriptor(chanDescriptor.boardDescriptor)
         if (board?.isUnlimitedCatalog == true) {
@@ -0,0 +1,301 @@
+package com.github.k1rakishou.chan.core.site.parser
+
+/**
+ * Hand-written replacement of the regexes that [CommentParser.matchAnchor] runs for every anchor
+ * (getFullQuotePattern(), getQuotePattern(), the 4chan/8chan board link and board search patterns).
+ * Every function returns exactly what the corresponding regex would have matched, see
+ * AnchorHrefScannerTest.
+ *
+ * One scanner describes full quotes of the form "/board/[threadSegment]/threadNo[threadNoSuffix][postNoPrefix]postNo"
+ * and internal quotes of the form "[postNoPrefix]postNo".
+ * */
+class AnchorHrefScanner(
+  // null means any non empty sequence of word characters (\w+)
+  private val threadSegment: String?,
+  private val threadNoSuffix: String,
+  private val postNoPrefix: String
+) {
+  private val threadNoTerminator = threadNoSuffix + postNoPrefix
+
+  /**
+   * Same as getFullQuotePattern().matcher(href).find(). [FullQuote.threadNo] and [FullQuote.postNo]
+   * are -1 when the number does not fit into a Long.
+   * */
+  fun findFullQuote(href: String): FullQuote? {
+    var index = href.indexOf('/')
+
+    while (index >= 0) {
+      val fullQuote = matchFullQuoteAt(href, index)
+      if (fullQuote != null) {
+        return fullQuote
+      }
+
+      index = href.indexOf('/', index + 1)
+    }
+
+    return null
+  }
+
+  /**
+   * Same as getQuotePattern().matcher(href).matches() followed by parsing the post number. Returns -1
+   * when the href is not an internal quote or when the number does not fit into a Long.
+   * */
+  fun matchQuote(href: String): Long {
+    if (!href.startsWith(postNoPrefix)) {
+      return -1L
+    }
+
+    val postNoStart = postNoPrefix.length
+    val postNoEnd = skipDigits(href, postNoStart)
+
+    if (postNoEnd == postNoStart || postNoEnd != href.length) {
+      return -1L
+    }
+
+    return parseLongOrMinusOne(href, postNoStart, postNoEnd)
+  }
+
+  private fun matchFullQuoteAt(href: String, slashIndex: Int): FullQuote? {
+    // /(\w+)/
+    val boardCodeStart = slashIndex + 1
+    val boardCodeEnd = skipWordChars(href, boardCodeStart)
+    if (boardCodeEnd == boardCodeStart || !charAtIs(href, boardCodeEnd, '/')) {
+      return null
+    }
+
+    // \w+/ or thread/
+    var position = boardCodeEnd + 1
+    if (threadSegment == null) {
+      val threadSegmentEnd = skipWordChars(href, position)
+      if (threadSegmentEnd == position) {
+        return null
+      }
+
+      position = threadSegmentEnd
+    } else {
+      if (!href.startsWith(threadSegment, position)) {
+        return null
+      }
+
+      position += threadSegment.length
+    }
+
+    if (!charAtIs(href, position, '/')) {
+      return null
+    }
+
+    // (\d+).html#p or (\d+)#
+    val threadNoStart = position + 1
+    val threadNoEnd = skipDigits(href, threadNoStart)
+    if (threadNoEnd == threadNoStart || !href.startsWith(threadNoTerminator, threadNoEnd)) {
+      return null
+    }
+
+    // (\d+)
+    val postNoStart = threadNoEnd + threadNoTerminator.length
+    val postNoEnd = skipDigits(href, postNoStart)
+    if (postNoEnd == postNoStart) {
+      return null
+    }
+
+    return FullQuote(
+      boardCode = href.substring(boardCodeStart, boardCodeEnd),
+      threadNo = parseLongOrMinusOne(href, threadNoStart, threadNoEnd),
+      postNo = parseLongOrMinusOne(href, postNoStart, postNoEnd)
+    )
+  }
+
+  class FullQuote(
+    val boardCode: String,
+    val threadNo: Long,
+    val postNo: Long
+  )
+
+  class BoardSearch(
+    val boardCode: String,
+    val rawQuery: String
+  )
+
+  companion object {
+    private const val CHAN4_BOARDS_PREFIX = "//boards.4chan"
+    private const val ORG = ".org/"
+    private const val THREAD = "/thread/"
+    private const val CATALOG_SEARCH = "/catalog#s="
+    private const val INDEX_HTML_PREFIX = "/index"
+    private const val INDEX_HTML_SUFFIX = "html"
+
+    // /(\w+)/\w+/(\d+)#p(\d+) and #p(\d+)
+    @JvmField
+    val CHAN4 = AnchorHrefScanner(threadSegment = null, threadNoSuffix = "", postNoPrefix = "#p")
+
+    /**
+     * Same as "//boards\.4chan.*?\.org/(.*?)/thread/(\d*?)#p(\d*)".matches(href)
+     * */
+    @JvmStatic
+    fun isChan4BoardsQuote(href: String): Boolean {
+      if (!href.startsWith(CHAN4_BOARDS_PREFIX)) {
+        return false
+      }
+
+      // #p(\d*)
+      val postNoStart = skipDigitsBackwards(href, href.length)
+      if (!href.startsWith("#p", postNoStart - 2)) {
+        return false
+      }
+
+      // /thread/(\d*?)
+      val threadNoStart = skipDigitsBackwards(href, postNoStart - 2)
+      val threadIndex = threadNoStart - THREAD.length
+      if (threadIndex < CHAN4_BOARDS_PREFIX.length || !href.startsWith(THREAD, threadIndex)) {
+        return false
+      }
+
+      // .*?\.org/(.*?)
+      return findOrg(href, threadIndex) >= 0
+    }
+
+    /**
+     * Same as "//boards\.4chan.*?\.org/(.*?)/".matches(href) and then "/(.*?)/index.html".matches(href),
+     * returns the first group of whichever matched.
+     * */
+    @JvmStatic
+    fun matchBoardLink(href: String): String? {
+      if (href.startsWith(CHAN4_BOARDS_PREFIX) && href.endsWith('/')) {
+        val lastSlashIndex = href.length - 1
+        val orgEnd = findOrg(href, lastSlashIndex)
+
+        if (orgEnd >= 0) {
+          return href.substring(orgEnd, lastSlashIndex)
+        }
+      }
+
+      // "/(.*?)/index.html", the dot is not escaped so it matches any character
+      val indexStart = href.length - (INDEX_HTML_PREFIX.length + 1 + INDEX_HTML_SUFFIX.length)
+      if (indexStart < 1
+        || href[0] != '/'
+        || !href.startsWith(INDEX_HTML_PREFIX, indexStart)
+        || !href.endsWith(INDEX_HTML_SUFFIX)
+        || isLineTerminator(href[indexStart + INDEX_HTML_PREFIX.length])
+        || containsLineTerminator(href, 1, indexStart)
+      ) {
+        return null
+      }
+
+      return href.substring(1, indexStart)
+    }
+
+    /**
+     * Same as "//boards\.4chan.*?\.org/(.*?)/catalog#s=(.*)".matches(href)
+     * */
+    @JvmStatic
+    fun matchBoardSearch(href: String): BoardSearch? {
+      if (!href.startsWith(CHAN4_BOARDS_PREFIX)) {
+        return null
+      }
+
+      val orgEnd = findOrg(href, href.length)
+      if (orgEnd < 0) {
+        return null
+      }
+
+      val catalogSearchIndex = href.indexOf(CATALOG_SEARCH, orgEnd)
+      if (catalogSearchIndex < 0) {
+        return null
+      }
+
+      return BoardSearch(
+        boardCode = href.substring(orgEnd, catalogSearchIndex),
+        rawQuery = href.substring(catalogSearchIndex + CATALOG_SEARCH.length)
+      )
+    }
+
+    /**
+     * Finds the first ".org/" after the "//boards.4chan" prefix that ends not after [end], returns
+     * the index right after it or -1. Everything between the prefix and [end] (except for the
+     * ".org/") is matched by "." in the original regexes so it must not contain line terminators.
+     * */
+    private fun findOrg(href: String, end: Int): Int {
+      val orgIndex = href.indexOf(ORG, CHAN4_BOARDS_PREFIX.length)
+      if (orgIndex < 0 || orgIndex + ORG.length > end) {
+        return -1
+      }
+
+      if (containsLineTerminator(href, CHAN4_BOARDS_PREFIX.length, end)) {
+        return -1
+      }
+
+      return orgIndex + ORG.length
+    }
+
+    private fun charAtIs(href: String, index: Int, char: Char): Boolean {
+      return index < href.length && href[index] == char
+    }
+
+    private fun skipWordChars(href: String, start: Int): Int {
+      var index = start
+
+      while (index < href.length && isWordChar(href[index])) {
+        ++index
+      }
+
+      return index
+    }
+
+    private fun skipDigits(href: String, start: Int): Int {
+      var index = start
+
+      while (index < href.length && href[index] in '0'..'9') {
+        ++index
+      }
+
+      return index
+    }
+
+    private fun skipDigitsBackwards(href: String, end: Int): Int {
+      var index = end
+
+      while (index > 0 && href[index - 1] in '0'..'9') {
+        --index
+      }
+
+      return index
+    }
+
+    // \w without Pattern.UNICODE_CHARACTER_CLASS
+    private fun isWordChar(char: Char): Boolean {
+      return char in 'a'..'z' || char in 'A'..'Z' || char in '0'..'9' || char == '_'
+    }
+
+    // Characters that "." does not match without Pattern.DOTALL
+    private fun isLineTerminator(char: Char): Boolean {
+      return char == '\n' || char == '\r' || char == '\u0085' || char == '\u2028' || char == '\u2029'
+    }
+
+    private fun containsLineTerminator(href: String, start: Int, end: Int): Boolean {
+      for (index in start until end) {
+        if (isLineTerminator(href[index])) {
+          return true
+        }
+      }
+
+      return false
+    }
+
+    private fun parseLongOrMinusOne(href: String, start: Int, end: Int): Long {
+      var result = 0L
+
+      for (index in start until end) {
+        val digit = href[index] - '0'
+
+        if (result > (Long.MAX_VALUE - digit) / 10) {
+          return -1L
+        }
+
+        result = result * 10 + digit
+      }
+
+      return result
+    }
+  }
+
+}
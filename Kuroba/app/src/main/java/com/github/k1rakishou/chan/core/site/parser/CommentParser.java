@@ -31,10 +31,12 @@ import android.text.style.UnderlineSpan;
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.graphics.ColorUtils;
 
 import com.github.k1rakishou.ChanSettings;
 import com.github.k1rakishou.chan.core.site.parser.style.StyleRule;
+import com.github.k1rakishou.chan.core.site.parser.style.StyleRuleDispatchTable;
 import com.github.k1rakishou.chan.core.site.parser.style.StyleRulesParams;
 import com.github.k1rakishou.chan.utils.ConversionUtils;
 import com.github.k1rakishou.common.AppConstants;
@@ -69,8 +71,10 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
     private static final String IFRAME_CONTENT_PREFIX = "[Iframe content]";
 
     private final Map<String, List<StyleRule>> rules = new HashMap<>();
+    // Compiled from the rules on the first handleTag() call, reset every time the rules change.
+    @Nullable
+    private volatile StyleRuleDispatchTable dispatchTable = null;
 
-    private final Pattern defaultQuoteRegex = Pattern.compile("//boards\\.4chan.*?\\.org/(.*?)/thread/(\\d*?)#p(\\d*)");
     private final Pattern deadQuotePattern = Pattern.compile(">>(\\d+)");
     private final Pattern fullQuotePattern = Pattern.compile("/(\\w+)/\\w+/(\\d+)#p(\\d+)");
     private final Pattern quotePattern = Pattern.compile("#p(\\d+)");
@@ -151,6 +155,7 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
         }
 
         list.add(rule);
+        dispatchTable = null;
     }
 
     public void addOrReplaceRule(StyleRule rule) {
@@ -164,11 +169,13 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             StyleRule oldRule = list.get(i);
             if (oldRule.areTheSame(rule)) {
                 list.set(i, rule);
+                dispatchTable = null;
                 return;
             }
         }
 
         list.add(rule);
+        dispatchTable = null;
     }
 
     @NonNull
@@ -195,59 +202,54 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             CharSequence text,
             HtmlTag htmlTag
     ) {
-        boolean forceHttpsScheme = ChanSettings.forceHttpsUrlScheme.get();
-        List<StyleRule> normalRules = this.rules.get(tag);
+        return handleTag(callback, post, tag, text, htmlTag, ChanSettings.forceHttpsUrlScheme.get());
+    }
+
+    /**
+     * Same as the other handleTag() but with the settings read once by the caller for the whole
+     * comment instead of once per tag.
+     */
+    @Nullable
+    public CharSequence handleTag(
+            PostParser.Callback callback,
+            ChanPostBuilder post,
+            String tag,
+            CharSequence text,
+            HtmlTag htmlTag,
+            boolean forceHttpsScheme
+    ) {
+        StyleRuleDispatchTable dispatchTable = getDispatchTable();
+        StyleRuleDispatchTable.TagRules tagRules = dispatchTable.tagRules(tag);
+        StyleRulesParams styleRulesParams = null;
 
         // Execute rules which must be executed before the wildcard rules
-        if (normalRules != null) {
-            for (int i = 0; i < 2; i++) {
-                boolean highPriority = i == 0;
-
-                for (StyleRule rule : normalRules) {
-                    if (rule.rulePriority() != StyleRule.Priority.BeforeWildcardRules) {
-                        continue;
-                    }
-
-                    if (rule.highPriority() == highPriority && rule.applies(htmlTag)) {
-                        return rule.apply(new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme));
-                    }
-                }
+        if (tagRules != null) {
+            StyleRule rule = tagRules.findBeforeWildcardRule(htmlTag);
+            if (rule != null) {
+                return rule.apply(new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme));
             }
         }
 
         // Execute wildcard rules
-        List<StyleRule> wildcardRules = this.rules.get("*");
-        if (wildcardRules != null) {
-            outer: for (int i = 0; i < 2; i++) {
-                boolean highPriority = i == 0;
-
-                for (StyleRule rule : wildcardRules) {
-                    if (rule.highPriority() == highPriority && rule.applies(htmlTag, true)) {
-                        CharSequence result = rule.apply(new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme));
-                        if (!TextUtils.isEmpty(result)) {
-                            return result;
-                        }
-
-                        break outer;
-                    }
-                }
+        StyleRule wildcardRule = dispatchTable.findWildcardRule(htmlTag);
+        if (wildcardRule != null) {
+            styleRulesParams = new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme);
+
+            CharSequence result = wildcardRule.apply(styleRulesParams);
+            if (!TextUtils.isEmpty(result)) {
+                return result;
             }
         }
 
         // Execute the rest of the rules
-        if (normalRules != null) {
-            for (int i = 0; i < 2; i++) {
-                boolean highPriority = i == 0;
-
-                for (StyleRule rule : normalRules) {
-                    if (rule.rulePriority() != StyleRule.Priority.Normal) {
-                        continue;
-                    }
-
-                    if (rule.highPriority() == highPriority && rule.applies(htmlTag)) {
-                        return rule.apply(new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme));
-                    }
+        if (tagRules != null) {
+            StyleRule rule = tagRules.findNormalRule(htmlTag);
+            if (rule != null) {
+                if (styleRulesParams == null) {
+                    styleRulesParams = new StyleRulesParams(text, htmlTag, callback, post, forceHttpsScheme);
                 }
+
+                return rule.apply(styleRulesParams);
             }
         }
 
@@ -255,6 +257,20 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
         return text;
     }
 
+    private StyleRuleDispatchTable getDispatchTable() {
+        StyleRuleDispatchTable table = dispatchTable;
+        if (table != null) {
+            return table;
+        }
+
+        // Rules are only added in the constructors so this is only ever executed once per parser
+        // (maybe a couple of times when multiple threads get here at the same time, which is fine).
+        table = StyleRuleDispatchTable.compile(rules);
+        dispatchTable = table;
+
+        return table;
+    }
+
     // <span style="color:#0893e1">Test</span>
     // <span style="color:red">Test</span>
     // <span style=\"color:rgb(77,100,77);background-color:rgb(241,140,31)\"
@@ -518,7 +534,7 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             PostLinkable.Link handlerLink,
             SpannableStringBuilder spannableStringBuilder
     ) {
-        if (isPostLinkableAlreadyAdded(new SpannableString(handlerLink.getKey()), handlerLink.getLinkValue())) {
+        if (isPostLinkableAlreadyAdded(handlerLink.getKey(), handlerLink.getLinkValue())) {
             // Fix for some sites (like 2ch.hk and some archives too) having the same link spans
             // encountered twice (This breaks video title and duration spans for youtube links
             // since we process the same spans twice)
@@ -629,10 +645,17 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
         }
     }
 
-    private boolean isPostLinkableAlreadyAdded(SpannableString res, PostLinkable.Value linkValue) {
-        PostLinkable[] alreadySetPostLinkables = res.getSpans(
+    private boolean isPostLinkableAlreadyAdded(CharSequence linkKey, PostLinkable.Value linkValue) {
+        // Plain strings (the most common case) can't have any spans, no need to copy them into a
+        // SpannableString just to find that out.
+        if (!(linkKey instanceof Spanned)) {
+            return false;
+        }
+
+        Spanned spanned = (Spanned) linkKey;
+        PostLinkable[] alreadySetPostLinkables = spanned.getSpans(
                 0,
-                res.length(),
+                spanned.length(),
                 PostLinkable.class
         );
 
@@ -713,10 +736,81 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             PostParser.Callback callback
     ) {
         String href = extractQuote(anchorTag.attrUnescapedOrNull("href"), post);
-        Matcher externalMatcher = matchExternalQuote(href, post);
+        return matchHref(post, text, href, callback);
+    }
 
-        PostLinkable.Type type = PostLinkable.Type.LINK;
-        PostLinkable.Value value = new PostLinkable.Value.StringValue(href);
+    /**
+     * Scanner that replaces {@link #getFullQuotePattern()}, {@link #getQuotePattern()},
+     * {@link #matchBoardLink(String, ChanPostBuilder)} and {@link #matchBoardSearch(String, ChanPostBuilder)}
+     * in {@link #matchAnchor(ChanPostBuilder, CharSequence, HtmlTag, PostParser.Callback)}. Parsers
+     * that override the quote patterns must also override this method and return a scanner matching
+     * exactly the same hrefs (or null to keep using the regexes).
+     */
+    @Nullable
+    protected AnchorHrefScanner getAnchorHrefScanner() {
+        if (getQuotePattern() != quotePattern || getFullQuotePattern() != fullQuotePattern) {
+            return null;
+        }
+
+        return AnchorHrefScanner.CHAN4;
+    }
+
+    @VisibleForTesting
+    PostLinkable.Link matchHref(
+            ChanPostBuilder post,
+            CharSequence text,
+            String href,
+            PostParser.Callback callback
+    ) {
+        AnchorHrefScanner anchorHrefScanner = getAnchorHrefScanner();
+        if (anchorHrefScanner == null) {
+            return matchHrefWithRegexes(post, text, href, callback);
+        }
+
+        AnchorHrefScanner.FullQuote fullQuote = anchorHrefScanner.findFullQuote(href);
+        if (fullQuote != null) {
+            if (fullQuote.getThreadNo() < 0 || fullQuote.getPostNo() < 0) {
+                return linkLink(text, href);
+            }
+
+            return externalQuoteLink(
+                    post,
+                    text,
+                    fullQuote.getBoardCode(),
+                    fullQuote.getThreadNo(),
+                    fullQuote.getPostNo(),
+                    callback
+            );
+        }
+
+        long postNo = anchorHrefScanner.matchQuote(href);
+        if (postNo >= 0) {
+            return internalQuoteLink(post, text, postNo, callback);
+        }
+
+        String boardCode = AnchorHrefScanner.matchBoardLink(href);
+        if (boardCode != null) {
+            // board link
+            return new PostLinkable.Link(PostLinkable.Type.BOARD, text, new PostLinkable.Value.StringValue(boardCode));
+        }
+
+        AnchorHrefScanner.BoardSearch boardSearch = AnchorHrefScanner.matchBoardSearch(href);
+        if (boardSearch != null) {
+            return searchLink(text, boardSearch.getBoardCode(), boardSearch.getRawQuery());
+        }
+
+        // normal link
+        return linkLink(text, href);
+    }
+
+    @VisibleForTesting
+    PostLinkable.Link matchHrefWithRegexes(
+            ChanPostBuilder post,
+            CharSequence text,
+            String href,
+            PostParser.Callback callback
+    ) {
+        Matcher externalMatcher = matchExternalQuote(href, post);
 
         if (externalMatcher.find()) {
             String board = externalMatcher.group(1);
@@ -725,91 +819,133 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             try {
                 threadId = Long.parseLong(externalMatcher.group(2));
             } catch (NumberFormatException error) {
-                return new PostLinkable.Link(type, text, value);
+                return linkLink(text, href);
             }
 
             long postId;
             try {
                 postId = Long.parseLong(externalMatcher.group(3));
             } catch (NumberFormatException e) {
-                return new PostLinkable.Link(type, text, value);
+                return linkLink(text, href);
             }
 
-            boolean isInternalQuote = board.equals(post.boardDescriptor.getBoardCode())
-                    && callback.isInternal(postId)
-                    && !callback.isParsingCatalogPosts();
+            return externalQuoteLink(post, text, board, threadId, postId, callback);
+        }
 
-            if (isInternalQuote) {
-                // link to post in same thread with post number (>>post)
-                type = PostLinkable.Type.QUOTE;
-                value = new PostLinkable.Value.LongValue(postId);
-            } else {
-                // link to post not in same thread with post number (>>post or >>>/board/post)
-                type = PostLinkable.Type.THREAD;
-                value = new PostLinkable.Value.ThreadOrPostLink(board, threadId, postId, 0L);
+        Matcher quoteMatcher = matchInternalQuote(href, post);
+        if (quoteMatcher.matches()) {
+            long postId;
+            try {
+                postId = Long.parseLong(quoteMatcher.group(1));
+            } catch (NumberFormatException error) {
+                return linkLink(text, href);
             }
-        } else {
-            Matcher quoteMatcher = matchInternalQuote(href, post);
-            if (quoteMatcher.matches()) {
-                long postId;
-                try {
-                    postId = Long.parseLong(quoteMatcher.group(1));
-                } catch (NumberFormatException error) {
-                    return new PostLinkable.Link(type, text, value);
-                }
 
-                if (callback.isInternal(postId)) {
-                    // TODO(KurobaEx / @GhostPosts): archive ghost posts
-                    int hiddenOrRemoved = callback.isHiddenOrRemoved(post.getOpId(), postId, 0);
-
-                    switch (hiddenOrRemoved) {
-                        case PostParser.HIDDEN_POST:
-                        case PostParser.REMOVED_POST:
-                            // Quote pointing to a (locally) hidden or removed post
-                            type = PostLinkable.Type.QUOTE_TO_HIDDEN_OR_REMOVED_POST;
-                            break;
-                        default:
-                            // Normal post quote
-                            type = PostLinkable.Type.QUOTE;
-                            break;
-                    }
-                } else {
-                    // Most likely a quote to a deleted post (Or any other post that we don't have
-                    // in the cache).
-                    type = PostLinkable.Type.DEAD;
-                }
+            return internalQuoteLink(post, text, postId, callback);
+        }
 
-                value = new PostLinkable.Value.LongValue(postId);
-            } else {
-                Matcher boardLinkMatcher = matchBoardLink(href, post);
-                Matcher boardSearchMatcher = matchBoardSearch(href, post);
-
-                if (boardLinkMatcher.matches()) {
-                    // board link
-                    type = PostLinkable.Type.BOARD;
-                    value = new PostLinkable.Value.StringValue(boardLinkMatcher.group(1));
-                } else if (boardSearchMatcher.matches()) {
-                    // search link
-                    String board = boardSearchMatcher.group(1);
-                    String search;
-
-                    try {
-                        search = URLDecoder.decode(boardSearchMatcher.group(2), "US-ASCII");
-                    } catch (UnsupportedEncodingException e) {
-                        search = boardSearchMatcher.group(2);
-                    }
-
-                    type = PostLinkable.Type.SEARCH;
-                    value = new PostLinkable.Value.SearchLink(board, search);
-                } else {
-                    // normal link
-                    type = PostLinkable.Type.LINK;
-                    value = new PostLinkable.Value.StringValue(href);
-                }
+        Matcher boardLinkMatcher = matchBoardLink(href, post);
+        if (boardLinkMatcher.matches()) {
+            // board link
+            return new PostLinkable.Link(
+                    PostLinkable.Type.BOARD,
+                    text,
+                    new PostLinkable.Value.StringValue(boardLinkMatcher.group(1))
+            );
+        }
+
+        Matcher boardSearchMatcher = matchBoardSearch(href, post);
+        if (boardSearchMatcher.matches()) {
+            return searchLink(text, boardSearchMatcher.group(1), boardSearchMatcher.group(2));
+        }
+
+        // normal link
+        return linkLink(text, href);
+    }
+
+    private PostLinkable.Link externalQuoteLink(
+            ChanPostBuilder post,
+            CharSequence text,
+            String board,
+            long threadId,
+            long postId,
+            PostParser.Callback callback
+    ) {
+        boolean isInternalQuote = board.equals(post.boardDescriptor.getBoardCode())
+                && callback.isInternal(postId)
+                && !callback.isParsingCatalogPosts();
+
+        if (isInternalQuote) {
+            // link to post in same thread with post number (>>post)
+            return new PostLinkable.Link(
+                    PostLinkable.Type.QUOTE,
+                    text,
+                    new PostLinkable.Value.LongValue(postId)
+            );
+        }
+
+        // link to post not in same thread with post number (>>post or >>>/board/post)
+        return new PostLinkable.Link(
+                PostLinkable.Type.THREAD,
+                text,
+                new PostLinkable.Value.ThreadOrPostLink(board, threadId, postId, 0L)
+        );
+    }
+
+    private PostLinkable.Link internalQuoteLink(
+            ChanPostBuilder post,
+            CharSequence text,
+            long postId,
+            PostParser.Callback callback
+    ) {
+        PostLinkable.Type type;
+
+        if (callback.isInternal(postId)) {
+            // TODO(KurobaEx / @GhostPosts): archive ghost posts
+            int hiddenOrRemoved = callback.isHiddenOrRemoved(post.getOpId(), postId, 0);
+
+            switch (hiddenOrRemoved) {
+                case PostParser.HIDDEN_POST:
+                case PostParser.REMOVED_POST:
+                    // Quote pointing to a (locally) hidden or removed post
+                    type = PostLinkable.Type.QUOTE_TO_HIDDEN_OR_REMOVED_POST;
+                    break;
+                default:
+                    // Normal post quote
+                    type = PostLinkable.Type.QUOTE;
+                    break;
             }
+        } else {
+            // Most likely a quote to a deleted post (Or any other post that we don't have
+            // in the cache).
+            type = PostLinkable.Type.DEAD;
         }
 
-        return new PostLinkable.Link(type, text, value);
+        return new PostLinkable.Link(type, text, new PostLinkable.Value.LongValue(postId));
+    }
+
+    private PostLinkable.Link searchLink(CharSequence text, String board, String rawSearch) {
+        String search;
+
+        try {
+            search = URLDecoder.decode(rawSearch, "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            search = rawSearch;
+        }
+
+        return new PostLinkable.Link(
+                PostLinkable.Type.SEARCH,
+                text,
+                new PostLinkable.Value.SearchLink(board, search)
+        );
+    }
+
+    private PostLinkable.Link linkLink(CharSequence text, String href) {
+        return new PostLinkable.Link(
+                PostLinkable.Type.LINK,
+                text,
+                new PostLinkable.Value.StringValue(href)
+        );
     }
 
     protected Matcher matchBoardSearch(String href, ChanPostBuilder post) {
@@ -838,7 +974,7 @@ public class CommentParser implements ICommentParser, HasQuotePatterns {
             return "";
         }
 
-        if (defaultQuoteRegex.matcher(href).matches()) {
+        if (AnchorHrefScanner.isChan4BoardsQuote(href)) {
             // gets us something like /board/ or /thread/postno#quoteno
             // hacky fix for 4chan having two domains but the same API
             return href.substring(2).substring(href.indexOf('/'));
@@ -39,6 +39,14 @@ class ChanReaderProcessor(
 ) : AbstractChanReaderProcessor() {
   private val toParse = mutableListWithCap<ChanPostBuilder>(64)
   private val postOrderedList = mutableListWithCap<PostDescriptor>(64)
+  private val toFilterOnly = mutableListWithCap<ChanPostBuilder>(16)
+
+  private var postHashesPreloaded = false
+  private var persistedHashPostDescriptors: Set<PostDescriptor> = emptySet()
+
+  private var postHashHits = 0
+  private var postHashMisses = 0
+  private var persistedPostHashHits = 0
 
   override val canUseEmptyBoardIfBoardDoesNotExist: Boolean
     get() = false
@@ -67,6 +75,8 @@ class ChanReaderProcessor(
 
   override suspend fun addPost(postBuilder: ChanPostBuilder) {
     lock.withLock {
+      preloadPostHashesIfNeeded()
+
       if (differsFromCached(postBuilder)) {
         toParse.add(postBuilder)
       }
@@ -77,6 +87,8 @@ class ChanReaderProcessor(
 
   override suspend fun addManyPosts(postBuilders: List<ChanPostBuilder>) {
     lock.withLock {
+      preloadPostHashesIfNeeded()
+
       postBuilders.forEach { postBuilder ->
         if (differsFromCached(postBuilder)) {
           toParse.add(postBuilder)
@@ -121,6 +133,7 @@ class ChanReaderProcessor(
 
       postOrderedList.removeAll(postDescriptorsToDelete)
       toParse.removeIfKt { postToParse -> postToParse.postDescriptor in postDescriptorsToDelete }
+      toFilterOnly.removeIfKt { postToFilter -> postToFilter.postDescriptor in postDescriptorsToDelete }
     }
   }
 
@@ -128,6 +141,20 @@ class ChanReaderProcessor(
     return lock.withLock { toParse }
   }
 
+  suspend fun getToFilterOnly(): List<ChanPostBuilder> {
+    return lock.withLock { toFilterOnly }
+  }
+
+  suspend fun getPostHashStats(): PostHashStats {
+    return lock.withLock {
+      return@withLock PostHashStats(
+        hits = postHashHits,
+        misses = postHashMisses,
+        persistedHits = persistedPostHashHits
+      )
+    }
+  }
+
   override suspend fun getThreadDescriptors(): List<ChanDescriptor.ThreadDescriptor> {
     return lock.withLock {
       return@withLock toParse
@@ -139,6 +166,23 @@ class ChanReaderProcessor(
     return lock.withLock { postOrderedList.size }
   }
 
+  private suspend fun preloadPostHashesIfNeeded() {
+    if (postHashesPreloaded) {
+      return
+    }
+
+    postHashesPreloaded = true
+
+    if (chanDescriptor !is ChanDescriptor.ThreadDescriptor || options.isDownloadingThread) {
+      return
+    }
+
+    persistedHashPostDescriptors = chanPostRepository.preloadPostHashes(chanDescriptor)
+      .peekError { error -> Logger.e(TAG, "preloadPostHashes($chanDescriptor) error", error) }
+      .valueOrNull()
+      ?: emptySet()
+  }
+
   private fun differsFromCached(builder: ChanPostBuilder): Boolean {
     if (chanDescriptor is ChanDescriptor.ICatalogDescriptor) {
       // Always update catalog posts
@@ -161,20 +205,25 @@ class ChanReaderProcessor(
     val chanPost = chanPostRepository.getCachedPost(builder.postDescriptor)
     if (chanPost == null) {
       chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
+      ++postHashMisses
       return true
     }
 
     val cachedPostHash = chanPostRepository.getPostHash(builder.postDescriptor)
     if (cachedPostHash == null) {
       chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
+      ++postHashMisses
       return true
     }
 
     if (builder.getPostHash != cachedPostHash) {
       chanPostRepository.putPostHash(builder.postDescriptor, builder.getPostHash)
+      ++postHashMisses
       return true
     }
 
+    ++postHashHits
+
     val postsDiffer = ChanPostUtils.postsDiffer(
       chanPostBuilder = builder,
       chanPostFromCache = chanPost,
@@ -185,6 +234,12 @@ class ChanReaderProcessor(
       return true
     }
 
+    if (builder.postDescriptor in persistedHashPostDescriptors) {
+      // The post was loaded from the database so the filters have never been applied to it
+      ++persistedPostHashHits
+      toFilterOnly.add(builder)
+    }
+
     return false
   }
 
@@ -193,6 +248,12 @@ class ChanReaderProcessor(
       "closed=${closed}, deleted=${deleted}, archived=${archived}, error=${error}}"
   }
 
+  data class PostHashStats(
+    val hits: Int,
+    val misses: Int,
+    val persistedHits: Int
+  )
+
   data class Options(
     val isDownloadingThread: Boolean = false,
     val isIncrementalUpdate: Boolean = false
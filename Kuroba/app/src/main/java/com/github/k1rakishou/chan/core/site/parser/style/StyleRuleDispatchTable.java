@@ -0,0 +1,127 @@
+package com.github.k1rakishou.chan.core.site.parser.style;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.github.k1rakishou.core_parser.comment.HtmlTag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the style rules of a comment parser grouped by tag. Every group is already
+ * ordered the way the rules have to be checked (high priority rules, the ones with expected css
+ * classes, first and then the rest, both in the order they were added) so that finding a rule is a
+ * single pass over a small array.
+ */
+public class StyleRuleDispatchTable {
+    private static final String WILDCARD_TAG = "*";
+    private static final StyleRule[] NO_RULES = new StyleRule[0];
+
+    private final Map<String, TagRules> tagRulesMap;
+    private final StyleRule[] wildcardRules;
+
+    private StyleRuleDispatchTable(Map<String, TagRules> tagRulesMap, StyleRule[] wildcardRules) {
+        this.tagRulesMap = tagRulesMap;
+        this.wildcardRules = wildcardRules;
+    }
+
+    @Nullable
+    public TagRules tagRules(@NonNull String tag) {
+        return tagRulesMap.get(tag);
+    }
+
+    @Nullable
+    public StyleRule findWildcardRule(@NonNull HtmlTag htmlTag) {
+        return findRule(wildcardRules, htmlTag, true);
+    }
+
+    public static StyleRuleDispatchTable compile(Map<String, List<StyleRule>> rules) {
+        Map<String, TagRules> tagRulesMap = new HashMap<>(rules.size() * 2);
+
+        for (Map.Entry<String, List<StyleRule>> entry : rules.entrySet()) {
+            List<StyleRule> beforeWildcardRules = new ArrayList<>();
+            List<StyleRule> normalRules = new ArrayList<>();
+
+            for (StyleRule rule : entry.getValue()) {
+                if (rule.rulePriority() == StyleRule.Priority.BeforeWildcardRules) {
+                    beforeWildcardRules.add(rule);
+                } else if (rule.rulePriority() == StyleRule.Priority.Normal) {
+                    normalRules.add(rule);
+                }
+            }
+
+            tagRulesMap.put(
+                    entry.getKey(),
+                    new TagRules(orderByPriority(beforeWildcardRules), orderByPriority(normalRules))
+            );
+        }
+
+        List<StyleRule> wildcardRules = rules.get(WILDCARD_TAG);
+        if (wildcardRules == null) {
+            wildcardRules = Collections.emptyList();
+        }
+
+        return new StyleRuleDispatchTable(
+                Collections.unmodifiableMap(tagRulesMap),
+                orderByPriority(wildcardRules)
+        );
+    }
+
+    private static StyleRule[] orderByPriority(List<StyleRule> rules) {
+        if (rules.isEmpty()) {
+            return NO_RULES;
+        }
+
+        StyleRule[] result = new StyleRule[rules.size()];
+        int index = 0;
+
+        for (StyleRule rule : rules) {
+            if (rule.highPriority()) {
+                result[index++] = rule;
+            }
+        }
+
+        for (StyleRule rule : rules) {
+            if (!rule.highPriority()) {
+                result[index++] = rule;
+            }
+        }
+
+        return result;
+    }
+
+    @Nullable
+    private static StyleRule findRule(StyleRule[] rules, HtmlTag htmlTag, boolean isWildcard) {
+        for (StyleRule rule : rules) {
+            if (rule.applies(htmlTag, isWildcard)) {
+                return rule;
+            }
+        }
+
+        return null;
+    }
+
+    public static class TagRules {
+        private final StyleRule[] beforeWildcardRules;
+        private final StyleRule[] normalRules;
+
+        private TagRules(StyleRule[] beforeWildcardRules, StyleRule[] normalRules) {
+            this.beforeWildcardRules = beforeWildcardRules;
+            this.normalRules = normalRules;
+        }
+
+        @Nullable
+        public StyleRule findBeforeWildcardRule(@NonNull HtmlTag htmlTag) {
+            return findRule(beforeWildcardRules, htmlTag, false);
+        }
+
+        @Nullable
+        public StyleRule findNormalRule(@NonNull HtmlTag htmlTag) {
+            return findRule(normalRules, htmlTag, false);
+        }
+    }
+}
@@ -207,7 +207,7 @@ class Dvach : CommonSite() {
     setEndpoints(DvachEndpoints(this))
     setActions(DvachActions())
     setRequestModifier(siteRequestModifier as SiteRequestModifier<Site>)
-    setApi(DvachApiV2(moshi, siteManager, boardManager, this))
+    setApi(DvachApiV2(siteManager, boardManager, this))
     setParser(DvachCommentParser())
 
     setPostingLimitationInfo(
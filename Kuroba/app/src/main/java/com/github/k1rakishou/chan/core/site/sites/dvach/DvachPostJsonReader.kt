@@ -0,0 +1,753 @@
+package com.github.k1rakishou.chan.core.site.sites.dvach
+
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.parser.processor.AbstractChanReaderProcessor
+import com.github.k1rakishou.common.StringUtils
+import com.github.k1rakishou.common.isNotNullNorEmpty
+import com.github.k1rakishou.common.jsonObject
+import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.common.nextIntOrNull
+import com.github.k1rakishou.common.nextLongOrNull
+import com.github.k1rakishou.common.nextStringOrNull
+import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.bookmark.StickyThread
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.filter.FilterWatchCatalogThreadInfoObject
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageBuilder
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import org.jsoup.Jsoup
+import org.jsoup.parser.Parser
+
+/**
+ * Reads 2ch.hk thread/catalog json responses with a streaming [JsonReader] and passes every post
+ * into the [AbstractChanReaderProcessor] as soon as it's read, without materializing the whole
+ * response as a tree of DTOs first.
+ * */
+@Suppress("BlockingMethodInNonBlockingContext")
+class DvachPostJsonReader(
+  private val board: ChanBoard,
+  private val endpoints: SiteEndpoints
+) {
+  private val boardDescriptor: BoardDescriptor
+    get() = board.boardDescriptor
+
+  /**
+   * {"board": {...}, "threads": [{"posts": [...]}], "unique_posters": 1, ...}
+   * */
+  suspend fun readThreadFresh(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor
+  ): ResponseInfo {
+    val responseInfo = ResponseInfo()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "board" -> responseInfo.bumpLimit = readBumpLimit(this)
+          "unique_posters" -> responseInfo.uniquePosters = nextIntOrNull()
+          "error" -> responseInfo.errorCode = readErrorCode(this)
+          "threads" -> {
+            if (!tryBeginArray(this)) {
+              continue
+            }
+
+            while (hasNext()) {
+              jsonObject {
+                while (hasNext()) {
+                  when (nextName()) {
+                    "posts" -> readPosts(this, chanReaderProcessor, responseInfo, null)
+                    else -> skipValue()
+                  }
+                }
+              }
+            }
+
+            endArray()
+          }
+          else -> skipValue()
+        }
+      }
+    }
+
+    responseInfo.applyUniquePostersToOriginalPost()
+    return responseInfo
+  }
+
+  /**
+   * {"posts": [...], "unique_posters": 1, ...}
+   * */
+  suspend fun readThreadIncremental(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor
+  ): ResponseInfo {
+    val responseInfo = ResponseInfo()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "posts" -> readPosts(this, chanReaderProcessor, responseInfo, null)
+          "unique_posters" -> responseInfo.uniquePosters = nextIntOrNull()
+          "error" -> responseInfo.errorCode = readErrorCode(this)
+          else -> skipValue()
+        }
+      }
+    }
+
+    responseInfo.applyUniquePostersToOriginalPost()
+    return responseInfo
+  }
+
+  /**
+   * {"board": {...}, "threads": [...], ...}
+   * */
+  suspend fun readCatalog(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor,
+    uniquePostersProvider: (ChanDescriptor.ThreadDescriptor) -> Int?
+  ): ResponseInfo {
+    val responseInfo = ResponseInfo()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "threads" -> readPosts(this, chanReaderProcessor, responseInfo, uniquePostersProvider)
+          "error" -> responseInfo.errorCode = readErrorCode(this)
+          else -> skipValue()
+        }
+      }
+    }
+
+    return responseInfo
+  }
+
+  private suspend fun readPosts(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor,
+    responseInfo: ResponseInfo,
+    uniquePostersProvider: ((ChanDescriptor.ThreadDescriptor) -> Int?)?
+  ) {
+    if (!tryBeginArray(reader)) {
+      return
+    }
+
+    responseInfo.postsFound = true
+
+    while (reader.hasNext()) {
+      val builder = readPost(reader)
+      if (builder == null) {
+        continue
+      }
+
+      if (responseInfo.threadDescriptor == null) {
+        responseInfo.threadDescriptor = builder.postDescriptor.threadDescriptor()
+      }
+
+      if (builder.op) {
+        if (uniquePostersProvider != null) {
+          val uniquePosters = uniquePostersProvider(builder.postDescriptor.threadDescriptor())
+          if (uniquePosters != null) {
+            builder.uniqueIps(uniquePosters)
+          }
+        } else {
+          // "unique_posters" may come after the posts, it will be applied once we are done with
+          // the whole response
+          responseInfo.originalPost = builder
+        }
+
+        chanReaderProcessor.setOp(builder)
+      }
+
+      chanReaderProcessor.addPost(builder)
+      ++responseInfo.postsCount
+    }
+
+    reader.endArray()
+  }
+
+  private fun readPost(reader: JsonReader): ChanPostBuilder? {
+    var num = 0L
+    var parent = 0L
+    var closed = 0L
+    var sticky = 0L
+    var endless = 0L
+    var comment = ""
+    var subject = ""
+    var email = ""
+    var name = ""
+    var trip = ""
+    var icon: String? = null
+    var timestamp = 0L
+    var lasthit = 0L
+    var postsCount: Int? = null
+    var filesCount: Int? = null
+    var postImages: List<ChanPostImage> = emptyList()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "num" -> num = nextLongOrNull() ?: 0L
+          "parent" -> parent = nextLongOrNull() ?: 0L
+          "closed" -> closed = nextLongOrNull() ?: 0L
+          "sticky" -> sticky = nextLongOrNull() ?: 0L
+          "endless" -> endless = nextLongOrNull() ?: 0L
+          "comment" -> comment = nextStringOrNull() ?: ""
+          "subject" -> subject = nextStringOrNull() ?: ""
+          "email" -> email = nextStringOrNull() ?: ""
+          "name" -> name = nextStringOrNull() ?: ""
+          "trip" -> trip = nextStringOrNull() ?: ""
+          "icon" -> icon = nextStringOrNull()
+          "timestamp" -> timestamp = nextLongOrNull() ?: 0L
+          "lasthit" -> lasthit = nextLongOrNull() ?: 0L
+          "posts_count" -> postsCount = nextIntOrNull()
+          "files_count" -> filesCount = nextIntOrNull()
+          "files" -> postImages = readPostImages(this)
+          else -> skipValue()
+        }
+      }
+    }
+
+    if (num <= 0L) {
+      return null
+    }
+
+    val repliesCount = postsCount
+    val threadImagesCount = filesCount
+    val iconsHtml = icon
+
+    val builder = ChanPostBuilder()
+    builder.boardDescriptor(boardDescriptor)
+
+    builder.op(parent == 0L)
+    builder.lastModified(lasthit)
+    builder.id(num)
+
+    if (parent != 0L) {
+      builder.opId(parent)
+    } else {
+      builder.opId(num)
+    }
+
+    if (builder.op) {
+      builder.sticky(sticky > 0L)
+      builder.closed(closed == 1L)
+      builder.endless(endless == 1L)
+
+      if (repliesCount != null) {
+        builder.replies(repliesCount)
+      }
+
+      if (threadImagesCount != null && threadImagesCount > 0) {
+        builder.threadImagesCount(threadImagesCount)
+      }
+    }
+
+    if (trip.startsWith("!!%")) {
+      builder.moderatorCapcode(trip.removePrefix("!!%").removeSuffix("%!!"))
+    } else {
+      builder.tripcode(trip)
+    }
+
+    if (name != DvachPostParser.DVACH_DEFAULT_POSTER_NAME) {
+      builder.name(name)
+    } else {
+      builder.name("")
+    }
+
+    builder.subject(subject)
+    builder.comment(comment)
+    builder.setUnixTimestampSeconds(timestamp)
+    builder.sage(email.contains("mailto:sage"))
+    builder.postImages(postImages, builder.postDescriptor)
+
+    if (iconsHtml != null && iconsHtml.isNotEmpty()) {
+      readIcons(iconsHtml, builder)
+    }
+
+    return builder
+  }
+
+  private fun readPostImages(reader: JsonReader): List<ChanPostImage> {
+    if (!tryBeginArray(reader)) {
+      return emptyList()
+    }
+
+    val postImages = mutableListWithCap<ChanPostImage>(4)
+
+    while (reader.hasNext()) {
+      val postImage = readPostImage(reader)
+      if (postImage != null) {
+        postImages += postImage
+      }
+    }
+
+    reader.endArray()
+    return postImages
+  }
+
+  private fun readPostImage(reader: JsonReader): ChanPostImage? {
+    var fullName: String? = null
+    var md5: String? = null
+    var name: String? = null
+    var path: String? = null
+    var thumbnail: String? = null
+    var size = 0L
+    var width = 0
+    var height = 0
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "fullname" -> fullName = nextStringOrNull()
+          "md5" -> md5 = nextStringOrNull()
+          "name" -> name = nextStringOrNull()
+          "path" -> path = nextStringOrNull()
+          "thumbnail" -> thumbnail = nextStringOrNull()
+          "size" -> size = nextLongOrNull() ?: 0L
+          "width" -> width = nextIntOrNull() ?: 0
+          "height" -> height = nextIntOrNull() ?: 0
+          else -> skipValue()
+        }
+      }
+    }
+
+    return createPostImage(
+      fullName = fullName,
+      md5 = md5,
+      name = name,
+      path = path,
+      thumbnail = thumbnail,
+      size = size,
+      width = width,
+      height = height
+    )
+  }
+
+  internal fun createPostImage(
+    fullName: String?,
+    md5: String?,
+    name: String?,
+    path: String?,
+    thumbnail: String?,
+    size: Long,
+    width: Int,
+    height: Int
+  ): ChanPostImage? {
+    if (isSticker(path)) {
+      return null
+    }
+
+    if (path == null || name == null) {
+      return null
+    }
+
+    val fileExt = StringUtils.extractFileNameExtension(name)
+    val serverFileName = StringUtils.removeExtensionFromFileName(name)
+
+    val originalFileName = if (fullName.isNullOrEmpty()) {
+      serverFileName
+    } else {
+      StringUtils.removeExtensionFromFileName(fullName)
+    }
+
+    val args = SiteEndpoints.makeArgument(
+      "path", path,
+      "thumbnail", thumbnail
+    )
+
+    return ChanPostImageBuilder()
+      .serverFilename(serverFileName)
+      .thumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, false, board.customSpoilers, args))
+      .spoilerThumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, true, board.customSpoilers, args))
+      .imageUrl(endpoints.imageUrl(boardDescriptor, args))
+      .filename(Parser.unescapeEntities(originalFileName, false))
+      .extension(fileExt)
+      .imageWidth(width)
+      .imageHeight(height)
+      // 2ch file size is in kB
+      .imageSize(size * 1024)
+      .fileHash(md5, false)
+      .build()
+  }
+
+  private fun readIcons(icon: String, builder: ChanPostBuilder) {
+    val document = Jsoup.parseBodyFragment(icon)
+    val icons = document.body().select("img")
+
+    for (iconElement in icons) {
+      val imageUrl = iconElement?.attr("src")
+        ?.takeIf { attrValue -> attrValue.isNotNullNorEmpty() }
+        ?.removePrefix("/")
+        ?: continue
+
+      var title = iconElement.attr("title")
+
+      if (title.isEmpty()) {
+        val start = imageUrl.indexOfLast { ch -> ch == '/' }.takeIf { it >= 0 }?.plus(1) ?: continue
+        val end = imageUrl.indexOfLast { ch -> ch == '.' }.takeIf { it >= 0 } ?: continue
+
+        if (start >= end) {
+          continue
+        }
+
+        title = imageUrl.substring(start, end)
+      }
+
+      if (title.isEmpty()) {
+        continue
+      }
+
+      val iconUrl = endpoints.icon(title, SiteEndpoints.makeArgument("icon", imageUrl))
+      builder.addHttpIcon(ChanPostHttpIcon(iconUrl, title))
+    }
+  }
+
+  private fun readBumpLimit(reader: JsonReader): Int? {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue()
+      return null
+    }
+
+    var bumpLimit: Int? = null
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "bump_limit" -> bumpLimit = nextIntOrNull()
+          else -> skipValue()
+        }
+      }
+    }
+
+    return bumpLimit
+  }
+
+  private fun tryBeginArray(reader: JsonReader): Boolean {
+    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+      reader.skipValue()
+      return false
+    }
+
+    reader.beginArray()
+    return true
+  }
+
+  class ResponseInfo {
+    var errorCode: Int? = null
+    var bumpLimit: Int? = null
+    var uniquePosters: Int? = null
+    var postsFound: Boolean = false
+    var postsCount: Int = 0
+    var threadDescriptor: ChanDescriptor.ThreadDescriptor? = null
+    var originalPost: ChanPostBuilder? = null
+
+    fun error(): DvachApiV2.DvachError? {
+      val code = errorCode
+        ?: return null
+
+      return DvachApiV2.DvachError(code)
+    }
+
+    fun applyUniquePostersToOriginalPost() {
+      val posters = uniquePosters
+        ?: return
+
+      // The builder has already been passed into the processor but it's only parsed after the
+      // whole response is read so it's fine to update it here.
+      originalPost?.uniqueIps(posters)
+    }
+  }
+
+  companion object {
+
+    fun isSticker(path: String?): Boolean {
+      return path?.contains("/stickers/", ignoreCase = true) == true
+    }
+
+    fun readErrorCode(reader: JsonReader): Int? {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue()
+        return null
+      }
+
+      var errorCode: Int? = null
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "code" -> errorCode = nextIntOrNull()
+            else -> skipValue()
+          }
+        }
+      }
+
+      return errorCode
+    }
+
+    /**
+     * {"board": {...}, "threads": [{"posts": [...]}]}
+     * */
+    fun readThreadBookmarkInfoPosts(reader: JsonReader): List<ThreadBookmarkInfoPostObject>? {
+      var bumpLimitCount: Int? = null
+      var postsFound = false
+      val posts = mutableListWithCap<BookmarkPostInfo>(64)
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "board" -> {
+              if (peek() != JsonToken.BEGIN_OBJECT) {
+                skipValue()
+                continue
+              }
+
+              jsonObject {
+                while (hasNext()) {
+                  when (nextName()) {
+                    "bump_limit" -> bumpLimitCount = nextIntOrNull()
+                    else -> skipValue()
+                  }
+                }
+              }
+            }
+            "threads" -> {
+              if (peek() != JsonToken.BEGIN_ARRAY) {
+                skipValue()
+                continue
+              }
+
+              beginArray()
+
+              while (hasNext()) {
+                if (peek() != JsonToken.BEGIN_OBJECT) {
+                  skipValue()
+                  continue
+                }
+
+                jsonObject {
+                  while (hasNext()) {
+                    when (nextName()) {
+                      "posts" -> {
+                        if (peek() != JsonToken.BEGIN_ARRAY) {
+                          skipValue()
+                          continue
+                        }
+
+                        postsFound = true
+                        beginArray()
+
+                        while (hasNext()) {
+                          val postInfo = readBookmarkPostInfo(this)
+                          if (postInfo != null) {
+                            posts += postInfo
+                          }
+                        }
+
+                        endArray()
+                      }
+                      else -> skipValue()
+                    }
+                  }
+                }
+              }
+
+              endArray()
+            }
+            else -> skipValue()
+          }
+        }
+      }
+
+      if (!postsFound) {
+        return null
+      }
+
+      val bumpLimit = bumpLimitCount
+
+      return posts.map { post ->
+        if (post.isOp) {
+          val sticky = post.sticky > 0
+          val rollingSticky = post.endless == 1L
+          val closed = post.closed == 1L
+          var isBumpLimit = bumpLimit != null && posts.size > bumpLimit
+
+          val stickyPost = if (sticky && rollingSticky && bumpLimit != null) {
+            StickyThread.StickyWithCap
+          } else if (sticky) {
+            StickyThread.StickyUnlimited
+          } else {
+            StickyThread.NotSticky
+          }
+
+          if (stickyPost !is StickyThread.NotSticky) {
+            isBumpLimit = false
+          }
+
+          return@map ThreadBookmarkInfoPostObject.OriginalPost(
+            post.num,
+            closed,
+            false,
+            isBumpLimit,
+            false,
+            stickyPost,
+            post.comment
+          )
+        }
+
+        return@map ThreadBookmarkInfoPostObject.RegularPost(post.num, post.comment)
+      }
+    }
+
+    private fun readBookmarkPostInfo(reader: JsonReader): BookmarkPostInfo? {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue()
+        return null
+      }
+
+      val postInfo = BookmarkPostInfo()
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "num" -> postInfo.num = nextLongOrNull() ?: 0L
+            "parent" -> postInfo.parent = nextLongOrNull() ?: 0L
+            "closed" -> postInfo.closed = nextLongOrNull() ?: 0L
+            "comment" -> postInfo.comment = nextStringOrNull() ?: ""
+            "sticky" -> postInfo.sticky = nextLongOrNull() ?: 0L
+            "endless" -> postInfo.endless = nextLongOrNull() ?: 0L
+            else -> skipValue()
+          }
+        }
+      }
+
+      return postInfo
+    }
+
+    /**
+     * {"threads": [{"num": 1, "parent": 0, "comment": "", "subject": "", "files": [...]}]}
+     * */
+    fun readFilterWatchCatalogThreads(
+      reader: JsonReader,
+      boardDescriptor: BoardDescriptor,
+      endpoints: SiteEndpoints
+    ): List<FilterWatchCatalogThreadInfoObject>? {
+      var threadObjects: MutableList<FilterWatchCatalogThreadInfoObject>? = null
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "threads" -> {
+              val threads = mutableListWithCap<FilterWatchCatalogThreadInfoObject>(128)
+              beginArray()
+
+              while (hasNext()) {
+                val threadObject = readFilterWatchCatalogThread(this, boardDescriptor, endpoints)
+                if (threadObject != null) {
+                  threads += threadObject
+                }
+              }
+
+              endArray()
+              threadObjects = threads
+            }
+            else -> skipValue()
+          }
+        }
+      }
+
+      return threadObjects
+    }
+
+    private fun readFilterWatchCatalogThread(
+      reader: JsonReader,
+      boardDescriptor: BoardDescriptor,
+      endpoints: SiteEndpoints
+    ): FilterWatchCatalogThreadInfoObject? {
+      var num = 0L
+      var parent = 0L
+      var comment = ""
+      var subject = ""
+      var firstFilePath: String? = null
+      var firstFileThumbnail: String? = null
+      var hasFiles = false
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "num" -> num = nextLongOrNull() ?: 0L
+            "parent" -> parent = nextLongOrNull() ?: 0L
+            "comment" -> comment = nextStringOrNull() ?: ""
+            "subject" -> subject = nextStringOrNull() ?: ""
+            "files" -> {
+              if (peek() != JsonToken.BEGIN_ARRAY) {
+                skipValue()
+                continue
+              }
+
+              beginArray()
+
+              while (hasNext()) {
+                if (hasFiles) {
+                  skipValue()
+                  continue
+                }
+
+                hasFiles = true
+
+                jsonObject {
+                  while (hasNext()) {
+                    when (nextName()) {
+                      "path" -> firstFilePath = nextStringOrNull()
+                      "thumbnail" -> firstFileThumbnail = nextStringOrNull()
+                      else -> skipValue()
+                    }
+                  }
+                }
+              }
+
+              endArray()
+            }
+            else -> skipValue()
+          }
+        }
+      }
+
+      if (parent != 0L || num <= 0L) {
+        return null
+      }
+
+      val fullThumbnailUrl = if (hasFiles && !isSticker(firstFilePath)) {
+        val args = SiteEndpoints.makeArgument("path", firstFilePath, "thumbnail", firstFileThumbnail)
+        endpoints.thumbnailUrl(boardDescriptor, false, 0, args)
+      } else {
+        null
+      }
+
+      return FilterWatchCatalogThreadInfoObject(
+        threadDescriptor = ChanDescriptor.ThreadDescriptor.create(boardDescriptor, num),
+        commentRaw = comment,
+        subjectRaw = subject,
+        thumbnailUrl = fullThumbnailUrl
+      )
+    }
+
+  }
+
+  private class BookmarkPostInfo {
+    var num: Long = 0L
+    var parent: Long = 0L
+    var closed: Long = 0L
+    var comment: String = ""
+    var sticky: Long = 0L
+    var endless: Long = 0L
+
+    val isOp: Boolean
+      get() = parent == 0L
+  }
+
+}
@@ -0,0 +1,544 @@
+package com.github.k1rakishou.chan.core.site.sites.lynxchan.engine
+
+import android.webkit.MimeTypeMap
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.parser.processor.AbstractChanReaderProcessor
+import com.github.k1rakishou.common.groupOrNull
+import com.github.k1rakishou.common.isNotNullNorEmpty
+import com.github.k1rakishou.common.jsonObject
+import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.common.nextBooleanOrNull
+import com.github.k1rakishou.common.nextIntOrNull
+import com.github.k1rakishou.common.nextLongOrNull
+import com.github.k1rakishou.common.nextStringOrNull
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.bookmark.StickyThread
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.filter.FilterWatchCatalogThreadInfoObject
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageBuilder
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import org.joda.time.format.ISODateTimeFormat
+import org.jsoup.parser.Parser
+import java.util.regex.Pattern
+
+/**
+ * Reads Lynxchan thread/catalog json responses with a streaming [JsonReader] straight into
+ * [ChanPostBuilder]s without materializing the whole response as a tree of DTOs first.
+ *
+ * Catalog threads are passed into the [AbstractChanReaderProcessor] as soon as they are read. Thread
+ * replies are nested inside of the original post object (and the original post fields may come
+ * after the replies) so they are passed into the processor right after the original post is read.
+ * */
+@Suppress("BlockingMethodInNonBlockingContext")
+class LynxchanPostJsonReader(
+  private val board: ChanBoard,
+  private val endpoints: SiteEndpoints
+) {
+  private val boardDescriptor: BoardDescriptor
+    get() = board.boardDescriptor
+
+  suspend fun readThread(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor
+  ): Boolean {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue()
+      return false
+    }
+
+    val replies = mutableListWithCap<PendingPost>(64)
+    val originalPost = readPost(reader, isReadingCatalog = false, replies = replies)
+    val originalPostId = originalPost.builder.id
+
+    val postBuilders = mutableListWithCap<ChanPostBuilder>(replies.size + 1)
+
+    originalPost.finish(originalPostId)
+    if (originalPost.builder.op) {
+      chanReaderProcessor.setOp(originalPost.builder)
+    }
+
+    postBuilders += originalPost.builder
+
+    replies.forEach { reply ->
+      reply.finish(originalPostId)
+      postBuilders += reply.builder
+    }
+
+    chanReaderProcessor.addManyPosts(postBuilders)
+    return true
+  }
+
+  suspend fun readCatalogPage(
+    reader: JsonReader,
+    chanReaderProcessor: AbstractChanReaderProcessor
+  ): CatalogPageInfo {
+    val catalogPageInfo = CatalogPageInfo()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "pageCount" -> catalogPageInfo.pageCount = nextIntOrNull() ?: 0
+          "maxMessageLength" -> catalogPageInfo.maxMessageLength = nextIntOrNull() ?: 0
+          "captchaMode" -> catalogPageInfo.captchaMode = nextIntOrNull() ?: 0
+          "maxFileCount" -> catalogPageInfo.maxFileCount = nextIntOrNull() ?: 0
+          "maxFileSize" -> catalogPageInfo.maxFileSize = nextStringOrNull() ?: ""
+          "threads" -> {
+            if (peek() != JsonToken.BEGIN_ARRAY) {
+              skipValue()
+              continue
+            }
+
+            catalogPageInfo.threadsFound = true
+            beginArray()
+
+            while (hasNext()) {
+              val catalogThread = readPost(this, isReadingCatalog = true, replies = null)
+              val threadId = catalogThread.builder.id
+
+              catalogThread.finish(threadId)
+              chanReaderProcessor.setOp(catalogThread.builder)
+              chanReaderProcessor.addPost(catalogThread.builder)
+
+              ++catalogPageInfo.threadsCount
+            }
+
+            endArray()
+          }
+          else -> skipValue()
+        }
+      }
+    }
+
+    return catalogPageInfo
+  }
+
+  /**
+   * When [replies] is not null nested posts are read into it, otherwise they are only counted (for
+   * catalog threads).
+   * */
+  private fun readPost(
+    reader: JsonReader,
+    isReadingCatalog: Boolean,
+    replies: MutableList<PendingPost>?
+  ): PendingPost {
+    var threadId: Long? = null
+    var postId: Long? = null
+    var posterId: String? = null
+    var signedRole: String? = null
+    var name = ""
+    var subject: String? = null
+    var markdown: String? = null
+    var locked: Boolean? = null
+    var pinned: Boolean? = null
+    var cyclic: Boolean? = null
+    var omittedFiles: Int? = null
+    var creation: String? = null
+    var flag: String? = null
+    var flagCode: String? = null
+    var flagName: String? = null
+    var omittedPosts: Int? = null
+    var visiblePostsCount = 0
+    var postImages: List<ChanPostImage> = emptyList()
+
+    reader.jsonObject {
+      while (hasNext()) {
+        when (nextName()) {
+          "threadId" -> threadId = nextLongOrNull()
+          "postId" -> postId = nextLongOrNull()
+          "id" -> posterId = nextStringOrNull()
+          "signedRole" -> signedRole = nextStringOrNull()
+          "name" -> name = nextStringOrNull() ?: ""
+          "subject" -> subject = nextStringOrNull()
+          "markdown" -> markdown = nextStringOrNull()
+          "locked" -> locked = nextBooleanOrNull()
+          "pinned" -> pinned = nextBooleanOrNull()
+          "cyclic" -> cyclic = nextBooleanOrNull()
+          "omittedFiles" -> omittedFiles = nextIntOrNull()
+          "creation" -> creation = nextStringOrNull()
+          "flag" -> flag = nextStringOrNull()
+          "flagCode" -> flagCode = nextStringOrNull()
+          "flagName" -> flagName = nextStringOrNull()
+          // Before Lynxchan 2.7.0
+          "ommitedPosts" -> {
+            // Always consume the value, even when "omittedPosts" has already been read
+            val oldOmittedPosts = nextIntOrNull()
+            omittedPosts = omittedPosts ?: oldOmittedPosts
+          }
+          // After Lynxchan 2.7.0
+          "omittedPosts" -> omittedPosts = nextIntOrNull() ?: omittedPosts
+          "files" -> postImages = readPostImages(this)
+          "posts" -> {
+            if (peek() != JsonToken.BEGIN_ARRAY) {
+              skipValue()
+              continue
+            }
+
+            beginArray()
+
+            while (hasNext()) {
+              if (replies != null) {
+                replies += readPost(this, isReadingCatalog, null)
+              } else {
+                skipValue()
+              }
+
+              ++visiblePostsCount
+            }
+
+            endArray()
+          }
+          else -> skipValue()
+        }
+      }
+    }
+
+    val builder = ChanPostBuilder()
+    builder.boardDescriptor(boardDescriptor)
+
+    val isOp = threadId != null
+    builder.op(isOp)
+
+    val creationTime = creation
+    val creationMillis = if (creationTime != null) {
+      LYNXCHAN_DATE_PARSER.parseMillis(creationTime)
+    } else {
+      0L
+    }
+
+    builder.lastModified(creationMillis)
+    builder.id(threadId ?: postId ?: error("Post has neither threadId nor postId"))
+
+    if (isOp) {
+      pinned?.let { builder.sticky(it) }
+      locked?.let { builder.closed(it) }
+      cyclic?.let { builder.endless(it) }
+
+      if (isReadingCatalog) {
+        builder.replies(visiblePostsCount + (omittedPosts ?: 0))
+      }
+
+      val threadImagesCount = omittedFiles
+      if (threadImagesCount != null && threadImagesCount > 0) {
+        builder.threadImagesCount(threadImagesCount)
+      }
+    }
+
+    signedRole?.let { builder.moderatorCapcode(it) }
+
+    builder.name(name)
+    builder.subject(subject)
+    builder.comment(markdown)
+    builder.posterId(posterId)
+
+    val postFlag = flag
+    val postFlagCode = flagCode
+    val postFlagName = flagName
+
+    if (postFlag.isNotNullNorEmpty() && postFlagCode.isNotNullNorEmpty() && postFlagName.isNotNullNorEmpty()) {
+      val countryUrl = endpoints.icon(
+        LynxchanEndpoints.COUNTRY_FLAG_ICON_KEY,
+        SiteEndpoints.makeArgument(LynxchanEndpoints.COUNTRY_FLAG_PATH_KEY, postFlag.removePrefix("/"))
+      )
+
+      builder.addHttpIcon(ChanPostHttpIcon(countryUrl, "$postFlagName/${postFlagCode.removePrefix("-")}"))
+    }
+
+    builder.setUnixTimestampSeconds(creationMillis / 1000L)
+
+    return PendingPost(builder, postImages)
+  }
+
+  private fun readPostImages(reader: JsonReader): List<ChanPostImage> {
+    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+      reader.skipValue()
+      return emptyList()
+    }
+
+    val postImages = mutableListWithCap<ChanPostImage>(4)
+    reader.beginArray()
+
+    while (reader.hasNext()) {
+      var originalName: String? = null
+      var path: String? = null
+      var thumb: String? = null
+      var mime: String? = null
+      var size = 0L
+      var width = 0
+      var height = 0
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "originalName" -> originalName = nextStringOrNull()
+            "path" -> path = nextStringOrNull()
+            "thumb" -> thumb = nextStringOrNull()
+            "mime" -> mime = nextStringOrNull()
+            "size" -> size = nextLongOrNull() ?: 0L
+            "width" -> width = nextIntOrNull() ?: 0
+            "height" -> height = nextIntOrNull() ?: 0
+            else -> skipValue()
+          }
+        }
+      }
+
+      val postImage = createPostImage(
+        originalName = originalName ?: "",
+        path = path ?: continue,
+        thumb = thumb ?: "",
+        mime = mime ?: "",
+        size = size,
+        width = width,
+        height = height
+      )
+
+      if (postImage != null) {
+        postImages += postImage
+      }
+    }
+
+    reader.endArray()
+    return postImages
+  }
+
+  internal fun createPostImage(
+    originalName: String,
+    path: String,
+    thumb: String,
+    mime: String,
+    size: Long,
+    width: Int,
+    height: Int
+  ): ChanPostImage? {
+    val matcher = POST_IMAGE_HASH_PATTERN.matcher(path)
+    if (!matcher.find()) {
+      Logger.e(TAG, "createPostImage() failed to extract hash out of path (1): \'$path\'")
+      return null
+    }
+
+    val fileHash = matcher.groupOrNull(1)
+    if (fileHash.isNullOrEmpty()) {
+      Logger.e(TAG, "createPostImage() failed to extract hash out of path (2): \'$path\'")
+      return null
+    }
+
+    var extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mime)
+    if (extension.isNullOrEmpty()) {
+      extension = MimeTypeMap.getFileExtensionFromUrl(path)
+    }
+
+    if (extension.isNullOrEmpty()) {
+      Logger.e(TAG, "createPostImage() failed to extract file extension: \'$path\'")
+      return null
+    }
+
+    val args = SiteEndpoints.makeArgument(
+      LynxchanEndpoints.PATH_ARGUMENT_KEY, path.removePrefix("/"),
+      LynxchanEndpoints.THUMB_ARGUMENT_KEY, thumb.removePrefix("/")
+    )
+
+    var originalNameUnescaped = Parser.unescapeEntities(originalName, false)
+    if (originalNameUnescaped.endsWith(".$extension")) {
+      originalNameUnescaped = originalNameUnescaped.removeSuffix(".$extension")
+    }
+
+    return ChanPostImageBuilder()
+      .serverFilename(fileHash)
+      .thumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, false, board.customSpoilers, args))
+      .imageUrl(endpoints.imageUrl(boardDescriptor, args))
+      .filename(originalNameUnescaped)
+      .extension(extension)
+      .imageWidth(width)
+      .imageHeight(height)
+      .imageSize(size)
+      .fileHash(fileHash, false)
+      .build()
+  }
+
+  /**
+   * Post images can only be attached to a builder once it has a post descriptor and replies get
+   * their original post id only after the whole thread object is read.
+   * */
+  private class PendingPost(
+    val builder: ChanPostBuilder,
+    private val postImages: List<ChanPostImage>
+  ) {
+
+    fun finish(originalPostId: Long) {
+      builder.opId(originalPostId)
+      builder.postImages(postImages, builder.postDescriptor)
+    }
+
+  }
+
+  class CatalogPageInfo {
+    var pageCount: Int = 0
+    var maxMessageLength: Int = 0
+    var captchaMode: Int = 0
+    var maxFileCount: Int = 0
+    var maxFileSize: String = ""
+    var threadsFound: Boolean = false
+    var threadsCount: Int = 0
+  }
+
+  companion object {
+    private const val TAG = "LynxchanPostJsonReader"
+
+    // 2021-11-11T13:28:46.312Z
+    private val LYNXCHAN_DATE_PARSER = ISODateTimeFormat.dateTimeParser()
+
+    private val POST_IMAGE_HASH_PATTERN = Pattern.compile("\\W([0-9a-fA-F]+)\\W")
+
+    fun readThreadBookmarkInfoPosts(
+      reader: JsonReader,
+      expectedCapacity: Int
+    ): List<ThreadBookmarkInfoPostObject> {
+      val replies = mutableListWithCap<ThreadBookmarkInfoPostObject>(expectedCapacity)
+      var originalPost: ThreadBookmarkInfoPostObject? = null
+
+      reader.jsonObject {
+        var threadId: Long? = null
+        var message = ""
+        var locked = false
+        var pinned = false
+        var cyclic = false
+        var autoSage = false
+
+        while (hasNext()) {
+          when (nextName()) {
+            "threadId" -> threadId = nextLongOrNull()
+            "message" -> message = nextStringOrNull() ?: ""
+            "locked" -> locked = nextBooleanOrNull() ?: false
+            "pinned" -> pinned = nextBooleanOrNull() ?: false
+            "cyclic" -> cyclic = nextBooleanOrNull() ?: false
+            "autoSage" -> autoSage = nextBooleanOrNull() ?: false
+            "posts" -> {
+              if (peek() != JsonToken.BEGIN_ARRAY) {
+                skipValue()
+                continue
+              }
+
+              beginArray()
+
+              while (hasNext()) {
+                val reply = readBookmarkReply(this)
+                if (reply != null) {
+                  replies += reply
+                }
+              }
+
+              endArray()
+            }
+            else -> skipValue()
+          }
+        }
+
+        val originalPostNo = threadId
+          ?: throw IllegalStateException("Thread has no threadId")
+
+        val stickyPost = if (pinned && cyclic) {
+          StickyThread.StickyWithCap
+        } else if (pinned) {
+          StickyThread.StickyUnlimited
+        } else {
+          StickyThread.NotSticky
+        }
+
+        originalPost = ThreadBookmarkInfoPostObject.OriginalPost(
+          postNo = originalPostNo,
+          closed = locked,
+          archived = false,
+          isBumpLimit = autoSage && stickyPost is StickyThread.NotSticky,
+          isImageLimit = false,
+          stickyThread = stickyPost,
+          comment = message
+        )
+      }
+
+      val postObjects = mutableListWithCap<ThreadBookmarkInfoPostObject>(replies.size + 1)
+      postObjects += originalPost!!
+      postObjects.addAll(replies)
+
+      return postObjects
+    }
+
+    private fun readBookmarkReply(reader: JsonReader): ThreadBookmarkInfoPostObject? {
+      var postId: Long? = null
+      var message = ""
+
+      reader.jsonObject {
+        while (hasNext()) {
+          when (nextName()) {
+            "postId" -> postId = nextLongOrNull()
+            "message" -> message = nextStringOrNull() ?: ""
+            else -> skipValue()
+          }
+        }
+      }
+
+      val postNo = postId
+        ?: return null
+
+      return ThreadBookmarkInfoPostObject.RegularPost(postNo, message)
+    }
+
+    /**
+     * [{"threadId": 1, "message": "", "subject": "", "thumb": ""}, ...]
+     * */
+    fun readFilterWatchCatalogThreads(
+      reader: JsonReader,
+      boardDescriptor: BoardDescriptor,
+      endpoints: SiteEndpoints
+    ): List<FilterWatchCatalogThreadInfoObject> {
+      val threadObjects = mutableListWithCap<FilterWatchCatalogThreadInfoObject>(128)
+      reader.beginArray()
+
+      while (reader.hasNext()) {
+        var threadId: Long? = null
+        var message = ""
+        var subject = ""
+        var thumb: String? = null
+
+        reader.jsonObject {
+          while (hasNext()) {
+            when (nextName()) {
+              "threadId" -> threadId = nextLongOrNull()
+              "message" -> message = nextStringOrNull() ?: ""
+              "subject" -> subject = nextStringOrNull() ?: ""
+              "thumb" -> thumb = nextStringOrNull()
+              else -> skipValue()
+            }
+          }
+        }
+
+        val threadNo = threadId
+          ?: continue
+
+        val fullThumbnailUrl = thumb?.let { thumbPath ->
+          val args = SiteEndpoints.makeArgument(
+            LynxchanEndpoints.THUMB_ARGUMENT_KEY, thumbPath.removePrefix("/")
+          )
+
+          return@let endpoints.thumbnailUrl(boardDescriptor, false, 0, args)
+        }
+
+        threadObjects += FilterWatchCatalogThreadInfoObject(
+          threadDescriptor = ChanDescriptor.ThreadDescriptor.create(boardDescriptor, threadNo),
+          commentRaw = message,
+          subjectRaw = subject,
+          thumbnailUrl = fullThumbnailUrl
+        )
+      }
+
+      reader.endArray()
+      return threadObjects
+    }
+  }
+
+}
@@ -91,7 +91,7 @@ abstract class LynxchanSite : CommonSite() {
     setEndpointsLazy(endpoints)
     setActions(LynxchanActions(replyManager, moshi, httpCallManager, _lynxchanGetBoardsUseCase, this))
     setRequestModifier(LynxchanRequestModifier(this, appConstants) as SiteRequestModifier<Site>)
-    setApi(LynxchanApi(_moshi, _siteManager, _boardManager, this))
+    setApi(LynxchanApi(_siteManager, _boardManager, this))
     setParser(LynxchanCommentParser())
 
     setPostingLimitationInfo(
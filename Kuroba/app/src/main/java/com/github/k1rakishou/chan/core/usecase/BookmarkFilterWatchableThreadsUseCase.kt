@@ -59,6 +59,7 @@ class BookmarkFilterWatchableThreadsUseCase(
   private val chanPostRepository: ChanPostRepository,
   private val chanFilterWatchRepository: ChanFilterWatchRepository
 ) : ISuspendUseCase<Unit, ModularResult<Map<String, MutableList<ChanDescriptor.ThreadDescriptor>>>> {
+  private val filterWatcherEvaluationCache = FilterWatcherEvaluationCache()
 
   /**
    * Returns true is we successfully fetched catalog threads, matched at least one filter with at
@@ -105,24 +106,49 @@ class BookmarkFilterWatchableThreadsUseCase(
       return emptyMap()
     }
 
+    val evaluationRun = filterWatcherEvaluationCache.beginRun(
+      enabledWatchFilters = enabledWatchFilters,
+      catalogs = filterWatchCatalogInfoObjects
+    )
+
     val matchedCatalogThreads = filterOutThreadsThatDoNotMatchWatchFilters(
       filterWatchCatalogInfoObjects
     ) { catalogThread ->
       val rawComment = catalogThread.comment()
       val subject = catalogThread.subject
+      val threadNo = catalogThread.threadDescriptor.threadNo
       val catalogBoardDescriptor = catalogThread.threadDescriptor.boardDescriptor
+      val boardEvaluation = evaluationRun.boardEvaluation(catalogBoardDescriptor)
+      val opContentHash = FilterWatcherEvaluationCache.opContentHash(subject, rawComment)
+
+      val prevRecord = boardEvaluation.prevRecordOrNull(threadNo, opContentHash)
+      if (prevRecord != null) {
+        // Already evaluated with the same watch filters and the OP hasn't changed since then
+        val prevMatchedFilter = prevRecord.matchedFilter
+          ?: return@filterOutThreadsThatDoNotMatchWatchFilters false
+
+        // The comment is still needed (parsed) for the bookmark
+        val parsedComment = simpleCommentParser.get().parseComment(rawComment) ?: ""
+        catalogThread.replaceRawCommentWithParsed(parsedComment.toString())
+        catalogThread.setMatchedFilter(prevMatchedFilter)
+
+        return@filterOutThreadsThatDoNotMatchWatchFilters true
+      }
+
       val parsedComment = simpleCommentParser.get().parseComment(rawComment) ?: ""
 
       // Update the old unparsed comment with the parsed one
       catalogThread.replaceRawCommentWithParsed(parsedComment.toString())
 
       val matchedFilter = tryMatchWatchFiltersWithThreadInfo(
-        enabledWatchFilters = enabledWatchFilters,
+        enabledWatchFilters = boardEvaluation.watchFilters,
         catalogBoardDescriptor = catalogBoardDescriptor,
         parsedComment = parsedComment,
         subject = subject
       )
 
+      boardEvaluation.onEvaluated(threadNo, opContentHash, matchedFilter)
+
       if (matchedFilter != null) {
         // Set the matched filter which we will use for grouping
         catalogThread.setMatchedFilter(matchedFilter)
@@ -131,6 +157,12 @@ class BookmarkFilterWatchableThreadsUseCase(
       return@filterOutThreadsThatDoNotMatchWatchFilters matchedFilter != null
     }
 
+    val runStats = evaluationRun.commit()
+
+    Logger.d(TAG, "doWorkInternal() boards=${runStats.boards}, " +
+      "invalidatedBoards=${runStats.invalidatedBoards}, threadsEvaluated=${runStats.evaluated}, " +
+      "threadsSkipped=${runStats.skipped}, threadsMatched=${runStats.matched}")
+
     if (matchedCatalogThreads.isEmpty()) {
       Logger.d(TAG, "doWorkInternal() Nothing has left after filtering out non-matching catalog threads")
       return emptyMap()
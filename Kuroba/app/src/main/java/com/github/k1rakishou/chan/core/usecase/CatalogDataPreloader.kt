@@ -35,6 +35,8 @@ class CatalogDataPreloader(
 
         jobs += async(Dispatchers.IO) { postHideManager.preloadForCatalog(catalogDescriptor) }
         jobs += async(Dispatchers.IO) {
+          boardManager.awaitUntilSiteBoardsLoaded(catalogDescriptor.siteDescriptor())
+
           val isUnlimitedCatalog = boardManager.byBoardDescriptor(catalogDescriptor.boardDescriptor)
             ?.isUnlimitedCatalog
             ?: false
@@ -1,26 +1,32 @@
 package com.github.k1rakishou.chan.core.usecase
 
 import android.content.Context
+import android.net.Uri
 import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.usecase.backup.BackupArchiver
+import com.github.k1rakishou.chan.core.usecase.backup.BackupEntry
+import com.github.k1rakishou.chan.core.usecase.backup.BackupExportReport
+import com.github.k1rakishou.chan.core.usecase.backup.BackupManifest
+import com.github.k1rakishou.chan.core.usecase.backup.BackupSection
 import com.github.k1rakishou.chan.features.settings.screens.delegate.ExportBackupOptions
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.AndroidUtils
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeParser
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.ExternalFile
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.repository.DatabaseMetaRepository
+import com.github.k1rakishou.model.util.ChanPostUtils
 import okhttp3.internal.closeQuietly
-import java.io.BufferedInputStream
 import java.io.File
-import java.io.FileInputStream
 import java.io.IOException
-import java.util.zip.ZipEntry
-import java.util.zip.ZipOutputStream
+import java.util.*
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 
@@ -29,9 +35,9 @@ class ExportBackupFileUseCase(
   private val appConstants: AppConstants,
   private val databaseMetaRepository: DatabaseMetaRepository,
   private val fileManager: FileManager
-) : ISuspendUseCase<ExportBackupFileUseCase.Params, ModularResult<Unit>> {
+) : ISuspendUseCase<ExportBackupFileUseCase.Params, ModularResult<BackupExportReport>> {
 
-  override suspend fun execute(parameter: Params): ModularResult<Unit> {
+  override suspend fun execute(parameter: Params): ModularResult<BackupExportReport> {
     BackgroundUtils.ensureBackgroundThread()
 
     val outputFile = parameter.externalFile
@@ -40,60 +46,119 @@ class ExportBackupFileUseCase(
     return ModularResult.Try { doExportInternal(outputFile, exportBackupOptions) }
   }
 
-  @OptIn(ExperimentalTime::class)
-  private suspend fun doExportInternal(outputFile: ExternalFile, exportBackupOptions: ExportBackupOptions) {
+  private suspend fun doExportInternal(
+    outputFile: ExternalFile,
+    exportBackupOptions: ExportBackupOptions
+  ): BackupExportReport {
     Logger.d(TAG, "Export start")
 
-    val databases = appContext.databaseList()
-    val filesToExport = mutableListOf<File>()
+    val snapshotDir = File(appContext.cacheDir, DATABASE_SNAPSHOT_DIR_NAME)
+    val manifestFile = BackupManifest.manifestFileFor(
+      manifestsDir = File(appContext.filesDir, BACKUP_MANIFESTS_DIR_NAME),
+      destination = backupDestination(outputFile)
+    )
 
-    val lightThemeFile = File(appContext.filesDir, ThemeParser.LIGHT_THEME_FILE_NAME)
-    if (lightThemeFile.exists() && lightThemeFile.length() > 0) {
-      filesToExport += lightThemeFile
-    }
+    try {
+      val backupEntries = mutableListWithCap<BackupEntry>(64)
+      backupEntries += collectThemeEntries()
+      backupEntries += collectDatabaseEntries(snapshotDir)
+      backupEntries += collectSharedPrefsEntries()
+
+      val prevManifest = if (exportBackupOptions.exportOnlyChangedDownloadedThreadsMedia) {
+        BackupManifest.readOrEmpty(manifestFile)
+      } else {
+        BackupManifest.EMPTY
+      }
 
-    val darkThemeFile = File(appContext.filesDir, ThemeParser.DARK_THEME_FILE_NAME)
-    if (darkThemeFile.exists() && darkThemeFile.length() > 0) {
-      filesToExport += darkThemeFile
-    }
+      val threadDownloadsMedia = if (exportBackupOptions.exportDownloadedThreadsMedia) {
+        collectThreadDownloadsMediaEntries(prevManifest)
+      } else {
+        null
+      }
 
-    filesToExport += databases.mapNotNull { databaseName ->
-      if (!databaseName.contains(KurobaDatabase.DATABASE_NAME, ignoreCase = true)) {
-        return@mapNotNull null
+      if (threadDownloadsMedia != null) {
+        backupEntries += threadDownloadsMedia.toExport
       }
 
-      return@mapNotNull appContext.getDatabasePath(databaseName)
-    }
+      backupEntries.forEach { backupEntry ->
+        Logger.d(TAG, "File to export: '${backupEntry.file.absolutePath}' as '${backupEntry.name}'")
+      }
 
-    val sharedFilesDir = File(appContext.applicationInfo.dataDir, ChanSettings.SHARED_PREFS_DIR_NAME)
-    val mainSharedPrefsFileName = ChanSettings.chanSettingsInfo.applicationId + "_preferences.xml"
-    val chanStatePrefsFileName = AndroidUtils.CHAN_STATE_PREFS_NAME + ".xml"
+      val outputStream = fileManager.getOutputStream(outputFile)
+        ?: throw IOException("Failed to open output stream for file '${outputFile.getFullPath()}'")
 
-    sharedFilesDir.listFiles()?.forEach { file ->
-      val fileName = file.name
+      Logger.d(TAG, "Output zip file='${outputFile.getFullPath()}'")
 
-      if (fileName == mainSharedPrefsFileName) {
-        filesToExport += file
-        return@forEach
+      val report = try {
+        BackupArchiver().write(backupEntries, outputStream)
+          .copy(incremental = prevManifest.size > 0)
+      } catch (error: Throwable) {
+        Logger.e(TAG, "Export error", error)
+        throw error
+      } finally {
+        outputStream.closeQuietly()
       }
 
-      if (fileName.startsWith(AppModuleAndroidUtils.SITE_PREFS_FILE_PREFIX) && fileName.endsWith(".xml")) {
-        filesToExport += file
-        return@forEach
+      if (threadDownloadsMedia != null) {
+        prevManifest
+          .update(threadDownloadsMedia.toExport, threadDownloadsMedia.existingEntryNames)
+          .writeTo(manifestFile)
       }
 
-      if (fileName == chanStatePrefsFileName) {
-        filesToExport += file
-        return@forEach
-      }
+      Logger.d(TAG, "Export success! Report:\n${report.formatReport()}")
+      return report
+    } finally {
+      snapshotDir.deleteRecursively()
     }
+  }
+
+  private fun collectThemeEntries(): List<BackupEntry> {
+    val themeEntries = mutableListOf<BackupEntry>()
 
-    if (exportBackupOptions.exportDownloadedThreadsMedia) {
-      filesToExport += appConstants.threadDownloaderCacheDir
+    val lightThemeFile = File(appContext.filesDir, ThemeParser.LIGHT_THEME_FILE_NAME)
+    if (lightThemeFile.exists() && lightThemeFile.length() > 0) {
+      themeEntries += BackupEntry(lightThemeFile.name, lightThemeFile, BackupSection.Themes, compress = true)
     }
 
-    filesToExport.forEach { fileToExport ->
-      Logger.d(TAG, "File to export: '${fileToExport.absolutePath}'")
+    val darkThemeFile = File(appContext.filesDir, ThemeParser.DARK_THEME_FILE_NAME)
+    if (darkThemeFile.exists() && darkThemeFile.length() > 0) {
+      themeEntries += BackupEntry(darkThemeFile.name, darkThemeFile, BackupSection.Themes, compress = true)
+    }
+
+    return themeEntries
+  }
+
+  /**
+   * Tries to create a consistent snapshot of the database without blocking the writers first (the
+   * snapshot is a single file so there are no WAL/SHM files to export). Falls back to the old way
+   * (checkpoint + copying the raw database files) when the SQLite version is too old.
+   * */
+  @OptIn(ExperimentalTime::class)
+  private suspend fun collectDatabaseEntries(snapshotDir: File): List<BackupEntry> {
+    snapshotDir.deleteRecursively()
+
+    if (snapshotDir.mkdirs()) {
+      val snapshotFile = File(snapshotDir, KurobaDatabase.DATABASE_NAME)
+
+      Logger.d(TAG, "Creating database snapshot...")
+
+      var snapshotResult: ModularResult<Unit>
+      val time = measureTime { snapshotResult = databaseMetaRepository.vacuumInto(snapshotFile) }
+
+      when (val result = snapshotResult) {
+        is ModularResult.Value -> {
+          Logger.d(TAG, "Creating database snapshot... done! took ${time}, " +
+            "size=${ChanPostUtils.getReadableFileSize(snapshotFile.length())}")
+
+          return listOf(
+            BackupEntry(KurobaDatabase.DATABASE_NAME, snapshotFile, BackupSection.Database, compress = true)
+          )
+        }
+        is ModularResult.Error -> {
+          Logger.e(TAG, "Failed to create database snapshot, falling back to checkpoint, " +
+            "error=${result.error.errorMessageOrClassName()}")
+        }
+      }
     }
 
     Logger.d(TAG, "Executing checkpoint command...")
@@ -105,77 +170,91 @@ class ExportBackupFileUseCase(
 
     Logger.d(TAG, "Executing checkpoint command... done! took ${time}")
 
-    val outputStream = fileManager.getOutputStream(outputFile)
-      ?: throw IOException("Failed to open output stream for file '${outputFile.getFullPath()}'")
-    val zipOutputStream = ZipOutputStream(outputStream)
+    return appContext.databaseList().mapNotNull { databaseName ->
+      if (!databaseName.contains(KurobaDatabase.DATABASE_NAME, ignoreCase = true)) {
+        return@mapNotNull null
+      }
 
-    Logger.d(TAG, "Output zip file='${outputFile.getFullPath()}'")
+      val databaseFile = appContext.getDatabasePath(databaseName)
+      return@mapNotNull BackupEntry(databaseFile.name, databaseFile, BackupSection.Database, compress = true)
+    }
+  }
 
-    try {
-      zipFiles(null, filesToExport, zipOutputStream) { directory, fileToExport ->
-        val fileName = when {
-          fileToExport.name == mainSharedPrefsFileName -> MAIN_PREFS_FILE_NAME
-          fileToExport == appConstants.threadDownloaderCacheDir -> THREAD_DOWNLOADS_CACHE_DIR
-          else -> fileToExport.name
-        }
+  private fun collectSharedPrefsEntries(): List<BackupEntry> {
+    val sharedFilesDir = File(appContext.applicationInfo.dataDir, ChanSettings.SHARED_PREFS_DIR_NAME)
+    val mainSharedPrefsFileName = ChanSettings.chanSettingsInfo.applicationId + "_preferences.xml"
+    val chanStatePrefsFileName = AndroidUtils.CHAN_STATE_PREFS_NAME + ".xml"
 
-        if (directory == null) {
-          return@zipFiles fileName
-        }
+    val sharedPrefsEntries = mutableListOf<BackupEntry>()
+
+    sharedFilesDir.listFiles()?.forEach { file ->
+      val fileName = file.name
 
-        return@zipFiles directory + fileName
+      val entryName = when {
+        fileName == mainSharedPrefsFileName -> MAIN_PREFS_FILE_NAME
+        fileName.startsWith(AppModuleAndroidUtils.SITE_PREFS_FILE_PREFIX) && fileName.endsWith(".xml") -> fileName
+        fileName == chanStatePrefsFileName -> fileName
+        else -> return@forEach
       }
 
-      Logger.d(TAG, "Export success!")
-    } catch (error: Throwable) {
-      Logger.e(TAG, "Export error", error)
-      throw error
-    } finally {
-      outputStream.closeQuietly()
-      zipOutputStream.closeQuietly()
+      sharedPrefsEntries += BackupEntry(entryName, file, BackupSection.SharedPreferences, compress = true)
     }
+
+    return sharedPrefsEntries
   }
 
-  private fun zipFiles(
-    directory: String?,
-    filesToExport: List<File>,
-    zipOutputStream: ZipOutputStream,
-    selectFileName: (String?, File) -> String
-  ) {
-    for (fileToExport in filesToExport) {
-      if (fileToExport.isDirectory) {
-        val innerFiles = fileToExport.listFiles()?.toList() ?: emptyList()
-        val newDirectory = if (directory == null) {
-          selectFileName(null, fileToExport) + "/"
-        } else {
-          selectFileName(directory, fileToExport) + "/"
-        }
+  /**
+   * Backups are usually written into a new file every time (the default file name contains the
+   * date) so the destination is the directory the backup file is written into.
+   * */
+  private fun backupDestination(outputFile: ExternalFile): String {
+    val fullPath = Uri.decode(outputFile.getFullPath())
+    return fullPath.substringBeforeLast('/', fullPath)
+  }
 
-        zipFiles(newDirectory, innerFiles, zipOutputStream, selectFileName)
+  private fun collectThreadDownloadsMediaEntries(prevManifest: BackupManifest): ThreadDownloadsMedia {
+    val threadDownloaderCacheDir = appConstants.threadDownloaderCacheDir
+    if (!threadDownloaderCacheDir.exists()) {
+      return ThreadDownloadsMedia(emptyList(), emptySet())
+    }
 
-        continue
-      }
+    val mediaEntries = mutableListWithCap<BackupEntry>(128)
+    val existingEntryNames = mutableSetOf<String>()
+    var skipped = 0
 
-      val fileInputStream = FileInputStream(fileToExport)
-      val bufferedInputStream = BufferedInputStream(fileInputStream, BUFFER_SIZE)
+    threadDownloaderCacheDir.walkTopDown()
+      .filter { file -> file.isFile }
+      .forEach { file ->
+        val relativePath = file.relativeTo(threadDownloaderCacheDir).invariantSeparatorsPath
+        val entryName = "${THREAD_DOWNLOADS_CACHE_DIR}/${relativePath}"
+        existingEntryNames += entryName
 
-      try {
-        val zipEntryName = selectFileName(directory, fileToExport)
-        zipOutputStream.putNextEntry(ZipEntry(zipEntryName))
-        bufferedInputStream.copyTo(zipOutputStream, BUFFER_SIZE)
+        if (prevManifest.isUnchanged(entryName, file)) {
+          ++skipped
+          return@forEach
+        }
 
-        Logger.d(TAG, "Writing file (zipEntryName='${zipEntryName}') '${fileToExport.absolutePath}' success!")
-        zipOutputStream.closeEntry()
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Writing file '${fileToExport.absolutePath}' error", error)
-        throw error
-      } finally {
-        fileInputStream.closeQuietly()
-        bufferedInputStream.closeQuietly()
+        mediaEntries += BackupEntry(
+          name = entryName,
+          file = file,
+          section = BackupSection.ThreadDownloadsMedia,
+          compress = !isAlreadyCompressed(file)
+        )
       }
-    }
+
+    Logger.d(TAG, "collectThreadDownloadsMediaEntries() toExport=${mediaEntries.size}, unchanged=${skipped}")
+    return ThreadDownloadsMedia(mediaEntries, existingEntryNames)
+  }
+
+  private fun isAlreadyCompressed(file: File): Boolean {
+    return file.extension.lowercase(Locale.ENGLISH) in ALREADY_COMPRESSED_EXTENSIONS
   }
 
+  private class ThreadDownloadsMedia(
+    val toExport: List<BackupEntry>,
+    val existingEntryNames: Set<String>
+  )
+
   data class Params(
     val externalFile: ExternalFile,
     val exportBackupOptions: ExportBackupOptions
@@ -183,8 +262,18 @@ class ExportBackupFileUseCase(
 
   companion object {
     private const val TAG = "ExportBackupFileUseCase"
+    private const val DATABASE_SNAPSHOT_DIR_NAME = "backup_database_snapshot"
+    private const val BACKUP_MANIFESTS_DIR_NAME = "backup_media_manifests"
+
     const val MAIN_PREFS_FILE_NAME = "main_prefs.xml"
     const val THREAD_DOWNLOADS_CACHE_DIR = "thread_downloads_cache_dir"
     const val BUFFER_SIZE = 8192
+
+    private val ALREADY_COMPRESSED_EXTENSIONS = setOf(
+      "jpg", "jpeg", "png", "gif", "webp", "avif", "heic",
+      "webm", "mp4", "mkv", "mov", "m4v",
+      "mp3", "ogg", "opus", "m4a", "aac", "flac",
+      "zip", "gz", "7z", "rar", "xz", "bz2"
+    )
   }
-}
\ No newline at end of file
+}
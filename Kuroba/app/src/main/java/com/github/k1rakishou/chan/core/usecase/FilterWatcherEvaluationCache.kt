@@ -0,0 +1,172 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterWatchCatalogInfoObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Remembers, per board, which catalog threads were already matched against the watch filters, with
+ * which watch filters (only the ones that apply to the board) and what the OP subject/comment were
+ * at that time. This way the filter watcher only needs to run the filters for the new threads and
+ * for the threads whose OP was edited. All threads of a board are re-evaluated once the watch
+ * filters that apply to that board change.
+ *
+ * Records are only kept in memory so after the app process is restarted the first run evaluates
+ * everything again.
+ * */
+class FilterWatcherEvaluationCache {
+  private val boardRecords = ConcurrentHashMap<BoardDescriptor, BoardRecord>()
+
+  fun beginRun(
+    enabledWatchFilters: List<ChanFilter>,
+    catalogs: List<FilterWatchCatalogInfoObject>
+  ): Run {
+    val boardEvaluations = catalogs.associate { catalog ->
+      val boardDescriptor = catalog.boardDescriptor
+      val boardWatchFilters = enabledWatchFilters.filter { chanFilter -> chanFilter.matchesBoard(boardDescriptor) }
+      val prevBoardRecord = boardRecords[boardDescriptor]
+
+      // ChanFilter.equals() compares everything including the database id so any change to any of
+      // the filters (or the order of the filters) invalidates the whole board
+      val prevThreadRecords = if (prevBoardRecord != null && prevBoardRecord.watchFilters == boardWatchFilters) {
+        prevBoardRecord.threadRecords
+      } else {
+        emptyMap()
+      }
+
+      val boardEvaluation = BoardEvaluation(
+        boardDescriptor = boardDescriptor,
+        watchFilters = boardWatchFilters,
+        invalidated = prevBoardRecord != null && prevThreadRecords.isEmpty(),
+        prevThreadRecords = prevThreadRecords,
+        expectedThreadsCount = catalog.catalogThreads.size
+      )
+
+      return@associate boardDescriptor to boardEvaluation
+    }
+
+    return Run(boardEvaluations)
+  }
+
+  fun clear() {
+    boardRecords.clear()
+  }
+
+  inner class Run internal constructor(
+    private val boardEvaluations: Map<BoardDescriptor, BoardEvaluation>
+  ) {
+
+    fun boardEvaluation(boardDescriptor: BoardDescriptor): BoardEvaluation {
+      return requireNotNull(boardEvaluations[boardDescriptor]) { "No evaluation for board ${boardDescriptor}" }
+    }
+
+    /**
+     * Replaces the records of every board of this run with the threads that were seen during this
+     * run (threads that are gone from the catalog are forgotten). Boards that failed to load keep
+     * their old records.
+     * */
+    fun commit(): RunStats {
+      var evaluated = 0
+      var skipped = 0
+      var matched = 0
+      var invalidatedBoards = 0
+
+      boardEvaluations.values.forEach { boardEvaluation ->
+        boardRecords[boardEvaluation.boardDescriptor] = BoardRecord(
+          watchFilters = boardEvaluation.watchFilters,
+          threadRecords = boardEvaluation.newThreadRecords.toMap()
+        )
+
+        evaluated += boardEvaluation.evaluated.get()
+        skipped += boardEvaluation.skipped.get()
+        matched += boardEvaluation.matched.get()
+
+        if (boardEvaluation.invalidated) {
+          ++invalidatedBoards
+        }
+      }
+
+      return RunStats(
+        boards = boardEvaluations.size,
+        invalidatedBoards = invalidatedBoards,
+        evaluated = evaluated,
+        skipped = skipped,
+        matched = matched
+      )
+    }
+  }
+
+  class BoardEvaluation internal constructor(
+    val boardDescriptor: BoardDescriptor,
+    val watchFilters: List<ChanFilter>,
+    internal val invalidated: Boolean,
+    private val prevThreadRecords: Map<Long, ThreadRecord>,
+    expectedThreadsCount: Int
+  ) {
+    internal val newThreadRecords = ConcurrentHashMap<Long, ThreadRecord>(expectedThreadsCount)
+    internal val evaluated = AtomicInteger(0)
+    internal val skipped = AtomicInteger(0)
+    internal val matched = AtomicInteger(0)
+
+    /**
+     * Returns the result of the previous evaluation of this thread if neither the watch filters nor
+     * the OP have changed since then. The result is carried over into the new records.
+     * */
+    fun prevRecordOrNull(threadNo: Long, opContentHash: Long): ThreadRecord? {
+      val prevRecord = prevThreadRecords[threadNo]
+        ?: return null
+
+      if (prevRecord.opContentHash != opContentHash) {
+        return null
+      }
+
+      newThreadRecords[threadNo] = prevRecord
+      skipped.incrementAndGet()
+
+      if (prevRecord.matchedFilter != null) {
+        matched.incrementAndGet()
+      }
+
+      return prevRecord
+    }
+
+    fun onEvaluated(threadNo: Long, opContentHash: Long, matchedFilter: ChanFilter?) {
+      newThreadRecords[threadNo] = ThreadRecord(opContentHash, matchedFilter)
+      evaluated.incrementAndGet()
+
+      if (matchedFilter != null) {
+        matched.incrementAndGet()
+      }
+    }
+  }
+
+  class ThreadRecord(
+    val opContentHash: Long,
+    val matchedFilter: ChanFilter?
+  )
+
+  data class RunStats(
+    val boards: Int,
+    val invalidatedBoards: Int,
+    val evaluated: Int,
+    val skipped: Int,
+    val matched: Int
+  )
+
+  private class BoardRecord(
+    val watchFilters: List<ChanFilter>,
+    val threadRecords: Map<Long, ThreadRecord>
+  )
+
+  companion object {
+    /**
+     * Hash of the raw (not yet parsed) OP subject and comment.
+     * */
+    fun opContentHash(subject: String, rawComment: String): Long {
+      return (subject.hashCode().toLong() shl 32) or (rawComment.hashCode().toLong() and 0xFFFFFFFFL)
+    }
+  }
+
+}
@@ -12,6 +12,7 @@ import com.github.k1rakishou.core_themes.ThemeParser
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.file.ExternalFile
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.util.PendingDatabaseImport
 import okhttp3.internal.closeQuietly
 import java.io.File
 import java.io.IOException
@@ -39,6 +40,7 @@ class ImportBackupFileUseCase(
     val zipInputStream = ZipInputStream(inputStream)
     var zipEntry: ZipEntry? = null
     var zipMalformed = true
+    var databaseStagingDir: File? = null
 
     try {
       while (true) {
@@ -49,7 +51,13 @@ class ImportBackupFileUseCase(
         Logger.d(TAG, "zipEntry.name = ${fileName}")
 
         if (fileName.contains(KurobaDatabase.DATABASE_NAME, ignoreCase = true)) {
-          handleDatabaseFile(fileName, zipInputStream)
+          if (databaseStagingDir == null) {
+            // The database is opened by Room so we can't overwrite (or delete) its files here. The
+            // imported files are staged and then applied on the next app start.
+            databaseStagingDir = PendingDatabaseImport.createStagingDir(appContext)
+          }
+
+          handleDatabaseFile(databaseStagingDir, fileName, zipInputStream)
         } else if (fileName.endsWith(".xml")) {
           handleSharedPrefsFile(fileName, zipInputStream)
         } else if (
@@ -68,9 +76,15 @@ class ImportBackupFileUseCase(
         zipInputStream.closeEntry()
         zipMalformed = false
       }
+
+      if (databaseStagingDir != null && !zipMalformed) {
+        PendingDatabaseImport.commit(appContext)
+      }
     } finally {
       inputStream.closeQuietly()
       zipInputStream.closeQuietly()
+
+      PendingDatabaseImport.discard(appContext)
     }
 
     if (zipMalformed) {
@@ -140,8 +154,8 @@ class ImportBackupFileUseCase(
     }
   }
 
-  private fun handleDatabaseFile(fileName: String?, zipInputStream: ZipInputStream) {
-    val outputFileStream = appContext.getDatabasePath(fileName).outputStream()
+  private fun handleDatabaseFile(stagingDir: File, fileName: String, zipInputStream: ZipInputStream) {
+    val outputFileStream = File(stagingDir, File(fileName).name).outputStream()
 
     try {
       zipInputStream.copyTo(outputFileStream, ExportBackupFileUseCase.BUFFER_SIZE)
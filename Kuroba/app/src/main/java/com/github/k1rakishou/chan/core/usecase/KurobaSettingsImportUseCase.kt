@@ -163,7 +163,7 @@ class KurobaSettingsImportUseCase(
 
   private suspend fun awaitAndThrowIfRequiredTablesNotEmpty() {
     siteManager.awaitUntilInitialized()
-    boardManager.awaitUntilInitialized()
+    boardManager.awaitUntilAllBoardsLoaded()
     filterManager.awaitUntilInitialized()
     bookmarksManager.awaitUntilInitialized()
 
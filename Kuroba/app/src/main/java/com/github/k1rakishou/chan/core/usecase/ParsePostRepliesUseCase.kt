@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.core.usecase
 
+import android.os.Debug
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.parser.ReplyParser
 import com.github.k1rakishou.common.ModularResult
@@ -7,9 +8,9 @@ import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.putIfNotContains
 import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
-import com.github.k1rakishou.model.data.post.ChanSavedReply
 import com.github.k1rakishou.model.repository.ChanSavedReplyRepository
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
@@ -18,6 +19,11 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 typealias YousPerThreadMap = Map<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>>
 
@@ -27,6 +33,9 @@ class ParsePostRepliesUseCase(
   private val siteManager: SiteManager,
   private val savedReplyRepository: Lazy<ChanSavedReplyRepository>
 ) : ISuspendUseCase<List<ThreadBookmarkFetchResult.Success>, YousPerThreadMap> {
+  // Threads that were already scanned for replies to our posts. Only posts newer than
+  // lastProcessedPostNo are scanned next time unless our saved posts in that thread change.
+  private val processedThreads = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ProcessedThreadState>()
 
   override suspend fun execute(parameter: List<ThreadBookmarkFetchResult.Success>): YousPerThreadMap {
     require(siteManager.isReady()) { "SiteManager is not initialized yet!" }
@@ -34,12 +43,21 @@ class ParsePostRepliesUseCase(
     return parsePostReplies(parameter)
   }
 
+  /**
+   * Makes the next [execute] call scan every post of these threads, not only the new ones. Must be
+   * called for threads which bookmarks were (re)created and thus have no replies stored yet.
+   * */
+  fun resetProcessedThreads(threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>) {
+    threadDescriptors.forEach { threadDescriptor -> processedThreads.remove(threadDescriptor) }
+  }
+
   private suspend fun parsePostReplies(
     successThreadBookmarkFetchResults: List<ThreadBookmarkFetchResult.Success>
   ): Map<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>> {
     val cap = successThreadBookmarkFetchResults.size
     val quotesToMePerThreadMap = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>>(cap)
     val mutex = Mutex()
+    val cycleStats = CycleStats()
 
     successThreadBookmarkFetchResults
       .chunked(BATCH_SIZE)
@@ -48,7 +66,7 @@ class ParsePostRepliesUseCase(
           appScope.async(Dispatchers.IO) {
             return@async ModularResult.Try {
               val threadDescriptor = successFetchResult.threadDescriptor
-              val quotesToMeInThreadMap = parsePostRepliesWorker(successFetchResult)
+              val quotesToMeInThreadMap = parsePostRepliesWorker(successFetchResult, cycleStats)
 
               mutex.withLock {
                 quotesToMePerThreadMap[threadDescriptor] = quotesToMeInThreadMap
@@ -61,88 +79,81 @@ class ParsePostRepliesUseCase(
         }.awaitAll()
       }
 
+    Logger.d(TAG, "parsePostReplies() threads=${successThreadBookmarkFetchResults.size}, " +
+      "threadsWithoutOwnPosts=${cycleStats.threadsWithoutOwnPosts.get()}, " +
+      "scannedPosts=${cycleStats.scannedPosts.get()}, " +
+      "parsedPosts=${cycleStats.parsedPosts.get()}, " +
+      "cpuTime=${TimeUnit.NANOSECONDS.toMicros(cycleStats.cpuTimeNanos.get())}us")
+
     return quotesToMePerThreadMap
   }
 
   private suspend fun parsePostRepliesWorker(
-    successFetchResult: ThreadBookmarkFetchResult.Success
+    successFetchResult: ThreadBookmarkFetchResult.Success,
+    cycleStats: CycleStats
   ): Map<Long, List<ReplyToMyPost>> {
     val threadDescriptor = successFetchResult.threadDescriptor
 
-    // Key - postNo of a post that quotes other posts.
-    // Value - set of postNo that the "Key" quotes.
-    val quoteOwnerPostsMap = mutableMapWithCap<Long, MutableSet<TempReplyToMyPost>>(32)
-
-    successFetchResult.threadBookmarkInfoObject.simplePostObjects.forEach { simplePostObject ->
-      val extractedQuotes = replyParser.get().extractCommentReplies(
-        threadDescriptor.siteDescriptor(),
-        simplePostObject.comment()
-      )
-
-      extractedQuotes.forEach { extractedQuote ->
-        when (extractedQuote) {
-          is ReplyParser.ExtractedQuote.FullQuote -> {
-            val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
-              && extractedQuote.threadId == threadDescriptor.threadNo)
-
-            if (!isQuotedPostInTheSameThread) {
-              // Cross-thread reply or something like that, we don't support it since it shouldn't
-              // be used normally. The only use case that come to mind is when there are two
-              // different threads bookmarked and someone from one bookmarked thread replied to our
-              // post in another bookmarked thread. Normally, nobody would expect for this to work
-              // and that's why we don't support it.
-              return@forEach
-            }
-
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-          is ReplyParser.ExtractedQuote.Quote -> {
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-        }
-      }
+    if (siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor()) == null) {
+      return emptyMap()
     }
 
-    if (quoteOwnerPostsMap.isEmpty()) {
+    val savedPostNos = savedReplyRepository.get().getSavedPostNosForThread(threadDescriptor)
+      .peekError { error -> Logger.e(TAG, "savedReplyRepository.getSavedPostNosForThread($threadDescriptor) error", error) }
+      .valueOrNull()
+      ?: return emptyMap()
+
+    if (savedPostNos.isEmpty()) {
+      // We have never posted in this thread, nobody could have replied to us
+      processedThreads.remove(threadDescriptor)
+      cycleStats.threadsWithoutOwnPosts.incrementAndGet()
       return emptyMap()
     }
 
-    if (siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor()) == null) {
-      return emptyMap()
+    val prevState = processedThreads[threadDescriptor]
+    val lastProcessedPostNo = if (prevState != null && prevState.savedPostNos.contentEquals(savedPostNos)) {
+      prevState.lastProcessedPostNo
+    } else {
+      // Either the first scan or our posts in this thread changed since the last one (e.g. a post
+      // was marked as ours) so older posts may now be replies to us too.
+      0L
     }
 
-    val threadSavedReplies = savedReplyRepository.get().preloadForThread(threadDescriptor)
-      .peekError { error -> Logger.e(TAG, "savedReplyRepository.preloadForThread($threadDescriptor) error", error) }
-      .valueOrNull() ?: emptyList()
+    val startCpuTimeNanos = Debug.threadCpuTimeNanos()
 
-    if (threadSavedReplies.isEmpty()) {
-      return emptyMap()
+    // Key - postNo of a post that quotes other posts.
+    // Value - set of postNo that the "Key" quotes.
+    val quoteOwnerPostsMap = mutableMapWithCap<Long, MutableSet<TempReplyToMyPost>>(8)
+    var maxPostNo = lastProcessedPostNo
+
+    successFetchResult.threadBookmarkInfoObject.simplePostObjects.forEach { simplePostObject ->
+      val postNo = simplePostObject.postNo()
+      if (postNo <= lastProcessedPostNo) {
+        return@forEach
+      }
+
+      maxPostNo = maxOf(maxPostNo, postNo)
+      cycleStats.scannedPosts.incrementAndGet()
+
+      if (!mayQuoteAnyOf(simplePostObject.comment(), savedPostNos)) {
+        return@forEach
+      }
+
+      // Only the (rare) posts that look like they quote one of our posts are parsed properly
+      cycleStats.parsedPosts.incrementAndGet()
+      extractQuotesToSavedPosts(threadDescriptor, simplePostObject, savedPostNos, quoteOwnerPostsMap)
     }
 
-    val quotesToMeInThreadMap = retainSavedPostNoMap(
-      threadSavedReplies,
-      quoteOwnerPostsMap
-    )
+    cycleStats.cpuTimeNanos.addAndGet(Debug.threadCpuTimeNanos() - startCpuTimeNanos)
+    processedThreads[threadDescriptor] = ProcessedThreadState(maxPostNo, savedPostNos)
 
-    if (quotesToMeInThreadMap.isEmpty()) {
+    if (quoteOwnerPostsMap.isEmpty()) {
       return emptyMap()
     }
 
-    val quotePostDescriptorsMap = HashMap<Long, MutableList<ReplyToMyPost>>(quotesToMeInThreadMap.size)
+    val quotePostDescriptorsMap = HashMap<Long, MutableList<ReplyToMyPost>>(quoteOwnerPostsMap.size)
 
-    quotesToMeInThreadMap.forEach { (myPostNo, repliesToMeSet) ->
+    quoteOwnerPostsMap.forEach { (myPostNo, repliesToMeSet) ->
       quotePostDescriptorsMap.putIfNotContains(myPostNo, ArrayList(repliesToMeSet.size))
 
       repliesToMeSet.forEach { tempReplyToMyPost ->
@@ -158,28 +169,110 @@ class ParsePostRepliesUseCase(
     return quotePostDescriptorsMap
   }
 
-  private fun retainSavedPostNoMap(
-    threadSavedReplies: List<ChanSavedReply>,
-    quoteOwnerPostsMap: Map<Long, Set<TempReplyToMyPost>>
-  ): Map<Long, MutableSet<TempReplyToMyPost>> {
-    val resultMap: MutableMap<Long, MutableSet<TempReplyToMyPost>> = mutableMapWithCap(16)
+  private fun extractQuotesToSavedPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    simplePostObject: ThreadBookmarkInfoPostObject,
+    savedPostNos: LongArray,
+    quoteOwnerPostsMap: MutableMap<Long, MutableSet<TempReplyToMyPost>>
+  ) {
+    val extractedQuotes = replyParser.get().extractCommentReplies(
+      threadDescriptor.siteDescriptor(),
+      simplePostObject.comment()
+    )
 
-    val savedRepliesNoSet = threadSavedReplies
-      .map { chanSavedReply -> chanSavedReply.postDescriptor.postNo }
-      .toSet()
+    extractedQuotes.forEach { extractedQuote ->
+      val quotedPostNo = when (extractedQuote) {
+        is ReplyParser.ExtractedQuote.FullQuote -> {
+          val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
+            && extractedQuote.threadId == threadDescriptor.threadNo)
+
+          if (!isQuotedPostInTheSameThread) {
+            // Cross-thread reply or something like that, we don't support it since it shouldn't
+            // be used normally. The only use case that come to mind is when there are two
+            // different threads bookmarked and someone from one bookmarked thread replied to our
+            // post in another bookmarked thread. Normally, nobody would expect for this to work
+            // and that's why we don't support it.
+            return@forEach
+          }
 
-    for ((quotePostNo, tempReplies) in quoteOwnerPostsMap) {
-      for (tempReply in tempReplies) {
-        if (!savedRepliesNoSet.contains(quotePostNo)) {
-          continue
+          extractedQuote.postId
         }
+        is ReplyParser.ExtractedQuote.Quote -> extractedQuote.postId
+      }
 
-        resultMap.putIfNotContains(quotePostNo, mutableSetOf())
-        resultMap[quotePostNo]!!.add(tempReply)
+      if (Arrays.binarySearch(savedPostNos, quotedPostNo) < 0) {
+        return@forEach
       }
+
+      quoteOwnerPostsMap.putIfNotContains(quotedPostNo, hashSetWithCap(16))
+
+      val tempReplyToMyPost = TempReplyToMyPost(
+        simplePostObject.postNo(),
+        simplePostObject.comment()
+      )
+      quoteOwnerPostsMap[quotedPostNo]!!.add(tempReplyToMyPost)
     }
+  }
+
+  /**
+   * A single pass over [comment] looking for ">>NNN" (or "&gt;&gt;NNN" in html comments) where NNN
+   * is one of [sortedPostNos]. May return false positives (e.g. quotes inside of code tags) which
+   * is fine since matching posts are then parsed properly.
+   * */
+  private fun mayQuoteAnyOf(comment: String, sortedPostNos: LongArray): Boolean {
+    val length = comment.length
+    var index = 0
+
+    while (index < length) {
+      val digitsStart = when {
+        comment[index] == '>' && index + 1 < length && comment[index + 1] == '>' -> index + 2
+        comment[index] == '&' && comment.startsWith(ESCAPED_QUOTE, index) -> index + ESCAPED_QUOTE.length
+        else -> -1
+      }
+
+      if (digitsStart < 0) {
+        ++index
+        continue
+      }
+
+      var digitsEnd = digitsStart
+      var postNo = 0L
+
+      while (digitsEnd < length && digitsEnd - digitsStart < MAX_POST_NO_DIGITS) {
+        val ch = comment[digitsEnd]
+        if (ch !in '0'..'9') {
+          break
+        }
+
+        postNo = postNo * 10 + (ch - '0')
+        ++digitsEnd
+      }
+
+      if (digitsEnd == digitsStart) {
+        ++index
+        continue
+      }
+
+      if (Arrays.binarySearch(sortedPostNos, postNo) >= 0) {
+        return true
+      }
+
+      index = digitsEnd
+    }
+
+    return false
+  }
+
+  private class ProcessedThreadState(
+    val lastProcessedPostNo: Long,
+    val savedPostNos: LongArray
+  )
 
-    return resultMap
+  private class CycleStats {
+    val threadsWithoutOwnPosts = AtomicInteger(0)
+    val scannedPosts = AtomicInteger(0)
+    val parsedPosts = AtomicInteger(0)
+    val cpuTimeNanos = AtomicLong(0)
   }
 
   class TempReplyToMyPost(
@@ -211,6 +304,8 @@ class ParsePostRepliesUseCase(
   companion object {
     private const val TAG = "ParsePostRepliesUseCase"
     private const val BATCH_SIZE = 8
+    private const val ESCAPED_QUOTE = "&gt;&gt;"
+    private const val MAX_POST_NO_DIGITS = 18
   }
 }
 
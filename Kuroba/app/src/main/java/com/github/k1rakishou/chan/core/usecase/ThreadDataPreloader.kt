@@ -1,53 +1,91 @@
 package com.github.k1rakishou.chan.core.usecase
 
+import com.github.k1rakishou.chan.core.base.DebouncingCoroutineExecutor
+import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
+import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.ChanThreadViewableInfoManager
+import com.github.k1rakishou.chan.core.manager.HistoryNavigationManager
 import com.github.k1rakishou.chan.core.manager.PostHideManager
 import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.manager.SeenPostsManager
-import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.thread.ThreadOpenState
 import com.github.k1rakishou.model.repository.ChanPostRepository
+import com.github.k1rakishou.model.repository.ThreadOpenStateRepository
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import dagger.Lazy
-import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
-import kotlinx.coroutines.supervisorScope
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
 
+/**
+ * Loads everything that is stored in the database for a thread (posts, seen posts, scroll position,
+ * saved replies and post hides) with one [ThreadOpenStateRepository] call and hands the results to
+ * the managers. Only the parts that the managers don't have yet are loaded so opening a thread that
+ * has been opened before usually doesn't touch the database at all.
+ *
+ * The same thing may also be done speculatively for threads that are likely to be opened next (the
+ * last opened thread and bookmarked threads with unread replies, see [prefetchLikelyToBeOpenedThreads])
+ * so that when the user actually opens one of them there is nothing left to load.
+ * */
 class ThreadDataPreloader(
+  private val appScope: CoroutineScope,
   private val seenPostsManager: Lazy<SeenPostsManager>,
   private val chanThreadViewableInfoManager: Lazy<ChanThreadViewableInfoManager>,
   private val savedReplyManager: Lazy<SavedReplyManager>,
   private val postHideManager: Lazy<PostHideManager>,
   private val chanPostRepository: Lazy<ChanPostRepository>,
+  private val threadOpenStateRepository: Lazy<ThreadOpenStateRepository>,
+  private val chanThreadsCache: Lazy<ChanThreadsCache>,
+  private val historyNavigationManager: Lazy<HistoryNavigationManager>,
+  private val bookmarksManager: Lazy<BookmarksManager>
 ) {
+  // Snapshots are written in the background one after another so that the thread load does not
+  // have to wait for them
+  private val threadSnapshotExecutor = SerializedCoroutineExecutor(appScope, Dispatchers.IO)
+  private val prefetchDebouncer = DebouncingCoroutineExecutor(appScope)
+
+  private val prefetchQueue = ThreadPrefetchQueue(appScope, Dispatchers.IO) { threadDescriptor ->
+    chanPostRepository.get().awaitUntilInitialized()
+
+    val loadThreadPosts = !chanThreadsCache.get().contains(threadDescriptor)
+    loadThreadOpenState(threadDescriptor, loadThreadPosts)
+  }
+
+  init {
+    appScope.launch {
+      bookmarksManager.get().awaitUntilInitialized()
+
+      bookmarksManager.get().listenForBookmarksChanges()
+        .filter { bookmarkChange -> bookmarkChange is BookmarksManager.BookmarkChange.BookmarksUpdated }
+        .collect { prefetchDebouncer.post(PREFETCH_DEBOUNCE_TIME_MS) { prefetchLikelyToBeOpenedThreads() } }
+    }
+  }
 
   @OptIn(ExperimentalTime::class)
   suspend fun preloadThreadInfo(threadDescriptor: ChanDescriptor.ThreadDescriptor, isThreadCached: Boolean) {
     Logger.d(TAG, "preloadThreadInfo($threadDescriptor) begin")
 
     val time = measureTime {
-      supervisorScope {
-        val jobs = mutableListOf<Deferred<Unit>>()
-
-        jobs += async(Dispatchers.IO) { seenPostsManager.get().preloadForThread(threadDescriptor) }
-        jobs += async(Dispatchers.IO) { chanThreadViewableInfoManager.get().preloadForThread(threadDescriptor) }
-        jobs += async(Dispatchers.IO) { savedReplyManager.get().preloadForThread(threadDescriptor) }
-        jobs += async(Dispatchers.IO) { postHideManager.get().preloadForThread(threadDescriptor) }
-
-        // Only preload when this thread is not yet in cache
-        if (!isThreadCached) {
-          jobs += async(Dispatchers.IO) {
-            chanPostRepository.get().preloadForThread(threadDescriptor).unwrap()
-          }
-        }
+      // The user has opened a thread so there is no point in prefetching anything else anymore. If
+      // this thread is being prefetched right now then wait for it instead of loading it again.
+      val prefetchInProgress = prefetchQueue.stop(threadDescriptor)
 
-        ModularResult.Try { jobs.awaitAll() }
-          .peekError { error -> Logger.e(TAG, "preloadThreadInfo() error", error) }
-          .ignore()
+      if (prefetchInProgress != null) {
+        Logger.d(TAG, "preloadThreadInfo($threadDescriptor) waiting for prefetch to finish")
+        prefetchInProgress.await()
+      }
+
+      withContext(Dispatchers.IO) {
+        // Only preload posts when this thread is not yet in cache
+        val loadThreadPosts = !isThreadCached && !chanThreadsCache.get().contains(threadDescriptor)
+        loadThreadOpenState(threadDescriptor, loadThreadPosts)
       }
     }
 
@@ -56,12 +94,94 @@ class ThreadDataPreloader(
 
   suspend fun postloadThreadInfo(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
     Logger.d(TAG, "postloadThreadInfo($threadDescriptor) begin")
-    // no-op
+    threadSnapshotExecutor.post {
+      chanPostRepository.get().storeThreadSnapshot(threadDescriptor)
+        .peekError { error -> Logger.e(TAG, "storeThreadSnapshot($threadDescriptor) error", error) }
+        .ignore()
+    }
     Logger.d(TAG, "postloadThreadInfo($threadDescriptor) end")
   }
 
+  /**
+   * Prefetches the last opened thread and bookmarked threads with unread replies (the ones with the
+   * most unread replies first). Stops the previous prefetch if it's still running.
+   * */
+  fun prefetchLikelyToBeOpenedThreads() {
+    appScope.launch(Dispatchers.IO) {
+      val threadDescriptors = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+      historyNavigationManager.get().getFirstThreadNavElement()
+        ?.descriptor()
+        ?.threadDescriptorOrNull()
+        ?.let { threadDescriptor -> threadDescriptors += threadDescriptor }
+
+      bookmarksManager.get().awaitUntilInitialized()
+
+      threadDescriptors += bookmarksManager.get()
+        .mapNotNullAllBookmarks { threadBookmarkView ->
+          if (!threadBookmarkView.isActive() || threadBookmarkView.newQuotesCount() <= 0) {
+            return@mapNotNullAllBookmarks null
+          }
+
+          return@mapNotNullAllBookmarks threadBookmarkView.threadDescriptor to threadBookmarkView.newQuotesCount()
+        }
+        .sortedByDescending { (_, newQuotesCount) -> newQuotesCount }
+        .map { (threadDescriptor, _) -> threadDescriptor }
+
+      prefetch(threadDescriptors)
+    }
+  }
+
+  fun prefetch(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>) {
+    val toPrefetch = threadDescriptors
+      .distinct()
+      .take(MAX_PREFETCHED_THREADS)
+
+    prefetchQueue.prefetch(toPrefetch)
+  }
+
+  private suspend fun loadThreadOpenState(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    loadThreadPosts: Boolean
+  ) {
+    val request = ThreadOpenState.Request(
+      threadDescriptor = threadDescriptor,
+      loadThreadPosts = loadThreadPosts,
+      loadSeenPosts = seenPostsManager.get().needPreloadForThread(threadDescriptor),
+      loadViewableInfo = chanThreadViewableInfoManager.get().needPreloadForThread(threadDescriptor),
+      loadSavedReplies = savedReplyManager.get().needPreloadForThread(threadDescriptor),
+      loadPostHides = postHideManager.get().needPreloadForThread(threadDescriptor)
+    )
+
+    if (request.isEmpty()) {
+      Logger.d(TAG, "loadThreadOpenState($threadDescriptor) everything is already loaded")
+      return
+    }
+
+    val threadOpenState = threadOpenStateRepository.get().loadThreadOpenState(request)
+      .peekError { error -> Logger.e(TAG, "loadThreadOpenState($threadDescriptor) error", error) }
+      .valueOrNull()
+      ?: return
+
+    threadOpenState.seenPosts?.let { seenPosts ->
+      seenPostsManager.get().onThreadSeenPostsPreloaded(threadDescriptor, seenPosts)
+    }
+    threadOpenState.chanThreadViewableInfo?.let { chanThreadViewableInfo ->
+      chanThreadViewableInfoManager.get().onThreadViewableInfoPreloaded(threadDescriptor, chanThreadViewableInfo)
+    }
+    threadOpenState.savedReplies?.let { savedReplies ->
+      savedReplyManager.get().onThreadSavedRepliesPreloaded(threadDescriptor, savedReplies)
+    }
+    threadOpenState.postHides?.let { postHides ->
+      postHideManager.get().onThreadPostHidesPreloaded(threadDescriptor, postHides)
+    }
+  }
+
   companion object {
     private const val TAG = "ThreadDataPreloadUseCase"
+
+    private const val MAX_PREFETCHED_THREADS = 3
+    private const val PREFETCH_DEBOUNCE_TIME_MS = 2_000L
   }
 
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.usecase
 
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.Site
 import com.github.k1rakishou.chan.core.site.loader.ChanThreadLoaderCoordinator
 import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
 import com.github.k1rakishou.chan.core.site.parser.processor.ChanReaderProcessor
@@ -10,12 +11,14 @@ import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.options.ChanLoadOptions
 import com.github.k1rakishou.model.data.options.ChanReadOptions
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import dagger.Lazy
 import okhttp3.Request
+import java.util.concurrent.TimeUnit
 import kotlin.time.ExperimentalTime
 
 class ThreadDownloaderPersistPostsInDatabaseUseCase(
@@ -25,6 +28,11 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
   private val chanPostRepository: ChanPostRepository,
   private val proxiedOkHttpClient: RealProxiedOkHttpClient
 ) : ISuspendUseCase<DownloadParams, ModularResult<DownloadResult>> {
+  private val persistedThreadStates = ThreadDownloaderPersistedStates(
+    loadPersistedPostHashes = { threadDescriptor ->
+      chanPostRepository.getPersistedPostHashes(threadDescriptor).unwrap()
+    }
+  )
 
   override suspend fun execute(parameter: DownloadParams): ModularResult<DownloadResult> {
     val ownerThreadDatabaseId = parameter.ownerThreadDatabaseId
@@ -39,6 +47,21 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
     }
   }
 
+  /**
+   * Must be called once the media of the posts returned by the last [execute] call were processed.
+   * When [allMediaProcessed] is false the next run will return all posts' media again.
+   * */
+  suspend fun onThreadMediaProcessed(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    allMediaProcessed: Boolean
+  ) {
+    persistedThreadStates.onThreadMediaProcessed(threadDescriptor, allMediaProcessed)
+  }
+
+  suspend fun forgetThread(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    persistedThreadStates.forget(threadDescriptor)
+  }
+
   @OptIn(ExperimentalTime::class)
   private suspend fun downloadThreadPosts(
     ownerThreadDatabaseId: Long,
@@ -50,15 +73,26 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
     val site = siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())
       ?: throw ThreadDownloadException("No site found by siteDescriptor ${threadDescriptor.siteDescriptor()}")
 
-    val chanLoadUrl = chanThreadLoaderCoordinator.get().getChanUrl(
-      site = site,
-      chanDescriptor = threadDescriptor,
-      page = null,
-      postProcessFlags = ChanThreadLoaderCoordinator.PostProcessFlags(
-        reloadingAfter404 = isReloadingAfter404
-      ),
-      forceFullLoad = true
-    )
+    chanPostRepository.awaitUntilInitialized()
+    val persistedThreadState = persistedThreadStates.getOrLoad(threadDescriptor)
+    val currentTime = System.currentTimeMillis()
+
+    val incrementalLoadUrl = if (!isReloadingAfter404 && persistedThreadState != null) {
+      getIncrementalLoadUrlOrNull(site, threadDescriptor, persistedThreadState, currentTime)
+    } else {
+      null
+    }
+
+    val chanLoadUrl = incrementalLoadUrl
+      ?: chanThreadLoaderCoordinator.get().getChanUrl(
+        site = site,
+        chanDescriptor = threadDescriptor,
+        page = null,
+        postProcessFlags = ChanThreadLoaderCoordinator.PostProcessFlags(
+          reloadingAfter404 = isReloadingAfter404
+        ),
+        forceFullLoad = true
+      )
 
     val requestBuilder = Request.Builder()
       .url(chanLoadUrl.url)
@@ -91,7 +125,10 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
           deleted = true,
           closed = false,
           archived = false,
-          posts = emptyList()
+          posts = emptyList(),
+          postsSkipped = 0,
+          isIncremental = chanLoadUrl.isIncremental,
+          processAllMedia = false
         )
       }
 
@@ -111,7 +148,10 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
         chanDescriptor = threadDescriptor,
         chanReadOptions = ChanReadOptions.default(),
         chanLoadOptions = ChanLoadOptions.retainAll(),
-        chanReaderProcessorOptions = ChanReaderProcessor.Options(isDownloadingThread = true),
+        chanReaderProcessorOptions = ChanReaderProcessor.Options(
+          isDownloadingThread = true,
+          isIncrementalUpdate = chanLoadUrl.isIncremental
+        ),
         chanReader = chanReader
       ).unwrap()
     }
@@ -119,27 +159,83 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
     val postParser = chanReader.getParser()
       ?: throw NullPointerException("PostParser cannot be null!")
 
+    val postBuilders = chanReaderProcessor.getToParse()
+    val postBuildersToPersist = persistedThreadStates.filterOutUnchangedPosts(postBuilders, persistedThreadState)
+
     val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
       chanDescriptor = threadDescriptor,
       postParser = postParser,
-      postBuildersToParse = chanReaderProcessor.getToParse()
+      postBuildersToParse = postBuildersToPersist
     )
 
-    chanPostRepository.insertOrUpdatePostsInDatabase(
-      ownerThreadDatabaseId,
-      parsingResult.parsedPosts
-    ).unwrap()
+    if (parsingResult.parsedPosts.isNotEmpty()) {
+      // Store the raw post hashes alongside the posts so that the first thread update after an
+      // app restart can skip parsing the posts that did not change.
+      val postHashes = postBuildersToPersist.associateBy(
+        keySelector = { postBuilder -> postBuilder.postDescriptor },
+        valueTransform = { postBuilder -> postBuilder.getPostHash }
+      )
+
+      chanPostRepository.insertOrUpdatePostsInDatabase(
+        ownerThreadDatabaseId,
+        parsingResult.parsedPosts,
+        postHashes
+      ).unwrap()
+    }
+
+    val processAllMedia = persistedThreadState == null || persistedThreadState.mediaPending
+    persistedThreadStates.update(
+      threadDescriptor = threadDescriptor,
+      persistedPostBuilders = postBuildersToPersist,
+      isIncremental = chanLoadUrl.isIncremental,
+      currentTime = currentTime
+    )
+
+    val postsSkipped = postBuilders.size - postBuildersToPersist.size
 
     Logger.d(TAG, "downloadThreadPosts() deleted=${chanReaderProcessor.deleted}, " +
       "closed=${chanReaderProcessor.closed}, " +
       "archived=${chanReaderProcessor.archived}, " +
-      "posts=${parsingResult.parsedPosts.size}")
+      "incremental=${chanLoadUrl.isIncremental}, " +
+      "postsReceived=${postBuilders.size}, " +
+      "postsWritten=${parsingResult.parsedPosts.size}, " +
+      "postsSkipped=${postsSkipped}")
 
     return DownloadResult(
       deleted = chanReaderProcessor.deleted,
       closed = chanReaderProcessor.closed,
       archived = chanReaderProcessor.archived,
-      posts = parsingResult.parsedPosts
+      posts = parsingResult.parsedPosts,
+      postsSkipped = postsSkipped,
+      isIncremental = chanLoadUrl.isIncremental,
+      processAllMedia = processAllMedia
+    )
+  }
+
+  private fun getIncrementalLoadUrlOrNull(
+    site: Site,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    persistedThreadState: ThreadDownloaderPersistedStates.PersistedThreadState,
+    currentTime: Long
+  ): ChanThreadLoaderCoordinator.ChanLoadUrl? {
+    if (persistedThreadState.lastPersistedPostNo <= 0L) {
+      return null
+    }
+
+    // We still want to fully reload the thread once in a while to update the thread status and to
+    // find posts that were edited/deleted.
+    if (currentTime - persistedThreadState.lastFullLoadTime > FULL_RELOAD_INTERVAL_MS) {
+      return null
+    }
+
+    val lastPostDescriptor = PostDescriptor.create(threadDescriptor, persistedThreadState.lastPersistedPostNo)
+    val threadPartialUrl = site.endpoints().threadPartial(lastPostDescriptor)
+      ?: return null
+
+    return ChanThreadLoaderCoordinator.ChanLoadUrl(
+      url = threadPartialUrl,
+      isIncremental = true,
+      page = null
     )
   }
 
@@ -147,6 +243,7 @@ class ThreadDownloaderPersistPostsInDatabaseUseCase(
 
   companion object {
     private const val TAG = "ThreadDownloaderPersistPostsInDatabaseUseCase"
+    private val FULL_RELOAD_INTERVAL_MS = TimeUnit.MINUTES.toMillis(30)
   }
 }
 
@@ -159,5 +256,10 @@ data class DownloadResult(
   val deleted: Boolean,
   val closed: Boolean,
   val archived: Boolean,
-  val posts: List<ChanPost>
+  // Only the posts that were new or changed since the previous run (or all posts on the first run)
+  val posts: List<ChanPost>,
+  val postsSkipped: Int,
+  val isIncremental: Boolean,
+  // Whether media of all thread posts has to be processed, not only of the persisted ones.
+  val processAllMedia: Boolean
 )
\ No newline at end of file
@@ -0,0 +1,158 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Per-thread state of what was already persisted by the previous thread download runs. Thread
+ * downloads often run in a fresh process so the state of a thread is seeded from the raw post hashes
+ * that were persisted alongside the posts ([loadPersistedPostHashes]) the first time the thread is
+ * downloaded by this process.
+ * */
+class ThreadDownloaderPersistedStates(
+  private val loadPersistedPostHashes: suspend (ChanDescriptor.ThreadDescriptor) -> Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>
+) {
+  private val mutex = Mutex()
+  private val persistedThreadStates = mutableMapOf<ChanDescriptor.ThreadDescriptor, PersistedThreadState>()
+
+  /**
+   * Returns a copy of the state of [threadDescriptor] or null when nothing was persisted for this
+   * thread yet.
+   * */
+  suspend fun getOrLoad(threadDescriptor: ChanDescriptor.ThreadDescriptor): PersistedThreadState? {
+    val persistedThreadState = mutex.withLock { persistedThreadStates[threadDescriptor]?.snapshot() }
+    if (persistedThreadState != null) {
+      return persistedThreadState
+    }
+
+    val persistedPostHashes = loadPersistedPostHashes(threadDescriptor)
+    if (persistedPostHashes.isEmpty()) {
+      return null
+    }
+
+    val seededThreadState = PersistedThreadState()
+    persistedPostHashes.forEach { (postDescriptor, postHash) ->
+      val postNo = postDescriptor.postNo
+
+      seededThreadState.persistedRawPostHashes[postNo] = postHash
+
+      if (postNo > seededThreadState.lastPersistedPostNo) {
+        seededThreadState.lastPersistedPostNo = postNo
+      }
+    }
+
+    return mutex.withLock {
+      persistedThreadStates.getOrPut(threadDescriptor) { seededThreadState }.snapshot()
+    }
+  }
+
+  fun filterOutUnchangedPosts(
+    postBuilders: List<ChanPostBuilder>,
+    persistedThreadState: PersistedThreadState?
+  ): List<ChanPostBuilder> {
+    if (persistedThreadState == null) {
+      return postBuilders
+    }
+
+    return postBuilders.filter { postBuilder ->
+      if (postBuilder.op) {
+        // Always persist the OP since it contains the thread status
+        return@filter true
+      }
+
+      val persistedPostHash = persistedThreadState.postHashes[postBuilder.id]
+      if (persistedPostHash != null) {
+        return@filter persistedPostHash != calculatePostHash(postBuilder)
+      }
+
+      // Posts persisted by a previous process only have the raw post hash which does not include
+      // post images. Their images are still processed since the first run always processes the media
+      // of all posts.
+      val persistedRawPostHash = persistedThreadState.persistedRawPostHashes[postBuilder.id]
+        ?: return@filter true
+
+      return@filter persistedRawPostHash != postBuilder.getPostHash
+    }
+  }
+
+  suspend fun update(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    persistedPostBuilders: List<ChanPostBuilder>,
+    isIncremental: Boolean,
+    currentTime: Long
+  ) {
+    mutex.withLock {
+      val state = persistedThreadStates.getOrPut(threadDescriptor) { PersistedThreadState() }
+
+      persistedPostBuilders.forEach { postBuilder ->
+        state.postHashes[postBuilder.id] = calculatePostHash(postBuilder)
+
+        if (postBuilder.id > state.lastPersistedPostNo) {
+          state.lastPersistedPostNo = postBuilder.id
+        }
+      }
+
+      if (!isIncremental) {
+        state.lastFullLoadTime = currentTime
+      }
+    }
+  }
+
+  suspend fun onThreadMediaProcessed(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    allMediaProcessed: Boolean
+  ) {
+    mutex.withLock {
+      persistedThreadStates[threadDescriptor]?.mediaPending = !allMediaProcessed
+    }
+  }
+
+  suspend fun forget(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    mutex.withLock { persistedThreadStates.remove(threadDescriptor) }
+  }
+
+  /**
+   * [ChanPostBuilder.getPostHash] does not include post images so we combine it with the images'
+   * urls to also detect posts with changed media.
+   * */
+  private fun calculatePostHash(postBuilder: ChanPostBuilder): MurmurHashUtils.Murmur3Hash {
+    if (postBuilder.postImages.isEmpty()) {
+      return postBuilder.getPostHash
+    }
+
+    val imagesString = buildString {
+      postBuilder.postImages.forEach { chanPostImage ->
+        append(chanPostImage.serverFilename)
+        chanPostImage.imageUrl?.let { imageUrl -> append(imageUrl.toString()) }
+      }
+    }
+
+    return postBuilder.getPostHash.combine(MurmurHashUtils.murmurhash3_x64_128(imagesString))
+  }
+
+  class PersistedThreadState(
+    var lastPersistedPostNo: Long = 0L,
+    var lastFullLoadTime: Long = 0L,
+    // Set when the last media pass could not process every post image (metered network, no disk
+    // space etc) so that the next pass processes all of them again.
+    var mediaPending: Boolean = true,
+    val postHashes: MutableMap<Long, MurmurHashUtils.Murmur3Hash> = mutableMapOf(),
+    // Raw post hashes (see ChanPostBuilder.getPostHash) loaded from the database
+    val persistedRawPostHashes: MutableMap<Long, MurmurHashUtils.Murmur3Hash> = mutableMapOf()
+  ) {
+    fun snapshot(): PersistedThreadState {
+      return PersistedThreadState(
+        lastPersistedPostNo = lastPersistedPostNo,
+        lastFullLoadTime = lastFullLoadTime,
+        mediaPending = mediaPending,
+        postHashes = HashMap(postHashes),
+        persistedRawPostHashes = HashMap(persistedRawPostHashes)
+      )
+    }
+  }
+
+}
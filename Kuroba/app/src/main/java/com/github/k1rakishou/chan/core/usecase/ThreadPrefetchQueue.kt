@@ -0,0 +1,96 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+
+/**
+ * Loads threads with [loadThread] one after another by a single job so that prefetching never
+ * occupies the database for longer than one thread load when the user opens a thread.
+ *
+ * The job is never cancelled in the middle of a thread load because that would throw away the
+ * results that were already read from the database. Instead, [stop] makes it stop before the next
+ * thread.
+ * */
+class ThreadPrefetchQueue(
+  private val scope: CoroutineScope,
+  private val dispatcher: CoroutineDispatcher,
+  private val loadThread: suspend (ChanDescriptor.ThreadDescriptor) -> Unit
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private var prefetchJob: Job? = null
+  // Incremented every time the queue is stopped, a job only keeps going while the generation it was
+  // started with is the current one
+  @GuardedBy("lock")
+  private var generation = 0L
+  @GuardedBy("lock")
+  private val loadsInProgress = mutableMapOf<ChanDescriptor.ThreadDescriptor, CompletableDeferred<Unit>>()
+
+  /**
+   * Stops the previous prefetch (the thread it's loading right now is still loaded to the end) and
+   * starts loading [threadDescriptors] once it's done.
+   * */
+  fun prefetch(threadDescriptors: List<ChanDescriptor.ThreadDescriptor>) {
+    synchronized(lock) {
+      val previousJob = prefetchJob
+      val jobGeneration = stopLocked()
+
+      if (threadDescriptors.isEmpty()) {
+        return
+      }
+
+      prefetchJob = scope.launch(dispatcher) {
+        previousJob?.join()
+
+        for (threadDescriptor in threadDescriptors) {
+          val loaded = CompletableDeferred<Unit>()
+
+          val stopped = synchronized(lock) {
+            if (generation != jobGeneration) {
+              return@synchronized true
+            }
+
+            loadsInProgress[threadDescriptor] = loaded
+            return@synchronized false
+          }
+
+          if (stopped) {
+            break
+          }
+
+          try {
+            loadThread(threadDescriptor)
+          } finally {
+            synchronized(lock) { loadsInProgress.remove(threadDescriptor, loaded) }
+            loaded.complete(Unit)
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops loading the remaining threads. Returns a deferred which completes once [threadDescriptor]
+   * is loaded when it's being loaded right now, otherwise returns null.
+   * */
+  fun stop(threadDescriptor: ChanDescriptor.ThreadDescriptor): Deferred<Unit>? {
+    synchronized(lock) {
+      stopLocked()
+      return loadsInProgress[threadDescriptor]
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun stopLocked(): Long {
+    prefetchJob = null
+    return ++generation
+  }
+
+}
@@ -0,0 +1,280 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+
+/**
+ * Writes [BackupEntry]s into a zip archive. Compressible entries are split into blocks of
+ * [BLOCK_SIZE] bytes which are deflated in parallel (every block is sync-flushed so that the
+ * concatenation of all blocks is a valid deflate stream) while the results are written
+ * sequentially in the original order. Already compressed files (media) are stored as is, their
+ * checksums are calculated in parallel as well.
+ *
+ * At most [maxTasksInFlight] blocks/checksums are processed at the same time, which also bounds the
+ * memory usage.
+ * */
+class BackupArchiver(
+  private val dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  private val maxTasksInFlight: Int = Runtime.getRuntime().availableProcessors().coerceIn(2, 8) * 2
+) {
+
+  suspend fun write(entries: List<BackupEntry>, outputStream: OutputStream): BackupExportReport {
+    val startTime = System.currentTimeMillis()
+    val sectionStats = mutableMapOf<BackupSection, BackupExportReport.SectionStats>()
+    val zipWriter = BackupZipWriter(outputStream)
+
+    coroutineScope {
+      val tasks = createTasks(entries).iterator()
+      val inFlight = ArrayDeque<Pair<Task, Deferred<TaskResult>>>(maxTasksInFlight)
+
+      val entryCrc = CRC32()
+      var entryUncompressedSize = 0L
+      var entryStart = 0L
+
+      while (true) {
+        while (inFlight.size < maxTasksInFlight && tasks.hasNext()) {
+          val task = tasks.next()
+          inFlight.addLast(Pair(task, async(dispatcher) { task.execute() }))
+        }
+
+        val (task, deferred) = inFlight.removeFirstOrNull()
+          ?: break
+
+        val result = deferred.await()
+        val entry = task.entry
+
+        if (task.isFirst) {
+          entryCrc.reset()
+          entryUncompressedSize = 0L
+          entryStart = zipWriter.bytesWritten
+        }
+
+        when (result) {
+          is TaskResult.StoredEntryChecksum -> {
+            zipWriter.beginStoredEntry(entry.name, entry.file.lastModified(), result.crc, result.size)
+            entryUncompressedSize = copyStoredEntry(entry.file, result.size, zipWriter, entryCrc)
+
+            // The header was written with the checksum of the first read of the file, the data is
+            // from the second one. They differ when the file was changed in between, such an entry
+            // would fail to be extracted so the whole backup fails instead.
+            if (entryUncompressedSize != result.size || entryCrc.value != result.crc) {
+              throw IOException("File '${entry.file.absolutePath}' has changed while being backed up " +
+                "(expected size=${result.size}, crc=${result.crc}, " +
+                "actual size=${entryUncompressedSize}, crc=${entryCrc.value})")
+            }
+          }
+          is TaskResult.DeflatedBlock -> {
+            if (task.isFirst) {
+              zipWriter.beginDeflatedEntry(entry.name, entry.file.lastModified())
+            }
+
+            entryCrc.update(result.uncompressed, 0, result.uncompressedLength)
+            entryUncompressedSize += result.uncompressedLength
+            zipWriter.writeEntryData(result.compressed)
+          }
+        }
+
+        if (task.isLast) {
+          zipWriter.endEntry(entryCrc.value, entryUncompressedSize)
+
+          val prevStats = sectionStats[entry.section] ?: BackupExportReport.SectionStats()
+          sectionStats[entry.section] = prevStats.copy(
+            filesCount = prevStats.filesCount + 1,
+            uncompressedBytes = prevStats.uncompressedBytes + entryUncompressedSize,
+            writtenBytes = prevStats.writtenBytes + (zipWriter.bytesWritten - entryStart)
+          )
+
+          Logger.d(TAG) { "Writing file (zipEntryName='${entry.name}') '${entry.file.absolutePath}' success!" }
+        }
+      }
+    }
+
+    zipWriter.finish()
+
+    return BackupExportReport(
+      sections = sectionStats,
+      totalWrittenBytes = zipWriter.bytesWritten,
+      tookMs = System.currentTimeMillis() - startTime
+    )
+  }
+
+  /**
+   * Copies at most [size] bytes of [file] into [zipWriter] and updates [crc] with them. Returns the
+   * amount of copied bytes.
+   * */
+  private fun copyStoredEntry(file: File, size: Long, zipWriter: BackupZipWriter, crc: CRC32): Long {
+    val buffer = ByteArray(COPY_BUFFER_SIZE)
+    var remaining = size
+
+    file.inputStream().use { inputStream ->
+      while (remaining > 0) {
+        val read = inputStream.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+        if (read < 0) {
+          break
+        }
+
+        crc.update(buffer, 0, read)
+        zipWriter.writeEntryData(buffer, 0, read)
+        remaining -= read
+      }
+    }
+
+    return size - remaining
+  }
+
+  private fun createTasks(entries: List<BackupEntry>): Sequence<Task> {
+    return sequence {
+      for (entry in entries) {
+        val fileSize = entry.file.length()
+
+        if (!entry.compress) {
+          yield(Task.StoredEntry(entry, fileSize))
+          continue
+        }
+
+        // Empty files still need one (empty, final) block
+        val blocksCount = maxOf(1L, (fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE)
+
+        for (blockIndex in 0 until blocksCount) {
+          val offset = blockIndex * BLOCK_SIZE
+          val length = minOf(BLOCK_SIZE.toLong(), fileSize - offset).toInt()
+
+          yield(
+            Task.DeflateBlock(
+              entry = entry,
+              offset = offset,
+              length = length,
+              isFirst = blockIndex == 0L,
+              isLast = blockIndex == blocksCount - 1
+            )
+          )
+        }
+      }
+    }
+  }
+
+  private sealed class Task {
+    abstract val entry: BackupEntry
+    abstract val isFirst: Boolean
+    abstract val isLast: Boolean
+
+    abstract fun execute(): TaskResult
+
+    class StoredEntry(override val entry: BackupEntry, private val size: Long) : Task() {
+      override val isFirst: Boolean = true
+      override val isLast: Boolean = true
+
+      override fun execute(): TaskResult {
+        val crc = CRC32()
+        val buffer = ByteArray(COPY_BUFFER_SIZE)
+        var remaining = size
+
+        entry.file.inputStream().use { inputStream ->
+          while (remaining > 0) {
+            val read = inputStream.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+            if (read < 0) {
+              break
+            }
+
+            crc.update(buffer, 0, read)
+            remaining -= read
+          }
+        }
+
+        return TaskResult.StoredEntryChecksum(crc = crc.value, size = size - remaining)
+      }
+    }
+
+    class DeflateBlock(
+      override val entry: BackupEntry,
+      private val offset: Long,
+      private val length: Int,
+      override val isFirst: Boolean,
+      override val isLast: Boolean
+    ) : Task() {
+
+      override fun execute(): TaskResult {
+        val uncompressed = ByteArray(length)
+        var uncompressedLength = 0
+
+        if (length > 0) {
+          RandomAccessFile(entry.file, "r").use { randomAccessFile ->
+            randomAccessFile.seek(offset)
+
+            while (uncompressedLength < length) {
+              val read = randomAccessFile.read(uncompressed, uncompressedLength, length - uncompressedLength)
+              if (read < 0) {
+                break
+              }
+
+              uncompressedLength += read
+            }
+          }
+        }
+
+        val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+        val outputStream = ByteArrayOutputStream(uncompressedLength / 2 + 64)
+        val buffer = ByteArray(COPY_BUFFER_SIZE)
+
+        try {
+          deflater.setInput(uncompressed, 0, uncompressedLength)
+
+          if (isLast) {
+            deflater.finish()
+
+            while (!deflater.finished()) {
+              val written = deflater.deflate(buffer)
+              outputStream.write(buffer, 0, written)
+            }
+          } else {
+            // SYNC_FLUSH aligns the output to a byte boundary without marking the block as final
+            // so that the next block can be appended right after it
+            while (true) {
+              val written = deflater.deflate(buffer, 0, buffer.size, Deflater.SYNC_FLUSH)
+              outputStream.write(buffer, 0, written)
+
+              if (written < buffer.size) {
+                break
+              }
+            }
+          }
+        } finally {
+          deflater.end()
+        }
+
+        return TaskResult.DeflatedBlock(
+          uncompressed = uncompressed,
+          uncompressedLength = uncompressedLength,
+          compressed = outputStream.toByteArray()
+        )
+      }
+    }
+  }
+
+  private sealed class TaskResult {
+    class StoredEntryChecksum(val crc: Long, val size: Long) : TaskResult()
+
+    class DeflatedBlock(
+      val uncompressed: ByteArray,
+      val uncompressedLength: Int,
+      val compressed: ByteArray
+    ) : TaskResult()
+  }
+
+  companion object {
+    private const val TAG = "BackupArchiver"
+    private const val BLOCK_SIZE = 1024 * 1024
+    private const val COPY_BUFFER_SIZE = 64 * 1024
+  }
+}
@@ -0,0 +1,17 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import java.io.File
+
+data class BackupEntry(
+  val name: String,
+  val file: File,
+  val section: BackupSection,
+  val compress: Boolean
+)
+
+enum class BackupSection {
+  Database,
+  SharedPreferences,
+  Themes,
+  ThreadDownloadsMedia
+}
@@ -0,0 +1,52 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import com.github.k1rakishou.model.util.ChanPostUtils
+
+data class BackupExportReport(
+  val sections: Map<BackupSection, SectionStats>,
+  val totalWrittenBytes: Long,
+  val tookMs: Long,
+  val incremental: Boolean = false
+) {
+
+  val throughputBytesPerSecond: Long
+    get() {
+      val uncompressedBytes = sections.values.sumOf { sectionStats -> sectionStats.uncompressedBytes }
+      return (uncompressedBytes * 1000L) / tookMs.coerceAtLeast(1L)
+    }
+
+  fun formatReport(): String {
+    return buildString {
+      sections.entries
+        .sortedBy { (section, _) -> section.ordinal }
+        .forEach { (section, sectionStats) ->
+          append(section.name)
+          append(": ")
+          append(sectionStats.filesCount)
+          append(" file(s), ")
+          append(ChanPostUtils.getReadableFileSize(sectionStats.uncompressedBytes))
+          append(" -> ")
+          append(ChanPostUtils.getReadableFileSize(sectionStats.writtenBytes))
+          appendLine()
+        }
+
+      append("Total: ")
+      append(ChanPostUtils.getReadableFileSize(totalWrittenBytes))
+      append(" in ")
+      append(tookMs)
+      append("ms (")
+      append(ChanPostUtils.getReadableFileSize(throughputBytesPerSecond))
+      append("/s)")
+
+      if (incremental) {
+        append(", incremental")
+      }
+    }
+  }
+
+  data class SectionStats(
+    val filesCount: Int = 0,
+    val uncompressedBytes: Long = 0L,
+    val writtenBytes: Long = 0L
+  )
+}
@@ -0,0 +1,121 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import com.github.k1rakishou.common.mutableMapWithCap
+import com.github.k1rakishou.core_logger.Logger
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * The list of thread downloads media files (zip entry name, size and last modified time) that were
+ * exported by the previous successful backups into the same destination (see [manifestFileFor]).
+ * Used for incremental backups to only export media that was added or changed since then.
+ * */
+class BackupManifest private constructor(
+  private val entries: Map<String, FileInfo>
+) {
+
+  val size: Int
+    get() = entries.size
+
+  fun isUnchanged(entryName: String, file: File): Boolean {
+    val fileInfo = entries[entryName]
+      ?: return false
+
+    return fileInfo.size == file.length() && fileInfo.lastModified == file.lastModified()
+  }
+
+  fun writeTo(manifestFile: File) {
+    manifestFile.parentFile?.mkdirs()
+    val tmpFile = File(manifestFile.parentFile, manifestFile.name + ".tmp")
+
+    tmpFile.bufferedWriter().use { writer ->
+      writer.write(HEADER)
+      writer.newLine()
+
+      entries.forEach { (entryName, fileInfo) ->
+        writer.write("${fileInfo.size}\t${fileInfo.lastModified}\t${entryName}")
+        writer.newLine()
+      }
+    }
+
+    if (!tmpFile.renameTo(manifestFile)) {
+      tmpFile.delete()
+      Logger.e(TAG, "Failed to rename '${tmpFile.absolutePath}' into '${manifestFile.absolutePath}'")
+    }
+  }
+
+  /**
+   * Returns a new manifest which contains entries of this manifest plus [exportedEntries]. Entries
+   * of files that don't exist anymore (are not in [existingEntryNames]) are removed.
+   * */
+  fun update(exportedEntries: Collection<BackupEntry>, existingEntryNames: Set<String>): BackupManifest {
+    val newEntries = mutableMapWithCap<String, FileInfo>(existingEntryNames.size)
+
+    entries.forEach { (entryName, fileInfo) ->
+      if (entryName in existingEntryNames) {
+        newEntries[entryName] = fileInfo
+      }
+    }
+
+    exportedEntries.forEach { backupEntry ->
+      newEntries[backupEntry.name] = FileInfo(backupEntry.file.length(), backupEntry.file.lastModified())
+    }
+
+    return BackupManifest(newEntries)
+  }
+
+  private data class FileInfo(val size: Long, val lastModified: Long)
+
+  companion object {
+    private const val TAG = "BackupManifest"
+    private const val HEADER = "KurobaExBackupManifest v1"
+
+    val EMPTY = BackupManifest(emptyMap())
+
+    /**
+     * Every backup destination has its own manifest, otherwise an incremental backup would skip
+     * media that was only ever exported somewhere else.
+     * */
+    fun manifestFileFor(manifestsDir: File, destination: String): File {
+      val digest = MessageDigest.getInstance("SHA-1")
+        .digest(destination.toByteArray(Charsets.UTF_8))
+
+      val fileName = digest.joinToString(separator = "") { byte -> "%02x".format(byte) }
+      return File(manifestsDir, "${fileName}.txt")
+    }
+
+    fun readOrEmpty(manifestFile: File): BackupManifest {
+      if (!manifestFile.exists()) {
+        return EMPTY
+      }
+
+      try {
+        val entries = mutableMapWithCap<String, FileInfo>(256)
+
+        manifestFile.bufferedReader().useLines { lines ->
+          lines.forEachIndexed { index, line ->
+            if (index == 0) {
+              check(line == HEADER) { "Unknown manifest header: '$line'" }
+              return@forEachIndexed
+            }
+
+            val parts = line.split('\t', limit = 3)
+            if (parts.size != 3) {
+              return@forEachIndexed
+            }
+
+            val size = parts[0].toLongOrNull() ?: return@forEachIndexed
+            val lastModified = parts[1].toLongOrNull() ?: return@forEachIndexed
+
+            entries[parts[2]] = FileInfo(size, lastModified)
+          }
+        }
+
+        return BackupManifest(entries)
+      } catch (error: Throwable) {
+        Logger.e(TAG, "Failed to read manifest '${manifestFile.absolutePath}'", error)
+        return EMPTY
+      }
+    }
+  }
+}
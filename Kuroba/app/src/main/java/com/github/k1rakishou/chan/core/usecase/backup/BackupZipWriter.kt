@@ -0,0 +1,346 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import java.io.Closeable
+import java.io.IOException
+import java.io.OutputStream
+import java.util.*
+
+/**
+ * A minimal zip writer that, unlike [java.util.zip.ZipOutputStream], accepts already deflated data.
+ * This allows compressing entries (or parts of entries) on multiple threads and then writing them
+ * sequentially. Supports two kinds of entries:
+ * - Stored entries (no compression), crc and size must be known before the entry data is written.
+ * - Deflated entries, the data is raw deflate stream (no zlib header) and the crc/sizes are
+ * written into a data descriptor after the data.
+ *
+ * Zip64 records are written when needed (huge entries, huge archives or too many entries) so that
+ * archives with gigabytes of downloaded media are still readable.
+ *
+ * Not thread-safe.
+ * */
+class BackupZipWriter(outputStream: OutputStream) : Closeable {
+  private val output = CountingOutputStream(outputStream)
+  private val centralDirectoryEntries = mutableListOf<CentralDirectoryEntry>()
+  private val buffer = ByteArray(8)
+
+  private var currentEntry: CentralDirectoryEntry? = null
+  private var currentEntryDataStart = 0L
+  private var finished = false
+
+  val bytesWritten: Long
+    get() = output.count
+
+  fun beginStoredEntry(name: String, lastModified: Long, crc: Long, size: Long) {
+    beginEntry(
+      CentralDirectoryEntry(
+        nameBytes = name.toByteArray(Charsets.UTF_8),
+        method = METHOD_STORED,
+        flags = FLAG_UTF8,
+        dosTime = toDosTime(lastModified),
+        crc = crc,
+        compressedSize = size,
+        size = size
+      )
+    )
+  }
+
+  fun beginDeflatedEntry(name: String, lastModified: Long) {
+    beginEntry(
+      CentralDirectoryEntry(
+        nameBytes = name.toByteArray(Charsets.UTF_8),
+        method = METHOD_DEFLATED,
+        flags = FLAG_UTF8 or FLAG_DATA_DESCRIPTOR,
+        dosTime = toDosTime(lastModified),
+        crc = 0L,
+        compressedSize = 0L,
+        size = 0L
+      )
+    )
+  }
+
+  /**
+   * For stored entries - raw file data, for deflated entries - raw deflate stream data.
+   * */
+  fun writeEntryData(data: ByteArray, offset: Int = 0, length: Int = data.size) {
+    checkNotNull(currentEntry) { "No entry is in progress" }
+    output.write(data, offset, length)
+  }
+
+  /**
+   * [crc] and [size] are only used for deflated entries (for stored entries they are already
+   * known), for stored entries they are checked against the values passed into [beginStoredEntry].
+   * */
+  fun endEntry(crc: Long, size: Long) {
+    val entry = checkNotNull(currentEntry) { "No entry is in progress" }
+    val compressedSize = output.count - currentEntryDataStart
+
+    if (entry.method == METHOD_STORED) {
+      if (entry.size != size || entry.compressedSize != compressedSize || entry.crc != crc) {
+        throw IOException("Stored entry '${String(entry.nameBytes, Charsets.UTF_8)}' has changed " +
+          "while being written (expected size=${entry.size}, crc=${entry.crc}, " +
+          "actual size=${compressedSize}, crc=${crc})")
+      }
+    } else {
+      entry.crc = crc
+      entry.size = size
+      entry.compressedSize = compressedSize
+
+      writeInt(DATA_DESCRIPTOR_SIGNATURE)
+      writeInt(crc)
+
+      // ZipInputStream expects the zip64 form of the descriptor only when the sizes don't fit
+      // into 32 bits
+      if (compressedSize > ZIP64_MAGIC || size > ZIP64_MAGIC) {
+        writeLong(compressedSize)
+        writeLong(size)
+      } else {
+        writeInt(compressedSize)
+        writeInt(size)
+      }
+    }
+
+    centralDirectoryEntries += entry
+    currentEntry = null
+  }
+
+  fun finish() {
+    if (finished) {
+      return
+    }
+
+    check(currentEntry == null) { "An entry is still in progress" }
+    finished = true
+
+    val centralDirectoryStart = output.count
+
+    for (entry in centralDirectoryEntries) {
+      writeCentralDirectoryEntry(entry)
+    }
+
+    val centralDirectoryEnd = output.count
+    val centralDirectorySize = centralDirectoryEnd - centralDirectoryStart
+    val entriesCount = centralDirectoryEntries.size.toLong()
+
+    val needZip64 = entriesCount >= ZIP64_MAGIC_COUNT
+      || centralDirectoryStart >= ZIP64_MAGIC
+      || centralDirectorySize >= ZIP64_MAGIC
+
+    if (needZip64) {
+      // Zip64 end of central directory record
+      writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+      writeLong(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE)
+      writeShort(VERSION_ZIP64)
+      writeShort(VERSION_ZIP64)
+      writeInt(0)
+      writeInt(0)
+      writeLong(entriesCount)
+      writeLong(entriesCount)
+      writeLong(centralDirectorySize)
+      writeLong(centralDirectoryStart)
+
+      // Zip64 end of central directory locator
+      writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE)
+      writeInt(0)
+      writeLong(centralDirectoryEnd)
+      writeInt(1)
+    }
+
+    writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+    writeShort(0)
+    writeShort(0)
+    writeShort(entriesCount.coerceAtMost(ZIP64_MAGIC_COUNT).toInt())
+    writeShort(entriesCount.coerceAtMost(ZIP64_MAGIC_COUNT).toInt())
+    writeInt(centralDirectorySize.coerceAtMost(ZIP64_MAGIC))
+    writeInt(centralDirectoryStart.coerceAtMost(ZIP64_MAGIC))
+    writeShort(0)
+
+    output.flush()
+  }
+
+  override fun close() {
+    try {
+      if (currentEntry == null) {
+        finish()
+      }
+    } finally {
+      output.close()
+    }
+  }
+
+  private fun beginEntry(entry: CentralDirectoryEntry) {
+    check(!finished) { "Already finished" }
+    check(currentEntry == null) { "Previous entry was not ended" }
+
+    entry.localHeaderOffset = output.count
+
+    // Only stored entries can be huge here, for deflated entries the sizes are in the data
+    // descriptor
+    val zip64 = entry.method == METHOD_STORED && entry.size >= ZIP64_MAGIC
+
+    writeInt(LOCAL_FILE_HEADER_SIGNATURE)
+    writeShort(if (zip64) VERSION_ZIP64 else VERSION_DEFAULT)
+    writeShort(entry.flags)
+    writeShort(entry.method)
+    writeInt(entry.dosTime)
+    writeInt(entry.crc)
+
+    if (zip64) {
+      writeInt(ZIP64_MAGIC)
+      writeInt(ZIP64_MAGIC)
+    } else {
+      writeInt(entry.compressedSize)
+      writeInt(entry.size)
+    }
+
+    writeShort(entry.nameBytes.size)
+    writeShort(if (zip64) 20 else 0)
+    output.write(entry.nameBytes)
+
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_ID)
+      writeShort(16)
+      writeLong(entry.size)
+      writeLong(entry.compressedSize)
+    }
+
+    currentEntry = entry
+    currentEntryDataStart = output.count
+  }
+
+  private fun writeCentralDirectoryEntry(entry: CentralDirectoryEntry) {
+    val sizeZip64 = entry.size >= ZIP64_MAGIC
+    val compressedSizeZip64 = entry.compressedSize >= ZIP64_MAGIC
+    val offsetZip64 = entry.localHeaderOffset >= ZIP64_MAGIC
+
+    var extraSize = 0
+    if (sizeZip64) extraSize += 8
+    if (compressedSizeZip64) extraSize += 8
+    if (offsetZip64) extraSize += 8
+
+    val zip64 = extraSize > 0
+
+    writeInt(CENTRAL_DIRECTORY_SIGNATURE)
+    writeShort(VERSION_ZIP64)
+    writeShort(if (zip64) VERSION_ZIP64 else VERSION_DEFAULT)
+    writeShort(entry.flags)
+    writeShort(entry.method)
+    writeInt(entry.dosTime)
+    writeInt(entry.crc)
+    writeInt(if (compressedSizeZip64) ZIP64_MAGIC else entry.compressedSize)
+    writeInt(if (sizeZip64) ZIP64_MAGIC else entry.size)
+    writeShort(entry.nameBytes.size)
+    writeShort(if (zip64) extraSize + 4 else 0)
+    writeShort(0)
+    writeShort(0)
+    writeShort(0)
+    writeInt(0)
+    writeInt(if (offsetZip64) ZIP64_MAGIC else entry.localHeaderOffset)
+    output.write(entry.nameBytes)
+
+    if (zip64) {
+      // The order of the fields is fixed by the spec
+      writeShort(ZIP64_EXTRA_ID)
+      writeShort(extraSize)
+      if (sizeZip64) writeLong(entry.size)
+      if (compressedSizeZip64) writeLong(entry.compressedSize)
+      if (offsetZip64) writeLong(entry.localHeaderOffset)
+    }
+  }
+
+  private fun writeShort(value: Int) {
+    buffer[0] = (value and 0xFF).toByte()
+    buffer[1] = ((value ushr 8) and 0xFF).toByte()
+    output.write(buffer, 0, 2)
+  }
+
+  private fun writeInt(value: Long) {
+    for (index in 0 until 4) {
+      buffer[index] = ((value ushr (index * 8)) and 0xFF).toByte()
+    }
+
+    output.write(buffer, 0, 4)
+  }
+
+  private fun writeLong(value: Long) {
+    for (index in 0 until 8) {
+      buffer[index] = ((value ushr (index * 8)) and 0xFF).toByte()
+    }
+
+    output.write(buffer, 0, 8)
+  }
+
+  private class CentralDirectoryEntry(
+    val nameBytes: ByteArray,
+    val method: Int,
+    val flags: Int,
+    val dosTime: Long,
+    var crc: Long,
+    var compressedSize: Long,
+    var size: Long,
+    var localHeaderOffset: Long = 0L
+  )
+
+  private class CountingOutputStream(private val delegate: OutputStream) : OutputStream() {
+    var count = 0L
+      private set
+
+    override fun write(b: Int) {
+      delegate.write(b)
+      ++count
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      delegate.write(b, off, len)
+      count += len
+    }
+
+    override fun flush() {
+      delegate.flush()
+    }
+
+    override fun close() {
+      delegate.close()
+    }
+  }
+
+  companion object {
+    private const val LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50L
+    private const val DATA_DESCRIPTOR_SIGNATURE = 0x08074b50L
+    private const val CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50L
+    private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50L
+    private const val ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50L
+    private const val ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50L
+    private const val ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 44L
+
+    private const val ZIP64_MAGIC = 0xFFFFFFFFL
+    private const val ZIP64_MAGIC_COUNT = 0xFFFFL
+    private const val ZIP64_EXTRA_ID = 0x0001
+
+    private const val VERSION_DEFAULT = 20
+    private const val VERSION_ZIP64 = 45
+
+    private const val METHOD_STORED = 0
+    private const val METHOD_DEFLATED = 8
+
+    private const val FLAG_DATA_DESCRIPTOR = 1 shl 3
+    private const val FLAG_UTF8 = 1 shl 11
+
+    private fun toDosTime(millis: Long): Long {
+      val calendar = Calendar.getInstance()
+      calendar.timeInMillis = millis
+
+      val year = calendar.get(Calendar.YEAR)
+      if (year < 1980) {
+        // 1980-01-01 00:00:00
+        return (1L shl 21) or (1L shl 16)
+      }
+
+      return ((year - 1980).toLong() shl 25) or
+        ((calendar.get(Calendar.MONTH) + 1).toLong() shl 21) or
+        (calendar.get(Calendar.DAY_OF_MONTH).toLong() shl 16) or
+        (calendar.get(Calendar.HOUR_OF_DAY).toLong() shl 11) or
+        (calendar.get(Calendar.MINUTE).toLong() shl 5) or
+        (calendar.get(Calendar.SECOND).toLong() shr 1)
+    }
+  }
+}
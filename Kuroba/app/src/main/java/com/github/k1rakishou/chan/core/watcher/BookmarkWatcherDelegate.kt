@@ -239,6 +239,17 @@ class BookmarkWatcherDelegate(
   }
 
   private suspend fun processSuccessFetchResults(successFetchResults: List<ThreadBookmarkFetchResult.Success>) {
+    val firstFetchThreadDescriptors = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val fetchedThreadDescriptors = successFetchResults.map { fetchResult -> fetchResult.threadDescriptor }
+
+    bookmarksManager.viewBookmarks(fetchedThreadDescriptors) { threadBookmarkView ->
+      if (threadBookmarkView.isFirstFetch()) {
+        firstFetchThreadDescriptors += threadBookmarkView.threadDescriptor
+      }
+    }
+
+    // Newly created bookmarks have no replies stored yet so all of their posts have to be scanned
+    parsePostRepliesUseCase.get().resetProcessedThreads(firstFetchThreadDescriptors)
     val postsQuotingMe = parsePostRepliesUseCase.get().execute(successFetchResults)
 
     val fetchResultPairsList = successFetchResults.map { fetchResult ->
@@ -309,6 +320,10 @@ class BookmarkWatcherDelegate(
       threadBookmark.seenPostsCount = threadBookmarkInfoObject.countAmountOfSeenPosts(lastViewedPostNo)
     }
 
+    // Only replies from the posts that were not processed yet are returned by
+    // ParsePostRepliesUseCase so the already existing replies are updated here
+    threadBookmark.readRepliesUpTo(lastViewedPostNo)
+
     quotesToMeMap.forEach { (myPostNo, replyToMyPostList) ->
       replyToMyPostList.forEach { replyToMyPost ->
         createOrUpdateReplyToMyPosts(
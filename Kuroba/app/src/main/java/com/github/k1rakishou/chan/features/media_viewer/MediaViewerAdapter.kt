@@ -54,6 +54,8 @@ class MediaViewerAdapter(
     get() = _lastViewedMediaPosition
   val totalViewableMediaCount: Int
     get() = viewableMediaList.size
+  val viewableMedia: List<ViewableMedia>
+    get() = viewableMediaList
 
   suspend fun awaitUntilPreviewThumbnailFullyLoaded() {
     Logger.d(TAG, "awaitUntilPreviewThumbnailFullyLoaded()...")
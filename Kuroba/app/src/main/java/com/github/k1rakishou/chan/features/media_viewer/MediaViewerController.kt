@@ -13,6 +13,8 @@ import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.controller.Controller
 import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.di.component.activity.ActivityComponent
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
@@ -34,6 +36,8 @@ import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerGoToPo
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerMenuHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerOpenAlbumHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerOpenThreadHelper
+import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerPrefetchWindow
+import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerPrefetcher
 import com.github.k1rakishou.chan.features.media_viewer.helper.MediaViewerScrollerHelper
 import com.github.k1rakishou.chan.features.media_viewer.helper.ViewPagerAutoSwiper
 import com.github.k1rakishou.chan.features.media_viewer.media_view.MediaViewContract
@@ -125,9 +129,14 @@ class MediaViewerController(
   lateinit var mediaViewerGoToPostHelper: MediaViewerGoToPostHelper
   @Inject
   lateinit var mediaViewerOpenThreadHelper: MediaViewerOpenThreadHelper
+  @Inject
+  lateinit var fileCacheV2: FileCacheV2
+  @Inject
+  lateinit var cacheHandler: CacheHandler
 
   private var chanDescriptor: ChanDescriptor? = null
   private var autoSwipeJob: Job? = null
+  private var mediaViewerPrefetcher: MediaViewerPrefetcher? = null
   private var lifecycleChange = false
 
   override val viewerChanDescriptor: ChanDescriptor?
@@ -370,6 +379,8 @@ class MediaViewerController(
     globalWindowInsetsManager.removeInsetsUpdatesListener(this)
 
     mediaViewerAdapter?.onDestroy()
+    mediaViewerPrefetcher?.onDestroy()
+    mediaViewerPrefetcher = null
     mediaLongClickMenuHelper.onDestroy()
     mediaViewerToolbar.onDestroy()
 
@@ -406,6 +417,8 @@ class MediaViewerController(
 
       adapter.doBind(position)
       viewModel.updateLastViewedIndex(position)
+
+      mediaViewerPrefetcher?.onPageSelected(position, adapter.viewableMedia)
     }
   }
 
@@ -761,6 +774,10 @@ class MediaViewerController(
     onPageSelected(pagerPosition)
   }
 
+  override fun onFullMediaDisplayed(viewableMedia: ViewableMedia) {
+    mediaViewerPrefetcher?.onFullMediaDisplayed(viewableMedia)
+  }
+
   fun onSystemUiVisibilityChanged(systemUIHidden: Boolean) {
     mediaViewerAdapter?.onSystemUiVisibilityChanged(systemUIHidden)
   }
@@ -785,6 +802,24 @@ class MediaViewerController(
       ?.mediaLocation
       ?: return
 
+    val cacheDataSourceFactory = createCacheDataSourceFactory(mediaViewerState.loadedMedia)
+    val prefetchItemsAhead = ChanSettings.mediaViewerPrefetchItemsAheadCount()
+
+    if (prefetchItemsAhead > 0) {
+      val prefetchWindow = MediaViewerPrefetchWindow(
+        itemsAhead = prefetchItemsAhead,
+        skipNearest = MediaViewerControllerViewModel.offscreenPageLimit()
+      )
+
+      mediaViewerPrefetcher = MediaViewerPrefetcher(
+        scope = mainScope,
+        fileCacheV2 = fileCacheV2,
+        cacheHandler = cacheHandler,
+        cacheDataSourceFactory = cacheDataSourceFactory,
+        prefetchWindow = prefetchWindow
+      )
+    }
+
     val adapter = MediaViewerAdapter(
       context = context,
       appConstants = appConstants,
@@ -795,7 +830,7 @@ class MediaViewerController(
       viewableMediaList = mediaViewerState.loadedMedia,
       previewThumbnailLocation = previewThumbnailLocation,
       mediaViewerScrollerHelper = mediaViewerScrollerHelper,
-      cachedHttpDataSourceFactory = createCacheDataSourceFactory(mediaViewerState.loadedMedia),
+      cachedHttpDataSourceFactory = cacheDataSourceFactory,
       fileDataSourceFactory = FileDataSource.Factory(),
       contentDataSourceFactory = DataSource.Factory { ContentDataSource(context) },
       chan4CloudFlareImagePreloaderManager = chan4CloudFlareImagePreloaderManager,
@@ -820,7 +855,7 @@ class MediaViewerController(
         "initialPagerIndex=${mediaViewerState.initialPagerIndex}")
   }
 
-  private fun createCacheDataSourceFactory(viewableMedia: List<ViewableMedia>): DataSource.Factory {
+  private fun createCacheDataSourceFactory(viewableMedia: List<ViewableMedia>): CacheDataSource.Factory {
     val defaultDataSourceFactory = DefaultHttpDataSource.Factory()
       .setDefaultRequestProperties(createRequestProperties(viewableMedia))
 
@@ -128,6 +128,15 @@ class MediaViewerMenuHelper(
       enabled = !ChanSettings.isLowRamDevice()
     )
 
+    options += FloatingListMenuItem(
+      key = ACTION_PREFETCH_ITEMS_AHEAD_SETTING,
+      name = getString(
+        R.string.setting_media_viewer_prefetch_items_ahead_count,
+        ChanSettings.mediaViewerPrefetchItemsAheadCount()
+      ),
+      enabled = !ChanSettings.isLowRamDevice()
+    )
+
     options += FloatingListMenuItem(
       key = ACTION_REORDER_MEDIA_VIEWER_ACTIONS,
       name = getString(R.string.setting_media_viewer_reorder_actions)
@@ -194,6 +203,9 @@ class MediaViewerMenuHelper(
       ACTION_MAX_OFFSCREEN_PAGES_SETTING -> {
         showMediaViewerOffscreenPagesSelector(context)
       }
+      ACTION_PREFETCH_ITEMS_AHEAD_SETTING -> {
+        showMediaViewerPrefetchItemsAheadSelector(context)
+      }
       ACTION_REORDER_MEDIA_VIEWER_ACTIONS -> {
         val reorderableMediaViewerActions = PersistableChanState.reorderableMediaViewerActions.get()
 
@@ -264,6 +276,39 @@ class MediaViewerMenuHelper(
     presentControllerFunc(floatingListMenuController)
   }
 
+  private fun showMediaViewerPrefetchItemsAheadSelector(context: Context) {
+    val options = mutableListOf<FloatingListMenuItem>()
+    val groupId = "media_viewer_prefetch_items_ahead_selector"
+    val currentCount = ChanSettings.mediaViewerPrefetchItemsAheadCount()
+
+    PREFETCH_ITEMS_AHEAD_OPTIONS.forEach { count ->
+      val name = if (count == 0) {
+        getString(R.string.setting_media_viewer_prefetch_disabled)
+      } else {
+        getString(R.string.setting_media_viewer_prefetch_items_ahead, count)
+      }
+
+      options += CheckableFloatingListMenuItem(
+        key = count,
+        name = name,
+        groupId = groupId,
+        isCurrentlySelected = currentCount == count
+      )
+    }
+
+    val floatingListMenuController = FloatingListMenuController(
+      context,
+      globalWindowInsetsManager.lastTouchCoordinatesAsConstraintLayoutBias(),
+      options,
+      itemClickListener = { clickedItem ->
+        ChanSettings.mediaViewerPrefetchItemsAhead.set(clickedItem.key as Int)
+        showToastFunc(R.string.restart_the_media_viewer)
+      }
+    )
+
+    presentControllerFunc(floatingListMenuController)
+  }
+
   companion object {
     const val ACTION_ALLOW_IMAGE_TRANSPARENCY = 100
     const val ACTION_AUTO_REVEAL_SPOILERS = 101
@@ -280,9 +325,12 @@ class MediaViewerMenuHelper(
     const val ACTION_PAUSE_PLAYERS_WHEN_IN_BG = 112
     const val ACTION_VIEW_PAGER_AUTO_SWIPE = 113
     const val ACTION_REORDER_MEDIA_VIEWER_ACTIONS = 114
+    const val ACTION_PREFETCH_ITEMS_AHEAD_SETTING = 115
 
     const val ACTION_MEDIA_VIEWER_ONE_OFFSCREEN_PAGE = 200
     const val ACTION_MEDIA_VIEWER_TWO_OFFSCREEN_PAGES = 201
+
+    private val PREFETCH_ITEMS_AHEAD_OPTIONS = listOf(0, 3, 6, 10)
   }
 
 }
\ No newline at end of file
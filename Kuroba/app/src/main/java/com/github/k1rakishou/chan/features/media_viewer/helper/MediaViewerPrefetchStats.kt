@@ -0,0 +1,89 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+/**
+ * Counters of a single [MediaViewerPrefetcher] session (from the moment the media viewer is opened
+ * until it's closed): how many prefetches were started, how many of them were eventually viewed,
+ * how many bytes were downloaded for nothing and how long it takes to display the full media after
+ * a page is selected, separately for prefetched and not prefetched media.
+ * */
+class MediaViewerPrefetchStats {
+  private var started = 0
+  private var used = 0
+  private var usedCompleted = 0
+  private var usedBytes = 0L
+  private var canceled = 0
+  private var wasted = 0
+  private var wastedBytes = 0L
+  private var overBudget = 0
+
+  private val firstFrameTimings = FirstFrameTimings()
+  private val prefetchedFirstFrameTimings = FirstFrameTimings()
+
+  fun onStarted() {
+    ++started
+  }
+
+  /**
+   * [completed] is false when the page was reached before the prefetch had finished.
+   * */
+  fun onUsed(estimatedBytes: Long, completed: Boolean) {
+    ++used
+    usedBytes += estimatedBytes
+
+    if (completed) {
+      ++usedCompleted
+    }
+  }
+
+  fun onCanceled() {
+    ++canceled
+  }
+
+  fun onWasted(bytes: Long) {
+    ++wasted
+    wastedBytes += bytes
+  }
+
+  fun onOverBudget() {
+    ++overBudget
+  }
+
+  fun onFirstFrame(tookMs: Long, prefetched: Boolean) {
+    if (prefetched) {
+      prefetchedFirstFrameTimings.add(tookMs)
+    } else {
+      firstFrameTimings.add(tookMs)
+    }
+  }
+
+  fun format(): String {
+    return buildString {
+      append("MediaViewerPrefetchStats{")
+      append("started=${started}, ")
+      append("used=${used} (completed=${usedCompleted}, bytes=${usedBytes}), ")
+      append("canceled=${canceled}, ")
+      append("wasted=${wasted} (bytes=${wastedBytes}), ")
+      append("overBudget=${overBudget}, ")
+      append("firstFrame=${firstFrameTimings}, ")
+      append("prefetchedFirstFrame=${prefetchedFirstFrameTimings}}")
+    }
+  }
+
+  private class FirstFrameTimings {
+    private var count = 0
+    private var totalMs = 0L
+    private var maxMs = 0L
+
+    fun add(tookMs: Long) {
+      ++count
+      totalMs += tookMs
+      maxMs = maxOf(maxMs, tookMs)
+    }
+
+    override fun toString(): String {
+      val averageMs = if (count > 0) totalMs / count else 0L
+      return "(count=${count}, averageMs=${averageMs}, maxMs=${maxMs})"
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import kotlin.math.abs
+
+/**
+ * Decides which media viewer pages should be prefetched after a page is selected. Tracks the
+ * direction in which the user swipes and how fast and returns the pages ahead of the current one
+ * in that direction, nearest first. When the user swipes fast the window is extended (up to
+ * [maxItemsAhead]) so that prefetching has a chance to keep up.
+ *
+ * Pages closer than [skipNearest] to the current page are not returned because the ViewPager
+ * already instantiates (and preloads) them.
+ * */
+class MediaViewerPrefetchWindow(
+  private val itemsAhead: Int,
+  private val maxItemsAhead: Int = itemsAhead * 2,
+  private val skipNearest: Int,
+  private val fastSwipeIntervalMs: Long = DEFAULT_FAST_SWIPE_INTERVAL_MS
+) {
+  private var lastPosition = -1
+  private var lastSelectedAt = 0L
+  private var averageSwipeIntervalMs = Long.MAX_VALUE
+
+  var direction: Int = FORWARD
+    private set
+
+  fun onPageSelected(position: Int, itemsCount: Int, now: Long): List<Int> {
+    if (lastPosition >= 0 && position != lastPosition) {
+      direction = if (position > lastPosition) FORWARD else BACKWARD
+
+      // Jumping over multiple pages (e.g. when scrolling to a post) is not a swipe
+      if (abs(position - lastPosition) == 1) {
+        val interval = now - lastSelectedAt
+
+        averageSwipeIntervalMs = if (averageSwipeIntervalMs == Long.MAX_VALUE) {
+          interval
+        } else {
+          (averageSwipeIntervalMs + interval) / 2
+        }
+      } else {
+        averageSwipeIntervalMs = Long.MAX_VALUE
+      }
+    }
+
+    lastPosition = position
+    lastSelectedAt = now
+
+    val count = currentItemsAhead()
+    if (count <= 0) {
+      return emptyList()
+    }
+
+    val result = ArrayList<Int>(count)
+
+    for (offset in (skipNearest + 1)..(skipNearest + count)) {
+      val index = position + (offset * direction)
+      if (index < 0 || index >= itemsCount) {
+        break
+      }
+
+      result += index
+    }
+
+    return result
+  }
+
+  /**
+   * Whether [index] is one of the pages the ViewPager keeps instantiated around [position].
+   * */
+  fun isNearest(position: Int, index: Int): Boolean {
+    return abs(position - index) <= skipNearest
+  }
+
+  private fun currentItemsAhead(): Int {
+    if (itemsAhead <= 0) {
+      return 0
+    }
+
+    if (averageSwipeIntervalMs < fastSwipeIntervalMs) {
+      return maxItemsAhead
+    }
+
+    return itemsAhead
+  }
+
+  companion object {
+    const val FORWARD = 1
+    const val BACKWARD = -1
+
+    private const val DEFAULT_FAST_SWIPE_INTERVAL_MS = 700L
+  }
+
+}
@@ -0,0 +1,379 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import android.net.Uri
+import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.FileCacheListener
+import com.github.k1rakishou.chan.core.cache.FileCacheV2
+import com.github.k1rakishou.chan.core.cache.downloader.CancelableDownload
+import com.github.k1rakishou.chan.core.cache.downloader.DownloadRequestExtraInfo
+import com.github.k1rakishou.chan.features.media_viewer.MediaLocation
+import com.github.k1rakishou.chan.features.media_viewer.MediaViewerControllerViewModel
+import com.github.k1rakishou.chan.features.media_viewer.ViewableMedia
+import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.core_logger.Logger
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource
+import com.google.android.exoplayer2.upstream.cache.CacheWriter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * Prefetches media viewer pages ahead of the current one (in the direction the user is swiping)
+ * beyond the pages that the ViewPager instantiates itself. Images and GIFs are downloaded into the
+ * [CacheHandler] file cache, for videos only the first [VIDEO_HEAD_BYTES] are written into the
+ * ExoPlayer cache so that playback can start right away.
+ *
+ * The total estimated size of the prefetched pages never exceeds [byteBudget]. Prefetches of pages
+ * that fall out of the window are canceled and their bytes are released from the budget.
+ *
+ * Must only be used from the main thread.
+ * */
+class MediaViewerPrefetcher(
+  private val scope: CoroutineScope,
+  private val fileCacheV2: FileCacheV2,
+  private val cacheHandler: CacheHandler,
+  private val cacheDataSourceFactory: CacheDataSource.Factory,
+  private val prefetchWindow: MediaViewerPrefetchWindow,
+  private val byteBudget: Long = DEFAULT_BYTE_BUDGET
+) {
+  private val prefetchTasks = mutableMapOf<Int, PrefetchTask>()
+  // Media that was fully prefetched, used to tell apart first frame timings of prefetched media
+  private val prefetchedMedia = mutableSetOf<MediaLocation>()
+  private val stats = MediaViewerPrefetchStats()
+
+  private var pendingFirstFrame: PendingFirstFrame? = null
+
+  fun onPageSelected(position: Int, viewableMediaList: List<ViewableMedia>) {
+    BackgroundUtils.ensureMainThread()
+
+    val now = System.currentTimeMillis()
+
+    val selectedViewableMedia = viewableMediaList.getOrNull(position)
+    if (selectedViewableMedia != null) {
+      pendingFirstFrame = PendingFirstFrame(
+        mediaLocation = selectedViewableMedia.mediaLocation,
+        selectedAt = now,
+        prefetched = selectedViewableMedia.mediaLocation in prefetchedMedia
+      )
+    }
+
+    val window = prefetchWindow.onPageSelected(position, viewableMediaList.size, now)
+    val windowSet = window.toSet()
+
+    val iterator = prefetchTasks.entries.iterator()
+    while (iterator.hasNext()) {
+      val (index, prefetchTask) = iterator.next()
+
+      if (prefetchWindow.isNearest(position, index)) {
+        // The ViewPager page of this media now exists (or is about to be created) and it will
+        // resubscribe to the download (if it's still running) so we don't need to track it anymore.
+        stats.onUsed(prefetchTask.estimatedBytes, prefetchTask.state == TaskState.Completed)
+        iterator.remove()
+        continue
+      }
+
+      if (index in windowSet) {
+        continue
+      }
+
+      if (prefetchTask.state == TaskState.Running) {
+        prefetchTask.cancel()
+        stats.onCanceled()
+      } else if (prefetchTask.state == TaskState.Completed) {
+        stats.onWasted(prefetchTask.downloadedBytes)
+        prefetchedMedia.remove(prefetchTask.mediaLocation)
+      }
+
+      iterator.remove()
+    }
+
+    if (window.isEmpty()) {
+      return
+    }
+
+    var budgetUsed = prefetchTasks.values.sumOf { prefetchTask -> prefetchTask.estimatedBytes }
+
+    for (index in window) {
+      if (prefetchTasks.containsKey(index)) {
+        continue
+      }
+
+      val viewableMedia = viewableMediaList.getOrNull(index)
+        ?: continue
+
+      val estimatedBytes = estimatePrefetchBytes(viewableMedia)
+        ?: continue
+
+      if (budgetUsed + estimatedBytes > byteBudget) {
+        // Pages are sorted by priority, no point in checking the rest
+        stats.onOverBudget()
+        break
+      }
+
+      val prefetchTask = startPrefetching(index, viewableMedia, estimatedBytes)
+        ?: continue
+
+      prefetchTasks[index] = prefetchTask
+      budgetUsed += estimatedBytes
+      stats.onStarted()
+    }
+  }
+
+  /**
+   * Called by the media views once the full media (the full image, the first GIF frame or the first
+   * video frame) is displayed.
+   * */
+  fun onFullMediaDisplayed(viewableMedia: ViewableMedia) {
+    BackgroundUtils.ensureMainThread()
+
+    val pending = pendingFirstFrame
+      ?: return
+
+    if (pending.mediaLocation != viewableMedia.mediaLocation) {
+      return
+    }
+
+    pendingFirstFrame = null
+    stats.onFirstFrame(System.currentTimeMillis() - pending.selectedAt, pending.prefetched)
+  }
+
+  fun onDestroy() {
+    BackgroundUtils.ensureMainThread()
+
+    prefetchTasks.values.forEach { prefetchTask ->
+      when (prefetchTask.state) {
+        TaskState.Running -> {
+          prefetchTask.cancel()
+          stats.onCanceled()
+        }
+        TaskState.Completed -> stats.onWasted(prefetchTask.downloadedBytes)
+        TaskState.Failed -> {
+          // no-op
+        }
+      }
+    }
+
+    prefetchTasks.clear()
+    prefetchedMedia.clear()
+    pendingFirstFrame = null
+
+    Logger.d(TAG, stats.format())
+  }
+
+  private fun estimatePrefetchBytes(viewableMedia: ViewableMedia): Long? {
+    val mediaLocation = viewableMedia.mediaLocation as? MediaLocation.Remote
+      ?: return null
+
+    val mediaSize = viewableMedia.viewableMediaMeta.mediaSize
+      ?.takeIf { size -> size > 0 }
+
+    return when (viewableMedia) {
+      is ViewableMedia.Image,
+      is ViewableMedia.Gif -> {
+        if (cacheHandler.cacheFileExists(CacheFileType.PostMediaFull, mediaLocation.url.toString())) {
+          return null
+        }
+
+        if (!canAutoLoad(viewableMedia)) {
+          return null
+        }
+
+        mediaSize ?: DEFAULT_IMAGE_SIZE_ESTIMATE
+      }
+      is ViewableMedia.Video -> {
+        if (ChanSettings.useMpvVideoPlayer.get()) {
+          // Mpv doesn't use the ExoPlayer cache
+          return null
+        }
+
+        if (!canAutoLoad(viewableMedia)) {
+          return null
+        }
+
+        minOf(mediaSize ?: VIDEO_HEAD_BYTES, VIDEO_HEAD_BYTES)
+      }
+      is ViewableMedia.Audio,
+      is ViewableMedia.Unsupported -> null
+    }
+  }
+
+  private fun canAutoLoad(viewableMedia: ViewableMedia): Boolean {
+    return MediaViewerControllerViewModel.canAutoLoad(
+      cacheHandler = cacheHandler,
+      viewableMedia = viewableMedia,
+      cacheFileType = CacheFileType.PostMediaFull
+    )
+  }
+
+  private fun startPrefetching(index: Int, viewableMedia: ViewableMedia, estimatedBytes: Long): PrefetchTask? {
+    val mediaLocation = viewableMedia.mediaLocation as? MediaLocation.Remote
+      ?: return null
+
+    return when (viewableMedia) {
+      is ViewableMedia.Image,
+      is ViewableMedia.Gif -> startFilePrefetching(index, viewableMedia, mediaLocation, estimatedBytes)
+      is ViewableMedia.Video -> startVideoHeadPrefetching(index, mediaLocation, estimatedBytes)
+      is ViewableMedia.Audio,
+      is ViewableMedia.Unsupported -> null
+    }
+  }
+
+  private fun startFilePrefetching(
+    index: Int,
+    viewableMedia: ViewableMedia,
+    mediaLocation: MediaLocation.Remote,
+    estimatedBytes: Long
+  ): PrefetchTask {
+    val prefetchTask = PrefetchTask(mediaLocation, estimatedBytes)
+
+    val extraInfo = DownloadRequestExtraInfo(
+      fileSize = viewableMedia.viewableMediaMeta.mediaSize ?: -1,
+      fileHash = viewableMedia.viewableMediaMeta.mediaHash
+    )
+
+    prefetchTask.cancelableDownload = fileCacheV2.enqueueDownloadFileRequest(
+      url = mediaLocation.url,
+      cacheFileType = CacheFileType.PostMediaFull,
+      extraInfo = extraInfo,
+      callback = object : FileCacheListener() {
+        override fun onSuccess(file: File) {
+          BackgroundUtils.ensureMainThread()
+          onPrefetchCompleted(prefetchTask, file.length())
+        }
+
+        override fun onNotFound() {
+          BackgroundUtils.ensureMainThread()
+          prefetchTask.onFailed()
+        }
+
+        override fun onFail(exception: Exception) {
+          BackgroundUtils.ensureMainThread()
+          Logger.e(TAG, "Failed to prefetch ${index} ('${mediaLocation.url}'), " +
+            "error: ${exception.errorMessageOrClassName()}")
+
+          prefetchTask.onFailed()
+        }
+      }
+    )
+
+    return prefetchTask
+  }
+
+  private fun startVideoHeadPrefetching(
+    index: Int,
+    mediaLocation: MediaLocation.Remote,
+    estimatedBytes: Long
+  ): PrefetchTask? {
+    val uri = Uri.parse(mediaLocation.url.toString())
+
+    val dataSpec = DataSpec.Builder()
+      .setUri(uri)
+      .setPosition(0)
+      .setLength(estimatedBytes)
+      .build()
+
+    val cache = cacheDataSourceFactory.cache
+      ?: return null
+
+    if (cache.isCached(uri.toString(), 0, estimatedBytes)) {
+      return null
+    }
+
+    val prefetchTask = PrefetchTask(mediaLocation, estimatedBytes)
+    val cacheWriter = CacheWriter(cacheDataSourceFactory.createDataSourceForDownloading(), dataSpec, null, null)
+
+    prefetchTask.cacheWriter = cacheWriter
+    prefetchTask.job = scope.launch {
+      try {
+        withContext(Dispatchers.IO) { cacheWriter.cache() }
+        onPrefetchCompleted(prefetchTask, estimatedBytes)
+      } catch (error: Throwable) {
+        prefetchTask.onFailed()
+
+        if (error is CancellationException || prefetchTask.canceled) {
+          return@launch
+        }
+
+        Logger.e(TAG, "Failed to prefetch video head ${index} ('${mediaLocation.url}'), " +
+          "error: ${error.errorMessageOrClassName()}")
+      }
+    }
+
+    return prefetchTask
+  }
+
+  private fun onPrefetchCompleted(prefetchTask: PrefetchTask, downloadedBytes: Long) {
+    if (prefetchTask.canceled) {
+      return
+    }
+
+    prefetchTask.onCompleted(downloadedBytes)
+    prefetchedMedia += prefetchTask.mediaLocation
+  }
+
+  private class PrefetchTask(
+    val mediaLocation: MediaLocation,
+    val estimatedBytes: Long
+  ) {
+    var cancelableDownload: CancelableDownload? = null
+    var cacheWriter: CacheWriter? = null
+    var job: Job? = null
+
+    var state: TaskState = TaskState.Running
+      private set
+    var downloadedBytes: Long = 0L
+      private set
+    var canceled: Boolean = false
+      private set
+
+    fun onCompleted(bytes: Long) {
+      if (state == TaskState.Running) {
+        state = TaskState.Completed
+        downloadedBytes = bytes
+      }
+    }
+
+    fun onFailed() {
+      if (state == TaskState.Running) {
+        state = TaskState.Failed
+      }
+    }
+
+    fun cancel() {
+      canceled = true
+
+      cancelableDownload?.cancel()
+      cacheWriter?.cancel()
+      job?.cancel()
+    }
+  }
+
+  private enum class TaskState {
+    Running,
+    Completed,
+    Failed
+  }
+
+  private class PendingFirstFrame(
+    val mediaLocation: MediaLocation,
+    val selectedAt: Long,
+    val prefetched: Boolean
+  )
+
+  companion object {
+    private const val TAG = "MediaViewerPrefetcher"
+
+    private const val DEFAULT_BYTE_BUDGET = 48L * 1024 * 1024
+    private const val DEFAULT_IMAGE_SIZE_ESTIMATE = 1L * 1024 * 1024
+    private const val VIDEO_HEAD_BYTES = 1L * 1024 * 1024
+  }
+
+}
@@ -488,6 +488,8 @@ class ExoPlayerVideoMediaView(
       }
     }
 
+    mediaViewContract.onFullMediaDisplayed(viewableMedia)
+
     actualVideoPlayerView.useArtwork = mainVideoPlayer.hasNoVideo()
     if (actualVideoPlayerView.useArtwork) {
       actualVideoPlayerView.defaultArtwork = mediaViewContract.defaultArtworkDrawable()
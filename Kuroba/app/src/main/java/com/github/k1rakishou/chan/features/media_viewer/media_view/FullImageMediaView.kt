@@ -368,6 +368,8 @@ class FullImageMediaView(
         }
 
         override fun onImageLoaded() {
+          mediaViewContract.onFullMediaDisplayed(viewableMedia)
+
           val animatorSet = FullMediaAppearAnimationHelper.fullMediaAppearAnimation(
             prevActiveView = thumbnailMediaView,
             activeView = actualImageView,
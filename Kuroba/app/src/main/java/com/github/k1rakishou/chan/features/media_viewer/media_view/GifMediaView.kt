@@ -431,6 +431,7 @@ class GifMediaView(
 
       actualGifView.setImageDrawable(drawable)
       actualGifView.setOnClickListener(null)
+      mediaViewContract.onFullMediaDisplayed(viewableMedia)
 
       val animationAwaitable = CompletableDeferred<Unit>()
 
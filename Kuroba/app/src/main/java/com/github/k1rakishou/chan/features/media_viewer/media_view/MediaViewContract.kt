@@ -26,6 +26,7 @@ interface MediaViewContract {
   suspend fun defaultArtworkDrawable(): Drawable?
   fun openAlbum(viewableMedia: ViewableMedia)
   fun reloadAs(pagerPosition: Int, viewableMedia: ViewableMedia)
+  fun onFullMediaDisplayed(viewableMedia: ViewableMedia)
 
   fun presentController(controller: Controller, animated: Boolean)
 }
\ No newline at end of file
@@ -30,7 +30,6 @@ import com.github.k1rakishou.prefs.BooleanSetting
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
 
 class LastReplyRepository(
   private val siteManager: SiteManager,
@@ -45,48 +44,6 @@ class LastReplyRepository(
   @GuardedBy("mutex")
   private val cooldownInfoMap = HashMap<BoardDescriptor, CooldownInfo>()
 
-  suspend fun attemptToStartPosting(chanDescriptor: ChanDescriptor): Boolean {
-    return mutex.withLock {
-      when (chanDescriptor) {
-        is ChanDescriptor.CompositeCatalogDescriptor -> {
-          return@withLock false
-        }
-        is ChanDescriptor.CatalogDescriptor -> {
-          val boardDescriptor = chanDescriptor.boardDescriptor()
-          lastThreadMap.putIfNotContainsLazy(boardDescriptor) { LastReply(boardDescriptor) }
-          return@withLock lastThreadMap[boardDescriptor]!!.prepareToPost()
-        }
-        is ChanDescriptor.ThreadDescriptor -> {
-          val boardDescriptor = chanDescriptor.boardDescriptor
-          lastReplyMap.putIfNotContainsLazy(boardDescriptor) { LastReply(boardDescriptor) }
-          return@withLock lastReplyMap[boardDescriptor]!!.prepareToPost()
-        }
-      }
-    }
-  }
-
-  suspend fun endPostingAttempt(chanDescriptor: ChanDescriptor) {
-    mutex.withLock {
-      when (chanDescriptor) {
-        is ChanDescriptor.CompositeCatalogDescriptor -> {
-          // no-op
-        }
-        is ChanDescriptor.CatalogDescriptor -> {
-          val boardDescriptor = chanDescriptor.boardDescriptor()
-
-          lastThreadMap.putIfNotContainsLazy(boardDescriptor) { LastReply(boardDescriptor) }
-          lastThreadMap[boardDescriptor]!!.endPosting()
-        }
-        is ChanDescriptor.ThreadDescriptor -> {
-          val boardDescriptor = chanDescriptor.boardDescriptor()
-
-          lastReplyMap.putIfNotContainsLazy(boardDescriptor) { LastReply(boardDescriptor) }
-          lastReplyMap[boardDescriptor]!!.endPosting()
-        }
-      }
-    }
-  }
-
   suspend fun onPostAttemptFinished(
     chanDescriptor: ChanDescriptor,
     postedSuccessfully: Boolean = false,
@@ -341,10 +298,6 @@ class LastReplyRepository(
     private val boardDescriptor: BoardDescriptor
   ) {
     private var _lastReplyTimeMs: Long = 0L
-    private val _canPost = AtomicBoolean(true)
-
-    val canPost: Boolean
-      get() = _canPost.get()
 
     val lastReplyTimeMs: Long
       get() = _lastReplyTimeMs
@@ -354,18 +307,6 @@ class LastReplyRepository(
       Logger.d(TAG, "updateLastReplyAttemptTime($boardDescriptor), lastReplyTimeMs=${_lastReplyTimeMs}")
     }
 
-    fun prepareToPost(): Boolean {
-      val result = _canPost.compareAndSet(true, false)
-      Logger.d(TAG, "prepareToPost($boardDescriptor) -> $result")
-
-      return result
-    }
-
-    fun endPosting() {
-      Logger.d(TAG, "endPosting($boardDescriptor)")
-      _canPost.set(true)
-    }
-
     override fun toString(): String {
       return "LastReply(boardDescriptor=$boardDescriptor, lastReplyTimeMs=$lastReplyTimeMs)"
     }
@@ -0,0 +1,309 @@
+package com.github.k1rakishou.chan.features.posting
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.util.PriorityQueue
+
+/**
+ * Decides which reply is allowed to be sent and when. Every site has its own FIFO queue of replies
+ * and only one reply per site (the one holding the site's turn) is being sent at a time. Sites whose
+ * cooldown has not passed yet and replies that wait for a captcha solution are put into a single
+ * timer queue ordered by expiry time which is served by one timer coroutine.
+ *
+ * A reply is only resumed when it can actually proceed: its site's cooldown is over, nobody else
+ * holds the site's turn, its captcha is ready and there are no older replies of the same site that
+ * are ready too. Replies that wait for a captcha solution don't block the rest of the site's queue.
+ * When a reply's coroutine gets canceled it's removed from its queue and the turn (if it was
+ * holding it) is given to the next reply.
+ * */
+class PostingScheduler(
+  private val scope: CoroutineScope,
+  private val currentTimeMillis: () -> Long = { System.currentTimeMillis() }
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private val siteQueues = hashMapOf<SiteDescriptor, SiteQueue>()
+  @GuardedBy("lock")
+  private val timers = PriorityQueue(11, TIMER_COMPARATOR)
+  @GuardedBy("lock")
+  private var timerJob: Job? = null
+  @GuardedBy("lock")
+  private var timerJobFiresAt = Long.MAX_VALUE
+  @GuardedBy("lock")
+  private var timersCreated = 0L
+
+  fun createTicket(chanDescriptor: ChanDescriptor): Ticket {
+    return Ticket(chanDescriptor, chanDescriptor.siteDescriptor())
+  }
+
+  /**
+   * Puts the reply at the end of its site's queue and suspends until it gets the site's turn.
+   * */
+  suspend fun awaitTurn(ticket: Ticket) {
+    awaitTurnInternal(ticket) { siteQueue ->
+      check(!ticket.enqueued) { "Ticket is already enqueued: ${ticket.chanDescriptor}" }
+
+      ticket.enqueued = true
+      siteQueue.tickets.addLast(ticket)
+    }
+  }
+
+  /**
+   * The site can't be posted to for [cooldownMs] (either by our own calculations or because the
+   * server told us so). Gives up the turn and suspends until the cooldown is over. The reply keeps
+   * its place in the queue.
+   * */
+  suspend fun awaitTurnAfterCooldown(ticket: Ticket, cooldownMs: Long) {
+    awaitTurnInternal(ticket) { siteQueue ->
+      val expiresAt = currentTimeMillis() + cooldownMs.coerceAtLeast(0L)
+
+      if (expiresAt > siteQueue.cooldownExpiresAt) {
+        siteQueue.cooldownExpiresAt = expiresAt
+        addTimerLocked(Timer.SiteCooldown(expiresAt, timersCreated++, siteQueue))
+      }
+    }
+  }
+
+  /**
+   * The captcha of the reply is not ready yet (the captcha solver asked us to come back later).
+   * Gives up the turn so that other replies of the same site can be sent and suspends until either
+   * [waitMs] passes or a new captcha solution is added (see [onCaptchaSolutionAdded]).
+   * */
+  suspend fun awaitTurnAfterCaptcha(ticket: Ticket, waitMs: Long) {
+    awaitTurnInternal(ticket) { _ ->
+      val timer = Timer.CaptchaReady(currentTimeMillis() + waitMs.coerceAtLeast(0L), timersCreated++, ticket)
+
+      ticket.captchaTimer = timer
+      addTimerLocked(timer)
+    }
+  }
+
+  /**
+   * A captcha solution has been added (e.g. the user has solved a captcha), all replies that were
+   * waiting for their captcha may proceed.
+   * */
+  fun onCaptchaSolutionAdded() {
+    synchronized(lock) {
+      siteQueues.values.toList().forEach { siteQueue ->
+        var anyBecameReady = false
+
+        siteQueue.tickets.forEach { ticket ->
+          if (ticket.captchaTimer != null) {
+            ticket.captchaTimer = null
+            anyBecameReady = true
+          }
+        }
+
+        if (anyBecameReady) {
+          dispatchLocked(siteQueue)
+        }
+      }
+    }
+  }
+
+  /**
+   * Must be called once the reply is done with posting (successfully or not). Gives the turn to the
+   * next reply of the site if the reply was holding it.
+   * */
+  fun remove(ticket: Ticket) {
+    synchronized(lock) {
+      if (!ticket.enqueued) {
+        return
+      }
+
+      val siteQueue = siteQueues[ticket.siteDescriptor]
+        ?: return
+
+      ticket.enqueued = false
+      ticket.captchaTimer = null
+      siteQueue.tickets.remove(ticket)
+
+      if (siteQueue.activeTicket === ticket) {
+        siteQueue.activeTicket = null
+      }
+
+      if (siteQueue.tickets.isEmpty()) {
+        // Cooldowns are stored in LastReplyRepository, the queue is only needed while there are
+        // replies waiting.
+        siteQueues.remove(ticket.siteDescriptor)
+        return
+      }
+
+      dispatchLocked(siteQueue)
+    }
+  }
+
+  fun queuedRepliesCount(siteDescriptor: SiteDescriptor): Int {
+    return synchronized(lock) { siteQueues[siteDescriptor]?.tickets?.size ?: 0 }
+  }
+
+  fun pendingTimersCount(): Int {
+    return synchronized(lock) { timers.size }
+  }
+
+  @OptIn(ExperimentalCoroutinesApi::class)
+  private suspend fun awaitTurnInternal(ticket: Ticket, beforeWaiting: (SiteQueue) -> Unit) {
+    suspendCancellableCoroutine<Unit> { continuation ->
+      synchronized(lock) {
+        val siteQueue = siteQueues.getOrPut(ticket.siteDescriptor) { SiteQueue(ticket.siteDescriptor) }
+        beforeWaiting(siteQueue)
+
+        check(ticket.enqueued) { "Ticket is not enqueued: ${ticket.chanDescriptor}" }
+
+        // Give up the turn (if we are holding it) only after we started waiting so that we don't
+        // lose our place in the queue
+        ticket.continuation = continuation
+
+        if (siteQueue.activeTicket === ticket) {
+          siteQueue.activeTicket = null
+        }
+
+        dispatchLocked(siteQueue)
+      }
+
+      continuation.invokeOnCancellation {
+        synchronized(lock) {
+          if (ticket.continuation === continuation) {
+            ticket.continuation = null
+          }
+        }
+      }
+    }
+  }
+
+  @OptIn(ExperimentalCoroutinesApi::class)
+  @GuardedBy("lock")
+  private fun dispatchLocked(siteQueue: SiteQueue) {
+    if (siteQueue.activeTicket != null || siteQueue.cooldownExpiresAt > currentTimeMillis()) {
+      // Either somebody is already posting or the site's timer will call us once the cooldown is over
+      return
+    }
+
+    val ticket = siteQueue.tickets.firstOrNull { ticket -> ticket.continuation != null && ticket.captchaTimer == null }
+      ?: return
+
+    val continuation = ticket.continuation!!
+    ticket.continuation = null
+    siteQueue.activeTicket = ticket
+
+    Logger.d(TAG, "dispatch(${siteQueue.siteDescriptor}) turn -> ${ticket.chanDescriptor}")
+
+    // If the coroutine gets canceled before it's resumed then the turn is given to the next reply
+    continuation.resume(Unit) { synchronized(lock) { releaseTurnLocked(ticket) } }
+  }
+
+  @GuardedBy("lock")
+  private fun releaseTurnLocked(ticket: Ticket) {
+    val siteQueue = siteQueues[ticket.siteDescriptor]
+      ?: return
+
+    if (siteQueue.activeTicket !== ticket) {
+      return
+    }
+
+    siteQueue.activeTicket = null
+    dispatchLocked(siteQueue)
+  }
+
+  @GuardedBy("lock")
+  private fun addTimerLocked(timer: Timer) {
+    timers.add(timer)
+    armTimerLocked()
+  }
+
+  @GuardedBy("lock")
+  private fun armTimerLocked() {
+    val nextTimer = timers.peek()
+      ?: return
+
+    if (timerJob != null && timerJobFiresAt <= nextTimer.expiresAt) {
+      return
+    }
+
+    timerJob?.cancel()
+    timerJobFiresAt = nextTimer.expiresAt
+
+    timerJob = scope.launch {
+      delay((nextTimer.expiresAt - currentTimeMillis()).coerceAtLeast(0L))
+      onTimerFired(coroutineContext[Job])
+    }
+  }
+
+  private fun onTimerFired(job: Job?) {
+    synchronized(lock) {
+      if (timerJob === job) {
+        timerJob = null
+        timerJobFiresAt = Long.MAX_VALUE
+      }
+
+      val now = currentTimeMillis()
+      val siteQueuesToDispatch = linkedSetOf<SiteQueue>()
+
+      while (true) {
+        val timer = timers.peek()
+        if (timer == null || timer.expiresAt > now) {
+          break
+        }
+
+        timers.poll()
+
+        when (timer) {
+          is Timer.SiteCooldown -> {
+            // The queue may have been removed (and maybe created again) while the timer was pending
+            if (siteQueues[timer.siteQueue.siteDescriptor] === timer.siteQueue) {
+              siteQueuesToDispatch += timer.siteQueue
+            }
+          }
+          is Timer.CaptchaReady -> {
+            // The ticket may have been removed or may be waiting for a newer timer
+            if (timer.ticket.captchaTimer === timer) {
+              timer.ticket.captchaTimer = null
+              siteQueues[timer.ticket.siteDescriptor]?.let { siteQueue -> siteQueuesToDispatch += siteQueue }
+            }
+          }
+        }
+      }
+
+      siteQueuesToDispatch.forEach { siteQueue -> dispatchLocked(siteQueue) }
+      armTimerLocked()
+    }
+  }
+
+  class Ticket internal constructor(
+    val chanDescriptor: ChanDescriptor,
+    internal val siteDescriptor: SiteDescriptor
+  ) {
+    internal var enqueued = false
+    internal var continuation: CancellableContinuation<Unit>? = null
+    // Not null while the reply is waiting for its captcha
+    internal var captchaTimer: Timer.CaptchaReady? = null
+  }
+
+  internal class SiteQueue(val siteDescriptor: SiteDescriptor) {
+    val tickets = ArrayDeque<Ticket>()
+    var activeTicket: Ticket? = null
+    var cooldownExpiresAt = 0L
+  }
+
+  internal sealed class Timer(val expiresAt: Long, val order: Long) {
+    class SiteCooldown(expiresAt: Long, order: Long, val siteQueue: SiteQueue) : Timer(expiresAt, order)
+    class CaptchaReady(expiresAt: Long, order: Long, val ticket: Ticket) : Timer(expiresAt, order)
+  }
+
+  companion object {
+    private const val TAG = "PostingScheduler"
+
+    private val TIMER_COMPARATOR = compareBy<Timer>({ timer -> timer.expiresAt }, { timer -> timer.order })
+  }
+
+}
@@ -44,6 +44,7 @@ import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
@@ -56,6 +57,7 @@ import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
@@ -79,6 +81,7 @@ class PostingServiceDelegate(
 ) {
   private val mutex = Mutex()
   private val serializedCoroutineExecutor = SerializedCoroutineExecutor(appScope)
+  private val postingScheduler = PostingScheduler(appScope)
 
   @GuardedBy("mutex")
   private val activeReplyDescriptors = hashMapOf<ChanDescriptor, ReplyInfo>()
@@ -88,6 +91,14 @@ class PostingServiceDelegate(
   private val _updateChildNotificationFlow = MutableSharedFlow<ChildNotificationInfo>(extraBufferCapacity = Channel.UNLIMITED)
   private val _closeChildNotificationFlow = MutableSharedFlow<ChanDescriptor>(extraBufferCapacity = Channel.UNLIMITED)
 
+  init {
+    appScope.launch {
+      // Replies that were waiting for the captcha solver may use the new solution right away
+      captchaHolder.get().listenForNewSolutions()
+        .collect { postingScheduler.onCaptchaSolutionAdded() }
+    }
+  }
+
   fun listenForStopServiceEvents(): SharedFlow<Unit> {
     return _stopServiceEventFlow
   }
@@ -435,40 +446,41 @@ class PostingServiceDelegate(
 
     val startTime = System.currentTimeMillis()
     val automaticallySolvedCaptchasCount = AtomicInteger()
+    val availableCaptchaAttempts = AtomicInteger(MAX_ATTEMPTS)
 
     Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) started at $startTime")
     val lastReplyRepository = _lastReplyRepository.get()
 
-    while (true) {
-      ensureNotCanceled(chanDescriptor)
+    // Replies are sent one at a time per site in the order they were enqueued. The scheduler only
+    // resumes us once it's our turn, the site cooldown is over and our captcha is ready.
+    val postingTicket = postingScheduler.createTicket(chanDescriptor)
+    var prevAttemptResult: ActualPostResult? = null
 
-      if (System.currentTimeMillis() - startTime > MAX_POST_QUEUE_TIME_MS) {
-        val timeSpent = System.currentTimeMillis() - startTime
-        Logger.e(TAG, "runPostWaitQueueLoop($chanDescriptor) spent too much time in the loop " +
-          "(${timeSpent}ms), exiting")
+    try {
+      while (true) {
+        if (!awaitPostingTurn(postingTicket, prevAttemptResult, startTime)) {
+          val timeSpent = System.currentTimeMillis() - startTime
+          Logger.e(TAG, "runPostWaitQueueLoop($chanDescriptor) spent too much time in the queue " +
+            "(${timeSpent}ms), exiting")
 
-        cancel(chanDescriptor)
-        break
-      }
+          cancel(chanDescriptor)
+          break
+        }
 
-      if (automaticallySolvedCaptchasCount.get() > MAX_AUTO_SOLVED_CAPTCHAS_COUNT) {
-        val solvedCount = automaticallySolvedCaptchasCount.get()
-        Logger.e(TAG, "runPostWaitQueueLoop($chanDescriptor) solved too many captcha ($solvedCount), exiting")
+        ensureNotCanceled(chanDescriptor)
 
-        cancel(chanDescriptor)
-        break
-      }
+        if (automaticallySolvedCaptchasCount.get() > MAX_AUTO_SOLVED_CAPTCHAS_COUNT) {
+          val solvedCount = automaticallySolvedCaptchasCount.get()
+          Logger.e(TAG, "runPostWaitQueueLoop($chanDescriptor) solved too many captcha ($solvedCount), exiting")
 
-      var timeToWaitMs = POST_LOOP_DELAY_MS
+          cancel(chanDescriptor)
+          break
+        }
 
-      // First we need to take the oldest post from all posts in the activeReplyDescriptors
-      if (isOldestEnqueuedReply(chanDescriptor)) {
         val replyMode = readReplyInfo(chanDescriptor) { replyModeRef.get() }
         val hasFiles = replyManager.readReply(chanDescriptor) { reply -> reply.hasFiles() }
 
-        Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) oldest enqueued reply descriptor: $chanDescriptor")
-
-        // Then we need to check whether we can post or need to wait a timeout before posting
+        // Check whether we can post or need to wait a timeout before posting
         val remainingWaitTime = lastReplyRepository.getTimeUntilNextThreadCreationOrReply(
           chanDescriptor = chanDescriptor,
           replyMode = replyMode,
@@ -479,141 +491,197 @@ class PostingServiceDelegate(
 
         if (remainingWaitTime > 0) {
           // Can't post yet, need to wait
-          updateChildNotification(
-            chanDescriptor = chanDescriptor,
-            status = ChildNotificationInfo.Status.WaitingForSiteRateLimitToPass(
-              remainingWaitTimeMs = remainingWaitTime,
-              boardDescriptor = chanDescriptor.boardDescriptor()
-            )
-          )
+          prevAttemptResult = ActualPostResult.RateLimited(remainingWaitTime)
+          continue
+        }
+
+        Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) got the turn, " +
+          "automaticallySolvedCaptchasCount=${automaticallySolvedCaptchasCount.get()}")
+
+        val actualPostResult = AtomicReference<ActualPostResult>(ActualPostResult.FailedToPost)
+
+        solveCaptchaAndPost(
+          site = site,
+          chanDescriptor = chanDescriptor,
+          automaticallySolvedCaptchasCount = automaticallySolvedCaptchasCount,
+          availableCaptchaAttempts = availableCaptchaAttempts,
+          actualPostResult = actualPostResult
+        )
 
-          timeToWaitMs = (remainingWaitTime + POST_LOOP_DELAY_MS)
-            .coerceIn(POST_LOOP_DELAY_MS, POST_LOOP_DELAY_MAX_MS)
-        } else {
-          // Possibly can post. Now we need to check whether somebody is already trying to post on
-          // this board. We only allow one post being processed per board at a time.
+        Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) solveCaptchaAndPost() -> $actualPostResult")
 
-          val attemptToStartPosting = lastReplyRepository.attemptToStartPosting(chanDescriptor)
-          if (attemptToStartPosting) {
-            Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) remainingWaitTime: ${remainingWaitTime}, " +
-              "attemptToStartPosting=$attemptToStartPosting, " +
-              "automaticallySolvedCaptchasCount=${automaticallySolvedCaptchasCount.get()}")
+        when (val result = actualPostResult.get()) {
+          null,
+          is ActualPostResult.Posted -> {
+            postedSuccessfully.set(true)
+            break
+          }
+          is ActualPostResult.RateLimited,
+          is ActualPostResult.WaitingForCaptcha -> {
+            // We were rate limited or the captcha is not solved yet, now we need to wait again
+            prevAttemptResult = result
+            continue
+          }
+          is ActualPostResult.FailedToPost -> {
+            // Failed to post for whatever reason and we can't continue. We need to notify the
+            // user about the error.
+            break
+          }
+        }
+      }
+    } finally {
+      postingScheduler.remove(postingTicket)
+    }
+
+    Logger.d(TAG, "runPostQueueLoop($chanDescriptor) took ${System.currentTimeMillis() - startTime}ms")
+  }
+
+  /**
+   * Suspends until the scheduler gives us the turn to post. Returns false if the reply has spent
+   * more than [MAX_POST_QUEUE_TIME_MS] in the queue.
+   * */
+  private suspend fun awaitPostingTurn(
+    postingTicket: PostingScheduler.Ticket,
+    prevAttemptResult: ActualPostResult?,
+    startTime: Long
+  ): Boolean {
+    val remainingQueueTimeMs = MAX_POST_QUEUE_TIME_MS - (System.currentTimeMillis() - startTime)
+    if (remainingQueueTimeMs <= 0) {
+      return false
+    }
 
-            // We managed to take the permission to post
-            val actualPostResult = AtomicReference<ActualPostResult>(ActualPostResult.FailedToPost)
+    val chanDescriptor = postingTicket.chanDescriptor
+
+    val gotTurn = withTimeoutOrNull(remainingQueueTimeMs) {
+      when (prevAttemptResult) {
+        null -> {
+          postingScheduler.awaitTurn(postingTicket)
+        }
+        is ActualPostResult.RateLimited -> {
+          Logger.d(TAG, "awaitPostingTurn($chanDescriptor) waiting ${prevAttemptResult.timeMs}ms for the cooldown")
+
+          coroutineScope {
+            // Only refreshes the remaining time in the notification, the scheduler wakes us up
+            // once the cooldown is over.
+            val notificationUpdater = launch { updateRateLimitNotification(chanDescriptor, prevAttemptResult.timeMs) }
 
             try {
-              runPostWaitForCaptchaLoop(
-                site = site,
-                chanDescriptor = chanDescriptor,
-                automaticallySolvedCaptchasCount = automaticallySolvedCaptchasCount,
-                actualPostResult = actualPostResult
-              )
+              postingScheduler.awaitTurnAfterCooldown(postingTicket, prevAttemptResult.timeMs)
             } finally {
-              lastReplyRepository.endPostingAttempt(chanDescriptor)
-            }
-
-            Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) makePostInternal() -> $actualPostResult")
-
-            when (actualPostResult.get()) {
-              null,
-              is ActualPostResult.Posted -> {
-                postedSuccessfully.set(true)
-                break
-              }
-              is ActualPostResult.RateLimited -> {
-                // We were rate limited, now we need to wait again
-                continue
-              }
-              is ActualPostResult.FailedToPost -> {
-                // Failed to post for whatever reason and we can't continue. We need to notify the
-                // user about the error.
-                break
-              }
+              notificationUpdater.cancel()
             }
           }
         }
+        is ActualPostResult.WaitingForCaptcha -> {
+          Logger.d(TAG, "awaitPostingTurn($chanDescriptor) waiting ${prevAttemptResult.timeMs}ms for the captcha")
+          postingScheduler.awaitTurnAfterCaptcha(postingTicket, prevAttemptResult.timeMs)
+        }
+        ActualPostResult.Posted,
+        ActualPostResult.FailedToPost -> {
+          error("Unexpected prevAttemptResult: $prevAttemptResult")
+        }
       }
 
-      Logger.d(TAG, "runPostWaitQueueLoop($chanDescriptor) waiting ${timeToWaitMs}ms...")
-      delay(timeToWaitMs)
+      return@withTimeoutOrNull true
     }
 
-    Logger.d(TAG, "runPostQueueLoop($chanDescriptor) took ${System.currentTimeMillis() - startTime}ms")
+    return gotTurn == true
   }
 
-  private suspend fun runPostWaitForCaptchaLoop(
+  private suspend fun updateRateLimitNotification(chanDescriptor: ChanDescriptor, waitTimeMs: Long) {
+    val waitUntil = System.currentTimeMillis() + waitTimeMs
+
+    while (true) {
+      val remainingWaitTimeMs = waitUntil - System.currentTimeMillis()
+      if (remainingWaitTimeMs <= 0) {
+        break
+      }
+
+      updateChildNotification(
+        chanDescriptor = chanDescriptor,
+        status = ChildNotificationInfo.Status.WaitingForSiteRateLimitToPass(
+          remainingWaitTimeMs = remainingWaitTimeMs,
+          boardDescriptor = chanDescriptor.boardDescriptor()
+        )
+      )
+
+      delay(remainingWaitTimeMs.coerceAtMost(RATE_LIMIT_NOTIFICATION_UPDATE_INTERVAL_MS))
+    }
+  }
+
+  /**
+   * Makes a single attempt to get a captcha solution and, if we got one (or don't need one), sends
+   * the reply. If the captcha solver is not done yet then [ActualPostResult.WaitingForCaptcha] is
+   * set so that the turn is given to other replies while we are waiting.
+   * */
+  private suspend fun solveCaptchaAndPost(
     site: Site,
     chanDescriptor: ChanDescriptor,
     automaticallySolvedCaptchasCount: AtomicInteger,
+    availableCaptchaAttempts: AtomicInteger,
     actualPostResult: AtomicReference<ActualPostResult>
   ) {
     val serviceName = twoCaptchaSolver.get().name
-    Logger.d(TAG, "runPostWaitForCaptchaLoop(${site.siteDescriptor()}, $chanDescriptor)")
+    Logger.d(TAG, "solveCaptchaAndPost(${site.siteDescriptor()}, $chanDescriptor)")
 
     readReplyInfo(chanDescriptor) {
       updateStatus(PostingStatus.WaitingForAdditionalService(serviceName, chanDescriptor))
     }
 
-    val availableAttempts = AtomicInteger(MAX_ATTEMPTS)
+    ensureNotCanceled(chanDescriptor)
+    val result = processAntiCaptchaService(site, availableCaptchaAttempts.get(), chanDescriptor)
+    ensureNotCanceled(chanDescriptor)
 
-    while (true) {
-      ensureNotCanceled(chanDescriptor)
-      val result = processAntiCaptchaService(site, availableAttempts.get(), chanDescriptor)
-      ensureNotCanceled(chanDescriptor)
-
-      Logger.d(TAG, "runPostWaitForCaptchaLoop() processAntiCaptchaService($chanDescriptor) -> $result, " +
-        "attempt ${availableAttempts.get()}")
-
-      when (result) {
-        is AntiCaptchaServiceResult.Solution,
-        is AntiCaptchaServiceResult.AlreadyHaveSolution -> {
-          val replyMode = readReplyInfo(chanDescriptor) { replyModeRef.get() }
-          val retrying = readReplyInfo(chanDescriptor) { retrying.get() }
-
-          val hasValidCaptcha = hasValidCaptcha(chanDescriptor, result, automaticallySolvedCaptchasCount)
-          Logger.d(TAG, "requiresAuthentication($chanDescriptor) replyMode=$replyMode, hasValidCaptcha=$hasValidCaptcha")
-
-          val canPostWithoutCaptcha = when (replyMode) {
-            null,
-            ReplyMode.Unknown,
-            ReplyMode.ReplyModeSolveCaptchaAuto -> false
-            ReplyMode.ReplyModeSendWithoutCaptcha,
-            ReplyMode.ReplyModeUsePasscode -> true
-            ReplyMode.ReplyModeSolveCaptchaManually -> {
-              // Allow posting without forcing to solve captcha if the user already has a pre-solved captcha
-              hasValidCaptcha
-            }
-          }
+    Logger.d(TAG, "solveCaptchaAndPost() processAntiCaptchaService($chanDescriptor) -> $result, " +
+      "attempt ${availableCaptchaAttempts.get()}")
 
-          if (!hasValidCaptcha && !canPostWithoutCaptcha) {
-            val replyResponse = ReplyResponse()
-              .also { response -> response.requireAuthentication = true }
+    when (result) {
+      is AntiCaptchaServiceResult.Solution,
+      is AntiCaptchaServiceResult.AlreadyHaveSolution -> {
+        val replyMode = readReplyInfo(chanDescriptor) { replyModeRef.get() }
+        val retrying = readReplyInfo(chanDescriptor) { retrying.get() }
+
+        val hasValidCaptcha = hasValidCaptcha(chanDescriptor, result, automaticallySolvedCaptchasCount)
+        Logger.d(TAG, "requiresAuthentication($chanDescriptor) replyMode=$replyMode, hasValidCaptcha=$hasValidCaptcha")
+
+        val canPostWithoutCaptcha = when (replyMode) {
+          null,
+          ReplyMode.Unknown,
+          ReplyMode.ReplyModeSolveCaptchaAuto -> false
+          ReplyMode.ReplyModeSendWithoutCaptcha,
+          ReplyMode.ReplyModeUsePasscode -> true
+          ReplyMode.ReplyModeSolveCaptchaManually -> {
+            // Allow posting without forcing to solve captcha if the user already has a pre-solved captcha
+            hasValidCaptcha
+          }
+        }
 
-            emitTerminalEvent(
-              chanDescriptor = chanDescriptor,
-              postResult = PostResult.Success(replyResponse, replyMode, retrying)
-            )
+        if (!hasValidCaptcha && !canPostWithoutCaptcha) {
+          val replyResponse = ReplyResponse()
+            .also { response -> response.requireAuthentication = true }
 
-            return
-          }
+          emitTerminalEvent(
+            chanDescriptor = chanDescriptor,
+            postResult = PostResult.Success(replyResponse, replyMode, retrying)
+          )
 
-          break
-        }
-        AntiCaptchaServiceResult.ExitLoop -> {
           return
         }
-        is AntiCaptchaServiceResult.WaitNextIteration -> {
-          delay(result.waitTimeMs)
-        }
       }
+      AntiCaptchaServiceResult.ExitLoop -> {
+        return
+      }
+      is AntiCaptchaServiceResult.WaitNextIteration -> {
+        if (availableCaptchaAttempts.decrementAndGet() <= 0) {
+          val errorMessage = "All post attempts were exhausted while waiting for AntiCaptcha service response"
 
-      if (availableAttempts.decrementAndGet() <= 0) {
-        val errorMessage = "All post attempts were exhausted while waiting for AntiCaptcha service response"
+          Logger.e(TAG, errorMessage)
+          emitTerminalEvent(chanDescriptor, PostResult.Error(PostingException(errorMessage)))
 
-        Logger.e(TAG, errorMessage)
-        emitTerminalEvent(chanDescriptor, PostResult.Error(PostingException(errorMessage)))
+          return
+        }
 
+        actualPostResult.set(ActualPostResult.WaitingForCaptcha(result.waitTimeMs))
         return
       }
     }
@@ -880,39 +948,6 @@ class PostingServiceDelegate(
     )
   }
 
-  /**
-   * Check whether a reply with this [chanDescriptor] is the oldest among all replies with
-   * [PostingStatus.WaitingForSiteRateLimitToPass] status. We always attempt to post the oldest
-   * queued replies first. Basically it's a FIFO queue.
-   * */
-  private suspend fun isOldestEnqueuedReply(chanDescriptor: ChanDescriptor): Boolean {
-    return mutex.withLock {
-      if (activeReplyDescriptors.isEmpty()) {
-        return@withLock true
-      }
-
-      var actualOldestReplyDescriptor: ChanDescriptor? = null
-      var oldestEnqueuedReplyTime: Long = Long.MAX_VALUE
-
-      for ((descriptor, replyInfo) in activeReplyDescriptors.entries) {
-        if (replyInfo.currentStatus !is PostingStatus.WaitingForSiteRateLimitToPass) {
-          continue
-        }
-
-        if (replyInfo.enqueuedAt.get() < oldestEnqueuedReplyTime) {
-          oldestEnqueuedReplyTime = replyInfo.enqueuedAt.get()
-          actualOldestReplyDescriptor = descriptor
-        }
-      }
-
-      if (actualOldestReplyDescriptor == null) {
-        return@withLock true
-      }
-
-      return@withLock actualOldestReplyDescriptor == chanDescriptor
-    }
-  }
-
   /**
    * Handles the results of captcha solvers.
    * */
@@ -1500,6 +1535,7 @@ class PostingServiceDelegate(
     data object Posted : ActualPostResult()
     data object FailedToPost : ActualPostResult()
     data class RateLimited(val timeMs: Long) : ActualPostResult()
+    data class WaitingForCaptcha(val timeMs: Long) : ActualPostResult()
   }
 
   class ServerReturnedUnexpectedThreadId(
@@ -1528,7 +1564,7 @@ class PostingServiceDelegate(
     private const val TAG = "PostingServiceDelegate"
     private const val MAX_ATTEMPTS = 30
     private const val POST_LOOP_DELAY_MS = 1_000L
-    private const val POST_LOOP_DELAY_MAX_MS = 10_000L
+    private const val RATE_LIMIT_NOTIFICATION_UPDATE_INTERVAL_MS = 5_000L
     private const val MAX_AUTO_SOLVED_CAPTCHAS_COUNT = 10
 
     private val MAX_POST_QUEUE_TIME_MS = TimeUnit.MINUTES.toMillis(30)
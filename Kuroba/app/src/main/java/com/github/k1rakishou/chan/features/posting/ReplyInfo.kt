@@ -10,7 +10,6 @@ import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.atomic.AtomicReference
 
 internal class ReplyInfo(
@@ -19,7 +18,6 @@ internal class ReplyInfo(
   val chanDescriptor: ChanDescriptor,
   private val _status: MutableStateFlow<PostingStatus> = MutableStateFlow(initialStatus),
   val retrying: AtomicBoolean = AtomicBoolean(false),
-  val enqueuedAt: AtomicLong = AtomicLong(System.currentTimeMillis()),
   val replyModeRef: AtomicReference<ReplyMode> = AtomicReference(initialReplyMode)
 ) {
   private val _canceled = AtomicBoolean(false)
@@ -82,7 +80,6 @@ internal class ReplyInfo(
     _canceled.set(false)
     activeJob.set(null)
     _lastError.set(null)
-    enqueuedAt.set(System.currentTimeMillis())
 
     _status.value = PostingStatus.Enqueued(chanDescriptor)
   }
@@ -52,7 +52,7 @@ class GlobalSearchController(
   @Inject
   lateinit var globalWindowInsetsManager: GlobalWindowInsetsManager
 
-  private val presenter by lazy { GlobalSearchPresenter(siteManager, themeEngine) }
+  private val presenter by lazy { GlobalSearchPresenter(siteManager, boardManager, themeEngine) }
 
   private lateinit var epoxyRecyclerView: ColorizableEpoxyRecyclerView
 
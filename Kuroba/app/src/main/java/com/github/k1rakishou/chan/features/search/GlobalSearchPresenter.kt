@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.features.search
 
 import com.github.k1rakishou.chan.core.base.BasePresenter
 import com.github.k1rakishou.chan.core.base.RendezvousCoroutineExecutor
+import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.sites.search.SearchBoard
 import com.github.k1rakishou.chan.core.site.sites.search.SiteGlobalSearchType
@@ -23,6 +24,7 @@ import kotlinx.coroutines.launch
 
 internal class GlobalSearchPresenter(
   private val siteManager: SiteManager,
+  private val boardManager: BoardManager,
   private val themeEngine: ThemeEngine
 ) : BasePresenter<GlobalSearchView>() {
 
@@ -50,6 +52,8 @@ internal class GlobalSearchPresenter(
       }
 
       siteManager.awaitUntilInitialized()
+      // Archives' boards are usually not active so they may not be loaded yet
+      boardManager.awaitUntilAllBoardsLoaded()
       reloadSearchState(loadingStateCancellationJob)
     }
   }
@@ -5,6 +5,7 @@ import com.airbnb.epoxy.EpoxyRecyclerView
 import com.github.k1rakishou.chan.core.base.KurobaCoroutineScope
 import com.github.k1rakishou.chan.core.base.LazySuspend
 import com.github.k1rakishou.chan.core.base.SerializedCoroutineExecutor
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpTransport
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.cache.FileCacheV2
 import com.github.k1rakishou.chan.core.helper.AppRestarter
@@ -133,6 +134,8 @@ class SettingsCoordinator(
   lateinit var installMpvNativeLibrariesFromLocalDirectoryUseCase: InstallMpvNativeLibrariesFromLocalDirectoryUseCase
   @Inject
   lateinit var appRestarter: AppRestarter
+  @Inject
+  lateinit var sharedOkHttpTransport: Lazy<SharedOkHttpTransport>
 
   private val scope = KurobaCoroutineScope()
   private val settingBuilderExecutor = SerializedCoroutineExecutor(scope)
@@ -197,7 +200,11 @@ class SettingsCoordinator(
       context,
       navigationController,
       themeEngine,
-      appRestarter
+      appRestarter,
+      fileChooser,
+      fileManager,
+      dialogFactory,
+      sharedOkHttpTransport
     )
   }
 
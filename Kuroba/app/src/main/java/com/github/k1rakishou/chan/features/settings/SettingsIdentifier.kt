@@ -164,6 +164,8 @@ sealed class DeveloperScreen(
     object CheckUpateApkVersionCode : MainGroup("check_update_apk_version_code")
     object ShowMpvInternalLogs : MainGroup("show_mpv_internal_logs")
     object ViewLogs : MainGroup("view_logs")
+    object ExportStartupTrace : MainGroup("export_startup_trace")
+    object ViewNetworkTelemetry : MainGroup("view_network_telemetry")
     object EnableDisableVerboseLogs : MainGroup("enable_disable_verbose_logs")
     object CrashApp : MainGroup("crash_the_app")
     object ShowDatabaseSummary : MainGroup("show_database_summary")
@@ -789,6 +791,7 @@ sealed class ExperimentalScreen(
     object OkHttpAllowHttp2 : MainSettingsGroup("ok_http_allow_http_2")
     object OkHttpAllowIpv6 : MainSettingsGroup("ok_http_allow_ipv6")
     object OkHttpUseDnsOverHttps : MainSettingsGroup("ok_http_use_dns_over_https")
+    object ThreadSnapshotsEnabled : MainSettingsGroup("thread_snapshots_enabled")
     object CloudflareForcePreload : MainSettingsGroup("cloudflare_force_preload")
     object AutoLoadThreadImages : MainSettingsGroup("auto_load_thread_images")
     object ShowPrefetchLoadingIndicator : MainSettingsGroup("show_prefetch_loading_indicator")
@@ -10,6 +10,7 @@ import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.repository.MediaServiceLinkExtraContentRepository
 import com.github.k1rakishou.model.repository.SeenPostRepository
+import com.github.k1rakishou.model.source.local.ChanPostLocalSource
 import java.util.*
 
 class DatabaseSettingsSummaryScreen(
@@ -80,14 +81,15 @@ class DatabaseSettingsSummaryScreen(
 
             return@createBuilder String.format(
               Locale.ENGLISH,
-              "Total threads count: ${count} out of ${maxCount} maximum allowed threads"
+              "Total threads count: ${count} out of ${maxCount} maximum allowed threads" +
+                formatDeleteResult(chanPostRepository.lastThreadsDeleteResult)
             )
           },
           callback = {
             val deleted = chanPostRepository.deleteOldThreadsIfNeeded(forced = true).unwrap()
 
             showToast(context, "Done, deleted ${deleted.deletedTotal} thread rows, " +
-              "skipped ${deleted.skippedTotal} thread rows")
+              "${deleted.remainingTotal} thread rows left to delete")
           }
         )
 
@@ -101,14 +103,15 @@ class DatabaseSettingsSummaryScreen(
 
             return@createBuilder String.format(
               Locale.ENGLISH,
-              "Total posts count: ${count} out of ${maxCount} maximum allowed posts"
+              "Total posts count: ${count} out of ${maxCount} maximum allowed posts" +
+                formatDeleteResult(chanPostRepository.lastPostsDeleteResult)
             )
           },
           callback = {
             val deleted = chanPostRepository.deleteOldPostsIfNeeded(forced = true).unwrap()
 
             showToast(context, "Done, deleted ${deleted.deletedTotal} post rows, " +
-              "skipped ${deleted.skippedTotal} post rows")
+              "${deleted.remainingTotal} post rows left to delete")
           }
         )
 
@@ -117,4 +120,14 @@ class DatabaseSettingsSummaryScreen(
     )
   }
 
+  private fun formatDeleteResult(deleteResult: ChanPostLocalSource.DeleteResult?): String {
+    if (deleteResult == null) {
+      return ""
+    }
+
+    return "\n\nLast cleanup: deleted ${deleteResult.deletedTotal} rows " +
+      "(${deleteResult.deletedPerSecond()} rows/s) in ${deleteResult.batchesCount} batches, " +
+      "longest batch: ${deleteResult.longestBatchMs}ms, left to delete: ${deleteResult.remainingTotal} rows"
+  }
+
 }
\ No newline at end of file
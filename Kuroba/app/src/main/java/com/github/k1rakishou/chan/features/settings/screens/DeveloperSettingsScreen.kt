@@ -1,10 +1,14 @@
 package com.github.k1rakishou.chan.features.settings.screens
 
 import android.content.Context
+import android.net.Uri
+import android.widget.Toast
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.BuildConfig
 import com.github.k1rakishou.chan.R
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpTransport
 import com.github.k1rakishou.chan.core.helper.AppRestarter
+import com.github.k1rakishou.chan.core.helper.DialogFactory
 import com.github.k1rakishou.chan.features.settings.DatabaseSummaryScreen
 import com.github.k1rakishou.chan.features.settings.DeveloperScreen
 import com.github.k1rakishou.chan.features.settings.SettingClickAction
@@ -15,14 +19,28 @@ import com.github.k1rakishou.chan.ui.controller.LogsController
 import com.github.k1rakishou.chan.ui.controller.navigation.NavigationController
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getString
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.showToast
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.StartupTracer
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeEngine
+import com.github.k1rakishou.fsaf.FileChooser
+import com.github.k1rakishou.fsaf.FileManager
+import com.github.k1rakishou.fsaf.callback.FileCreateCallback
 import com.github.k1rakishou.persist_state.PersistableChanState
+import dagger.Lazy
+import java.io.IOException
 
 class DeveloperSettingsScreen(
   context: Context,
   private val navigationController: NavigationController,
   private val themeEngine: ThemeEngine,
-  private val appRestarter: AppRestarter
+  private val appRestarter: AppRestarter,
+  private val fileChooser: FileChooser,
+  private val fileManager: FileManager,
+  private val dialogFactory: DialogFactory,
+  private val sharedOkHttpTransport: Lazy<SharedOkHttpTransport>
 ) : BaseSettingsScreen(
   context,
   DeveloperScreen,
@@ -79,6 +97,22 @@ class DeveloperSettingsScreen(
           }
         )
 
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = DeveloperScreen.MainGroup.ExportStartupTrace,
+          topDescriptionIdFunc = { R.string.settings_export_startup_trace },
+          bottomDescriptionIdFunc = { R.string.settings_export_startup_trace_description },
+          callback = { onExportStartupTraceClicked() }
+        )
+
+        group += LinkSettingV2.createBuilder(
+          context = context,
+          identifier = DeveloperScreen.MainGroup.ViewNetworkTelemetry,
+          topDescriptionIdFunc = { R.string.settings_view_network_telemetry },
+          bottomDescriptionIdFunc = { R.string.settings_view_network_telemetry_description },
+          callback = { showNetworkTelemetry() }
+        )
+
         group += LinkSettingV2.createBuilder(
           context = context,
           identifier = DeveloperScreen.MainGroup.EnableDisableVerboseLogs,
@@ -243,8 +277,61 @@ class DeveloperSettingsScreen(
     )
   }
 
+  private fun showNetworkTelemetry() {
+    val transport = sharedOkHttpTransport.get()
+    val description = buildString {
+      appendLine(transport.dnsCache.stats().format())
+      appendLine()
+      append(transport.transportTelemetry.format())
+    }
+
+    dialogFactory.createSimpleInformationDialog(
+      context = context,
+      titleText = getString(R.string.settings_view_network_telemetry),
+      descriptionText = description
+    )
+  }
+
+  private fun onExportStartupTraceClicked() {
+    fileChooser.openCreateFileDialog(
+      STARTUP_TRACE_FILE_NAME,
+      object : FileCreateCallback() {
+        override fun onResult(uri: Uri) {
+          exportStartupTrace(uri)
+        }
+
+        override fun onCancel(reason: String) {
+          showToast(context, reason, Toast.LENGTH_LONG)
+        }
+      })
+  }
+
+  private fun exportStartupTrace(uri: Uri) {
+    val outputFile = fileManager.fromUri(uri)
+    if (outputFile == null) {
+      showToast(context, "Failed to open file $uri", Toast.LENGTH_LONG)
+      return
+    }
+
+    val result = Try {
+      val outputStream = fileManager.getOutputStream(outputFile)
+        ?: throw IOException("Failed to get output stream for $uri")
+
+      outputStream.bufferedWriter().use { writer -> writer.write(StartupTracer.exportAsChromeTrace()) }
+    }
+
+    if (result is ModularResult.Error) {
+      Logger.e(TAG, "exportStartupTrace() error", result.error)
+      showToast(context, "Failed to export startup trace: ${result.error.errorMessageOrClassName()}", Toast.LENGTH_LONG)
+      return
+    }
+
+    showToast(context, "Done")
+  }
+
   companion object {
     private const val TAG = "DeveloperSettingsScreen"
+    private const val STARTUP_TRACE_FILE_NAME = "KurobaEx_startup_trace.json"
   }
 
 }
\ No newline at end of file
@@ -62,6 +62,15 @@ class ExperimentalSettingsScreen(
           requiresRestart = true
         )
 
+        group += BooleanSettingV2.createBuilder(
+          context = context,
+          identifier = ExperimentalScreen.MainSettingsGroup.ThreadSnapshotsEnabled,
+          topDescriptionIdFunc = { R.string.setting_thread_snapshots },
+          bottomDescriptionIdFunc = { R.string.setting_thread_snapshots_description },
+          setting = ChanSettings.threadSnapshotsEnabled,
+          requiresRestart = true
+        )
+
         group += BooleanSettingV2.createBuilder(
           context = context,
           identifier = ExperimentalScreen.MainSettingsGroup.CloudflareForcePreload,
@@ -2,4 +2,6 @@ package com.github.k1rakishou.chan.features.settings.screens.delegate
 
 data class ExportBackupOptions(
   val exportDownloadedThreadsMedia: Boolean = false,
+  // Only export downloaded threads media that was added or changed since the last export
+  val exportOnlyChangedDownloadedThreadsMedia: Boolean = false,
 )
\ No newline at end of file
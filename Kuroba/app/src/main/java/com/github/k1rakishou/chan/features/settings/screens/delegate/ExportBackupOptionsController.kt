@@ -50,6 +50,7 @@ class ExportBackupOptionsController(
         verticalArrangement = Arrangement.Center,
         content = {
           BuildExportDownloadedThreadMediaOption()
+          BuildExportOnlyChangedDownloadedThreadMediaOption()
 
           BuildCancelOkButtons()
         })
@@ -74,6 +75,25 @@ class ExportBackupOptionsController(
     }
   }
 
+  private fun LazyListScope.BuildExportOnlyChangedDownloadedThreadMediaOption() {
+    item("export_only_changed_downloaded_thread_media") {
+      var exportBackupOptions by exportBackupOptionsState
+
+      KurobaComposeCheckbox(
+        modifier = Modifier
+          .fillMaxWidth()
+          .wrapContentHeight()
+          .padding(all = 8.dp),
+        enabled = exportBackupOptions.exportDownloadedThreadsMedia,
+        currentlyChecked = exportBackupOptions.exportOnlyChangedDownloadedThreadsMedia,
+        onCheckChanged = { isChecked ->
+          exportBackupOptions = exportBackupOptions.copy(exportOnlyChangedDownloadedThreadsMedia = isChecked)
+        },
+        text = stringResource(id = R.string.export_backup_options_export_only_changed_thread_download_media_option)
+      )
+    }
+  }
+
   private fun LazyListScope.BuildCancelOkButtons() {
     item("cancel_ok_buttons") {
       Row(
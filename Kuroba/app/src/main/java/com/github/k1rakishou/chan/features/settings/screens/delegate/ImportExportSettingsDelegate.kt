@@ -126,7 +126,11 @@ class ImportExportSettingsDelegate(
               )
             }
             is ModularResult.Value -> {
-              showToast(context, R.string.import_export_backup_export_success)
+              dialogFactory.createSimpleInformationDialog(
+                context = context,
+                titleText = getString(R.string.import_export_backup_export_success),
+                descriptionText = result.value.formatReport()
+              )
             }
           }
         }
@@ -56,7 +56,7 @@ class AddBoardsPresenter(
         setState(AddBoardsControllerState.Loading)
       }
 
-      boardManager.awaitUntilInitialized()
+      boardManager.awaitUntilSiteBoardsLoaded(siteDescriptor)
       siteManager.awaitUntilInitialized()
 
       val site = siteManager.bySiteDescriptor(siteDescriptor)
@@ -58,6 +58,11 @@ class BoardSelectionPresenter(
   }
 
   suspend fun onSearchQueryChanged(query: String) {
+    if (query.isNotEmpty()) {
+      // Searching goes through inactive boards too
+      boardManager.awaitUntilAllBoardsLoaded()
+    }
+
     showActiveSitesWithBoardsSorted(query)
   }
 
@@ -37,7 +37,7 @@ class BoardsSetupPresenter(
 
     scope.launch {
       siteManager.awaitUntilInitialized()
-      boardManager.awaitUntilInitialized()
+      boardManager.awaitUntilSiteBoardsLoaded(siteDescriptor)
 
       val siteIsSynthetic = siteManager.bySiteDescriptor(siteDescriptor)?.isSynthetic
         ?: false
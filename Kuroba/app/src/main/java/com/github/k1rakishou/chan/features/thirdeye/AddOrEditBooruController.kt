@@ -330,7 +330,10 @@ class AddOrEditBooruController(
     heightJsonKey: String? = null,
     tagsJsonKey: String? = null,
     fileSizeJsonKey: String? = null,
-    bannedTagsString: String? = null
+    bannedTagsString: String? = null,
+    // Not editable here, only carried over so that editing a booru doesn't reset them
+    private val maxConcurrentRequests: Int = BooruSetting.DEFAULT_MAX_CONCURRENT_REQUESTS,
+    private val maxRequestsPerSecond: Int = BooruSetting.DEFAULT_MAX_REQUESTS_PER_SECOND
   ) {
     val imageFileNameRegexState = mutableStateOf<String>(imageFileNameRegex)
     val apiEndpointState = mutableStateOf<String>(apiEndpoint)
@@ -356,6 +359,8 @@ class AddOrEditBooruController(
         heightJsonKey = heightJsonKeyState.value.trim(),
         tagsJsonKey = tagsJsonKeyState.value.trim(),
         bannedTags = bannedTagsStringState.value.trim().split(" "),
+        maxConcurrentRequests = maxConcurrentRequests,
+        maxRequestsPerSecond = maxRequestsPerSecond,
       )
     }
 
@@ -371,6 +376,8 @@ class AddOrEditBooruController(
           tagsJsonKey = booruSetting.tagsJsonKey,
           fileSizeJsonKey = booruSetting.fileSizeJsonKey,
           bannedTagsString = booruSetting.bannedTags.joinToString(separator = " "),
+          maxConcurrentRequests = booruSetting.maxConcurrentRequests,
+          maxRequestsPerSecond = booruSetting.maxRequestsPerSecond,
         )
       }
     }
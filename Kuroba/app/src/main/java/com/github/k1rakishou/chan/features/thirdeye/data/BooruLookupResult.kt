@@ -0,0 +1,53 @@
+package com.github.k1rakishou.chan.features.thirdeye.data
+
+import com.github.k1rakishou.common.StringUtils
+import com.github.k1rakishou.common.isNotNullNorBlank
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageBuilder
+import okhttp3.HttpUrl
+
+/**
+ * Result of looking up an image by its hash on a single booru.
+ * */
+sealed class BooruLookupResult {
+  class Found(val imageInfo: BooruImageInfo) : BooruLookupResult()
+  // The booru doesn't have this image
+  object NotFound : BooruLookupResult()
+  // The booru has this image but it has one of the banned tags, other boorus must not be checked
+  object Banned : BooruLookupResult()
+  // Network/parsing error, the result is unknown so it must not be cached
+  object Failed : BooruLookupResult()
+}
+
+data class BooruImageInfo(
+  val fullUrl: HttpUrl,
+  val previewUrl: HttpUrl,
+  val width: Int?,
+  val height: Int?,
+  val fileSize: Long?
+) {
+
+  fun toChanPostImage(postDescriptor: PostDescriptor, imageHash: String): ChanPostImage {
+    val chanPostImageBuilder = ChanPostImageBuilder(postDescriptor).apply {
+      imageUrl(fullUrl)
+      thumbnailUrl(previewUrl)
+
+      inlined()
+      fileHash(imageHash, false)
+      serverFilename(imageHash)
+
+      val extension = StringUtils.extractFileNameExtension(fullUrl.encodedPath)
+      if (extension.isNotNullNorBlank() && extension.length < 5) {
+        extension(extension)
+      }
+
+      width?.let { w -> imageWidth(w) }
+      height?.let { h -> imageHeight(h) }
+      fileSize?.let { size -> imageSize(size) }
+    }
+
+    return chanPostImageBuilder.build()
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.github.k1rakishou.chan.features.thirdeye.data
+
+import com.squareup.moshi.Json
+import com.squareup.moshi.JsonClass
+
+@JsonClass(generateAdapter = true)
+data class ThirdEyeLookupCacheJson(
+  @Json(name = "entries") val entries: List<ThirdEyeLookupCacheEntryJson> = emptyList()
+)
+
+@JsonClass(generateAdapter = true)
+data class ThirdEyeLookupCacheEntryJson(
+  @Json(name = "booru_key") val booruKey: String,
+  @Json(name = "image_hash") val imageHash: String,
+  @Json(name = "result") val result: Int,
+  @Json(name = "stored_at") val storedAt: Long,
+  @Json(name = "full_url") val fullUrl: String? = null,
+  @Json(name = "preview_url") val previewUrl: String? = null,
+  @Json(name = "width") val width: Int? = null,
+  @Json(name = "height") val height: Int? = null,
+  @Json(name = "file_size") val fileSize: Long? = null
+) {
+
+  companion object {
+    const val RESULT_FOUND = 0
+    const val RESULT_NOT_FOUND = 1
+    const val RESULT_BANNED = 2
+  }
+
+}
@@ -23,7 +23,9 @@ data class BooruSetting(
   @Json(name = "width_json_key") val widthJsonKey: String = "",
   @Json(name = "height_json_key") val heightJsonKey: String = "",
   @Json(name = "tags_json_key") val tagsJsonKey: String = "",
-  @Json(name = "banned_tags") val bannedTags: List<String> = emptyList()
+  @Json(name = "banned_tags") val bannedTags: List<String> = emptyList(),
+  @Json(name = "max_concurrent_requests") val maxConcurrentRequests: Int = DEFAULT_MAX_CONCURRENT_REQUESTS,
+  @Json(name = "max_requests_per_second") val maxRequestsPerSecond: Int = DEFAULT_MAX_REQUESTS_PER_SECOND
 ) {
   // This is used to differentiate two boorus apart from each other.
   // It's impossible to have to separate boorus with the same key.
@@ -38,6 +40,23 @@ data class BooruSetting(
 
   val bannedTagsAsString by lazy { bannedTags.joinToString(separator = " ") }
 
+  // Key of the cached lookup results of this booru. Includes everything that affects what we
+  // extract from the booru response so that changing any of these settings makes the old results
+  // unreachable.
+  val lookupCacheKey by lazy {
+    val settingsHash = listOf(
+      fullUrlJsonKey,
+      previewUrlJsonKey,
+      fileSizeJsonKey,
+      widthJsonKey,
+      heightJsonKey,
+      tagsJsonKey,
+      bannedTags.joinToString(separator = " ")
+    ).hashCode()
+
+    return@lazy "${apiEndpoint}#${settingsHash}"
+  }
+
   @Transient
   private var _imageFileNamePattern: Pattern? = null
 
@@ -72,6 +91,8 @@ data class BooruSetting(
   companion object {
     const val KEY_MARKER = "{key}"
     const val defaultImageFileNameRegex = "^([a-f0-9]{32})\$"
+    const val DEFAULT_MAX_CONCURRENT_REQUESTS = 2
+    const val DEFAULT_MAX_REQUESTS_PER_SECOND = 4
   }
 
 }
\ No newline at end of file
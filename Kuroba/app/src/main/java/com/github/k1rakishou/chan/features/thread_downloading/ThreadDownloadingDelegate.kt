@@ -106,6 +106,7 @@ class ThreadDownloadingDelegate(
     val outOfDiskSpaceError = AtomicBoolean(false)
     val outputDirError = AtomicBoolean(false)
     val canceled = AtomicBoolean(false)
+    val runMetrics = RunMetrics()
 
     threadDownloads.forEachIndexed { index, threadDownload ->
       try {
@@ -123,7 +124,8 @@ class ThreadDownloadingDelegate(
           index = index + 1,
           total = threadDownloads.size,
           outOfDiskSpaceError = outOfDiskSpaceError,
-          outputDirError = outputDirError
+          outputDirError = outputDirError,
+          runMetrics = runMetrics
         )
 
         threadDownloadProgressNotifier.notifyProgressEvent(
@@ -153,7 +155,7 @@ class ThreadDownloadingDelegate(
     }
 
     threadDownloadManager.onThreadsProcessed()
-    Logger.d(TAG, "doWorkInternal() success")
+    Logger.d(TAG, "doWorkInternal() success, metrics: ${runMetrics}")
   }
 
   private suspend fun processThread(
@@ -162,6 +164,7 @@ class ThreadDownloadingDelegate(
     total: Int,
     outOfDiskSpaceError: AtomicBoolean,
     outputDirError: AtomicBoolean,
+    runMetrics: RunMetrics
   ) {
     val threadDescriptor = threadDownload.threadDescriptor
     Logger.d(TAG, "processThread($index/$total) loadThreadOrCatalog($threadDescriptor) start")
@@ -201,10 +204,19 @@ class ThreadDownloadingDelegate(
       && !outOfDiskSpaceError.get()
       && isNetworkGoodForMediaDownload
 
+    var mediaEnqueued = 0
+
     if (canProcessThreadMedia) {
-      val chanPostImages = chanPostImageRepository.selectPostImagesByOwnerThreadDatabaseId(ownerThreadDatabaseId)
-        .peekError { error -> Logger.e(TAG, "Failed to select images by threadId: ${ownerThreadDatabaseId}", error) }
-        .mapErrorToValue { emptyList<ChanPostImage>() }
+      val chanPostImages = if (downloadResult.processAllMedia) {
+        chanPostImageRepository.selectPostImagesByOwnerThreadDatabaseId(ownerThreadDatabaseId)
+          .peekError { error -> Logger.e(TAG, "Failed to select images by threadId: ${ownerThreadDatabaseId}", error) }
+          .mapErrorToValue { emptyList<ChanPostImage>() }
+      } else {
+        // Only new or changed posts were persisted so only their media may be not downloaded yet
+        downloadResult.posts.flatMap { chanPost -> chanPost.postImages }
+      }
+
+      mediaEnqueued = chanPostImages.size
 
       processThreadMedia(
         index = index,
@@ -221,6 +233,18 @@ class ThreadDownloadingDelegate(
         "outOfDiskSpaceError=${outOfDiskSpaceError.get()}")
     }
 
+    threadDownloaderPersistPostsInDatabaseUseCase.onThreadMediaProcessed(
+      threadDescriptor = threadDescriptor,
+      allMediaProcessed = !threadDownload.downloadMedia
+        || (canProcessThreadMedia && !outOfDiskSpaceError.get() && !outputDirError.get())
+    )
+
+    runMetrics.onThreadProcessed(
+      postsWritten = downloadResult.posts.size,
+      postsSkipped = downloadResult.postsSkipped,
+      mediaEnqueued = mediaEnqueued
+    )
+
     val resultMessage = when {
       outOfDiskSpaceError.get() -> "Out of disk space error"
       outputDirError.get() -> "Output directory access error"
@@ -234,13 +258,18 @@ class ThreadDownloadingDelegate(
 
     if (downloadResult.archived || downloadResult.closed || downloadResult.deleted) {
       threadDownloadManager.completeDownloading(threadDescriptor)
+      threadDownloaderPersistPostsInDatabaseUseCase.forgetThread(threadDescriptor)
     }
 
     val status = "archived: ${downloadResult.archived}, " +
       "closed: ${downloadResult.closed}, " +
       "deleted: ${downloadResult.deleted}, " +
       "outOfDiskSpace: ${outOfDiskSpaceError.get()}, " +
-      "outputDirError: ${outputDirError.get()}, "
+      "outputDirError: ${outputDirError.get()}, " +
+      "incremental: ${downloadResult.isIncremental}, " +
+      "postsWritten: ${downloadResult.posts.size}, " +
+      "postsSkipped: ${downloadResult.postsSkipped}, " +
+      "mediaEnqueued: ${mediaEnqueued}"
 
     Logger.d(TAG, "processThread($index/$total) loadThreadOrCatalog($threadDescriptor) end, status: $status")
   }
@@ -442,6 +471,25 @@ class ThreadDownloadingDelegate(
     }
   }
 
+  private class RunMetrics {
+    private var threadsProcessed = 0
+    private var postsWritten = 0
+    private var postsSkipped = 0
+    private var mediaEnqueued = 0
+
+    fun onThreadProcessed(postsWritten: Int, postsSkipped: Int, mediaEnqueued: Int) {
+      this.threadsProcessed += 1
+      this.postsWritten += postsWritten
+      this.postsSkipped += postsSkipped
+      this.mediaEnqueued += mediaEnqueued
+    }
+
+    override fun toString(): String {
+      return "RunMetrics{threadsProcessed=$threadsProcessed, postsWritten=$postsWritten, " +
+        "postsSkipped=$postsSkipped, mediaEnqueued=$mediaEnqueued}"
+    }
+  }
+
   companion object {
     private const val TAG = "ThreadDownloadingDelegate"
     private const val NO_MEDIA_FILE_NAME = ".nomedia"
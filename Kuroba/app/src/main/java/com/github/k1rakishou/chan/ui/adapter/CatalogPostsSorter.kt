@@ -0,0 +1,180 @@
+package com.github.k1rakishou.chan.ui.adapter
+
+import android.util.LruCache
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sorts catalog threads by precomputing one primitive key per thread and then sorting an array of
+ * indexes by those keys instead of calling a comparator which recalculates everything for every
+ * comparison. The resulting orderings are cached per catalog snapshot (which is identified by a
+ * fingerprint of all the fields that participate in sorting) and sort order, so re-selecting an
+ * order or refreshing an unchanged catalog does not sort anything at all.
+ * */
+object CatalogPostsSorter {
+  private const val MAX_CACHED_ORDERINGS = 32
+  private val ACTIVITY_TIME_BUCKET_SECONDS = TimeUnit.MINUTES.toSeconds(1)
+
+  private val cachedOrderings = LruCache<OrderingKey, CachedOrdering>(MAX_CACHED_ORDERINGS)
+
+  fun sort(
+    chanDescriptor: ChanDescriptor,
+    order: PostsFilter.Order,
+    posts: MutableList<ChanOriginalPost>
+  ) {
+    if (order == PostsFilter.Order.BUMP || posts.size < 2) {
+      return
+    }
+
+    val currentTimeSeconds = System.currentTimeMillis() / 1000L
+    val fingerprint = calculateFingerprint(order, posts, currentTimeSeconds)
+    val orderingKey = OrderingKey(chanDescriptor, order)
+
+    val cachedOrdering = cachedOrderings.get(orderingKey)
+    if (cachedOrdering != null
+      && cachedOrdering.fingerprint == fingerprint
+      && cachedOrdering.indexes.size == posts.size
+    ) {
+      applyOrdering(posts, cachedOrdering.indexes)
+      return
+    }
+
+    val indexes = sortIndexes(calculateKeys(order, posts, currentTimeSeconds))
+    cachedOrderings.put(orderingKey, CachedOrdering(fingerprint, indexes))
+
+    applyOrdering(posts, indexes)
+  }
+
+  private fun calculateKeys(
+    order: PostsFilter.Order,
+    posts: List<ChanOriginalPost>,
+    currentTimeSeconds: Long
+  ): LongArray {
+    val keys = LongArray(posts.size)
+
+    // All keys are sorted in ascending order so descending orders use negated values
+    for ((index, post) in posts.withIndex()) {
+      keys[index] = when (order) {
+        PostsFilter.Order.IMAGE -> -post.catalogImagesCount.toLong()
+        PostsFilter.Order.REPLY -> -post.catalogRepliesCount.toLong()
+        PostsFilter.Order.NEWEST -> -post.timestamp
+        PostsFilter.Order.OLDEST -> post.timestamp
+        PostsFilter.Order.MODIFIED -> -post.lastModified
+        PostsFilter.Order.ACTIVITY -> activityScore(post, currentTimeSeconds)
+        PostsFilter.Order.BUMP -> index.toLong()
+      }
+    }
+
+    return keys
+  }
+
+  private fun activityScore(post: ChanOriginalPost, currentTimeSeconds: Long): Long {
+    // we can't divide by zero, but we can divide by the smallest thing that's closest to 0 instead
+    val eps = 0.0001f
+
+    val divider = if (post.catalogRepliesCount > 0) {
+      post.catalogRepliesCount.toFloat()
+    } else {
+      eps
+    }
+
+    return ((currentTimeSeconds - post.timestamp).toFloat() / divider).toLong()
+  }
+
+  /**
+   * Stable merge sort of indexes by their keys (threads with equal keys retain their bump order).
+   * */
+  private fun sortIndexes(keys: LongArray): IntArray {
+    var indexes = IntArray(keys.size) { index -> index }
+    var buffer = IntArray(keys.size)
+
+    var width = 1
+    while (width < keys.size) {
+      var left = 0
+
+      while (left < keys.size) {
+        val middle = minOf(left + width, keys.size)
+        val right = minOf(left + width * 2, keys.size)
+
+        var i = left
+        var j = middle
+        var k = left
+
+        while (i < middle && j < right) {
+          if (keys[indexes[j]] < keys[indexes[i]]) {
+            buffer[k++] = indexes[j++]
+          } else {
+            buffer[k++] = indexes[i++]
+          }
+        }
+
+        while (i < middle) {
+          buffer[k++] = indexes[i++]
+        }
+
+        while (j < right) {
+          buffer[k++] = indexes[j++]
+        }
+
+        left += width * 2
+      }
+
+      val temp = indexes
+      indexes = buffer
+      buffer = temp
+
+      width *= 2
+    }
+
+    return indexes
+  }
+
+  private fun applyOrdering(posts: MutableList<ChanOriginalPost>, indexes: IntArray) {
+    val unsortedPosts = ArrayList(posts)
+
+    for ((newIndex, oldIndex) in indexes.withIndex()) {
+      posts[newIndex] = unsortedPosts[oldIndex]
+    }
+  }
+
+  private fun calculateFingerprint(
+    order: PostsFilter.Order,
+    posts: List<ChanOriginalPost>,
+    currentTimeSeconds: Long
+  ): Long {
+    var hash = posts.size.toLong()
+
+    if (order == PostsFilter.Order.ACTIVITY) {
+      // Activity score depends on the current time so we want to recalculate it once in a while
+      hash = mix(hash, currentTimeSeconds / ACTIVITY_TIME_BUCKET_SECONDS)
+    }
+
+    for (post in posts) {
+      hash = mix(hash, post.postDescriptor.postNo)
+      hash = mix(hash, post.timestamp)
+      hash = mix(hash, post.lastModified)
+      hash = mix(hash, post.catalogRepliesCount.toLong())
+      hash = mix(hash, post.catalogImagesCount.toLong())
+    }
+
+    return hash
+  }
+
+  private fun mix(hash: Long, value: Long): Long {
+    var result = (hash xor value) * -0x61c8864680b583ebL
+    result = result xor (result ushr 29)
+    return result
+  }
+
+  private data class OrderingKey(
+    val chanDescriptor: ChanDescriptor,
+    val order: PostsFilter.Order
+  )
+
+  private class CachedOrdering(
+    val fingerprint: Long,
+    val indexes: IntArray
+  )
+
+}
@@ -8,6 +8,10 @@ import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.unreachable
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
 import java.text.SimpleDateFormat
 import java.util.*
 import java.util.concurrent.TimeUnit
@@ -23,6 +27,11 @@ class CaptchaHolder {
   @GuardedBy("itself")
   private val captchaQueue: MutableList<CaptchaInfo> = ArrayList()
 
+  private val _newSolutionsFlow = MutableSharedFlow<Unit>(
+    extraBufferCapacity = 1,
+    onBufferOverflow = BufferOverflow.DROP_OLDEST
+  )
+
   fun setListener(descriptor: ChanDescriptor, listener: CaptchaValidationListener?) {
     BackgroundUtils.ensureMainThread()
 
@@ -70,6 +79,12 @@ class CaptchaHolder {
 
     notifyListener()
     startTimer()
+
+    _newSolutionsFlow.tryEmit(Unit)
+  }
+
+  fun listenForNewSolutions(): SharedFlow<Unit> {
+    return _newSolutionsFlow.asSharedFlow()
   }
 
   fun hasSolution(): Boolean {
@@ -655,7 +655,14 @@ class PostCell @JvmOverloads constructor(
 
   private fun bindPostTitle(pcd: PostCellData) {
     if (::title.isInitialized) {
-      title.setText(pcd.postTitle, TextView.BufferType.SPANNABLE)
+      PrecomputedPostText.titleTextMetrics.bind(
+        textView = title,
+        textSizeSp = pcd.textSizeSp,
+        text = pcd.postTitle,
+        precomputedPostText = pcd.precomputedPostTitle,
+        // Title movement method only reads the spans
+        mutable = false
+      )
     }
   }
 
@@ -666,9 +673,7 @@ class PostCell @JvmOverloads constructor(
 
     val now = DateTime.now()
 
-    val insertedAtMillis = seenPostsManager.get().getSeenPostOrNull(postCellData.postDescriptor)
-      ?.insertedAt
-      ?.millis
+    val insertedAtMillis = seenPostsManager.get().getSeenPostInsertedAtMillisOrNull(postCellData.postDescriptor)
 
     if (insertedAtMillis == null) {
       return PostUnseenIndicatorFadeAnimator.ANIMATION_DURATION.toInt()
@@ -921,7 +926,15 @@ class PostCell @JvmOverloads constructor(
   @SuppressLint("ClickableViewAccessibility")
   private fun bindPostContent(postCellData: PostCellData) {
     val theme = postCellData.theme
-    comment.setText(postCellData.commentText, TextView.BufferType.SPANNABLE)
+
+    PrecomputedPostText.commentTextMetrics.bind(
+      textView = comment,
+      textSizeSp = postCellData.textSizeSp,
+      text = postCellData.commentText,
+      precomputedPostText = postCellData.precomputedCommentText,
+      // Comment movement method adds link/quote/spoiler touch spans and the comment is selectable
+      mutable = !postCellData.isSelectionMode && (postCellData.isViewingThread || postCellData.searchMode)
+    )
 
     if (postCellData.isSelectionMode) {
       comment.customSelectionActionModeCallback = null
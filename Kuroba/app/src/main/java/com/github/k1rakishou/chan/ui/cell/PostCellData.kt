@@ -14,6 +14,7 @@ import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getQuantityString
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getString
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.sp
+import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.chan.utils.SpannableHelper
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.StringUtils
@@ -176,6 +177,12 @@ data class PostCellData(
   private val _postFileInfoMapHash = RecalculatableLazy { postFileInfoHashPrecalculated ?: calculatePostFileInfoHash(_postFileInfoMap) }
   private val _commentText = RecalculatableLazy { commentTextPrecalculated ?: calculateCommentText() }
   private val _repliesToThisPostText = RecalculatableLazy { repliesToThisPostTextPrecalculated ?: calculateRepliesToThisPostText() }
+  private val _precomputedPostTitle = RecalculatableLazy {
+    PrecomputedPostText.titleTextMetrics.precompute(postTitle, textSizeSp)
+  }
+  private val _precomputedCommentText = RecalculatableLazy {
+    PrecomputedPostText.commentTextMetrics.precompute(commentText, textSizeSp)
+  }
 
   val detailsSizePx: Int
     get() = _detailsSizePx.value()
@@ -196,6 +203,13 @@ data class PostCellData(
   val repliesToThisPostText
     get() = _repliesToThisPostText.value()
 
+  // Only calculated by preload() (and recalculatePostTitle()), binding falls back to measuring the
+  // text on the main thread when they are not calculated yet.
+  val precomputedPostTitle: PrecomputedPostText?
+    get() = _precomputedPostTitle.valueOrNull()
+  val precomputedCommentText: PrecomputedPostText?
+    get() = _precomputedCommentText.valueOrNull()
+
   fun hashForAdapter(): Long {
     val repliesFromCount = post.repliesFromCount
     return (repliesFromCount.toLong() shl 32) + post.postNo() + post.postSubNo()
@@ -207,6 +221,9 @@ data class PostCellData(
     withContext(Dispatchers.Default) {
       _postTitle.resetValue()
       _postTitle.value()
+
+      _precomputedPostTitle.resetValue()
+      _precomputedPostTitle.value()
     }
   }
 
@@ -227,11 +244,14 @@ data class PostCellData(
     _postFileInfoMapHash.resetValue()
     _commentText.resetValue()
     _repliesToThisPostText.resetValue()
+    _precomputedPostTitle.resetValue()
+    _precomputedCommentText.resetValue()
   }
 
   fun resetCommentTextCache() {
     commentTextPrecalculated = null
     _commentText.resetValue()
+    _precomputedCommentText.resetValue()
   }
 
   fun resetPostTitleCache() {
@@ -240,6 +260,7 @@ data class PostCellData(
 
     _postTitleStub.resetValue()
     _postTitle.resetValue()
+    _precomputedPostTitle.resetValue()
   }
 
   fun resetPostFileInfoCache() {
@@ -266,6 +287,12 @@ data class PostCellData(
     _postFileInfoMapHash.value()
     _commentText.value()
     _repliesToThisPostText.value()
+
+    // Measuring the text on the main thread would only move the cost of TextView.setText() here
+    if (!BackgroundUtils.isMainThread()) {
+      _precomputedPostTitle.value()
+      _precomputedCommentText.value()
+    }
   }
 
   fun fullCopy(): PostCellData {
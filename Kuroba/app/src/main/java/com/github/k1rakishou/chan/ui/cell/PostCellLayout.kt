@@ -614,7 +614,9 @@ open class PostCellLayout @JvmOverloads constructor(
       return PostCommentShiftResult.ShiftAndAttachToTheSideOfThumbnail
     }
 
-    val titleTextBounds = title.getTextBounds(postCellData.postTitle, availableWidth)
+    // title and comment are already bound at this point, their text is the precomputed one (when it
+    // was available) so these StaticLayouts reuse the already measured text.
+    val titleTextBounds = title.getTextBounds(title.text, availableWidth)
 
     val imageFileNameTextBounds = if (imageFileName != null && imageFileName!!.visibility == View.VISIBLE) {
       imageFileName!!.getTextBounds(postFileInfo, availableWidth)
@@ -623,7 +625,7 @@ open class PostCellLayout @JvmOverloads constructor(
     }
 
     val resultTitleTextBounds = titleTextBounds.mergeWith(imageFileNameTextBounds)
-    val commentTextBounds = comment.getTextBounds(postCellData.commentText, (availableWidthIncludingThumbnail))
+    val commentTextBounds = comment.getTextBounds(comment.text, (availableWidthIncludingThumbnail))
     val commentHeight = commentTextBounds.textHeight
 
     val multiplier = when (postCellData.postAlignmentMode) {
@@ -0,0 +1,132 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import android.graphics.Paint
+import android.graphics.Typeface
+import android.text.Layout
+import android.text.TextDirectionHeuristics
+import android.text.TextPaint
+import android.widget.TextView
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
+import com.github.k1rakishou.common.AndroidUtils
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Post title or comment that was already measured (shaped, glyph widths calculated, line break
+ * opportunities found) for the text metrics of the PostCell TextView it's going to be bound to.
+ * Measuring is what makes the first bind of a long comment with lots of spans slow so it's done in
+ * [PostCellData.preload] on the same background thread that builds the spans. TextView does not
+ * accept a ready Layout so the only thing left on the main thread is breaking the measured text into
+ * lines for the actual width of the TextView.
+ *
+ * A precomputed text can only be used for the exact text instance it was created for (new spans
+ * after theme change or search query change means new text instance) and with the exact same text
+ * metrics params (text size, typeface, etc.) as the TextView, otherwise the regular setText() is
+ * used.
+ * */
+class PrecomputedPostText private constructor(
+  val source: CharSequence,
+  val precomputedText: PrecomputedTextCompat
+) {
+
+  fun isUsableFor(text: CharSequence, textMetricsParams: PrecomputedTextCompat.Params): Boolean {
+    return source === text && precomputedText.params == textMetricsParams
+  }
+
+  /**
+   * Text metrics params of one of the PostCell TextViews per text size. Until a TextView with this
+   * text size is bound the params are built from the TextView defaults. Every bind replaces them
+   * with the actual params of the TextView so in case the defaults do not match (theme or vendor
+   * changes to the default text appearance) only the texts precomputed before the first bind are
+   * wasted.
+   * */
+  class TextMetrics(
+    private val typeface: Typeface?
+  ) {
+    private val textMetricsParamsMap = ConcurrentHashMap<Int, PrecomputedTextCompat.Params>()
+
+    fun precompute(text: CharSequence, textSizeSp: Int): PrecomputedPostText {
+      return PrecomputedPostText(text, PrecomputedTextCompat.create(text, textMetricsParams(textSizeSp)))
+    }
+
+    fun textMetricsParams(textSizeSp: Int): PrecomputedTextCompat.Params {
+      return textMetricsParamsMap.getOrPut(textSizeSp) { defaultTextMetricsParams(textSizeSp) }
+    }
+
+    /**
+     * Sets [precomputedPostText] as the text of [textView] when it was created for [text] and params
+     * of the [textView], otherwise sets [text] the usual way. Returns true when the precomputed text
+     * was used.
+     *
+     * [mutable] must be true when spans may be added to the text after it's bound or the text may
+     * become selectable. Starting with Android 10 the TextView keeps the immutable PrecomputedText
+     * itself, which throws when a span that affects text metrics is added and falls back to a full
+     * layout on some text changes, so mutable texts are always copied into a Spannable. They still
+     * benefit from the text layout cache that was warmed up by precomputing.
+     * */
+    fun bind(
+      textView: TextView,
+      textSizeSp: Int,
+      text: CharSequence,
+      precomputedPostText: PrecomputedPostText?,
+      mutable: Boolean
+    ): Boolean {
+      val textViewParams = TextViewCompat.getTextMetricsParams(textView)
+      if (textMetricsParamsMap[textSizeSp] != textViewParams) {
+        textMetricsParamsMap[textSizeSp] = textViewParams
+      }
+
+      if (precomputedPostText == null || !precomputedPostText.isUsableFor(text, textViewParams)) {
+        textView.setText(text, TextView.BufferType.SPANNABLE)
+        return false
+      }
+
+      if (AndroidUtils.isAndroid10() && !mutable) {
+        TextViewCompat.setPrecomputedText(textView, precomputedPostText.precomputedText)
+      } else {
+        // Before Android 10 PrecomputedTextCompat only warms up the text layout cache and the text
+        // is copied anyway. Copy it into a Spannable because some of the PostCell code expects it
+        // (setPrecomputedText() would set it as a SpannedString when there is no movement method).
+        textView.setText(precomputedPostText.precomputedText, TextView.BufferType.SPANNABLE)
+      }
+
+      return true
+    }
+
+    private fun defaultTextMetricsParams(textSizeSp: Int): PrecomputedTextCompat.Params {
+      // Same as TextView.setTextSize(float)
+      val scaledDensity = AppModuleAndroidUtils.getRes().displayMetrics.scaledDensity
+
+      val textPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+      textPaint.textSize = textSizeSp * scaledDensity
+      textPaint.typeface = typeface
+
+      val builder = PrecomputedTextCompat.Params.Builder(textPaint)
+        .setTextDirection(TextDirectionHeuristics.FIRSTSTRONG_LTR)
+
+      if (AndroidUtils.isAndroidM()) {
+        // TextView has hyphenation disabled by default starting with Android 10
+        val hyphenationFrequency = if (AndroidUtils.isAndroid10()) {
+          Layout.HYPHENATION_FREQUENCY_NONE
+        } else {
+          Layout.HYPHENATION_FREQUENCY_NORMAL
+        }
+
+        builder
+          .setBreakStrategy(Layout.BREAK_STRATEGY_HIGH_QUALITY)
+          .setHyphenationFrequency(hyphenationFrequency)
+      }
+
+      return builder.build()
+    }
+  }
+
+  companion object {
+    // PostCell sets Typeface.DEFAULT explicitly for the comment, title uses whatever TextView has
+    // by default
+    val commentTextMetrics = TextMetrics(Typeface.DEFAULT)
+    val titleTextMetrics = TextMetrics(null)
+  }
+
+}
@@ -32,6 +32,7 @@ import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils.getString
 import com.github.k1rakishou.chan.utils.IOUtils
 import com.github.k1rakishou.common.AndroidUtils
 import com.github.k1rakishou.common.isNotNullNorBlank
+import com.github.k1rakishou.common.isNotNullNorEmpty
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ThemeEngine
 import kotlinx.coroutines.Dispatchers
@@ -128,6 +129,15 @@ class LogsController(context: Context) : Controller(context) {
     fun loadLogs(): String? {
       val logMpv = ChanSettings.showMpvInternalLogs.get()
 
+      // Persisted logs also contain the logs of the previous app runs (e.g. the one that crashed)
+      // but mpv internal logs only go into logcat
+      if (!logMpv) {
+        val persistedLogs = Logger.readPersistedLogs(DEFAULT_LINES_COUNT)
+        if (persistedLogs.isNotNullNorEmpty()) {
+          return persistedLogs
+        }
+      }
+
       val process = try {
         ProcessBuilder().command(
           "logcat",
@@ -36,7 +36,6 @@ import android.view.MotionEvent
 import android.view.animation.Interpolator
 import androidx.appcompat.widget.AppCompatImageView
 import androidx.interpolator.view.animation.FastOutSlowInInterpolator
-import coil.request.Disposable
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.core.base.Debouncer
@@ -44,6 +43,7 @@ import com.github.k1rakishou.chan.core.base.KurobaCoroutineScope
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.image.ImageLoaderV2
+import com.github.k1rakishou.chan.core.image.ThumbnailLoadPriority
 import com.github.k1rakishou.chan.core.manager.GlobalViewStateManager
 import com.github.k1rakishou.chan.core.manager.GlobalWindowInsetsManager
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
@@ -59,7 +59,7 @@ import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
 open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener {
-  private var requestDisposable: Disposable? = null
+  private var requestDisposable: ImageLoaderV2.ThumbnailRequestDisposable? = null
   private var errorText: String? = null
   private var foregroundCalculate = false
   private var imageForeground: Drawable? = null
@@ -122,6 +122,9 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
     super.onAttachedToWindow()
 
     themeEngine.addListener(this)
+
+    // The view was bound ahead of time and now it's on the screen
+    requestDisposable?.updatePriority(ThumbnailLoadPriority.Visible)
   }
 
   override fun onDetachedFromWindow() {
@@ -205,6 +208,13 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
     this.cacheFileType = cacheFileType
     this._thumbnailViewOptions = thumbnailViewOptions
 
+    if (imageLoaderV2.get().isInMemoryCache(url, imageSize, emptyList())) {
+      // The thumbnail is already decoded, set it right away (without the coroutine and the
+      // debouncer) so that there are no empty frames while scrolling.
+      loadImage(url, postDescriptor, imageSize, thumbnailViewOptions)
+      return
+    }
+
     kurobaScope!!.launch {
       setUrlInternal(
         url = url,
@@ -327,7 +337,63 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
     imageSize: ImageLoaderV2.ImageSize,
     thumbnailViewOptions: ThumbnailViewOptions
   ) {
-    val listener = object : ImageLoaderV2.FailureAwareImageListener {
+    val isCached = imageLoaderV2.get().isImageCachedLocally(
+      cacheFileType = cacheFileType,
+      url = url
+    )
+
+    val isDraggingCatalogScroller =
+      globalViewStateManager.isDraggingFastScroller(FastScroller.FastScrollerControllerType.Catalog)
+    val isDraggingThreadScroller =
+      globalViewStateManager.isDraggingFastScroller(FastScroller.FastScrollerControllerType.Thread)
+    val isDraggingCatalogOrThreadFastScroller =
+      isDraggingCatalogScroller || isDraggingThreadScroller
+
+    if (!isDraggingCatalogOrThreadFastScroller && isCached) {
+      loadImage(url, postDescriptor, imageSize, thumbnailViewOptions)
+    } else {
+      debouncer.post({ loadImage(url, postDescriptor, imageSize, thumbnailViewOptions) }, IMAGE_REQUEST_DEBOUNCER_TIMEOUT_MS)
+    }
+  }
+
+  private fun loadImage(
+    url: String,
+    postDescriptor: PostDescriptor,
+    imageSize: ImageLoaderV2.ImageSize,
+    thumbnailViewOptions: ThumbnailViewOptions
+  ) {
+    // Views that are bound ahead of time by RecyclerView's prefetch are not attached yet
+    val priority = if (isAttachedToWindow) {
+      ThumbnailLoadPriority.Visible
+    } else {
+      ThumbnailLoadPriority.NearVisible
+    }
+
+    val prevRequestDisposable = requestDisposable
+
+    requestDisposable = imageLoaderV2.get().loadFromNetwork(
+      context = context,
+      cacheFileType = cacheFileType,
+      requestUrl = url,
+      imageSize = imageSize,
+      transformations = emptyList(),
+      listener = createImageListener(url, postDescriptor, imageSize, thumbnailViewOptions),
+      postDescriptor = postDescriptor,
+      priority = priority
+    )
+
+    // Dispose of the previous request only after the new one is enqueued, so when the url is the
+    // same the new listener joins the already running request instead of restarting it.
+    prevRequestDisposable?.dispose()
+  }
+
+  private fun createImageListener(
+    url: String,
+    postDescriptor: PostDescriptor,
+    imageSize: ImageLoaderV2.ImageSize,
+    thumbnailViewOptions: ThumbnailViewOptions
+  ): ImageLoaderV2.FailureAwareImageListener {
+    return object : ImageLoaderV2.FailureAwareImageListener {
       override fun onResponse(drawable: BitmapDrawable, isImmediate: Boolean) {
         if (url != this@ThumbnailView._imageUrl) {
           // Request was canceled (probably because the parent view was unbound) so we don't
@@ -386,41 +452,6 @@ open class ThumbnailView : AppCompatImageView, ThemeEngine.ThemeChangesListener
         invalidate()
       }
     }
-
-    fun loadImage() {
-      if (url != this._imageUrl) {
-        requestDisposable?.dispose()
-        requestDisposable = null
-      }
-
-      requestDisposable = imageLoaderV2.get().loadFromNetwork(
-        context = context,
-        cacheFileType = cacheFileType,
-        requestUrl = url,
-        imageSize = imageSize,
-        transformations = emptyList(),
-        listener = listener,
-        postDescriptor = postDescriptor
-      )
-    }
-
-    val isCached = imageLoaderV2.get().isImageCachedLocally(
-      cacheFileType = cacheFileType,
-      url = url
-    )
-
-    val isDraggingCatalogScroller =
-      globalViewStateManager.isDraggingFastScroller(FastScroller.FastScrollerControllerType.Catalog)
-    val isDraggingThreadScroller =
-      globalViewStateManager.isDraggingFastScroller(FastScroller.FastScrollerControllerType.Thread)
-    val isDraggingCatalogOrThreadFastScroller =
-      isDraggingCatalogScroller || isDraggingThreadScroller
-
-    if (!isDraggingCatalogOrThreadFastScroller && isCached) {
-      loadImage()
-    } else {
-      debouncer.post({ loadImage() }, IMAGE_REQUEST_DEBOUNCER_TIMEOUT_MS)
-    }
   }
 
   private fun onImageSet(isImmediate: Boolean) {
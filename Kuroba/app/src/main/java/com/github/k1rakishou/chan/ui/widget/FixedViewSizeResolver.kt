@@ -16,7 +16,7 @@ class FixedViewSizeResolver<T : View>(
 
   override suspend fun size(): Size {
     // Fast path: the view is already measured.
-    getSize()?.let { return it }
+    sizeOrNull()?.let { return it }
 
     // Slow path: wait for the view to be measured.
     return suspendCancellableCoroutine { continuation ->
@@ -24,7 +24,7 @@ class FixedViewSizeResolver<T : View>(
 
       val preDrawListener = object : ViewTreeObserver.OnPreDrawListener {
         override fun onPreDraw(): Boolean {
-          val size = getSize()
+          val size = sizeOrNull()
           if (size != null) {
             viewTreeObserver.removePreDrawListenerSafe(this)
 
@@ -45,7 +45,10 @@ class FixedViewSizeResolver<T : View>(
     }
   }
 
-  private fun getSize(): PixelSize? {
+  /**
+   * Returns the size right away if the view is already measured, null otherwise.
+   * */
+  fun sizeOrNull(): PixelSize? {
     val width = getWidth().also { if (it <= 0) return null }
     val height = getHeight().also { if (it <= 0) return null }
     return PixelSize(width, height)
@@ -0,0 +1,127 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertTrue
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class HostConcurrencyLimiterInterceptorTest {
+  private val server = MockWebServer()
+  private val executor = Executors.newFixedThreadPool(8)
+
+  @Before
+  fun setUp() {
+    server.start()
+  }
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+    server.shutdown()
+  }
+
+  @Test
+  fun `concurrent requests of a traffic class are limited per host`() {
+    val inFlight = AtomicInteger(0)
+    val maxInFlight = AtomicInteger(0)
+
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest): MockResponse {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+        Thread.sleep(100)
+        inFlight.decrementAndGet()
+
+        return MockResponse().setBody("ok")
+      }
+    }
+
+    val client = createClient(HostConcurrencyLimiter())
+
+    val futures = (0 until 8).map {
+      executor.submit {
+        client.newCall(request(TrafficClass.Prefetch)).execute().use { response -> response.body!!.string() }
+      }
+    }
+
+    futures.forEach { future -> future.get(10, TimeUnit.SECONDS) }
+
+    assertEquals(8, server.requestCount)
+    assertTrue("maxInFlight=${maxInFlight.get()}", maxInFlight.get() <= TrafficClass.Prefetch.maxConcurrentRequestsPerHost)
+  }
+
+  @Test
+  fun `permits are held until the body is closed and do not block other traffic classes`() {
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest): MockResponse {
+        return MockResponse().setBody("ok")
+      }
+    }
+
+    val hostConcurrencyLimiter = HostConcurrencyLimiter()
+    val client = createClient(hostConcurrencyLimiter)
+    val host = server.hostName
+
+    val openResponses = mutableListOf<Response>()
+    repeat(TrafficClass.Prefetch.maxConcurrentRequestsPerHost) {
+      openResponses += client.newCall(request(TrafficClass.Prefetch)).execute()
+    }
+
+    assertEquals(
+      TrafficClass.Prefetch.maxConcurrentRequestsPerHost,
+      hostConcurrencyLimiter.activeRequests(host, TrafficClass.Prefetch)
+    )
+
+    // Prefetch is saturated but API requests still go through
+    client.newCall(request(TrafficClass.Api)).execute().use { response ->
+      assertEquals("ok", response.body!!.string())
+    }
+
+    // Waiting for a permit is interrupted when the call is canceled
+    val blockedCall = client.newCall(request(TrafficClass.Prefetch))
+    val blockedFuture = executor.submit<IOException?> {
+      try {
+        blockedCall.execute().close()
+        return@submit null
+      } catch (error: IOException) {
+        return@submit error
+      }
+    }
+
+    Thread.sleep(300)
+    assertEquals(TrafficClass.Prefetch.maxConcurrentRequestsPerHost + 1, server.requestCount)
+
+    blockedCall.cancel()
+    assertNotNull(blockedFuture.get(5, TimeUnit.SECONDS))
+
+    openResponses.forEach { response -> response.close() }
+    assertEquals(0, hostConcurrencyLimiter.activeRequests(host, TrafficClass.Prefetch))
+    assertEquals(0, hostConcurrencyLimiter.activeRequests(host, TrafficClass.Api))
+  }
+
+  private fun createClient(hostConcurrencyLimiter: HostConcurrencyLimiter): OkHttpClient {
+    return OkHttpClient.Builder()
+      .addInterceptor(HostConcurrencyLimiterInterceptor(hostConcurrencyLimiter, TrafficClass.Api))
+      .build()
+  }
+
+  private fun request(trafficClass: TrafficClass): Request {
+    return Request.Builder()
+      .url(server.url("/"))
+      .trafficClass(trafficClass)
+      .build()
+  }
+
+}
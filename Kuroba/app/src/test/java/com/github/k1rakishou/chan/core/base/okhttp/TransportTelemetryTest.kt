@@ -0,0 +1,83 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import junit.framework.Assert.assertEquals
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.SocketPolicy
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+
+class TransportTelemetryTest {
+  private val server = MockWebServer()
+
+  @Before
+  fun setUp() {
+    server.start()
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  @Test
+  fun `timings are recorded per host and connections are reused`() {
+    val transportTelemetry = TransportTelemetry()
+    val client = OkHttpClient.Builder()
+      .eventListenerFactory(transportTelemetry.eventListenerFactory)
+      .build()
+
+    repeat(3) {
+      server.enqueue(MockResponse().setBody("ok"))
+    }
+
+    repeat(3) {
+      client.newCall(Request.Builder().url(server.url("/")).build()).execute().use { response ->
+        assertEquals("ok", response.body!!.string())
+      }
+    }
+
+    val hostTimings = transportTelemetry.snapshot().single()
+
+    assertEquals(server.hostName, hostTimings.host)
+    assertEquals(3, hostTimings.calls)
+    assertEquals(0, hostTimings.failures)
+    assertEquals(2, hostTimings.reusedConnections)
+    assertEquals(1, hostTimings.connect.count)
+    // MockWebServer is plain http
+    assertEquals(0, hostTimings.tls.count)
+    assertEquals(3, hostTimings.ttfb.count)
+    assertEquals(3, hostTimings.total.count)
+  }
+
+  @Test
+  fun `failed calls are recorded`() {
+    val transportTelemetry = TransportTelemetry()
+    val client = OkHttpClient.Builder()
+      .eventListenerFactory(transportTelemetry.eventListenerFactory)
+      .retryOnConnectionFailure(false)
+      .build()
+
+    server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START))
+
+    try {
+      client.newCall(Request.Builder().url(server.url("/")).build()).execute().close()
+    } catch (error: IOException) {
+      // expected
+    }
+
+    val hostTimings = transportTelemetry.snapshot().single()
+
+    assertEquals(1, hostTimings.calls)
+    assertEquals(1, hostTimings.failures)
+    assertEquals(0, hostTimings.ttfb.count)
+
+    transportTelemetry.reset()
+    assertEquals(0, transportTelemetry.snapshot().size)
+  }
+
+}
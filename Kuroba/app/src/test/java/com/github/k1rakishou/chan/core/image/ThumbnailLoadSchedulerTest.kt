@@ -0,0 +1,73 @@
+package com.github.k1rakishou.chan.core.image
+
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class ThumbnailLoadSchedulerTest {
+
+  @Test
+  fun `higher priority lanes are served first and canceled requests are skipped`() = runTest {
+    val scheduler = ThumbnailLoadScheduler(maxConcurrentLoads = 1)
+    val gate = CompletableDeferred<Unit>()
+    val order = mutableListOf<String>()
+
+    launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.Visible)) { gate.await() } }
+    runCurrent()
+
+    launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.Prefetch)) { order += "prefetch" } }
+    launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.NearVisible)) { order += "nearVisible" } }
+    val canceled = launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.Visible)) { order += "canceled" } }
+    launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.Visible)) { order += "visible" } }
+    runCurrent()
+
+    assertEquals(listOf(2, 1, 1), scheduler.queueDepths().toList())
+
+    canceled.cancel()
+    runCurrent()
+
+    assertEquals(listOf(1, 1, 1), scheduler.queueDepths().toList())
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("visible", "nearVisible", "prefetch"), order)
+    assertEquals(0, scheduler.runningLoads())
+  }
+
+  @Test
+  fun `promoted requests move into the higher priority lane`() = runTest {
+    val scheduler = ThumbnailLoadScheduler(maxConcurrentLoads = 1)
+    val gate = CompletableDeferred<Unit>()
+    val order = mutableListOf<String>()
+
+    launch { scheduler.withSlot(scheduler.createTicket(ThumbnailLoadPriority.Visible)) { gate.await() } }
+    runCurrent()
+
+    val first = scheduler.createTicket(ThumbnailLoadPriority.Prefetch)
+    val second = scheduler.createTicket(ThumbnailLoadPriority.Prefetch)
+
+    launch { scheduler.withSlot(first) { order += "first" } }
+    launch { scheduler.withSlot(second) { order += "second" } }
+    runCurrent()
+
+    scheduler.updatePriority(second, ThumbnailLoadPriority.NearVisible)
+    // Lowering the priority is ignored
+    scheduler.updatePriority(second, ThumbnailLoadPriority.Prefetch)
+
+    assertEquals(ThumbnailLoadPriority.NearVisible, second.priority)
+    assertEquals(listOf(0, 1, 1), scheduler.queueDepths().toList())
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("second", "first"), order)
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.github.k1rakishou.chan.core.loader.impl
+
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class BooruRateLimiterTest {
+
+  @Test
+  fun `requests are spaced out according to the rate limit`() = runTest {
+    val rateLimiter = BooruRateLimiter(
+      maxConcurrentRequests = 10,
+      maxRequestsPerSecond = 4,
+      currentTimeMillis = { testScheduler.currentTime }
+    )
+
+    val startTimes = mutableListOf<Long>()
+
+    repeat(4) {
+      launch { rateLimiter.withPermit { startTimes += testScheduler.currentTime } }
+    }
+
+    advanceUntilIdle()
+
+    assertEquals(listOf(0L, 250L, 500L, 750L), startTimes)
+  }
+
+  @Test
+  fun `no more than max concurrent requests are running at the same time`() = runTest {
+    val rateLimiter = BooruRateLimiter(
+      maxConcurrentRequests = 2,
+      maxRequestsPerSecond = 1000,
+      currentTimeMillis = { testScheduler.currentTime }
+    )
+
+    val gate = CompletableDeferred<Unit>()
+    var running = 0
+    var maxRunning = 0
+
+    repeat(5) {
+      launch {
+        rateLimiter.withPermit {
+          ++running
+          maxRunning = maxOf(maxRunning, running)
+
+          gate.await()
+          --running
+        }
+      }
+    }
+
+    advanceUntilIdle()
+    assertEquals(2, running)
+
+    gate.complete(Unit)
+    runCurrent()
+    advanceUntilIdle()
+
+    assertEquals(0, running)
+    assertEquals(2, maxRunning)
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.github.k1rakishou.chan.core.manager
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.SeenPost
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.joda.time.DateTime
+import org.junit.Test
+
+class ThreadSeenPostsTest {
+  private val catalogDescriptor = ChanDescriptor.CatalogDescriptor.create("test", "test")
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(catalogDescriptor, 1L)
+
+  @Test
+  fun `lookup, merge and retain`() {
+    val threadSeenPosts = ThreadSeenPosts.fromSeenPosts(
+      listOf(seenPost(5, time = 50), seenPost(1, time = 10), seenPost(3, time = 30), seenPost(3, time = 99))
+    )
+
+    assertEquals(3, threadSeenPosts.size)
+    assertTrue(threadSeenPosts.contains(postDescriptor(1)))
+    assertFalse(threadSeenPosts.contains(postDescriptor(2)))
+    assertEquals(30L, threadSeenPosts.insertedAtMillisOrNull(postDescriptor(3)))
+
+    val merged = threadSeenPosts.mergeWith(
+      listOf(seenPost(2, time = 20), seenPost(5, time = 500), seenPost(7, time = 70))
+    )
+
+    assertEquals(5, merged.size)
+    assertEquals(20L, merged.insertedAtMillisOrNull(postDescriptor(2)))
+    // Already present posts keep their old insertedAt
+    assertEquals(50L, merged.insertedAtMillisOrNull(postDescriptor(5)))
+    assertEquals(70L, merged.insertedAtMillisOrNull(postDescriptor(7)))
+    // The original instance is not modified
+    assertEquals(3, threadSeenPosts.size)
+
+    val retained = merged.retainOnly(postDescriptor(1))
+    assertEquals(1, retained.size)
+    assertEquals(10L, retained.insertedAtMillisOrNull(postDescriptor(1)))
+    assertNull(retained.insertedAtMillisOrNull(postDescriptor(2)))
+  }
+
+  @Test
+  fun `posts with sub numbers`() {
+    val threadSeenPosts = ThreadSeenPosts.fromSeenPosts(listOf(seenPost(1, time = 10), seenPost(2, time = 20)))
+      .mergeWith(listOf(seenPost(2, postSubNo = 1, time = 21), seenPost(2, postSubNo = 2, time = 22)))
+
+    assertEquals(4, threadSeenPosts.size)
+    assertEquals(20L, threadSeenPosts.insertedAtMillisOrNull(postDescriptor(2)))
+    assertEquals(21L, threadSeenPosts.insertedAtMillisOrNull(postDescriptor(2, postSubNo = 1)))
+    assertEquals(22L, threadSeenPosts.insertedAtMillisOrNull(postDescriptor(2, postSubNo = 2)))
+    assertFalse(threadSeenPosts.contains(postDescriptor(1, postSubNo = 1)))
+  }
+
+  private fun postDescriptor(postNo: Long, postSubNo: Long = 0L): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, postNo, postSubNo)
+  }
+
+  private fun seenPost(postNo: Long, postSubNo: Long = 0L, time: Long): SeenPost {
+    return SeenPost(postDescriptor(postNo, postSubNo), DateTime(time))
+  }
+
+}
@@ -0,0 +1,216 @@
+package com.github.k1rakishou.chan.core.site.parser
+
+import com.github.k1rakishou.chan.core.site.common.taimaba.TaimabaCommentParser
+import com.github.k1rakishou.chan.core.site.common.vichan.VichanCommentParser
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.test_shared.Benchmarks
+import junit.framework.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.regex.Pattern
+import kotlin.random.Random
+
+/**
+ * Checks that the hand-written [AnchorHrefScanner] classifies anchors exactly like the regexes it
+ * replaced, for every parser that uses it. The benchmark (only with -Pbenchmarks) prints how many
+ * quote-heavy posts per second both paths can classify.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class AnchorHrefScannerTest {
+  private val callback = TestCallback()
+  private val post = ChanPostBuilder()
+    .boardDescriptor(BoardDescriptor.create("test", "g"))
+    .id(1000)
+    .opId(1000)
+
+  private val parsers = listOf(
+    "4chan" to CommentParser(),
+    "vichan" to TestCommentParser(
+      VichanCommentParser.QUOTE_PATTERN,
+      VichanCommentParser.FULL_QUOTE_PATTERN,
+      VichanCommentParser.ANCHOR_HREF_SCANNER
+    ),
+    "taimaba" to TestCommentParser(
+      TaimabaCommentParser.QUOTE_PATTERN,
+      TaimabaCommentParser.FULL_QUOTE_PATTERN,
+      TaimabaCommentParser.ANCHOR_HREF_SCANNER
+    )
+  )
+
+  @Test
+  fun `scanner produces the same links as the regexes for the fixtures`() {
+    for ((name, parser) in parsers) {
+      for (href in FIXTURES) {
+        assertSameLink(name, parser, href)
+      }
+    }
+  }
+
+  @Test
+  fun `scanner produces the same links as the regexes for random hrefs`() {
+    val random = Random(1337)
+
+    repeat(20_000) {
+      val href = randomHref(random)
+
+      for ((name, parser) in parsers) {
+        assertSameLink(name, parser, href)
+      }
+    }
+  }
+
+  @Test
+  fun `4chan boards quote detection is the same as the regex`() {
+    val random = Random(42)
+    val hrefs = FIXTURES + (0 until 20_000).map { randomHref(random) }
+
+    for (href in hrefs) {
+      assertEquals(href, CHAN4_BOARDS_QUOTE_PATTERN.matcher(href).matches(), AnchorHrefScanner.isChan4BoardsQuote(href))
+    }
+  }
+
+  @Test
+  fun `benchmark anchor classification`() {
+    Benchmarks.assumeEnabled()
+
+    val random = Random(1)
+    val posts = (0 until POSTS_COUNT).map {
+      (0 until ANCHORS_PER_POST).map { FIXTURES[random.nextInt(FIXTURES.size)] }
+    }
+
+    for ((name, parser) in parsers) {
+      val regexPath = { posts.forEach { anchors -> anchors.forEach { href -> parser.matchHrefWithRegexes(post, href, href, callback) } } }
+      val scannerPath = { posts.forEach { anchors -> anchors.forEach { href -> parser.matchHref(post, href, href, callback) } } }
+
+      repeat(WARMUP_ITERATIONS) {
+        regexPath()
+        scannerPath()
+      }
+
+      val regexPostsPerSecond = measurePostsPerSecond(regexPath)
+      val scannerPostsPerSecond = measurePostsPerSecond(scannerPath)
+
+      println("$name: ${ANCHORS_PER_POST} anchors per post, " +
+        "regexes=${regexPostsPerSecond} posts/sec, scanner=${scannerPostsPerSecond} posts/sec")
+    }
+  }
+
+  private fun measurePostsPerSecond(path: () -> Unit): Long {
+    val start = System.nanoTime()
+
+    repeat(MEASURE_ITERATIONS) { path() }
+
+    val tookNanos = (System.nanoTime() - start).coerceAtLeast(1L)
+    return (POSTS_COUNT.toLong() * MEASURE_ITERATIONS * 1_000_000_000L) / tookNanos
+  }
+
+  private fun assertSameLink(name: String, parser: CommentParser, href: String) {
+    val expected = parser.matchHrefWithRegexes(post, href, href, callback)
+    val actual = parser.matchHref(post, href, href, callback)
+
+    assertEquals("${name}: '${href}'", expected, actual)
+  }
+
+  private fun randomHref(random: Random): String {
+    return buildString {
+      repeat(random.nextInt(1, 9)) {
+        append(FRAGMENTS[random.nextInt(FRAGMENTS.size)])
+      }
+    }
+  }
+
+  private class TestCommentParser(
+    private val quotePattern: Pattern,
+    private val fullQuotePattern: Pattern,
+    private val anchorHrefScanner: AnchorHrefScanner
+  ) : CommentParser() {
+    override fun getQuotePattern(): Pattern = quotePattern
+    override fun getFullQuotePattern(): Pattern = fullQuotePattern
+    override fun getAnchorHrefScanner(): AnchorHrefScanner = anchorHrefScanner
+  }
+
+  private class TestCallback : PostParser.Callback {
+    override fun isSaved(threadNo: Long, postNo: Long, postSubNo: Long): Boolean = false
+
+    override fun isHiddenOrRemoved(threadNo: Long, postNo: Long, postSubNo: Long): Int {
+      return when (postNo % 5) {
+        0L -> PostParser.HIDDEN_POST
+        1L -> PostParser.REMOVED_POST
+        else -> PostParser.NORMAL_POST
+      }
+    }
+
+    override fun isInternal(postNo: Long): Boolean = postNo % 3 != 0L
+    override fun isParsingCatalogPosts(): Boolean = false
+  }
+
+  companion object {
+    private const val POSTS_COUNT = 1000
+    private const val ANCHORS_PER_POST = 8
+    private const val WARMUP_ITERATIONS = 5
+    private const val MEASURE_ITERATIONS = 20
+
+    private val CHAN4_BOARDS_QUOTE_PATTERN = Pattern.compile("//boards\\.4chan.*?\\.org/(.*?)/thread/(\\d*?)#p(\\d*)")
+
+    private val FIXTURES = listOf(
+      // 4chan
+      "#p1001",
+      "#p1002",
+      "#p1003",
+      "#p99999999999999999999",
+      "/g/thread/1000#p1004",
+      "/a/thread/2000#p2001",
+      "/g/thread/1000/some-subject#p1005",
+      "//boards.4chan.org/g/thread/1000#p1006",
+      "//boards.4channel.org/a/thread/2000#p2002",
+      "//boards.4chan.org/g/",
+      "//boards.4channel.org/vg/",
+      "//boards.4chan.org/g/catalog#s=rust%20thread",
+      "//boards.4channel.org/a/catalog#s=",
+      "/b/index.html",
+      "//boards.4chan.org/",
+      "//boards.4chan.org/g/thread/99999999999999999999#p1",
+      // vichan
+      "#1001",
+      "#1003",
+      "/g/res/1000.html#1004",
+      "/tech/res/1000.html#1005",
+      "/b/res/123.html#",
+      "/b/res/123.html",
+      "/b/res/123xhtml#4",
+      // taimaba
+      "/g/thread/1000#1006",
+      "/b/thread/3000#3001",
+      "/b/threads/3000#3001",
+      // other links
+      "https://example.com/",
+      "https://example.com/g/res/1000.html#1004",
+      "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+      "mailto:test@example.com",
+      "",
+      "#",
+      "#p",
+      "/",
+      "//",
+      "/g/",
+      "/g/thread/",
+      "/g/thread/1000#p",
+      "/g//1000#p1",
+      "/ü/thread/1000#p1",
+      "//boards.4chan.org/g\n/",
+      "/g\n/index.html",
+      "/g/index\nhtml",
+      "/g/index.html\n"
+    )
+
+    private val FRAGMENTS = listOf(
+      "/", "//", "//boards.4chan", "//boards.4channel", ".org", ".org/", "g", "tech", "_", "a1",
+      "thread", "threads", "res", "/thread/", "/res/", "0", "1000", "123", "99999999999999999999",
+      "#", "#p", ".html", "html", "xhtml", ".", "catalog", "/catalog#s=", "index", "/index.html",
+      "%20", "?", "=", "-", "\n", "\r", " ", "ü", "\u2028"
+    )
+  }
+
+}
@@ -0,0 +1,603 @@
+package com.github.k1rakishou.chan.core.site.sites
+
+import com.github.k1rakishou.chan.core.site.SiteEndpoints
+import com.github.k1rakishou.chan.core.site.parser.processor.AbstractChanReaderProcessor
+import com.github.k1rakishou.chan.core.site.sites.dvach.DvachPostJsonReader
+import com.github.k1rakishou.chan.core.site.sites.lynxchan.engine.LynxchanPostJsonReader
+import com.github.k1rakishou.model.data.board.ChanBoard
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import com.github.k1rakishou.test_shared.Benchmarks
+import com.google.gson.stream.JsonReader
+import com.squareup.moshi.Json
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
+import com.sun.management.ThreadMXBean
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okio.buffer
+import okio.source
+import org.joda.time.format.ISODateTimeFormat
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
+import java.io.InputStreamReader
+import java.lang.management.ManagementFactory
+import java.nio.charset.StandardCharsets
+
+/**
+ * Replays large generated thread responses through the old path (full Moshi DTO tree, then mapping
+ * into builders) and the new streaming readers and checks that both produce the same posts. The
+ * benchmarks (only run with -Pbenchmarks) print throughput and allocated bytes of both paths.
+ *
+ * The old path here uses reflective adapters (codegen adapters are not generated for tests) so its
+ * absolute numbers are somewhat worse than what the app used to have, compare the allocations first.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class StreamingPostJsonReaderBenchmarkTest {
+  private val moshi = Moshi.Builder()
+    .add(KotlinJsonAdapterFactory())
+    .build()
+
+  @Test
+  fun `dvach thread streaming reader produces the same posts as the DTO path`() {
+    val readPaths = dvachReadPaths()
+    assertSamePosts(readPaths.oldPath(), readPaths.newPath())
+  }
+
+  @Test
+  fun `dvach thread reading benchmark`() {
+    Benchmarks.assumeEnabled()
+
+    val readPaths = dvachReadPaths()
+    benchmark("Dvach", readPaths)
+  }
+
+  @Test
+  fun `lynxchan thread streaming reader produces the same posts as the DTO path`() {
+    val readPaths = lynxchanReadPaths()
+    assertSamePosts(readPaths.oldPath(), readPaths.newPath())
+  }
+
+  @Test
+  fun `lynxchan thread reading benchmark`() {
+    Benchmarks.assumeEnabled()
+
+    val readPaths = lynxchanReadPaths()
+    benchmark("Lynxchan", readPaths)
+  }
+
+  private fun dvachReadPaths(): ReadPaths {
+    val json = generateDvachThreadJson(POSTS_COUNT).toByteArray(StandardCharsets.UTF_8)
+    val postJsonReader = DvachPostJsonReader(dvachBoard, TestEndpoints)
+
+    val oldPath = {
+      val adapter = moshi.adapter(LegacyDvachThread::class.java)
+      val thread = ByteArrayInputStream(json).source().buffer().use { source -> adapter.fromJson(source)!! }
+
+      thread.threads.first().posts.map { post -> post.toChanPostBuilder(postJsonReader) }
+    }
+
+    val newPath = {
+      val processor = CollectingProcessor(dvachThreadDescriptor)
+
+      runBlocking {
+        JsonReader(InputStreamReader(ByteArrayInputStream(json), StandardCharsets.UTF_8)).use { jsonReader ->
+          postJsonReader.readThreadFresh(jsonReader, processor)
+        }
+      }
+
+      processor.posts
+    }
+
+    return ReadPaths(json.size, oldPath, newPath)
+  }
+
+  private fun lynxchanReadPaths(): ReadPaths {
+    val json = generateLynxchanThreadJson(POSTS_COUNT).toByteArray(StandardCharsets.UTF_8)
+    val postJsonReader = LynxchanPostJsonReader(lynxchanBoard, TestEndpoints)
+
+    val oldPath = {
+      val adapter = moshi.adapter(LegacyLynxchanPost::class.java)
+      val thread = ByteArrayInputStream(json).source().buffer().use { source -> adapter.fromJson(source)!! }
+      val originalPostId = thread.threadId!!
+
+      val result = mutableListOf(thread.toChanPostBuilder(originalPostId, postJsonReader))
+      thread.morePosts?.forEach { post -> result += post.toChanPostBuilder(originalPostId, postJsonReader) }
+
+      result
+    }
+
+    val newPath = {
+      val processor = CollectingProcessor(lynxchanThreadDescriptor)
+
+      runBlocking {
+        JsonReader(InputStreamReader(ByteArrayInputStream(json), StandardCharsets.UTF_8)).use { jsonReader ->
+          postJsonReader.readThread(jsonReader, processor)
+        }
+      }
+
+      processor.posts
+    }
+
+    return ReadPaths(json.size, oldPath, newPath)
+  }
+
+  @Test
+  fun `lynxchan catalog reader handles both omitted posts keys and numbers sent as strings`() {
+    val json = """
+      {"pageCount":"2","threads":[
+        {"threadId":"5000","omittedPosts":5,"ommitedPosts":4,"name":"Anon","markdown":"first",
+          "posts":[{"postId":5001},{"postId":5002}]},
+        {"threadId":6000,"ommitedPosts":3,"omittedPosts":"7","omittedFiles":"2","name":"Anon","markdown":"second",
+          "posts":[{"postId":6001}]},
+        {"threadId":7000,"ommitedPosts":1,"name":"Anon","markdown":"third","posts":[]}
+      ]}
+    """.trimIndent()
+
+    val postJsonReader = LynxchanPostJsonReader(lynxchanBoard, TestEndpoints)
+    val processor = CollectingProcessor(lynxchanThreadDescriptor)
+
+    val catalogPageInfo = runBlocking {
+      JsonReader(InputStreamReader(ByteArrayInputStream(json.toByteArray()), StandardCharsets.UTF_8)).use { jsonReader ->
+        postJsonReader.readCatalogPage(jsonReader, processor)
+      }
+    }
+
+    assertEquals(2, catalogPageInfo.pageCount)
+    assertEquals(3, catalogPageInfo.threadsCount)
+    assertEquals(listOf(5000L, 6000L, 7000L), processor.posts.map { post -> post.id })
+    assertEquals(listOf("first", "second", "third"), processor.posts.map { post -> post.postCommentBuilder.getUnparsedComment() })
+    // Visible posts plus omitted posts, "omittedPosts" wins over the old "ommitedPosts"
+    assertEquals(listOf(7, 8, 1), processor.posts.map { post -> post.totalRepliesCount })
+    assertEquals(2, processor.posts[1].threadImagesCount)
+  }
+
+  @Test
+  fun `dvach bookmark reader skips null board and malformed posts`() {
+    val json = """
+      {"board":null,"threads":[{"posts":[
+        {"num":100000,"parent":0,"comment":"op","closed":"1"},
+        null,
+        {"num":"100001","parent":"100000","comment":"reply"}
+      ]}]}
+    """.trimIndent()
+
+    val posts = JsonReader(InputStreamReader(ByteArrayInputStream(json.toByteArray()), StandardCharsets.UTF_8)).use { jsonReader ->
+      DvachPostJsonReader.readThreadBookmarkInfoPosts(jsonReader)
+    }!!
+
+    assertEquals(2, posts.size)
+
+    val originalPost = posts[0] as ThreadBookmarkInfoPostObject.OriginalPost
+    assertEquals(100000L, originalPost.postNo)
+    assertTrue(originalPost.closed)
+
+    val reply = posts[1] as ThreadBookmarkInfoPostObject.RegularPost
+    assertEquals(100001L, reply.postNo)
+  }
+
+  private fun assertSamePosts(expected: List<ChanPostBuilder>, actual: List<ChanPostBuilder>) {
+    assertEquals(expected.size, actual.size)
+
+    expected.zip(actual).forEach { (expectedPost, actualPost) ->
+      assertEquals(expectedPost.postDescriptor, actualPost.postDescriptor)
+      assertEquals(expectedPost.op, actualPost.op)
+      assertEquals(expectedPost.name, actualPost.name)
+      assertEquals(expectedPost.subject?.toString(), actualPost.subject?.toString())
+      assertEquals(expectedPost.posterId, actualPost.posterId)
+      assertEquals(expectedPost.unixTimestampSeconds, actualPost.unixTimestampSeconds)
+      assertEquals(expectedPost.sage, actualPost.sage)
+      assertEquals(
+        expectedPost.postCommentBuilder.getUnparsedComment(),
+        actualPost.postCommentBuilder.getUnparsedComment()
+      )
+      assertEquals(
+        expectedPost.postImages.map { postImage -> postImage.imageUrl },
+        actualPost.postImages.map { postImage -> postImage.imageUrl }
+      )
+      assertEquals(
+        expectedPost.httpIcons.map { httpIcon -> httpIcon.iconName },
+        actualPost.httpIcons.map { httpIcon -> httpIcon.iconName }
+      )
+    }
+  }
+
+
+  private fun benchmark(name: String, readPaths: ReadPaths) {
+    val responseSize = readPaths.responseSize
+
+    repeat(WARMUP_ITERATIONS) {
+      readPaths.oldPath()
+      readPaths.newPath()
+    }
+
+    val oldResult = measure(readPaths.oldPath)
+    val newResult = measure(readPaths.newPath)
+    val totalMb = (responseSize.toDouble() * MEASURE_ITERATIONS) / (1024.0 * 1024.0)
+
+    println("$name: response size=${responseSize / 1024}KB, posts=$POSTS_COUNT, iterations=$MEASURE_ITERATIONS")
+    println("$name old (DTO): ${oldResult.format(totalMb)}")
+    println("$name new (streaming): ${newResult.format(totalMb)}")
+  }
+
+  private fun measure(path: () -> List<ChanPostBuilder>): MeasureResult {
+    val allocatedBefore = currentThreadAllocatedBytes()
+    val start = System.nanoTime()
+
+    repeat(MEASURE_ITERATIONS) { path() }
+
+    val tookNanos = System.nanoTime() - start
+    val allocatedAfter = currentThreadAllocatedBytes()
+
+    val allocatedBytes = if (allocatedBefore < 0L || allocatedAfter < 0L) {
+      -1L
+    } else {
+      (allocatedAfter - allocatedBefore) / MEASURE_ITERATIONS
+    }
+
+    return MeasureResult(tookNanos, allocatedBytes)
+  }
+
+  private fun currentThreadAllocatedBytes(): Long {
+    val threadMXBean = ManagementFactory.getThreadMXBean() as? ThreadMXBean
+      ?: return -1L
+
+    if (!threadMXBean.isThreadAllocatedMemorySupported || !threadMXBean.isThreadAllocatedMemoryEnabled) {
+      return -1L
+    }
+
+    return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().id)
+  }
+
+  private class ReadPaths(
+    val responseSize: Int,
+    val oldPath: () -> List<ChanPostBuilder>,
+    val newPath: () -> List<ChanPostBuilder>
+  )
+
+  private class MeasureResult(
+    val tookNanos: Long,
+    val allocatedBytesPerIteration: Long
+  ) {
+    fun format(totalMb: Double): String {
+      val seconds = tookNanos / 1_000_000_000.0
+      val throughput = String.format("%.2f", totalMb / seconds)
+
+      return "took ${tookNanos / 1_000_000}ms, throughput=${throughput}MB/s, " +
+        "allocated=${allocatedBytesPerIteration / 1024}KB per response"
+    }
+  }
+
+  private class CollectingProcessor(
+    private val threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ) : AbstractChanReaderProcessor() {
+    val posts = mutableListOf<ChanPostBuilder>()
+
+    override val page: Int?
+      get() = null
+    override val chanDescriptor: ChanDescriptor
+      get() = threadDescriptor
+    override val canUseEmptyBoardIfBoardDoesNotExist: Boolean
+      get() = false
+
+    override suspend fun setOp(op: ChanPostBuilder?) {}
+    override suspend fun addPost(postBuilder: ChanPostBuilder) { posts += postBuilder }
+    override suspend fun addManyPosts(postBuilders: List<ChanPostBuilder>) { posts.addAll(postBuilders) }
+    override suspend fun applyChanReadOptions() {}
+    override suspend fun getToParse(): List<ChanPostBuilder> = posts
+    override suspend fun getThreadDescriptors(): List<ChanDescriptor.ThreadDescriptor> = listOf(threadDescriptor)
+    override suspend fun getTotalPostsCount(): Int = posts.size
+  }
+
+  private object TestEndpoints : SiteEndpoints {
+    private val baseUrl = "https://test.com/".toHttpUrl()
+
+    override fun catalog(boardDescriptor: BoardDescriptor): HttpUrl = baseUrl
+    override fun thread(threadDescriptor: ChanDescriptor.ThreadDescriptor): HttpUrl = baseUrl
+    override fun pages(board: ChanBoard): HttpUrl = baseUrl
+    override fun reply(chanDescriptor: ChanDescriptor): HttpUrl = baseUrl
+    override fun delete(post: ChanPost): HttpUrl = baseUrl
+    override fun login(): HttpUrl = baseUrl
+
+    override fun imageUrl(boardDescriptor: BoardDescriptor, arg: Map<String, String>): HttpUrl {
+      return baseUrl.newBuilder().addPathSegments(arg["path"]!!.removePrefix("/")).build()
+    }
+
+    override fun thumbnailUrl(
+      boardDescriptor: BoardDescriptor,
+      spoiler: Boolean,
+      customSpoilers: Int,
+      arg: Map<String, String>
+    ): HttpUrl {
+      return baseUrl.newBuilder().addPathSegments(arg["thumbnail"] ?: arg["thumb"] ?: "spoiler.png").build()
+    }
+
+    override fun icon(icon: String, arg: Map<String, String>): HttpUrl {
+      return baseUrl.newBuilder().addPathSegment(icon).build()
+    }
+  }
+
+  // region Old DTO path
+
+  private data class LegacyDvachThread(
+    @Json(name = "threads") val threads: List<LegacyDvachThreadPosts>
+  )
+
+  private data class LegacyDvachThreadPosts(
+    @Json(name = "posts") val posts: List<LegacyDvachPost>
+  )
+
+  private data class LegacyDvachPost(
+    @Json(name = "num") val num: Long,
+    @Json(name = "parent") val parent: Long,
+    @Json(name = "closed") val closed: Long,
+    @Json(name = "sticky") val sticky: Long,
+    @Json(name = "endless") val endless: Long,
+    @Json(name = "comment") val comment: String,
+    @Json(name = "subject") val subject: String,
+    @Json(name = "email") val email: String,
+    @Json(name = "name") val name: String,
+    @Json(name = "trip") val trip: String,
+    @Json(name = "icon") val icon: String?,
+    @Json(name = "timestamp") val timestamp: Long,
+    @Json(name = "lasthit") val lasthit: Long,
+    @Json(name = "files") val files: List<LegacyDvachFile>?
+  ) {
+
+    fun toChanPostBuilder(postJsonReader: DvachPostJsonReader): ChanPostBuilder {
+      val builder = ChanPostBuilder()
+      builder.boardDescriptor(dvachBoard.boardDescriptor)
+      builder.op(parent == 0L)
+      builder.lastModified(lasthit)
+      builder.id(num)
+      builder.opId(if (parent != 0L) parent else num)
+
+      if (builder.op) {
+        builder.sticky(sticky > 0L)
+        builder.closed(closed == 1L)
+        builder.endless(endless == 1L)
+      }
+
+      builder.tripcode(trip)
+      builder.name(name)
+      builder.subject(subject)
+      builder.comment(comment)
+      builder.setUnixTimestampSeconds(timestamp)
+      builder.sage(email.contains("mailto:sage"))
+
+      val postImages = files?.mapNotNull { file ->
+        postJsonReader.createPostImage(
+          fullName = file.fullName,
+          md5 = file.md5,
+          name = file.name,
+          path = file.path,
+          thumbnail = file.thumbnail,
+          size = file.size,
+          width = file.width,
+          height = file.height
+        )
+      } ?: emptyList()
+
+      builder.postImages(postImages, builder.postDescriptor)
+
+      if (icon != null) {
+        // The old path parsed the icon html with Jsoup, only the icon title is compared here
+        val title = DVACH_ICON_TITLE_PATTERN.find(icon)?.groupValues?.get(1)
+        if (title != null) {
+          builder.addHttpIcon(ChanPostHttpIcon(TestEndpoints.icon(title, emptyMap()), title))
+        }
+      }
+
+      return builder
+    }
+
+  }
+
+  private data class LegacyDvachFile(
+    @Json(name = "fullname") val fullName: String?,
+    @Json(name = "md5") val md5: String?,
+    @Json(name = "name") val name: String?,
+    @Json(name = "path") val path: String?,
+    @Json(name = "thumbnail") val thumbnail: String?,
+    @Json(name = "size") val size: Long,
+    @Json(name = "width") val width: Int,
+    @Json(name = "height") val height: Int
+  )
+
+  private data class LegacyLynxchanPost(
+    @Json(name = "id") val posterId: String?,
+    @Json(name = "name") val name: String,
+    @Json(name = "threadId") val threadId: Long?,
+    @Json(name = "postId") val postId: Long?,
+    @Json(name = "subject") val subject: String?,
+    @Json(name = "markdown") val markdown: String?,
+    @Json(name = "locked") val locked: Boolean?,
+    @Json(name = "pinned") val pinned: Boolean?,
+    @Json(name = "cyclic") val cyclic: Boolean?,
+    @Json(name = "files") val files: List<LegacyLynxchanPostFile>?,
+    @Json(name = "creation") val creation: String?,
+    @Json(name = "posts") val morePosts: List<LegacyLynxchanPost>?
+  ) {
+
+    fun toChanPostBuilder(originalPostId: Long, postJsonReader: LynxchanPostJsonReader): ChanPostBuilder {
+      val builder = ChanPostBuilder()
+      builder.boardDescriptor(lynxchanBoard.boardDescriptor)
+      builder.op(threadId != null)
+
+      val creationMillis = creation?.let { LYNXCHAN_DATE_PARSER.parseMillis(it) } ?: 0L
+      builder.lastModified(creationMillis)
+      builder.id(threadId ?: postId!!)
+      builder.opId(originalPostId)
+
+      if (builder.op) {
+        pinned?.let { builder.sticky(it) }
+        locked?.let { builder.closed(it) }
+        cyclic?.let { builder.endless(it) }
+      }
+
+      builder.name(name)
+      builder.subject(subject)
+      builder.comment(markdown)
+      builder.posterId(posterId)
+      builder.setUnixTimestampSeconds(creationMillis / 1000L)
+
+      val postImages = files?.mapNotNull { file ->
+        postJsonReader.createPostImage(
+          originalName = file.originalName,
+          path = file.path,
+          thumb = file.thumb,
+          mime = file.mime,
+          size = file.size,
+          width = file.width ?: 0,
+          height = file.height ?: 0
+        )
+      } ?: emptyList()
+
+      builder.postImages(postImages, builder.postDescriptor)
+      return builder
+    }
+
+  }
+
+  private data class LegacyLynxchanPostFile(
+    @Json(name = "originalName") val originalName: String,
+    @Json(name = "path") val path: String,
+    @Json(name = "thumb") val thumb: String,
+    @Json(name = "mime") val mime: String,
+    @Json(name = "size") val size: Long,
+    @Json(name = "width") val width: Int?,
+    @Json(name = "height") val height: Int?
+  )
+
+  // endregion
+
+  // region Fixtures
+
+  private fun generateDvachThreadJson(postsCount: Int): String {
+    val threadNo = dvachThreadDescriptor.threadNo
+
+    return buildString {
+      append("{\"board\":{\"bump_limit\":500},\"unique_posters\":123,\"threads\":[{\"posts\":[")
+
+      for (index in 0 until postsCount) {
+        val postNo = threadNo + index
+        val parent = if (index == 0) 0L else threadNo
+
+        if (index > 0) {
+          append(',')
+        }
+
+        append("{\"num\":$postNo,\"parent\":$parent,\"closed\":0,\"sticky\":0,\"endless\":0,")
+        append("\"comment\":\"${commentFor(index, ">>$threadNo")}\",")
+        append("\"subject\":\"${if (index == 0) "Thread subject" else ""}\",")
+        append("\"email\":\"${if (index % 7 == 0) "mailto:sage" else ""}\",")
+        append("\"name\":\"Anon $index\",\"trip\":\"\",")
+
+        if (index % 5 == 0) {
+          append("\"icon\":\"<img hspace=\\\"3\\\" src=\\\"/flags/RU.png\\\" title=\\\"Russia\\\" border=\\\"0\\\" />\",")
+        }
+
+        append("\"timestamp\":${1600000000L + index},\"lasthit\":${1600000000L + index},")
+        append("\"files\":[")
+
+        for (fileIndex in 0 until (index % 3)) {
+          if (fileIndex > 0) {
+            append(',')
+          }
+
+          val fileName = "${postNo}_$fileIndex"
+          append("{\"fullname\":\"image_$fileIndex.jpg\",\"md5\":\"${md5For(postNo, fileIndex)}\",")
+          append("\"name\":\"$fileName.jpg\",\"path\":\"/b/src/$threadNo/$fileName.jpg\",")
+          append("\"thumbnail\":\"/b/thumb/$threadNo/${fileName}s.jpg\",\"size\":${100 + fileIndex},")
+          append("\"width\":1280,\"height\":720}")
+        }
+
+        append("]}")
+      }
+
+      append("]}]}")
+    }
+  }
+
+  private fun generateLynxchanThreadJson(postsCount: Int): String {
+    val threadNo = lynxchanThreadDescriptor.threadNo
+
+    fun StringBuilder.appendPostFields(index: Int, postNo: Long) {
+      append("\"name\":\"Anon $index\",\"id\":\"${"%06x".format(index * 7919)}\",")
+      append("\"subject\":${if (index == 0) "\"Thread subject\"" else "null"},")
+      append("\"markdown\":\"${commentFor(index, "&gt;&gt;$threadNo")}\",")
+      append("\"creation\":\"2021-11-11T13:${"%02d".format(index % 60)}:46.312Z\",")
+      append("\"files\":[")
+
+      for (fileIndex in 0 until (index % 3)) {
+        if (fileIndex > 0) {
+          append(',')
+        }
+
+        val hash = md5For(postNo, fileIndex)
+        append("{\"originalName\":\"image_$fileIndex.png\",\"path\":\"/.media/$hash.png\",")
+        append("\"thumb\":\"/.media/t_$hash\",\"mime\":\"image/png\",\"size\":${1000 + fileIndex},")
+        append("\"width\":800,\"height\":600}")
+      }
+
+      append("]")
+    }
+
+    return buildString {
+      append("{\"threadId\":$threadNo,\"locked\":false,\"pinned\":false,\"cyclic\":false,")
+      appendPostFields(0, threadNo)
+      append(",\"posts\":[")
+
+      for (index in 1 until postsCount) {
+        val postNo = threadNo + index
+
+        if (index > 1) {
+          append(',')
+        }
+
+        append("{\"postId\":$postNo,")
+        appendPostFields(index, postNo)
+        append('}')
+      }
+
+      append("]}")
+    }
+  }
+
+  private fun commentFor(index: Int, quote: String): String {
+    val sentence = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. "
+    return "$quote<br>" + sentence.repeat(1 + index % 6)
+  }
+
+  private fun md5For(postNo: Long, fileIndex: Int): String {
+    return "%032x".format(postNo * 31 + fileIndex)
+  }
+
+  // endregion
+
+  companion object {
+    private const val POSTS_COUNT = 1500
+    private const val WARMUP_ITERATIONS = 3
+    private const val MEASURE_ITERATIONS = 5
+
+    private val LYNXCHAN_DATE_PARSER = ISODateTimeFormat.dateTimeParser()
+    private val DVACH_ICON_TITLE_PATTERN = Regex("title=\"([^\"]+)\"")
+
+    private val dvachBoard = ChanBoard(BoardDescriptor.create(SiteDescriptor.create("2ch.hk"), "b"))
+    private val dvachThreadDescriptor = ChanDescriptor.ThreadDescriptor.create(dvachBoard.boardDescriptor, 100000L)
+
+    private val lynxchanBoard = ChanBoard(BoardDescriptor.create(SiteDescriptor.create("lynxchan"), "b"))
+    private val lynxchanThreadDescriptor = ChanDescriptor.ThreadDescriptor.create(lynxchanBoard.boardDescriptor, 5000L)
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.common.MurmurHashUtils
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+
+class ThreadDownloaderPersistedStatesTest {
+  private val boardDescriptor = BoardDescriptor.create("test", "test")
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(boardDescriptor, 1L)
+
+  // What would be stored in the chan_post_hash table
+  private val database = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
+
+  @Test
+  fun `a new process does not persist the posts that the previous one already persisted`() = runBlocking {
+    val posts = listOf(createPost(1L, "op"), createPost(2L, "first"), createPost(3L, "second"))
+
+    val firstProcess = createPersistedStates()
+    assertNull(firstProcess.getOrLoad(threadDescriptor))
+    assertEquals(listOf(1L, 2L, 3L), persist(firstProcess, posts))
+
+    val sameProcessPosts = listOf(createPost(1L, "op"), createPost(2L, "first"), createPost(3L, "second"))
+    assertEquals(listOf(1L), persist(firstProcess, sameProcessPosts))
+
+    // The app was restarted, nothing but the database is left
+    val secondProcess = createPersistedStates()
+    val seededState = secondProcess.getOrLoad(threadDescriptor)
+    assertNotNull(seededState)
+    assertEquals(3L, seededState!!.lastPersistedPostNo)
+
+    val newProcessPosts = listOf(createPost(1L, "op"), createPost(2L, "first"), createPost(3L, "second"))
+    // Only the OP is always persisted since it contains the thread status
+    assertEquals(listOf(1L), persist(secondProcess, newProcessPosts))
+  }
+
+  @Test
+  fun `a new process persists edited and new posts`() = runBlocking {
+    val firstProcess = createPersistedStates()
+    persist(firstProcess, listOf(createPost(1L, "op"), createPost(2L, "first"), createPost(3L, "second")))
+
+    val secondProcess = createPersistedStates()
+    val posts = listOf(
+      createPost(1L, "op"),
+      createPost(2L, "first"),
+      createPost(3L, "second, edited"),
+      createPost(4L, "third")
+    )
+
+    assertEquals(listOf(1L, 3L, 4L), persist(secondProcess, posts))
+  }
+
+  @Test
+  fun `forgotten thread is seeded again from the database`() = runBlocking {
+    val persistedStates = createPersistedStates()
+    persist(persistedStates, listOf(createPost(1L, "op"), createPost(2L, "first")))
+
+    persistedStates.forget(threadDescriptor)
+
+    val posts = listOf(createPost(1L, "op"), createPost(2L, "first"))
+    assertEquals(listOf(1L), persist(persistedStates, posts))
+  }
+
+  private fun createPersistedStates(): ThreadDownloaderPersistedStates {
+    return ThreadDownloaderPersistedStates(
+      loadPersistedPostHashes = { descriptor ->
+        database.filterKeys { postDescriptor -> postDescriptor.threadDescriptor() == descriptor }
+      }
+    )
+  }
+
+  /**
+   * Does what ThreadDownloaderPersistPostsInDatabaseUseCase does with the persisted states and
+   * returns the numbers of the posts that were written into the database.
+   * */
+  private suspend fun persist(
+    persistedStates: ThreadDownloaderPersistedStates,
+    postBuilders: List<ChanPostBuilder>
+  ): List<Long> {
+    val persistedThreadState = persistedStates.getOrLoad(threadDescriptor)
+    val postBuildersToPersist = persistedStates.filterOutUnchangedPosts(postBuilders, persistedThreadState)
+
+    postBuildersToPersist.forEach { postBuilder ->
+      database[postBuilder.postDescriptor] = postBuilder.getPostHash
+    }
+
+    persistedStates.update(
+      threadDescriptor = threadDescriptor,
+      persistedPostBuilders = postBuildersToPersist,
+      isIncremental = false,
+      currentTime = System.currentTimeMillis()
+    )
+
+    return postBuildersToPersist.map { postBuilder -> postBuilder.id }
+  }
+
+  private fun createPost(postNo: Long, comment: String): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(boardDescriptor)
+      .id(postNo)
+      .opId(threadDescriptor.threadNo)
+      .op(postNo == threadDescriptor.threadNo)
+      .comment(comment)
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.github.k1rakishou.chan.core.usecase
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class ThreadPrefetchQueueTest {
+  private val thread1 = ChanDescriptor.ThreadDescriptor.create("test", "test", 1L)
+  private val thread2 = ChanDescriptor.ThreadDescriptor.create("test", "test", 2L)
+  private val thread3 = ChanDescriptor.ThreadDescriptor.create("test", "test", 3L)
+
+  @Test
+  fun `opening the thread that is being prefetched waits for its results and skips the rest`() = runTest {
+    val gate = CompletableDeferred<Unit>()
+    val started = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val loaded = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    val queue = createQueue { threadDescriptor ->
+      started += threadDescriptor
+
+      if (threadDescriptor == thread1) {
+        gate.await()
+      }
+
+      // The results are handed to the managers at the very end of the load
+      loaded += threadDescriptor
+    }
+
+    queue.prefetch(listOf(thread1, thread2))
+    runCurrent()
+    assertEquals(listOf(thread1), started)
+
+    // The user opens thread1 while it's being prefetched
+    val prefetchInProgress = queue.stop(thread1)
+    assertNotNull(prefetchInProgress)
+
+    val loadedWhenOpened = async {
+      prefetchInProgress!!.await()
+      loaded.toList()
+    }
+
+    runCurrent()
+    assertFalse(loadedWhenOpened.isCompleted)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    // The prefetch was not cancelled, its results were applied before the thread open continued
+    assertEquals(listOf(thread1), loadedWhenOpened.await())
+    assertEquals(listOf(thread1), started)
+  }
+
+  @Test
+  fun `opening a thread that is not being prefetched does not wait and skips the rest`() = runTest {
+    val gate = CompletableDeferred<Unit>()
+    val started = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val loaded = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    val queue = createQueue { threadDescriptor ->
+      started += threadDescriptor
+      gate.await()
+      loaded += threadDescriptor
+    }
+
+    queue.prefetch(listOf(thread1, thread2))
+    runCurrent()
+
+    assertNull(queue.stop(thread2))
+    assertNull(queue.stop(thread3))
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    // The thread that was being loaded is still loaded to the end
+    assertEquals(listOf(thread1), started)
+    assertEquals(listOf(thread1), loaded)
+  }
+
+  @Test
+  fun `new prefetch waits for the thread the previous prefetch is loading`() = runTest {
+    val gate = CompletableDeferred<Unit>()
+    val started = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val loaded = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+
+    val queue = createQueue { threadDescriptor ->
+      started += threadDescriptor
+
+      if (threadDescriptor == thread1) {
+        gate.await()
+      }
+
+      loaded += threadDescriptor
+    }
+
+    queue.prefetch(listOf(thread1, thread2))
+    runCurrent()
+
+    queue.prefetch(listOf(thread3))
+    runCurrent()
+
+    // Only one thread is loaded at a time
+    assertEquals(listOf(thread1), started)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf(thread1, thread3), started)
+    assertEquals(listOf(thread1, thread3), loaded)
+  }
+
+  @Test
+  fun `stop when nothing is being prefetched`() = runTest {
+    val loaded = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    val queue = createQueue { threadDescriptor -> loaded += threadDescriptor }
+
+    assertNull(queue.stop(thread1))
+
+    queue.prefetch(listOf(thread1, thread2))
+    advanceUntilIdle()
+
+    assertEquals(listOf(thread1, thread2), loaded)
+    assertNull(queue.stop(thread1))
+  }
+
+  private fun TestScope.createQueue(
+    loadThread: suspend (ChanDescriptor.ThreadDescriptor) -> Unit
+  ): ThreadPrefetchQueue {
+    return ThreadPrefetchQueue(this, StandardTestDispatcher(testScheduler), loadThread)
+  }
+
+}
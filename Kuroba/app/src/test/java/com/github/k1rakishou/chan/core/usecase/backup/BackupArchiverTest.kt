@@ -0,0 +1,167 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNotNull
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.concurrent.Executor
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipInputStream
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class BackupArchiverTest {
+  private lateinit var tempDir: File
+
+  @Before
+  fun setUp() {
+    tempDir = Files.createTempDirectory("backup_archiver_test").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    tempDir.deleteRecursively()
+  }
+
+  @Test
+  fun `stored, multi block deflated and empty entries are read back by ZipInputStream`() {
+    val random = Random(42)
+
+    // Text-like data so that it actually gets compressed, a bit more than two deflate blocks
+    val words = listOf("kuroba", "thread", "post", "catalog", "board", "reply", "image", "\n")
+    val multiBlockData = buildString {
+      while (length < 2 * 1024 * 1024 + 12345) {
+        append(words[random.nextInt(words.size)])
+        append(' ')
+      }
+    }.toByteArray()
+
+    val expected = linkedMapOf(
+      "Kuroba.db" to multiBlockData,
+      "main_prefs.xml" to "<map><boolean name=\"test\" value=\"true\" /></map>".toByteArray(),
+      "empty_deflated.xml" to ByteArray(0),
+      "thread_downloads_cache_dir/1/image.jpg" to random.nextBytes(300 * 1024),
+      "thread_downloads_cache_dir/1/empty.png" to ByteArray(0)
+    )
+
+    val entries = expected.map { (name, data) ->
+      val file = File(tempDir, name.replace('/', '_'))
+      file.writeBytes(data)
+
+      BackupEntry(
+        name = name,
+        file = file,
+        section = if (name.endsWith(".db")) BackupSection.Database else BackupSection.ThreadDownloadsMedia,
+        compress = !name.endsWith(".jpg") && !name.endsWith(".png")
+      )
+    }
+
+    val outputStream = ByteArrayOutputStream()
+    // Only a couple of tasks in flight so that the blocks of one entry have to wait for each other
+    val report = runBlocking { BackupArchiver(maxTasksInFlight = 2).write(entries, outputStream) }
+    val zipBytes = outputStream.toByteArray()
+
+    assertEquals(zipBytes.size.toLong(), report.totalWrittenBytes)
+
+    val actualNames = mutableListOf<String>()
+
+    ZipInputStream(ByteArrayInputStream(zipBytes)).use { zipInputStream ->
+      while (true) {
+        val zipEntry = zipInputStream.nextEntry
+          ?: break
+
+        val data = zipInputStream.readBytes()
+        val expectedData = expected[zipEntry.name]!!
+
+        assertTrue(zipEntry.name, expectedData.contentEquals(data))
+        // For deflated entries the crc is only known after the data descriptor was read
+        assertEquals(zipEntry.name, crc32(expectedData), zipEntry.crc)
+        assertEquals(zipEntry.name, expectedData.size.toLong(), zipEntry.size)
+
+        actualNames += zipEntry.name
+      }
+    }
+
+    assertEquals(expected.keys.toList(), actualNames)
+    assertCentralDirectory(zipBytes, expected)
+  }
+
+  @Test
+  fun `empty archive is valid`() {
+    val outputStream = ByteArrayOutputStream()
+    runBlocking { BackupArchiver().write(emptyList(), outputStream) }
+
+    ZipInputStream(ByteArrayInputStream(outputStream.toByteArray())).use { zipInputStream ->
+      assertNull(zipInputStream.nextEntry)
+    }
+
+    assertCentralDirectory(outputStream.toByteArray(), emptyMap())
+  }
+
+  @Test
+  fun `stored entry that changed between the checksum and the copy fails the backup`() {
+    val file = File(tempDir, "image.jpg")
+    file.writeBytes(Random(1).nextBytes(100 * 1024))
+
+    val entry = BackupEntry("thread_downloads_cache_dir/1/image.jpg", file, BackupSection.ThreadDownloadsMedia, compress = false)
+
+    // The checksum task runs right away, the file is overwritten (same size, different content)
+    // before the archiver copies it
+    val dispatcher = Executor { runnable ->
+      runnable.run()
+      file.writeBytes(Random(2).nextBytes(100 * 1024))
+    }.asCoroutineDispatcher()
+
+    var error: IOException? = null
+
+    try {
+      runBlocking { BackupArchiver(dispatcher = dispatcher).write(listOf(entry), ByteArrayOutputStream()) }
+    } catch (ioException: IOException) {
+      error = ioException
+    }
+
+    assertNotNull(error)
+    assertTrue(error!!.message!!, error.message!!.contains("has changed while being backed up"))
+  }
+
+  private fun assertCentralDirectory(zipBytes: ByteArray, expected: Map<String, ByteArray>) {
+    val zipFile = File(tempDir, "backup.zip")
+    zipFile.writeBytes(zipBytes)
+
+    ZipFile(zipFile).use { zip ->
+      val zipEntries = zip.entries().toList()
+      assertEquals(expected.keys.toList(), zipEntries.map { zipEntry -> zipEntry.name })
+
+      zipEntries.forEach { zipEntry ->
+        val expectedData = expected[zipEntry.name]!!
+        val isStored = zipEntry.name.endsWith(".jpg") || zipEntry.name.endsWith(".png")
+
+        assertEquals(zipEntry.name, if (isStored) ZipEntry.STORED else ZipEntry.DEFLATED, zipEntry.method)
+        assertEquals(zipEntry.name, crc32(expectedData), zipEntry.crc)
+        assertEquals(zipEntry.name, expectedData.size.toLong(), zipEntry.size)
+        assertTrue(zipEntry.name, expectedData.contentEquals(zip.getInputStream(zipEntry).use { it.readBytes() }))
+      }
+    }
+  }
+
+  private fun crc32(data: ByteArray): Long {
+    val crc = CRC32()
+    crc.update(data)
+    return crc.value
+  }
+
+}
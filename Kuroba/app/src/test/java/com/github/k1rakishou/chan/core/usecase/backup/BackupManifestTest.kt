@@ -0,0 +1,75 @@
+package com.github.k1rakishou.chan.core.usecase.backup
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.file.Files
+
+@RunWith(RobolectricTestRunner::class)
+class BackupManifestTest {
+  private lateinit var tempDir: File
+
+  @Before
+  fun setUp() {
+    tempDir = Files.createTempDirectory("backup_manifest_test").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    tempDir.deleteRecursively()
+  }
+
+  @Test
+  fun `entries of deleted files are pruned and the manifest survives a write and read`() {
+    val first = createEntry("media/1.jpg", "first")
+    val second = createEntry("media/2.jpg", "second")
+
+    val manifest = BackupManifest.EMPTY.update(listOf(first, second), setOf(first.name, second.name))
+    assertTrue(manifest.isUnchanged(first.name, first.file))
+    assertTrue(manifest.isUnchanged(second.name, second.file))
+
+    // The second file was deleted and a new one was added
+    val third = createEntry("media/3.jpg", "third")
+    val updated = manifest.update(listOf(third), setOf(first.name, third.name))
+    assertEquals(2, updated.size)
+
+    val manifestFile = BackupManifest.manifestFileFor(File(tempDir, "manifests"), "content://test/dir")
+    updated.writeTo(manifestFile)
+
+    val read = BackupManifest.readOrEmpty(manifestFile)
+    assertEquals(2, read.size)
+    assertTrue(read.isUnchanged(first.name, first.file))
+    assertFalse(read.isUnchanged(second.name, second.file))
+    assertTrue(read.isUnchanged(third.name, third.file))
+
+    first.file.writeText("first, changed")
+    assertFalse(read.isUnchanged(first.name, first.file))
+  }
+
+  @Test
+  fun `every destination has its own manifest file`() {
+    val manifestsDir = File(tempDir, "manifests")
+
+    val first = BackupManifest.manifestFileFor(manifestsDir, "content://test/dir1")
+    val firstAgain = BackupManifest.manifestFileFor(manifestsDir, "content://test/dir1")
+    val second = BackupManifest.manifestFileFor(manifestsDir, "content://test/dir2")
+
+    assertEquals(first, firstAgain)
+    assertFalse(first == second)
+    assertEquals(0, BackupManifest.readOrEmpty(second).size)
+  }
+
+  private fun createEntry(name: String, content: String): BackupEntry {
+    val file = File(tempDir, name.replace('/', '_'))
+    file.writeText(content)
+
+    return BackupEntry(name, file, BackupSection.ThreadDownloadsMedia, compress = false)
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.github.k1rakishou.chan.features.media_viewer.helper
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class MediaViewerPrefetchWindowTest {
+
+  @Test
+  fun `window skips the offscreen pages and follows the swipe direction`() {
+    val window = MediaViewerPrefetchWindow(itemsAhead = 3, skipNearest = 1)
+
+    assertEquals(listOf(12, 13, 14), window.onPageSelected(10, 100, 0L))
+    assertEquals(listOf(7, 6, 5), window.onPageSelected(9, 100, 5_000L))
+    assertEquals(MediaViewerPrefetchWindow.BACKWARD, window.direction)
+
+    assertEquals(listOf(12, 13, 14), window.onPageSelected(10, 100, 10_000L))
+    assertEquals(MediaViewerPrefetchWindow.FORWARD, window.direction)
+  }
+
+  @Test
+  fun `window is extended when swiping fast`() {
+    val window = MediaViewerPrefetchWindow(itemsAhead = 2, skipNearest = 1, fastSwipeIntervalMs = 500L)
+
+    assertEquals(listOf(2, 3), window.onPageSelected(0, 100, 0L))
+    assertEquals(listOf(3, 4, 5, 6), window.onPageSelected(1, 100, 200L))
+    assertEquals(listOf(4, 5, 6, 7), window.onPageSelected(2, 100, 400L))
+
+    // Slowing down shrinks the window back
+    window.onPageSelected(3, 100, 2_000L)
+    assertEquals(listOf(6, 7), window.onPageSelected(4, 100, 4_000L))
+
+    // Jumps are not swipes
+    window.onPageSelected(5, 100, 4_100L)
+    assertEquals(listOf(52, 53), window.onPageSelected(50, 100, 4_200L))
+  }
+
+  @Test
+  fun `window is bounded by the media list`() {
+    val window = MediaViewerPrefetchWindow(itemsAhead = 3, skipNearest = 2)
+
+    assertEquals(listOf(8, 9), window.onPageSelected(5, 10, 0L))
+    assertEquals(emptyList<Int>(), window.onPageSelected(8, 10, 5_000L))
+    assertEquals(listOf(0), window.onPageSelected(3, 10, 10_000L))
+
+    assertTrue(window.isNearest(5, 7))
+    assertFalse(window.isNearest(5, 8))
+  }
+
+  @Test
+  fun `zero items ahead disables prefetching`() {
+    val window = MediaViewerPrefetchWindow(itemsAhead = 0, skipNearest = 1)
+
+    assertEquals(emptyList<Int>(), window.onPageSelected(0, 100, 0L))
+    assertEquals(emptyList<Int>(), window.onPageSelected(1, 100, 100L))
+  }
+
+}
@@ -0,0 +1,296 @@
+package com.github.k1rakishou.chan.features.posting
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
+import junit.framework.Assert.assertEquals
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@OptIn(ExperimentalCoroutinesApi::class)
+@RunWith(RobolectricTestRunner::class)
+class PostingSchedulerTest {
+
+  @Test
+  fun `replies of the same site are sent one at a time in FIFO order, other sites are not blocked`() = runTest {
+    val scheduler = createScheduler()
+    val events = mutableListOf<String>()
+    val gates = mutableMapOf<String, CompletableDeferred<Unit>>()
+
+    fun post(name: String, chanDescriptor: ChanDescriptor) = launch {
+      val ticket = scheduler.createTicket(chanDescriptor)
+      val gate = CompletableDeferred<Unit>().also { gates[name] = it }
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += name
+        gate.await()
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    post("a1", thread("a", 1))
+    post("a2", thread("a", 2))
+    post("b1", thread("b", 1))
+    post("a3", catalog("a"))
+    runCurrent()
+
+    assertEquals(listOf("a1", "b1"), events)
+    assertEquals(3, scheduler.queuedRepliesCount(SiteDescriptor.create("a")))
+
+    gates["a1"]!!.complete(Unit)
+    runCurrent()
+    assertEquals(listOf("a1", "b1", "a2"), events)
+
+    gates["a2"]!!.complete(Unit)
+    gates["b1"]!!.complete(Unit)
+    gates["a3"]!!.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("a1", "b1", "a2", "a3"), events)
+    assertEquals(0, scheduler.queuedRepliesCount(SiteDescriptor.create("a")))
+    assertEquals(0, scheduler.queuedRepliesCount(SiteDescriptor.create("b")))
+  }
+
+  @Test
+  fun `rate limited reply keeps its place and the site is only woken up once the cooldown is over`() = runTest {
+    val scheduler = createScheduler()
+    val events = mutableListOf<Pair<String, Long>>()
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 1))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += "a1" to currentTime
+
+        // The server told us to wait 30 seconds
+        scheduler.awaitTurnAfterCooldown(ticket, 30_000L)
+        events += "a1" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 2))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += "a2" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    runCurrent()
+    assertEquals(listOf("a1" to 0L), events)
+    assertEquals(1, scheduler.pendingTimersCount())
+
+    advanceTimeBy(29_999L)
+    assertEquals(listOf("a1" to 0L), events)
+
+    advanceUntilIdle()
+    assertEquals(listOf("a1" to 0L, "a1" to 30_000L, "a2" to 30_000L), events)
+    assertEquals(0, scheduler.pendingTimersCount())
+  }
+
+  @Test
+  fun `longer cooldown replaces the shorter one`() = runTest {
+    val scheduler = createScheduler()
+    val turns = mutableListOf<Long>()
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 1))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        turns += currentTime
+
+        scheduler.awaitTurnAfterCooldown(ticket, 10_000L)
+        turns += currentTime
+
+        // Rate limited by the server right after our own cooldown calculations let us through
+        scheduler.awaitTurnAfterCooldown(ticket, 60_000L)
+        turns += currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    advanceUntilIdle()
+    assertEquals(listOf(0L, 10_000L, 70_000L), turns)
+  }
+
+  @Test
+  fun `reply waiting for captcha does not block other replies of the same site`() = runTest {
+    val scheduler = createScheduler()
+    val events = mutableListOf<Pair<String, Long>>()
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 1))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += "a1 turn" to currentTime
+
+        // The captcha solver is not done yet
+        scheduler.awaitTurnAfterCaptcha(ticket, 5_000L)
+        events += "a1 captcha ready" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 2))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += "a2 turn" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    advanceUntilIdle()
+
+    assertEquals(listOf("a1 turn" to 0L, "a2 turn" to 0L, "a1 captcha ready" to 5_000L), events)
+  }
+
+  @Test
+  fun `new captcha solution wakes up replies waiting for captcha right away`() = runTest {
+    val scheduler = createScheduler()
+    val turns = mutableListOf<Long>()
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 1))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        turns += currentTime
+
+        scheduler.awaitTurnAfterCaptcha(ticket, 60_000L)
+        turns += currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    advanceTimeBy(1_000L)
+    scheduler.onCaptchaSolutionAdded()
+    runCurrent()
+
+    assertEquals(listOf(0L, 1_000L), turns)
+
+    // The stale captcha timer must not wake anybody up
+    advanceUntilIdle()
+    assertEquals(listOf(0L, 1_000L), turns)
+    assertEquals(0, scheduler.pendingTimersCount())
+  }
+
+  @Test
+  fun `canceled replies are removed from the queue and give up the turn`() = runTest {
+    val scheduler = createScheduler()
+    val events = mutableListOf<String>()
+    val gate = CompletableDeferred<Unit>()
+
+    fun post(name: String, threadNo: Long, block: suspend () -> Unit = {}) = launch {
+      val ticket = scheduler.createTicket(thread("a", threadNo))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        events += name
+        block()
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    val first = post("a1", 1) { gate.await() }
+    val second = post("a2", 2)
+    post("a3", 3) { gate.await() }
+    post("a4", 4)
+    runCurrent()
+
+    assertEquals(listOf("a1"), events)
+    assertEquals(4, scheduler.queuedRepliesCount(SiteDescriptor.create("a")))
+
+    // Canceled while waiting in the queue
+    second.cancel()
+    runCurrent()
+    assertEquals(3, scheduler.queuedRepliesCount(SiteDescriptor.create("a")))
+
+    // Canceled while holding the turn
+    first.cancel()
+    runCurrent()
+    assertEquals(listOf("a1", "a3"), events)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("a1", "a3", "a4"), events)
+    assertEquals(0, scheduler.queuedRepliesCount(SiteDescriptor.create("a")))
+  }
+
+  @Test
+  fun `canceled rate limited reply does not leave the site blocked`() = runTest {
+    val scheduler = createScheduler()
+    val turns = mutableListOf<Pair<String, Long>>()
+
+    val first = launch {
+      val ticket = scheduler.createTicket(thread("a", 1))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        scheduler.awaitTurnAfterCooldown(ticket, 10_000L)
+        turns += "a1" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    launch {
+      val ticket = scheduler.createTicket(thread("a", 2))
+
+      try {
+        scheduler.awaitTurn(ticket)
+        turns += "a2" to currentTime
+      } finally {
+        scheduler.remove(ticket)
+      }
+    }
+
+    advanceTimeBy(1_000L)
+    first.cancel()
+    advanceUntilIdle()
+
+    // The cooldown of the site still applies to the next reply
+    assertEquals(listOf("a2" to 10_000L), turns)
+  }
+
+  private fun TestScope.createScheduler(): PostingScheduler {
+    return PostingScheduler(
+      scope = backgroundScope,
+      currentTimeMillis = { testScheduler.currentTime }
+    )
+  }
+
+  private fun thread(siteName: String, threadNo: Long): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create(siteName, "g", threadNo)
+  }
+
+  private fun catalog(siteName: String): ChanDescriptor.CatalogDescriptor {
+    return ChanDescriptor.CatalogDescriptor.create(siteName, "g")
+  }
+
+}
@@ -0,0 +1,187 @@
+package com.github.k1rakishou.chan.ui.adapter
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.PostComment
+import junit.framework.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class CatalogPostsSorterTest {
+
+  @Test
+  fun `every order produces the same result as a stable comparator sort`() {
+    val random = Random(42)
+
+    val posts = (1L..500L).map { postNo ->
+      createPost(
+        postNo = postNo,
+        timestamp = random.nextLong(1_000L, 1_000_000L),
+        lastModified = random.nextLong(1_000L, 1_000_000L),
+        // Small ranges so that there are plenty of equal keys
+        repliesCount = random.nextInt(0, 20),
+        imagesCount = random.nextInt(0, 20)
+      )
+    }
+
+    val comparators = mapOf(
+      PostsFilter.Order.REPLY to compareByDescending<ChanOriginalPost> { post -> post.catalogRepliesCount },
+      PostsFilter.Order.IMAGE to compareByDescending { post -> post.catalogImagesCount },
+      PostsFilter.Order.NEWEST to compareByDescending { post -> post.timestamp },
+      PostsFilter.Order.OLDEST to compareBy { post -> post.timestamp },
+      PostsFilter.Order.MODIFIED to compareByDescending { post -> post.lastModified }
+    )
+
+    comparators.forEach { (order, comparator) ->
+      val sorted = posts.toMutableList()
+      CatalogPostsSorter.sort(catalogDescriptor("test-$order"), order, sorted)
+
+      assertEquals("order=$order", postNos(posts.sortedWith(comparator)), postNos(sorted))
+    }
+  }
+
+  @Test
+  fun `timestamps further apart than Int range do not overflow`() {
+    val posts = mutableListOf(
+      createPost(postNo = 1L, timestamp = 0L),
+      createPost(postNo = 2L, timestamp = Int.MAX_VALUE.toLong() * 4L),
+      createPost(postNo = 3L, timestamp = Int.MAX_VALUE.toLong() * 2L)
+    )
+
+    CatalogPostsSorter.sort(catalogDescriptor("overflow"), PostsFilter.Order.NEWEST, posts)
+    assertEquals(listOf(2L, 3L, 1L), postNos(posts))
+
+    CatalogPostsSorter.sort(catalogDescriptor("overflow"), PostsFilter.Order.OLDEST, posts)
+    assertEquals(listOf(1L, 3L, 2L), postNos(posts))
+  }
+
+  @Test
+  fun `activity order puts threads with more replies per second first`() {
+    val now = System.currentTimeMillis() / 1000L
+
+    val posts = mutableListOf(
+      createPost(postNo = 1L, timestamp = now - 1000L, repliesCount = 1),
+      createPost(postNo = 2L, timestamp = now - 1000L, repliesCount = 100),
+      createPost(postNo = 3L, timestamp = now - 1000L, repliesCount = 0),
+      createPost(postNo = 4L, timestamp = now - 5L, repliesCount = 1)
+    )
+
+    CatalogPostsSorter.sort(catalogDescriptor("activity"), PostsFilter.Order.ACTIVITY, posts)
+    assertEquals(listOf(4L, 2L, 1L, 3L), postNos(posts))
+  }
+
+  @Test
+  fun `bump order and single post catalogs are left untouched`() {
+    val posts = mutableListOf(
+      createPost(postNo = 3L, repliesCount = 1),
+      createPost(postNo = 1L, repliesCount = 3),
+      createPost(postNo = 2L, repliesCount = 2)
+    )
+
+    CatalogPostsSorter.sort(catalogDescriptor("bump"), PostsFilter.Order.BUMP, posts)
+    assertEquals(listOf(3L, 1L, 2L), postNos(posts))
+
+    val singlePost = mutableListOf(createPost(postNo = 1L))
+    CatalogPostsSorter.sort(catalogDescriptor("bump"), PostsFilter.Order.REPLY, singlePost)
+    assertEquals(listOf(1L), postNos(singlePost))
+  }
+
+  @Test
+  fun `cached ordering is reused for an unchanged catalog and recalculated after a change`() {
+    val descriptor = catalogDescriptor("cache")
+
+    val posts = listOf(
+      createPost(postNo = 1L, repliesCount = 10),
+      createPost(postNo = 2L, repliesCount = 30),
+      createPost(postNo = 3L, repliesCount = 20)
+    )
+
+    val first = posts.toMutableList()
+    CatalogPostsSorter.sort(descriptor, PostsFilter.Order.REPLY, first)
+    assertEquals(listOf(2L, 3L, 1L), postNos(first))
+
+    // Same catalog snapshot, the cached ordering must produce the same result
+    val second = posts.toMutableList()
+    CatalogPostsSorter.sort(descriptor, PostsFilter.Order.REPLY, second)
+    assertEquals(listOf(2L, 3L, 1L), postNos(second))
+
+    // Thread 1 got new replies, the cached ordering must not be used anymore
+    val updated = mutableListOf(
+      createPost(postNo = 1L, repliesCount = 50),
+      createPost(postNo = 2L, repliesCount = 30),
+      createPost(postNo = 3L, repliesCount = 20)
+    )
+    CatalogPostsSorter.sort(descriptor, PostsFilter.Order.REPLY, updated)
+    assertEquals(listOf(1L, 2L, 3L), postNos(updated))
+
+    // A new thread was added
+    val withNewThread = (posts + createPost(postNo = 4L, repliesCount = 25)).toMutableList()
+    CatalogPostsSorter.sort(descriptor, PostsFilter.Order.REPLY, withNewThread)
+    assertEquals(listOf(2L, 4L, 3L, 1L), postNos(withNewThread))
+  }
+
+  @Test
+  fun `orderings are cached per catalog and per order`() {
+    val posts = listOf(
+      createPost(postNo = 1L, repliesCount = 10, imagesCount = 3),
+      createPost(postNo = 2L, repliesCount = 30, imagesCount = 1),
+      createPost(postNo = 3L, repliesCount = 20, imagesCount = 2)
+    )
+
+    val byReplies = posts.toMutableList()
+    CatalogPostsSorter.sort(catalogDescriptor("a"), PostsFilter.Order.REPLY, byReplies)
+    assertEquals(listOf(2L, 3L, 1L), postNos(byReplies))
+
+    val byImages = posts.toMutableList()
+    CatalogPostsSorter.sort(catalogDescriptor("a"), PostsFilter.Order.IMAGE, byImages)
+    assertEquals(listOf(1L, 3L, 2L), postNos(byImages))
+
+    val otherCatalog = posts.reversed().toMutableList()
+    CatalogPostsSorter.sort(catalogDescriptor("b"), PostsFilter.Order.REPLY, otherCatalog)
+    assertEquals(listOf(2L, 3L, 1L), postNos(otherCatalog))
+  }
+
+  private fun postNos(posts: List<ChanOriginalPost>): List<Long> {
+    return posts.map { post -> post.postDescriptor.postNo }
+  }
+
+  private fun catalogDescriptor(boardCode: String): ChanDescriptor.CatalogDescriptor {
+    return ChanDescriptor.CatalogDescriptor.create("test", boardCode)
+  }
+
+  private fun createPost(
+    postNo: Long,
+    timestamp: Long = postNo,
+    lastModified: Long = 0L,
+    repliesCount: Int = 0,
+    imagesCount: Int = 0
+  ): ChanOriginalPost {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "test", postNo)
+
+    return ChanOriginalPost(
+      chanPostId = 0L,
+      postDescriptor = PostDescriptor.create(threadDescriptor, postNo),
+      postImages = mutableListOf(),
+      postIcons = mutableListOf(),
+      repliesTo = mutableSetOf(),
+      timestamp = timestamp,
+      postComment = PostComment(originalComment = "$postNo", originalUnparsedComment = "$postNo", emptyList()),
+      isSavedReply = false,
+      catalogRepliesCount = repliesCount,
+      catalogImagesCount = imagesCount,
+      lastModified = lastModified,
+      sticky = false,
+      closed = false,
+      archived = false,
+      endless = false,
+      isSage = false,
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+}
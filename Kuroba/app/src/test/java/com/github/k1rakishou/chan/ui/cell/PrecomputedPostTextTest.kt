@@ -0,0 +1,254 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import android.app.Application
+import android.graphics.Color
+import android.graphics.Typeface
+import android.os.Build
+import android.text.PrecomputedText
+import android.text.Spannable
+import android.text.SpannableString
+import android.text.Spanned
+import android.text.style.BackgroundColorSpan
+import android.text.style.ForegroundColorSpan
+import android.text.style.StyleSpan
+import android.text.style.UnderlineSpan
+import android.view.View
+import android.widget.TextView
+import androidx.appcompat.widget.AppCompatTextView
+import androidx.core.widget.TextViewCompat
+import com.github.k1rakishou.test_shared.Benchmarks
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import kotlin.random.Random
+
+/**
+ * Checks that a comment bound through [PrecomputedPostText] ends up with the same layout as the
+ * one bound with a regular setText(). The benchmark (only with -Pbenchmarks) prints the main thread
+ * cost of binding (setting the text and measuring the TextView) both ways.
+ * */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.P], application = Application::class)
+class PrecomputedPostTextTest {
+  private val context = RuntimeEnvironment.getApplication()
+
+  @Test
+  fun `precomputed comment has the same layout as the regular one`() {
+    val textMetrics = PrecomputedPostText.TextMetrics(Typeface.DEFAULT)
+    val random = Random(1337)
+
+    repeat(20) {
+      val comment = createComment(random)
+      val regularTextView = createCommentTextView()
+      val precomputedTextView = createCommentTextView()
+
+      assertFalse(textMetrics.bind(regularTextView, TEXT_SIZE_SP, comment, null, mutable = false))
+
+      val precomputedPostText = textMetrics.precompute(comment, TEXT_SIZE_SP)
+      assertTrue(textMetrics.bind(precomputedTextView, TEXT_SIZE_SP, comment, precomputedPostText, mutable = false))
+
+      measure(regularTextView)
+      measure(precomputedTextView)
+
+      assertSameLayout(regularTextView, precomputedTextView)
+    }
+  }
+
+  @Test
+  fun `precomputed text is only used for the same text and the same text metrics`() {
+    val textMetrics = PrecomputedPostText.TextMetrics(Typeface.DEFAULT)
+    val comment = createComment(Random(42))
+    val textView = createCommentTextView()
+
+    textMetrics.bind(textView, TEXT_SIZE_SP, comment, null, mutable = false)
+    assertEquals(TextViewCompat.getTextMetricsParams(textView), textMetrics.textMetricsParams(TEXT_SIZE_SP))
+
+    val precomputedPostText = textMetrics.precompute(comment, TEXT_SIZE_SP)
+    assertTrue(textMetrics.bind(textView, TEXT_SIZE_SP, comment, precomputedPostText, mutable = false))
+
+    // Comment was recalculated (e.g. after search query change)
+    assertFalse(textMetrics.bind(textView, TEXT_SIZE_SP, SpannableString(comment), precomputedPostText, mutable = false))
+
+    // Font size changed
+    val biggerTextView = createCommentTextView(textSizeSp = TEXT_SIZE_SP + 2)
+    assertFalse(textMetrics.bind(biggerTextView, TEXT_SIZE_SP + 2, comment, precomputedPostText, mutable = false))
+    assertEquals(TextViewCompat.getTextMetricsParams(biggerTextView), textMetrics.textMetricsParams(TEXT_SIZE_SP + 2))
+
+    val biggerPrecomputedPostText = textMetrics.precompute(comment, TEXT_SIZE_SP + 2)
+    assertTrue(textMetrics.bind(biggerTextView, TEXT_SIZE_SP + 2, comment, biggerPrecomputedPostText, mutable = false))
+  }
+
+  @Test
+  @Config(sdk = [Build.VERSION_CODES.Q])
+  fun `mutable precomputed comment can be highlighted and selected on android 10`() {
+    val textMetrics = PrecomputedPostText.TextMetrics(Typeface.DEFAULT)
+    val comment = createComment(Random(7))
+    val textView = createCommentTextView()
+
+    textMetrics.bind(textView, TEXT_SIZE_SP, comment, null, mutable = true)
+
+    val precomputedPostText = textMetrics.precompute(comment, TEXT_SIZE_SP)
+    assertTrue(textMetrics.bind(textView, TEXT_SIZE_SP, comment, precomputedPostText, mutable = true))
+    measure(textView)
+
+    // What PostCell does with the comment: it becomes selectable and the link/quote under the finger
+    // is highlighted with a background span. A span that changes the text metrics must be accepted
+    // too, PrecomputedText throws on those.
+    textView.setTextIsSelectable(true)
+
+    val text = textView.text
+    assertTrue(text is Spannable)
+    assertFalse(text is PrecomputedText)
+
+    val highlightSpan = BackgroundColorSpan(Color.RED)
+    (text as Spannable).setSpan(highlightSpan, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+    text.setSpan(StyleSpan(Typeface.BOLD), 5, 10, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+    measure(textView)
+
+    text.removeSpan(highlightSpan)
+    measure(textView)
+
+    assertEquals(comment.toString(), textView.text.toString())
+  }
+
+  @Test
+  fun `benchmark comment bind`() {
+    Benchmarks.assumeEnabled()
+
+    val textMetrics = PrecomputedPostText.TextMetrics(Typeface.DEFAULT)
+    val random = Random(1)
+    val comments = (0 until COMMENTS_COUNT).map { createComment(random) }
+    val textView = createCommentTextView()
+
+    // Learn the text metrics params of the TextView
+    textMetrics.bind(textView, TEXT_SIZE_SP, comments.first(), null, mutable = false)
+
+    val precomputeStart = System.nanoTime()
+    val precomputedPostTexts = comments.map { comment -> textMetrics.precompute(comment, TEXT_SIZE_SP) }
+    val precomputeNanos = System.nanoTime() - precomputeStart
+
+    val regularBind = {
+      comments.forEach { comment ->
+        textMetrics.bind(textView, TEXT_SIZE_SP, comment, null, mutable = false)
+        measure(textView)
+      }
+    }
+
+    val precomputedBind = {
+      comments.forEachIndexed { index, comment ->
+        textMetrics.bind(textView, TEXT_SIZE_SP, comment, precomputedPostTexts[index], mutable = false)
+        measure(textView)
+      }
+    }
+
+    repeat(WARMUP_ITERATIONS) {
+      regularBind()
+      precomputedBind()
+    }
+
+    val regularNanos = measureNanos(regularBind)
+    val precomputedNanos = measureNanos(precomputedBind)
+    val bindsCount = COMMENTS_COUNT * MEASURE_ITERATIONS
+
+    println("comments=${COMMENTS_COUNT}, avgLength=${comments.sumOf { it.length } / COMMENTS_COUNT}")
+    println("before (setText + measure on main thread): ${regularNanos / bindsCount}ns per bind")
+    println("after (precomputed text + measure on main thread): ${precomputedNanos / bindsCount}ns per bind")
+    println("precompute (background thread): ${precomputeNanos / COMMENTS_COUNT}ns per comment")
+  }
+
+  private fun measureNanos(func: () -> Unit): Long {
+    val start = System.nanoTime()
+    repeat(MEASURE_ITERATIONS) { func() }
+    return System.nanoTime() - start
+  }
+
+  private fun measure(textView: TextView) {
+    textView.measure(
+      View.MeasureSpec.makeMeasureSpec(WIDTH_PX, View.MeasureSpec.EXACTLY),
+      View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+    )
+
+    textView.layout(0, 0, textView.measuredWidth, textView.measuredHeight)
+  }
+
+  private fun assertSameLayout(expected: TextView, actual: TextView) {
+    assertEquals(expected.text.toString(), actual.text.toString())
+    assertEquals(expected.measuredHeight, actual.measuredHeight)
+
+    val expectedLayout = expected.layout
+    val actualLayout = actual.layout
+
+    assertEquals(expectedLayout.lineCount, actualLayout.lineCount)
+
+    for (line in 0 until expectedLayout.lineCount) {
+      assertEquals(expectedLayout.getLineStart(line), actualLayout.getLineStart(line))
+      assertEquals(expectedLayout.getLineEnd(line), actualLayout.getLineEnd(line))
+      assertEquals(expectedLayout.getLineWidth(line), actualLayout.getLineWidth(line))
+      assertEquals(expectedLayout.getLineBottom(line), actualLayout.getLineBottom(line))
+    }
+  }
+
+  private fun createCommentTextView(textSizeSp: Int = TEXT_SIZE_SP): TextView {
+    return AppCompatTextView(context).apply {
+      textSize = textSizeSp.toFloat()
+      typeface = Typeface.DEFAULT
+    }
+  }
+
+  private fun createComment(random: Random): CharSequence {
+    val lines = (0 until random.nextInt(5, 40)).map {
+      when (random.nextInt(4)) {
+        0 -> ">>${random.nextLong(100_000_000L, 999_999_999L)}"
+        1 -> ">" + randomWords(random, random.nextInt(3, 20))
+        2 -> "https://example.com/" + randomWords(random, 1)
+        else -> randomWords(random, random.nextInt(5, 60))
+      }
+    }
+
+    val comment = SpannableString(lines.joinToString(separator = "\n"))
+    var offset = 0
+
+    for (line in lines) {
+      val end = offset + line.length
+
+      when {
+        line.startsWith(">>") -> comment.setSpan(UnderlineSpan(), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        line.startsWith(">") -> comment.setSpan(ForegroundColorSpan(Color.GREEN), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        line.startsWith("https") -> comment.setSpan(ForegroundColorSpan(Color.BLUE), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        line.length > 10 -> {
+          val boldEnd = offset + random.nextInt(1, line.length)
+          comment.setSpan(StyleSpan(Typeface.BOLD), offset, boldEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+          comment.setSpan(BackgroundColorSpan(Color.BLACK), boldEnd, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+      }
+
+      offset = end + 1
+    }
+
+    return comment
+  }
+
+  private fun randomWords(random: Random, count: Int): String {
+    return (0 until count).joinToString(separator = " ") { WORDS[random.nextInt(WORDS.size)] }
+  }
+
+  companion object {
+    private const val TEXT_SIZE_SP = 14
+    private const val WIDTH_PX = 720
+    private const val COMMENTS_COUNT = 200
+    private const val WARMUP_ITERATIONS = 3
+    private const val MEASURE_ITERATIONS = 10
+
+    private val WORDS = listOf(
+      "the", "thread", "is", "dead", "bump", "anon", "kek", "what", "about", "this", "image",
+      "source", "please", "based", "wrong", "board", "nobody", "cares", "ywnbaw", "unironically",
+      "incomprehensibilities", "pneumonoultramicroscopicsilicovolcanoconiosis", "日本語", "テスト"
+    )
+  }
+
+}
@@ -24,6 +24,8 @@ open class AppConstants(
   val processorsCount: Int
   val proxiesFileName = PROXIES_FILE_NAME
   val thirdEyeSettingsFileName = THIRD_EYE_SETTINGS_FILE_NAME
+  val thirdEyeLookupCacheFileName = THIRD_EYE_LOOKUP_CACHE_FILE_NAME
+  val dnsWarmSetFileName = DNS_WARM_SET_FILE_NAME
   val bookmarkWatchWorkUniqueTag = "BookmarkWatcherController_${flavorType.name}"
   val filterWatchWorkUniqueTag = "FilterWatcherController_${flavorType.name}"
   val threadDownloadWorkUniqueTag = "ThreadDownloadController_${flavorType.name}"
@@ -53,6 +55,8 @@ open class AppConstants(
 
   // 128MB
   val exoPlayerDiskCacheMaxSize = 128L * 1024 * 1024
+  // 32MB
+  val threadSnapshotsMaxDiskSize = 32L * 1024 * 1024
   val mpvDemuxerCacheMaxSize: Long
 
   val replyDraftsDir: File
@@ -115,6 +119,16 @@ open class AppConstants(
       return field
     }
 
+  val threadSnapshotsDir: File
+    get() {
+      if (field.exists()) {
+        return field
+      }
+
+      check(field.mkdir()) { "Failed to create thread snapshots directory! threadSnapshotsDir=${field.absolutePath}" }
+      return field
+    }
+
   val diskCacheDir: File
     get() {
       if (field.exists()) {
@@ -166,6 +180,7 @@ open class AppConstants(
 
     diskCacheDir = File(context.filesDir, DISK_CACHE_DIR_NAME)
     exoPlayerCacheDir = File(context.cacheDir, EXO_PLAYER_CACHE_DIR_NAME)
+    threadSnapshotsDir = File(context.cacheDir, THREAD_SNAPSHOTS_DIR_NAME)
   }
 
   private fun calculateMpvDemuxerCacheSize(activityManager: ActivityManager?): Long {
@@ -205,6 +220,8 @@ open class AppConstants(
 
     private const val PROXIES_FILE_NAME = "kuroba_proxies.json"
     private const val THIRD_EYE_SETTINGS_FILE_NAME = "third_eye_settings.json"
+    private const val THIRD_EYE_LOOKUP_CACHE_FILE_NAME = "third_eye_lookup_cache.json"
+    private const val DNS_WARM_SET_FILE_NAME = "dns_warm_set.txt"
 
     private const val REPLY_DRAFTS_DIR_NAME = "reply_drafts"
     private const val ATTACH_FILES_DIR_NAME = "attach_files"
@@ -214,6 +231,7 @@ open class AppConstants(
     private const val MPV_NATIVE_LIBS_DIR_NAME = "mpv_native_libs"
     private const val MPV_CERT_DIR_NAME = "certs/mpv"
     private const val EXO_PLAYER_CACHE_DIR_NAME = "exo_player_cache"
+    private const val THREAD_SNAPSHOTS_DIR_NAME = "thread_snapshots"
 
     const val DISK_CACHE_DIR_NAME = "disk_cache"
 
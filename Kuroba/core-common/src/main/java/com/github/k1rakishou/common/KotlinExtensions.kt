@@ -274,13 +274,51 @@ fun JsonReader.nextStringOrNull(): String? {
   return value
 }
 
+/**
+ * Numbers sent as json strings (e.g. "123") are parsed too. The value is always consumed, even
+ * when it can't be converted.
+ * */
 fun JsonReader.nextIntOrNull(): Int? {
-  if (peek() != JsonToken.NUMBER) {
+  val value = nextIntegralNumberOrNull()
+    ?: return null
+
+  if (value < Int.MIN_VALUE || value > Int.MAX_VALUE) {
+    return null
+  }
+
+  return value.toInt()
+}
+
+/**
+ * Numbers sent as json strings (e.g. "123") are parsed too. The value is always consumed, even
+ * when it can't be converted.
+ * */
+fun JsonReader.nextLongOrNull(): Long? {
+  return nextIntegralNumberOrNull()
+}
+
+private fun JsonReader.nextIntegralNumberOrNull(): Long? {
+  val token = peek()
+  if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
     skipValue()
     return null
   }
 
-  return nextInt()
+  // nextString() returns numbers as they are written in the json
+  val value = nextString().trim()
+
+  value.toLongOrNull()?.let { number -> return number }
+
+  // Things like "1.0" or "1e3"
+  val asDouble = value.toDoubleOrNull()
+    ?: return null
+
+  val asLong = asDouble.toLong()
+  if (asLong.toDouble() != asDouble) {
+    return null
+  }
+
+  return asLong
 }
 
 fun JsonReader.nextBooleanOrNull(): Boolean? {
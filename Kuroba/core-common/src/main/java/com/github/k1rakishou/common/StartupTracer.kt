@@ -0,0 +1,175 @@
+package com.github.k1rakishou.common
+
+import androidx.annotation.GuardedBy
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records a timeline of the app startup: how long every initializer took, when every
+ * [SuspendableInitializer] got initialized and how long the first [SuspendableInitializer.awaitUntilInitialized]
+ * call of every initializer had to wait. Recording stops once [stopRecording] is called (after the
+ * startup maintenance is done) or once [MAX_EVENTS] events were recorded.
+ *
+ * The recorded timeline can be exported in the Chrome trace event format (can be opened with
+ * chrome://tracing or https://ui.perfetto.dev).
+ * */
+object StartupTracer {
+  private const val MAX_EVENTS = 1024
+
+  private val processStartNanos = System.nanoTime()
+
+  @GuardedBy("this")
+  private val events = ArrayList<TraceEvent>(128)
+  @GuardedBy("this")
+  private val awaitedInitializers = HashSet<String>()
+
+  @Volatile
+  private var recording = true
+
+  fun isRecording(): Boolean = recording
+
+  fun <T> trace(name: String, func: () -> T): T {
+    if (!recording) {
+      return func()
+    }
+
+    val start = System.nanoTime()
+
+    try {
+      return func()
+    } finally {
+      recordSpan(name, CATEGORY_INIT, start, System.nanoTime())
+    }
+  }
+
+  fun recordSpan(name: String, category: String, startNanos: Long, endNanos: Long) {
+    if (!recording) {
+      return
+    }
+
+    addEvent(
+      TraceEvent(
+        name = name,
+        category = category,
+        threadName = Thread.currentThread().name,
+        startNanos = startNanos,
+        durationNanos = endNanos - startNanos
+      )
+    )
+  }
+
+  fun recordInstant(name: String, category: String) {
+    if (!recording) {
+      return
+    }
+
+    addEvent(
+      TraceEvent(
+        name = name,
+        category = category,
+        threadName = Thread.currentThread().name,
+        startNanos = System.nanoTime(),
+        durationNanos = null
+      )
+    )
+  }
+
+  /**
+   * Only the first wait of every initializer is recorded since that's the one that may block
+   * the critical path.
+   * */
+  fun onInitializerAwaited(tag: String, startNanos: Long, endNanos: Long) {
+    if (!recording) {
+      return
+    }
+
+    val firstWait = synchronized(this) { awaitedInitializers.add(tag) }
+    if (!firstWait) {
+      return
+    }
+
+    recordSpan("await $tag", CATEGORY_AWAIT, startNanos, endNanos)
+  }
+
+  fun onInitializerCompleted(tag: String) {
+    recordInstant("$tag initialized", CATEGORY_INITIALIZED)
+  }
+
+  fun stopRecording() {
+    recording = false
+  }
+
+  fun exportAsChromeTrace(): String {
+    val eventsCopy = synchronized(this) { ArrayList(events) }
+    val threadIds = mutableMapOf<String, Int>()
+
+    return buildString {
+      append("{\"traceEvents\":[")
+
+      eventsCopy.forEachIndexed { index, traceEvent ->
+        if (index > 0) {
+          append(',')
+        }
+
+        val threadId = threadIds.getOrPut(traceEvent.threadName) { threadIds.size + 1 }
+
+        append("{\"name\":\"").append(escape(traceEvent.name)).append('"')
+        append(",\"cat\":\"").append(escape(traceEvent.category)).append('"')
+        append(",\"pid\":1")
+        append(",\"tid\":").append(threadId)
+        append(",\"ts\":").append(toMicros(traceEvent.startNanos - processStartNanos))
+
+        if (traceEvent.durationNanos != null) {
+          append(",\"ph\":\"X\"")
+          append(",\"dur\":").append(toMicros(traceEvent.durationNanos))
+        } else {
+          append(",\"ph\":\"i\",\"s\":\"g\"")
+        }
+
+        append('}')
+      }
+
+      threadIds.forEach { (threadName, threadId) ->
+        if (eventsCopy.isNotEmpty()) {
+          append(',')
+        }
+
+        append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(threadId)
+        append(",\"args\":{\"name\":\"").append(escape(threadName)).append("\"}}")
+      }
+
+      append("]}")
+    }
+  }
+
+  private fun addEvent(traceEvent: TraceEvent) {
+    synchronized(this) {
+      if (events.size >= MAX_EVENTS) {
+        recording = false
+        return
+      }
+
+      events += traceEvent
+    }
+  }
+
+  private fun toMicros(nanos: Long): Long = TimeUnit.NANOSECONDS.toMicros(nanos)
+
+  private fun escape(input: String): String {
+    return input
+      .replace("\\", "\\\\")
+      .replace("\"", "\\\"")
+  }
+
+  private class TraceEvent(
+    val name: String,
+    val category: String,
+    val threadName: String,
+    val startNanos: Long,
+    val durationNanos: Long?
+  )
+
+  const val CATEGORY_INIT = "init"
+  const val CATEGORY_AWAIT = "await"
+  const val CATEGORY_INITIALIZED = "initialized"
+  const val CATEGORY_MAINTENANCE = "maintenance"
+}
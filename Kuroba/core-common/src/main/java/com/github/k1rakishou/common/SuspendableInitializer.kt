@@ -6,6 +6,7 @@ import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.withContext
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.time.ExperimentalTime
 
@@ -35,6 +36,7 @@ class SuspendableInitializer<T> @JvmOverloads constructor(
       return
     }
 
+    StartupTracer.onInitializerCompleted(tag)
     notifyAllWaiters()
     logInternal("SuspendableInitializer initWithValue() done")
   }
@@ -48,6 +50,7 @@ class SuspendableInitializer<T> @JvmOverloads constructor(
       return
     }
 
+    StartupTracer.onInitializerCompleted(tag)
     notifyAllWaiters(exception)
     logErrorInternal("SuspendableInitializer initWithError() done")
   }
@@ -78,9 +81,12 @@ class SuspendableInitializer<T> @JvmOverloads constructor(
 
     logInternal("SuspendableInitializer awaitUntilInitialized() called when not initialized, awaiting...")
 
-    val startTime = System.currentTimeMillis()
+    val startTime = System.nanoTime()
     withContext(NonCancellable) { value.await() }
-    val diffTime = System.currentTimeMillis() - startTime
+    val endTime = System.nanoTime()
+    val diffTime = TimeUnit.NANOSECONDS.toMillis(endTime - startTime)
+
+    StartupTracer.onInitializerAwaited(tag, startTime, endTime)
 
     logInternal("SuspendableInitializer awaitUntilInitialized() called when not initialized, " +
       "done (diffTime=${diffTime}ms)")
@@ -10,18 +10,36 @@ class CompositeDnsSelector(
   private val okHttpClient: OkHttpClient,
   private val okHttpUseDnsOverHttps: Boolean,
   private val normalDnsSelectorFactory: NormalDnsSelectorFactory,
-  private val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory
+  private val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
+  private val dnsCache: DnsCache? = null
 ) : Dns {
   private val initialLog = AtomicBoolean(false)
 
   private var normalNormalDnsSelector: NormalDnsSelector? = null
   private var dnsOverHttpsSelector: Dns? = null
 
+  private val uncachedDns = Dns { hostname -> lookupUncached(hostname) }
+
   override fun lookup(hostname: String): List<InetAddress> {
     if (initialLog.compareAndSet(false, true)) {
-      Logger.d(TAG, "lookup okHttpUseDnsOverHttps: $okHttpUseDnsOverHttps")
+      Logger.d(TAG, "lookup okHttpUseDnsOverHttps: $okHttpUseDnsOverHttps, dnsCache: ${dnsCache != null}")
+    }
+
+    if (dnsCache != null) {
+      return dnsCache.lookup(hostname, uncachedDns)
     }
 
+    return lookupUncached(hostname)
+  }
+
+  /**
+   * Resolves the persisted warm set of hosts (if there is one) into the [DnsCache].
+   * */
+  fun restoreWarmSet() {
+    dnsCache?.restoreWarmSet(uncachedDns)
+  }
+
+  private fun lookupUncached(hostname: String): List<InetAddress> {
     if (okHttpUseDnsOverHttps) {
       return getOrCreateDnsOverHttpsSelector().lookup(hostname)
     } else {
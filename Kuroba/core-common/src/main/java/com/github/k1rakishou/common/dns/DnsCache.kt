@@ -0,0 +1,341 @@
+package com.github.k1rakishou.common.dns
+
+import com.github.k1rakishou.core_logger.Logger
+import okhttp3.Dns
+import java.io.File
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-process DNS cache shared by all the DNS selectors (see [CompositeDnsSelector]).
+ *
+ * - Answers younger than [ttlMs] are served from the cache.
+ * - Answers older than that but younger than [ttlMs] + [maxStaleMs] are still served from the
+ *   cache but are refreshed in the background.
+ * - Concurrent lookups of the same host are coalesced into one.
+ * - Failed lookups are not cached and a failed background refresh keeps the stale answer.
+ *
+ * Neither the system resolver nor OkHttp's DnsOverHttps expose the record TTLs so [ttlMs] is a
+ * fixed value (the system resolver has its own TTL-aware cache underneath anyway).
+ *
+ * When [warmSetFile] is set, the most frequently used hosts are persisted there and resolved in
+ * the background on the next app start (see [restoreWarmSet]).
+ * */
+class DnsCache(
+  private val ttlMs: Long = DEFAULT_TTL_MS,
+  private val maxStaleMs: Long = DEFAULT_MAX_STALE_MS,
+  private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+  private val warmSetFile: File? = null,
+  private val warmSetSize: Int = DEFAULT_WARM_SET_SIZE,
+  private val executor: ScheduledExecutorService = createDefaultExecutor(),
+  private val currentTimeMillis: () -> Long = { System.currentTimeMillis() }
+) {
+  private val entries = ConcurrentHashMap<String, Entry>()
+  private val inFlightLookups = ConcurrentHashMap<String, FutureTask<List<InetAddress>>>()
+  private val scheduledRefreshes = ConcurrentHashMap.newKeySet<String>()
+  private val warmSetPersistScheduled = AtomicBoolean(false)
+
+  private val hits = AtomicLong(0)
+  private val staleHits = AtomicLong(0)
+  private val misses = AtomicLong(0)
+  private val coalescedLookups = AtomicLong(0)
+  private val backgroundRefreshes = AtomicLong(0)
+  private val failures = AtomicLong(0)
+  private val lookupCount = AtomicLong(0)
+  private val lookupTotalNs = AtomicLong(0)
+  private val lookupMaxNs = AtomicLong(0)
+
+  fun lookup(hostname: String, resolver: Dns): List<InetAddress> {
+    val key = hostname.lowercase()
+    val entry = entries[key]
+
+    if (entry != null) {
+      entry.useCount.incrementAndGet()
+      val age = currentTimeMillis() - entry.resolvedAt
+
+      if (age < ttlMs) {
+        hits.incrementAndGet()
+        return entry.addresses
+      }
+
+      if (age < ttlMs + maxStaleMs) {
+        staleHits.incrementAndGet()
+        refreshInBackground(key, hostname, resolver)
+        return entry.addresses
+      }
+    }
+
+    misses.incrementAndGet()
+    return resolveCoalesced(key, hostname, resolver)
+  }
+
+  /**
+   * Resolves the persisted warm set of hosts in the background. Does nothing if [warmSetFile] is
+   * not set.
+   * */
+  fun restoreWarmSet(resolver: Dns) {
+    val file = warmSetFile
+      ?: return
+
+    executor.execute {
+      val hosts = try {
+        readWarmSet(file)
+      } catch (error: Throwable) {
+        Logger.e(TAG, "restoreWarmSet() failed to read ${file.absolutePath}", error)
+        return@execute
+      }
+
+      var restored = 0
+
+      hosts.forEach { host ->
+        try {
+          resolveCoalesced(host, host, resolver)
+          ++restored
+        } catch (error: IOException) {
+          // The host may not exist anymore, it will not get into the warm set again
+        }
+      }
+
+      Logger.d(TAG, "restoreWarmSet() restored ${restored} out of ${hosts.size} hosts")
+    }
+  }
+
+  fun stats(): DnsCacheStats {
+    val count = lookupCount.get()
+
+    return DnsCacheStats(
+      hits = hits.get(),
+      staleHits = staleHits.get(),
+      misses = misses.get(),
+      coalescedLookups = coalescedLookups.get(),
+      backgroundRefreshes = backgroundRefreshes.get(),
+      failures = failures.get(),
+      entries = entries.size,
+      lookups = count,
+      avgLookupMs = if (count == 0L) 0L else TimeUnit.NANOSECONDS.toMillis(lookupTotalNs.get() / count),
+      maxLookupMs = TimeUnit.NANOSECONDS.toMillis(lookupMaxNs.get())
+    )
+  }
+
+  fun clear() {
+    entries.clear()
+  }
+
+  private fun refreshInBackground(key: String, hostname: String, resolver: Dns) {
+    if (inFlightLookups.containsKey(key) || !scheduledRefreshes.add(key)) {
+      return
+    }
+
+    backgroundRefreshes.incrementAndGet()
+
+    executor.execute {
+      try {
+        resolveCoalesced(key, hostname, resolver)
+      } catch (error: IOException) {
+        // Keep serving the stale answer until it expires completely
+        Logger.e(TAG, "Failed to refresh '${hostname}': ${error.javaClass.simpleName} ${error.message}")
+      } finally {
+        scheduledRefreshes.remove(key)
+      }
+    }
+  }
+
+  private fun resolveCoalesced(key: String, hostname: String, resolver: Dns): List<InetAddress> {
+    val newTask = FutureTask { resolve(key, hostname, resolver) }
+    val existingTask = inFlightLookups.putIfAbsent(key, newTask)
+
+    val task = if (existingTask == null) {
+      try {
+        newTask.run()
+      } finally {
+        inFlightLookups.remove(key, newTask)
+      }
+
+      newTask
+    } else {
+      coalescedLookups.incrementAndGet()
+      existingTask
+    }
+
+    try {
+      return task.get()
+    } catch (error: ExecutionException) {
+      val cause = error.cause
+      if (cause is IOException) {
+        throw cause
+      }
+
+      throw UnknownHostException("Failed to resolve '${hostname}'").apply { initCause(cause) }
+    } catch (error: InterruptedException) {
+      Thread.currentThread().interrupt()
+      throw InterruptedIOException("Interrupted while resolving '${hostname}'")
+    }
+  }
+
+  private fun resolve(key: String, hostname: String, resolver: Dns): List<InetAddress> {
+    val start = System.nanoTime()
+
+    val addresses = try {
+      resolver.lookup(hostname)
+    } catch (error: Throwable) {
+      failures.incrementAndGet()
+      throw error
+    }
+
+    val tookNs = System.nanoTime() - start
+    lookupCount.incrementAndGet()
+    lookupTotalNs.addAndGet(tookNs)
+    lookupMaxNs.accumulateAndGet(tookNs) { prev, new -> maxOf(prev, new) }
+
+    if (addresses.isNotEmpty()) {
+      store(key, addresses)
+    }
+
+    return addresses
+  }
+
+  private fun store(key: String, addresses: List<InetAddress>) {
+    val prevEntry = entries[key]
+    val newEntry = Entry(addresses.toList(), currentTimeMillis())
+
+    if (prevEntry != null) {
+      newEntry.useCount.set(prevEntry.useCount.get())
+    } else {
+      newEntry.useCount.set(1)
+    }
+
+    entries[key] = newEntry
+
+    if (prevEntry == null) {
+      trimToSize()
+      scheduleWarmSetPersist()
+    }
+  }
+
+  private fun trimToSize() {
+    while (entries.size > maxEntries) {
+      // Remove the least used entry, there are only a couple of hundreds at most
+      val leastUsed = entries.entries.minByOrNull { (_, entry) -> entry.useCount.get() }
+        ?: return
+
+      entries.remove(leastUsed.key, leastUsed.value)
+    }
+  }
+
+  private fun scheduleWarmSetPersist() {
+    if (warmSetFile == null) {
+      return
+    }
+
+    if (!warmSetPersistScheduled.compareAndSet(false, true)) {
+      return
+    }
+
+    executor.schedule(
+      {
+        warmSetPersistScheduled.set(false)
+        persistWarmSet()
+      },
+      WARM_SET_PERSIST_DEBOUNCE_MS,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  private fun persistWarmSet() {
+    val file = warmSetFile
+      ?: return
+
+    val hosts = entries.entries
+      .sortedByDescending { (_, entry) -> entry.useCount.get() }
+      .take(warmSetSize)
+      .map { (host, _) -> host }
+
+    try {
+      val tmpFile = File(file.parentFile, "${file.name}.tmp")
+      tmpFile.writeText(hosts.joinToString(separator = "\n"))
+
+      if (!tmpFile.renameTo(file)) {
+        throw IOException("Failed to rename \'${tmpFile.absolutePath}\' into \'${file.absolutePath}\'")
+      }
+    } catch (error: Throwable) {
+      Logger.e(TAG, "persistWarmSet() error", error)
+    }
+  }
+
+  private fun readWarmSet(file: File): List<String> {
+    if (!file.exists()) {
+      return emptyList()
+    }
+
+    return file.readLines()
+      .map { line -> line.trim() }
+      .filter { line -> line.isNotEmpty() }
+      .take(warmSetSize)
+  }
+
+  private class Entry(
+    val addresses: List<InetAddress>,
+    val resolvedAt: Long
+  ) {
+    val useCount = AtomicLong(0)
+  }
+
+  data class DnsCacheStats(
+    val hits: Long,
+    val staleHits: Long,
+    val misses: Long,
+    val coalescedLookups: Long,
+    val backgroundRefreshes: Long,
+    val failures: Long,
+    val entries: Int,
+    val lookups: Long,
+    val avgLookupMs: Long,
+    val maxLookupMs: Long
+  ) {
+    val hitRate: Float
+      get() {
+        val total = hits + staleHits + misses
+        if (total == 0L) {
+          return 0f
+        }
+
+        return (hits + staleHits).toFloat() / total.toFloat()
+      }
+
+    fun format(): String {
+      return buildString {
+        appendLine("DNS cache: entries=${entries}, hitRate=${"%.2f".format(hitRate)}")
+        appendLine("  hits=${hits}, staleHits=${staleHits}, misses=${misses}, coalesced=${coalescedLookups}")
+        appendLine("  backgroundRefreshes=${backgroundRefreshes}, failures=${failures}")
+        append("  lookups=${lookups}, avg ${avgLookupMs}ms, max ${maxLookupMs}ms")
+      }
+    }
+  }
+
+  companion object {
+    private const val TAG = "DnsCache"
+
+    private val DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5)
+    private val DEFAULT_MAX_STALE_MS = TimeUnit.HOURS.toMillis(1)
+    private const val DEFAULT_MAX_ENTRIES = 256
+    private const val DEFAULT_WARM_SET_SIZE = 32
+    private const val WARM_SET_PERSIST_DEBOUNCE_MS = 30_000L
+
+    private fun createDefaultExecutor(): ScheduledExecutorService {
+      return Executors.newScheduledThreadPool(2) { runnable ->
+        Thread(runnable, "DnsCache").apply { isDaemon = true }
+      }
+    }
+  }
+
+}
@@ -27,7 +27,20 @@ public class NormalDnsSelector implements Dns {
             return addresses;
         }
 
-        List<InetAddress> resultAddresses = new ArrayList<>();
+        boolean allIpv4 = true;
+        for (InetAddress address : addresses) {
+            if (!(address instanceof Inet4Address)) {
+                allIpv4 = false;
+                break;
+            }
+        }
+
+        if (allIpv4) {
+            // Nothing to filter, no need to copy the list
+            return addresses;
+        }
+
+        List<InetAddress> resultAddresses = new ArrayList<>(addresses.size());
         for (InetAddress address : addresses) {
             if (address instanceof Inet4Address) {
                 resultAddresses.add(address);
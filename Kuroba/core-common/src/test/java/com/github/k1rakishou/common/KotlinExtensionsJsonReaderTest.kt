@@ -0,0 +1,44 @@
+package com.github.k1rakishou.common
+
+import com.google.gson.stream.JsonReader
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import org.junit.Test
+import java.io.StringReader
+
+class KotlinExtensionsJsonReaderTest {
+
+  @Test
+  fun `test numbers and numbers sent as strings`() {
+    val values = readAll("""[1, "2", " 3 ", 4.0, "5e1", -6, "-7"]""") { nextLongOrNull() }
+    assertEquals(listOf<Long?>(1L, 2L, 3L, 4L, 50L, -6L, -7L), values)
+  }
+
+  @Test
+  fun `test values that are not integral numbers are consumed and return null`() {
+    val values = readAll("""[1.5, "abc", "", null, true, {"a": 1}, [1, 2], 8]""") { nextLongOrNull() }
+    assertEquals(listOf<Long?>(null, null, null, null, null, null, null, 8L), values)
+  }
+
+  @Test
+  fun `test int out of range`() {
+    val values = readAll("""[2147483647, "2147483648", -2147483649, 9]""") { nextIntOrNull() }
+    assertEquals(listOf<Int?>(Int.MAX_VALUE, null, null, 9), values)
+  }
+
+  private fun <T> readAll(json: String, read: JsonReader.() -> T): List<T> {
+    return JsonReader(StringReader(json)).use { reader ->
+      val result = mutableListOf<T>()
+
+      reader.beginArray()
+      while (reader.hasNext()) {
+        result += reader.read()
+      }
+      reader.endArray()
+
+      assertFalse(reader.hasNext())
+      result
+    }
+  }
+
+}
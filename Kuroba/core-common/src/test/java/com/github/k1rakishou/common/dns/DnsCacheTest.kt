@@ -0,0 +1,206 @@
+package com.github.k1rakishou.common.dns
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import okhttp3.Dns
+import org.junit.After
+import org.junit.Test
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class DnsCacheTest {
+  private val executor = Executors.newSingleThreadScheduledExecutor()
+  private var now = 0L
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `fresh answers are served from the cache`() {
+    val resolver = FakeResolver()
+    val dnsCache = createDnsCache()
+
+    assertEquals(address(1), dnsCache.lookup("a.com", resolver).single())
+    now += TTL_MS - 1
+    assertEquals(address(1), dnsCache.lookup("A.com", resolver).single())
+
+    assertEquals(1, resolver.calls.get())
+    assertEquals(1, dnsCache.stats().hits)
+    assertEquals(1, dnsCache.stats().misses)
+    assertEquals(0.5f, dnsCache.stats().hitRate)
+  }
+
+  @Test
+  fun `stale answers are served while refreshing in the background`() {
+    val resolver = FakeResolver()
+    val dnsCache = createDnsCache()
+
+    dnsCache.lookup("a.com", resolver)
+    now += TTL_MS
+
+    // Stale answer, refreshed in the background
+    assertEquals(address(1), dnsCache.lookup("a.com", resolver).single())
+    awaitExecutor()
+
+    assertEquals(address(2), dnsCache.lookup("a.com", resolver).single())
+    assertEquals(2, resolver.calls.get())
+
+    val stats = dnsCache.stats()
+    assertEquals(1, stats.hits)
+    assertEquals(1, stats.staleHits)
+    assertEquals(1, stats.backgroundRefreshes)
+  }
+
+  @Test
+  fun `expired answers are resolved again`() {
+    val resolver = FakeResolver()
+    val dnsCache = createDnsCache()
+
+    dnsCache.lookup("a.com", resolver)
+    now += TTL_MS + MAX_STALE_MS
+
+    assertEquals(address(2), dnsCache.lookup("a.com", resolver).single())
+    assertEquals(2, dnsCache.stats().misses)
+  }
+
+  @Test
+  fun `failed refresh keeps the stale answer`() {
+    val resolver = FakeResolver()
+    val dnsCache = createDnsCache()
+
+    dnsCache.lookup("a.com", resolver)
+    resolver.fail = true
+    now += TTL_MS
+
+    assertEquals(address(1), dnsCache.lookup("a.com", resolver).single())
+    awaitExecutor()
+    assertEquals(address(1), dnsCache.lookup("a.com", resolver).single())
+
+    assertEquals(1, dnsCache.stats().failures)
+  }
+
+  @Test(expected = UnknownHostException::class)
+  fun `failed lookups are not cached`() {
+    val resolver = FakeResolver()
+    val dnsCache = createDnsCache()
+
+    resolver.fail = true
+
+    try {
+      dnsCache.lookup("a.com", resolver)
+    } catch (error: UnknownHostException) {
+      // expected
+    }
+
+    assertEquals(0, dnsCache.stats().entries)
+    dnsCache.lookup("a.com", resolver)
+  }
+
+  @Test
+  fun `concurrent lookups of the same host are coalesced`() {
+    val lookupStarted = CountDownLatch(1)
+    val releaseLookup = CountDownLatch(1)
+    val resolver = FakeResolver(onLookup = {
+      lookupStarted.countDown()
+      releaseLookup.await(5, TimeUnit.SECONDS)
+    })
+
+    val dnsCache = createDnsCache()
+    val lookupExecutor = Executors.newFixedThreadPool(4)
+
+    try {
+      val first = lookupExecutor.submit<List<InetAddress>> { dnsCache.lookup("a.com", resolver) }
+      assertTrue(lookupStarted.await(5, TimeUnit.SECONDS))
+
+      val others = (0 until 3).map {
+        lookupExecutor.submit<List<InetAddress>> { dnsCache.lookup("a.com", resolver) }
+      }
+
+      // Give the other lookups time to join the in-flight one
+      Thread.sleep(200)
+      releaseLookup.countDown()
+
+      assertEquals(address(1), first.get(5, TimeUnit.SECONDS).single())
+      others.forEach { other -> assertEquals(address(1), other.get(5, TimeUnit.SECONDS).single()) }
+    } finally {
+      lookupExecutor.shutdownNow()
+    }
+
+    assertEquals(1, resolver.calls.get())
+    assertEquals(3, dnsCache.stats().coalescedLookups)
+  }
+
+  @Test
+  fun `warm set is restored`() {
+    val warmSetFile = Files.createTempFile("dns_warm_set", ".txt").toFile()
+
+    try {
+      warmSetFile.writeText("a.com\nb.com\n\n")
+
+      val resolver = FakeResolver()
+      val dnsCache = createDnsCache(warmSetFile)
+
+      dnsCache.restoreWarmSet(resolver)
+      awaitExecutor()
+
+      assertEquals(2, dnsCache.stats().entries)
+      assertEquals(2, resolver.calls.get())
+
+      dnsCache.lookup("a.com", resolver)
+      dnsCache.lookup("b.com", resolver)
+      assertEquals(2, resolver.calls.get())
+    } finally {
+      warmSetFile.delete()
+    }
+  }
+
+  private fun awaitExecutor() {
+    executor.submit { }.get(5, TimeUnit.SECONDS)
+  }
+
+  private fun createDnsCache(warmSetFile: java.io.File? = null): DnsCache {
+    return DnsCache(
+      ttlMs = TTL_MS,
+      maxStaleMs = MAX_STALE_MS,
+      warmSetFile = warmSetFile,
+      executor = executor,
+      currentTimeMillis = { now }
+    )
+  }
+
+  private class FakeResolver(
+    private val onLookup: () -> Unit = { }
+  ) : Dns {
+    val calls = AtomicInteger(0)
+
+    @Volatile
+    var fail = false
+
+    override fun lookup(hostname: String): List<InetAddress> {
+      onLookup()
+
+      if (fail) {
+        throw UnknownHostException(hostname)
+      }
+
+      return listOf(address(calls.incrementAndGet()))
+    }
+  }
+
+  companion object {
+    private const val TTL_MS = 1000L
+    private const val MAX_STALE_MS = 10_000L
+
+    private fun address(index: Int): InetAddress {
+      return InetAddress.getByAddress(byteArrayOf(10, 0, 0, index.toByte()))
+    }
+  }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+import android.util.Log;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeFormatterBuilder;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes log records from any thread and writes them into the {@link LogSink}s on a single
+ * background thread. Producers only allocate the {@link LogRecord} and put it into a
+ * {@link LogRingBuffer}, the wall clock time formatting, tag concatenation and IO all happen on the
+ * writer thread.
+ *
+ * When the buffer stays full for a while the records are dropped (errors are still written
+ * directly into logcat on the calling thread) and the amount of dropped records is reported once
+ * the writer catches up.
+ */
+public final class AsyncLogWriter {
+    private static final String TAG = "AsyncLogWriter";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int MAX_FULL_BUFFER_OFFER_ATTEMPTS = 64;
+
+    private static final DateTimeFormatter LOG_TIME_FORMATTER = new DateTimeFormatterBuilder()
+            .append(ISODateTimeFormat.hourMinuteSecondMillis())
+            .toFormatter();
+
+    private final LogRingBuffer ringBuffer;
+    private final LogSink[] sinks;
+    private final Thread writerThread;
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    // Used to convert monotonic record timestamps into wall clock time
+    private final long baseWallMillis;
+    private final long baseNanos;
+
+    private volatile boolean writerParked = false;
+    // Amount of records that were written into the sinks and the sinks were flushed afterwards
+    private volatile long flushedCount = 0;
+    private volatile boolean stopped = false;
+
+    // Only accessed by the writer thread
+    private long lastFormattedMillis = Long.MIN_VALUE;
+    private String lastFormattedTime = "";
+
+    public AsyncLogWriter(int capacity, List<LogSink> sinks) {
+        this.ringBuffer = new LogRingBuffer(capacity);
+        this.sinks = sinks.toArray(new LogSink[0]);
+        this.baseWallMillis = System.currentTimeMillis();
+        this.baseNanos = System.nanoTime();
+
+        this.writerThread = new Thread(this::writerLoop, "LogWriterThread");
+        this.writerThread.setDaemon(true);
+        this.writerThread.setPriority(Thread.MIN_PRIORITY);
+        this.writerThread.start();
+    }
+
+    public void log(int level, String tag, String message, Throwable throwable) {
+        LogRecord record = new LogRecord(
+                level,
+                tag,
+                message,
+                throwable,
+                System.nanoTime(),
+                Thread.currentThread().getName()
+        );
+
+        if (!offer(record)) {
+            droppedCount.incrementAndGet();
+
+            if (level >= Log.ERROR) {
+                // Never lose errors
+                LogcatSink.writeToLogcat(level, tag, message, throwable);
+            }
+
+            return;
+        }
+
+        if (writerParked) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private boolean offer(LogRecord record) {
+        if (ringBuffer.offer(record)) {
+            return true;
+        }
+
+        // The buffer is full, give the writer a chance to catch up before dropping the record
+        for (int attempt = 0; attempt < MAX_FULL_BUFFER_OFFER_ATTEMPTS; attempt++) {
+            LockSupport.unpark(writerThread);
+            Thread.yield();
+
+            if (ringBuffer.offer(record)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Blocks until every record that was logged before this call is written into the sinks (or
+     * until the timeout). Used before the process is about to die and before reading the log
+     * files.
+     */
+    public boolean flush(long timeoutMs) {
+        if (Thread.currentThread() == writerThread) {
+            return false;
+        }
+
+        long target = ringBuffer.producedCount();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        while (flushedCount < target) {
+            if (stopped || System.nanoTime() >= deadline) {
+                return false;
+            }
+
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return true;
+    }
+
+    public void stop(long timeoutMs) {
+        flush(timeoutMs);
+        stopped = true;
+
+        LockSupport.unpark(writerThread);
+
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    private void writerLoop() {
+        while (!stopped) {
+            int drained = drain();
+            if (drained > 0) {
+                continue;
+            }
+
+            writerParked = true;
+
+            // Re-check after publishing the parked flag otherwise a record offered right before the
+            // flag was set would not wake us up until the park timeout
+            if (ringBuffer.producedCount() == ringBuffer.consumedCount()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+
+            writerParked = false;
+        }
+
+        drain();
+    }
+
+    private int drain() {
+        int drained = 0;
+        LogRecord record;
+
+        while ((record = ringBuffer.poll()) != null) {
+            writeRecord(record);
+            ++drained;
+        }
+
+        long dropped = droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            String message = "Dropped " + dropped + " log records because the log buffer was full " +
+                    "(capacity=" + ringBuffer.capacity() + ")";
+
+            writeRecord(new LogRecord(Log.WARN, TAG, message, null, System.nanoTime(), "LogWriterThread"));
+            ++drained;
+        }
+
+        if (drained > 0) {
+            for (LogSink sink : sinks) {
+                sink.flush();
+            }
+
+            flushedCount = ringBuffer.consumedCount();
+        }
+
+        return drained;
+    }
+
+    private void writeRecord(LogRecord record) {
+        String formattedTime = formatTime(record.timestampNanos);
+
+        for (LogSink sink : sinks) {
+            try {
+                sink.write(record, formattedTime);
+            } catch (Throwable error) {
+                LogcatSink.writeToLogcat(Log.ERROR, TAG, "Sink " + sink.getClass().getSimpleName() + " error", error);
+            }
+        }
+    }
+
+    private String formatTime(long timestampNanos) {
+        long wallMillis = baseWallMillis + TimeUnit.NANOSECONDS.toMillis(timestampNanos - baseNanos);
+
+        // Records usually come in bursts within the same millisecond
+        if (wallMillis != lastFormattedMillis) {
+            lastFormattedMillis = wallMillis;
+            lastFormattedTime = LOG_TIME_FORMATTER.print(wallMillis);
+        }
+
+        return lastFormattedTime;
+    }
+}
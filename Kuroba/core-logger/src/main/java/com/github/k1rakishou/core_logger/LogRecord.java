@@ -0,0 +1,48 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+/**
+ * A single log call. Created on the calling thread with nothing but the raw arguments and a
+ * monotonic timestamp, everything else (tag prefix, wall clock time formatting, stack traces) is
+ * done by the {@link AsyncLogWriter} thread.
+ */
+public final class LogRecord {
+    public final int level;
+    public final String tag;
+    public final String message;
+    // May be null
+    public final Throwable throwable;
+    public final long timestampNanos;
+    public final String threadName;
+
+    public LogRecord(
+            int level,
+            String tag,
+            String message,
+            Throwable throwable,
+            long timestampNanos,
+            String threadName
+    ) {
+        this.level = level;
+        this.tag = tag;
+        this.message = message;
+        this.throwable = throwable;
+        this.timestampNanos = timestampNanos;
+        this.threadName = threadName;
+    }
+}
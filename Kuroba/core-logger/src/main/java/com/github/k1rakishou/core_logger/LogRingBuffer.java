@@ -0,0 +1,109 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer single-consumer queue of {@link LogRecord}s. Every slot has a
+ * sequence number which tells producers whether the slot is free for the current lap and tells
+ * the consumer whether the slot has been published. Producers never block, when the buffer is full
+ * {@link #offer(LogRecord)} returns false and it's up to the caller what to do with the record.
+ */
+final class LogRingBuffer {
+    private final int mask;
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex = new AtomicLong(0);
+    // Only accessed by the consumer thread
+    private long consumerIndex = 0;
+    private final AtomicLong consumedCount = new AtomicLong(0);
+
+    LogRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, capacity=" + capacity);
+        }
+
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(LogRecord record) {
+        while (true) {
+            long index = producerIndex.get();
+            int slot = (int) (index & mask);
+            long diff = sequences.get(slot) - index;
+
+            if (diff == 0) {
+                if (producerIndex.compareAndSet(index, index + 1)) {
+                    slots.lazySet(slot, record);
+                    // Publish the slot to the consumer
+                    sequences.set(slot, index + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The consumer hasn't freed this slot yet, the buffer is full
+                return false;
+            }
+
+            // Another producer has claimed this index, try the next one
+        }
+    }
+
+    /**
+     * Must only be called from the consumer thread.
+     */
+    LogRecord poll() {
+        int slot = (int) (consumerIndex & mask);
+        if (sequences.get(slot) != consumerIndex + 1) {
+            return null;
+        }
+
+        LogRecord record = slots.get(slot);
+        slots.lazySet(slot, null);
+
+        // Free the slot for the next lap
+        sequences.set(slot, consumerIndex + mask + 1);
+        ++consumerIndex;
+        consumedCount.lazySet(consumerIndex);
+
+        return record;
+    }
+
+    /**
+     * Amount of records that have been claimed by producers so far (some of them may still not be
+     * published).
+     */
+    long producedCount() {
+        return producerIndex.get();
+    }
+
+    long consumedCount() {
+        return consumedCount.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+/**
+ * Destination of log records. Only ever called from the {@link AsyncLogWriter} thread so
+ * implementations don't need to be thread-safe.
+ */
+public interface LogSink {
+    /**
+     * @param formattedTime wall clock time of the record formatted as HH:mm:ss.SSS
+     */
+    void write(LogRecord record, String formattedTime);
+
+    /**
+     * Called once the writer has drained everything that was in the buffer.
+     */
+    void flush();
+}
@@ -0,0 +1,64 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+import android.util.Log;
+
+class LogcatSink implements LogSink {
+    private final String tagPrefix;
+    private final boolean printTime;
+
+    LogcatSink(String tagPrefix, boolean printTime) {
+        this.tagPrefix = tagPrefix;
+        this.printTime = printTime;
+    }
+
+    @Override
+    public void write(LogRecord record, String formattedTime) {
+        String tag;
+        if (printTime) {
+            tag = "(" + formattedTime + ") " + tagPrefix + record.tag;
+        } else {
+            tag = tagPrefix + record.tag;
+        }
+
+        writeToLogcat(record.level, tag, record.message, record.throwable);
+    }
+
+    @Override
+    public void flush() {
+        // no-op
+    }
+
+    static void writeToLogcat(int level, String tag, String message, Throwable throwable) {
+        if (level == Log.ASSERT) {
+            if (throwable == null) {
+                Log.wtf(tag, message);
+            } else {
+                Log.wtf(tag, message, throwable);
+            }
+
+            return;
+        }
+
+        if (throwable == null) {
+            Log.println(level, tag, message);
+        } else {
+            Log.println(level, tag, message + '\n' + Log.getStackTraceString(throwable));
+        }
+    }
+}
@@ -23,18 +23,119 @@ import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Logger {
     private static String tagPrefix;
     private static boolean isCurrentBuildDev;
     public static final String DI_TAG = "Dependency Injection";
 
+    private static final int LOG_BUFFER_CAPACITY = 8192;
+    private static final long MAX_LOG_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_LOG_FILES_COUNT = 3;
+    private static final long FLUSH_TIMEOUT_MS = 1000;
+
     private static final DateTimeFormatter LOG_TIME_FORMATTER = new DateTimeFormatterBuilder()
             .append(ISODateTimeFormat.hourMinuteSecondMillis())
             .toFormatter();
 
+    // Null until init() is called (or in unit tests), logs are written synchronously in this case
+    private static volatile AsyncLogWriter asyncLogWriter;
+    private static volatile File logsDirectory;
+
+    private static volatile int minLevel = Log.VERBOSE;
+    private static volatile boolean hasTagLevels = false;
+    private static final ConcurrentHashMap<String, Integer> tagLevels = new ConcurrentHashMap<>();
+
     public static void init(String prefix, boolean isDevBuild) {
+        init(prefix, isDevBuild, null);
+    }
+
+    /**
+     * @param logsDir when not null the logs are also persisted into a size-bounded set of rotating
+     *                files in this directory (see {@link #readPersistedLogs(int)}).
+     */
+    public static synchronized void init(String prefix, boolean isDevBuild, File logsDir) {
         tagPrefix = prefix;
         isCurrentBuildDev = isDevBuild;
+
+        if (asyncLogWriter != null) {
+            return;
+        }
+
+        List<LogSink> sinks = new ArrayList<>(2);
+        sinks.add(new LogcatSink(prefix, !isDevBuild));
+
+        if (logsDir != null) {
+            sinks.add(new RotatingFileLogSink(logsDir, MAX_LOG_FILE_SIZE, MAX_LOG_FILES_COUNT));
+            logsDirectory = logsDir;
+        }
+
+        asyncLogWriter = new AsyncLogWriter(LOG_BUFFER_CAPACITY, sinks);
+    }
+
+    /**
+     * Logs with level lower than minLevel (one of android.util.Log levels) are ignored unless
+     * there is a tag level override for the tag.
+     */
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public static void setTagLevel(String tag, int level) {
+        tagLevels.put(tag, level);
+        hasTagLevels = true;
+    }
+
+    public static void clearTagLevels() {
+        tagLevels.clear();
+        hasTagLevels = false;
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        if (hasTagLevels) {
+            Integer tagLevel = tagLevels.get(tag);
+            if (tagLevel != null) {
+                return level >= tagLevel;
+            }
+        }
+
+        return level >= minLevel;
+    }
+
+    /**
+     * Blocks until everything that was logged so far is written. Must be called before the process
+     * is about to be killed (e.g. in the uncaught exception handler).
+     */
+    public static void flush() {
+        AsyncLogWriter writer = asyncLogWriter;
+        if (writer != null) {
+            writer.flush(FLUSH_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Returns up to maxLines last lines of the persisted logs (which include the logs of the
+     * previous app runs) or null if the logs are not persisted.
+     */
+    public static String readPersistedLogs(int maxLines) {
+        File logsDir = logsDirectory;
+        if (logsDir == null) {
+            return null;
+        }
+
+        flush();
+
+        try {
+            return RotatingFileLogSink.readLastLines(logsDir, MAX_LOG_FILES_COUNT, maxLines);
+        } catch (IOException error) {
+            Logger.e("Logger", "readPersistedLogs() error", error);
+            return null;
+        }
     }
 
     private static String getTime() {
@@ -45,87 +146,115 @@ public class Logger {
         return "(" + LOG_TIME_FORMATTER.print(DateTime.now()) + ") ";
     }
 
+    private static void log(int level, String tag, String message, Throwable throwable) {
+        if (!isLoggable(tag, level)) {
+            return;
+        }
+
+        AsyncLogWriter writer = asyncLogWriter;
+        if (writer != null) {
+            writer.log(level, tag, message, throwable);
+            return;
+        }
+
+        LogcatSink.writeToLogcat(level, getTime() + tagPrefix + tag, message, throwable);
+    }
+
+    private static void log(int level, String tag, MessageSupplier messageSupplier, Throwable throwable) {
+        if (!isLoggable(tag, level)) {
+            return;
+        }
+
+        log(level, tag, messageSupplier.get(), throwable);
+    }
+
     //region VERBOSE
     public static void v(String tag, String message) {
-        if (canLog()) {
-            Log.v(getTime() + tagPrefix + tag, message);
-        }
+        log(Log.VERBOSE, tag, message, null);
     }
 
     public static void v(String tag, String message, Throwable throwable) {
-        if (canLog()) {
-            Log.v(getTime() + tagPrefix + tag, message, throwable);
-        }
+        log(Log.VERBOSE, tag, message, throwable);
+    }
+
+    public static void v(String tag, MessageSupplier messageSupplier) {
+        log(Log.VERBOSE, tag, messageSupplier, null);
     }
     //endregion VERBOSE
 
     //region DEBUG
     public static void d(String tag, String message) {
-        if (canLog()) {
-            Log.d(getTime() + tagPrefix + tag, message);
-        }
+        log(Log.DEBUG, tag, message, null);
     }
 
     public static void d(String tag, String message, Throwable throwable) {
-        if (canLog()) {
-            Log.d(getTime() + tagPrefix + tag, message, throwable);
-        }
+        log(Log.DEBUG, tag, message, throwable);
+    }
+
+    public static void d(String tag, MessageSupplier messageSupplier) {
+        log(Log.DEBUG, tag, messageSupplier, null);
     }
     //endregion DEBUG
 
     //region INFO
     public static void i(String tag, String message) {
-        Log.i(getTime() + tagPrefix + tag, message);
+        log(Log.INFO, tag, message, null);
     }
 
     public static void i(String tag, String message, Throwable throwable) {
-        Log.i(getTime() + tagPrefix + tag, message, throwable);
+        log(Log.INFO, tag, message, throwable);
     }
 
+    public static void i(String tag, MessageSupplier messageSupplier) {
+        log(Log.INFO, tag, messageSupplier, null);
+    }
     //endregion INFO
 
     //region WARN
     public static void w(String tag, String message) {
-        Log.w(getTime() + tagPrefix + tag, message);
+        log(Log.WARN, tag, message, null);
     }
 
     public static void w(String tag, String message, Throwable throwable) {
-        Log.w(getTime() + tagPrefix + tag, message, throwable);
+        log(Log.WARN, tag, message, throwable);
     }
 
+    public static void w(String tag, MessageSupplier messageSupplier) {
+        log(Log.WARN, tag, messageSupplier, null);
+    }
     //endregion WARN
 
     //region ERROR
     public static void e(String tag, String message) {
-        Log.e(getTime() + tagPrefix + tag, message);
+        log(Log.ERROR, tag, message, null);
     }
 
     public static void e(String tag, String message, Throwable throwable) {
-        Log.e(getTime() + tagPrefix + tag, message, throwable);
+        log(Log.ERROR, tag, message, throwable);
+    }
+
+    public static void e(String tag, MessageSupplier messageSupplier, Throwable throwable) {
+        log(Log.ERROR, tag, messageSupplier, throwable);
     }
     //endregion ERROR
 
     //region WTF
     public static void wtf(String tag, String message) {
-        Log.wtf(getTime() + tagPrefix + tag, message);
+        log(Log.ASSERT, tag, message, null);
     }
 
     public static void wtf(String tag, String message, Throwable throwable) {
-        Log.wtf(getTime() + tagPrefix + tag, message, throwable);
+        log(Log.ASSERT, tag, message, throwable);
     }
     //endregion WTF
 
     //region TEST
     public static void test(String message) {
-        if (canLog()) {
-            Log.i(getTime() + tagPrefix + "test", message);
-        }
+        log(Log.INFO, "test", message, null);
     }
 
     public static void test(String message, Throwable throwable) {
-        if (canLog()) {
-            Log.i(getTime() + tagPrefix + "test", message, throwable);
-        }
+        log(Log.INFO, "test", message, throwable);
     }
     //endregion TEST
 
@@ -138,7 +267,11 @@ public class Logger {
         Logger.d(tag, message);
     }
 
-    private static boolean canLog() {
-        return true;
+    /**
+     * Builds the log message only when the log is not filtered out. Use it for messages that are
+     * expensive to build (e.g. joining collections) on hot paths.
+     */
+    public interface MessageSupplier {
+        String get();
     }
 }
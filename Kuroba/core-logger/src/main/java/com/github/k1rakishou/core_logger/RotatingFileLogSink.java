@@ -0,0 +1,236 @@
+/*
+ * KurobaEx - *chan browser https://github.com/K1rakishou/Kuroba-Experimental/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.k1rakishou.core_logger;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Appends log records into "logs_0.txt" in {@link #logsDir}. Once the file becomes bigger than
+ * {@link #maxFileSize} it's renamed to "logs_1.txt" (and "logs_1.txt" to "logs_2.txt" etc, the
+ * oldest one is deleted) so the logs never take more than maxFileSize * maxFilesCount bytes.
+ * The files survive app restarts so the logs of a crashed process can be attached to bug reports.
+ */
+class RotatingFileLogSink implements LogSink {
+    private static final String FILE_NAME_PREFIX = "logs_";
+    private static final String FILE_NAME_EXTENSION = ".txt";
+
+    private final File logsDir;
+    private final long maxFileSize;
+    private final int maxFilesCount;
+
+    private Writer writer = null;
+    private long currentFileSize = 0;
+    private boolean failed = false;
+
+    RotatingFileLogSink(File logsDir, long maxFileSize, int maxFilesCount) {
+        if (maxFilesCount < 1) {
+            throw new IllegalArgumentException("maxFilesCount must be at least 1");
+        }
+
+        this.logsDir = logsDir;
+        this.maxFileSize = maxFileSize;
+        this.maxFilesCount = maxFilesCount;
+    }
+
+    @Override
+    public void write(LogRecord record, String formattedTime) {
+        if (failed) {
+            return;
+        }
+
+        String line = formatLine(record, formattedTime);
+
+        try {
+            if (writer == null) {
+                openWriter();
+            }
+
+            writer.write(line);
+            // Not exact for non-ascii characters but it doesn't need to be
+            currentFileSize += line.length();
+
+            if (currentFileSize >= maxFileSize) {
+                rotate();
+            }
+        } catch (IOException error) {
+            // Can't log this with the Logger since we are inside of it, write it directly into
+            // logcat and stop using the file
+            failed = true;
+            closeWriter();
+            LogcatSink.writeToLogcat(Log.ERROR, "RotatingFileLogSink", "write() error", error);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.flush();
+        } catch (IOException ignored) {
+            // no-op
+        }
+    }
+
+    private void openWriter() throws IOException {
+        if (!logsDir.exists() && !logsDir.mkdirs()) {
+            throw new IOException("Failed to create logs directory " + logsDir.getAbsolutePath());
+        }
+
+        File file = logFile(logsDir, 0);
+        currentFileSize = file.length();
+
+        writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8),
+                8192
+        );
+    }
+
+    private void rotate() throws IOException {
+        closeWriter();
+
+        File oldest = logFile(logsDir, maxFilesCount - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Failed to delete " + oldest.getAbsolutePath());
+        }
+
+        for (int index = maxFilesCount - 2; index >= 0; index--) {
+            File from = logFile(logsDir, index);
+            if (from.exists() && !from.renameTo(logFile(logsDir, index + 1))) {
+                throw new IOException("Failed to rename " + from.getAbsolutePath());
+            }
+        }
+
+        openWriter();
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // no-op
+        }
+
+        writer = null;
+    }
+
+    private static String formatLine(LogRecord record, String formattedTime) {
+        StringBuilder sb = new StringBuilder(64 + record.tag.length() + record.message.length());
+
+        sb.append(formattedTime)
+                .append(' ')
+                .append(levelChar(record.level))
+                .append('/')
+                .append(record.tag)
+                .append(" [")
+                .append(record.threadName)
+                .append("]: ")
+                .append(record.message)
+                .append('\n');
+
+        if (record.throwable != null) {
+            StringWriter stringWriter = new StringWriter(512);
+            record.throwable.printStackTrace(new PrintWriter(stringWriter));
+            sb.append(stringWriter);
+        }
+
+        return sb.toString();
+    }
+
+    private static char levelChar(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+
+    private static File logFile(File logsDir, int index) {
+        return new File(logsDir, FILE_NAME_PREFIX + index + FILE_NAME_EXTENSION);
+    }
+
+    /**
+     * Reads up to maxLines last lines from all log files, oldest lines first. Returns null if there
+     * are no log files.
+     */
+    static String readLastLines(File logsDir, int maxFilesCount, int maxLines) throws IOException {
+        ArrayDeque<String> lines = new ArrayDeque<>(maxLines);
+        boolean anyFileFound = false;
+
+        for (int index = maxFilesCount - 1; index >= 0; index--) {
+            File file = logFile(logsDir, index);
+            if (!file.exists()) {
+                continue;
+            }
+
+            anyFileFound = true;
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    if (lines.size() >= maxLines) {
+                        lines.removeFirst();
+                    }
+
+                    lines.addLast(line);
+                }
+            }
+        }
+
+        if (!anyFileFound) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(lines.size() * 96);
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.k1rakishou.core_logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.k1rakishou.test_shared.Benchmarks;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeFormatterBuilder;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncLogWriterTest {
+    private static final int DEBUG = 3;
+    private static final int THREADS_COUNT = 8;
+    private static final int RECORDS_PER_THREAD = 100_000;
+
+    @Test
+    public void ringBufferIsFifoAndRejectsWhenFull() {
+        LogRingBuffer ringBuffer = new LogRingBuffer(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(record(String.valueOf(i))));
+        }
+
+        assertFalse(ringBuffer.offer(record("4")));
+
+        assertEquals("0", ringBuffer.poll().message);
+        assertTrue(ringBuffer.offer(record("5")));
+
+        assertEquals("1", ringBuffer.poll().message);
+        assertEquals("2", ringBuffer.poll().message);
+        assertEquals("3", ringBuffer.poll().message);
+        assertEquals("5", ringBuffer.poll().message);
+        assertNull(ringBuffer.poll());
+    }
+
+    @Test
+    public void everyRecordIsEitherWrittenOrReportedAsDropped() throws Exception {
+        CountingSink sink = new CountingSink();
+        AsyncLogWriter asyncLogWriter = new AsyncLogWriter(8192, Collections.singletonList(sink));
+
+        runProducers(THREADS_COUNT, RECORDS_PER_THREAD, (threadIndex, index) -> {
+            asyncLogWriter.log(DEBUG, "Test", "message " + index, null);
+        });
+
+        assertTrue(asyncLogWriter.flush(TimeUnit.SECONDS.toMillis(10)));
+        asyncLogWriter.stop(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(THREADS_COUNT * RECORDS_PER_THREAD, sink.written + sink.reportedDropped);
+    }
+
+    /**
+     * Compares the old way of logging (every caller formats the time and builds the tag and then
+     * writes into the sink under a lock) with the AsyncLogWriter under contention. Only prints the
+     * numbers, the absolute values depend too much on the machine to assert anything. Skipped unless
+     * run with -Pbenchmarks.
+     */
+    @Test
+    public void benchmarkContendedLogging() throws Exception {
+        Benchmarks.assumeEnabled();
+
+        DateTimeFormatter timeFormatter = new DateTimeFormatterBuilder()
+                .append(ISODateTimeFormat.hourMinuteSecondMillis())
+                .toFormatter();
+
+        CountingSink syncSink = new CountingSink();
+        Object lock = new Object();
+
+        long syncNanos = runProducers(THREADS_COUNT, RECORDS_PER_THREAD, (threadIndex, index) -> {
+            String tag = "(" + timeFormatter.print(DateTime.now()) + ") " + "Prefix | " + "Test";
+            LogRecord record = new LogRecord(DEBUG, tag, "message", null, System.nanoTime(), "");
+
+            synchronized (lock) {
+                syncSink.write(record, "");
+            }
+        });
+
+        CountingSink asyncSink = new CountingSink();
+        AsyncLogWriter asyncLogWriter = new AsyncLogWriter(8192, Collections.singletonList(asyncSink));
+
+        long asyncNanos = runProducers(THREADS_COUNT, RECORDS_PER_THREAD, (threadIndex, index) -> {
+            asyncLogWriter.log(DEBUG, "Test", "message", null);
+        });
+
+        long drainStart = System.nanoTime();
+        asyncLogWriter.flush(TimeUnit.SECONDS.toMillis(10));
+        long drainNanos = System.nanoTime() - drainStart;
+        asyncLogWriter.stop(TimeUnit.SECONDS.toMillis(10));
+
+        int total = THREADS_COUNT * RECORDS_PER_THREAD;
+
+        System.out.println("Synchronous logging: " + opsPerSecond(total, syncNanos) + " records/s");
+        System.out.println("AsyncLogWriter (callers): " + opsPerSecond(total, asyncNanos) + " records/s, " +
+                "drain after callers finished took " + TimeUnit.NANOSECONDS.toMillis(drainNanos) + "ms, " +
+                "written=" + asyncSink.written + ", dropped=" + asyncSink.reportedDropped);
+    }
+
+    private static long opsPerSecond(int total, long nanos) {
+        return (long) (total / (nanos / 1_000_000_000.0));
+    }
+
+    private static long runProducers(int threadsCount, int recordsPerThread, Producer producer) throws Exception {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(threadsCount);
+
+        for (int threadIndex = 0; threadIndex < threadsCount; threadIndex++) {
+            int finalThreadIndex = threadIndex;
+
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int index = 0; index < recordsPerThread; index++) {
+                    producer.produce(finalThreadIndex, index);
+                }
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static LogRecord record(String message) {
+        return new LogRecord(DEBUG, "Test", message, null, System.nanoTime(), "test");
+    }
+
+    private interface Producer {
+        void produce(int threadIndex, int index);
+    }
+
+    private static class CountingSink implements LogSink {
+        // Only accessed from the writer thread (or under a lock), read after flush()
+        volatile int written = 0;
+        volatile int reportedDropped = 0;
+
+        @Override
+        public void write(LogRecord record, String formattedTime) {
+            if (record.tag.equals("AsyncLogWriter")) {
+                // "Dropped N log records ..."
+                String count = record.message.split(" ")[1];
+                reportedDropped += Integer.parseInt(count);
+                return;
+            }
+
+            written++;
+        }
+
+        @Override
+        public void flush() {
+            // no-op
+        }
+    }
+}
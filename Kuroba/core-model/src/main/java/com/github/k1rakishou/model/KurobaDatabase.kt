@@ -21,6 +21,7 @@ import com.github.k1rakishou.model.dao.ChanCatalogSnapshotDao
 import com.github.k1rakishou.model.dao.ChanFilterDao
 import com.github.k1rakishou.model.dao.ChanFilterWatchGroupDao
 import com.github.k1rakishou.model.dao.ChanPostDao
+import com.github.k1rakishou.model.dao.ChanPostHashDao
 import com.github.k1rakishou.model.dao.ChanPostHideDao
 import com.github.k1rakishou.model.dao.ChanPostHttpIconDao
 import com.github.k1rakishou.model.dao.ChanPostImageDao
@@ -29,6 +30,7 @@ import com.github.k1rakishou.model.dao.ChanSavedReplyDao
 import com.github.k1rakishou.model.dao.ChanSiteDao
 import com.github.k1rakishou.model.dao.ChanTextSpanDao
 import com.github.k1rakishou.model.dao.ChanThreadDao
+import com.github.k1rakishou.model.dao.ChanThreadRetentionProgressDao
 import com.github.k1rakishou.model.dao.ChanThreadViewableInfoDao
 import com.github.k1rakishou.model.dao.CompositeCatalogDao
 import com.github.k1rakishou.model.dao.DatabaseMetaDao
@@ -54,6 +56,7 @@ import com.github.k1rakishou.model.entity.chan.filter.ChanFilterBoardConstraintE
 import com.github.k1rakishou.model.entity.chan.filter.ChanFilterEntity
 import com.github.k1rakishou.model.entity.chan.filter.ChanFilterWatchGroupEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHashEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostHideEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
@@ -64,13 +67,12 @@ import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.site.ChanSiteEntity
 import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionProgressEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadViewableInfoEntity
 import com.github.k1rakishou.model.entity.download.ImageDownloadRequestEntity
 import com.github.k1rakishou.model.entity.download.ThreadDownloadEntity
 import com.github.k1rakishou.model.entity.navigation.NavHistoryElementIdEntity
 import com.github.k1rakishou.model.entity.navigation.NavHistoryElementInfoEntity
-import com.github.k1rakishou.model.entity.view.ChanThreadsWithPosts
-import com.github.k1rakishou.model.entity.view.OldChanPostThread
 import com.github.k1rakishou.model.migrations.Migration_v10_to_v11
 import com.github.k1rakishou.model.migrations.Migration_v11_to_v12
 import com.github.k1rakishou.model.migrations.Migration_v12_to_v13
@@ -105,12 +107,15 @@ import com.github.k1rakishou.model.migrations.Migration_v38_to_v39
 import com.github.k1rakishou.model.migrations.Migration_v39_to_v40
 import com.github.k1rakishou.model.migrations.Migration_v3_to_v4
 import com.github.k1rakishou.model.migrations.Migration_v40_to_v41
+import com.github.k1rakishou.model.migrations.Migration_v41_to_v42
+import com.github.k1rakishou.model.migrations.Migration_v42_to_v43
 import com.github.k1rakishou.model.migrations.Migration_v4_to_v5
 import com.github.k1rakishou.model.migrations.Migration_v5_to_v6
 import com.github.k1rakishou.model.migrations.Migration_v6_to_v7
 import com.github.k1rakishou.model.migrations.Migration_v7_to_v8
 import com.github.k1rakishou.model.migrations.Migration_v8_to_v9
 import com.github.k1rakishou.model.migrations.Migration_v9_to_v10
+import com.github.k1rakishou.model.util.PendingDatabaseImport
 import java.util.concurrent.Executors
 import java.util.concurrent.ThreadFactory
 import java.util.concurrent.atomic.AtomicInteger
@@ -146,13 +151,11 @@ import java.util.concurrent.atomic.AtomicInteger
     ThreadBookmarkGroupEntryEntity::class,
     ImageDownloadRequestEntity::class,
     ThreadDownloadEntity::class,
-    CompositeCatalogEntity::class
+    CompositeCatalogEntity::class,
+    ChanPostHashEntity::class,
+    ChanThreadRetentionProgressEntity::class
   ],
-  views = [
-    ChanThreadsWithPosts::class,
-    OldChanPostThread::class
-  ],
-  version = 41,
+  version = 43,
   exportSchema = true
 )
 @TypeConverters(
@@ -194,6 +197,8 @@ abstract class KurobaDatabase : RoomDatabase() {
   abstract fun imageDownloadRequestDao(): ImageDownloadRequestDao
   abstract fun threadDownloadDao(): ThreadDownloadDao
   abstract fun compositeCatalogDao(): CompositeCatalogDao
+  abstract fun chanPostHashDao(): ChanPostHashDao
+  abstract fun chanThreadRetentionProgressDao(): ChanThreadRetentionProgressDao
 
   suspend fun ensureInTransaction() {
     require(inTransaction()) { "Must be executed in a transaction!" }
@@ -237,6 +242,8 @@ abstract class KurobaDatabase : RoomDatabase() {
     })
 
     fun buildDatabase(application: Application): KurobaDatabase {
+      PendingDatabaseImport.applyIfPending(application.applicationContext)
+
       return Room.databaseBuilder(
         application.applicationContext,
         KurobaDatabase::class.java,
@@ -285,6 +292,8 @@ abstract class KurobaDatabase : RoomDatabase() {
           Migration_v38_to_v39(),
           Migration_v39_to_v40(),
           Migration_v40_to_v41(),
+          Migration_v41_to_v42(),
+          Migration_v42_to_v43(),
         )
         .fallbackToDestructiveMigrationOnDowngrade()
         .build()
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model
 
 import android.app.Application
 import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.dns.DnsCache
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory
 import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory
 import com.github.k1rakishou.model.di.DaggerModelComponent
@@ -18,11 +19,13 @@ object ModelModuleInjector {
     scope: CoroutineScope,
     normalDnsSelectorFactory: NormalDnsSelectorFactory,
     dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
+    dnsCache: DnsCache,
     protocols: NetworkModule.OkHttpProtocolList,
     verboseLogs: Boolean,
     isDevFlavor: Boolean,
     isLowRamDevice: Boolean,
     okHttpUseDnsOverHttps: Boolean,
+    threadSnapshotsEnabled: Boolean,
     appConstants: AppConstants
   ): ModelComponent {
     val dependencies = ModelComponent.Dependencies(
@@ -32,8 +35,10 @@ object ModelModuleInjector {
       isDevFlavor = isDevFlavor,
       isLowRamDevice = isLowRamDevice,
       okHttpUseDnsOverHttps = okHttpUseDnsOverHttps,
+      threadSnapshotsEnabled = threadSnapshotsEnabled,
       normalDnsSelectorFactory = normalDnsSelectorFactory,
       dnsOverHttpsSelectorFactory = dnsOverHttpsSelectorFactory,
+      dnsCache = dnsCache,
       okHttpProtocols = protocols,
       appConstants = appConstants
     )
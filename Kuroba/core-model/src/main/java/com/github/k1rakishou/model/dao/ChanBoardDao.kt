@@ -80,8 +80,22 @@ abstract class ChanBoardDao {
     FROM ${ChanBoardIdEntity.TABLE_NAME} cbie
     INNER JOIN ${ChanBoardEntity.TABLE_NAME} cbe 
         ON cbie.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = cbe.${ChanBoardEntity.OWNER_CHAN_BOARD_ID_COLUMN_NAME}
+    WHERE cbe.${ChanBoardEntity.BOARD_ACTIVE_COLUMN_NAME} = :active
   """)
-  abstract suspend fun selectAllBoards(): List<ChanBoardFull>
+  abstract suspend fun selectBoardsByActiveState(active: Boolean): List<ChanBoardFull>
+
+  @RewriteQueriesToDropUnusedColumns
+  @Query("""
+    SELECT *
+    FROM ${ChanBoardIdEntity.TABLE_NAME} cbie
+    INNER JOIN ${ChanBoardEntity.TABLE_NAME} cbe 
+        ON cbie.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = cbe.${ChanBoardEntity.OWNER_CHAN_BOARD_ID_COLUMN_NAME}
+    WHERE 
+        cbie.${ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME} = :siteName
+    AND
+        cbe.${ChanBoardEntity.BOARD_ACTIVE_COLUMN_NAME} = :active
+  """)
+  abstract suspend fun selectSiteBoardsByActiveState(siteName: String, active: Boolean): List<ChanBoardFull>
 
   @Query("""
     SELECT * 
@@ -0,0 +1,32 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHashEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
+import com.github.k1rakishou.model.entity.chan.post.ChanThreadPostHash
+
+@Dao
+abstract class ChanPostHashDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun insertMany(chanPostHashEntityList: List<ChanPostHashEntity>)
+
+  @Query("""
+    SELECT 
+        cpi.${ChanPostIdEntity.POST_NO_COLUMN_NAME},
+        cpi.${ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME},
+        cph.${ChanPostHashEntity.HASH_PART_1_COLUMN_NAME},
+        cph.${ChanPostHashEntity.HASH_PART_2_COLUMN_NAME}
+    FROM ${ChanPostHashEntity.TABLE_NAME} cph
+    INNER JOIN ${ChanPostIdEntity.TABLE_NAME} cpi
+        ON cph.${ChanPostHashEntity.OWNER_POST_ID_COLUMN_NAME} = cpi.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+    WHERE cpi.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} = :ownerThreadId
+  """)
+  abstract suspend fun selectThreadPostHashes(ownerThreadId: Long): List<ChanThreadPostHash>
+
+  @Query("SELECT * FROM ${ChanPostHashEntity.TABLE_NAME}")
+  abstract suspend fun testGetAll(): List<ChanPostHashEntity>
+}
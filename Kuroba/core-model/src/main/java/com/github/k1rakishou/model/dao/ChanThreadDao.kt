@@ -5,11 +5,13 @@ import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.entity.bookmark.ThreadBookmarkEntity
+import com.github.k1rakishou.model.entity.chan.board.ChanBoardIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
-import com.github.k1rakishou.model.entity.view.ChanThreadsWithPosts
-import com.github.k1rakishou.model.entity.view.OldChanPostThread
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionCandidate
+import com.github.k1rakishou.model.entity.download.ThreadDownloadEntity
 
 @Dao
 abstract class ChanThreadDao {
@@ -183,39 +185,80 @@ abstract class ChanThreadDao {
     """)
   abstract suspend fun selectManyByThreadIdList(chanThreadIdList: Collection<Long>): List<ChanThreadEntity>
 
+  /**
+   * Oldest threads (after the cursor) that have posts other than the original post and are neither
+   * bookmarked nor downloaded. Keyset pagination over the (last_modified, thread_id) index so that
+   * every batch costs the same no matter how far into the table the collector already is.
+   * */
   @Query("""
     SELECT 
-        ctwp.${ChanThreadsWithPosts.THREAD_ID_COLUMN_NAME}, 
-        ctwp.${ChanThreadsWithPosts.THREAD_NO_COLUMN_NAME},
-        ctwp.${ChanThreadsWithPosts.LAST_MODIFIED_COLUMN_NAME},
-        ctwp.${ChanThreadsWithPosts.POSTS_COUNT_COLUMN_NAME},
-        tb.${ChanThreadsWithPosts.THREAD_BOOKMARK_ID_COLUMN_NAME},
-        tde.${ChanThreadsWithPosts.OWNER_THREAD_DATABASE_ID_COLUMN_NAME}
-    FROM ${ChanThreadsWithPosts.VIEW_NAME} AS ctwp 
-    LEFT OUTER JOIN thread_bookmark AS tb 
-        ON ctwp.thread_id = tb.owner_thread_id 
-    LEFT OUTER JOIN thread_download_entity as tde
-        ON ctwp.thread_id = tde.owner_thread_database_id
-    LIMIT :count OFFSET :offset
+        threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME},
+        threads.${ChanThreadEntity.THREAD_NO_COLUMN_NAME},
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.BOARD_CODE_COLUMN_NAME},
+        (
+            SELECT COUNT(*)
+            FROM ${ChanPostIdEntity.TABLE_NAME} cpi
+            INNER JOIN ${ChanPostEntity.TABLE_NAME} cpe
+                ON cpe.${ChanPostEntity.CHAN_POST_ID_COLUMN_NAME} = cpi.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+            WHERE 
+                cpi.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
+            AND 
+                cpe.${ChanPostEntity.IS_OP_COLUMN_NAME} = ${KurobaDatabase.SQLITE_FALSE}
+        ) AS ${ChanThreadRetentionCandidate.POSTS_COUNT_COLUMN_NAME}
+    FROM ${ChanThreadEntity.TABLE_NAME} threads
+    INNER JOIN ${ChanBoardIdEntity.TABLE_NAME} boards
+        ON boards.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME}
+    WHERE 
+        $RETENTION_KEYSET_CONDITION
+    AND 
+        $RETENTION_NOT_PROTECTED_CONDITION
+    AND EXISTS (
+        $RETENTION_NON_OP_POSTS_QUERY
+    )
+    ORDER BY 
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME} ASC, 
+        threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} ASC
+    LIMIT :count
   """)
-  abstract suspend fun selectThreadsWithPostsOtherThanOp(offset: Int, count: Int): List<ChanThreadsWithPosts>
+  abstract suspend fun selectOldThreadsWithPosts(
+    cursorLastModified: Long,
+    cursorThreadId: Long,
+    count: Int
+  ): List<ChanThreadRetentionCandidate>
 
+  /**
+   * Same as [selectOldThreadsWithPosts] but for threads that only have the original post left.
+   * */
   @Query("""
     SELECT 
-        ctwp.${OldChanPostThread.THREAD_ID_COLUMN_NAME}, 
-        ctwp.${OldChanPostThread.THREAD_NO_COLUMN_NAME},
-        ctwp.${OldChanPostThread.LAST_MODIFIED_COLUMN_NAME},
-        ctwp.${OldChanPostThread.POSTS_COUNT_COLUMN_NAME},
-        tb.${OldChanPostThread.THREAD_BOOKMARK_ID_COLUMN_NAME},
-        tde.${OldChanPostThread.OWNER_THREAD_DATABASE_ID_COLUMN_NAME}
-    FROM ${OldChanPostThread.VIEW_NAME} AS ctwp 
-    LEFT OUTER JOIN thread_bookmark AS tb 
-        ON ctwp.thread_id = tb.owner_thread_id 
-    LEFT OUTER JOIN thread_download_entity as tde
-        ON ctwp.thread_id = tde.owner_thread_database_id
-    LIMIT :count OFFSET :offset
+        threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME},
+        threads.${ChanThreadEntity.THREAD_NO_COLUMN_NAME},
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME},
+        boards.${ChanBoardIdEntity.BOARD_CODE_COLUMN_NAME},
+        0 AS ${ChanThreadRetentionCandidate.POSTS_COUNT_COLUMN_NAME}
+    FROM ${ChanThreadEntity.TABLE_NAME} threads
+    INNER JOIN ${ChanBoardIdEntity.TABLE_NAME} boards
+        ON boards.${ChanBoardIdEntity.BOARD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME}
+    WHERE 
+        $RETENTION_KEYSET_CONDITION
+    AND 
+        $RETENTION_NOT_PROTECTED_CONDITION
+    AND NOT EXISTS (
+        $RETENTION_NON_OP_POSTS_QUERY
+    )
+    ORDER BY 
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME} ASC, 
+        threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} ASC
+    LIMIT :count
   """)
-  abstract suspend fun selectOldThreads(offset: Int, count: Int): List<OldChanPostThread>
+  abstract suspend fun selectOldThreadsWithoutPosts(
+    cursorLastModified: Long,
+    cursorThreadId: Long,
+    count: Int
+  ): List<ChanThreadRetentionCandidate>
 
   @Query("SELECT COUNT(*) FROM ${ChanThreadEntity.TABLE_NAME}")
   abstract fun totalThreadsCount(): Int
@@ -244,4 +287,42 @@ abstract class ChanThreadDao {
   """)
   abstract suspend fun deleteAllPostsInThreadExceptOriginalPost(threadId: Long)
 
-}
\ No newline at end of file
+  companion object {
+    // The first part allows SQLite to seek straight to the cursor in the last_modified index
+    // (which also includes thread_id since it's the rowid) instead of walking it from the start.
+    private const val RETENTION_KEYSET_CONDITION = """
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME} >= :cursorLastModified
+    AND (
+        threads.${ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME} > :cursorLastModified
+        OR threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME} > :cursorThreadId
+    )
+    """
+
+    // Bookmarked and downloaded threads are never deleted. Both lookups are primary key/unique
+    // index lookups.
+    private const val RETENTION_NOT_PROTECTED_CONDITION = """
+        NOT EXISTS (
+            SELECT 1
+            FROM ${ThreadBookmarkEntity.TABLE_NAME} tb
+            WHERE tb.${ThreadBookmarkEntity.OWNER_THREAD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
+        )
+    AND NOT EXISTS (
+            SELECT 1
+            FROM ${ThreadDownloadEntity.TABLE_NAME} tde
+            WHERE tde.${ThreadDownloadEntity.OWNER_THREAD_DATABASE_ID_COLUMN_NAME} = threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
+        )
+    """
+
+    private const val RETENTION_NON_OP_POSTS_QUERY = """
+        SELECT 1
+        FROM ${ChanPostIdEntity.TABLE_NAME} cpi
+        INNER JOIN ${ChanPostEntity.TABLE_NAME} cpe
+            ON cpe.${ChanPostEntity.CHAN_POST_ID_COLUMN_NAME} = cpi.${ChanPostIdEntity.POST_ID_COLUMN_NAME}
+        WHERE 
+            cpi.${ChanPostIdEntity.OWNER_THREAD_ID_COLUMN_NAME} = threads.${ChanThreadEntity.THREAD_ID_COLUMN_NAME}
+        AND 
+            cpe.${ChanPostEntity.IS_OP_COLUMN_NAME} = ${KurobaDatabase.SQLITE_FALSE}
+    """
+  }
+
+}
@@ -0,0 +1,29 @@
+package com.github.k1rakishou.model.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionProgressEntity
+
+@Dao
+abstract class ChanThreadRetentionProgressDao {
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun insertOrReplace(chanThreadRetentionProgressEntity: ChanThreadRetentionProgressEntity)
+
+  @Query("""
+    SELECT *
+    FROM ${ChanThreadRetentionProgressEntity.TABLE_NAME}
+    WHERE ${ChanThreadRetentionProgressEntity.PHASE_COLUMN_NAME} = :phase
+  """)
+  abstract suspend fun select(phase: Int): ChanThreadRetentionProgressEntity?
+
+  @Query("""
+    DELETE
+    FROM ${ChanThreadRetentionProgressEntity.TABLE_NAME}
+    WHERE ${ChanThreadRetentionProgressEntity.PHASE_COLUMN_NAME} = :phase
+  """)
+  abstract suspend fun delete(phase: Int)
+
+}
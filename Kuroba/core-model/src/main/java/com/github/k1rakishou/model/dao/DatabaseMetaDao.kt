@@ -10,4 +10,7 @@ abstract class DatabaseMetaDao {
   @RawQuery
   abstract suspend fun checkpoint(supportSQLiteQuery: SupportSQLiteQuery): Int
 
+  @RawQuery
+  abstract suspend fun vacuumInto(supportSQLiteQuery: SupportSQLiteQuery): Int
+
 }
\ No newline at end of file
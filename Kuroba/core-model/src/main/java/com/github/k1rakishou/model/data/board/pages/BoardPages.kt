@@ -6,7 +6,36 @@ import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 data class BoardPages(
   val boardDescriptor: BoardDescriptor,
   val boardPages: List<BoardPage>
-)
+) {
+  // Built once when the pages are received (off the main thread) so that the lookups, which happen
+  // while binding catalog/thread cells, do not have to scan every thread of every page.
+  private val pageByThreadNo: Map<Long, BoardPage> = buildIndex(boardPages)
+
+  fun findPage(threadNo: Long): BoardPage? {
+    return pageByThreadNo[threadNo]
+  }
+
+  fun findLastModified(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
+    return pageByThreadNo[threadDescriptor.threadNo]?.threads?.get(threadDescriptor)
+  }
+
+  companion object {
+    private fun buildIndex(boardPages: List<BoardPage>): Map<Long, BoardPage> {
+      val threadsCount = boardPages.sumOf { boardPage -> boardPage.threads.size }
+      val index = HashMap<Long, BoardPage>(threadsCount * 2)
+
+      for (boardPage in boardPages) {
+        for (threadDescriptor in boardPage.threads.keys) {
+          // Threads may move between pages while the pages are being generated on the server,
+          // keep the first occurrence like the linear scan used to do.
+          index.putIfAbsent(threadDescriptor.threadNo, boardPage)
+        }
+      }
+
+      return index
+    }
+  }
+}
 
 data class BoardPage(
   val currentPage: Int,
@@ -19,4 +48,4 @@ data class BoardPage(
 data class ThreadNoTimeModPair(
   val threadDescriptor: ChanDescriptor.ThreadDescriptor,
   val modified: Long
-)
\ No newline at end of file
+)
@@ -0,0 +1,318 @@
+package com.github.k1rakishou.model.data.bookmark
+
+import com.github.k1rakishou.common.RegexPatternCompiler
+import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.common.mutableMapWithCap
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+/**
+ * Immutable, thread-safe compiled version of the matching patterns of bookmark groups. Used to
+ * find the first group (in group order) that matches a bookmark without going through the chains
+ * of [BookmarkGroupMatchFlag]s.
+ *
+ * - Every distinct (type, pattern) pair of all groups is compiled once into a "term". When
+ * classifying a bookmark every subject/comment term is run at most once, the result is shared by
+ * all groups that use it.
+ * - Site name and board code terms only depend on the board so they are evaluated once per board.
+ * The groups that can't match the board no matter what the subject/comment are (or that match it
+ * no matter what the subject/comment are) are known after a hash lookup by the board, before any
+ * regex is run over the subject or the comment.
+ *
+ * The operators of a group pattern are right associative, just like in
+ * [BookmarkGroupMatchFlag.matches] (`a AND b OR c` is `a AND (b OR c)`).
+ * */
+class ThreadBookmarkGroupClassifier private constructor(
+  private val groupPrograms: List<GroupProgram>,
+  private val terms: List<Term>
+) {
+  private val boardPlans = ConcurrentHashMap<BoardDescriptor, BoardPlan>()
+
+  val groupsCount: Int
+    get() = groupPrograms.size
+
+  /**
+   * Returns the first group (in the order of the list the classifier was compiled from) whose
+   * pattern matches or null if none of them do.
+   * */
+  fun classify(
+    boardDescriptor: BoardDescriptor,
+    postSubject: CharSequence,
+    postComment: CharSequence
+  ): Group? {
+    if (groupPrograms.isEmpty()) {
+      return null
+    }
+
+    val boardPlan = boardPlans.getOrPut(boardDescriptor) { createBoardPlan(boardDescriptor) }
+    if (boardPlan.candidateGroupIndexes.isEmpty()) {
+      return null
+    }
+
+    // Results of the subject/comment terms for this bookmark, allocated only when needed
+    var termValues: ByteArray? = null
+
+    for (groupIndex in boardPlan.candidateGroupIndexes) {
+      val groupProgram = groupPrograms[groupIndex]
+
+      if (boardPlan.alwaysMatchingGroups[groupIndex]) {
+        return groupProgram.group
+      }
+
+      if (termValues == null) {
+        termValues = boardPlan.boardTermValues.copyOf()
+      }
+
+      if (evaluate(groupProgram, termValues, postSubject, postComment)) {
+        return groupProgram.group
+      }
+    }
+
+    return null
+  }
+
+  private fun evaluate(
+    groupProgram: GroupProgram,
+    termValues: ByteArray,
+    postSubject: CharSequence,
+    postComment: CharSequence
+  ): Boolean {
+    var index = 0
+
+    while (true) {
+      val matches = termValue(groupProgram.termIndexes[index], termValues, postSubject, postComment)
+
+      when (groupProgram.operators[index]) {
+        BookmarkGroupMatchFlag.Operator.And -> if (!matches) return false
+        BookmarkGroupMatchFlag.Operator.Or -> if (matches) return true
+        null -> return matches
+      }
+
+      ++index
+    }
+  }
+
+  private fun termValue(
+    termIndex: Int,
+    termValues: ByteArray,
+    postSubject: CharSequence,
+    postComment: CharSequence
+  ): Boolean {
+    val cachedValue = termValues[termIndex]
+    if (cachedValue != UNKNOWN) {
+      return cachedValue == TRUE
+    }
+
+    val term = terms[termIndex]
+
+    val matches = when (term.type) {
+      BookmarkGroupMatchFlag.Type.PostSubject -> term.find(postSubject)
+      BookmarkGroupMatchFlag.Type.PostComment -> term.find(postComment)
+      // Already evaluated by the board plan
+      BookmarkGroupMatchFlag.Type.SiteName,
+      BookmarkGroupMatchFlag.Type.BoardCode -> error("Board term was not evaluated: ${term}")
+    }
+
+    termValues[termIndex] = if (matches) TRUE else FALSE
+    return matches
+  }
+
+  private fun createBoardPlan(boardDescriptor: BoardDescriptor): BoardPlan {
+    val boardTermValues = ByteArray(terms.size) { UNKNOWN }
+
+    terms.forEachIndexed { termIndex, term ->
+      val matches = when (term.type) {
+        BookmarkGroupMatchFlag.Type.SiteName -> term.find(boardDescriptor.siteName())
+        BookmarkGroupMatchFlag.Type.BoardCode -> term.find(boardDescriptor.boardCode)
+        BookmarkGroupMatchFlag.Type.PostSubject,
+        BookmarkGroupMatchFlag.Type.PostComment -> return@forEachIndexed
+      }
+
+      boardTermValues[termIndex] = if (matches) TRUE else FALSE
+    }
+
+    val candidateGroupIndexes = mutableListWithCap<Int>(groupPrograms.size)
+    val alwaysMatchingGroups = BooleanArray(groupPrograms.size)
+
+    for ((groupIndex, groupProgram) in groupPrograms.withIndex()) {
+      when (partiallyEvaluate(groupProgram, boardTermValues)) {
+        FALSE -> continue
+        TRUE -> {
+          alwaysMatchingGroups[groupIndex] = true
+          candidateGroupIndexes += groupIndex
+
+          // Groups after this one will never be reached on this board
+          break
+        }
+        else -> candidateGroupIndexes += groupIndex
+      }
+    }
+
+    return BoardPlan(
+      boardTermValues = boardTermValues,
+      candidateGroupIndexes = candidateGroupIndexes.toIntArray(),
+      alwaysMatchingGroups = alwaysMatchingGroups
+    )
+  }
+
+  /**
+   * Three-valued (TRUE, FALSE, UNKNOWN) evaluation of the group program with only the site/board
+   * terms known.
+   * */
+  private fun partiallyEvaluate(groupProgram: GroupProgram, boardTermValues: ByteArray): Byte {
+    val lastIndex = groupProgram.termIndexes.lastIndex
+    var result = boardTermValues[groupProgram.termIndexes[lastIndex]]
+
+    for (index in lastIndex - 1 downTo 0) {
+      val left = boardTermValues[groupProgram.termIndexes[index]]
+
+      result = when (groupProgram.operators[index]) {
+        BookmarkGroupMatchFlag.Operator.And -> when {
+          left == FALSE || result == FALSE -> FALSE
+          left == TRUE && result == TRUE -> TRUE
+          else -> UNKNOWN
+        }
+        BookmarkGroupMatchFlag.Operator.Or -> when {
+          left == TRUE || result == TRUE -> TRUE
+          left == FALSE && result == FALSE -> FALSE
+          else -> UNKNOWN
+        }
+        null -> error("Operator must not be null in the middle of the program")
+      }
+    }
+
+    return result
+  }
+
+  class Group(
+    val groupId: String,
+    val groupName: String
+  ) {
+    override fun toString(): String = "Group(groupId='$groupId', groupName='$groupName')"
+  }
+
+  class GroupToCompile(
+    val groupId: String,
+    val groupName: String,
+    val matchingPattern: ThreadBookmarkGroupMatchPattern
+  )
+
+  private class GroupProgram(
+    val group: Group,
+    val termIndexes: IntArray,
+    // operators[i] is the operator between term i and term i + 1, null for the last term
+    val operators: Array<BookmarkGroupMatchFlag.Operator?>
+  )
+
+  private class BoardPlan(
+    val boardTermValues: ByteArray,
+    // Groups that may match a bookmark on this board, in group order
+    val candidateGroupIndexes: IntArray,
+    val alwaysMatchingGroups: BooleanArray
+  )
+
+  private data class TermKey(
+    val type: BookmarkGroupMatchFlag.Type,
+    val rawPattern: String
+  )
+
+  private class Term(
+    val type: BookmarkGroupMatchFlag.Type,
+    val rawPattern: String,
+    val pattern: Pattern?
+  ) {
+    fun find(input: CharSequence): Boolean {
+      // A pattern that failed to compile never matches, same as in BookmarkGroupMatchFlag
+      return pattern?.matcher(input)?.find() ?: false
+    }
+
+    override fun toString(): String = "Term(type=$type, rawPattern='$rawPattern')"
+  }
+
+  companion object {
+    private const val TAG = "ThreadBookmarkGroupClassifier"
+
+    private const val UNKNOWN: Byte = 0
+    private const val TRUE: Byte = 1
+    private const val FALSE: Byte = 2
+
+    val EMPTY = ThreadBookmarkGroupClassifier(emptyList(), emptyList())
+
+    /**
+     * [groups] must be sorted in the order in which they should be checked. Already compiled
+     * regex patterns of [prevClassifier] are reused so only the patterns that were added or
+     * changed since then are compiled.
+     * */
+    fun compile(
+      groups: List<GroupToCompile>,
+      prevClassifier: ThreadBookmarkGroupClassifier? = null
+    ): ThreadBookmarkGroupClassifier {
+      if (groups.isEmpty()) {
+        return EMPTY
+      }
+
+      val prevTerms = prevClassifier?.terms
+        ?.associateBy { term -> TermKey(term.type, term.rawPattern) }
+        ?: emptyMap()
+
+      val termIndexes = mutableMapWithCap<TermKey, Int>(groups.size * 2)
+      val terms = mutableListWithCap<Term>(groups.size * 2)
+      val groupPrograms = mutableListWithCap<GroupProgram>(groups.size)
+
+      for (groupToCompile in groups) {
+        val matchFlags = groupToCompile.matchingPattern.asList()
+        if (matchFlags.isEmpty()) {
+          continue
+        }
+
+        val programTermIndexes = mutableListWithCap<Int>(matchFlags.size)
+        val programOperators = mutableListWithCap<BookmarkGroupMatchFlag.Operator?>(matchFlags.size)
+
+        for ((index, matchFlag) in matchFlags.withIndex()) {
+          val termKey = TermKey(matchFlag.type, matchFlag.rawPattern)
+
+          val termIndex = termIndexes.getOrPut(termKey) {
+            terms += prevTerms[termKey] ?: compileTerm(termKey)
+            return@getOrPut terms.lastIndex
+          }
+
+          // Same as in BookmarkGroupMatchFlag.matches(), a flag without an operator ends the
+          // chain even if there are more flags after it
+          val operator = if (index < matchFlags.lastIndex) matchFlag.operator else null
+
+          programTermIndexes += termIndex
+          programOperators += operator
+
+          if (operator == null) {
+            break
+          }
+        }
+
+        groupPrograms += GroupProgram(
+          group = Group(groupToCompile.groupId, groupToCompile.groupName),
+          termIndexes = programTermIndexes.toIntArray(),
+          operators = programOperators.toTypedArray()
+        )
+      }
+
+      return ThreadBookmarkGroupClassifier(groupPrograms, terms)
+    }
+
+    private fun compileTerm(termKey: TermKey): Term {
+      val compilationResult = RegexPatternCompiler.compile(rawPattern = termKey.rawPattern)
+      if (compilationResult.patternOrNull == null) {
+        Logger.e(TAG, "RegexPatternCompiler.compile('${termKey.rawPattern}') " +
+          "failure (compilationResult=$compilationResult)")
+      }
+
+      return Term(
+        type = termKey.type,
+        rawPattern = termKey.rawPattern,
+        pattern = compilationResult.patternOrNull
+      )
+    }
+  }
+
+}
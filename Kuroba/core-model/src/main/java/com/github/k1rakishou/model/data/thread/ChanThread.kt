@@ -44,6 +44,8 @@ class ChanThread(
   // Stores hashes of unparsed post comments, the way we got the from the server, without any spans added yet.
   private val rawPostHashesMap = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
   @GuardedBy("lock")
+  private var persistedPostHashesLoaded = false
+  @GuardedBy("lock")
   private var lastAccessTime = initialLastAccessTime
   @GuardedBy("lock")
   private var lastUpdateTime = 0L
@@ -138,6 +140,38 @@ class ChanThread(
     lock.write { rawPostHashesMap.clear() }
   }
 
+  fun persistedPostHashesLoaded(): Boolean = lock.read { persistedPostHashesLoaded }
+
+  /**
+   * Puts post hashes loaded from the database. Hashes that we already have in memory are newer so they
+   * are never overwritten. Only the first call per thread does anything. Returns descriptors of the
+   * posts whose hashes were actually put.
+   * */
+  fun putPersistedPostHashes(
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>
+  ): Set<PostDescriptor> {
+    return lock.write {
+      if (persistedPostHashesLoaded) {
+        return@write emptySet()
+      }
+
+      persistedPostHashesLoaded = true
+
+      val putPostDescriptors = hashSetOf<PostDescriptor>()
+
+      postHashes.forEach { (postDescriptor, postHash) ->
+        if (rawPostHashesMap.containsKey(postDescriptor)) {
+          return@forEach
+        }
+
+        rawPostHashesMap[postDescriptor] = postHash
+        putPostDescriptors += postDescriptor
+      }
+
+      return@write putPostDescriptors
+    }
+  }
+
   fun getPostImage(postDescriptor: PostDescriptor, imageUrl: HttpUrl): ChanPostImage? {
     return lock.read {
       return@read postsByPostDescriptors[postDescriptor]
@@ -0,0 +1,34 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.post.ChanPostHide
+import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.data.post.SeenPost
+
+/**
+ * Everything that is stored in the database for a thread and needs to be loaded before the thread
+ * can be shown. Parts that were not requested (see [Request]) are nulls.
+ * */
+class ThreadOpenState(
+  val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+  val threadPostsCount: Int?,
+  val seenPosts: List<SeenPost>?,
+  val chanThreadViewableInfo: ChanThreadViewableInfo?,
+  val savedReplies: List<ChanSavedReply>?,
+  val postHides: List<ChanPostHide>?
+) {
+
+  data class Request(
+    val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    val loadThreadPosts: Boolean,
+    val loadSeenPosts: Boolean,
+    val loadViewableInfo: Boolean,
+    val loadSavedReplies: Boolean,
+    val loadPostHides: Boolean
+  ) {
+    fun isEmpty(): Boolean {
+      return !loadThreadPosts && !loadSeenPosts && !loadViewableInfo && !loadSavedReplies && !loadPostHides
+    }
+  }
+
+}
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.di
 
 import android.app.Application
 import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.dns.DnsCache
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory
 import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory
 import com.github.k1rakishou.model.repository.BoardRepository
@@ -23,6 +24,7 @@ import com.github.k1rakishou.model.repository.SeenPostRepository
 import com.github.k1rakishou.model.repository.SiteRepository
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository
+import com.github.k1rakishou.model.repository.ThreadOpenStateRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.google.gson.Gson
@@ -61,6 +63,7 @@ interface ModelComponent {
   fun getThreadDownloadRepository(): ThreadDownloadRepository
   fun getChanCatalogSnapshotCache(): ChanCatalogSnapshotCache
   fun getCompositeCatalogRepository(): CompositeCatalogRepository
+  fun getThreadOpenStateRepository(): ThreadOpenStateRepository
 
   @Component.Builder
   interface Builder {
@@ -76,8 +79,10 @@ interface ModelComponent {
     val isDevFlavor: Boolean,
     val isLowRamDevice: Boolean,
     val okHttpUseDnsOverHttps: Boolean,
+    val threadSnapshotsEnabled: Boolean,
     val normalDnsSelectorFactory: NormalDnsSelectorFactory,
     val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
+    val dnsCache: DnsCache,
     val okHttpProtocols: NetworkModule.OkHttpProtocolList,
     val appConstants: AppConstants
   )
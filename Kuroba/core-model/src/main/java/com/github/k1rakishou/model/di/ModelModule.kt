@@ -26,6 +26,7 @@ import com.github.k1rakishou.model.repository.SeenPostRepository
 import com.github.k1rakishou.model.repository.SiteRepository
 import com.github.k1rakishou.model.repository.ThreadBookmarkGroupRepository
 import com.github.k1rakishou.model.repository.ThreadDownloadRepository
+import com.github.k1rakishou.model.repository.ThreadOpenStateRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
 import com.github.k1rakishou.model.source.cache.GenericSuspendableCacheSource
@@ -50,6 +51,7 @@ import com.github.k1rakishou.model.source.local.SiteLocalSource
 import com.github.k1rakishou.model.source.local.ThreadBookmarkGroupLocalSource
 import com.github.k1rakishou.model.source.local.ThreadBookmarkLocalSource
 import com.github.k1rakishou.model.source.local.ThreadDownloadLocalSource
+import com.github.k1rakishou.model.source.local.ThreadSnapshotLocalSource
 import com.github.k1rakishou.model.source.remote.MediaServiceLinkExtraContentRemoteSource
 import com.google.gson.Gson
 import com.squareup.moshi.Moshi
@@ -160,6 +162,19 @@ class ModelModule {
     )
   }
 
+  @Singleton
+  @Provides
+  fun provideThreadSnapshotLocalSource(
+    dependencies: ModelComponent.Dependencies
+  ): ThreadSnapshotLocalSource {
+    return ThreadSnapshotLocalSource(
+      dependencies.threadSnapshotsEnabled,
+      dependencies.verboseLogs,
+      { dependencies.appConstants.threadSnapshotsDir },
+      dependencies.appConstants.threadSnapshotsMaxDiskSize
+    )
+  }
+
   @Singleton
   @Provides
   fun provideNavHistoryLocalSource(
@@ -403,6 +418,7 @@ class ModelModule {
     dependencies: ModelComponent.Dependencies,
     database: KurobaDatabase,
     chanPostLocalSource: ChanPostLocalSource,
+    threadSnapshotLocalSource: ThreadSnapshotLocalSource,
     chanThreadsCache: ChanThreadsCache,
     chanDescriptorCache: ChanDescriptorCache
   ): ChanPostRepository {
@@ -412,6 +428,7 @@ class ModelModule {
       dependencies.coroutineScope,
       dependencies.appConstants,
       chanPostLocalSource,
+      threadSnapshotLocalSource,
       chanThreadsCache,
       chanDescriptorCache
     )
@@ -643,4 +660,32 @@ class ModelModule {
     )
   }
 
+  @Singleton
+  @Provides
+  fun provideThreadOpenStateRepository(
+    database: KurobaDatabase,
+    dependencies: ModelComponent.Dependencies,
+    chanDescriptorCache: ChanDescriptorCache,
+    chanThreadsCache: ChanThreadsCache,
+    threadSnapshotLocalSource: ThreadSnapshotLocalSource,
+    chanPostLocalSource: ChanPostLocalSource,
+    seenPostLocalSource: SeenPostLocalSource,
+    chanThreadViewableInfoLocalSource: ChanThreadViewableInfoLocalSource,
+    chanSavedReplyLocalSource: ChanSavedReplyLocalSource,
+    chanPostHideLocalSource: ChanPostHideLocalSource
+  ): ThreadOpenStateRepository {
+    return ThreadOpenStateRepository(
+      database,
+      dependencies.coroutineScope,
+      chanDescriptorCache,
+      chanThreadsCache,
+      threadSnapshotLocalSource,
+      chanPostLocalSource,
+      seenPostLocalSource,
+      chanThreadViewableInfoLocalSource,
+      chanSavedReplyLocalSource,
+      chanPostHideLocalSource
+    )
+  }
+
 }
\ No newline at end of file
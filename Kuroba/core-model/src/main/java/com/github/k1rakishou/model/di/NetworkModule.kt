@@ -25,7 +25,8 @@ class NetworkModule {
       okHttpClient,
       dependencies.okHttpUseDnsOverHttps,
       dependencies.normalDnsSelectorFactory,
-      dependencies.dnsOverHttpsSelectorFactory
+      dependencies.dnsOverHttpsSelectorFactory,
+      dependencies.dnsCache
     )
 
     return okHttpClient.newBuilder()
@@ -0,0 +1,42 @@
+package com.github.k1rakishou.model.entity.chan.post
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.PrimaryKey
+
+/**
+ * Hash of a post the way we got it from the server (before parsing), see ChanPostBuilder.getPostHash.
+ * Used to figure out whether a post has changed since it was stored in the database without
+ * parsing it again.
+ * */
+@Entity(
+  tableName = ChanPostHashEntity.TABLE_NAME,
+  foreignKeys = [
+    ForeignKey(
+      entity = ChanPostIdEntity::class,
+      parentColumns = [ChanPostIdEntity.POST_ID_COLUMN_NAME],
+      childColumns = [ChanPostHashEntity.OWNER_POST_ID_COLUMN_NAME],
+      onDelete = ForeignKey.CASCADE,
+      onUpdate = ForeignKey.CASCADE
+    )
+  ]
+)
+data class ChanPostHashEntity(
+  @PrimaryKey(autoGenerate = false)
+  @ColumnInfo(name = OWNER_POST_ID_COLUMN_NAME)
+  val ownerPostId: Long,
+  @ColumnInfo(name = HASH_PART_1_COLUMN_NAME)
+  val hashPart1: Long,
+  @ColumnInfo(name = HASH_PART_2_COLUMN_NAME)
+  val hashPart2: Long
+) {
+
+  companion object {
+    const val TABLE_NAME = "chan_post_hash"
+
+    const val OWNER_POST_ID_COLUMN_NAME = "owner_post_id"
+    const val HASH_PART_1_COLUMN_NAME = "hash_part_1"
+    const val HASH_PART_2_COLUMN_NAME = "hash_part_2"
+  }
+}
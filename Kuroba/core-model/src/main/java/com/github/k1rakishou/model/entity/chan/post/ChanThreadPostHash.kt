@@ -0,0 +1,14 @@
+package com.github.k1rakishou.model.entity.chan.post
+
+import androidx.room.ColumnInfo
+
+data class ChanThreadPostHash(
+  @ColumnInfo(name = ChanPostIdEntity.POST_NO_COLUMN_NAME)
+  val postNo: Long,
+  @ColumnInfo(name = ChanPostIdEntity.POST_SUB_NO_COLUMN_NAME)
+  val postSubNo: Long,
+  @ColumnInfo(name = ChanPostHashEntity.HASH_PART_1_COLUMN_NAME)
+  val hashPart1: Long,
+  @ColumnInfo(name = ChanPostHashEntity.HASH_PART_2_COLUMN_NAME)
+  val hashPart2: Long
+)
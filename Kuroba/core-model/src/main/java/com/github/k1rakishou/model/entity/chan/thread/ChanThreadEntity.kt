@@ -25,6 +25,10 @@ import com.github.k1rakishou.model.entity.chan.board.ChanBoardIdEntity
     Index(
       value = [ChanThreadEntity.OWNER_BOARD_ID_COLUMN_NAME]
     ),
+    // Old posts/threads deletion walks threads ordered by (last_modified, thread_id)
+    Index(
+      value = [ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME]
+    ),
     Index(
       value = [
         ChanThreadEntity.THREAD_NO_COLUMN_NAME,
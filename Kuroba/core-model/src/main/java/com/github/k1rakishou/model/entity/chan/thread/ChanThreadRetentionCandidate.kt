@@ -0,0 +1,25 @@
+package com.github.k1rakishou.model.entity.chan.thread
+
+import androidx.room.ColumnInfo
+import com.github.k1rakishou.model.entity.chan.board.ChanBoardIdEntity
+
+data class ChanThreadRetentionCandidate(
+  @ColumnInfo(name = ChanThreadEntity.THREAD_ID_COLUMN_NAME)
+  val threadId: Long,
+  @ColumnInfo(name = ChanThreadEntity.THREAD_NO_COLUMN_NAME)
+  val threadNo: Long,
+  @ColumnInfo(name = ChanThreadEntity.LAST_MODIFIED_COLUMN_NAME)
+  val lastModified: Long,
+  @ColumnInfo(name = ChanBoardIdEntity.OWNER_SITE_NAME_COLUMN_NAME)
+  val siteName: String,
+  @ColumnInfo(name = ChanBoardIdEntity.BOARD_CODE_COLUMN_NAME)
+  val boardCode: String,
+  // Amount of posts that are not original posts
+  @ColumnInfo(name = POSTS_COUNT_COLUMN_NAME)
+  val postsCount: Int
+) {
+
+  companion object {
+    const val POSTS_COUNT_COLUMN_NAME = "posts_count"
+  }
+}
@@ -0,0 +1,41 @@
+package com.github.k1rakishou.model.entity.chan.thread
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Progress of an unfinished old posts/threads deletion pass. One row per [Phase]. The cursor is the
+ * (lastModified, threadId) key of the last thread that was processed, the next batch continues
+ * right after it. Updated in the same transaction as the batch deletion itself so that a pass
+ * interrupted by the app being killed continues from where it stopped on the next app start.
+ * */
+@Entity(tableName = ChanThreadRetentionProgressEntity.TABLE_NAME)
+data class ChanThreadRetentionProgressEntity(
+  @PrimaryKey(autoGenerate = false)
+  @ColumnInfo(name = PHASE_COLUMN_NAME)
+  val phase: Int,
+  @ColumnInfo(name = CURSOR_LAST_MODIFIED_COLUMN_NAME)
+  val cursorLastModified: Long,
+  @ColumnInfo(name = CURSOR_THREAD_ID_COLUMN_NAME)
+  val cursorThreadId: Long,
+  @ColumnInfo(name = REMAINING_TO_DELETE_COLUMN_NAME)
+  val remainingToDelete: Int
+) {
+
+  enum class Phase(val value: Int) {
+    // Delete all posts but the original post of the oldest threads
+    Posts(0),
+    // Delete the oldest threads that only have the original post left
+    Threads(1)
+  }
+
+  companion object {
+    const val TABLE_NAME = "chan_thread_retention_progress"
+
+    const val PHASE_COLUMN_NAME = "phase"
+    const val CURSOR_LAST_MODIFIED_COLUMN_NAME = "cursor_last_modified"
+    const val CURSOR_THREAD_ID_COLUMN_NAME = "cursor_thread_id"
+    const val REMAINING_TO_DELETE_COLUMN_NAME = "remaining_to_delete"
+  }
+}
@@ -0,0 +1,631 @@
+package com.github.k1rakishou.model.mapper
+
+import android.text.SpannableString
+import androidx.core.text.toSpanned
+import com.github.k1rakishou.common.hashSetWithCap
+import com.github.k1rakishou.common.mutableListWithCap
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkable
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageType
+import com.github.k1rakishou.model.data.post.PostComment
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+import java.util.zip.CheckedOutputStream
+
+/**
+ * Converts thread posts (with their text spans, images, icons and replies) into a compact binary
+ * snapshot and back. The snapshot starts with a header (magic, format version, version of the
+ * span mapper and the thread descriptor) and ends with a CRC32 of everything before it. Snapshots
+ * with a different format/span mapper version or a wrong checksum are rejected so that the caller
+ * can fall back to the database.
+ *
+ * Posts are restored exactly the way [ChanPostEntityMapper] restores them from the database
+ * (inlined images are not stored, the "endless" flag is not stored, subject and tripcode are never
+ * null).
+ * */
+object ThreadSnapshotMapper {
+  // "KXTS"
+  private const val MAGIC = 0x4B585453
+  const val FORMAT_VERSION = 1
+
+  private const val CRC_SIZE = 8
+  private const val NULL_STRING = -1
+  private const val NULL_IMAGE_TYPE = -1
+
+  private const val POST_FLAG_SAVED_REPLY = 1 shl 0
+  private const val POST_FLAG_SAGE = 1 shl 1
+  private const val POST_FLAG_DELETED = 1 shl 2
+
+  private const val THREAD_FLAG_STICKY = 1 shl 0
+  private const val THREAD_FLAG_CLOSED = 1 shl 1
+  private const val THREAD_FLAG_ARCHIVED = 1 shl 2
+
+  private const val IMAGE_FLAG_SPOILER = 1 shl 0
+  private const val IMAGE_FLAG_INLINED = 1 shl 1
+
+  private const val SPAN_NONE = 0
+  private const val SPAN_ABSOLUTE_SIZE = 1
+  private const val SPAN_BACKGROUND_COLOR = 2
+  private const val SPAN_FOREGROUND_COLOR = 3
+  private const val SPAN_BACKGROUND_COLOR_ID = 4
+  private const val SPAN_FOREGROUND_COLOR_ID = 5
+  private const val SPAN_POST_LINKABLE = 6
+  private const val SPAN_STYLE = 7
+  private const val SPAN_TYPEFACE = 8
+  private const val SPAN_STRIKETHROUGH = 9
+
+  private const val LINKABLE_ARCHIVE = 0
+  private const val LINKABLE_BOARD = 1
+  private const val LINKABLE_LINK = 2
+  private const val LINKABLE_QUOTE = 3
+  private const val LINKABLE_DEAD = 4
+  private const val LINKABLE_SEARCH = 5
+  private const val LINKABLE_SPOILER = 6
+  private const val LINKABLE_THREAD_OR_POST = 7
+
+  fun encode(threadDescriptor: ChanDescriptor.ThreadDescriptor, posts: List<ChanPost>): ByteArray {
+    val crc32 = CRC32()
+    val byteArrayOutputStream = ByteArrayOutputStream(posts.size * 512)
+    val output = DataOutputStream(CheckedOutputStream(byteArrayOutputStream, crc32))
+
+    output.writeInt(MAGIC)
+    output.writeInt(FORMAT_VERSION)
+    output.writeInt(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION)
+    writeString(output, threadDescriptor.siteName())
+    writeString(output, threadDescriptor.boardCode())
+    output.writeLong(threadDescriptor.threadNo)
+
+    output.writeInt(posts.size)
+    posts.forEach { chanPost -> writePost(output, chanPost) }
+
+    output.writeLong(crc32.value)
+    output.flush()
+
+    return byteArrayOutputStream.toByteArray()
+  }
+
+  /**
+   * Throws when the snapshot is corrupted, was created by a different version of this mapper or
+   * belongs to a different thread.
+   * */
+  fun decode(threadDescriptor: ChanDescriptor.ThreadDescriptor, bytes: ByteArray): List<ChanPost> {
+    check(bytes.size > CRC_SIZE) { "Snapshot is too small: ${bytes.size}" }
+
+    val payloadSize = bytes.size - CRC_SIZE
+    val crc32 = CRC32()
+    crc32.update(bytes, 0, payloadSize)
+
+    val expectedCrc = ByteBuffer.wrap(bytes, payloadSize, CRC_SIZE).long
+    check(crc32.value == expectedCrc) { "Snapshot checksum mismatch" }
+
+    val input = SnapshotReader(ByteBuffer.wrap(bytes, 0, payloadSize))
+
+    check(input.readInt() == MAGIC) { "Not a thread snapshot" }
+
+    val formatVersion = input.readInt()
+    check(formatVersion == FORMAT_VERSION) {
+      "Snapshot format version mismatch: expected ${FORMAT_VERSION}, actual ${formatVersion}"
+    }
+
+    val spanMapperVersion = input.readInt()
+    check(spanMapperVersion == ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION) {
+      "Snapshot span mapper version mismatch: " +
+        "expected ${ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION}, actual ${spanMapperVersion}"
+    }
+
+    val siteName = input.readString()
+    val boardCode = input.readString()
+    val threadNo = input.readLong()
+
+    check(
+      siteName == threadDescriptor.siteName()
+        && boardCode == threadDescriptor.boardCode()
+        && threadNo == threadDescriptor.threadNo
+    ) {
+      "Snapshot belongs to a different thread: /${siteName}/${boardCode}/${threadNo}"
+    }
+
+    val postsCount = input.readInt()
+    check(postsCount >= 0) { "Bad posts count: ${postsCount}" }
+
+    val posts = mutableListWithCap<ChanPost>(postsCount)
+
+    for (index in 0 until postsCount) {
+      posts += readPost(input, threadDescriptor)
+    }
+
+    check(!input.hasRemaining()) { "Snapshot has trailing data" }
+    return posts
+  }
+
+  private fun writePost(output: DataOutputStream, chanPost: ChanPost) {
+    val isOp = chanPost is ChanOriginalPost
+
+    output.writeBoolean(isOp)
+    output.writeLong(chanPost.chanPostId)
+    output.writeLong(chanPost.postDescriptor.postNo)
+    output.writeLong(chanPost.postDescriptor.postSubNo)
+    output.writeLong(chanPost.timestamp)
+    writeNullableString(output, chanPost.name)
+    writeNullableString(output, chanPost.posterId)
+    output.writeInt(chanPost.posterIdColor)
+    writeNullableString(output, chanPost.moderatorCapcode)
+
+    var postFlags = 0
+    if (chanPost.isSavedReply) postFlags = postFlags or POST_FLAG_SAVED_REPLY
+    if (chanPost.isSage) postFlags = postFlags or POST_FLAG_SAGE
+    if (chanPost.isDeleted) postFlags = postFlags or POST_FLAG_DELETED
+    output.writeByte(postFlags)
+
+    if (chanPost is ChanOriginalPost) {
+      output.writeInt(chanPost.catalogRepliesCount)
+      output.writeInt(chanPost.catalogImagesCount)
+      output.writeInt(chanPost.uniqueIps)
+      output.writeLong(chanPost.lastModified)
+
+      var threadFlags = 0
+      if (chanPost.sticky) threadFlags = threadFlags or THREAD_FLAG_STICKY
+      if (chanPost.closed) threadFlags = threadFlags or THREAD_FLAG_CLOSED
+      if (chanPost.archived) threadFlags = threadFlags or THREAD_FLAG_ARCHIVED
+      output.writeByte(threadFlags)
+    }
+
+    writeSpannableString(output, chanPost.postComment.originalComment())
+    writeNullableString(output, chanPost.postComment.originalUnparsedComment)
+    writeSpannableString(output, chanPost.subject)
+    writeSpannableString(output, chanPost.tripcode)
+
+    // Inlined images are not stored in the database either
+    val postImages = chanPost.postImages.filter { postImage -> !postImage.isInlined }
+    output.writeInt(postImages.size)
+    postImages.forEach { postImage -> writePostImage(output, postImage) }
+
+    val postIcons = chanPost.postIcons
+    output.writeInt(postIcons.size)
+    postIcons.forEach { postIcon ->
+      writeString(output, postIcon.iconUrl.toString())
+      writeString(output, postIcon.iconName)
+    }
+
+    val repliesTo = chanPost.repliesTo.toList()
+    output.writeInt(repliesTo.size)
+    repliesTo.forEach { replyTo ->
+      output.writeLong(replyTo.postNo)
+      output.writeLong(replyTo.postSubNo)
+    }
+  }
+
+  private fun readPost(input: SnapshotReader, threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanPost {
+    val isOp = input.readBoolean()
+    val chanPostId = input.readLong()
+    val postNo = input.readLong()
+    val postSubNo = input.readLong()
+    val timestamp = input.readLong()
+    val name = input.readNullableString()
+    val posterId = input.readNullableString()
+    val posterIdColor = input.readInt()
+    val moderatorCapcode = input.readNullableString()
+    val postFlags = input.readByte()
+
+    var catalogRepliesCount = 0
+    var catalogImagesCount = 0
+    var uniqueIps = 0
+    var lastModified = 0L
+    var threadFlags = 0
+
+    if (isOp) {
+      catalogRepliesCount = input.readInt()
+      catalogImagesCount = input.readInt()
+      uniqueIps = input.readInt()
+      lastModified = input.readLong()
+      threadFlags = input.readByte()
+    }
+
+    val postDescriptor = PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, postNo, postSubNo)
+
+    val postComment = readPostComment(input)
+    val subject = readSpannableString(input)
+    val tripcode = readSpannableString(input)
+
+    val postImagesCount = input.readInt()
+    val postImages = mutableListWithCap<ChanPostImage>(postImagesCount.coerceAtLeast(0))
+    for (index in 0 until postImagesCount) {
+      postImages += readPostImage(input, postDescriptor)
+    }
+
+    val postIconsCount = input.readInt()
+    val postIcons = mutableListWithCap<ChanPostHttpIcon>(postIconsCount.coerceAtLeast(0))
+    for (index in 0 until postIconsCount) {
+      postIcons += ChanPostHttpIcon(
+        iconUrl = input.readString().toHttpUrl(),
+        iconName = input.readString()
+      )
+    }
+
+    val repliesToCount = input.readInt()
+    val repliesTo = hashSetWithCap<PostDescriptor>(repliesToCount.coerceAtLeast(0))
+    for (index in 0 until repliesToCount) {
+      val replyNo = input.readLong()
+      val replySubNo = input.readLong()
+
+      repliesTo += PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, replyNo, replySubNo)
+    }
+
+    if (isOp) {
+      return ChanOriginalPost(
+        chanPostId = chanPostId,
+        postDescriptor = postDescriptor,
+        postImages = postImages,
+        postIcons = postIcons,
+        repliesTo = repliesTo,
+        catalogRepliesCount = catalogRepliesCount,
+        catalogImagesCount = catalogImagesCount,
+        uniqueIps = uniqueIps,
+        lastModified = lastModified,
+        sticky = threadFlags and THREAD_FLAG_STICKY != 0,
+        closed = threadFlags and THREAD_FLAG_CLOSED != 0,
+        archived = threadFlags and THREAD_FLAG_ARCHIVED != 0,
+        deleted = postFlags and POST_FLAG_DELETED != 0,
+        timestamp = timestamp,
+        name = name,
+        postComment = postComment,
+        subject = subject,
+        tripcode = tripcode,
+        posterId = posterId,
+        posterIdColor = posterIdColor,
+        moderatorCapcode = moderatorCapcode,
+        isSavedReply = postFlags and POST_FLAG_SAVED_REPLY != 0,
+        isSage = postFlags and POST_FLAG_SAGE != 0,
+        // Do not serialize/deserialize "endless" flag
+        endless = false
+      )
+    }
+
+    return ChanPost(
+      chanPostId = chanPostId,
+      postDescriptor = postDescriptor,
+      _postImages = postImages,
+      postIcons = postIcons,
+      repliesTo = repliesTo,
+      timestamp = timestamp,
+      name = name,
+      postComment = postComment,
+      subject = subject,
+      tripcode = tripcode,
+      posterId = posterId,
+      posterIdColor = posterIdColor,
+      moderatorCapcode = moderatorCapcode,
+      isSavedReply = postFlags and POST_FLAG_SAVED_REPLY != 0,
+      deleted = postFlags and POST_FLAG_DELETED != 0,
+      isSage = postFlags and POST_FLAG_SAGE != 0
+    )
+  }
+
+  private fun readPostComment(input: SnapshotReader): PostComment {
+    val comment = readSpannableString(input)
+    val unparsedComment = input.readNullableString()
+
+    val postLinkables = comment.toSpanned().getSpans(
+      0,
+      comment.length,
+      PostLinkable::class.java
+    ).toList()
+
+    return PostComment(
+      originalComment = SpannableString(comment),
+      originalUnparsedComment = unparsedComment,
+      linkables = postLinkables
+    )
+  }
+
+  private fun writePostImage(output: DataOutputStream, postImage: ChanPostImage) {
+    writeString(output, postImage.serverFilename)
+    writeNullableString(output, postImage.actualThumbnailUrl?.toString())
+    writeNullableString(output, postImage.spoilerThumbnailUrl?.toString())
+    writeNullableString(output, postImage.imageUrl?.toString())
+    writeNullableString(output, postImage.filename)
+    writeNullableString(output, postImage.extension)
+    output.writeInt(postImage.imageWidth)
+    output.writeInt(postImage.imageHeight)
+
+    var imageFlags = 0
+    if (postImage.spoiler) imageFlags = imageFlags or IMAGE_FLAG_SPOILER
+    if (postImage.isInlined) imageFlags = imageFlags or IMAGE_FLAG_INLINED
+    output.writeByte(imageFlags)
+
+    output.writeLong(postImage.size)
+    writeNullableString(output, postImage.fileHash)
+    output.writeInt(postImage.type?.value ?: NULL_IMAGE_TYPE)
+  }
+
+  private fun readPostImage(input: SnapshotReader, ownerPostDescriptor: PostDescriptor): ChanPostImage {
+    val serverFilename = input.readString()
+    val actualThumbnailUrl = readHttpUrl(input)
+    val spoilerThumbnailUrl = readHttpUrl(input)
+    val imageUrl = readHttpUrl(input)
+    val filename = input.readNullableString()
+    val extension = input.readNullableString()
+    val imageWidth = input.readInt()
+    val imageHeight = input.readInt()
+    val imageFlags = input.readByte()
+    val fileSize = input.readLong()
+    val fileHash = input.readNullableString()
+    val typeValue = input.readInt()
+
+    return ChanPostImage(
+      serverFilename = serverFilename,
+      actualThumbnailUrl = actualThumbnailUrl,
+      spoilerThumbnailUrl = spoilerThumbnailUrl,
+      imageUrl = imageUrl,
+      filename = filename,
+      extension = extension,
+      imageWidth = imageWidth,
+      imageHeight = imageHeight,
+      spoiler = imageFlags and IMAGE_FLAG_SPOILER != 0,
+      isInlined = imageFlags and IMAGE_FLAG_INLINED != 0,
+      fileSize = fileSize,
+      fileHash = fileHash,
+      type = if (typeValue == NULL_IMAGE_TYPE) null else ChanPostImageType.fromValue(typeValue)
+    ).apply { setPostDescriptor(ownerPostDescriptor) }
+  }
+
+  private fun readHttpUrl(input: SnapshotReader): HttpUrl? {
+    return input.readNullableString()?.toHttpUrlOrNull()
+  }
+
+  private fun writeSpannableString(output: DataOutputStream, charSequence: CharSequence?) {
+    val parcelableSpannableString = ParcelableSpannableStringMapper.toParcelableSpannableString(charSequence)
+      ?: ParcelableSpannableString()
+
+    writeParcelableSpannableString(output, parcelableSpannableString)
+  }
+
+  private fun readSpannableString(input: SnapshotReader): CharSequence {
+    return ParcelableSpannableStringMapper.fromParcelableSpannableString(readParcelableSpannableString(input))
+  }
+
+  internal fun writeParcelableSpannableString(
+    output: DataOutputStream,
+    parcelableSpannableString: ParcelableSpannableString
+  ) {
+    writeString(output, parcelableSpannableString.text)
+
+    val spanInfoList = parcelableSpannableString.parcelableSpans.spanInfoList
+    output.writeInt(spanInfoList.size)
+
+    spanInfoList.forEach { spanInfo ->
+      output.writeInt(spanInfo.spanStart)
+      output.writeInt(spanInfo.spanEnd)
+      output.writeInt(spanInfo.flags)
+      output.writeInt(spanInfo.parcelableTypeRaw)
+      writeParcelableSpan(output, spanInfo.parcelableSpan)
+    }
+  }
+
+  internal fun readParcelableSpannableString(input: SnapshotReader): ParcelableSpannableString {
+    val text = input.readString()
+    val spansCount = input.readInt()
+    val spanInfoList = mutableListWithCap<ParcelableSpanInfo>(spansCount.coerceAtLeast(0))
+
+    for (index in 0 until spansCount) {
+      spanInfoList += ParcelableSpanInfo(
+        spanStart = input.readInt(),
+        spanEnd = input.readInt(),
+        flags = input.readInt(),
+        parcelableTypeRaw = input.readInt(),
+        parcelableSpan = readParcelableSpan(input)
+      )
+    }
+
+    return ParcelableSpannableString(
+      parcelableSpans = ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, spanInfoList),
+      text = text
+    )
+  }
+
+  private fun writeParcelableSpan(output: DataOutputStream, parcelableSpan: ParcelableSpan?) {
+    when (parcelableSpan) {
+      null -> output.writeByte(SPAN_NONE)
+      is ParcelableSpan.AbsoluteSize -> {
+        output.writeByte(SPAN_ABSOLUTE_SIZE)
+        output.writeInt(parcelableSpan.size)
+      }
+      is ParcelableSpan.BackgroundColor -> {
+        output.writeByte(SPAN_BACKGROUND_COLOR)
+        output.writeInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.ForegroundColor -> {
+        output.writeByte(SPAN_FOREGROUND_COLOR)
+        output.writeInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.BackgroundColorId -> {
+        output.writeByte(SPAN_BACKGROUND_COLOR_ID)
+        output.writeInt(parcelableSpan.colorId.id)
+      }
+      is ParcelableSpan.ForegroundColorId -> {
+        output.writeByte(SPAN_FOREGROUND_COLOR_ID)
+        output.writeInt(parcelableSpan.colorId.id)
+      }
+      is ParcelableSpan.PostLinkable -> {
+        output.writeByte(SPAN_POST_LINKABLE)
+        writeString(output, parcelableSpan.key)
+        output.writeInt(parcelableSpan.postLinkableTypeRaw)
+        writePostLinkableValue(output, parcelableSpan.postLinkableValue)
+      }
+      is ParcelableSpan.Style -> {
+        output.writeByte(SPAN_STYLE)
+        output.writeInt(parcelableSpan.style)
+      }
+      is ParcelableSpan.Typeface -> {
+        output.writeByte(SPAN_TYPEFACE)
+        writeString(output, parcelableSpan.family)
+      }
+      ParcelableSpan.Strikethrough -> output.writeByte(SPAN_STRIKETHROUGH)
+    }
+  }
+
+  private fun readParcelableSpan(input: SnapshotReader): ParcelableSpan? {
+    return when (val spanTag = input.readByte()) {
+      SPAN_NONE -> null
+      SPAN_ABSOLUTE_SIZE -> ParcelableSpan.AbsoluteSize(input.readInt())
+      SPAN_BACKGROUND_COLOR -> ParcelableSpan.BackgroundColor(input.readInt())
+      SPAN_FOREGROUND_COLOR -> ParcelableSpan.ForegroundColor(input.readInt())
+      SPAN_BACKGROUND_COLOR_ID -> ParcelableSpan.BackgroundColorId(ChanThemeColorId.byId(input.readInt()))
+      SPAN_FOREGROUND_COLOR_ID -> ParcelableSpan.ForegroundColorId(ChanThemeColorId.byId(input.readInt()))
+      SPAN_POST_LINKABLE -> {
+        ParcelableSpan.PostLinkable(
+          key = input.readString(),
+          postLinkableTypeRaw = input.readInt(),
+          postLinkableValue = readPostLinkableValue(input)
+        )
+      }
+      SPAN_STYLE -> ParcelableSpan.Style(input.readInt())
+      SPAN_TYPEFACE -> ParcelableSpan.Typeface(input.readString())
+      SPAN_STRIKETHROUGH -> ParcelableSpan.Strikethrough
+      else -> error("Unknown span tag: ${spanTag}")
+    }
+  }
+
+  private fun writePostLinkableValue(output: DataOutputStream, postLinkableValue: PostLinkableValue) {
+    when (postLinkableValue) {
+      is PostLinkableValue.Archive -> {
+        output.writeByte(LINKABLE_ARCHIVE)
+        writeString(output, postLinkableValue.archiveDomain)
+        writeString(output, postLinkableValue.boardCode)
+        output.writeLong(postLinkableValue.threadNo)
+        output.writeLong(postLinkableValue.postNo)
+        output.writeLong(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Board -> {
+        output.writeByte(LINKABLE_BOARD)
+        writeString(output, postLinkableValue.boardCode)
+      }
+      is PostLinkableValue.Link -> {
+        output.writeByte(LINKABLE_LINK)
+        writeString(output, postLinkableValue.link)
+      }
+      is PostLinkableValue.Quote -> {
+        output.writeByte(LINKABLE_QUOTE)
+        output.writeLong(postLinkableValue.postNo)
+        output.writeLong(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Dead -> {
+        output.writeByte(LINKABLE_DEAD)
+        output.writeLong(postLinkableValue.postNo)
+        output.writeLong(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Search -> {
+        output.writeByte(LINKABLE_SEARCH)
+        writeString(output, postLinkableValue.boardCode)
+        writeString(output, postLinkableValue.searchQuery)
+      }
+      PostLinkableValue.Spoiler -> output.writeByte(LINKABLE_SPOILER)
+      is PostLinkableValue.ThreadOrPost -> {
+        output.writeByte(LINKABLE_THREAD_OR_POST)
+        writeString(output, postLinkableValue.boardCode)
+        output.writeLong(postLinkableValue.threadNo)
+        output.writeLong(postLinkableValue.postNo)
+        output.writeLong(postLinkableValue.postSubNo)
+      }
+    }
+  }
+
+  private fun readPostLinkableValue(input: SnapshotReader): PostLinkableValue {
+    return when (val linkableTag = input.readByte()) {
+      LINKABLE_ARCHIVE -> {
+        PostLinkableValue.Archive(
+          archiveDomain = input.readString(),
+          boardCode = input.readString(),
+          threadNo = input.readLong(),
+          postNo = input.readLong(),
+          postSubNo = input.readLong()
+        )
+      }
+      LINKABLE_BOARD -> PostLinkableValue.Board(input.readString())
+      LINKABLE_LINK -> PostLinkableValue.Link(input.readString())
+      LINKABLE_QUOTE -> PostLinkableValue.Quote(input.readLong(), input.readLong())
+      LINKABLE_DEAD -> PostLinkableValue.Dead(input.readLong(), input.readLong())
+      LINKABLE_SEARCH -> PostLinkableValue.Search(input.readString(), input.readString())
+      LINKABLE_SPOILER -> PostLinkableValue.Spoiler
+      LINKABLE_THREAD_OR_POST -> {
+        PostLinkableValue.ThreadOrPost(
+          boardCode = input.readString(),
+          threadNo = input.readLong(),
+          postNo = input.readLong(),
+          postSubNo = input.readLong()
+        )
+      }
+      else -> error("Unknown post linkable tag: ${linkableTag}")
+    }
+  }
+
+  private fun writeString(output: DataOutputStream, string: String) {
+    val bytes = string.toByteArray(Charsets.UTF_8)
+
+    output.writeInt(bytes.size)
+    output.write(bytes)
+  }
+
+  private fun writeNullableString(output: DataOutputStream, string: String?) {
+    if (string == null) {
+      output.writeInt(NULL_STRING)
+      return
+    }
+
+    writeString(output, string)
+  }
+
+  /**
+   * Reads the primitives written by [DataOutputStream] directly from the snapshot byte array
+   * (strings are decoded straight from the array without copying).
+   * */
+  internal class SnapshotReader(
+    private val byteBuffer: ByteBuffer
+  ) {
+
+    fun hasRemaining(): Boolean = byteBuffer.hasRemaining()
+
+    fun readBoolean(): Boolean = byteBuffer.get().toInt() != 0
+    fun readByte(): Int = byteBuffer.get().toInt()
+    fun readInt(): Int = byteBuffer.int
+    fun readLong(): Long = byteBuffer.long
+
+    fun readString(): String {
+      return checkNotNull(readNullableString()) { "Unexpected null string" }
+    }
+
+    fun readNullableString(): String? {
+      val length = byteBuffer.int
+      if (length == NULL_STRING) {
+        return null
+      }
+
+      check(length >= 0 && length <= byteBuffer.remaining()) { "Bad string length: ${length}" }
+
+      val position = byteBuffer.position()
+      val string = String(byteBuffer.array(), byteBuffer.arrayOffset() + position, length, Charsets.UTF_8)
+      byteBuffer.position(position + length)
+
+      return string
+    }
+
+  }
+
+}
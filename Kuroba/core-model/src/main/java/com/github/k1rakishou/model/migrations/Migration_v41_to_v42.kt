@@ -0,0 +1,23 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v41_to_v42 : Migration(41, 42) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("""
+        CREATE TABLE IF NOT EXISTS `chan_post_hash` 
+        (
+          `owner_post_id` INTEGER NOT NULL, 
+          `hash_part_1` INTEGER NOT NULL, 
+          `hash_part_2` INTEGER NOT NULL, 
+          PRIMARY KEY(`owner_post_id`), 
+          FOREIGN KEY(`owner_post_id`) REFERENCES `chan_post_id`(`post_id`) ON UPDATE CASCADE ON DELETE CASCADE 
+        )
+      """.trimIndent())
+    }
+  }
+
+}
@@ -0,0 +1,29 @@
+package com.github.k1rakishou.model.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+class Migration_v42_to_v43 : Migration(42, 43) {
+
+  override fun migrate(database: SupportSQLiteDatabase) {
+    database.doWithoutForeignKeys {
+      database.execSQL("""
+        CREATE TABLE IF NOT EXISTS `chan_thread_retention_progress`
+        (
+          `phase` INTEGER NOT NULL,
+          `cursor_last_modified` INTEGER NOT NULL,
+          `cursor_thread_id` INTEGER NOT NULL,
+          `remaining_to_delete` INTEGER NOT NULL,
+          PRIMARY KEY(`phase`)
+        )
+      """.trimIndent())
+
+      database.execSQL("CREATE INDEX IF NOT EXISTS `index_chan_thread_last_modified` ON `chan_thread` (`last_modified`)")
+
+      // Old posts/threads deletion does not use these views anymore
+      database.execSQL("DROP VIEW IF EXISTS `chan_threads_with_posts`")
+      database.execSQL("DROP VIEW IF EXISTS `old_chan_thread`")
+    }
+  }
+
+}
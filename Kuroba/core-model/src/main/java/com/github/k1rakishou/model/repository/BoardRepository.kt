@@ -21,17 +21,33 @@ class BoardRepository(
   private val TAG = "BoardRepository"
 
   @OptIn(ExperimentalTime::class)
-  suspend fun loadAllBoards(): ModularResult<Map<SiteDescriptor, List<ChanBoard>>> {
+  suspend fun loadActiveBoards(): ModularResult<Map<SiteDescriptor, List<ChanBoard>>> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         ensureBackgroundThread()
 
         val (boards, duration) = measureTimedValue {
-          return@measureTimedValue localSource.selectAllBoards()
+          return@measureTimedValue localSource.selectActiveBoards()
         }
 
         val totalLoadedBoards = boards.values.sumBy { siteBoards -> siteBoards.size }
-        Logger.d(TAG, "loadAllBoards() -> ${totalLoadedBoards} took $duration")
+        Logger.d(TAG, "loadActiveBoards() -> ${totalLoadedBoards} took $duration")
+        return@tryWithTransaction boards
+      }
+    }
+  }
+
+  @OptIn(ExperimentalTime::class)
+  suspend fun loadInactiveBoards(siteDescriptor: SiteDescriptor): ModularResult<List<ChanBoard>> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        ensureBackgroundThread()
+
+        val (boards, duration) = measureTimedValue {
+          return@measureTimedValue localSource.selectInactiveBoards(siteDescriptor)
+        }
+
+        Logger.d(TAG, "loadInactiveBoards(${siteDescriptor}) -> ${boards.size} took $duration")
         return@tryWithTransaction boards
       }
     }
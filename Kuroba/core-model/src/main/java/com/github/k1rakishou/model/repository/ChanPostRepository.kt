@@ -21,14 +21,15 @@ import com.github.k1rakishou.model.data.options.PostsToReloadOptions
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionProgressEntity
 import com.github.k1rakishou.model.mapper.ChanPostMapper
 import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.model.source.local.ChanPostLocalSource
+import com.github.k1rakishou.model.source.local.ThreadSnapshotLocalSource
 import com.github.k1rakishou.model.util.ensureBackgroundThread
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.delay
 import kotlin.math.max
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTime
@@ -40,33 +41,43 @@ class ChanPostRepository(
   private val applicationScope: CoroutineScope,
   private val appConstants: AppConstants,
   private val localSource: ChanPostLocalSource,
+  private val threadSnapshotLocalSource: ThreadSnapshotLocalSource,
   private val chanThreadsCache: ChanThreadsCache,
   private val chanDescriptorCache: ChanDescriptorCache
 ) : AbstractRepository(database) {
   private val TAG = "ChanPostRepository"
   private val suspendableInitializer = SuspendableInitializer<Unit>("ChanPostRepository")
 
+  // Results of the latest old posts/threads deletion runs (for the database summary screen)
+  @Volatile
+  var lastPostsDeleteResult: ChanPostLocalSource.DeleteResult? = null
+    private set
+  @Volatile
+  var lastThreadsDeleteResult: ChanPostLocalSource.DeleteResult? = null
+    private set
+
   fun initialize() {
     Logger.d(TAG, "ChanPostRepository.initialize()")
 
-    applicationScope.launch(Dispatchers.IO) {
-      // We need to first delete the posts, so that the threads are only left with the OP
-      val postDeleteResult = deleteOldPostsIfNeeded()
-      if (postDeleteResult is ModularResult.Error) {
-        Logger.e(TAG, "deleteOldPostsIfNeeded() error", postDeleteResult.error)
-        suspendableInitializer.initWithError(postDeleteResult.error)
-        return@launch
-      }
+    // Old posts/threads deletion used to happen here, blocking everything that waits for this
+    // repository to get initialized. Now it's executed by the maintenance scheduler after the app
+    // has started (see deleteOldPostsAndThreadsIfNeeded()).
+    suspendableInitializer.initWithValue(Unit)
+  }
 
-      // Then we can delete the threads themselves
-      val threadDeleteResult = deleteOldThreadsIfNeeded()
-      if (threadDeleteResult is ModularResult.Error) {
-        Logger.e(TAG, "deleteOldThreadsIfNeeded() error", threadDeleteResult.error)
-        suspendableInitializer.initWithError(threadDeleteResult.error)
-        return@launch
-      }
+  suspend fun deleteOldPostsAndThreadsIfNeeded() {
+    // We need to first delete the posts, so that the threads are only left with the OP
+    val postDeleteResult = deleteOldPostsIfNeeded()
+    if (postDeleteResult is ModularResult.Error) {
+      Logger.e(TAG, "deleteOldPostsIfNeeded() error", postDeleteResult.error)
+      return
+    }
 
-      suspendableInitializer.initWithValue(Unit)
+    // Then we can delete the threads themselves
+    val threadDeleteResult = deleteOldThreadsIfNeeded()
+    if (threadDeleteResult is ModularResult.Error) {
+      Logger.e(TAG, "deleteOldThreadsIfNeeded() error", threadDeleteResult.error)
+      return
     }
   }
 
@@ -272,6 +283,58 @@ class ChanPostRepository(
     chanThreadsCache.clearPostHashes()
   }
 
+  /**
+   * Loads post hashes of a cached thread from the database (only once per cached thread) so that the
+   * first thread update after an app restart doesn't have to parse every post again. Returns
+   * descriptors of the posts which hashes were loaded.
+   * */
+  @OptIn(ExperimentalTime::class)
+  suspend fun preloadPostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): ModularResult<Set<PostDescriptor>> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+    ensureBackgroundThread()
+
+    if (!chanThreadsCache.contains(threadDescriptor)) {
+      return value(emptySet())
+    }
+
+    if (chanThreadsCache.persistedPostHashesLoaded(threadDescriptor)) {
+      return value(emptySet())
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        val (postHashes, duration) = measureTimedValue {
+          localSource.getThreadPostHashes(threadDescriptor)
+        }
+
+        val loadedPostDescriptors = chanThreadsCache.putPersistedPostHashes(threadDescriptor, postHashes)
+
+        Logger.d(TAG, "preloadPostHashes($threadDescriptor) got ${postHashes.size} hashes from DB, " +
+          "used ${loadedPostDescriptors.size}, took $duration")
+
+        return@tryWithTransaction loadedPostDescriptors
+      }
+    }
+  }
+
+  /**
+   * Returns the raw post hashes of a thread that were persisted alongside its posts. Unlike
+   * [preloadPostHashes] the hashes are not put into the cache, so it works for threads that are not
+   * cached (e.g. when downloading threads in the background).
+   * */
+  suspend fun getPersistedPostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): ModularResult<Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+    ensureBackgroundThread()
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction { localSource.getThreadPostHashes(threadDescriptor) }
+    }
+  }
+
   suspend fun getCatalogOriginalPosts(
     descriptor: ChanDescriptor.CatalogDescriptor,
     count: Int
@@ -364,19 +427,26 @@ class ChanPostRepository(
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
     ensureBackgroundThread()
 
+    Logger.d(TAG, "preloadForThread($threadDescriptor) begin")
+
+    // Read the snapshot outside of the database dispatcher so that it doesn't block other queries
+    val (postsFromSnapshot, snapshotReadTime) = measureTimedValue { threadSnapshotLocalSource.read(threadDescriptor) }
+    if (postsFromSnapshot != null) {
+      Logger.d(TAG, "preloadForThread($threadDescriptor) got ${postsFromSnapshot.size} from snapshot, " +
+        "took $snapshotReadTime")
+    }
+
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        Logger.d(TAG, "preloadForThread($threadDescriptor) begin")
-
         val time = measureTime {
-          val postsFromDatabase = localSource.getThreadPosts(threadDescriptor)
+          val threadPosts = getThreadPostsFromSnapshotOrDatabase(threadDescriptor, postsFromSnapshot)
 
-          Logger.d(TAG, "preloadForThread($threadDescriptor) got ${postsFromDatabase.size} from DB")
+          Logger.d(TAG, "preloadForThread($threadDescriptor) got ${threadPosts.size} posts")
 
-          if (postsFromDatabase.isNotEmpty()) {
+          if (threadPosts.isNotEmpty()) {
             chanThreadsCache.putManyThreadPostsIntoCache(
               threadDescriptor = threadDescriptor,
-              parsedPosts = postsFromDatabase,
+              parsedPosts = threadPosts,
               cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
               chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
               postsFromServerData = null
@@ -398,6 +468,15 @@ class ChanPostRepository(
 
     Logger.d(TAG, "getThreadPostBuilders(threadDescriptor=$threadDescriptor)")
 
+    val postsFromSnapshot = if (
+      postsToReloadOptions == PostsToReloadOptions.ReloadAll
+      && !chanThreadsCache.contains(threadDescriptor)
+    ) {
+      threadSnapshotLocalSource.read(threadDescriptor)
+    } else {
+      null
+    }
+
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         val postsFromCache = chanThreadsCache.getThread(threadDescriptor)?.let { thread ->
@@ -425,7 +504,7 @@ class ChanPostRepository(
             localSource.getThreadPosts(threadDescriptor, postDatabaseIds)
           }
           PostsToReloadOptions.ReloadAll -> {
-            localSource.getThreadPosts(threadDescriptor)
+            getThreadPostsFromSnapshotOrDatabase(threadDescriptor, postsFromSnapshot)
           }
         }
 
@@ -478,6 +557,12 @@ class ChanPostRepository(
 
     Logger.d(TAG, "getThreadPosts(threadDescriptor=$threadDescriptor)")
 
+    val postsFromSnapshot = if (!chanThreadsCache.contains(threadDescriptor)) {
+      threadSnapshotLocalSource.read(threadDescriptor)
+    } else {
+      null
+    }
+
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         val postsFromCache = chanThreadsCache.getThreadPosts(threadDescriptor)
@@ -485,7 +570,7 @@ class ChanPostRepository(
           return@tryWithTransaction postsFromCache
         }
 
-        val postsFromDatabase = localSource.getThreadPosts(threadDescriptor)
+        val postsFromDatabase = getThreadPostsFromSnapshotOrDatabase(threadDescriptor, postsFromSnapshot)
         if (postsFromDatabase.isEmpty()) {
           return@tryWithTransaction emptyList()
         }
@@ -518,6 +603,34 @@ class ChanPostRepository(
     }
   }
 
+  /**
+   * Stores the currently cached posts of a thread as a snapshot so that the next time this thread is
+   * opened after it was evicted from the posts cache it can be restored without going through the
+   * database (see [ThreadSnapshotLocalSource]).
+   * */
+  @OptIn(ExperimentalTime::class)
+  suspend fun storeThreadSnapshot(threadDescriptor: ChanDescriptor.ThreadDescriptor): ModularResult<Unit> {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+    ensureBackgroundThread()
+
+    if (!threadSnapshotLocalSource.isEnabled) {
+      return value(Unit)
+    }
+
+    return Try {
+      val posts = chanThreadsCache.getThreadPosts(threadDescriptor)
+      if (posts.isEmpty()) {
+        return@Try
+      }
+
+      val time = measureTime { threadSnapshotLocalSource.write(threadDescriptor, posts) }
+
+      if (isDevFlavor) {
+        Logger.d(TAG, "storeThreadSnapshot($threadDescriptor) ${posts.size} posts, took $time")
+      }
+    }
+  }
+
   suspend fun countThreadPosts(threadDatabaseId: Long): ModularResult<Int> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
@@ -535,6 +648,7 @@ class ChanPostRepository(
       return@dbCall tryWithTransaction {
         val result = localSource.deleteThread(threadDescriptor)
         chanThreadsCache.deleteThread(threadDescriptor)
+        threadSnapshotLocalSource.delete(threadDescriptor)
 
         return@tryWithTransaction result
       }
@@ -663,13 +777,14 @@ class ChanPostRepository(
 
   suspend fun insertOrUpdatePostsInDatabase(
     ownerThreadId: Long,
-    posts: List<ChanPost>
+    posts: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ): ModularResult<Unit> {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
-        return@tryWithTransaction localSource.insertThreadPosts(ownerThreadId, posts)
+        return@tryWithTransaction localSource.insertThreadPosts(ownerThreadId, posts, postHashes)
       }
     }
   }
@@ -686,106 +801,167 @@ class ChanPostRepository(
     }
   }
 
-  @OptIn(ExperimentalTime::class)
   suspend fun deleteOldPostsIfNeeded(forced: Boolean = false): ModularResult<ChanPostLocalSource.DeleteResult> {
-    return applicationScope.dbCall {
-      return@dbCall tryWithTransaction {
-        val totalAmountOfPostsInDatabase = localSource.countTotalAmountOfPosts()
-        if (totalAmountOfPostsInDatabase <= 0) {
-          Logger.d(TAG, "deleteOldPostsIfNeeded database is empty")
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
-        }
+    val result = deleteOldRowsIfNeeded(ChanThreadRetentionProgressEntity.Phase.Posts, forced)
+    if (result is ModularResult.Value) {
+      lastPostsDeleteResult = result.value
+    }
 
-        val maxPostsAmount = appConstants.maxAmountOfPostsInDatabase
+    return result
+  }
 
-        if (!forced && totalAmountOfPostsInDatabase < maxPostsAmount) {
-          Logger.d(TAG, "Not enough posts to start deleting, " +
-            "posts in database amount: $totalAmountOfPostsInDatabase, " +
-            "max allowed posts amount: $maxPostsAmount")
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
-        }
+  suspend fun deleteOldThreadsIfNeeded(forced: Boolean = false): ModularResult<ChanPostLocalSource.DeleteResult> {
+    val result = deleteOldRowsIfNeeded(ChanThreadRetentionProgressEntity.Phase.Threads, forced)
+    if (result is ModularResult.Value) {
+      lastThreadsDeleteResult = result.value
+    }
 
-        val postsInDatabaseToUse = if (forced) {
-          totalAmountOfPostsInDatabase
-        } else {
-          max(totalAmountOfPostsInDatabase, maxPostsAmount)
-        }
+    return result
+  }
+
+  /**
+   * Deletes old posts (or threads) in small batches, each one in its own short transaction, with a
+   * small pause between them so that thread loads, bookmark updates, etc. can get the database
+   * write lock in between. A deletion pass (a quarter of all posts/threads once the limit is
+   * exceeded) may take more than [RETENTION_RUN_BUDGET_MS], in that case it continues during the
+   * next app start from where it stopped (see [ChanThreadRetentionProgressEntity]).
+   * */
+  private suspend fun deleteOldRowsIfNeeded(
+    phase: ChanThreadRetentionProgressEntity.Phase,
+    forced: Boolean
+  ): ModularResult<ChanPostLocalSource.DeleteResult> {
+    return Try {
+      val startTime = System.currentTimeMillis()
 
-        val toDeleteCount = (postsInDatabaseToUse / 4)
-        if (toDeleteCount <= 0) {
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
+      var progress = applicationScope.dbCall {
+        return@dbCall tryWithTransaction {
+          return@tryWithTransaction localSource.getRetentionProgress(phase)
+            ?: startRetentionPassIfNeeded(phase, forced)
         }
+      }.unwrap()
+
+      if (progress == null) {
+        return@Try ChanPostLocalSource.DeleteResult()
+      }
+
+      Logger.d(TAG, "deleteOldRowsIfNeeded($phase) remainingToDelete=${progress.remainingToDelete}, " +
+        "cursor=(${progress.cursorLastModified}, ${progress.cursorThreadId})")
 
-        Logger.d(TAG, "Starting deleting $toDeleteCount posts " +
-          "(totalAmountOfPostsInDatabase = $totalAmountOfPostsInDatabase, " +
-          "maxPostsAmount = $maxPostsAmount)")
+      var deletedTotal = 0
+      var batchesCount = 0
+      var longestBatchMs = 0L
 
-        val (deleteMRResult, time) = measureTimedValue { Try { localSource.deleteOldPosts(toDeleteCount) } }
-        val deleteResult = if (deleteMRResult is ModularResult.Error) {
-          Logger.d(TAG, "Error while trying to delete old posts", deleteMRResult.error)
-          throw deleteMRResult.error
-        } else {
-          (deleteMRResult as ModularResult.Value).value
+      while (progress != null) {
+        if (System.currentTimeMillis() - startTime > RETENTION_RUN_BUDGET_MS) {
+          Logger.d(TAG, "deleteOldRowsIfNeeded($phase) out of time, will continue during the next run")
+          break
         }
 
-        val newAmount = localSource.countTotalAmountOfPosts()
-        Logger.d(TAG, "Deleted ${deleteResult.deletedTotal} posts, " +
-          "skipped ${deleteResult.skippedTotal} posts, $newAmount posts left, took $time")
+        val currentProgress: ChanThreadRetentionProgressEntity = progress
 
-        return@tryWithTransaction deleteResult
-      }
-    }
-  }
+        val (batchResult, batchTimeMs) = applicationScope.dbCall {
+          return@dbCall tryWithTransaction {
+            val batchStartTime = System.currentTimeMillis()
 
-  @OptIn(ExperimentalTime::class)
-  suspend fun deleteOldThreadsIfNeeded(forced: Boolean = false): ModularResult<ChanPostLocalSource.DeleteResult> {
-    return applicationScope.dbCall {
-      return@dbCall tryWithTransaction {
-        val totalAmountOfThreadsInDatabase = localSource.countTotalAmountOfThreads()
-        if (totalAmountOfThreadsInDatabase <= 0) {
-          Logger.d(TAG, "deleteOldThreadsIfNeeded database is empty")
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
-        }
+            val batchResult = when (phase) {
+              ChanThreadRetentionProgressEntity.Phase.Posts -> localSource.deleteOldPostsBatch(currentProgress)
+              ChanThreadRetentionProgressEntity.Phase.Threads -> localSource.deleteOldThreadsBatch(currentProgress)
+            }
 
-        val maxThreadsAmount = appConstants.maxAmountOfThreadsInDatabase
+            return@tryWithTransaction batchResult to (System.currentTimeMillis() - batchStartTime)
+          }
+        }.unwrap()
 
-        if (!forced && totalAmountOfThreadsInDatabase < maxThreadsAmount) {
-          Logger.d(TAG, "Not enough threads to start deleting, " +
-            "threads in database amount: $totalAmountOfThreadsInDatabase, " +
-            "max allowed threads amount: $maxThreadsAmount")
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
+        // Otherwise the snapshots would bring the deleted posts back the next time these threads are
+        // opened
+        batchResult.threadDescriptors.forEach { threadDescriptor ->
+          threadSnapshotLocalSource.delete(threadDescriptor)
         }
 
-        val threadsInDatabaseToUse = if (forced) {
-          totalAmountOfThreadsInDatabase
-        } else {
-          max(totalAmountOfThreadsInDatabase, maxThreadsAmount)
-        }
+        deletedTotal += batchResult.deletedCount
+        longestBatchMs = max(longestBatchMs, batchTimeMs)
+        ++batchesCount
 
-        val toDeleteCount = (threadsInDatabaseToUse / 4)
-        if (toDeleteCount <= 0) {
-          return@tryWithTransaction ChanPostLocalSource.DeleteResult()
+        progress = batchResult.progress
+        if (progress != null) {
+          // Let whoever is waiting for the database take the write lock
+          delay(DELAY_BETWEEN_RETENTION_BATCHES_MS)
         }
+      }
 
-        Logger.d(TAG, "Starting deleting $toDeleteCount threads " +
-          "(totalAmountOfThreadsInDatabase = $totalAmountOfThreadsInDatabase, " +
-          "maxThreadsAmount = $maxThreadsAmount)")
+      val deleteResult = ChanPostLocalSource.DeleteResult(
+        deletedTotal = deletedTotal,
+        remainingTotal = progress?.remainingToDelete ?: 0,
+        batchesCount = batchesCount,
+        longestBatchMs = longestBatchMs,
+        tookMs = System.currentTimeMillis() - startTime
+      )
 
-        val (deleteMRResult, time) = measureTimedValue { Try { localSource.deleteOldThreads(toDeleteCount) } }
-        val deleteResult = if (deleteMRResult is ModularResult.Error) {
-          Logger.d(TAG, "Error while trying to delete old threads", deleteMRResult.error)
-          throw deleteMRResult.error
-        } else {
-          (deleteMRResult as ModularResult.Value).value
-        }
+      Logger.d(TAG, "deleteOldRowsIfNeeded($phase) done, deleteResult=${deleteResult}, " +
+        "deletedPerSecond=${deleteResult.deletedPerSecond()}")
 
-        val newAmount = localSource.countTotalAmountOfThreads()
-        Logger.d(TAG, "Deleted ${deleteResult.deletedTotal} threads, " +
-          "skipped ${deleteResult.skippedTotal} threads, $newAmount threads left, took $time")
+      return@Try deleteResult
+    }
+  }
 
-        return@tryWithTransaction deleteResult
+  private suspend fun startRetentionPassIfNeeded(
+    phase: ChanThreadRetentionProgressEntity.Phase,
+    forced: Boolean
+  ): ChanThreadRetentionProgressEntity? {
+    val (totalAmountInDatabase, maxAmount) = when (phase) {
+      ChanThreadRetentionProgressEntity.Phase.Posts -> {
+        localSource.countTotalAmountOfPosts() to appConstants.maxAmountOfPostsInDatabase
       }
+      ChanThreadRetentionProgressEntity.Phase.Threads -> {
+        localSource.countTotalAmountOfThreads() to appConstants.maxAmountOfThreadsInDatabase
+      }
+    }
+
+    if (totalAmountInDatabase <= 0) {
+      Logger.d(TAG, "startRetentionPassIfNeeded($phase) database is empty")
+      return null
+    }
+
+    if (!forced && totalAmountInDatabase < maxAmount) {
+      Logger.d(TAG, "startRetentionPassIfNeeded($phase) nothing to delete, " +
+        "amount in database: $totalAmountInDatabase, max allowed amount: $maxAmount")
+      return null
+    }
+
+    val amountInDatabaseToUse = if (forced) {
+      totalAmountInDatabase
+    } else {
+      max(totalAmountInDatabase, maxAmount)
+    }
+
+    val toDeleteCount = (amountInDatabaseToUse / 4)
+    if (toDeleteCount <= 0) {
+      return null
     }
+
+    Logger.d(TAG, "startRetentionPassIfNeeded($phase) starting deleting $toDeleteCount rows " +
+      "(amount in database: $totalAmountInDatabase, max allowed amount: $maxAmount)")
+
+    return localSource.startRetentionPass(phase, toDeleteCount)
+  }
+
+  /**
+   * Snapshots are written after every successful thread load while the database only gets updated
+   * by the thread downloader so the snapshot is normally the freshest local copy of a thread. We
+   * still check the number of posts in the database (cheap) in case the database has more posts
+   * (e.g. the snapshot was written before the thread downloader has updated the thread).
+   * */
+  private suspend fun getThreadPostsFromSnapshotOrDatabase(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postsFromSnapshot: List<ChanPost>?
+  ): List<ChanPost> {
+    val threadDatabaseId = chanDescriptorCache.getThreadIdByThreadDescriptor(threadDescriptor)?.id
+
+    return localSource.getThreadPostsFromSnapshotOrDatabase(
+      threadDescriptor = threadDescriptor,
+      threadDatabaseId = threadDatabaseId,
+      postsFromSnapshot = postsFromSnapshot
+    )
   }
 
   private fun postDiffersFromCached(chanPost: ChanPost): Boolean {
@@ -813,4 +989,9 @@ class ChanPostRepository(
     return false
   }
 
-}
\ No newline at end of file
+  companion object {
+    private const val RETENTION_RUN_BUDGET_MS = 30_000L
+    private const val DELAY_BETWEEN_RETENTION_BATCHES_MS = 20L
+  }
+
+}
@@ -1,18 +1,26 @@
 package com.github.k1rakishou.model.repository
 
 import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.source.cache.SavedReplyPostNoIndex
 import com.github.k1rakishou.model.source.local.ChanSavedReplyLocalSource
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 
 class ChanSavedReplyRepository(
   database: KurobaDatabase,
   private val applicationScope: CoroutineScope,
   private val localSource: ChanSavedReplyLocalSource
 ) : AbstractRepository(database) {
+  private val savedReplyPostNoIndex = SavedReplyPostNoIndex()
+  private val savedReplyPostNoIndexMutex = Mutex()
+  @Volatile
+  private var savedReplyPostNoIndexLoaded = false
 
   suspend fun loadAll(): ModularResult<List<ChanSavedReply>> {
     return applicationScope.dbCall {
@@ -30,12 +38,24 @@ class ChanSavedReplyRepository(
     }
   }
 
+  /**
+   * Returns sorted numbers of our own posts in [threadDescriptor] (or an empty array if we have
+   * not posted there) without touching the database (except for the very first call which loads
+   * the index).
+   * */
+  suspend fun getSavedPostNosForThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): ModularResult<LongArray> {
+    return ModularResult.Try {
+      ensureSavedReplyPostNoIndexLoaded()
+      return@Try savedReplyPostNoIndex.get(threadDescriptor)
+    }
+  }
+
   suspend fun unsavePosts(postDescriptors: Collection<PostDescriptor>): ModularResult<Unit> {
     return applicationScope.dbCall {
       return@dbCall tryWithTransaction {
         return@tryWithTransaction localSource.unsavePosts(postDescriptors)
       }
-    }
+    }.peekValue { savedReplyPostNoIndex.remove(postDescriptors) }
   }
 
   suspend fun unsaveAll(): ModularResult<Unit> {
@@ -43,7 +63,7 @@ class ChanSavedReplyRepository(
       return@dbCall tryWithTransaction {
         return@tryWithTransaction localSource.unsaveAll()
       }
-    }
+    }.peekValue { savedReplyPostNoIndex.clear() }
   }
 
   suspend fun savePost(chanSavedReply: ChanSavedReply): ModularResult<Unit> {
@@ -51,6 +71,24 @@ class ChanSavedReplyRepository(
       return@dbCall tryWithTransaction {
         return@tryWithTransaction localSource.savePost(chanSavedReply)
       }
+    }.peekValue { savedReplyPostNoIndex.putAll(listOf(chanSavedReply.postDescriptor)) }
+  }
+
+  private suspend fun ensureSavedReplyPostNoIndexLoaded() {
+    if (savedReplyPostNoIndexLoaded) {
+      return
+    }
+
+    savedReplyPostNoIndexMutex.withLock {
+      if (savedReplyPostNoIndexLoaded) {
+        return
+      }
+
+      val allSavedReplies = loadAll().unwrap()
+      savedReplyPostNoIndex.putAll(allSavedReplies.map { chanSavedReply -> chanSavedReply.postDescriptor })
+      savedReplyPostNoIndexLoaded = true
+
+      Logger.d(TAG, "ensureSavedReplyPostNoIndexLoaded() loaded ${allSavedReplies.size} saved replies")
     }
   }
 
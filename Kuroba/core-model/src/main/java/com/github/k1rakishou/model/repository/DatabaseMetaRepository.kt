@@ -4,6 +4,7 @@ import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.model.KurobaDatabase
 import com.github.k1rakishou.model.source.local.DatabaseMetaLocalSource
 import kotlinx.coroutines.CoroutineScope
+import java.io.File
 
 class DatabaseMetaRepository(
   database: KurobaDatabase,
@@ -18,4 +19,10 @@ class DatabaseMetaRepository(
     }
   }
 
+  suspend fun vacuumInto(outputFile: File): ModularResult<Unit> {
+    return applicationScope.dbCall {
+      return@dbCall ModularResult.Try { localSource.vacuumInto(outputFile) }
+    }
+  }
+
 }
\ No newline at end of file
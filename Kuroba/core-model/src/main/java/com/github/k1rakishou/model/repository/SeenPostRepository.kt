@@ -31,6 +31,23 @@ class SeenPostRepository(
     }
   }
 
+  /**
+   * Persists seen posts of multiple threads in one transaction.
+   * */
+  suspend fun insertMany(
+    seenPostsByThread: Map<ChanDescriptor.ThreadDescriptor, Collection<SeenPost>>
+  ): ModularResult<Unit> {
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        seenPostLocalRepositoryCleanup()
+
+        seenPostsByThread.forEach { (threadDescriptor, seenPosts) ->
+          seenPostLocalSource.insertMany(threadDescriptor, seenPosts)
+        }
+      }
+    }
+  }
+
   suspend fun selectAllByThreadDescriptor(
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ): ModularResult<List<SeenPost>> {
@@ -0,0 +1,132 @@
+package com.github.k1rakishou.model.repository
+
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.options.ChanCacheOptions
+import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import com.github.k1rakishou.model.data.thread.ChanThreadViewableInfo
+import com.github.k1rakishou.model.data.thread.ThreadOpenState
+import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import com.github.k1rakishou.model.source.local.ChanPostHideLocalSource
+import com.github.k1rakishou.model.source.local.ChanPostLocalSource
+import com.github.k1rakishou.model.source.local.ChanSavedReplyLocalSource
+import com.github.k1rakishou.model.source.local.ChanThreadViewableInfoLocalSource
+import com.github.k1rakishou.model.source.local.SeenPostLocalSource
+import com.github.k1rakishou.model.source.local.ThreadSnapshotLocalSource
+import com.github.k1rakishou.model.util.ensureBackgroundThread
+import kotlinx.coroutines.CoroutineScope
+import kotlin.time.ExperimentalTime
+import kotlin.time.measureTimedValue
+
+/**
+ * Loads everything that is needed to show a thread (posts, seen posts, scroll position, saved
+ * replies and post hides) in one transaction. The thread's database id is only resolved once
+ * (and usually comes from [ChanDescriptorCache]) instead of every part of the state looking up the
+ * board and the thread separately in its own transaction.
+ * */
+class ThreadOpenStateRepository(
+  database: KurobaDatabase,
+  private val applicationScope: CoroutineScope,
+  private val chanDescriptorCache: ChanDescriptorCache,
+  private val chanThreadsCache: ChanThreadsCache,
+  private val threadSnapshotLocalSource: ThreadSnapshotLocalSource,
+  private val chanPostLocalSource: ChanPostLocalSource,
+  private val seenPostLocalSource: SeenPostLocalSource,
+  private val chanThreadViewableInfoLocalSource: ChanThreadViewableInfoLocalSource,
+  private val chanSavedReplyLocalSource: ChanSavedReplyLocalSource,
+  private val chanPostHideLocalSource: ChanPostHideLocalSource
+) : AbstractRepository(database) {
+  private val TAG = "ThreadOpenStateRepository"
+
+  /**
+   * Thread posts are put straight into [ChanThreadsCache] (only in memory, just like
+   * [ChanPostRepository.preloadForThread] does), everything else is returned to the caller.
+   * */
+  @OptIn(ExperimentalTime::class)
+  suspend fun loadThreadOpenState(request: ThreadOpenState.Request): ModularResult<ThreadOpenState> {
+    ensureBackgroundThread()
+
+    val threadDescriptor = request.threadDescriptor
+
+    // Read the snapshot outside of the database dispatcher so that it doesn't block other queries
+    val postsFromSnapshot = if (request.loadThreadPosts) {
+      threadSnapshotLocalSource.read(threadDescriptor)
+    } else {
+      null
+    }
+
+    return applicationScope.dbCall {
+      return@dbCall tryWithTransaction {
+        val (threadOpenState, time) = measureTimedValue {
+          val threadDatabaseId = chanDescriptorCache.getThreadIdByThreadDescriptor(threadDescriptor)?.id
+
+          val threadPosts = if (request.loadThreadPosts) {
+            chanPostLocalSource.getThreadPostsFromSnapshotOrDatabase(
+              threadDescriptor = threadDescriptor,
+              threadDatabaseId = threadDatabaseId,
+              postsFromSnapshot = postsFromSnapshot
+            )
+          } else {
+            null
+          }
+
+          val seenPosts = if (request.loadSeenPosts) {
+            threadDatabaseId
+              ?.let { threadId -> seenPostLocalSource.selectAllByThreadId(threadDescriptor, threadId) }
+              ?: emptyList()
+          } else {
+            null
+          }
+
+          val chanThreadViewableInfo = if (request.loadViewableInfo) {
+            threadDatabaseId
+              ?.let { threadId -> chanThreadViewableInfoLocalSource.preloadForThread(threadDescriptor, threadId) }
+              ?: ChanThreadViewableInfo(threadDescriptor)
+          } else {
+            null
+          }
+
+          val savedReplies = if (request.loadSavedReplies) {
+            chanSavedReplyLocalSource.preloadForThread(threadDescriptor)
+          } else {
+            null
+          }
+
+          val postHides = if (request.loadPostHides) {
+            chanPostHideLocalSource.preloadForThread(threadDescriptor)
+          } else {
+            null
+          }
+
+          if (threadPosts != null && threadPosts.isNotEmpty()) {
+            chanThreadsCache.putManyThreadPostsIntoCache(
+              threadDescriptor = threadDescriptor,
+              parsedPosts = threadPosts,
+              cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
+              chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
+              postsFromServerData = null
+            )
+          }
+
+          return@measureTimedValue ThreadOpenState(
+            threadDescriptor = threadDescriptor,
+            threadPostsCount = threadPosts?.size,
+            seenPosts = seenPosts,
+            chanThreadViewableInfo = chanThreadViewableInfo,
+            savedReplies = savedReplies,
+            postHides = postHides
+          )
+        }
+
+        Logger.d(TAG, "loadThreadOpenState($threadDescriptor) posts=${threadOpenState.threadPostsCount}, " +
+          "seenPosts=${threadOpenState.seenPosts?.size}, savedReplies=${threadOpenState.savedReplies?.size}, " +
+          "postHides=${threadOpenState.postHides?.size}, took $time")
+
+        return@tryWithTransaction threadOpenState
+      }
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+package com.github.k1rakishou.model.source.cache
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.common.mutableMapWithCap
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import java.util.*
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Thread -> numbers of our own (saved) posts in that thread. Numbers are stored as sorted LongArrays
+ * so that checking whether a post number belongs to us is a binary search without any boxing. The
+ * arrays are never modified in place (every update creates a new array) so they can safely be
+ * handed out to the callers.
+ * */
+class SavedReplyPostNoIndex {
+  private val lock = ReentrantReadWriteLock()
+
+  @GuardedBy("lock")
+  private val postNosByThread = mutableMapWithCap<ChanDescriptor.ThreadDescriptor, LongArray>(64)
+
+  fun get(threadDescriptor: ChanDescriptor.ThreadDescriptor): LongArray {
+    return lock.read { postNosByThread[threadDescriptor] ?: EMPTY }
+  }
+
+  fun putAll(postDescriptors: Collection<PostDescriptor>) {
+    if (postDescriptors.isEmpty()) {
+      return
+    }
+
+    lock.write {
+      postDescriptors
+        .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
+        .forEach { (threadDescriptor, threadPostDescriptors) ->
+          val oldPostNos = postNosByThread[threadDescriptor] ?: EMPTY
+          val newPostNos = LongArray(oldPostNos.size + threadPostDescriptors.size)
+
+          oldPostNos.copyInto(newPostNos)
+          threadPostDescriptors.forEachIndexed { index, postDescriptor ->
+            newPostNos[oldPostNos.size + index] = postDescriptor.postNo
+          }
+
+          postNosByThread[threadDescriptor] = sortedDistinct(newPostNos)
+        }
+    }
+  }
+
+  fun remove(postDescriptors: Collection<PostDescriptor>) {
+    if (postDescriptors.isEmpty()) {
+      return
+    }
+
+    lock.write {
+      postDescriptors
+        .groupBy { postDescriptor -> postDescriptor.threadDescriptor() }
+        .forEach { (threadDescriptor, threadPostDescriptors) ->
+          val oldPostNos = postNosByThread[threadDescriptor]
+            ?: return@forEach
+
+          val toRemove = threadPostDescriptors
+            .map { postDescriptor -> postDescriptor.postNo }
+            .toSet()
+
+          val newPostNos = oldPostNos.filter { postNo -> postNo !in toRemove }.toLongArray()
+          if (newPostNos.isEmpty()) {
+            postNosByThread.remove(threadDescriptor)
+          } else {
+            postNosByThread[threadDescriptor] = newPostNos
+          }
+        }
+    }
+  }
+
+  fun clear() {
+    lock.write { postNosByThread.clear() }
+  }
+
+  private fun sortedDistinct(postNos: LongArray): LongArray {
+    Arrays.sort(postNos)
+
+    var size = 0
+    for (index in postNos.indices) {
+      if (size == 0 || postNos[size - 1] != postNos[index]) {
+        postNos[size++] = postNos[index]
+      }
+    }
+
+    return if (size == postNos.size) {
+      postNos
+    } else {
+      postNos.copyOf(size)
+    }
+  }
+
+  companion object {
+    private val EMPTY = LongArray(0)
+  }
+
+}
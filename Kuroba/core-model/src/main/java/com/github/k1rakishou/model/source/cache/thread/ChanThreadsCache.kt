@@ -56,6 +56,17 @@ class ChanThreadsCache(
     chanThreads.values.forEach { chanThread -> chanThread.clearPostHashes() }
   }
 
+  fun persistedPostHashesLoaded(threadDescriptor: ChanDescriptor.ThreadDescriptor): Boolean {
+    return chanThreads[threadDescriptor]?.persistedPostHashesLoaded() ?: false
+  }
+
+  fun putPersistedPostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash>
+  ): Set<PostDescriptor> {
+    return chanThreads[threadDescriptor]?.putPersistedPostHashes(postHashes) ?: emptySet()
+  }
+
   fun cacheNeedsUpdate(
     chanDescriptor: ChanDescriptor,
     chanCacheUpdateOptions: ChanCacheUpdateOptions
@@ -5,6 +5,7 @@ import com.github.k1rakishou.model.data.board.ChanBoard
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
 import com.github.k1rakishou.model.data.id.BoardDBId
+import com.github.k1rakishou.model.entity.chan.board.ChanBoardFull
 import com.github.k1rakishou.model.mapper.ChanBoardMapper
 import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
 
@@ -16,18 +17,31 @@ class BoardLocalSource(
   private val TAG = "BoardLocalSource"
   private val chanBoardDao = database.chanBoardDao()
 
-  suspend fun selectAllBoards(): Map<SiteDescriptor, List<ChanBoard>> {
+  suspend fun selectActiveBoards(): Map<SiteDescriptor, List<ChanBoard>> {
     ensureInTransaction()
-    val allActiveBoards = chanBoardDao.selectAllBoards()
+    return mapBoards(chanBoardDao.selectBoardsByActiveState(active = true))
+  }
+
+  suspend fun selectInactiveBoards(siteDescriptor: SiteDescriptor): List<ChanBoard> {
+    ensureInTransaction()
+
+    val inactiveBoards = chanBoardDao.selectSiteBoardsByActiveState(
+      siteName = siteDescriptor.siteName,
+      active = false
+    )
+
+    return mapBoards(inactiveBoards)[siteDescriptor] ?: emptyList()
+  }
 
-    allActiveBoards.forEach { chanBoardFull ->
+  private fun mapBoards(chanBoardFullList: List<ChanBoardFull>): Map<SiteDescriptor, List<ChanBoard>> {
+    chanBoardFullList.forEach { chanBoardFull ->
       chanDescriptorCache.putBoardDescriptor(
         BoardDBId(chanBoardFull.chanBoardIdEntity.boardId),
         chanBoardFull.chanBoardIdEntity.boardDescriptor()
       )
     }
 
-    return allActiveBoards
+    return chanBoardFullList
       .mapNotNull { chanBoardFull -> ChanBoardMapper.fromChanBoardEntity(chanBoardFull) }
       .groupBy { it.boardDescriptor.siteDescriptor }
   }
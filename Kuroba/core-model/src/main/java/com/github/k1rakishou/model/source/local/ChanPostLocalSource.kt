@@ -1,5 +1,6 @@
 package com.github.k1rakishou.model.source.local
 
+import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.common.flatMapIndexed
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
@@ -11,20 +12,20 @@ import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.entity.chan.post.ChanPostFull
+import com.github.k1rakishou.model.entity.chan.post.ChanPostHashEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostHttpIconEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostIdEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostImageEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanPostReplyEntity
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 import com.github.k1rakishou.model.entity.chan.thread.ChanThreadEntity
-import com.github.k1rakishou.model.entity.view.ChanThreadsWithPosts
-import com.github.k1rakishou.model.entity.view.OldChanPostThread
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionCandidate
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionProgressEntity
 import com.github.k1rakishou.model.mapper.ChanPostEntityMapper
 import com.github.k1rakishou.model.mapper.ChanPostHttpIconMapper
 import com.github.k1rakishou.model.mapper.ChanPostImageMapper
 import com.github.k1rakishou.model.mapper.ChanThreadMapper
 import com.github.k1rakishou.model.mapper.TextSpanMapper
-import java.util.concurrent.TimeUnit
 
 class ChanPostLocalSource(
   database: KurobaDatabase
@@ -37,6 +38,8 @@ class ChanPostLocalSource(
   private val chanPostHttpIconDao = database.chanPostHttpIconDao()
   private val chanTextSpanDao = database.chanTextSpanDao()
   private val chanPostReplyDao = database.chanPostReplyDao()
+  private val chanPostHashDao = database.chanPostHashDao()
+  private val chanThreadRetentionProgressDao = database.chanThreadRetentionProgressDao()
 
   suspend fun insertEmptyThread(threadDescriptor: ChanDescriptor.ThreadDescriptor): Long? {
     ensureInTransaction()
@@ -149,7 +152,11 @@ class ChanPostLocalSource(
     insertPostsInternal(chanPostIdEntities, chanPostList)
   }
 
-  suspend fun insertThreadPosts(ownerThreadId: Long, chanPostList: List<ChanPost>) {
+  suspend fun insertThreadPosts(
+    ownerThreadId: Long,
+    chanPostList: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
+  ) {
     ensureInTransaction()
 
     val chanPostIdEntities = chanPostList.map { chanPost ->
@@ -161,12 +168,13 @@ class ChanPostLocalSource(
       )
     }
 
-    insertPostsInternal(chanPostIdEntities, chanPostList)
+    insertPostsInternal(chanPostIdEntities, chanPostList, postHashes)
   }
 
   private suspend fun insertPostsInternal(
     chanPostIdEntities: List<ChanPostIdEntity>,
-    chanPostList: List<ChanPost>
+    chanPostList: List<ChanPost>,
+    postHashes: Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> = emptyMap()
   ) {
     chanPostDao.insertOrReplaceManyIds(chanPostIdEntities).forEachIndexed { index, postDatabaseId ->
       chanPostIdEntities[index].postId = postDatabaseId
@@ -220,6 +228,23 @@ class ChanPostLocalSource(
         }.toList()
       }
     )
+
+    if (postHashes.isNotEmpty()) {
+      // Post ids are re-inserted with the REPLACE strategy which deletes the old hashes (via cascade)
+      // so we need to insert them every time we insert the posts.
+      chanPostHashDao.insertMany(
+        chanPostIdEntities.mapIndexedNotNull { index, chanPostIdEntity ->
+          val postHash = postHashes[chanPostList[index].postDescriptor]
+            ?: return@mapIndexedNotNull null
+
+          return@mapIndexedNotNull ChanPostHashEntity(
+            ownerPostId = chanPostIdEntity.postId,
+            hashPart1 = postHash.val1,
+            hashPart2 = postHash.val2
+          )
+        }
+      )
+    }
   }
 
   private suspend fun insertPostSpannables(
@@ -454,6 +479,54 @@ class ChanPostLocalSource(
     val chanThreadEntity = getThreadByThreadDescriptor(descriptor)
       ?: return emptyList()
 
+    return getThreadPostsInternal(descriptor, chanThreadEntity, postDatabaseIds)
+  }
+
+  suspend fun getThreadPostsByThreadDatabaseId(
+    descriptor: ChanDescriptor.ThreadDescriptor,
+    threadDatabaseId: Long
+  ): List<ChanPost> {
+    ensureInTransaction()
+
+    val chanThreadEntity = chanThreadDao.select(threadDatabaseId)
+      ?: return emptyList()
+
+    return getThreadPostsInternal(descriptor, chanThreadEntity, emptyList())
+  }
+
+  /**
+   * Returns [postsFromSnapshot] when the snapshot is up to date (the database doesn't have more
+   * posts than the snapshot), otherwise loads the thread posts from the database.
+   * */
+  suspend fun getThreadPostsFromSnapshotOrDatabase(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    threadDatabaseId: Long?,
+    postsFromSnapshot: List<ChanPost>?
+  ): List<ChanPost> {
+    ensureInTransaction()
+
+    if (threadDatabaseId == null) {
+      return postsFromSnapshot ?: emptyList()
+    }
+
+    if (postsFromSnapshot != null && postsFromSnapshot.isNotEmpty()) {
+      val postsInDatabase = chanPostDao.countThreadPosts(threadDatabaseId)
+      if (postsInDatabase <= postsFromSnapshot.size) {
+        return postsFromSnapshot
+      }
+
+      Logger.d(TAG, "getThreadPostsFromSnapshotOrDatabase($threadDescriptor) snapshot is outdated " +
+        "(snapshot posts: ${postsFromSnapshot.size}, database posts: ${postsInDatabase})")
+    }
+
+    return getThreadPostsByThreadDatabaseId(threadDescriptor, threadDatabaseId)
+  }
+
+  private suspend fun getThreadPostsInternal(
+    descriptor: ChanDescriptor.ThreadDescriptor,
+    chanThreadEntity: ChanThreadEntity,
+    postDatabaseIds: Collection<Long>
+  ): List<ChanPost> {
     val originalPost = chanPostDao.selectOriginalPost(chanThreadEntity.threadId)
       ?: return emptyList()
 
@@ -503,6 +576,35 @@ class ChanPostLocalSource(
       }
   }
 
+  suspend fun getThreadPostHashes(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): Map<PostDescriptor, MurmurHashUtils.Murmur3Hash> {
+    ensureInTransaction()
+
+    val chanThreadEntity = getThreadByThreadDescriptor(threadDescriptor)
+      ?: return emptyMap()
+
+    val threadPostHashes = chanPostHashDao.selectThreadPostHashes(chanThreadEntity.threadId)
+    if (threadPostHashes.isEmpty()) {
+      return emptyMap()
+    }
+
+    val resultMap = mutableMapWithCap<PostDescriptor, MurmurHashUtils.Murmur3Hash>(threadPostHashes.size)
+
+    threadPostHashes.forEach { threadPostHash ->
+      val postDescriptor = PostDescriptor.create(
+        threadDescriptor,
+        threadDescriptor.threadNo,
+        threadPostHash.postNo,
+        threadPostHash.postSubNo
+      )
+
+      resultMap[postDescriptor] = MurmurHashUtils.Murmur3Hash(threadPostHash.hashPart1, threadPostHash.hashPart2)
+    }
+
+    return resultMap
+  }
+
   private suspend fun getPostsAdditionalData(postIdList: List<Long>): PostAdditionalData {
     ensureInTransaction()
 
@@ -737,137 +839,141 @@ class ChanPostLocalSource(
     }
   }
 
-  suspend fun deleteOldPosts(toDeleteCount: Int): DeleteResult {
+  suspend fun getRetentionProgress(
+    phase: ChanThreadRetentionProgressEntity.Phase
+  ): ChanThreadRetentionProgressEntity? {
     ensureInTransaction()
-    require(toDeleteCount > 0) { "Bad toDeleteCount: $toDeleteCount" }
-
-    var deletedTotal = 0
-    var skippedTotal = 0
-    var offset = 0
-    val startTime = System.currentTimeMillis()
 
-    do {
-      if (System.currentTimeMillis() - startTime > TEN_SECONDS) {
-        Logger.d(TAG, "deleteOldPosts() execution took more than ${TEN_SECONDS} millis, exiting early")
-        break
-      }
+    return chanThreadRetentionProgressDao.select(phase.value)
+  }
 
-      val threadBatch = chanThreadDao.selectThreadsWithPostsOtherThanOp(offset, ENTITIES_IN_BATCH)
-      if (threadBatch.isEmpty()) {
-        Logger.d(TAG, "deleteOldPosts() selectThreadsWithPostsOtherThanOp returned empty list")
-        return DeleteResult(deletedTotal, skippedTotal)
-      }
+  suspend fun startRetentionPass(
+    phase: ChanThreadRetentionProgressEntity.Phase,
+    toDeleteCount: Int
+  ): ChanThreadRetentionProgressEntity {
+    ensureInTransaction()
+    require(toDeleteCount > 0) { "Bad toDeleteCount: $toDeleteCount" }
 
-      val chanThreads = mutableSetOf<ChanThreadsWithPosts>()
+    val progress = ChanThreadRetentionProgressEntity(
+      phase = phase.value,
+      cursorLastModified = Long.MIN_VALUE,
+      cursorThreadId = Long.MIN_VALUE,
+      remainingToDelete = toDeleteCount
+    )
 
-      for (thread in threadBatch) {
-        if (thread.threadBookmarkId != null) {
-          skippedTotal += thread.postsCount
+    chanThreadRetentionProgressDao.insertOrReplace(progress)
+    return progress
+  }
 
-          Logger.d(TAG, "deleteOldPosts() skipping bookmarked thread " +
-            "(threadNo = ${thread.threadNo}, posts count = ${thread.postsCount})")
-          continue
-        }
+  /**
+   * Deletes all posts but the original post of the oldest threads after the cursor of [progress]
+   * until either around [MAX_POSTS_PER_BATCH] posts are deleted (a single thread is never split) or
+   * the pass is done. Meant to be called once per transaction so that the write lock is only held
+   * for a short amount of time. The progress is updated in the same transaction.
+   * */
+  suspend fun deleteOldPostsBatch(progress: ChanThreadRetentionProgressEntity): RetentionBatchResult {
+    ensureInTransaction()
+    require(progress.phase == ChanThreadRetentionProgressEntity.Phase.Posts.value) {
+      "Bad phase: ${progress.phase}"
+    }
 
-        if (thread.threadDownloadId != null) {
-          skippedTotal += thread.postsCount
+    val candidates = chanThreadDao.selectOldThreadsWithPosts(
+      cursorLastModified = progress.cursorLastModified,
+      cursorThreadId = progress.cursorThreadId,
+      count = THREADS_PER_BATCH
+    )
 
-          Logger.d(TAG, "deleteOldPosts() skipping downloading thread " +
-            "(threadNo = ${thread.threadNo}, posts count = ${thread.postsCount})")
-          continue
-        }
+    if (candidates.isEmpty()) {
+      Logger.d(TAG, "deleteOldPostsBatch() no more threads to delete posts from")
+      return finishRetentionBatch(progress, null, 0, emptyList(), exhausted = true)
+    }
 
-        if (deletedTotal >= toDeleteCount) {
-          Logger.d(TAG, "deleteOldPosts() Deleted enough posts " +
-            "(posts count = ${thread.postsCount}), exiting early")
-          break
-        }
+    val threadIds = mutableSetOf<Long>()
+    val threadDescriptors = mutableListOf<ChanDescriptor.ThreadDescriptor>()
+    var lastCandidate = candidates.first()
+    var postsToDelete = 0
 
-        chanThreads += thread
-        deletedTotal += thread.postsCount
+    for (candidate in candidates) {
+      if (threadIds.isNotEmpty() && postsToDelete + candidate.postsCount > MAX_POSTS_PER_BATCH) {
+        break
       }
 
-      if (chanThreads.isNotEmpty()) {
-        val threadIdSet = chanThreads
-          .map { chanThreadsWithPosts -> chanThreadsWithPosts.threadId }
-          .toSet()
+      threadIds += candidate.threadId
+      threadDescriptors += candidate.toThreadDescriptor()
+      postsToDelete += candidate.postsCount
+      lastCandidate = candidate
 
-        val totalPosts = chanThreads
-          .sumBy { chanThreadsWithPosts -> chanThreadsWithPosts.postsCount }
-
-        Logger.d(TAG, "deleteOldPosts() deleting a batch of ${threadIdSet.size} threads with ${totalPosts} posts")
-        chanPostDao.deletePostsByThreadIds(threadIdSet)
+      if (postsToDelete >= progress.remainingToDelete) {
+        break
       }
+    }
 
-      offset += threadBatch.size
-    } while (deletedTotal < toDeleteCount)
+    val deletedCount = chanPostDao.deletePostsByThreadIds(threadIds)
+    val exhausted = candidates.size < THREADS_PER_BATCH && lastCandidate === candidates.last()
 
-    return DeleteResult(deletedTotal, skippedTotal)
+    return finishRetentionBatch(progress, lastCandidate, deletedCount, threadDescriptors, exhausted)
   }
 
-  suspend fun deleteOldThreads(toDeleteCount: Int): DeleteResult {
+  /**
+   * Same as [deleteOldPostsBatch] but deletes the oldest threads that only have the original post
+   * left.
+   * */
+  suspend fun deleteOldThreadsBatch(progress: ChanThreadRetentionProgressEntity): RetentionBatchResult {
     ensureInTransaction()
-    require(toDeleteCount > 0) { "Bad toDeleteCount: $toDeleteCount" }
-
-    var deletedTotal = 0
-    var skippedTotal = 0
-    var offset = 0
-    val startTime = System.currentTimeMillis()
-
-    do {
-      if (System.currentTimeMillis() - startTime > TEN_SECONDS) {
-        Logger.d(TAG, "deleteOldPosts() execution took more than ${TEN_SECONDS} millis, exiting early")
-        break
-      }
-
-      val threadBatch = chanThreadDao.selectOldThreads(offset, ENTITIES_IN_BATCH)
-      if (threadBatch.isEmpty()) {
-        Logger.d(TAG, "deleteOldThreads() selectOldThreads returned empty list")
-        return DeleteResult(deletedTotal, skippedTotal)
-      }
+    require(progress.phase == ChanThreadRetentionProgressEntity.Phase.Threads.value) {
+      "Bad phase: ${progress.phase}"
+    }
 
-      val chanThreads = mutableSetOf<OldChanPostThread>()
+    val count = progress.remainingToDelete.coerceIn(1, THREADS_PER_BATCH)
 
-      for (thread in threadBatch) {
-        if (thread.threadBookmarkId != null) {
-          ++skippedTotal
-          Logger.d(TAG, "deleteOldThreads() skipping bookmarked thread (threadNo = ${thread.threadNo}, " +
-            "deletedTotal = $deletedTotal, toDeleteCount = $toDeleteCount)")
-          continue
-        }
+    val candidates = chanThreadDao.selectOldThreadsWithoutPosts(
+      cursorLastModified = progress.cursorLastModified,
+      cursorThreadId = progress.cursorThreadId,
+      count = count
+    )
 
-        if (thread.downloadThreadId != null) {
-          ++skippedTotal
-          Logger.d(TAG, "deleteOldThreads() skipping downloading thread (threadNo = ${thread.threadNo}, " +
-            "deletedTotal = $deletedTotal, toDeleteCount = $toDeleteCount)")
-          continue
-        }
+    if (candidates.isEmpty()) {
+      Logger.d(TAG, "deleteOldThreadsBatch() no more threads to delete")
+      return finishRetentionBatch(progress, null, 0, emptyList(), exhausted = true)
+    }
 
-        if (deletedTotal >= toDeleteCount) {
-          Logger.d(TAG, "deleteOldThreads() Deleted enough threads (deletedTotal = $deletedTotal, " +
-            "toDeleteCount = $toDeleteCount), exiting early")
-          break
-        }
+    val threadIds = candidates
+      .map { candidate -> candidate.threadId }
+      .toSet()
 
-        chanThreads += thread
-      }
+    val deletedCount = chanThreadDao.deleteThreads(threadIds)
+    val exhausted = candidates.size < count
+    val threadDescriptors = candidates.map { candidate -> candidate.toThreadDescriptor() }
 
-      if (chanThreads.isNotEmpty()) {
-        val threadIdSet = chanThreads
-          .map { chanThreadsWithPosts -> chanThreadsWithPosts.threadId }
-          .toSet()
+    return finishRetentionBatch(progress, candidates.last(), deletedCount, threadDescriptors, exhausted)
+  }
 
-        val totalPosts = chanThreads
-          .sumBy { chanThreadsWithPosts -> chanThreadsWithPosts.postsCount }
+  private suspend fun finishRetentionBatch(
+    progress: ChanThreadRetentionProgressEntity,
+    lastCandidate: ChanThreadRetentionCandidate?,
+    deletedCount: Int,
+    threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
+    exhausted: Boolean
+  ): RetentionBatchResult {
+    val remainingToDelete = (progress.remainingToDelete - deletedCount).coerceAtLeast(0)
+
+    if (exhausted || remainingToDelete <= 0 || lastCandidate == null) {
+      chanThreadRetentionProgressDao.delete(progress.phase)
+      return RetentionBatchResult(deletedCount, threadDescriptors, null)
+    }
 
-        Logger.d(TAG, "deleteOldThreads() deleting a batch of ${threadIdSet.size} threads with $totalPosts posts")
-        deletedTotal += chanThreadDao.deleteThreads(threadIdSet)
-      }
+    val updatedProgress = progress.copy(
+      cursorLastModified = lastCandidate.lastModified,
+      cursorThreadId = lastCandidate.threadId,
+      remainingToDelete = remainingToDelete
+    )
 
-      offset += threadBatch.size
-    } while (deletedTotal < toDeleteCount)
+    chanThreadRetentionProgressDao.insertOrReplace(updatedProgress)
+    return RetentionBatchResult(deletedCount, threadDescriptors, updatedProgress)
+  }
 
-    return DeleteResult(deletedTotal, skippedTotal)
+  private fun ChanThreadRetentionCandidate.toThreadDescriptor(): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create(siteName, boardCode, threadNo)
   }
 
   class PostAdditionalData(
@@ -876,11 +982,39 @@ class ChanPostLocalSource(
     val postReplyToByPostIdMap: Map<Long, List<ChanPostReplyEntity>>
   )
 
-  data class DeleteResult(val deletedTotal: Int = 0, val skippedTotal: Int = 0)
+  /**
+   * [threadDescriptors] are the threads whose posts (or the threads themselves) were deleted.
+   * [progress] is null when the deletion pass is done.
+   * */
+  class RetentionBatchResult(
+    val deletedCount: Int,
+    val threadDescriptors: List<ChanDescriptor.ThreadDescriptor>,
+    val progress: ChanThreadRetentionProgressEntity?
+  )
+
+  data class DeleteResult(
+    val deletedTotal: Int = 0,
+    // How many rows the current deletion pass still has to delete (during the next runs)
+    val remainingTotal: Int = 0,
+    val batchesCount: Int = 0,
+    // The longest transaction, i.e. the longest time the database write lock was held
+    val longestBatchMs: Long = 0L,
+    val tookMs: Long = 0L
+  ) {
 
-  companion object {
-    private const val ENTITIES_IN_BATCH = KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE
+    fun deletedPerSecond(): Long {
+      if (tookMs <= 0L) {
+        return 0L
+      }
+
+      return deletedTotal * 1000L / tookMs
+    }
 
-    private val TEN_SECONDS = TimeUnit.SECONDS.toMillis(10)
+  }
+
+  companion object {
+    // Each deleted post also deletes its images, icons, spans, replies, etc. (via cascade)
+    private const val MAX_POSTS_PER_BATCH = 1000
+    private const val THREADS_PER_BATCH = 64
   }
 }
\ No newline at end of file
@@ -28,7 +28,21 @@ class ChanThreadViewableInfoLocalSource(
     val threadId = chanDescriptorCache.getThreadIdByThreadDescriptor(threadDescriptor)?.id
       ?: return null
 
-    val chanThreadViewableInfoEntity = chanThreadViewableInfoDao.selectByOwnerThreadId(threadId)
+    return preloadForThread(threadDescriptor, threadId)
+  }
+
+  suspend fun preloadForThread(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    threadDatabaseId: Long
+  ): ChanThreadViewableInfo? {
+    ensureInTransaction()
+
+    val fromCache = chanThreadViewableInfoCache.get(threadDescriptor)
+    if (fromCache != null) {
+      return fromCache
+    }
+
+    val chanThreadViewableInfoEntity = chanThreadViewableInfoDao.selectByOwnerThreadId(threadDatabaseId)
       ?: return null
 
     val chanThreadViewableInfo = ChanThreadViewableInfoMapper.fromEntity(
@@ -2,6 +2,7 @@ package com.github.k1rakishou.model.source.local
 
 import androidx.sqlite.db.SimpleSQLiteQuery
 import com.github.k1rakishou.model.KurobaDatabase
+import java.io.File
 
 class DatabaseMetaLocalSource(
   database: KurobaDatabase,
@@ -15,4 +16,15 @@ class DatabaseMetaLocalSource(
     return dao.checkpoint((SimpleSQLiteQuery("pragma wal_checkpoint(full)")))
   }
 
+  /**
+   * Writes a consistent snapshot of the database into [outputFile] (which must not exist).
+   * Executed as a raw query so that it runs on one of the reader connections and does not block
+   * writers (in WAL mode). Requires SQLite 3.27+ (Android 11+), throws on older versions.
+   * */
+  suspend fun vacuumInto(outputFile: File) {
+    ensureNotInTransaction()
+
+    dao.vacuumInto(SimpleSQLiteQuery("VACUUM INTO ?", arrayOf(outputFile.absolutePath)))
+  }
+
 }
\ No newline at end of file
@@ -51,7 +51,16 @@ open class SeenPostLocalSource(
       threadDescriptor.threadNo
     ) ?: return emptyList()
 
-    return seenPostDao.selectAllByThreadId(chanThreadEntity.threadId)
+    return selectAllByThreadId(threadDescriptor, chanThreadEntity.threadId)
+  }
+
+  open suspend fun selectAllByThreadId(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    threadDatabaseId: Long
+  ): List<SeenPost> {
+    ensureInTransaction()
+
+    return seenPostDao.selectAllByThreadId(threadDatabaseId)
       .mapNotNull { seenPostEntity ->
         return@mapNotNull SeenPostMapper.fromEntity(threadDescriptor, seenPostEntity)
       }
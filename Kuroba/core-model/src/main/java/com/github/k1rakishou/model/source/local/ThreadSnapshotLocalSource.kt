@@ -0,0 +1,314 @@
+package com.github.k1rakishou.model.source.local
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.common.ModularResult
+import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.mapper.ThreadSnapshotMapper
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Stores binary snapshots of thread posts (see [ThreadSnapshotMapper]) on disk, one file per thread,
+ * so that a thread that is no longer in the posts cache can be restored with one sequential file
+ * read instead of a dozen database queries plus span unmarshalling. Snapshots are only an
+ * optimization, the database is still the source of truth: any snapshot that can't be read is
+ * deleted and the caller falls back to the database.
+ *
+ * The total size of all snapshots is kept under [maxDiskSize] by deleting the snapshots of the
+ * threads that were opened least recently.
+ * */
+class ThreadSnapshotLocalSource(
+  val isEnabled: Boolean,
+  private val verboseLogs: Boolean,
+  private val snapshotsDirProvider: () -> File,
+  private val maxDiskSize: Long
+) {
+  private val TAG = "ThreadSnapshotLocalSource"
+  private val lock = Any()
+
+  // Snapshot file name -> snapshot entry, least recently opened first
+  @GuardedBy("lock")
+  private var snapshotsIndex: LinkedHashMap<String, SnapshotEntry>? = null
+  @GuardedBy("lock")
+  private var totalSize = 0L
+
+  // Used to avoid re-writing the same snapshot after every thread update when nothing has changed
+  private val storedFingerprints = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, SnapshotFingerprint>()
+
+  /**
+   * Returns null when there is no snapshot for this thread or it couldn't be read (corrupted,
+   * created by a different snapshot format version, etc.).
+   * */
+  fun read(threadDescriptor: ChanDescriptor.ThreadDescriptor): List<ChanPost>? {
+    if (!isEnabled) {
+      return null
+    }
+
+    val fileName = fileName(threadDescriptor)
+
+    // Only the index lookup (which also moves the snapshot to the end of the LRU order) is done
+    // under the lock, the file itself is read outside of it so that reading a big snapshot does
+    // not block the other readers and writers. Writers replace snapshots with an atomic rename so
+    // the file is never half-written.
+    val snapshotEntry = synchronized(lock) { ensureIndexLoaded()[fileName] }
+      ?: return null
+
+    val snapshotFile = File(snapshotsDirProvider(), fileName)
+
+    val readResult = Try { snapshotFile.readBytes() }
+    if (readResult is ModularResult.Error) {
+      Logger.e(TAG, "read($threadDescriptor) failed to read snapshot file: " +
+        "${readResult.error.errorMessageOrClassName()}")
+
+      deleteIfNotReplaced(fileName, snapshotEntry)
+      return null
+    }
+
+    val bytes = readResult.unwrap()
+
+    // Used to restore the order of the index after the app restart
+    snapshotFile.setLastModified(System.currentTimeMillis())
+
+    val decodeResult = Try { ThreadSnapshotMapper.decode(threadDescriptor, bytes) }
+    if (decodeResult is ModularResult.Error) {
+      Logger.e(TAG, "read($threadDescriptor) bad snapshot (${bytes.size} bytes), falling back to " +
+        "the database: ${decodeResult.error.errorMessageOrClassName()}")
+
+      deleteIfNotReplaced(fileName, snapshotEntry)
+      return null
+    }
+
+    val posts = decodeResult.unwrap()
+
+    synchronized(lock) {
+      // Don't overwrite the fingerprint of a snapshot that was written while we were reading
+      if (snapshotsIndex?.get(fileName) === snapshotEntry) {
+        storedFingerprints[threadDescriptor] = SnapshotFingerprint.create(posts)
+      }
+    }
+
+    if (verboseLogs) {
+      Logger.d(TAG, "read($threadDescriptor) read ${posts.size} posts (${bytes.size} bytes)")
+    }
+
+    return posts
+  }
+
+  fun write(threadDescriptor: ChanDescriptor.ThreadDescriptor, posts: List<ChanPost>) {
+    if (!isEnabled || posts.isEmpty()) {
+      return
+    }
+
+    val fingerprint = SnapshotFingerprint.create(posts)
+    if (storedFingerprints[threadDescriptor] == fingerprint) {
+      return
+    }
+
+    val encodeResult = Try { ThreadSnapshotMapper.encode(threadDescriptor, posts) }
+    if (encodeResult is ModularResult.Error) {
+      Logger.e(TAG, "write($threadDescriptor) failed to encode ${posts.size} posts", encodeResult.error)
+      return
+    }
+
+    val bytes = encodeResult.unwrap()
+    val fileName = fileName(threadDescriptor)
+
+    synchronized(lock) {
+      val index = ensureIndexLoaded()
+      val snapshotsDir = snapshotsDirProvider()
+      val snapshotFile = File(snapshotsDir, fileName)
+      val tmpFile = File(snapshotsDir, fileName + TMP_FILE_SUFFIX)
+
+      // Write into a temporary file first so that a crash in the middle of writing does not leave
+      // a half-written snapshot behind
+      val writeResult = Try {
+        tmpFile.writeBytes(bytes)
+        check(tmpFile.renameTo(snapshotFile)) { "Failed to rename ${tmpFile.name}" }
+      }
+
+      if (writeResult is ModularResult.Error) {
+        Logger.e(TAG, "write($threadDescriptor) failed to write snapshot: " +
+          "${writeResult.error.errorMessageOrClassName()}")
+
+        tmpFile.delete()
+        deleteLocked(fileName)
+        return
+      }
+
+      index.remove(fileName)?.let { prevEntry -> totalSize -= prevEntry.size }
+      index[fileName] = SnapshotEntry(bytes.size.toLong())
+      totalSize += bytes.size
+
+      storedFingerprints[threadDescriptor] = fingerprint
+      evictLocked(index)
+    }
+
+    if (verboseLogs) {
+      Logger.d(TAG, "write($threadDescriptor) wrote ${posts.size} posts (${bytes.size} bytes)")
+    }
+  }
+
+  fun delete(threadDescriptor: ChanDescriptor.ThreadDescriptor) {
+    if (!isEnabled) {
+      return
+    }
+
+    synchronized(lock) {
+      ensureIndexLoaded()
+      deleteLocked(fileName(threadDescriptor))
+    }
+
+    storedFingerprints.remove(threadDescriptor)
+  }
+
+  /**
+   * Deletes a snapshot that could not be read unless it was evicted or replaced by a new snapshot
+   * while it was being read (files are read outside of the lock).
+   * */
+  private fun deleteIfNotReplaced(fileName: String, snapshotEntry: SnapshotEntry) {
+    synchronized(lock) {
+      if (snapshotsIndex?.get(fileName) === snapshotEntry) {
+        deleteLocked(fileName)
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun evictLocked(index: LinkedHashMap<String, SnapshotEntry>) {
+    if (totalSize <= maxDiskSize) {
+      return
+    }
+
+    val toEvict = mutableListOf<String>()
+    var newTotalSize = totalSize
+
+    for ((fileName, snapshotEntry) in index) {
+      if (newTotalSize <= maxDiskSize) {
+        break
+      }
+
+      toEvict += fileName
+      newTotalSize -= snapshotEntry.size
+    }
+
+    Logger.d(TAG, "evictLocked() evicting ${toEvict.size} snapshots, " +
+      "totalSize=${totalSize}, maxDiskSize=${maxDiskSize}")
+
+    toEvict.forEach { fileName -> deleteLocked(fileName) }
+  }
+
+  @GuardedBy("lock")
+  private fun deleteLocked(fileName: String) {
+    val index = snapshotsIndex
+      ?: return
+
+    index.remove(fileName)?.let { snapshotEntry -> totalSize -= snapshotEntry.size }
+    File(snapshotsDirProvider(), fileName).delete()
+
+    storedFingerprints.keys.removeAll { threadDescriptor -> fileName(threadDescriptor) == fileName }
+  }
+
+  @GuardedBy("lock")
+  private fun ensureIndexLoaded(): LinkedHashMap<String, SnapshotEntry> {
+    snapshotsIndex?.let { index -> return index }
+
+    val files = snapshotsDirProvider().listFiles() ?: emptyArray()
+    val index = LinkedHashMap<String, SnapshotEntry>(files.size.coerceAtLeast(16), 0.75f, true)
+    totalSize = 0L
+
+    files
+      .filter { file ->
+        if (file.name.endsWith(TMP_FILE_SUFFIX)) {
+          // Left after a crash
+          file.delete()
+          return@filter false
+        }
+
+        return@filter file.isFile
+      }
+      .sortedBy { file -> file.lastModified() }
+      .forEach { file ->
+        val size = file.length()
+
+        index[file.name] = SnapshotEntry(size)
+        totalSize += size
+      }
+
+    Logger.d(TAG, "ensureIndexLoaded() snapshots=${index.size}, totalSize=${totalSize}")
+
+    snapshotsIndex = index
+    evictLocked(index)
+
+    return index
+  }
+
+  private fun fileName(threadDescriptor: ChanDescriptor.ThreadDescriptor): String {
+    val rawName = "${threadDescriptor.siteName()}_${threadDescriptor.boardCode()}_${threadDescriptor.threadNo}"
+
+    return buildString(rawName.length + SNAPSHOT_FILE_EXTENSION.length) {
+      rawName.forEach { char ->
+        if (char.isLetterOrDigit() || char == '_' || char == '-') {
+          append(char)
+        } else {
+          append('_')
+        }
+      }
+
+      append(SNAPSHOT_FILE_EXTENSION)
+    }
+  }
+
+  /**
+   * Every write creates a new entry, so comparing entries by identity tells whether the snapshot was
+   * replaced.
+   * */
+  private class SnapshotEntry(val size: Long)
+
+  private data class SnapshotFingerprint(
+    val postsCount: Int,
+    val lastPostDescriptor: PostDescriptor,
+    val deletedPostsCount: Int,
+    val imagesCount: Int,
+    val closed: Boolean,
+    val archived: Boolean
+  ) {
+
+    companion object {
+      fun create(posts: List<ChanPost>): SnapshotFingerprint {
+        var deletedPostsCount = 0
+        var imagesCount = 0
+
+        posts.forEach { chanPost ->
+          if (chanPost.isDeleted) {
+            ++deletedPostsCount
+          }
+
+          imagesCount += chanPost.postImagesCount
+        }
+
+        val originalPost = posts.first() as? ChanOriginalPost
+
+        return SnapshotFingerprint(
+          postsCount = posts.size,
+          lastPostDescriptor = posts.last().postDescriptor,
+          deletedPostsCount = deletedPostsCount,
+          imagesCount = imagesCount,
+          closed = originalPost?.closed ?: false,
+          archived = originalPost?.archived ?: false
+        )
+      }
+    }
+  }
+
+  companion object {
+    private const val SNAPSHOT_FILE_EXTENSION = ".snapshot"
+    private const val TMP_FILE_SUFFIX = ".tmp"
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.github.k1rakishou.model.util
+
+import android.content.Context
+import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.KurobaDatabase
+import java.io.File
+
+/**
+ * Database files of an imported backup can't be written over the database files that are currently
+ * opened by Room. Instead, they are written into the staging directory, then [commit]ted and
+ * finally moved into place by [applyIfPending] on the next app start, before the database is opened.
+ * */
+object PendingDatabaseImport {
+  private const val TAG = "PendingDatabaseImport"
+  private const val STAGING_DIR_NAME = "database_import_staging"
+  private const val PENDING_DIR_NAME = "database_import_pending"
+
+  /**
+   * Returns an empty directory to write the imported database files into.
+   * */
+  fun createStagingDir(context: Context): File {
+    val stagingDir = File(context.filesDir, STAGING_DIR_NAME)
+    stagingDir.deleteRecursively()
+
+    check(stagingDir.mkdirs()) { "Failed to create ${stagingDir.absolutePath}" }
+    return stagingDir
+  }
+
+  /**
+   * Marks the staged database files as ready to be applied on the next app start.
+   * */
+  fun commit(context: Context) {
+    val stagingDir = File(context.filesDir, STAGING_DIR_NAME)
+    val pendingDir = File(context.filesDir, PENDING_DIR_NAME)
+
+    pendingDir.deleteRecursively()
+    check(stagingDir.renameTo(pendingDir)) { "Failed to rename ${stagingDir.absolutePath} into ${pendingDir.absolutePath}" }
+  }
+
+  fun discard(context: Context) {
+    File(context.filesDir, STAGING_DIR_NAME).deleteRecursively()
+  }
+
+  /**
+   * Must be called before the database is opened.
+   * */
+  fun applyIfPending(context: Context) {
+    File(context.filesDir, STAGING_DIR_NAME).deleteRecursively()
+
+    val pendingDir = File(context.filesDir, PENDING_DIR_NAME)
+    if (!pendingDir.exists()) {
+      return
+    }
+
+    val stagedFiles = pendingDir.listFiles()?.filter { file -> file.isFile } ?: emptyList()
+    if (stagedFiles.isEmpty()) {
+      pendingDir.deleteRecursively()
+      return
+    }
+
+    Logger.d(TAG, "applyIfPending() applying ${stagedFiles.size} database files")
+
+    try {
+      val stagedFileNames = stagedFiles.map { file -> file.name }.toSet()
+
+      // Newer backups only contain a database snapshot without WAL/SHM files so the current ones
+      // must be deleted, otherwise SQLite will try to apply a stale WAL to the imported database.
+      context.databaseList().forEach { databaseName ->
+        if (!databaseName.contains(KurobaDatabase.DATABASE_NAME, ignoreCase = true)) {
+          return@forEach
+        }
+
+        if (databaseName in stagedFileNames) {
+          return@forEach
+        }
+
+        val databaseFile = context.getDatabasePath(databaseName)
+        if (databaseFile.exists() && !databaseFile.delete()) {
+          Logger.e(TAG, "Failed to delete '${databaseFile.absolutePath}'")
+        }
+      }
+
+      // Copy instead of moving so that the import can be applied again from the beginning if the
+      // app gets killed in the middle of it
+      stagedFiles.forEach { stagedFile ->
+        stagedFile.copyTo(context.getDatabasePath(stagedFile.name), overwrite = true)
+      }
+
+      pendingDir.deleteRecursively()
+      Logger.d(TAG, "applyIfPending() success")
+    } catch (error: Throwable) {
+      Logger.e(TAG, "applyIfPending() error", error)
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.github.k1rakishou.model.data.board.pages
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.test_shared.Benchmarks
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertSame
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class BoardPagesTest {
+  private val boardDescriptor = BoardDescriptor.create("4chan", "g")
+
+  @Test
+  fun `index finds the same pages as the linear scan`() {
+    val boardPages = createBoardPages(PAGES_COUNT, THREADS_PER_PAGE)
+
+    for (threadNo in 0L until (PAGES_COUNT * THREADS_PER_PAGE + 10L)) {
+      assertSame(findPageLinear(boardPages, threadNo), boardPages.findPage(threadNo))
+    }
+  }
+
+  @Test
+  fun `first occurrence wins when a thread is present on multiple pages`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(boardDescriptor, 1L)
+    val firstPage = BoardPage(1, 2, linkedMapOf(threadDescriptor to 100L))
+    val secondPage = BoardPage(2, 2, linkedMapOf(threadDescriptor to 200L))
+    val boardPages = BoardPages(boardDescriptor, listOf(firstPage, secondPage))
+
+    assertSame(firstPage, boardPages.findPage(1L))
+    assertEquals(100L, boardPages.findLastModified(threadDescriptor))
+    assertNull(boardPages.findLastModified(ChanDescriptor.ThreadDescriptor.create(boardDescriptor, 2L)))
+  }
+
+  /**
+   * Prints per-call cost of the page lookup that happens for every bound post/thread cell: the old
+   * path (linear scan over all pages plus a coroutine launch to check whether the pages need an
+   * update) versus the new one (index lookup plus a timestamp check). Only runs with -Pbenchmarks.
+   * */
+  @Test
+  fun `benchmark page lookups`() {
+    Benchmarks.assumeEnabled()
+
+    val boardPages = createBoardPages(PAGES_COUNT, THREADS_PER_PAGE)
+    val threadsCount = PAGES_COUNT * THREADS_PER_PAGE
+    val random = Random(1337)
+    val threadNos = LongArray(LOOKUPS) { random.nextLong(threadsCount.toLong()) }
+
+    val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+    val boardTimeMap = ConcurrentHashMap<BoardDescriptor, Long>()
+    boardTimeMap[boardDescriptor] = System.currentTimeMillis()
+
+    val oldPath = { threadNo: Long ->
+      scope.launch { boardTimeMap[boardDescriptor] }
+      findPageLinear(boardPages, threadNo)
+    }
+
+    val newPath = { threadNo: Long ->
+      val lastUpdateTime = boardTimeMap[boardDescriptor]
+      if (lastUpdateTime == null || lastUpdateTime + UPDATE_INTERVAL <= System.currentTimeMillis()) {
+        error("Must not be updated")
+      }
+
+      boardPages.findPage(threadNo)
+    }
+
+    try {
+      repeat(WARMUP_ITERATIONS) {
+        threadNos.forEach { threadNo -> oldPath(threadNo) }
+        threadNos.forEach { threadNo -> newPath(threadNo) }
+      }
+
+      val oldNanos = measure { threadNos.forEach { threadNo -> oldPath(threadNo) } }
+      val newNanos = measure { threadNos.forEach { threadNo -> newPath(threadNo) } }
+
+      println("pages=${PAGES_COUNT}, threadsPerPage=${THREADS_PER_PAGE}, lookups=${LOOKUPS}")
+      println("old (linear scan + launch): ${oldNanos / LOOKUPS}ns per call")
+      println("new (index + timestamp check): ${newNanos / LOOKUPS}ns per call")
+    } finally {
+      scope.cancel()
+    }
+  }
+
+  private fun measure(func: () -> Unit): Long {
+    val start = System.nanoTime()
+    func()
+    return System.nanoTime() - start
+  }
+
+  private fun findPageLinear(boardPages: BoardPages, threadNo: Long): BoardPage? {
+    for (page in boardPages.boardPages) {
+      for ((threadDescriptor, _) in page.threads) {
+        if (threadNo == threadDescriptor.threadNo) {
+          return page
+        }
+      }
+    }
+
+    return null
+  }
+
+  private fun createBoardPages(pagesCount: Int, threadsPerPage: Int): BoardPages {
+    val pages = (0 until pagesCount).map { pageIndex ->
+      val threads = LinkedHashMap<ChanDescriptor.ThreadDescriptor, Long>()
+
+      for (index in 0 until threadsPerPage) {
+        val threadNo = (pageIndex * threadsPerPage + index).toLong()
+        threads[ChanDescriptor.ThreadDescriptor.create(boardDescriptor, threadNo)] = threadNo * 10
+      }
+
+      BoardPage(pageIndex + 1, pagesCount, threads)
+    }
+
+    return BoardPages(boardDescriptor, pages)
+  }
+
+  companion object {
+    private const val PAGES_COUNT = 15
+    private const val THREADS_PER_PAGE = 150
+    private const val LOOKUPS = 10_000
+    private const val WARMUP_ITERATIONS = 5
+    private val UPDATE_INTERVAL = TimeUnit.MINUTES.toMillis(5)
+  }
+
+}
@@ -0,0 +1,160 @@
+package com.github.k1rakishou.model.data.bookmark
+
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.test_shared.Benchmarks
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import org.junit.Test
+import kotlin.random.Random
+
+class ThreadBookmarkGroupClassifierTest {
+
+  @Test
+  fun `operators are right associative and the first matching group wins`() {
+    val groups = listOf(
+      // a AND b OR c == a AND (b OR c)
+      groupToCompile(
+        "1",
+        ThreadBookmarkGroupMatchPatternBuilder.newBuilder("/^g$/", BookmarkGroupMatchFlag.Type.BoardCode)
+          .and("/anime/", BookmarkGroupMatchFlag.Type.PostSubject)
+          .or("/manga/", BookmarkGroupMatchFlag.Type.PostComment)
+          .build()
+      ),
+      groupToCompile(
+        "2",
+        ThreadBookmarkGroupMatchPatternBuilder.newBuilder("/^4chan$/", BookmarkGroupMatchFlag.Type.SiteName)
+          .build()
+      )
+    )
+
+    val classifier = ThreadBookmarkGroupClassifier.compile(groups)
+    val g = BoardDescriptor.create("4chan", "g")
+    val a = BoardDescriptor.create("4chan", "a")
+    val other = BoardDescriptor.create("2ch.hk", "a")
+
+    assertEquals("1", classifier.classify(g, "anime", "")?.groupId)
+    assertEquals("1", classifier.classify(g, "", "manga")?.groupId)
+    assertEquals("2", classifier.classify(g, "", "")?.groupId)
+    assertEquals("2", classifier.classify(a, "anime", "manga")?.groupId)
+    assertNull(classifier.classify(other, "anime", "manga"))
+  }
+
+  @Test
+  fun `classifier matches the same groups as the match patterns`() {
+    val random = Random(1337)
+    val groups = (0 until 64).map { index -> groupToCompile(index.toString(), randomPattern(random)) }
+    val classifier = ThreadBookmarkGroupClassifier.compile(groups)
+
+    repeat(5000) {
+      val boardDescriptor = BoardDescriptor.create(SITES.random(random), BOARDS.random(random))
+      val subject = randomText(random)
+      val comment = randomText(random)
+
+      val expected = groups.firstOrNull { group -> group.matchingPattern.matches(boardDescriptor, subject, comment) }
+      val actual = classifier.classify(boardDescriptor, subject, comment)
+
+      assertEquals(expected?.groupId, actual?.groupId)
+    }
+  }
+
+  @Test
+  fun `recompiled classifier still matches after groups were reordered`() {
+    val random = Random(42)
+    val groups = (0 until 16).map { index -> groupToCompile(index.toString(), randomPattern(random)) }
+    val prevClassifier = ThreadBookmarkGroupClassifier.compile(groups)
+    val reversedGroups = groups.reversed()
+    val classifier = ThreadBookmarkGroupClassifier.compile(reversedGroups, prevClassifier)
+
+    assertEquals(groups.size, classifier.groupsCount)
+
+    repeat(1000) {
+      val boardDescriptor = BoardDescriptor.create(SITES.random(random), BOARDS.random(random))
+      val subject = randomText(random)
+      val comment = randomText(random)
+
+      val expected = reversedGroups.firstOrNull { group -> group.matchingPattern.matches(boardDescriptor, subject, comment) }
+      assertEquals(expected?.groupId, classifier.classify(boardDescriptor, subject, comment)?.groupId)
+    }
+  }
+
+  @Test
+  fun `benchmark classifier vs match patterns`() {
+    Benchmarks.assumeEnabled()
+
+    val random = Random(7)
+    val groups = (0 until 200).map { index -> groupToCompile(index.toString(), randomPattern(random)) }
+    val classifier = ThreadBookmarkGroupClassifier.compile(groups)
+
+    val bookmarks = (0 until 2000).map {
+      Triple(
+        BoardDescriptor.create(SITES.random(random), BOARDS.random(random)),
+        randomText(random),
+        randomText(random)
+      )
+    }
+
+    // Warm up
+    repeat(3) {
+      bookmarks.forEach { (boardDescriptor, subject, comment) ->
+        groups.firstOrNull { group -> group.matchingPattern.matches(boardDescriptor, subject, comment) }
+        classifier.classify(boardDescriptor, subject, comment)
+      }
+    }
+
+    var start = System.nanoTime()
+    bookmarks.forEach { (boardDescriptor, subject, comment) ->
+      groups.firstOrNull { group -> group.matchingPattern.matches(boardDescriptor, subject, comment) }
+    }
+    val patternsTookMs = (System.nanoTime() - start) / 1_000_000.0
+
+    start = System.nanoTime()
+    bookmarks.forEach { (boardDescriptor, subject, comment) ->
+      classifier.classify(boardDescriptor, subject, comment)
+    }
+    val classifierTookMs = (System.nanoTime() - start) / 1_000_000.0
+
+    println("groups=${groups.size}, bookmarks=${bookmarks.size}, " +
+      "patterns=${patternsTookMs}ms, classifier=${classifierTookMs}ms")
+  }
+
+  private fun groupToCompile(
+    groupId: String,
+    matchingPattern: ThreadBookmarkGroupMatchPattern
+  ): ThreadBookmarkGroupClassifier.GroupToCompile {
+    return ThreadBookmarkGroupClassifier.GroupToCompile(
+      groupId = groupId,
+      groupName = "Group ${groupId}",
+      matchingPattern = matchingPattern
+    )
+  }
+
+  private fun randomPattern(random: Random): ThreadBookmarkGroupMatchPattern {
+    val builder = ThreadBookmarkGroupMatchPatternBuilder.newBuilder(randomRawPattern(random), TYPES.random(random))
+
+    repeat(random.nextInt(0, 4)) {
+      if (random.nextBoolean()) {
+        builder.and(randomRawPattern(random), TYPES.random(random))
+      } else {
+        builder.or(randomRawPattern(random), TYPES.random(random))
+      }
+    }
+
+    return builder.build()
+  }
+
+  private fun randomRawPattern(random: Random): String {
+    return "/${WORDS.random(random)}/"
+  }
+
+  private fun randomText(random: Random): String {
+    return (0 until random.nextInt(0, 6)).joinToString(separator = " ") { WORDS.random(random) }
+  }
+
+  companion object {
+    private val TYPES = BookmarkGroupMatchFlag.Type.values()
+    private val SITES = listOf("4chan", "2ch.hk", "lainchan", "8kun")
+    private val BOARDS = listOf("g", "a", "b", "vg", "tech", "lain")
+    private val WORDS = listOf("g", "a", "4chan", "lain", "anime", "manga", "linux", "vg", "tech", "kun")
+  }
+
+}
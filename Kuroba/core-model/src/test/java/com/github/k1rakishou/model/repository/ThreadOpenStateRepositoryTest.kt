@@ -0,0 +1,446 @@
+package com.github.k1rakishou.model.repository
+
+import androidx.room.Room
+import androidx.room.withTransaction
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.options.ChanCacheOptions
+import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import com.github.k1rakishou.model.data.post.ChanPostHide
+import com.github.k1rakishou.model.data.post.ChanSavedReply
+import com.github.k1rakishou.model.data.post.SeenPost
+import com.github.k1rakishou.model.data.thread.ChanThreadViewableInfo
+import com.github.k1rakishou.model.data.thread.ThreadOpenState
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import com.github.k1rakishou.model.source.cache.ChanDescriptorCache
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import com.github.k1rakishou.model.source.local.ChanPostHideLocalSource
+import com.github.k1rakishou.model.source.local.ChanPostLocalSource
+import com.github.k1rakishou.model.source.local.ChanSavedReplyLocalSource
+import com.github.k1rakishou.model.source.local.ChanThreadViewableInfoLocalSource
+import com.github.k1rakishou.model.source.local.SeenPostLocalSource
+import com.github.k1rakishou.model.source.local.ThreadSnapshotLocalSource
+import com.github.k1rakishou.test_shared.Benchmarks
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.runBlocking
+import org.joda.time.DateTime
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.shadows.ShadowLog
+import java.io.File
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Checks that the whole state of a thread is loaded with one transaction. The benchmark (only with
+ * -Pbenchmarks) prints how many queries/transactions a cold thread open takes and how long it takes
+ * until the thread posts are in the cache compared to loading every part of the state separately
+ * (the way it used to be done). -Dthreadopen.benchmark.threads and -Dthreadopen.benchmark.posts
+ * change the size of the benchmark.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class ThreadOpenStateRepositoryTest {
+  private lateinit var database: KurobaDatabase
+  private val queriesCount = AtomicInteger(0)
+  private val transactionsCount = AtomicInteger(0)
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, KurobaDatabase::class.java)
+      .setQueryCallback(
+        { sqlQuery, _ ->
+          queriesCount.incrementAndGet()
+
+          if (sqlQuery.startsWith("BEGIN")) {
+            transactionsCount.incrementAndGet()
+          }
+        },
+        Executor { command -> command.run() }
+      )
+      .build()
+  }
+
+  @After
+  fun tearDown() {
+    database.close()
+  }
+
+  @Test
+  fun `the whole thread state is loaded within one transaction`() {
+    runBlocking(Dispatchers.Default) {
+      seedDatabase(threadsCount = 2, postsPerThread = 50)
+      seedUserState(threadsCount = 2, seenPostsPerThread = 10)
+
+      val threadDescriptor = threadDescriptor(threadId = 2)
+      val components = createComponents(this)
+
+      resetCounters()
+      val threadOpenState = components.repository.loadThreadOpenState(fullRequest(threadDescriptor)).unwrap()
+
+      assertEquals(1, transactionsCount.get())
+      assertEquals(50, threadOpenState.threadPostsCount)
+      assertEquals(50, components.chanThreadsCache.getThread(threadDescriptor)!!.postsCount)
+      assertEquals(10, threadOpenState.seenPosts!!.size)
+      assertEquals(20, threadOpenState.chanThreadViewableInfo!!.listViewIndex)
+      assertEquals(1, threadOpenState.savedReplies!!.size)
+      assertEquals(2, threadOpenState.postHides!!.size)
+
+      // Posts of the other thread must not be touched
+      assertFalse(components.chanThreadsCache.contains(threadDescriptor(threadId = 1)))
+    }
+  }
+
+  @Test
+  fun `only requested parts of the thread state are loaded`() {
+    runBlocking(Dispatchers.Default) {
+      seedDatabase(threadsCount = 1, postsPerThread = 50)
+      seedUserState(threadsCount = 1, seenPostsPerThread = 10)
+
+      val threadDescriptor = threadDescriptor(threadId = 1)
+      val components = createComponents(this)
+
+      val request = ThreadOpenState.Request(
+        threadDescriptor = threadDescriptor,
+        loadThreadPosts = false,
+        loadSeenPosts = false,
+        loadViewableInfo = false,
+        loadSavedReplies = true,
+        loadPostHides = false
+      )
+
+      val threadOpenState = components.repository.loadThreadOpenState(request).unwrap()
+
+      assertNull(threadOpenState.threadPostsCount)
+      assertNull(threadOpenState.seenPosts)
+      assertNull(threadOpenState.chanThreadViewableInfo)
+      assertNull(threadOpenState.postHides)
+      assertEquals(1, threadOpenState.savedReplies!!.size)
+      assertFalse(components.chanThreadsCache.contains(threadDescriptor))
+    }
+  }
+
+  @Test
+  fun `thread that is not in the database has empty state`() {
+    runBlocking(Dispatchers.Default) {
+      seedDatabase(threadsCount = 1, postsPerThread = 10)
+
+      val threadDescriptor = threadDescriptor(threadId = 100)
+      val components = createComponents(this)
+
+      val threadOpenState = components.repository.loadThreadOpenState(fullRequest(threadDescriptor)).unwrap()
+
+      assertEquals(0, threadOpenState.threadPostsCount)
+      assertTrue(threadOpenState.seenPosts!!.isEmpty())
+      assertEquals(ChanThreadViewableInfo(threadDescriptor), threadOpenState.chanThreadViewableInfo)
+      assertTrue(threadOpenState.savedReplies!!.isEmpty())
+      assertTrue(threadOpenState.postHides!!.isEmpty())
+      assertFalse(components.chanThreadsCache.contains(threadDescriptor))
+    }
+  }
+
+  @Test
+  fun `cold thread open takes one transaction instead of one per state part`() {
+    runBlocking(Dispatchers.Default) {
+      compareColdThreadOpens(threadsCount = 5, postsPerThread = 20, printResults = false)
+    }
+  }
+
+  @Test
+  fun `benchmark cold thread open`() {
+    Benchmarks.assumeEnabled()
+
+    runBlocking(Dispatchers.Default) {
+      val threadsCount = System.getProperty("threadopen.benchmark.threads")?.toIntOrNull() ?: BENCHMARK_THREADS_COUNT
+      val postsPerThread = System.getProperty("threadopen.benchmark.posts")?.toIntOrNull() ?: BENCHMARK_POSTS_PER_THREAD
+
+      compareColdThreadOpens(threadsCount, postsPerThread, printResults = true)
+    }
+  }
+
+  private suspend fun compareColdThreadOpens(threadsCount: Int, postsPerThread: Int, printResults: Boolean) {
+    seedDatabase(threadsCount, postsPerThread)
+    seedUserState(threadsCount, seenPostsPerThread = postsPerThread / 2)
+
+    // Every thread is opened once by each of the loaders so none of the caches know anything
+    // about the thread (just like after the app start)
+    val separateLoads = benchmarkOpens("separate transactions", threadsCount, printResults) { components, threadDescriptor ->
+      openThreadWithSeparateTransactions(components, threadDescriptor)
+    }
+
+    val singleLoad = benchmarkOpens("one transaction", threadsCount, printResults) { components, threadDescriptor ->
+      val start = System.nanoTime()
+      components.repository.loadThreadOpenState(fullRequest(threadDescriptor)).unwrap()
+
+      return@benchmarkOpens System.nanoTime() - start
+    }
+
+    assertEquals(threadsCount, singleLoad.transactions)
+    assertEquals(threadsCount * 5, separateLoads.transactions)
+    assertTrue(singleLoad.queries < separateLoads.queries)
+  }
+
+  private suspend fun benchmarkOpens(
+    name: String,
+    threadsCount: Int,
+    printResults: Boolean,
+    openThread: suspend (Components, ChanDescriptor.ThreadDescriptor) -> Long
+  ): BenchmarkResult = coroutineScope {
+    val components = createComponents(this)
+    var timeToFirstPostTotalNanos = 0L
+    var timeToFirstPostMaxNanos = 0L
+
+    resetCounters()
+
+    for (threadId in 1L..threadsCount) {
+      val threadDescriptor = threadDescriptor(threadId)
+      val timeToFirstPostNanos = openThread(components, threadDescriptor)
+
+      check(components.chanThreadsCache.contains(threadDescriptor)) { "Posts of $threadDescriptor were not loaded" }
+
+      timeToFirstPostTotalNanos += timeToFirstPostNanos
+      timeToFirstPostMaxNanos = maxOf(timeToFirstPostMaxNanos, timeToFirstPostNanos)
+    }
+
+    val result = BenchmarkResult(queries = queriesCount.get(), transactions = transactionsCount.get())
+
+    if (printResults) {
+      println("${name}: ${threadsCount} cold thread opens, " +
+        "time to first post avg ${timeToFirstPostTotalNanos / threadsCount / 1000}us " +
+        "max ${timeToFirstPostMaxNanos / 1000}us, " +
+        "queries per open ${result.queries.toFloat() / threadsCount}, " +
+        "transactions per open ${result.transactions.toFloat() / threadsCount}")
+    }
+
+    return@coroutineScope result
+  }
+
+  /**
+   * The way thread state used to be loaded: every part of the state is loaded concurrently in its
+   * own transaction and looks up the board and the thread by itself. Returns the time it took for
+   * the posts to get into the cache.
+   * */
+  private suspend fun openThreadWithSeparateTransactions(
+    components: Components,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ): Long = coroutineScope {
+    val start = System.nanoTime()
+
+    val userStateJobs = listOf(
+      async(Dispatchers.IO) {
+        database.withTransaction { components.seenPostLocalSource.selectAllByThreadDescriptor(threadDescriptor) }
+      },
+      async(Dispatchers.IO) {
+        database.withTransaction { components.chanThreadViewableInfoLocalSource.preloadForThread(threadDescriptor) }
+      },
+      async(Dispatchers.IO) {
+        database.withTransaction { components.chanSavedReplyLocalSource.preloadForThread(threadDescriptor) }
+      },
+      async(Dispatchers.IO) {
+        database.withTransaction { components.chanPostHideLocalSource.preloadForThread(threadDescriptor) }
+      }
+    )
+
+    val postsJob = async(Dispatchers.IO) {
+      database.withTransaction {
+        val threadPosts = components.chanPostLocalSource.getThreadPosts(threadDescriptor)
+
+        components.chanThreadsCache.putManyThreadPostsIntoCache(
+          threadDescriptor = threadDescriptor,
+          parsedPosts = threadPosts,
+          cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
+          chanCacheUpdateOptions = ChanCacheUpdateOptions.UpdateCache,
+          postsFromServerData = null
+        )
+      }
+
+      return@async System.nanoTime() - start
+    }
+
+    userStateJobs.awaitAll()
+    return@coroutineScope postsJob.await()
+  }
+
+  private fun createComponents(coroutineScope: CoroutineScope): Components {
+    val chanDescriptorCache = ChanDescriptorCache(database)
+    val chanThreadsCache = ChanThreadsCache(
+      isDevBuild = true,
+      isLowRamDevice = false,
+      maxCacheSize = Int.MAX_VALUE,
+      chanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+    )
+
+    val threadSnapshotLocalSource = ThreadSnapshotLocalSource(
+      isEnabled = false,
+      verboseLogs = false,
+      snapshotsDirProvider = { File(RuntimeEnvironment.application.cacheDir, "thread_snapshots") },
+      maxDiskSize = 0L
+    )
+
+    val chanPostLocalSource = ChanPostLocalSource(database)
+    val seenPostLocalSource = SeenPostLocalSource(database)
+    val chanThreadViewableInfoLocalSource = ChanThreadViewableInfoLocalSource(database, chanDescriptorCache)
+    val chanSavedReplyLocalSource = ChanSavedReplyLocalSource(database, isDevFlavor = true)
+    val chanPostHideLocalSource = ChanPostHideLocalSource(database, isDevFlavor = true)
+
+    val repository = ThreadOpenStateRepository(
+      database,
+      coroutineScope,
+      chanDescriptorCache,
+      chanThreadsCache,
+      threadSnapshotLocalSource,
+      chanPostLocalSource,
+      seenPostLocalSource,
+      chanThreadViewableInfoLocalSource,
+      chanSavedReplyLocalSource,
+      chanPostHideLocalSource
+    )
+
+    return Components(
+      repository = repository,
+      chanThreadsCache = chanThreadsCache,
+      chanPostLocalSource = chanPostLocalSource,
+      seenPostLocalSource = seenPostLocalSource,
+      chanThreadViewableInfoLocalSource = chanThreadViewableInfoLocalSource,
+      chanSavedReplyLocalSource = chanSavedReplyLocalSource,
+      chanPostHideLocalSource = chanPostHideLocalSource
+    )
+  }
+
+  private fun fullRequest(threadDescriptor: ChanDescriptor.ThreadDescriptor): ThreadOpenState.Request {
+    return ThreadOpenState.Request(
+      threadDescriptor = threadDescriptor,
+      loadThreadPosts = true,
+      loadSeenPosts = true,
+      loadViewableInfo = true,
+      loadSavedReplies = true,
+      loadPostHides = true
+    )
+  }
+
+  private fun resetCounters() {
+    queriesCount.set(0)
+    transactionsCount.set(0)
+  }
+
+  /**
+   * Every thread gets [seenPostsPerThread] seen posts, a scroll position, one saved reply and two
+   * post hides.
+   * */
+  private suspend fun seedUserState(threadsCount: Int, seenPostsPerThread: Int) {
+    val chanDescriptorCache = ChanDescriptorCache(database)
+    val seenPostLocalSource = SeenPostLocalSource(database)
+    val chanThreadViewableInfoLocalSource = ChanThreadViewableInfoLocalSource(database, chanDescriptorCache)
+    val chanSavedReplyLocalSource = ChanSavedReplyLocalSource(database, isDevFlavor = true)
+    val chanPostHideLocalSource = ChanPostHideLocalSource(database, isDevFlavor = true)
+
+    database.withTransaction {
+      for (threadId in 1L..threadsCount) {
+        val threadDescriptor = threadDescriptor(threadId)
+
+        val seenPosts = (0 until seenPostsPerThread).map { index ->
+          SeenPost(postDescriptor(threadDescriptor, index), DateTime.now())
+        }
+
+        seenPostLocalSource.insertMany(threadDescriptor, seenPosts)
+        chanThreadViewableInfoLocalSource.persist(ChanThreadViewableInfo(threadDescriptor, listViewIndex = 20))
+        chanSavedReplyLocalSource.savePost(ChanSavedReply(postDescriptor(threadDescriptor, 1)))
+
+        chanPostHideLocalSource.createOrUpdateMany(
+          (2..3).map { index ->
+            ChanPostHide(
+              postDescriptor = postDescriptor(threadDescriptor, index),
+              onlyHide = true,
+              applyToWholeThread = false,
+              applyToReplies = false,
+              manuallyRestored = false
+            )
+          }
+        )
+      }
+    }
+  }
+
+  /**
+   * Threads get ids 1..[threadsCount], thread N has threadNo N * 1000 and posts N * 1000 (the
+   * original post), N * 1000 + 1, etc.
+   * */
+  private fun seedDatabase(threadsCount: Int, postsPerThread: Int) {
+    val db = database.openHelper.writableDatabase
+
+    db.beginTransaction()
+    try {
+      db.execSQL("INSERT INTO chan_site_id (site_name) VALUES ('$SITE_NAME')")
+      db.execSQL("INSERT INTO chan_board_id (board_id, owner_site_name, board_code) VALUES (1, '$SITE_NAME', '$BOARD_CODE')")
+
+      db.execSQL("""
+        WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ${threadsCount})
+        INSERT INTO chan_thread (thread_id, thread_no, owner_board_id, last_modified, catalog_replies_count,
+          catalog_images_count, unique_ips, sticky, closed, archived)
+        SELECT n, n * 1000, 1, n, 0, 0, 0, 0, 0, 0 FROM seq
+      """)
+
+      db.execSQL("""
+        WITH RECURSIVE seq(n) AS (SELECT 0 UNION ALL SELECT n + 1 FROM seq WHERE n < ${threadsCount * postsPerThread - 1})
+        INSERT INTO chan_post_id (post_id, owner_thread_id, post_no, post_sub_no)
+        SELECT n + 1, n / ${postsPerThread} + 1, (n / ${postsPerThread} + 1) * 1000 + n % ${postsPerThread}, 0 FROM seq
+      """)
+
+      db.execSQL("""
+        INSERT INTO chan_post (chan_post_id, deleted, timestamp_seconds, name, poster_id, poster_id_color,
+          moderator_capcode, is_op, is_saved_reply, is_sage)
+        SELECT post_id, 0, post_no, 'Anonymous', NULL, 0, NULL, post_no % 1000 = 0, 0, 0 FROM chan_post_id
+      """)
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+  }
+
+  private fun threadDescriptor(threadId: Long): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, threadId * 1000L)
+  }
+
+  private fun postDescriptor(threadDescriptor: ChanDescriptor.ThreadDescriptor, index: Int): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo + index)
+  }
+
+  private class Components(
+    val repository: ThreadOpenStateRepository,
+    val chanThreadsCache: ChanThreadsCache,
+    val chanPostLocalSource: ChanPostLocalSource,
+    val seenPostLocalSource: SeenPostLocalSource,
+    val chanThreadViewableInfoLocalSource: ChanThreadViewableInfoLocalSource,
+    val chanSavedReplyLocalSource: ChanSavedReplyLocalSource,
+    val chanPostHideLocalSource: ChanPostHideLocalSource
+  )
+
+  private class BenchmarkResult(
+    val queries: Int,
+    val transactions: Int
+  )
+
+  companion object {
+    private const val SITE_NAME = "test-site"
+    private const val BOARD_CODE = "g"
+
+    private const val BENCHMARK_THREADS_COUNT = 50
+    private const val BENCHMARK_POSTS_PER_THREAD = 300
+  }
+
+}
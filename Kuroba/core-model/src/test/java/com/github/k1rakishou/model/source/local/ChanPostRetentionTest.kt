@@ -0,0 +1,342 @@
+package com.github.k1rakishou.model.source.local
+
+import androidx.room.withTransaction
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.entity.chan.thread.ChanThreadRetentionProgressEntity
+import com.github.k1rakishou.test_shared.Benchmarks
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Checks that the old posts/threads deletion deletes the oldest threads first, never deletes
+ * bookmarked or downloaded threads and continues an interrupted deletion pass from where it stopped.
+ * The benchmark (only with -Pbenchmarks) prints how fast a database with millions of posts is cleaned
+ * up and for how long the database write lock is held at most (-Dretention.benchmark.posts to change
+ * the amount of posts).
+ * */
+@RunWith(RobolectricTestRunner::class)
+class ChanPostRetentionTest {
+  private lateinit var database: KurobaDatabase
+  private lateinit var chanPostLocalSource: ChanPostLocalSource
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+
+    database = TestDatabaseModuleComponent().provideInMemoryKurobaDatabase()
+    chanPostLocalSource = ChanPostLocalSource(database)
+  }
+
+  @Test
+  fun `posts of the oldest not protected threads are deleted first`() {
+    runBlocking(Dispatchers.Default) {
+      // Thread with id N has lastModified == THREADS_COUNT - N so the last inserted threads are the oldest
+      seedDatabase(threadsCount = 10, postsPerThread = 10, lastModified = { threadId -> 10L - threadId })
+      bookmarkThread(threadId = 10)
+      downloadThread(threadId = 9)
+
+      val deletedCount = runRetentionPass(ChanThreadRetentionProgressEntity.Phase.Posts, toDeleteCount = 18)
+
+      // Threads 10 and 9 are protected so posts of 8 and 7 are deleted
+      assertEquals(18, deletedCount)
+      assertEquals(listOf(1L, 1L), listOf(7L, 8L).map { threadId -> countThreadPosts(threadId) })
+      assertEquals(listOf(10L, 10L), listOf(9L, 10L).map { threadId -> countThreadPosts(threadId) })
+      assertEquals(10L, countThreadPosts(6L))
+      assertNull(getProgress(ChanThreadRetentionProgressEntity.Phase.Posts))
+    }
+  }
+
+  @Test
+  fun `only threads without posts other than the original post are deleted`() {
+    runBlocking(Dispatchers.Default) {
+      seedDatabase(threadsCount = 10, postsPerThread = 5, lastModified = { threadId -> threadId })
+      bookmarkThread(threadId = 1)
+
+      runRetentionPass(ChanThreadRetentionProgressEntity.Phase.Posts, toDeleteCount = 16)
+      val deletedCount = runRetentionPass(ChanThreadRetentionProgressEntity.Phase.Threads, toDeleteCount = 10)
+
+      // Threads 2-5 lost their posts (thread 1 is bookmarked), the rest of the threads still have
+      // their posts
+      assertEquals(4, deletedCount)
+      assertEquals(listOf(1L) + (6L..10L).toList(), selectThreadIds())
+    }
+  }
+
+  @Test
+  fun `batches report the threads they deleted posts or threads of`() {
+    runBlocking(Dispatchers.Default) {
+      seedDatabase(threadsCount = 5, postsPerThread = 3, lastModified = { threadId -> threadId })
+
+      val postsProgress = database.withTransaction {
+        chanPostLocalSource.startRetentionPass(ChanThreadRetentionProgressEntity.Phase.Posts, toDeleteCount = 4)
+      }
+      val postsBatchResult = database.withTransaction { chanPostLocalSource.deleteOldPostsBatch(postsProgress) }
+
+      // Snapshots of these threads have to be deleted too
+      assertEquals(listOf(threadDescriptor(1000L), threadDescriptor(2000L)), postsBatchResult.threadDescriptors)
+
+      val threadsProgress = database.withTransaction {
+        chanPostLocalSource.startRetentionPass(ChanThreadRetentionProgressEntity.Phase.Threads, toDeleteCount = 2)
+      }
+      val threadsBatchResult = database.withTransaction { chanPostLocalSource.deleteOldThreadsBatch(threadsProgress) }
+
+      assertEquals(listOf(threadDescriptor(1000L), threadDescriptor(2000L)), threadsBatchResult.threadDescriptors)
+      assertEquals((3L..5L).toList(), selectThreadIds())
+    }
+  }
+
+  @Test
+  fun `interrupted deletion pass continues from where it stopped`() {
+    runBlocking(Dispatchers.Default) {
+      // A lot of threads with the same lastModified to check that the cursor handles ties
+      seedDatabase(threadsCount = 500, postsPerThread = 20, lastModified = { threadId -> threadId / 100 })
+
+      val toDeleteCount = 400 * 19
+      var progress = database.withTransaction {
+        chanPostLocalSource.startRetentionPass(ChanThreadRetentionProgressEntity.Phase.Posts, toDeleteCount)
+      }
+
+      // First run, the app gets killed after two batches
+      repeat(2) {
+        progress = database.withTransaction { chanPostLocalSource.deleteOldPostsBatch(progress).progress!! }
+      }
+
+      val persistedProgress = getProgress(ChanThreadRetentionProgressEntity.Phase.Posts)
+      assertEquals(progress, persistedProgress)
+      assertTrue(persistedProgress!!.remainingToDelete < toDeleteCount)
+
+      // Next app run
+      chanPostLocalSource = ChanPostLocalSource(database)
+      var resumedProgress = getProgress(ChanThreadRetentionProgressEntity.Phase.Posts)
+      var deletedCount = toDeleteCount - resumedProgress!!.remainingToDelete
+
+      while (resumedProgress != null) {
+        val currentProgress = resumedProgress
+        val batchResult = database.withTransaction { chanPostLocalSource.deleteOldPostsBatch(currentProgress) }
+
+        deletedCount += batchResult.deletedCount
+        resumedProgress = batchResult.progress
+      }
+
+      assertEquals(toDeleteCount, deletedCount)
+      assertEquals(400, (1L..500L).count { threadId -> countThreadPosts(threadId) == 1L })
+      assertEquals(100, (401L..500L).count { threadId -> countThreadPosts(threadId) == 20L })
+    }
+  }
+
+  @Test
+  fun `benchmark old posts and threads deletion`() {
+    // Seeds millions of posts
+    Benchmarks.assumeEnabled()
+
+    runBlocking(Dispatchers.Default) {
+      val postsCount = System.getProperty("retention.benchmark.posts")?.toIntOrNull() ?: BENCHMARK_POSTS_COUNT
+      val threadsCount = postsCount / BENCHMARK_POSTS_PER_THREAD
+
+      val seedStart = System.currentTimeMillis()
+      seedDatabase(threadsCount, BENCHMARK_POSTS_PER_THREAD, lastModified = { threadId -> (threadId * 7919L) % 10_000L })
+      (1L..threadsCount step 50L).forEach { threadId -> bookmarkThread(threadId) }
+      (2L..threadsCount step 100L).forEach { threadId -> downloadThread(threadId) }
+      println("Seeded ${threadsCount} threads with ${postsCount} posts, took ${System.currentTimeMillis() - seedStart}ms")
+
+      benchmarkPhase(ChanThreadRetentionProgressEntity.Phase.Posts, toDeleteCount = postsCount / 4)
+      benchmarkPhase(ChanThreadRetentionProgressEntity.Phase.Threads, toDeleteCount = threadsCount / 4)
+    }
+  }
+
+  private suspend fun benchmarkPhase(
+    phase: ChanThreadRetentionProgressEntity.Phase,
+    toDeleteCount: Int
+  ) = coroutineScope {
+    // Somebody else (thread loads, bookmark updates, etc.) who needs the write lock every now and then
+    val writerRunning = AtomicBoolean(true)
+    val writer = async(Dispatchers.Default) {
+      var longestTransactionMs = 0L
+
+      while (writerRunning.get()) {
+        val start = System.currentTimeMillis()
+
+        database.withTransaction {
+          database.openHelper.writableDatabase.execSQL(
+            "UPDATE chan_thread SET unique_ips = unique_ips + 1 WHERE thread_id = 1"
+          )
+        }
+
+        longestTransactionMs = maxOf(longestTransactionMs, System.currentTimeMillis() - start)
+        delay(5)
+      }
+
+      return@async longestTransactionMs
+    }
+
+    var progress: ChanThreadRetentionProgressEntity? = database.withTransaction {
+      chanPostLocalSource.startRetentionPass(phase, toDeleteCount)
+    }
+
+    val start = System.currentTimeMillis()
+    var deletedCount = 0
+    var batchesCount = 0
+    var longestBatchMs = 0L
+
+    while (progress != null) {
+      val currentProgress: ChanThreadRetentionProgressEntity = progress
+      val batchStart = System.currentTimeMillis()
+
+      val batchResult = database.withTransaction {
+        when (phase) {
+          ChanThreadRetentionProgressEntity.Phase.Posts -> chanPostLocalSource.deleteOldPostsBatch(currentProgress)
+          ChanThreadRetentionProgressEntity.Phase.Threads -> chanPostLocalSource.deleteOldThreadsBatch(currentProgress)
+        }
+      }
+
+      longestBatchMs = maxOf(longestBatchMs, System.currentTimeMillis() - batchStart)
+      deletedCount += batchResult.deletedCount
+      ++batchesCount
+      progress = batchResult.progress
+    }
+
+    val tookMs = (System.currentTimeMillis() - start).coerceAtLeast(1L)
+    writerRunning.set(false)
+
+    println("${phase}: deleted ${deletedCount} rows in ${batchesCount} batches, took ${tookMs}ms, " +
+      "${deletedCount * 1000L / tookMs} rows/s, longest batch (write lock hold) ${longestBatchMs}ms, " +
+      "longest concurrent writer transaction ${writer.await()}ms")
+
+    assertTrue(deletedCount >= toDeleteCount)
+  }
+
+  private suspend fun runRetentionPass(phase: ChanThreadRetentionProgressEntity.Phase, toDeleteCount: Int): Int {
+    var progress: ChanThreadRetentionProgressEntity? = database.withTransaction {
+      chanPostLocalSource.startRetentionPass(phase, toDeleteCount)
+    }
+
+    var deletedCount = 0
+
+    while (progress != null) {
+      val currentProgress: ChanThreadRetentionProgressEntity = progress
+
+      val batchResult = database.withTransaction {
+        when (phase) {
+          ChanThreadRetentionProgressEntity.Phase.Posts -> chanPostLocalSource.deleteOldPostsBatch(currentProgress)
+          ChanThreadRetentionProgressEntity.Phase.Threads -> chanPostLocalSource.deleteOldThreadsBatch(currentProgress)
+        }
+      }
+
+      deletedCount += batchResult.deletedCount
+      progress = batchResult.progress
+    }
+
+    return deletedCount
+  }
+
+  private suspend fun getProgress(phase: ChanThreadRetentionProgressEntity.Phase): ChanThreadRetentionProgressEntity? {
+    return database.withTransaction { chanPostLocalSource.getRetentionProgress(phase) }
+  }
+
+  /**
+   * Threads get ids 1..[threadsCount], thread N has threadNo N * 1000 and posts N * 1000 (the
+   * original post), N * 1000 + 1, etc. Raw SQL because inserting millions of posts through the DAOs
+   * would take forever.
+   * */
+  private fun seedDatabase(threadsCount: Int, postsPerThread: Int, lastModified: (Long) -> Long) {
+    val db = database.openHelper.writableDatabase
+
+    db.beginTransaction()
+    try {
+      db.execSQL("INSERT INTO chan_site_id (site_name) VALUES ('test-site')")
+      db.execSQL("INSERT INTO chan_board_id (board_id, owner_site_name, board_code) VALUES (1, 'test-site', 'g')")
+
+      val insertThreadStatement = db.compileStatement("""
+        INSERT INTO chan_thread (thread_id, thread_no, owner_board_id, last_modified, catalog_replies_count,
+          catalog_images_count, unique_ips, sticky, closed, archived)
+        VALUES (?, ?, 1, ?, 0, 0, 0, 0, 0, 0)
+      """)
+
+      for (threadId in 1L..threadsCount) {
+        insertThreadStatement.bindLong(1, threadId)
+        insertThreadStatement.bindLong(2, threadId * 1000L)
+        insertThreadStatement.bindLong(3, lastModified(threadId))
+        insertThreadStatement.executeInsert()
+      }
+
+      db.execSQL("""
+        WITH RECURSIVE seq(n) AS (SELECT 0 UNION ALL SELECT n + 1 FROM seq WHERE n < ${threadsCount * postsPerThread - 1})
+        INSERT INTO chan_post_id (post_id, owner_thread_id, post_no, post_sub_no)
+        SELECT n + 1, n / ${postsPerThread} + 1, (n / ${postsPerThread} + 1) * 1000 + n % ${postsPerThread}, 0 FROM seq
+      """)
+
+      db.execSQL("""
+        INSERT INTO chan_post (chan_post_id, deleted, timestamp_seconds, name, poster_id, poster_id_color,
+          moderator_capcode, is_op, is_saved_reply, is_sage)
+        SELECT post_id, 0, post_no, 'Anonymous', NULL, 0, NULL, post_no % 1000 = 0, 0, 0 FROM chan_post_id
+      """)
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+  }
+
+  private fun bookmarkThread(threadId: Long) {
+    database.openHelper.writableDatabase.execSQL("""
+      INSERT INTO thread_bookmark (owner_thread_id, seen_posts_count, total_posts_count, last_viewed_post_no,
+        thread_last_post_no, title, thumbnail_url, state, created_on)
+      VALUES (${threadId}, 0, 0, 0, 0, NULL, NULL, 0, 0)
+    """)
+  }
+
+  private fun downloadThread(threadId: Long) {
+    database.openHelper.writableDatabase.execSQL("""
+      INSERT INTO thread_download_entity (owner_thread_database_id, site_name, board_code, thread_no,
+        download_media, status, created_on, thread_thumbnail_url, last_update_time, download_result_msg)
+      VALUES (${threadId}, 'test-site', 'g', ${threadId * 1000L}, 0, 0, 0, NULL, NULL, NULL)
+    """)
+  }
+
+  private fun threadDescriptor(threadNo: Long): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create("test-site", "g", threadNo)
+  }
+
+  private fun countThreadPosts(threadId: Long): Long {
+    return database.openHelper.readableDatabase
+      .query("SELECT COUNT(*) FROM chan_post_id WHERE owner_thread_id = ${threadId}")
+      .use { cursor ->
+        cursor.moveToFirst()
+        cursor.getLong(0)
+      }
+  }
+
+  private fun selectThreadIds(): List<Long> {
+    return database.openHelper.readableDatabase
+      .query("SELECT thread_id FROM chan_thread ORDER BY thread_id")
+      .use { cursor ->
+        val threadIds = mutableListOf<Long>()
+
+        while (cursor.moveToNext()) {
+          threadIds += cursor.getLong(0)
+        }
+
+        threadIds
+      }
+  }
+
+  companion object {
+    private const val BENCHMARK_POSTS_COUNT = 2_000_000
+    private const val BENCHMARK_POSTS_PER_THREAD = 100
+  }
+
+}
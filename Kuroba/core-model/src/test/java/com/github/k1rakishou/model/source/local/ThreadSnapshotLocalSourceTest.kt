@@ -0,0 +1,534 @@
+package com.github.k1rakishou.model.source.local
+
+import android.graphics.Color
+import android.graphics.Typeface
+import android.text.SpannableString
+import android.text.Spanned
+import android.text.style.StrikethroughSpan
+import android.text.style.StyleSpan
+import androidx.room.withTransaction
+import com.github.k1rakishou.core_spannable.AbsoluteSizeSpanHashed
+import com.github.k1rakishou.core_spannable.BackgroundColorIdSpan
+import com.github.k1rakishou.core_spannable.ForegroundColorIdSpan
+import com.github.k1rakishou.core_spannable.ForegroundColorSpanHashed
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpanType
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableType
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+import com.github.k1rakishou.model.KurobaDatabase
+import com.github.k1rakishou.model.TestDatabaseModuleComponent
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageType
+import com.github.k1rakishou.model.data.post.PostComment
+import com.github.k1rakishou.model.entity.chan.site.ChanSiteIdEntity
+import com.github.k1rakishou.model.mapper.ThreadSnapshotMapper
+import com.github.k1rakishou.test_shared.Benchmarks
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.shadows.ShadowLog
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+import kotlin.random.Random
+
+/**
+ * Checks that posts restored from a thread snapshot are the same as the posts restored from the
+ * database, that bad snapshots are rejected, that the least recently opened snapshots are evicted
+ * first. The benchmark (only with -Pbenchmarks) prints how long it takes to restore a thread from
+ * the database and from a snapshot.
+ * */
+@RunWith(RobolectricTestRunner::class)
+class ThreadSnapshotLocalSourceTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private lateinit var database: KurobaDatabase
+  private lateinit var chanPostLocalSource: ChanPostLocalSource
+  private lateinit var snapshotsDir: File
+
+  @Before
+  fun setUp() {
+    ShadowLog.stream = System.out
+    val testDatabaseModuleComponent = TestDatabaseModuleComponent()
+
+    database = testDatabaseModuleComponent.provideInMemoryKurobaDatabase()
+    chanPostLocalSource = ChanPostLocalSource(database)
+    snapshotsDir = temporaryFolder.newFolder("thread_snapshots")
+
+    runBlocking(Dispatchers.Default) {
+      database.chanSiteDao().insertDefaultSiteIdsOrIgnore(listOf(ChanSiteIdEntity(SITE_NAME)))
+    }
+  }
+
+  @Test
+  fun `posts restored from snapshot are the same as posts restored from database`() {
+    runBlocking(Dispatchers.Default) {
+      val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 1000L)
+      val posts = createThreadPosts(threadDescriptor, 200, Random(1337))
+      val snapshotLocalSource = createSnapshotLocalSource()
+
+      insertIntoDatabase(posts)
+      snapshotLocalSource.write(threadDescriptor, posts)
+
+      val postsFromDatabase = database.withTransaction { chanPostLocalSource.getThreadPosts(threadDescriptor) }
+      val postsFromSnapshot = snapshotLocalSource.read(threadDescriptor)
+
+      assertNotNull(postsFromSnapshot)
+      assertEquals(postsFromDatabase.size, postsFromSnapshot!!.size)
+
+      postsFromDatabase.forEachIndexed { index, postFromDatabase ->
+        assertSamePost(postFromDatabase, postsFromSnapshot[index])
+        assertEquals(posts[index].chanPostId, postsFromSnapshot[index].chanPostId)
+      }
+    }
+  }
+
+  @Test
+  fun `all span types survive snapshot round trip`() {
+    val spanInfoList = listOf(
+      spanInfo(ParcelableSpanType.ForegroundColorSpanType, ParcelableSpan.ForegroundColor(Color.RED)),
+      spanInfo(ParcelableSpanType.BackgroundColorSpanType, ParcelableSpan.BackgroundColor(Color.BLUE)),
+      spanInfo(ParcelableSpanType.ForegroundColorIdSpan, ParcelableSpan.ForegroundColorId(ChanThemeColorId.PostQuoteColor)),
+      spanInfo(ParcelableSpanType.BackgroundColorIdSpan, ParcelableSpan.BackgroundColorId(ChanThemeColorId.BackColorSecondary)),
+      spanInfo(ParcelableSpanType.StrikethroughSpanType, ParcelableSpan.Strikethrough),
+      spanInfo(ParcelableSpanType.StyleSpanType, ParcelableSpan.Style(Typeface.BOLD_ITALIC)),
+      spanInfo(ParcelableSpanType.TypefaceSpanType, ParcelableSpan.Typeface("monospace")),
+      spanInfo(ParcelableSpanType.AbsoluteSizeSpanHashed, ParcelableSpan.AbsoluteSize(42)),
+      spanInfo(ParcelableSpanType.Unknown, null),
+      postLinkableSpanInfo(PostLinkableType.Archive, PostLinkableValue.Archive("archived.moe", "g", 1, 2, 3)),
+      postLinkableSpanInfo(PostLinkableType.Board, PostLinkableValue.Board("g")),
+      postLinkableSpanInfo(PostLinkableType.Link, PostLinkableValue.Link("https://example.com/テスト")),
+      postLinkableSpanInfo(PostLinkableType.Quote, PostLinkableValue.Quote(12345, 1)),
+      postLinkableSpanInfo(PostLinkableType.Dead, PostLinkableValue.Dead(54321)),
+      postLinkableSpanInfo(PostLinkableType.Search, PostLinkableValue.Search("g", "rust thread")),
+      postLinkableSpanInfo(PostLinkableType.Spoiler, PostLinkableValue.Spoiler),
+      postLinkableSpanInfo(PostLinkableType.Thread, PostLinkableValue.ThreadOrPost("a", 100, 101, 0)),
+    )
+
+    val parcelableSpannableString = ParcelableSpannableString(
+      parcelableSpans = ParcelableSpans(ParcelableSpannableStringMapper.CURRENT_MAPPER_VERSION, spanInfoList),
+      text = "Some text with every span type there is ✓"
+    )
+
+    val byteArrayOutputStream = ByteArrayOutputStream()
+    ThreadSnapshotMapper.writeParcelableSpannableString(DataOutputStream(byteArrayOutputStream), parcelableSpannableString)
+
+    val reader = ThreadSnapshotMapper.SnapshotReader(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()))
+    val restored = ThreadSnapshotMapper.readParcelableSpannableString(reader)
+
+    assertFalse(reader.hasRemaining())
+    assertEquals(parcelableSpannableString.text, restored.text)
+    assertEquals(parcelableSpannableString.parcelableSpans.version, restored.parcelableSpans.version)
+    assertEquals(spanInfoList, restored.parcelableSpans.spanInfoList)
+  }
+
+  @Test
+  fun `corrupted snapshot is rejected and deleted`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 1000L)
+    val snapshotLocalSource = createSnapshotLocalSource()
+
+    snapshotLocalSource.write(threadDescriptor, createThreadPosts(threadDescriptor, 50, Random(1)))
+
+    val snapshotFile = snapshotsDir.listFiles()!!.single()
+    val bytes = snapshotFile.readBytes()
+    bytes[bytes.size / 2] = (bytes[bytes.size / 2] + 1).toByte()
+    snapshotFile.writeBytes(bytes)
+
+    assertNull(snapshotLocalSource.read(threadDescriptor))
+    assertFalse(snapshotFile.exists())
+  }
+
+  @Test
+  fun `snapshot with a different format version is rejected`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 1000L)
+    val snapshotLocalSource = createSnapshotLocalSource()
+
+    snapshotLocalSource.write(threadDescriptor, createThreadPosts(threadDescriptor, 50, Random(2)))
+
+    val snapshotFile = snapshotsDir.listFiles()!!.single()
+    val bytes = snapshotFile.readBytes()
+
+    // Format version goes right after the magic. Update the checksum too so that only the version
+    // check can reject it.
+    ByteBuffer.wrap(bytes).putInt(4, ThreadSnapshotMapper.FORMAT_VERSION + 1)
+    val crc32 = CRC32()
+    crc32.update(bytes, 0, bytes.size - 8)
+    ByteBuffer.wrap(bytes).putLong(bytes.size - 8, crc32.value)
+    snapshotFile.writeBytes(bytes)
+
+    assertNull(snapshotLocalSource.read(threadDescriptor))
+    assertFalse(snapshotFile.exists())
+  }
+
+  @Test
+  fun `snapshot of a different thread is rejected`() {
+    val threadDescriptor1 = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 1000L)
+    val threadDescriptor2 = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 2000L)
+
+    val bytes = ThreadSnapshotMapper.encode(threadDescriptor1, createThreadPosts(threadDescriptor1, 10, Random(3)))
+
+    assertTrue(ThreadSnapshotMapper.decode(threadDescriptor1, bytes).isNotEmpty())
+    assertTrue(runCatching { ThreadSnapshotMapper.decode(threadDescriptor2, bytes) }.isFailure)
+  }
+
+  @Test
+  fun `least recently opened snapshots are evicted first`() {
+    val threadDescriptors = (1001L..1003L).map { threadNo ->
+      ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, threadNo)
+    }
+
+    val postsByThread = threadDescriptors.associateWith { threadDescriptor ->
+      createThreadPosts(threadDescriptor, 100, Random(4))
+    }
+
+    val snapshotSize = postsByThread.maxOf { (threadDescriptor, posts) ->
+      ThreadSnapshotMapper.encode(threadDescriptor, posts).size
+    }
+
+    // Enough for two snapshots but not for three
+    val snapshotLocalSource = createSnapshotLocalSource(maxDiskSize = snapshotSize * 2L + snapshotSize / 2L)
+    val (thread1, thread2, thread3) = threadDescriptors
+
+    snapshotLocalSource.write(thread1, postsByThread[thread1]!!)
+    snapshotLocalSource.write(thread2, postsByThread[thread2]!!)
+    assertNotNull(snapshotLocalSource.read(thread1))
+
+    snapshotLocalSource.write(thread3, postsByThread[thread3]!!)
+
+    assertNull(snapshotLocalSource.read(thread2))
+    assertNotNull(snapshotLocalSource.read(thread1))
+    assertNotNull(snapshotLocalSource.read(thread3))
+    assertEquals(2, snapshotsDir.listFiles()!!.size)
+
+    snapshotLocalSource.delete(thread1)
+    assertNull(snapshotLocalSource.read(thread1))
+    assertEquals(1, snapshotsDir.listFiles()!!.size)
+  }
+
+  @Test
+  fun `benchmark thread restore`() {
+    Benchmarks.assumeEnabled()
+
+    runBlocking(Dispatchers.Default) {
+      val snapshotLocalSource = createSnapshotLocalSource()
+
+      THREAD_SIZES.forEachIndexed { index, postsCount ->
+        val threadDescriptor = ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, 100_000L * (index + 1))
+        val posts = createThreadPosts(threadDescriptor, postsCount, Random(postsCount))
+
+        insertIntoDatabase(posts)
+        snapshotLocalSource.write(threadDescriptor, posts)
+
+        val databasePath = suspend {
+          val restoredPosts = database.withTransaction { chanPostLocalSource.getThreadPosts(threadDescriptor) }
+          check(restoredPosts.size == postsCount)
+        }
+
+        val snapshotPath = suspend {
+          val restoredPosts = snapshotLocalSource.read(threadDescriptor)
+          check(restoredPosts?.size == postsCount)
+        }
+
+        repeat(WARMUP_ITERATIONS) {
+          databasePath()
+          snapshotPath()
+        }
+
+        val databaseMillis = measureAverageMillis(databasePath)
+        val snapshotMillis = measureAverageMillis(snapshotPath)
+        val snapshotSize = snapshotsDir.listFiles()!!.first { file -> file.name.contains(threadDescriptor.threadNo.toString()) }.length()
+
+        println("posts=${postsCount}, snapshotSize=${snapshotSize / 1024}KB, " +
+          "database=${"%.2f".format(databaseMillis)}ms, snapshot=${"%.2f".format(snapshotMillis)}ms")
+      }
+    }
+  }
+
+  private suspend fun measureAverageMillis(path: suspend () -> Unit): Double {
+    val start = System.nanoTime()
+    repeat(MEASURE_ITERATIONS) { path() }
+    return (System.nanoTime() - start) / 1_000_000.0 / MEASURE_ITERATIONS
+  }
+
+  private fun createSnapshotLocalSource(maxDiskSize: Long = 64L * 1024 * 1024): ThreadSnapshotLocalSource {
+    return ThreadSnapshotLocalSource(
+      isEnabled = true,
+      verboseLogs = false,
+      snapshotsDirProvider = { snapshotsDir },
+      maxDiskSize = maxDiskSize
+    )
+  }
+
+  private suspend fun insertIntoDatabase(posts: List<ChanPost>) {
+    database.withTransaction {
+      val threadDatabaseId = chanPostLocalSource.insertManyOriginalPosts(listOf(posts.first() as ChanOriginalPost)).single()
+      chanPostLocalSource.insertThreadPosts(threadDatabaseId, posts.drop(1))
+    }
+  }
+
+  private fun assertSamePost(expected: ChanPost, actual: ChanPost) {
+    val message = expected.postDescriptor.toString()
+
+    assertEquals(message, expected.javaClass, actual.javaClass)
+    assertEquals(message, expected.postDescriptor, actual.postDescriptor)
+    assertEquals(message, expected.timestamp, actual.timestamp)
+    assertEquals(message, expected.name, actual.name)
+    assertEquals(message, expected.posterId, actual.posterId)
+    assertEquals(message, expected.posterIdColor, actual.posterIdColor)
+    assertEquals(message, expected.moderatorCapcode, actual.moderatorCapcode)
+    assertEquals(message, expected.isSavedReply, actual.isSavedReply)
+    assertEquals(message, expected.isSage, actual.isSage)
+    assertEquals(message, expected.isDeleted, actual.isDeleted)
+    assertSameText(message, expected.postComment.originalComment(), actual.postComment.originalComment())
+    assertEquals(message, expected.postComment.originalUnparsedComment, actual.postComment.originalUnparsedComment)
+    assertEquals(message, expected.postComment.linkables.size, actual.postComment.linkables.size)
+    assertSameText(message, expected.subject, actual.subject)
+    assertSameText(message, expected.tripcode, actual.tripcode)
+    assertEquals(message, expected.postIcons, actual.postIcons)
+    assertEquals(message, expected.repliesTo, actual.repliesTo)
+
+    assertEquals(message, expected.postImages.size, actual.postImages.size)
+    expected.postImages.forEachIndexed { index, expectedImage ->
+      val actualImage = actual.postImages[index]
+
+      assertEquals(message, expectedImage.serverFilename, actualImage.serverFilename)
+      assertEquals(message, expectedImage.actualThumbnailUrl, actualImage.actualThumbnailUrl)
+      assertEquals(message, expectedImage.spoilerThumbnailUrl, actualImage.spoilerThumbnailUrl)
+      assertEquals(message, expectedImage.imageUrl, actualImage.imageUrl)
+      assertEquals(message, expectedImage.filename, actualImage.filename)
+      assertEquals(message, expectedImage.extension, actualImage.extension)
+      assertEquals(message, expectedImage.imageWidth, actualImage.imageWidth)
+      assertEquals(message, expectedImage.imageHeight, actualImage.imageHeight)
+      assertEquals(message, expectedImage.spoiler, actualImage.spoiler)
+      assertEquals(message, expectedImage.isInlined, actualImage.isInlined)
+      assertEquals(message, expectedImage.size, actualImage.size)
+      assertEquals(message, expectedImage.fileHash, actualImage.fileHash)
+      assertEquals(message, expectedImage.type, actualImage.type)
+      assertEquals(message, expectedImage.ownerPostDescriptor, actualImage.ownerPostDescriptor)
+    }
+
+    if (expected is ChanOriginalPost && actual is ChanOriginalPost) {
+      assertEquals(message, expected.catalogRepliesCount, actual.catalogRepliesCount)
+      assertEquals(message, expected.catalogImagesCount, actual.catalogImagesCount)
+      assertEquals(message, expected.uniqueIps, actual.uniqueIps)
+      assertEquals(message, expected.lastModified, actual.lastModified)
+      assertEquals(message, expected.sticky, actual.sticky)
+      assertEquals(message, expected.closed, actual.closed)
+      assertEquals(message, expected.archived, actual.archived)
+      assertEquals(message, expected.endless, actual.endless)
+    }
+  }
+
+  private fun assertSameText(message: String, expected: CharSequence?, actual: CharSequence?) {
+    assertEquals(message, expected?.toString(), actual?.toString())
+
+    val expectedSpans = ParcelableSpannableStringMapper.toParcelableSpannableString(expected)?.parcelableSpans?.spanInfoList
+    val actualSpans = ParcelableSpannableStringMapper.toParcelableSpannableString(actual)?.parcelableSpans?.spanInfoList
+    assertEquals(message, expectedSpans, actualSpans)
+  }
+
+  private fun createThreadPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    count: Int,
+    random: Random
+  ): List<ChanPost> {
+    return (0 until count).map { index ->
+      val postNo = threadDescriptor.threadNo + index
+      val postDescriptor = PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, postNo)
+
+      val postImages = (0 until random.nextInt(0, 3)).map { imageIndex ->
+        ChanPostImage(
+          serverFilename = "${postNo}${imageIndex}",
+          actualThumbnailUrl = "https://i.example.com/${BOARD_CODE}/${postNo}${imageIndex}s.jpg".toHttpUrl(),
+          spoilerThumbnailUrl = if (imageIndex == 0) null else "https://s.example.com/spoiler.png".toHttpUrl(),
+          imageUrl = "https://i.example.com/${BOARD_CODE}/${postNo}${imageIndex}.jpg".toHttpUrl(),
+          filename = if (random.nextBoolean()) null else randomWords(random, 2),
+          extension = "jpg",
+          imageWidth = random.nextInt(100, 4000),
+          imageHeight = random.nextInt(100, 4000),
+          spoiler = random.nextInt(10) == 0,
+          // Inlined images are neither stored in the database nor in snapshots
+          isInlined = imageIndex == 2,
+          fileSize = random.nextLong(1000, 4_000_000),
+          fileHash = if (random.nextBoolean()) null else "hash${postNo}",
+          type = if (imageIndex == 1) null else ChanPostImageType.values()[random.nextInt(ChanPostImageType.values().size)]
+        ).apply { setPostDescriptor(postDescriptor) }
+      }
+
+      val postIcons = if (random.nextInt(5) == 0) {
+        listOf(ChanPostHttpIcon("https://s.example.com/flags/${index % 50}.gif".toHttpUrl(), "Flag ${index % 50}"))
+      } else {
+        emptyList()
+      }
+
+      val repliesTo = (0 until random.nextInt(0, 4))
+        .filter { index > 0 }
+        .map { PostDescriptor.create(threadDescriptor, threadDescriptor.threadNo, threadDescriptor.threadNo + random.nextInt(index)) }
+        .toSet()
+
+      val postComment = PostComment(
+        originalComment = createComment(random),
+        originalUnparsedComment = if (random.nextBoolean()) null else "<span class=\"quote\">&gt;${randomWords(random, 5)}</span>",
+        linkables = emptyList()
+      )
+
+      val subject = if (index == 0 || random.nextInt(20) == 0) SpannableString(randomWords(random, 4)) else null
+      val tripcode = if (random.nextInt(10) == 0) "!!trip${index}" else null
+
+      if (index == 0) {
+        return@map ChanOriginalPost(
+          chanPostId = 0L,
+          postDescriptor = postDescriptor,
+          postImages = postImages,
+          postIcons = postIcons,
+          repliesTo = repliesTo,
+          timestamp = 1_600_000_000L + index,
+          postComment = postComment,
+          subject = subject,
+          tripcode = tripcode,
+          name = "Anonymous",
+          posterId = "id${index % 30}",
+          moderatorCapcode = null,
+          isSavedReply = false,
+          catalogRepliesCount = count - 1,
+          catalogImagesCount = count / 3,
+          uniqueIps = count / 4,
+          lastModified = 1_600_000_500L,
+          sticky = false,
+          closed = true,
+          archived = false,
+          endless = false,
+          isSage = false,
+          deleted = false,
+          posterIdColor = Color.CYAN
+        )
+      }
+
+      return@map ChanPost(
+        chanPostId = 0L,
+        postDescriptor = postDescriptor,
+        _postImages = postImages.toMutableList(),
+        postIcons = postIcons,
+        repliesTo = repliesTo,
+        timestamp = 1_600_000_000L + index,
+        postComment = postComment,
+        subject = subject,
+        tripcode = tripcode,
+        name = if (random.nextInt(10) == 0) randomWords(random, 1) else "Anonymous",
+        posterId = if (random.nextBoolean()) null else "id${index % 30}",
+        moderatorCapcode = if (random.nextInt(50) == 0) "mod" else null,
+        isSavedReply = random.nextInt(30) == 0,
+        isSage = random.nextInt(20) == 0,
+        deleted = random.nextInt(25) == 0,
+        posterIdColor = random.nextInt()
+      )
+    }
+  }
+
+  private fun createComment(random: Random): CharSequence {
+    val lines = (0 until random.nextInt(1, 12)).map {
+      when (random.nextInt(4)) {
+        0 -> ">>${random.nextLong(100_000_000L, 999_999_999L)}"
+        1 -> ">" + randomWords(random, random.nextInt(3, 20))
+        2 -> "https://example.com/" + randomWords(random, 1)
+        else -> randomWords(random, random.nextInt(5, 60))
+      }
+    }
+
+    val comment = SpannableString(lines.joinToString(separator = "\n"))
+    var offset = 0
+
+    for (line in lines) {
+      val end = offset + line.length
+
+      when {
+        line.startsWith(">>") -> {
+          comment.setSpan(ForegroundColorIdSpan(ChanThemeColorId.PostQuoteColor), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+          comment.setSpan(StyleSpan(Typeface.BOLD), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+        line.startsWith(">") -> {
+          comment.setSpan(ForegroundColorIdSpan(ChanThemeColorId.PostInlineQuoteColor), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+        line.startsWith("https") -> {
+          comment.setSpan(ForegroundColorSpanHashed(Color.BLUE), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+        line.length > 10 -> {
+          val styledEnd = offset + random.nextInt(1, line.length)
+          comment.setSpan(BackgroundColorIdSpan(ChanThemeColorId.BackColorSecondary), offset, styledEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+          comment.setSpan(AbsoluteSizeSpanHashed(random.nextInt(10, 20)), styledEnd, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+          comment.setSpan(StrikethroughSpan(), offset, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        }
+      }
+
+      offset = end + 1
+    }
+
+    return comment
+  }
+
+  private fun randomWords(random: Random, count: Int): String {
+    return (0 until count).joinToString(separator = " ") { WORDS[random.nextInt(WORDS.size)] }
+  }
+
+  private fun spanInfo(type: ParcelableSpanType, parcelableSpan: ParcelableSpan?): ParcelableSpanInfo {
+    return ParcelableSpanInfo(
+      spanStart = type.value + 1,
+      spanEnd = type.value + 10,
+      flags = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE,
+      parcelableTypeRaw = type.value,
+      parcelableSpan = parcelableSpan
+    )
+  }
+
+  private fun postLinkableSpanInfo(type: PostLinkableType, postLinkableValue: PostLinkableValue): ParcelableSpanInfo {
+    return spanInfo(
+      type = ParcelableSpanType.PostLinkable,
+      parcelableSpan = ParcelableSpan.PostLinkable(
+        key = ">>${type.name}",
+        postLinkableTypeRaw = type.value,
+        postLinkableValue = postLinkableValue
+      )
+    )
+  }
+
+  companion object {
+    private const val SITE_NAME = "test-site"
+    private const val BOARD_CODE = "g"
+    private const val WARMUP_ITERATIONS = 2
+    private const val MEASURE_ITERATIONS = 5
+
+    private val THREAD_SIZES = listOf(300, 1500, 5000)
+
+    private val WORDS = listOf(
+      "the", "thread", "is", "dead", "bump", "anon", "kek", "what", "about", "this", "image",
+      "source", "please", "based", "wrong", "board", "nobody", "cares", "unironically",
+      "incomprehensibilities", "日本語", "テスト"
+    )
+  }
+
+}
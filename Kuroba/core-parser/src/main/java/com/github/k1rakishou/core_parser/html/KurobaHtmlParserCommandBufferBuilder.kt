@@ -4,6 +4,7 @@ import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
 
 class KurobaHtmlParserCommandBufferBuilder<T : KurobaHtmlParserCollector> {
   private val parserCommands = mutableListOf<KurobaParserCommand<T>>()
+  private var program: KurobaHtmlParserProgram<T>? = null
 
   fun start(
     builder: KurobaParserCommandBuilder<T>.() -> KurobaParserCommandBuilder<T>
@@ -17,11 +18,19 @@ class KurobaHtmlParserCommandBufferBuilder<T : KurobaHtmlParserCollector> {
   ): KurobaHtmlParserCommandBufferBuilder<T> {
     val commandGroup = builder(KurobaParserCommandBuilder(groupName)).build()
     parserCommands.addAll(commandGroup.innerCommands)
+    program = null
     return this
   }
 
-  fun build(): List<KurobaParserCommand<T>> {
-    return parserCommands
+  /**
+   * Compiles the commands into a [KurobaHtmlParserProgram]. The program is cached until new
+   * commands are added so it's fine to call this method multiple times.
+   * */
+  fun build(): KurobaHtmlParserProgram<T> {
+    program?.let { return it }
+
+    return KurobaHtmlParserProgram(parserCommands)
+      .also { newProgram -> program = newProgram }
   }
 
 }
\ No newline at end of file
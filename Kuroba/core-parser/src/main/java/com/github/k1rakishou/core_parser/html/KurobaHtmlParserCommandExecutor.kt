@@ -14,7 +14,6 @@ import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
 import com.github.k1rakishou.core_parser.html.commands.KurobaParserStepCommand
 import com.github.k1rakishou.core_parser.html.commands.KurobaPeekCollectorCommand
 import org.jsoup.nodes.Document
-import org.jsoup.nodes.Element
 import org.jsoup.nodes.Node
 import java.util.*
 
@@ -33,20 +32,39 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
     kurobaParserCommands: List<KurobaParserCommand<T>>,
     collector: T,
     url: String? = null
+  ) {
+    if (kurobaParserCommands.isEmpty()) {
+      parserState.clear()
+      return
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    val program = kurobaParserCommands as? KurobaHtmlParserProgram<T>
+      ?: KurobaHtmlParserProgram(kurobaParserCommands)
+
+    executeProgram(document, program, collector, url)
+  }
+
+  @Throws(HtmlParsingException::class)
+  fun executeProgram(
+    document: Document,
+    program: KurobaHtmlParserProgram<T>,
+    collector: T,
+    url: String? = null
   ) {
     parserState.clear()
 
-    if (kurobaParserCommands.isEmpty()) {
+    if (program.isEmpty()) {
       return
     }
 
-    executeCommandsInternal(document, kurobaParserCommands, collector, url)
+    executeProgramInternal(document, program, collector, url)
   }
 
   @SuppressLint("LongLogTag")
-  private fun executeCommandsInternal(
+  private fun executeProgramInternal(
     document: Document,
-    kurobaParserCommands: List<KurobaParserCommand<T>>,
+    kurobaParserCommands: KurobaHtmlParserProgram<T>,
     collector: T,
     url: String? = null
   ) {
@@ -130,34 +148,23 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
           ++commandIndex
         }
         is KurobaBeginLoopCommand<T> -> {
-          val parserLoopState = ParserLoopState(
-            // commandIndex + 1 because commandIndex is the KurobaBeginLoopCommand which we want
-            // to skip on the next iteration to avoid infinite loops
-            commandIndex + 1,
-            command.loopId,
-            command.matchables
-          )
-
-          parserState.parserLoopStack.push(parserLoopState)
-
+          // The loop start is resolved by the program, there is nothing to do here
           ++commandIndex
         }
         is KurobaEndLoopCommand<T> -> {
-          val parserLoopState = parserState.parserLoopStack.peek()
-
-          checkNotNull(parserLoopState) { "Empty loop stack!" }
-          check(command.loopId == parserLoopState.loopId) {
-            "Bad loopId! Expected=${command.loopId}, actual=${parserLoopState.loopId}"
+          val loopStartCommandIndex = kurobaParserCommands.jumpTarget(commandIndex)
+          check(loopStartCommandIndex != KurobaHtmlParserProgram.NO_JUMP) {
+            "Failed to find the beginning of the loop for loopId=${command.loopId}"
           }
 
+          val loopMatcher = checkNotNull(kurobaParserCommands.nodeMatcher(commandIndex))
           val node = nodes.getOrNull(nodeIndex)
 
-          if (node != null && tryMatchConditionMatchableWithNode(parserLoopState.predicateMatchables, node)) {
+          if (node != null && loopMatcher.matches(node)) {
             // continue loop
-            commandIndex = parserLoopState.loopStartCommandIndex
+            commandIndex = loopStartCommandIndex
           } else {
             // end loop
-            parserState.parserLoopStack.pop()
             ++commandIndex
           }
         }
@@ -166,11 +173,12 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
           var foundMatch = false
 
           parserState.successfullyExecutedConditions.remove(command.conditionId)
+          val conditionMatcher = checkNotNull(kurobaParserCommands.nodeMatcher(commandIndex))
 
           for (index in start until nodes.size) {
             val node = nodes[index]
 
-            if (tryMatchConditionMatchableWithNode(command.conditionMatchables, node)) {
+            if (conditionMatcher.matches(node)) {
               foundMatch = true
               break
             }
@@ -188,9 +196,9 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
           } else {
             nodeIndex = start
 
-            commandIndex = findEndOfConditionBlockOrThrow(
-              commandIndex,
+            commandIndex = endOfConditionBlockOrThrow(
               kurobaParserCommands,
+              commandIndex,
               command.conditionId
             )
           }
@@ -200,17 +208,12 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
             command.conditionId
           ).not()
 
-          // Increase commandIndex to skip current KurobaConditionElseBranchCommand. We need to do
-          // this is both cases when executing the else branch and when not.
-          // 1. When executing it we simply need to move to the next command.
-          // 2. When not executing, we need to increment it so that findEndOfConditionBlockOrThrow()
-          // won't return us the very same command we are currently at.
-          ++commandIndex
-
-          if (!shouldRunElseBranch) {
-            commandIndex = findEndOfConditionBlockOrThrow(
-              commandIndex,
+          if (shouldRunElseBranch) {
+            ++commandIndex
+          } else {
+            commandIndex = endOfConditionBlockOrThrow(
               kurobaParserCommands,
+              commandIndex,
               command.conditionId
             )
           }
@@ -223,57 +226,20 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
   }
 
   /**
-   * Searches for either KurobaConditionElseBranchCommand or KurobaEndConditionCommand and continues
-   * it's execution from there.
+   * Returns the index of either KurobaConditionElseBranchCommand or KurobaEndConditionCommand
+   * (pre-resolved by the program) to continue the execution from there.
    * */
-  private fun findEndOfConditionBlockOrThrow(
+  private fun endOfConditionBlockOrThrow(
+    program: KurobaHtmlParserProgram<T>,
     commandIndex: Int,
-    kurobaParserCommands: List<KurobaParserCommand<T>>,
     conditionId: Int
   ): Int {
-    for (index in commandIndex until kurobaParserCommands.size) {
-      val kurobaParserCommand = kurobaParserCommands[index]
-
-      if (kurobaParserCommand is KurobaConditionElseBranchCommand
-        && kurobaParserCommand.conditionId == conditionId
-      ) {
-        return index
-      }
-
-      if (kurobaParserCommand is KurobaEndConditionCommand
-        && kurobaParserCommand.conditionId == conditionId
-      ) {
-        return index
-      }
+    val jumpTarget = program.jumpTarget(commandIndex)
+    if (jumpTarget == KurobaHtmlParserProgram.NO_JUMP) {
+      throw HtmlParsingException("Failed to find end of condition for conditionId=$conditionId")
     }
 
-    throw HtmlParsingException("Failed to find end of condition for conditionId=$conditionId")
-  }
-
-  private fun tryMatchConditionMatchableWithNode(
-    conditionMatchables: List<Matchable>,
-    node: Node
-  ): Boolean {
-    for (conditionMatchable in conditionMatchables) {
-      when (conditionMatchable) {
-        is PatternMatchable -> {
-          if (!conditionMatchable.matcher.matches(node.attr(conditionMatchable.attrName))) {
-            return false
-          }
-        }
-        is TagMatchable -> {
-          if (node !is Element) {
-            return false
-          }
-
-          if (!conditionMatchable.matcher.matches(node)) {
-            return false
-          }
-        }
-      }
-    }
-
-    return true
+    return jumpTarget
   }
 
   data class ParserNestingState(
@@ -281,19 +247,11 @@ class KurobaHtmlParserCommandExecutor<T : KurobaHtmlParserCollector>(
     val nodes: List<Node>
   )
 
-  data class ParserLoopState(
-    val loopStartCommandIndex: Int,
-    val loopId: Int,
-    val predicateMatchables: List<Matchable>
-  )
-
   class ParserState(
     val parserStateStack: Stack<ParserNestingState> = Stack<ParserNestingState>(),
-    val parserLoopStack: Stack<ParserLoopState> = Stack<ParserLoopState>(),
     val successfullyExecutedConditions: MutableSet<Int> = mutableSetOf()
   ) {
     fun clear() {
-      parserLoopStack.clear()
       parserStateStack.clear()
       successfullyExecutedConditions.clear()
     }
@@ -0,0 +1,196 @@
+package com.github.k1rakishou.core_parser.html
+
+import com.github.k1rakishou.core_parser.html.commands.KurobaBeginConditionCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaBeginLoopCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaConditionElseBranchCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaEndConditionCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaEndLoopCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+
+/**
+ * An immutable, pre-processed version of a command buffer. All the jumps (else/end of conditions
+ * and loop back-edges) are resolved once when the program is created so the executor doesn't need
+ * to scan the command list or to keep a loop stack at runtime, and all condition/loop predicates
+ * are turned into [KurobaNodeMatcher]s.
+ *
+ * The program is still a [List] of commands so it can be passed anywhere a command buffer is
+ * expected. Since the commands may capture per-request state (extractor lambdas) programs are
+ * cached per command buffer and not shared globally.
+ * */
+class KurobaHtmlParserProgram<T : KurobaHtmlParserCollector>(
+  commands: List<KurobaParserCommand<T>>
+) : List<KurobaParserCommand<T>> by ArrayList(commands) {
+  private val jumpTable = IntArray(size) { NO_JUMP }
+  private val nodeMatchers = arrayOfNulls<KurobaNodeMatcher>(size)
+
+  init {
+    resolveJumps()
+  }
+
+  /**
+   * For [KurobaBeginConditionCommand] - index of the else branch or the end of the condition.
+   * For [KurobaConditionElseBranchCommand] - index of the end of the condition.
+   * For [KurobaEndLoopCommand] - index of the first command of the loop body.
+   * Otherwise (or when the jump target could not be found) [NO_JUMP].
+   * */
+  fun jumpTarget(commandIndex: Int): Int = jumpTable[commandIndex]
+
+  /**
+   * Matcher for [KurobaBeginConditionCommand] and [KurobaEndLoopCommand] (which uses the predicate
+   * of the corresponding [KurobaBeginLoopCommand]), null for every other command.
+   * */
+  internal fun nodeMatcher(commandIndex: Int): KurobaNodeMatcher? = nodeMatchers[commandIndex]
+
+  private fun resolveJumps() {
+    // Pairs of (loopId, index of KurobaBeginLoopCommand)
+    val loopStack = ArrayList<Pair<Int, Int>>()
+
+    for (index in indices) {
+      when (val command = this[index]) {
+        is KurobaBeginConditionCommand<T> -> {
+          jumpTable[index] = findEndOfConditionBlock(index + 1, command.conditionId)
+          nodeMatchers[index] = KurobaNodeMatcher(command.conditionMatchables)
+        }
+        is KurobaConditionElseBranchCommand<T> -> {
+          jumpTable[index] = findEndOfConditionBlock(index + 1, command.conditionId)
+        }
+        is KurobaBeginLoopCommand<T> -> {
+          loopStack += Pair(command.loopId, index)
+        }
+        is KurobaEndLoopCommand<T> -> {
+          val (loopId, beginLoopIndex) = loopStack.removeLastOrNull()
+            ?: continue
+
+          if (loopId != command.loopId) {
+            // Let the executor throw when (and if) it reaches this command
+            continue
+          }
+
+          val beginLoopCommand = this[beginLoopIndex] as KurobaBeginLoopCommand<T>
+
+          // beginLoopIndex + 1 because we want to skip the KurobaBeginLoopCommand on the next
+          // iteration
+          jumpTable[index] = beginLoopIndex + 1
+          nodeMatchers[index] = KurobaNodeMatcher(beginLoopCommand.matchables)
+        }
+        else -> {
+          // no-op
+        }
+      }
+    }
+  }
+
+  /**
+   * Searches for either KurobaConditionElseBranchCommand or KurobaEndConditionCommand.
+   * */
+  private fun findEndOfConditionBlock(startIndex: Int, conditionId: Int): Int {
+    for (index in startIndex until size) {
+      val command = this[index]
+
+      if (command is KurobaConditionElseBranchCommand && command.conditionId == conditionId) {
+        return index
+      }
+
+      if (command is KurobaEndConditionCommand && command.conditionId == conditionId) {
+        return index
+      }
+    }
+
+    return NO_JUMP
+  }
+
+  companion object {
+    const val NO_JUMP = -1
+  }
+}
+
+/**
+ * A specialized version of a list of [Matchable]s:
+ * - [KurobaMatcher.PatternMatcher.KurobaAlwaysAcceptMatcher]s and [KurobaMatcher.TagMatcher.KurobaAnyTagMatcher]s
+ * are dropped (the latter only requires the node to be an [Element]).
+ * - Pattern checks are grouped by attribute name so that every attribute is only read once.
+ * - Elements without attributes skip attribute lookups altogether since every attribute value is
+ * an empty string for them.
+ * */
+internal class KurobaNodeMatcher(matchables: List<Matchable>) {
+  private val attrNames: Array<String>
+  private val attrPatterns: Array<Array<KurobaMatcher.PatternMatcher>>
+  private val tagMatchers: Array<KurobaMatcher.TagMatcher>
+  private val requiresElement: Boolean
+  private val patternsMatchEmptyValue: Boolean
+
+  init {
+    val patternsByAttrName = LinkedHashMap<String, MutableList<KurobaMatcher.PatternMatcher>>()
+    val tags = ArrayList<KurobaMatcher.TagMatcher>()
+    var hasTagMatchables = false
+
+    for (matchable in matchables) {
+      when (matchable) {
+        is PatternMatchable -> {
+          if (matchable.matcher is KurobaMatcher.PatternMatcher.KurobaAlwaysAcceptMatcher) {
+            continue
+          }
+
+          patternsByAttrName.getOrPut(matchable.attrName) { ArrayList(1) } += matchable.matcher
+        }
+        is TagMatchable -> {
+          hasTagMatchables = true
+
+          if (matchable.matcher is KurobaMatcher.TagMatcher.KurobaAnyTagMatcher) {
+            continue
+          }
+
+          tags += matchable.matcher
+        }
+      }
+    }
+
+    attrNames = patternsByAttrName.keys.toTypedArray()
+    attrPatterns = patternsByAttrName.values.map { patterns -> patterns.toTypedArray() }.toTypedArray()
+    tagMatchers = tags.toTypedArray()
+    requiresElement = hasTagMatchables
+    patternsMatchEmptyValue = attrPatterns.all { patterns -> patterns.all { pattern -> pattern.matches("") } }
+  }
+
+  fun matches(node: Node): Boolean {
+    if (requiresElement && node !is Element) {
+      return false
+    }
+
+    if (!matchesPatterns(node)) {
+      return false
+    }
+
+    for (tagMatcher in tagMatchers) {
+      if (!tagMatcher.matches(node as Element)) {
+        return false
+      }
+    }
+
+    return true
+  }
+
+  private fun matchesPatterns(node: Node): Boolean {
+    if (attrNames.isEmpty()) {
+      return true
+    }
+
+    if (node is Element && node.attributesSize() == 0) {
+      return patternsMatchEmptyValue
+    }
+
+    for (index in attrNames.indices) {
+      val attrValue = node.attr(attrNames[index])
+
+      for (pattern in attrPatterns[index]) {
+        if (!pattern.matches(attrValue)) {
+          return false
+        }
+      }
+    }
+
+    return true
+  }
+}
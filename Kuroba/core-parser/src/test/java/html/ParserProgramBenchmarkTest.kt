@@ -0,0 +1,346 @@
+package html
+
+import android.util.Log
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCollector
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandBufferBuilder
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserCommandExecutor
+import com.github.k1rakishou.core_parser.html.KurobaHtmlParserUtils
+import com.github.k1rakishou.core_parser.html.KurobaMatcher
+import com.github.k1rakishou.core_parser.html.Matchable
+import com.github.k1rakishou.core_parser.html.PatternMatchable
+import com.github.k1rakishou.core_parser.html.TagMatchable
+import com.github.k1rakishou.core_parser.html.commands.KurobaBeginConditionCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaBeginLoopCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaBreakpointCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaCommandPopState
+import com.github.k1rakishou.core_parser.html.commands.KurobaCommandPushState
+import com.github.k1rakishou.core_parser.html.commands.KurobaConditionElseBranchCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaEndConditionCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaEndLoopCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaParserCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaParserStepCommand
+import com.github.k1rakishou.core_parser.html.commands.KurobaPeekCollectorCommand
+import com.github.k1rakishou.test_shared.Benchmarks
+import junit.framework.Assert.assertEquals
+import org.jsoup.Jsoup
+import org.jsoup.nodes.Document
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.powermock.core.classloader.annotations.PrepareForTest
+import org.powermock.modules.junit4.PowerMockRunner
+import java.util.*
+import java.util.regex.Pattern
+
+/**
+ * Compares the pages/sec of the precompiled [com.github.k1rakishou.core_parser.html.KurobaHtmlParserProgram]
+ * with the old interpreter (which resolved jumps and matched predicates at runtime) on a
+ * synthetic thread page (only with -Pbenchmarks). Also makes sure that both of them produce the same
+ * results.
+ * */
+@RunWith(PowerMockRunner::class)
+@PrepareForTest(value = [Log::class])
+class ParserProgramBenchmarkTest : BaseHtmlParserTest() {
+  private val commandBuffer = KurobaHtmlParserCommandBufferBuilder<PostsCollector>()
+    .start {
+      html()
+
+      nest {
+        body()
+
+        nest {
+          div(matchableBuilderFunc = { id(KurobaMatcher.PatternMatcher.stringEquals("thread")) })
+
+          nest {
+            loop {
+              div(
+                matchableBuilderFunc = {
+                  className(KurobaMatcher.PatternMatcher.stringEquals("post"))
+                    .id(KurobaMatcher.PatternMatcher.patternMatch(Pattern.compile("p\\d+")))
+                },
+                extractorFunc = { node, _, collector -> collector.postIds += node.attr("id") }
+              )
+
+              nest {
+                span(
+                  matchableBuilderFunc = { className(KurobaMatcher.PatternMatcher.stringEquals("name")) },
+                  extractorFunc = { node, _, collector -> collector.names += node.wholeText() }
+                )
+
+                executeIfElse(
+                  predicate = { className(KurobaMatcher.PatternMatcher.stringEquals("subject")) },
+                  ifBranchBuilder = {
+                    span(
+                      matchableBuilderFunc = { className(KurobaMatcher.PatternMatcher.stringEquals("subject")) },
+                      extractorFunc = { node, _, collector -> collector.subjects += node.wholeText() }
+                    )
+                  },
+                  elseBranchBuilder = {
+                    peekCollector { collector -> collector.subjects += "" }
+                  }
+                )
+
+                executeIf(predicate = { tag(KurobaMatcher.TagMatcher.tagWithNameAttributeMatcher("img")) }) {
+                  tag(
+                    tagName = "img",
+                    matchableBuilderFunc = { attr("src", KurobaMatcher.PatternMatcher.alwaysAccept()) },
+                    extractorFunc = { node, _, collector -> collector.images += node.attr("src") }
+                  )
+                }
+
+                tag(
+                  tagName = "blockquote",
+                  matchableBuilderFunc = { className(KurobaMatcher.PatternMatcher.stringEquals("comment")) },
+                  extractorFunc = { node, _, collector -> collector.comments += node.wholeText() }
+                )
+              }
+            }
+          }
+        }
+      }
+    }
+    .build()
+
+  @Before
+  fun setup() {
+    setupLogging("ParserProgramBenchmarkTest")
+  }
+
+  @Test
+  fun `precompiled program produces the same results as the old interpreter`() {
+    val document = Jsoup.parse(generateThreadPage(POSTS_COUNT))
+
+    val newResult = PostsCollector()
+    KurobaHtmlParserCommandExecutor<PostsCollector>()
+      .executeCommands(document, commandBuffer, newResult)
+
+    val oldResult = PostsCollector()
+    LegacyCommandExecutor<PostsCollector>()
+      .executeCommands(document, ArrayList(commandBuffer), oldResult)
+
+    assertEquals(POSTS_COUNT, newResult.postIds.size)
+    assertEquals(POSTS_COUNT / 3 + 1, newResult.subjects.count { subject -> subject.isNotEmpty() })
+    assertEquals(oldResult, newResult)
+  }
+
+  @Test
+  fun `compare precompiled program with the old interpreter`() {
+    Benchmarks.assumeEnabled()
+
+    val document = Jsoup.parse(generateThreadPage(POSTS_COUNT))
+    val legacyExecutor = LegacyCommandExecutor<PostsCollector>()
+    val executor = KurobaHtmlParserCommandExecutor<PostsCollector>()
+    val legacyCommands = ArrayList(commandBuffer)
+
+    val oldPagesPerSec = measurePagesPerSec {
+      legacyExecutor.executeCommands(document, legacyCommands, PostsCollector())
+    }
+    val newPagesPerSec = measurePagesPerSec {
+      executor.executeCommands(document, commandBuffer, PostsCollector())
+    }
+
+    println("ParserProgramBenchmarkTest posts per page: $POSTS_COUNT, " +
+      "old interpreter: ${"%.1f".format(oldPagesPerSec)} pages/sec, " +
+      "precompiled program: ${"%.1f".format(newPagesPerSec)} pages/sec")
+  }
+
+  private fun measurePagesPerSec(parsePage: () -> Unit): Double {
+    repeat(WARMUP_ITERATIONS) { parsePage() }
+
+    val start = System.nanoTime()
+    repeat(MEASURE_ITERATIONS) { parsePage() }
+    val elapsedNanos = System.nanoTime() - start
+
+    return MEASURE_ITERATIONS / (elapsedNanos / 1_000_000_000.0)
+  }
+
+  private fun generateThreadPage(postsCount: Int): String {
+    return buildString {
+      appendLine("<html><head><title>Benchmark</title></head><body>")
+      appendLine("<div id=\"thread\">")
+
+      for (index in 0 until postsCount) {
+        appendLine("<div class=\"post\" id=\"p$index\">")
+        appendLine("<span class=\"name\">Anonymous $index</span>")
+
+        if (index % 3 == 0) {
+          appendLine("<span class=\"subject\">Subject $index</span>")
+        }
+
+        if (index % 2 == 0) {
+          appendLine("<img src=\"https://example.com/$index.jpg\">")
+        }
+
+        appendLine("<blockquote class=\"comment\">Comment number $index <br> second line</blockquote>")
+        appendLine("</div>")
+      }
+
+      appendLine("</div>")
+      appendLine("</body></html>")
+    }
+  }
+
+  data class PostsCollector(
+    val postIds: MutableList<String> = mutableListOf(),
+    val names: MutableList<String> = mutableListOf(),
+    val subjects: MutableList<String> = mutableListOf(),
+    val images: MutableList<String> = mutableListOf(),
+    val comments: MutableList<String> = mutableListOf()
+  ) : KurobaHtmlParserCollector
+
+  /**
+   * The interpreter as it was before the commands were compiled into programs. Only used as the
+   * baseline for the benchmark.
+   * */
+  private class LegacyCommandExecutor<T : KurobaHtmlParserCollector> {
+    private val parserStateStack = Stack<Pair<Int, List<Node>>>()
+    private val parserLoopStack = Stack<Triple<Int, Int, List<Matchable>>>()
+    private val successfullyExecutedConditions = mutableSetOf<Int>()
+
+    fun executeCommands(document: Document, commands: List<KurobaParserCommand<T>>, collector: T) {
+      parserStateStack.clear()
+      parserLoopStack.clear()
+      successfullyExecutedConditions.clear()
+
+      var commandIndex = 0
+      var nodeIndex = 0
+      var nodes = KurobaHtmlParserUtils.filterEmptyNodes(document.childNodes())
+
+      while (commandIndex < commands.size) {
+        when (val command = commands[commandIndex]) {
+          is KurobaBreakpointCommand<T> -> ++commandIndex
+          is KurobaPeekCollectorCommand<T> -> {
+            command.collectorAccessor(collector)
+            ++commandIndex
+          }
+          is KurobaParserStepCommand<T> -> {
+            var executed = false
+
+            for (index in nodeIndex until nodes.size) {
+              ++nodeIndex
+
+              if (command.executeStep(nodes[index], collector)) {
+                executed = true
+                break
+              }
+            }
+
+            check(executed) { "Failed to execute command: $command" }
+            ++commandIndex
+          }
+          is KurobaCommandPushState<T> -> {
+            parserStateStack.push(Pair(nodeIndex, nodes))
+            nodes = KurobaHtmlParserUtils.filterEmptyNodes(nodes[nodeIndex - 1].childNodes())
+            nodeIndex = 0
+            ++commandIndex
+          }
+          is KurobaCommandPopState<T> -> {
+            val (prevNodeIndex, prevNodes) = parserStateStack.pop()
+            nodeIndex = prevNodeIndex
+            nodes = prevNodes
+            ++commandIndex
+          }
+          is KurobaBeginLoopCommand<T> -> {
+            parserLoopStack.push(Triple(commandIndex + 1, command.loopId, command.matchables))
+            ++commandIndex
+          }
+          is KurobaEndLoopCommand<T> -> {
+            val (loopStartCommandIndex, loopId, matchables) = parserLoopStack.peek()
+            check(command.loopId == loopId)
+
+            val node = nodes.getOrNull(nodeIndex)
+            if (node != null && matches(matchables, node)) {
+              commandIndex = loopStartCommandIndex
+            } else {
+              parserLoopStack.pop()
+              ++commandIndex
+            }
+          }
+          is KurobaBeginConditionCommand<T> -> {
+            val start = nodeIndex
+            var foundMatch = false
+
+            successfullyExecutedConditions.remove(command.conditionId)
+
+            for (index in start until nodes.size) {
+              if (matches(command.conditionMatchables, nodes[index])) {
+                foundMatch = true
+                break
+              }
+
+              ++nodeIndex
+            }
+
+            if (foundMatch) {
+              ++commandIndex
+              successfullyExecutedConditions.add(command.conditionId)
+
+              if (command.resetNodeIndex) {
+                nodeIndex = start
+              }
+            } else {
+              nodeIndex = start
+              commandIndex = findEndOfConditionBlock(commandIndex, commands, command.conditionId)
+            }
+          }
+          is KurobaConditionElseBranchCommand<T> -> {
+            ++commandIndex
+
+            if (successfullyExecutedConditions.contains(command.conditionId)) {
+              commandIndex = findEndOfConditionBlock(commandIndex, commands, command.conditionId)
+            }
+          }
+          is KurobaEndConditionCommand<T> -> ++commandIndex
+        }
+      }
+    }
+
+    private fun findEndOfConditionBlock(
+      commandIndex: Int,
+      commands: List<KurobaParserCommand<T>>,
+      conditionId: Int
+    ): Int {
+      for (index in commandIndex until commands.size) {
+        val command = commands[index]
+
+        if (command is KurobaConditionElseBranchCommand && command.conditionId == conditionId) {
+          return index
+        }
+
+        if (command is KurobaEndConditionCommand && command.conditionId == conditionId) {
+          return index
+        }
+      }
+
+      throw IllegalStateException("Failed to find end of condition for conditionId=$conditionId")
+    }
+
+    private fun matches(matchables: List<Matchable>, node: Node): Boolean {
+      for (matchable in matchables) {
+        when (matchable) {
+          is PatternMatchable -> {
+            if (!matchable.matcher.matches(node.attr(matchable.attrName))) {
+              return false
+            }
+          }
+          is TagMatchable -> {
+            if (node !is Element || !matchable.matcher.matches(node)) {
+              return false
+            }
+          }
+        }
+      }
+
+      return true
+    }
+  }
+
+  companion object {
+    private const val POSTS_COUNT = 500
+    private const val WARMUP_ITERATIONS = 20
+    private const val MEASURE_ITERATIONS = 50
+  }
+
+}
@@ -369,6 +369,7 @@ public class ChanSettings {
     public static BooleanSetting headsetDefaultMuted;
     public static BooleanSetting videoAlwaysResetToStart;
     public static IntegerSetting mediaViewerMaxOffscreenPages;
+    public static IntegerSetting mediaViewerPrefetchItemsAhead;
     public static BooleanSetting mediaViewerAutoSwipeAfterDownload;
     public static BooleanSetting mediaViewerDrawBehindNotch;
     public static BooleanSetting mediaViewerSoundPostsEnabled;
@@ -402,6 +403,7 @@ public class ChanSettings {
     public static BooleanSetting okHttpAllowHttp2;
     public static BooleanSetting okHttpAllowIpv6;
     public static BooleanSetting okHttpUseDnsOverHttps;
+    public static BooleanSetting threadSnapshotsEnabled;
     public static BooleanSetting cloudflareForcePreload;
     public static BooleanSetting prefetchMedia;
     public static BooleanSetting showPrefetchLoadingIndicator;
@@ -611,6 +613,7 @@ public class ChanSettings {
             headsetDefaultMuted = new BooleanSetting(provider, "preference_headset_default_muted", true);
             videoAlwaysResetToStart = new BooleanSetting(provider, "preference_video_always_reset_to_start", false);
             mediaViewerMaxOffscreenPages = new IntegerSetting(provider, "preference_media_viewer_max_offscreen_pages", 1);
+            mediaViewerPrefetchItemsAhead = new IntegerSetting(provider, "preference_media_viewer_prefetch_items_ahead", 3);
             mediaViewerAutoSwipeAfterDownload = new BooleanSetting(provider, "preference_media_viewer_auto_swipe_after_download", false);
             mediaViewerDrawBehindNotch = new BooleanSetting(provider, "preference_media_viewer_draw_behind_notch", true);
             mediaViewerSoundPostsEnabled = new BooleanSetting(provider, "preference_media_viewer_sound_posts_enabled", false);
@@ -650,6 +653,7 @@ public class ChanSettings {
             okHttpAllowHttp2 = new BooleanSetting(provider, "ok_http_allow_http_2", true);
             okHttpAllowIpv6 = new BooleanSetting(provider, "ok_http_allow_ipv6", false);
             okHttpUseDnsOverHttps = new BooleanSetting(provider, "ok_http_use_dns_over_https", false);
+            threadSnapshotsEnabled = new BooleanSetting(provider, "thread_snapshots_enabled", false);
             prefetchMedia = new BooleanSetting(provider, "preference_auto_load_thread", false);
             showPrefetchLoadingIndicator = new BooleanSetting(provider, "show_prefetch_loading_indicator", false);
             cloudflareForcePreload = new BooleanSetting(provider, "cloudflare_force_preload", false);
@@ -787,6 +791,23 @@ public class ChanSettings {
         return count;
     }
 
+    public static int mediaViewerPrefetchItemsAheadCount() {
+        if (isLowRamDevice()) {
+            return 0;
+        }
+
+        int count = ChanSettings.mediaViewerPrefetchItemsAhead.get();
+        if (count < 0) {
+            count = 0;
+        }
+
+        if (count > 10) {
+            count = 10;
+        }
+
+        return count;
+    }
+
     public static boolean isLowRamDevice() {
         if (isLowRamDeviceForced.get()) {
             return true;
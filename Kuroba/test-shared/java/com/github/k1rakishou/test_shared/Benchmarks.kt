@@ -0,0 +1,16 @@
+package com.github.k1rakishou.test_shared
+
+import org.junit.Assume
+
+/**
+ * Benchmark tests only print the numbers and take a while so they are skipped unless requested with
+ * "./gradlew test -Pbenchmarks" (see the root build.gradle).
+ * */
+object Benchmarks {
+
+  @JvmStatic
+  fun assumeEnabled() {
+    Assume.assumeTrue("Benchmarks are only run with -Pbenchmarks", System.getProperty("benchmarks") != null)
+  }
+
+}